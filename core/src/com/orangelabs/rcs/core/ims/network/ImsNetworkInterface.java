@@ -25,18 +25,20 @@ import java.net.UnknownHostException;
 
 import javax2.sip.ListeningPoint;
 
-import org.xbill.DNS.ExtendedResolver;
 import org.xbill.DNS.Lookup;
 import org.xbill.DNS.NAPTRRecord;
 import org.xbill.DNS.Record;
-import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.Resolver;
 import org.xbill.DNS.SRVRecord;
+import org.xbill.DNS.TTL;
 import org.xbill.DNS.TextParseException;
 import org.xbill.DNS.Type;
 
 import com.orangelabs.rcs.core.CoreException;
 import com.orangelabs.rcs.core.access.NetworkAccess;
 import com.orangelabs.rcs.core.ims.ImsModule;
+import com.orangelabs.rcs.core.ims.network.dns.DnsCache;
+import com.orangelabs.rcs.core.ims.network.dns.DnsResolver;
 import com.orangelabs.rcs.core.ims.network.registration.GibaRegistrationProcedure;
 import com.orangelabs.rcs.core.ims.network.registration.HttpDigestRegistrationProcedure;
 import com.orangelabs.rcs.core.ims.network.registration.RegistrationManager;
@@ -68,6 +70,7 @@ public abstract class ImsNetworkInterface {
     public class DnsResolvedFields {
         public String ipAddress = null;
         public int port = -1;
+        public long ttl = 0;
 
         public DnsResolvedFields(String ipAddress, int port) {
             this.ipAddress = ipAddress;
@@ -361,7 +364,7 @@ public abstract class ImsNetworkInterface {
      * @param type (Type.SRV or Type.NAPTR)
      * @return SRV records or null if no record
      */
-    private Record[] getDnsRequest(String domain, ExtendedResolver resolver, int type) {
+    private Record[] getDnsRequest(String domain, Resolver resolver, int type) {
         try {
             if (logger.isActivated()) {
                 if (type == Type.SRV) {
@@ -413,6 +416,68 @@ public abstract class ImsNetworkInterface {
         }
     }
     
+    /**
+     * Resolve the address of a domain in the address family of the network
+     * access, with parallel A and AAAA lookups when the family of the access
+     * is not known. The resolved address and its TTL are set in the resolved
+     * fields.
+     * 
+     * @param fields DNS resolved fields
+     * @param domain Domain
+     * @param resolver Resolver
+     */
+    private void setDnsAddress(DnsResolvedFields fields, String domain, DnsResolver resolver) {
+    	Record record = null;
+    	try {
+			if (logger.isActivated()) {
+				logger.debug("DNS A/AAAA lookup for " + domain);
+			}
+			// The SIP stack is bound to the local address, so the address of the
+			// other family would not be reachable
+			String localAddress = access.getIpAddress();
+			boolean preferIpv6 = (localAddress != null) && (localAddress.indexOf(':') != -1);
+			record = resolver.lookupAddress(domain, preferIpv6, localAddress == null);
+    	} catch(TextParseException e) {
+            if (logger.isActivated()) {
+                logger.debug("Not a valid DNS name");
+            }
+    	}
+    	if (record != null) {
+    		fields.ipAddress = DnsResolver.getAddress(record);
+    		fields.ttl = Math.min(fields.ttl, record.getTTL());
+    	} else {
+    		// Fallback to the system resolver, the result is not cached
+    		fields.ipAddress = getDnsA(domain);
+    		fields.ttl = 0;
+    	}
+    }
+
+    /**
+     * Is an address of the address family of the network access
+     * 
+     * @param address IP address
+     * @return Boolean
+     */
+    private boolean isReachableFamily(String address) {
+    	String localAddress = access.getIpAddress();
+    	if ((localAddress == null) || (address == null)) {
+    		return true;
+    	}
+    	return (localAddress.indexOf(':') != -1) == (address.indexOf(':') != -1);
+    }
+
+    /**
+     * Returns the DNS resolver of the IMS proxy address, using the DNS servers
+     * of the current network access
+     * 
+     * @return Resolver
+     */
+    protected DnsResolver getDnsResolver() {
+    	DnsResolver resolver = DnsResolver.getInstance();
+    	resolver.refresh();
+    	return resolver;
+    }
+
     /**
      * Get best DNS SRV record
      * 
@@ -468,10 +533,26 @@ public abstract class ImsNetworkInterface {
 			dnsResolvedFields = new DnsResolvedFields(null, imsProxyPort);
 		}
           
+        if (useDns) {
+        	// Check the cached resolution
+        	DnsCache.Entry cached = DnsCache.get(imsProxyAddr, imsProxyProtocol);
+        	if ((cached != null) && !isReachableFamily(cached.getAddress())) {
+        		// Resolved on an access of the other address family
+        		cached = null;
+        	}
+        	if (cached != null) {
+                if (logger.isActivated()) {
+                    logger.debug("Use cached resolution of IMS proxy address " + imsProxyAddr);
+                }
+                useDns = false;
+                dnsResolvedFields = new DnsResolvedFields(cached.getAddress(), cached.getPort());
+        	}
+        }
+        
         if (useDns) {
             // Set DNS resolver
-            ResolverConfig.refresh();
-            ExtendedResolver resolver = new ExtendedResolver(); 
+        	DnsResolver resolver = getDnsResolver();
+        	dnsResolvedFields.ttl = TTL.MAX_VALUE;
 
             // Resolve the IMS proxy configuration: first try to resolve via
             // a NAPTR query, then a SRV query and finally via A query
@@ -506,15 +587,18 @@ public abstract class ImsNetworkInterface {
                         logger.debug("NAPTR record: " + naptr.toString());
                     }
                     if ((naptr != null) && naptr.getService().equalsIgnoreCase(service)) {
+                    	dnsResolvedFields.ttl = Math.min(dnsResolvedFields.ttl, naptr.getTTL());
+
                         // DNS SRV lookup
 						Record[] srvRecords = getDnsRequest(naptr.getReplacement().toString(), resolver, Type.SRV);
                         if ((srvRecords != null) && (srvRecords.length > 0)) {
                             SRVRecord srvRecord = getBestDnsSRV(srvRecords);
-                            dnsResolvedFields.ipAddress = getDnsA(srvRecord.getTarget().toString());
+                            dnsResolvedFields.ttl = Math.min(dnsResolvedFields.ttl, srvRecord.getTTL());
+                            setDnsAddress(dnsResolvedFields, srvRecord.getTarget().toString(), resolver);
                             dnsResolvedFields.port = srvRecord.getPort();
                         } else {
                             // Direct DNS A lookup
-                            dnsResolvedFields.ipAddress = getDnsA(imsProxyAddr);
+                            setDnsAddress(dnsResolvedFields, imsProxyAddr, resolver);
                         }
                         resolved = true;
                     }
@@ -535,7 +619,8 @@ public abstract class ImsNetworkInterface {
 				Record[] srvRecords = getDnsRequest(query, resolver, Type.SRV);
                 if ((srvRecords != null) && (srvRecords.length > 0)) {
                     SRVRecord srvRecord = getBestDnsSRV(srvRecords);
-                    dnsResolvedFields.ipAddress = getDnsA(srvRecord.getTarget().toString());
+                    dnsResolvedFields.ttl = Math.min(dnsResolvedFields.ttl, srvRecord.getTTL());
+                    setDnsAddress(dnsResolvedFields, srvRecord.getTarget().toString(), resolver);
                     dnsResolvedFields.port = srvRecord.getPort();
                     resolved = true;
                 }
@@ -545,9 +630,15 @@ public abstract class ImsNetworkInterface {
                     if (logger.isActivated()) {
                         logger.debug("No SRV record found: use DNS A instead");
                     }
-                    dnsResolvedFields.ipAddress = getDnsA(imsProxyAddr);
+                    setDnsAddress(dnsResolvedFields, imsProxyAddr, resolver);
                 }
-            }       
+            }
+            
+            if (dnsResolvedFields.ipAddress != null) {
+            	// Cache the resolution for the smallest TTL of the resolution chain
+            	DnsCache.put(imsProxyAddr, imsProxyProtocol, dnsResolvedFields.ipAddress,
+            			dnsResolvedFields.port, dnsResolvedFields.ttl);
+            }
         }
         
         if (dnsResolvedFields.ipAddress == null) {
@@ -595,6 +686,7 @@ public abstract class ImsNetworkInterface {
 			if (logger.isActivated()) {
 				logger.error("Can't instanciate the SIP stack", e);
 			}
+			DnsCache.remove(imsProxyAddr, imsProxyProtocol);
 			return false;
 		}
 
@@ -613,6 +705,9 @@ public abstract class ImsNetworkInterface {
 			if (logger.isActivated()) {
 				logger.debug("IMS registration has failed");
 			}
+
+			// The proxy may have moved: resolve it again at next registration
+			DnsCache.remove(imsProxyAddr, imsProxyProtocol);
 		}
 
     	return registered;
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.network.dns;
+
+import com.orangelabs.rcs.platform.registry.RegistryFactory;
+
+/**
+ * Persistent cache of the IMS proxy resolution (NAPTR, SRV and A records).
+ * The resolved address is stored in the registry so that it survives a
+ * restart of the stack, and it expires with the smallest TTL of the records
+ * of the resolution chain.
+ *
+ * @author Jean-Marc AUFFRET
+ */
+public class DnsCache {
+	/**
+	 * Prefix of the registry keys
+	 */
+	private static final String REGISTRY_PREFIX = "DnsCache_";
+
+	/**
+	 * Maximum time to live in seconds
+	 */
+	private static final long MAX_TTL = 86400;
+
+	/**
+	 * Returns the cached resolution of a proxy
+	 *
+	 * @param host Proxy host name
+	 * @param protocol SIP protocol
+	 * @return Entry or null if not cached or expired
+	 */
+	public static synchronized Entry get(String host, String protocol) {
+		String key = getKey(host, protocol);
+		RegistryFactory registry = RegistryFactory.getFactory();
+		long expiry = registry.readLong(key + "_expiry", 0);
+		if (expiry <= System.currentTimeMillis()) {
+			return null;
+		}
+		String address = registry.readString(key + "_address", null);
+		if (address == null) {
+			return null;
+		}
+		return new Entry(address, registry.readInteger(key + "_port", -1));
+	}
+
+	/**
+	 * Put the resolution of a proxy in the cache
+	 *
+	 * @param host Proxy host name
+	 * @param protocol SIP protocol
+	 * @param address Resolved IP address
+	 * @param port Resolved port
+	 * @param ttl Time to live in seconds
+	 */
+	public static synchronized void put(String host, String protocol, String address, int port, long ttl) {
+		if (ttl <= 0) {
+			return;
+		}
+		String key = getKey(host, protocol);
+		RegistryFactory registry = RegistryFactory.getFactory();
+		registry.writeString(key + "_address", address);
+		registry.writeInteger(key + "_port", port);
+		registry.writeLong(key + "_expiry", System.currentTimeMillis() + Math.min(ttl, MAX_TTL) * 1000);
+	}
+
+	/**
+	 * Remove the resolution of a proxy from the cache
+	 *
+	 * @param host Proxy host name
+	 * @param protocol SIP protocol
+	 */
+	public static synchronized void remove(String host, String protocol) {
+		String key = getKey(host, protocol);
+		RegistryFactory registry = RegistryFactory.getFactory();
+		registry.removeParameter(key + "_address");
+		registry.removeParameter(key + "_port");
+		registry.removeParameter(key + "_expiry");
+	}
+
+	/**
+	 * Returns the registry key of a proxy
+	 *
+	 * @param host Proxy host name
+	 * @param protocol SIP protocol
+	 * @return Key
+	 */
+	private static String getKey(String host, String protocol) {
+		return REGISTRY_PREFIX + host.toLowerCase() + "_" + protocol.toUpperCase();
+	}
+
+	/**
+	 * Cached resolution
+	 */
+	public static class Entry {
+		/**
+		 * IP address
+		 */
+		private String address;
+
+		/**
+		 * Port
+		 */
+		private int port;
+
+		/**
+		 * Constructor
+		 *
+		 * @param address IP address
+		 * @param port Port
+		 */
+		public Entry(String address, int port) {
+			this.address = address;
+			this.port = port;
+		}
+
+		/**
+		 * Returns the IP address
+		 *
+		 * @return IP address
+		 */
+		public String getAddress() {
+			return address;
+		}
+
+		/**
+		 * Returns the port
+		 *
+		 * @return Port
+		 */
+		public int getPort() {
+			return port;
+		}
+	}
+}
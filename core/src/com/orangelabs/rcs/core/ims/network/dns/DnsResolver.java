@@ -0,0 +1,1033 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.network.dns;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.SecureRandom;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Vector;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Header;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.OPTRecord;
+import org.xbill.DNS.Rcode;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Resolver;
+import org.xbill.DNS.ResolverConfig;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.SimpleResolver;
+import org.xbill.DNS.TSIG;
+import org.xbill.DNS.TextParseException;
+import org.xbill.DNS.Type;
+
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * DNS resolver multiplexing the queries over a shared UDP channel. The
+ * responses are received by a single thread waiting on a selector and are
+ * matched to their query by message ID, the queries being retransmitted
+ * periodically to the next configured server until they time out. A truncated
+ * response is retried over TCP.
+ * <br>
+ * Against spoofed responses, the message IDs are random, the channel is bound
+ * to a random port and is replaced after a number of queries, and a response
+ * is only accepted from a server to which the query has been sent and, when a
+ * TSIG key is set, with a valid signature.
+ *
+ * @author Jean-Marc AUFFRET
+ */
+public class DnsResolver implements Resolver {
+	/**
+	 * Default DNS port
+	 */
+	private static final int DEFAULT_PORT = 53;
+
+	/**
+	 * Default query timeout in milliseconds
+	 */
+	private static final long DEFAULT_TIMEOUT = 5000;
+
+	/**
+	 * Retransmission period of a query in milliseconds
+	 */
+	private static final long RETRANSMIT_PERIOD = 1000;
+
+	/**
+	 * Time to wait for the address of the preferred family once the address
+	 * of the other family has been received, in milliseconds (RFC 6555)
+	 */
+	private static final long RESOLUTION_DELAY = 50;
+
+	/**
+	 * Default UDP payload size
+	 */
+	private static final int DEFAULT_UDPSIZE = 512;
+
+	/**
+	 * Default EDNS payload size
+	 */
+	private static final int DEFAULT_EDNS_PAYLOADSIZE = 1280;
+
+	/**
+	 * Number of queries sent over a channel before it is replaced by a channel
+	 * bound to another random port
+	 */
+	static final int MAX_CHANNEL_QUERIES = 64;
+
+	/**
+	 * Lowest random source port
+	 */
+	private static final int MIN_SOURCE_PORT = 1024;
+
+	/**
+	 * Number of random source ports tried before letting the system choose it
+	 */
+	private static final int BIND_ATTEMPTS = 10;
+
+	/**
+	 * Singleton instance
+	 */
+	private static DnsResolver instance = null;
+
+	/**
+	 * DNS servers
+	 */
+	private InetSocketAddress[] servers;
+
+	/**
+	 * Query timeout in milliseconds
+	 */
+	private long timeout = DEFAULT_TIMEOUT;
+
+	/**
+	 * Use TCP only
+	 */
+	private boolean useTCP = false;
+
+	/**
+	 * Ignore truncated responses
+	 */
+	private boolean ignoreTruncation = false;
+
+	/**
+	 * EDNS option added to the queries
+	 */
+	private OPTRecord queryOPT = null;
+
+	/**
+	 * TSIG key
+	 */
+	private TSIG tsig = null;
+
+	/**
+	 * Channel of the new queries
+	 */
+	private DatagramChannel channel = null;
+
+	/**
+	 * Number of queries sent over the channel of the new queries
+	 */
+	private int channelQueries = 0;
+
+	/**
+	 * Open channels: the channel of the new queries and the replaced channels
+	 * which still have pending queries
+	 */
+	private Vector<DatagramChannel> channels = new Vector<DatagramChannel>();
+
+	/**
+	 * Selector of the channels
+	 */
+	private Selector selector = null;
+
+	/**
+	 * Closed flag
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Pending queries, indexed by message ID
+	 */
+	private Hashtable<Integer, PendingQuery> pending = new Hashtable<Integer, PendingQuery>();
+
+	/**
+	 * Random generator of message ID and source port
+	 */
+	private SecureRandom random = new SecureRandom();
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Returns the resolver using the DNS servers of the system
+	 *
+	 * @return Instance
+	 */
+	public static synchronized DnsResolver getInstance() {
+		if (instance == null) {
+			instance = new DnsResolver();
+		}
+		return instance;
+	}
+
+	/**
+	 * Constructor using the DNS servers of the system
+	 */
+	public DnsResolver() {
+		refresh();
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param servers DNS servers
+	 */
+	public DnsResolver(InetSocketAddress[] servers) {
+		this.servers = servers;
+	}
+
+	/**
+	 * Reload the DNS servers of the system, which may change with the network
+	 * access
+	 */
+	public void refresh() {
+		ResolverConfig.refresh();
+		String[] names = ResolverConfig.getCurrentConfig().servers();
+		Vector<InetSocketAddress> list = new Vector<InetSocketAddress>();
+		if (names != null) {
+			for (int i = 0; i < names.length; i++) {
+				try {
+					list.addElement(new InetSocketAddress(InetAddress.getByName(names[i]), DEFAULT_PORT));
+				} catch(UnknownHostException e) {
+					if (logger.isActivated()) {
+						logger.warn("Unknown DNS server " + names[i]);
+					}
+				}
+			}
+		}
+		if (list.size() == 0) {
+			list.addElement(new InetSocketAddress("localhost", DEFAULT_PORT));
+		}
+		InetSocketAddress[] result = new InetSocketAddress[list.size()];
+		list.copyInto(result);
+		synchronized(this) {
+			servers = result;
+		}
+	}
+
+	/**
+	 * Sets the port of all the servers
+	 *
+	 * @param port Port
+	 */
+	public synchronized void setPort(int port) {
+		for (int i = 0; i < servers.length; i++) {
+			servers[i] = new InetSocketAddress(servers[i].getAddress(), port);
+		}
+	}
+
+	/**
+	 * Sets whether the queries are sent over TCP
+	 *
+	 * @param flag TCP flag
+	 */
+	public synchronized void setTCP(boolean flag) {
+		useTCP = flag;
+	}
+
+	/**
+	 * Sets whether the truncated responses are accepted
+	 *
+	 * @param flag Ignore truncation flag
+	 */
+	public synchronized void setIgnoreTruncation(boolean flag) {
+		ignoreTruncation = flag;
+	}
+
+	/**
+	 * Sets the EDNS level with the default parameters
+	 *
+	 * @param level EDNS level (0) or -1 to disable EDNS
+	 */
+	public synchronized void setEDNS(int level) {
+		setEDNS(level, 0, 0, null);
+	}
+
+	/**
+	 * Sets the EDNS level and parameters
+	 *
+	 * @param level EDNS level (0) or -1 to disable EDNS
+	 * @param payloadSize Maximum UDP payload size or 0 for the default size
+	 * @param flags EDNS extended flags
+	 * @param options EDNS options or null
+	 */
+	@SuppressWarnings("rawtypes")
+	public synchronized void setEDNS(int level, int payloadSize, int flags, List options) {
+		if (level == -1) {
+			queryOPT = null;
+			return;
+		}
+		if (level != 0) {
+			throw new IllegalArgumentException("Invalid EDNS level");
+		}
+		if (payloadSize == 0) {
+			payloadSize = DEFAULT_EDNS_PAYLOADSIZE;
+		}
+		queryOPT = new OPTRecord(payloadSize, 0, level, flags, options);
+	}
+
+	/**
+	 * Sets the key signing the queries
+	 *
+	 * @param key TSIG key or null
+	 */
+	public synchronized void setTSIGKey(TSIG key) {
+		tsig = key;
+	}
+
+	/**
+	 * Sets the timeout of a query
+	 *
+	 * @param secs Seconds
+	 * @param msecs Milliseconds
+	 */
+	public synchronized void setTimeout(int secs, int msecs) {
+		timeout = (long)secs * 1000 + msecs;
+	}
+
+	/**
+	 * Sets the timeout of a query
+	 *
+	 * @param secs Seconds
+	 */
+	public synchronized void setTimeout(int secs) {
+		setTimeout(secs, 0);
+	}
+
+	/**
+	 * Sends a query and waits for its response
+	 *
+	 * @param query Query
+	 * @return Response
+	 * @throws IOException
+	 */
+	public Message send(Message query) throws IOException {
+		if (useTCP) {
+			return sendTCP(query);
+		}
+
+		ResponseListener listener = new ResponseListener();
+		sendAsync(query, listener);
+		Message response = listener.waitResponse(timeout + RETRANSMIT_PERIOD);
+		if (!ignoreTruncation && response.getHeader().getFlag(Flags.TC)) {
+			// Truncated response: retry over TCP
+			if (logger.isActivated()) {
+				logger.debug("Truncated DNS response: retry over TCP");
+			}
+			return sendTCP(query);
+		}
+		return response;
+	}
+
+	/**
+	 * Sends a query without waiting for its response, the listener being
+	 * called from the resolver thread
+	 *
+	 * @param query Query
+	 * @param listener Listener
+	 * @return Query identifier passed to the listener
+	 */
+	public Object sendAsync(Message query, ResolverListener listener) {
+		query = (Message)query.clone();
+		PendingQuery entry;
+		synchronized(pending) {
+			// Use a random message ID which is not already pending
+			int id;
+			do {
+				id = random.nextInt(0x10000);
+			} while (pending.containsKey(id));
+			query.getHeader().setID(id);
+			synchronized(this) {
+				if ((queryOPT != null) && (query.getOPT() == null)) {
+					query.addRecord(queryOPT, Section.ADDITIONAL);
+				}
+				if (tsig != null) {
+					tsig.apply(query, null);
+				}
+			}
+			entry = new PendingQuery(id, query, listener, System.currentTimeMillis() + timeout);
+			try {
+				entry.channel = getChannel();
+				pending.put(entry.id, entry);
+				transmit(entry);
+			} catch(IOException e) {
+				pending.remove(entry.id);
+				listener.handleException(entry.id, e);
+				return entry.id;
+			}
+		}
+
+		// Wake up the resolver thread to take into account the query deadline
+		synchronized(this) {
+			if (!closed) {
+				selector.wakeup();
+			}
+		}
+		return entry.id;
+	}
+
+	/**
+	 * Close the resolver: the resolver thread is stopped, the channels are
+	 * closed and the pending queries fail
+	 */
+	public void close() {
+		Vector<PendingQuery> aborted;
+		synchronized(pending) {
+			aborted = new Vector<PendingQuery>(pending.values());
+			pending.clear();
+			synchronized(this) {
+				closed = true;
+				for (int i = 0; i < channels.size(); i++) {
+					try {
+						channels.elementAt(i).close();
+					} catch(IOException e) {
+						// Nothing to do
+					}
+				}
+				channels.removeAllElements();
+				channel = null;
+				if (selector != null) {
+					// The resolver thread blocked on the selector is woken up
+					try {
+						selector.close();
+					} catch(IOException e) {
+						// Nothing to do
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < aborted.size(); i++) {
+			PendingQuery entry = aborted.elementAt(i);
+			entry.listener.handleException(entry.id, new IOException("DNS resolver closed"));
+		}
+	}
+
+	/**
+	 * Is the resolver closed
+	 *
+	 * @return Boolean
+	 */
+	private synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Resolve the address of a host. When both families are supported, the A
+	 * and AAAA queries are sent in parallel: the address of the preferred
+	 * family is returned if received shortly after the address of the other
+	 * family, else the first address received is returned. Else only the
+	 * address of the preferred family is resolved.
+	 *
+	 * @param host Host name
+	 * @param preferIpv6 IPv6 address preferred
+	 * @param otherFamily Address of the other family supported
+	 * @return Address record (A or AAAA) or null if not resolved
+	 * @throws TextParseException
+	 */
+	public Record lookupAddress(String host, boolean preferIpv6, boolean otherFamily) throws TextParseException {
+		Name name = Name.fromString(host, Name.root);
+		int preferred = preferIpv6 ? AddressQuery.IPV6 : AddressQuery.IPV4;
+		AddressQuery query = new AddressQuery();
+		if (otherFamily || (preferred == AddressQuery.IPV4)) {
+			sendAsync(Message.newQuery(Record.newRecord(name, Type.A, DClass.IN)), query.getListener(AddressQuery.IPV4));
+		} else {
+			query.terminate(AddressQuery.IPV4, null);
+		}
+		if (otherFamily || (preferred == AddressQuery.IPV6)) {
+			sendAsync(Message.newQuery(Record.newRecord(name, Type.AAAA, DClass.IN)), query.getListener(AddressQuery.IPV6));
+		} else {
+			query.terminate(AddressQuery.IPV6, null);
+		}
+		return query.waitAddress(preferred, timeout + RETRANSMIT_PERIOD);
+	}
+
+	/**
+	 * Returns the address of an address record
+	 *
+	 * @param record A or AAAA record
+	 * @return IP address
+	 */
+	public static String getAddress(Record record) {
+		if (record instanceof ARecord) {
+			return ((ARecord)record).getAddress().getHostAddress();
+		} else
+		if (record instanceof AAAARecord) {
+			return ((AAAARecord)record).getAddress().getHostAddress();
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Sends a query over TCP to the first server
+	 *
+	 * @param query Query
+	 * @return Response
+	 * @throws IOException
+	 */
+	private Message sendTCP(Message query) throws IOException {
+		SimpleResolver resolver = new SimpleResolver();
+		synchronized(this) {
+			resolver.setAddress(servers[0]);
+			resolver.setTSIGKey(tsig);
+			resolver.setTimeout((int)(timeout / 1000), (int)(timeout % 1000));
+			if (queryOPT != null) {
+				resolver.setEDNS(0, queryOPT.getPayloadSize(), 0, null);
+			}
+		}
+		resolver.setTCP(true);
+		return resolver.send(query);
+	}
+
+	/**
+	 * Returns the channel of a new query. The resolver thread is started if
+	 * not already done, and the channel is replaced after a number of queries.
+	 *
+	 * @return Channel
+	 * @throws IOException
+	 */
+	private synchronized DatagramChannel getChannel() throws IOException {
+		if (closed) {
+			throw new IOException("DNS resolver closed");
+		}
+
+		if (selector == null) {
+			selector = Selector.open();
+
+			Thread thread = new Thread("DnsResolver") {
+				public void run() {
+					processResponses();
+				}
+			};
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		if ((channel == null) || (channelQueries >= MAX_CHANNEL_QUERIES)) {
+			// The replaced channel is closed by the resolver thread once its
+			// pending queries are terminated
+			channel = openChannel();
+			channels.addElement(channel);
+			channelQueries = 0;
+		}
+		channelQueries++;
+		return channel;
+	}
+
+	/**
+	 * Open a channel bound to a random port
+	 *
+	 * @return Channel
+	 * @throws IOException
+	 */
+	private DatagramChannel openChannel() throws IOException {
+		DatagramChannel result = DatagramChannel.open();
+		result.configureBlocking(false);
+		for (int i = 0; i < BIND_ATTEMPTS; i++) {
+			int port = MIN_SOURCE_PORT + random.nextInt(0x10000 - MIN_SOURCE_PORT);
+			try {
+				result.socket().bind(new InetSocketAddress(port));
+				return result;
+			} catch(SocketException e) {
+				// Port already used: try another one
+			}
+		}
+		try {
+			result.socket().bind(new InetSocketAddress(0));
+		} catch(SocketException e) {
+			result.close();
+			throw e;
+		}
+		return result;
+	}
+
+	/**
+	 * Register the new channels with the selector and close the replaced
+	 * channels which have no more pending queries. Called from the resolver
+	 * thread, which may be blocked on the selector otherwise.
+	 */
+	private void updateChannels() {
+		Vector<DatagramChannel> unused = new Vector<DatagramChannel>();
+		synchronized(pending) {
+			synchronized(this) {
+				for (int i = 0; i < channels.size(); i++) {
+					DatagramChannel ch = channels.elementAt(i);
+					if (ch != channel) {
+						unused.addElement(ch);
+					}
+				}
+			}
+			for (Enumeration<PendingQuery> e = pending.elements(); e.hasMoreElements();) {
+				unused.removeElement(e.nextElement().channel);
+			}
+		}
+
+		synchronized(this) {
+			for (int i = 0; i < unused.size(); i++) {
+				DatagramChannel ch = unused.elementAt(i);
+				channels.removeElement(ch);
+				try {
+					ch.close();
+				} catch(IOException e) {
+					// Nothing to do
+				}
+			}
+			for (int i = 0; i < channels.size(); i++) {
+				DatagramChannel ch = channels.elementAt(i);
+				if (ch.keyFor(selector) == null) {
+					try {
+						ch.register(selector, SelectionKey.OP_READ);
+					} catch(IOException e) {
+						if (logger.isActivated()) {
+							logger.error("Can't register the DNS channel", e);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Transmit a query to the next server
+	 *
+	 * @param entry Pending query
+	 * @throws IOException
+	 */
+	private void transmit(PendingQuery entry) throws IOException {
+		InetSocketAddress server;
+		synchronized(this) {
+			server = servers[entry.attempts % servers.length];
+		}
+		entry.attempts++;
+		entry.retransmitTime = System.currentTimeMillis() + RETRANSMIT_PERIOD;
+		if (!entry.servers.contains(server)) {
+			entry.servers.addElement(server);
+		}
+		if (logger.isActivated()) {
+			logger.debug("Send DNS query " + entry.id + " for " + entry.query.getQuestion().getName() + " to " + server);
+		}
+		entry.channel.send(ByteBuffer.wrap(entry.data), server);
+	}
+
+	/**
+	 * Resolver thread processing
+	 */
+	private void processResponses() {
+		ByteBuffer buffer = ByteBuffer.allocate(Message.MAXLENGTH);
+		while (!isClosed()) {
+			try {
+				long delay = checkPendingQueries();
+				updateChannels();
+				selector.select(delay);
+
+				// Read all the received datagrams
+				for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext();) {
+					SelectionKey key = i.next();
+					i.remove();
+					DatagramChannel ch = (DatagramChannel)key.channel();
+					buffer.clear();
+					SocketAddress source;
+					while ((source = ch.receive(buffer)) != null) {
+						buffer.flip();
+						byte[] data = new byte[buffer.remaining()];
+						buffer.get(data);
+						receive(data, ch, source);
+						buffer.clear();
+					}
+				}
+			} catch(Exception e) {
+				if (isClosed()) {
+					break;
+				}
+				if (logger.isActivated()) {
+					logger.error("DNS resolver failure", e);
+				}
+			}
+		}
+		if (logger.isActivated()) {
+			logger.debug("DNS resolver closed");
+		}
+	}
+
+	/**
+	 * Retransmit the pending queries and fail the queries which have timed out
+	 *
+	 * @return Delay in milliseconds before the next deadline (0 if none)
+	 */
+	private long checkPendingQueries() {
+		long now = System.currentTimeMillis();
+		long delay = 0;
+		Vector<PendingQuery> expired = new Vector<PendingQuery>();
+		synchronized(pending) {
+			for (Enumeration<PendingQuery> e = pending.elements(); e.hasMoreElements();) {
+				PendingQuery entry = e.nextElement();
+				if (now >= entry.endTime) {
+					expired.addElement(entry);
+					continue;
+				}
+				if (now >= entry.retransmitTime) {
+					try {
+						transmit(entry);
+					} catch(IOException ex) {
+						if (logger.isActivated()) {
+							logger.warn("Can't retransmit DNS query " + entry.id);
+						}
+					}
+				}
+				long next = Math.max(1, Math.min(entry.endTime, entry.retransmitTime) - now);
+				if ((delay == 0) || (next < delay)) {
+					delay = next;
+				}
+			}
+			for (int i = 0; i < expired.size(); i++) {
+				pending.remove(expired.elementAt(i).id);
+			}
+		}
+
+		for (int i = 0; i < expired.size(); i++) {
+			PendingQuery entry = expired.elementAt(i);
+			if (logger.isActivated()) {
+				logger.debug("DNS query " + entry.id + " has timed out");
+			}
+			entry.listener.handleException(entry.id, new SocketTimeoutException("DNS query timeout"));
+		}
+		return delay;
+	}
+
+	/**
+	 * Receive a response
+	 *
+	 * @param data Response data
+	 * @param ch Channel on which the response has been received
+	 * @param source Source of the response
+	 */
+	private void receive(byte[] data, DatagramChannel ch, SocketAddress source) {
+		if (data.length < Header.LENGTH) {
+			return;
+		}
+
+		// Check the message ID before parsing the message
+		int id = ((data[0] & 0xFF) << 8) + (data[1] & 0xFF);
+		PendingQuery entry = pending.get(id);
+		if (entry == null) {
+			// Late or unknown response
+			return;
+		}
+
+		// Check the response comes from a queried server on the channel of the query
+		if ((entry.channel != ch) || !entry.servers.contains(source)) {
+			if (logger.isActivated()) {
+				logger.warn("DNS response " + id + " from unexpected source " + source + " ignored");
+			}
+			return;
+		}
+
+		Message response;
+		try {
+			response = new Message(data);
+		} catch(IOException e) {
+			// Invalid response: wait for another response
+			return;
+		}
+
+		// Check the response is associated with the query
+		Record question = response.getQuestion();
+		Record expected = entry.query.getQuestion();
+		if ((question == null) || !question.getName().equals(expected.getName()) ||
+				(question.getType() != expected.getType()) || (question.getDClass() != expected.getDClass())) {
+			return;
+		}
+
+		// Check the signature of the response if the query has been signed
+		TSIG key;
+		synchronized(this) {
+			key = tsig;
+		}
+		if ((key != null) && (entry.query.getTSIG() != null)) {
+			int error = key.verify(response, data, entry.query.getTSIG());
+			if (error != Rcode.NOERROR) {
+				// Invalid signature: wait for another response
+				if (logger.isActivated()) {
+					logger.warn("DNS response " + id + " ignored: TSIG " + Rcode.TSIGstring(error));
+				}
+				return;
+			}
+		}
+
+		if (pending.remove(entry.id) == null) {
+			return;
+		}
+		entry.listener.receiveMessage(entry.id, response);
+	}
+
+	/**
+	 * Pending query
+	 */
+	private static class PendingQuery {
+		/**
+		 * Message ID
+		 */
+		private Integer id;
+
+		/**
+		 * Query
+		 */
+		private Message query;
+
+		/**
+		 * Query data
+		 */
+		private byte[] data;
+
+		/**
+		 * Listener
+		 */
+		private ResolverListener listener;
+
+		/**
+		 * Time at which the query times out
+		 */
+		private long endTime;
+
+		/**
+		 * Time of the next retransmission
+		 */
+		private long retransmitTime = 0;
+
+		/**
+		 * Number of transmissions
+		 */
+		private int attempts = 0;
+
+		/**
+		 * Channel of the query
+		 */
+		private DatagramChannel channel = null;
+
+		/**
+		 * Servers to which the query has been sent
+		 */
+		private Vector<InetSocketAddress> servers = new Vector<InetSocketAddress>();
+
+		/**
+		 * Constructor
+		 *
+		 * @param id Message ID
+		 * @param query Query
+		 * @param listener Listener
+		 * @param endTime Time at which the query times out
+		 */
+		public PendingQuery(int id, Message query, ResolverListener listener, long endTime) {
+			this.id = Integer.valueOf(id);
+			this.query = query;
+			this.data = query.toWire(DEFAULT_UDPSIZE);
+			this.listener = listener;
+			this.endTime = endTime;
+		}
+	}
+
+	/**
+	 * Listener waiting for the response of a query
+	 */
+	private static class ResponseListener implements ResolverListener {
+		/**
+		 * Response
+		 */
+		private Message response = null;
+
+		/**
+		 * Error
+		 */
+		private Exception error = null;
+
+		public synchronized void receiveMessage(Object id, Message m) {
+			response = m;
+			notifyAll();
+		}
+
+		public synchronized void handleException(Object id, Exception e) {
+			error = e;
+			notifyAll();
+		}
+
+		/**
+		 * Wait for the response
+		 *
+		 * @param timeout Timeout in milliseconds
+		 * @return Response
+		 * @throws IOException
+		 */
+		public synchronized Message waitResponse(long timeout) throws IOException {
+			long endTime = System.currentTimeMillis() + timeout;
+			while ((response == null) && (error == null)) {
+				long delay = endTime - System.currentTimeMillis();
+				if (delay <= 0) {
+					throw new SocketTimeoutException("DNS query timeout");
+				}
+				try {
+					wait(delay);
+				} catch(InterruptedException e) {
+					throw new InterruptedIOException("DNS query interrupted");
+				}
+			}
+			if (error instanceof IOException) {
+				throw (IOException)error;
+			} else
+			if (error != null) {
+				throw new IOException(error.getMessage());
+			}
+			return response;
+		}
+	}
+
+	/**
+	 * Parallel A and AAAA queries
+	 */
+	private static class AddressQuery {
+		/**
+		 * IPv4 family
+		 */
+		public static final int IPV4 = 0;
+
+		/**
+		 * IPv6 family
+		 */
+		public static final int IPV6 = 1;
+
+		/**
+		 * Address record received for each family
+		 */
+		private Record[] records = new Record[2];
+
+		/**
+		 * Query terminated for each family
+		 */
+		private boolean[] done = new boolean[2];
+
+		/**
+		 * Reception time of the address of each family
+		 */
+		private long[] times = new long[2];
+
+		/**
+		 * Returns the listener of the query of a family
+		 *
+		 * @param family Family
+		 * @return Listener
+		 */
+		public ResolverListener getListener(final int family) {
+			return new ResolverListener() {
+				public void receiveMessage(Object id, Message m) {
+					int type = (family == IPV6) ? Type.AAAA : Type.A;
+					Record[] answers = m.getSectionArray(Section.ANSWER);
+					Record result = null;
+					for (int i = 0; (i < answers.length) && (result == null); i++) {
+						if (answers[i].getType() == type) {
+							result = answers[i];
+						}
+					}
+					terminate(family, result);
+				}
+
+				public void handleException(Object id, Exception e) {
+					terminate(family, null);
+				}
+			};
+		}
+
+		/**
+		 * The query of a family is terminated
+		 *
+		 * @param family Family
+		 * @param record Address record or null
+		 */
+		public synchronized void terminate(int family, Record record) {
+			records[family] = record;
+			done[family] = true;
+			times[family] = System.currentTimeMillis();
+			notifyAll();
+		}
+
+		/**
+		 * Wait for the address
+		 *
+		 * @param preferred Preferred family
+		 * @param timeout Timeout in milliseconds
+		 * @return Address record or null
+		 */
+		public synchronized Record waitAddress(int preferred, long timeout) {
+			int other = 1 - preferred;
+			long endTime = System.currentTimeMillis() + timeout;
+			try {
+				while (true) {
+					long now = System.currentTimeMillis();
+					if (done[preferred] && ((records[preferred] != null) || done[other])) {
+						return (records[preferred] != null) ? records[preferred] : records[other];
+					}
+					if ((records[other] != null) && (now - times[other] >= RESOLUTION_DELAY)) {
+						return records[other];
+					}
+					if (now >= endTime) {
+						return records[other];
+					}
+					long delay = endTime - now;
+					if (records[other] != null) {
+						delay = Math.min(delay, times[other] + RESOLUTION_DELAY - now);
+					}
+					wait(Math.max(1, delay));
+				}
+			} catch(InterruptedException e) {
+				return (records[preferred] != null) ? records[preferred] : records[other];
+			}
+		}
+	}
+}
@@ -18,6 +18,7 @@
 package com.orangelabs.rcs.core.ims.network.sip;
 
 import java.util.Hashtable;
+import java.util.Vector;
 
 import javax2.sip.header.ContentTypeHeader;
 
@@ -36,6 +37,16 @@ public class Multipart {
 	 * Parts
 	 */
 	private Hashtable<String, String> parts = new Hashtable<String, String>();
+
+	/**
+	 * MIME types of the parts, in the order of the content
+	 */
+	private Vector<String> orderedTypes = new Vector<String>();
+
+	/**
+	 * Parts, in the order of the content
+	 */
+	private Vector<String> orderedParts = new Vector<String>();
 	
 	/**
 	 * Constructor
@@ -70,6 +81,8 @@ public class Multipart {
 		                    
 		                    // Add part in lowercase
 		                    parts.put(mime.toLowerCase(), part);
+		                    orderedTypes.addElement(mime.toLowerCase());
+		                    orderedParts.addElement(part);
                     	} catch(Exception e) {
                     		// Nothing to do
                     	}
@@ -98,6 +111,23 @@ public class Multipart {
 		return parts.get(type.toLowerCase());
 	}
 	
+	/**
+	 * Get all the parts of a given MIME-type, in the order of the content
+	 * 
+	 * @param type MIME-type
+	 * @return List of parts as string
+	 */
+	public Vector<String> getPartsByType(String type) {
+		Vector<String> result = new Vector<String>();
+		String mime = type.toLowerCase();
+		for (int i=0; i < orderedTypes.size(); i++) {
+			if (orderedTypes.elementAt(i).equals(mime)) {
+				result.addElement(orderedParts.elementAt(i));
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Get parts
 	 * 
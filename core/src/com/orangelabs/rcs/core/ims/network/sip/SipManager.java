@@ -33,6 +33,7 @@ import com.orangelabs.rcs.core.ims.protocol.sip.SipMessage;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipRequest;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipResponse;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionContext;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionListener;
 import com.orangelabs.rcs.provider.settings.RcsSettings;
 import com.orangelabs.rcs.utils.logger.Logger;
 
@@ -179,6 +180,78 @@ public class SipManager {
             // wait the response
             ctx.waitResponse(timeout);
 
+            // Analyze the received response
+            if (!analyzeResponse(message, ctx)) {
+                // Throw not registered exception 
+                throw new SipException("Not registered");
+            }
+
+            // Return the transaction context 
+            return ctx;
+		} else {
+			throw new SipException("Stack not initialized");
+		}
+	}
+
+    /**
+     * Send a SIP message and create a context notifying the response
+     * asynchronously: the calling thread is not blocked during the transaction
+     *
+     * @param message SIP message
+     * @param listener Transaction listener
+     * @return Transaction context
+     * @throws SipException
+     */
+    public SipTransactionContext sendSipMessage(SipMessage message, SipTransactionListener listener) throws SipException {
+    	return sendSipMessage(message, SipManager.TIMEOUT, listener);
+    }
+
+    /**
+     * Send a SIP message and create a context notifying the response
+     * asynchronously: the calling thread is not blocked during the transaction
+     *
+     * @param message SIP message
+     * @param timeout SIP timeout
+     * @param listener Transaction listener
+     * @return Transaction context
+     * @throws SipException
+     */
+    public SipTransactionContext sendSipMessage(final SipMessage message, int timeout, final SipTransactionListener listener)
+            throws SipException {
+        if (sipstack != null) {
+            return sipstack.sendSipMessage(message, timeout, new SipTransactionListener() {
+                public void handleProvisionalResponse(SipTransactionContext ctx, SipResponse response) {
+                    listener.handleProvisionalResponse(ctx, response);
+                }
+
+                public void handleTransactionCompleted(SipTransactionContext ctx) {
+                    // Analyze the received response before notifying it
+                    if (analyzeResponse(message, ctx)) {
+                        listener.handleTransactionCompleted(ctx);
+                    } else {
+                        listener.handleTransactionError(ctx, new SipException("Not registered"));
+                    }
+                }
+
+                public void handleTransactionError(SipTransactionContext ctx, SipException error) {
+                    listener.handleTransactionError(ctx, error);
+                }
+            });
+		} else {
+			throw new SipException("Stack not initialized");
+		}
+    }
+
+    /**
+     * Analyze the response received for a SIP message: launch a new
+     * registration if not registered and update the keep-alive period
+     *
+     * @param message SIP message
+     * @param ctx Transaction context
+     * @return Returns false if not registered
+     */
+    private boolean analyzeResponse(SipMessage message, SipTransactionContext ctx) {
+        if (ctx.isSipResponse()) {
             // Analyze the received response
             if (message instanceof SipRequest
                 && !((SipRequest)message).getMethod().equals(Request.REGISTER)
@@ -188,9 +261,7 @@ public class SipManager {
                 if ((ctx.getStatusCode() == 403) && (warn == null)) {
                     // Launch new registration
                     networkInterface.getRegistrationManager().restart();
-
-                    // Throw not registered exception 
-                    throw new SipException("Not registered");
+                    return false;
                 }
             }
             
@@ -230,13 +301,9 @@ public class SipManager {
 					}
 				}
 			}
-			
-            // Return the transaction context 
-            return ctx;
-		} else {
-			throw new SipException("Stack not initialized");
 		}
-	}
+        return true;
+    }
 
 
 	/**
@@ -264,6 +264,60 @@ public class SipMessageFactory {
 	 * @throws SipException
 	 */
 	public static SipRequest createMessage(SipDialogPath dialog, String featureTag, String contentType, byte[] content) throws SipException {
+		// Create the content type
+		ContentTypeHeader contentTypeHeader;
+		try {
+			String[] type = contentType.split("/");
+			contentTypeHeader = SipUtils.HEADER_FACTORY.createContentTypeHeader(type[0], type[1]);
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Can't create SIP message", e);
+			}
+			throw new SipException("Can't create SIP MESSAGE message");
+		}
+
+		// Create the request
+		return createMessage(dialog, featureTag, contentTypeHeader, content);
+	}
+
+	/**
+	 * Create a SIP MESSAGE request with a feature tag and a multipart content
+	 * 
+	 * @param dialog SIP dialog path
+	 * @param featureTag Feature tag
+	 * @param multipart Multipart
+	 * @param boundary Boundary tag
+	 * @return SIP request
+	 * @throws SipException
+	 */
+	public static SipRequest createMultipartMessage(SipDialogPath dialog, String featureTag, String multipart, String boundary) throws SipException {
+		// Create the content type
+		ContentTypeHeader contentType;
+		try {
+			contentType = SipUtils.HEADER_FACTORY.createContentTypeHeader("multipart", "mixed");
+			contentType.setParameter("boundary", boundary);
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Can't create SIP message", e);
+			}
+			throw new SipException("Can't create SIP MESSAGE message");
+		}
+
+		// Create the request
+		return createMessage(dialog, featureTag, contentType, multipart.getBytes());
+	}
+
+	/**
+	 * Create a SIP MESSAGE request with a feature tag
+	 * 
+	 * @param dialog SIP dialog path
+	 * @param featureTag Feature tag
+	 * @param contentTypeHeader Content type header
+	 * @param content Content
+	 * @return SIP request
+	 * @throws SipException
+	 */
+	private static SipRequest createMessage(SipDialogPath dialog, String featureTag, ContentTypeHeader contentTypeHeader, byte[] content) throws SipException {
 		try {			
 	        // Set request line header
 	        URI requestURI = SipUtils.ADDR_FACTORY.createURI(dialog.getTarget());
@@ -317,8 +371,6 @@ public class SipMessageFactory {
 	        }
 	        
 	        // Set the message content
-	        String[] type = contentType.split("/");
-			ContentTypeHeader contentTypeHeader = SipUtils.HEADER_FACTORY.createContentTypeHeader(type[0], type[1]);
 	        message.setContent(content, contentTypeHeader);
 	        
 	        // Set the message content length
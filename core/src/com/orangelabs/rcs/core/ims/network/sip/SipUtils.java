@@ -21,6 +21,7 @@ package com.orangelabs.rcs.core.ims.network.sip;
 import gov2.nist.javax2.sip.header.ims.PPreferredServiceHeader;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Vector;
 
@@ -394,8 +395,18 @@ public class SipUtils {
      * @return Boolean
      */
     public static boolean isFeatureTagPresent(SipMessage msg, String featureTag) {
+    	return isFeatureTagPresent(msg.getFeatureTags(), featureTag);
+    }	
+
+    /**
+     * Is a given feature tag present in the feature tags of a message
+     * 
+     * @param tags Feature tags extracted from the message
+     * @param featureTag Feature tag to be checked
+     * @return Boolean
+     */
+    public static boolean isFeatureTagPresent(List<String> tags, String featureTag) {
     	boolean result = false;
-    	ArrayList<String> tags = msg.getFeatureTags();
     	for(int i=0; i < tags.size(); i++) {
     		if (tags.get(i).contains(featureTag)) {
         		result = true;
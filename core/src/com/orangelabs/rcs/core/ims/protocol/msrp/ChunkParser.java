@@ -0,0 +1,668 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Hashtable;
+
+/**
+ * Incremental MSRP chunk parser working on the raw bytes of a reusable
+ * buffer. Each call to {@link #readChunk()} parses one MSRP request or
+ * response; the payload is left in place in the buffer and remains valid
+ * until the next call.
+ * <p>
+ * Without input stream the parser works in non-blocking mode: data are
+ * pushed with {@link #readFrom(ReadableByteChannel)} and complete chunks
+ * are extracted with {@link #parseChunk()}.
+ *
+ * @author jexa7410
+ */
+public class ChunkParser {
+	/**
+	 * Charset used to decode the MSRP start line and headers
+	 */
+	private static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+	/**
+	 * Default size of the buffer
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 2 * MsrpConstants.CHUNK_MAX_SIZE;
+
+	/**
+	 * Maximum length of a line and of a body whose size and total size are
+	 * unknown, so that a peer cannot make the buffer grow without limit
+	 */
+	private static final int MAX_UNSIZED_LENGTH = MsrpConstants.CHUNK_MAX_SIZE;
+
+	/**
+	 * Maximum length of the data of a chunk whose size or total size is
+	 * given by its Byte-Range
+	 */
+	static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * MSRP input stream or null in non-blocking mode
+	 */
+	private InputStream stream;
+
+	/**
+	 * Reusable receive buffer: position is the read index and limit the end
+	 * of the valid data
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Transaction ID of the current chunk
+	 */
+	private String txId;
+
+	/**
+	 * Response code of the current chunk or -1 for a request
+	 */
+	private int responseCode;
+
+	/**
+	 * Method of the current chunk or null for a response
+	 */
+	private String method;
+
+	/**
+	 * Headers of the current chunk
+	 */
+	private Hashtable<String, String> headers;
+
+	/**
+	 * Offset of the payload in the buffer
+	 */
+	private int dataOffset;
+
+	/**
+	 * Length of the payload or -1 if the chunk has no payload
+	 */
+	private int dataLength;
+
+	/**
+	 * Continuation flag
+	 */
+	private int continuationFlag;
+
+	/**
+	 * Total size of the content
+	 */
+	private int totalSize;
+
+	/**
+	 * Constructor
+	 *
+	 * @param stream TCP input stream
+	 */
+	public ChunkParser(InputStream stream) {
+		this.stream = stream;
+		this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+		this.buffer.limit(0);
+	}
+
+	/**
+	 * Constructor in non-blocking mode
+	 */
+	public ChunkParser() {
+		this(null);
+	}
+
+	/**
+	 * Read the available bytes of a channel at the end of the buffer (non-blocking mode)
+	 *
+	 * @param channel Channel
+	 * @return Number of bytes read or -1 if the end of stream has been reached
+	 * @throws IOException
+	 */
+	public int readFrom(ReadableByteChannel channel) throws IOException {
+		if (buffer.limit() == buffer.capacity()) {
+			if (buffer.position() > 0) {
+				buffer.compact();
+				buffer.flip();
+			} else {
+				grow(2 * buffer.capacity());
+			}
+		}
+		int position = buffer.position();
+		int limit = buffer.limit();
+		buffer.limit(buffer.capacity());
+		buffer.position(limit);
+		try {
+			return channel.read(buffer);
+		} finally {
+			buffer.limit(buffer.position());
+			buffer.position(position);
+		}
+	}
+
+	/**
+	 * Parse the next chunk from the bytes already read (non-blocking mode)
+	 *
+	 * @return Returns false if no complete chunk is available yet
+	 * @throws IOException
+	 */
+	public boolean parseChunk() throws IOException {
+		try {
+			if (readChunk()) {
+				return true;
+			}
+		} catch (EOFException e) {
+			// Incomplete chunk
+		}
+
+		// Parse the chunk again from its beginning when more data have been read
+		buffer.position(0);
+		return false;
+	}
+
+	/**
+	 * Read and parse the next chunk from the stream
+	 *
+	 * @return Returns false if the end of stream has been reached before a new chunk
+	 * @throws IOException
+	 */
+	public boolean readChunk() throws IOException {
+		// Move the remaining bytes of the previous read at the beginning of the buffer
+		buffer.compact();
+		buffer.flip();
+
+		txId = null;
+		responseCode = -1;
+		method = null;
+		headers = null;
+		dataOffset = 0;
+		dataLength = -1;
+		continuationFlag = '\0';
+		totalSize = 0;
+
+		// Read the first line
+		int eol = findLineEnd(buffer.position());
+		if (eol == -1) {
+			return false;
+		}
+		parseFirstLine(buffer.position(), eol);
+		buffer.position(eol + 2);
+		if (txId == null) {
+			// Not a MSRP message
+			return true;
+		}
+		byte[] endTag = (MsrpConstants.END_MSRP_MSG + txId).getBytes(ASCII);
+
+		// Read the headers
+		headers = new Hashtable<String, String>();
+		while (true) {
+			int start = buffer.position();
+			eol = findLineEnd(start);
+			if (eol == -1) {
+				throw new EOFException("Unexpected end of MSRP chunk");
+			}
+			buffer.position(eol + 2);
+			if (eol == start) {
+				// Empty line separating the headers from the data
+				readData(endTag);
+				return true;
+			} else if (startsWith(start, eol, endTag)) {
+				// End line without data
+				continuationFlag = buffer.get(eol - 1);
+				return true;
+			} else {
+				parseHeader(start, eol);
+			}
+		}
+	}
+
+	/**
+	 * Are some data available for the next chunk without blocking
+	 *
+	 * @return Boolean
+	 * @throws IOException
+	 */
+	public boolean hasPendingData() throws IOException {
+		return buffer.hasRemaining() || ((stream != null) && (stream.available() > 0));
+	}
+
+	/**
+	 * Is the current chunk a MSRP message
+	 *
+	 * @return Boolean
+	 */
+	public boolean isMsrpChunk() {
+		return (txId != null);
+	}
+
+	/**
+	 * Returns the transaction ID of the current chunk
+	 *
+	 * @return Transaction ID
+	 */
+	public String getTransactionId() {
+		return txId;
+	}
+
+	/**
+	 * Returns the response code of the current chunk
+	 *
+	 * @return Response code or -1 if the chunk is a request
+	 */
+	public int getResponseCode() {
+		return responseCode;
+	}
+
+	/**
+	 * Returns the method of the current chunk
+	 *
+	 * @return Method or null if the chunk is a response
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Returns the headers of the current chunk
+	 *
+	 * @return Headers
+	 */
+	public Hashtable<String, String> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Returns the buffer holding the payload of the current chunk
+	 *
+	 * @return Byte array
+	 */
+	public byte[] getDataBuffer() {
+		return buffer.array();
+	}
+
+	/**
+	 * Returns the offset of the payload in the data buffer
+	 *
+	 * @return Offset
+	 */
+	public int getDataOffset() {
+		return dataOffset;
+	}
+
+	/**
+	 * Returns the length of the payload
+	 *
+	 * @return Length in bytes or -1 if the chunk has no payload
+	 */
+	public int getDataLength() {
+		return dataLength;
+	}
+
+	/**
+	 * Returns the continuation flag of the current chunk
+	 *
+	 * @return Flag
+	 */
+	public int getContinuationFlag() {
+		return continuationFlag;
+	}
+
+	/**
+	 * Returns the total size of the content
+	 *
+	 * @return Size in bytes
+	 */
+	public int getTotalSize() {
+		return totalSize;
+	}
+
+	/**
+	 * Returns the raw bytes of the current chunk for traces
+	 *
+	 * @return String
+	 */
+	public String getTrace() {
+		return new String(buffer.array(), 0, buffer.position(), ASCII);
+	}
+
+	/**
+	 * Read the data of a request and the end line
+	 *
+	 * @param endTag End tag
+	 * @throws IOException
+	 */
+	private void readData(byte[] endTag) throws IOException {
+		int bodyStart = buffer.position();
+		int chunkSize = -1;
+		String byteRange = headers.get(MsrpConstants.HEADER_BYTE_RANGE);
+		if (byteRange != null) {
+			chunkSize = MsrpUtils.getChunkSize(byteRange);
+			totalSize = MsrpUtils.getTotalSize(byteRange);
+		}
+
+		if (chunkSize > MAX_CHUNK_SIZE) {
+			throw new IOException("MSRP chunk too large");
+		}
+
+		if (chunkSize > 0) {
+			// Use Byte-Range value to read directly the block of data followed by CRLF
+			if (!ensureAvailable(bodyStart, chunkSize + 2)) {
+				throw new EOFException("Unexpected end of MSRP data");
+			}
+			dataOffset = bodyStart;
+			dataLength = chunkSize;
+			buffer.position(bodyStart + chunkSize + 2);
+
+			// Read the end line
+			int start = buffer.position();
+			int eol = findLineEnd(start);
+			if (eol == -1) {
+				throw new EOFException("Unexpected end of MSRP data");
+			}
+			if (!startsWith(start, eol, endTag)) {
+				throw new IOException("Invalid MSRP end line");
+			}
+			continuationFlag = buffer.get(eol - 1);
+			buffer.position(eol + 2);
+		} else {
+			// Search the end line preceded by CRLF; the search starts on the CRLF of the
+			// empty line so that an empty body is matched too
+			int tagLength = endTag.length + 2;
+			byte[] pattern = new byte[tagLength];
+			pattern[0] = MsrpConstants.CHAR_LF;
+			pattern[1] = MsrpConstants.CHAR_CR;
+			System.arraycopy(endTag, 0, pattern, 2, endTag.length);
+			int searchStart = bodyStart - 2;
+			int tagIndex;
+			int flagIndex;
+
+			// The data are bounded by the total size when it is known
+			int maxLength = MAX_UNSIZED_LENGTH;
+			if (totalSize > maxLength) {
+				maxLength = Math.min(totalSize, MAX_CHUNK_SIZE);
+			}
+			while (true) {
+				tagIndex = indexOf(searchStart, pattern, maxLength - (searchStart - bodyStart));
+				if (tagIndex == -1) {
+					throw new EOFException("Unexpected end of MSRP data");
+				}
+
+				// Read continuation flag and CRLF
+				flagIndex = tagIndex + tagLength;
+				if (!ensureAvailable(flagIndex, 3)) {
+					throw new EOFException("Unexpected end of MSRP data");
+				}
+				if (isEndLineEnd(flagIndex)) {
+					break;
+				}
+
+				// The tag is followed by other characters: it is part of the data
+				searchStart = tagIndex + 1;
+			}
+			dataOffset = bodyStart;
+			dataLength = Math.max(0, tagIndex - bodyStart);
+			continuationFlag = buffer.get(flagIndex);
+			buffer.position(flagIndex + 3);
+			if (chunkSize < 0) {
+				totalSize = dataLength;
+			}
+		}
+	}
+
+	/**
+	 * Test if the bytes at a given index are a continuation flag followed by CRLF
+	 *
+	 * @param index Index of the continuation flag
+	 * @return Boolean
+	 */
+	private boolean isEndLineEnd(int index) {
+		byte[] array = buffer.array();
+		int flag = array[index];
+		return ((flag == MsrpConstants.FLAG_LAST_CHUNK) || (flag == MsrpConstants.FLAG_MORE_CHUNK)
+				|| (flag == MsrpConstants.FLAG_ABORT_CHUNK))
+				&& (array[index + 1] == MsrpConstants.CHAR_LF) && (array[index + 2] == MsrpConstants.CHAR_CR);
+	}
+
+	/**
+	 * Parse the first line of a chunk
+	 *
+	 * @param start Start index
+	 * @param end End index (CRLF)
+	 */
+	private void parseFirstLine(int start, int end) {
+		byte[] array = buffer.array();
+		int sp1 = indexOfByte(array, start, end, MsrpConstants.CHAR_SP);
+		if ((sp1 == -1) || !new String(array, start, sp1 - start, ASCII).equals(MsrpConstants.MSRP_HEADER)) {
+			return;
+		}
+		int sp2 = indexOfByte(array, sp1 + 1, end, MsrpConstants.CHAR_SP);
+		if (sp2 == -1) {
+			return;
+		}
+		int sp3 = indexOfByte(array, sp2 + 1, end, MsrpConstants.CHAR_SP);
+		if (sp3 == -1) {
+			sp3 = end;
+		}
+		if (sp3 == sp2 + 1) {
+			return;
+		}
+
+		// Get response code or method name
+		int code = 0;
+		for (int i = sp2 + 1; i < sp3; i++) {
+			int digit = array[i] - '0';
+			if ((digit < 0) || (digit > 9) || (code > 99999)) {
+				code = -1;
+				break;
+			}
+			code = code * 10 + digit;
+		}
+		if (code >= 0) {
+			responseCode = code;
+		} else {
+			method = new String(array, sp2 + 1, sp3 - sp2 - 1, ASCII);
+		}
+		txId = new String(array, sp1 + 1, sp2 - sp1 - 1, ASCII);
+	}
+
+	/**
+	 * Parse a header line and add it in the header list
+	 *
+	 * @param start Start index
+	 * @param end End index (CRLF)
+	 * @throws IOException
+	 */
+	private void parseHeader(int start, int end) throws IOException {
+		byte[] array = buffer.array();
+		int index = indexOfByte(array, start, end, MsrpConstants.CHAR_DOUBLE_POINT);
+		if (index == -1) {
+			throw new IOException("Invalid MSRP header");
+		}
+		String headerName = new String(array, start, index - start, ASCII).trim();
+		String headerValue = new String(array, index + 1, end - index - 1, ASCII).trim();
+		headers.put(headerName, headerValue);
+	}
+
+	/**
+	 * Find the end of the line starting at a given index, reading the stream if needed
+	 *
+	 * @param start Start index
+	 * @return Index of the CRLF or -1 if the end of stream has been reached
+	 * @throws IOException If the line is longer than the maximum length
+	 */
+	private int findLineEnd(int start) throws IOException {
+		int from = start;
+		while (true) {
+			byte[] array = buffer.array();
+			int limit = buffer.limit();
+			for (int i = from; i < limit - 1; i++) {
+				if ((array[i] == MsrpConstants.CHAR_LF) && (array[i + 1] == MsrpConstants.CHAR_CR)) {
+					return i;
+				}
+			}
+			if (limit - start > MAX_UNSIZED_LENGTH + 2) {
+				throw new IOException("MSRP line too long");
+			}
+			from = Math.max(start, limit - 1);
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Search a pattern in the buffer from a given index, reading the stream if needed
+	 * (Boyer-Moore-Horspool)
+	 *
+	 * @param start Start index
+	 * @param pattern Pattern
+	 * @param maxLength Maximum number of bytes before the pattern
+	 * @return Index of the pattern or -1 if the end of stream has been reached
+	 * @throws IOException If the pattern is not found within the maximum length
+	 */
+	private int indexOf(int start, byte[] pattern, int maxLength) throws IOException {
+		int last = pattern.length - 1;
+		int[] skip = new int[256];
+		for (int i = 0; i < 256; i++) {
+			skip[i] = pattern.length;
+		}
+		for (int i = 0; i < last; i++) {
+			skip[pattern[i] & 0xff] = last - i;
+		}
+
+		int from = start;
+		while (true) {
+			byte[] array = buffer.array();
+			int limit = buffer.limit();
+			while (from + last < limit) {
+				int i = last;
+				while (array[from + i] == pattern[i]) {
+					if (i == 0) {
+						return from;
+					}
+					i--;
+				}
+				from += skip[array[from + last] & 0xff];
+			}
+			if (limit - start >= maxLength + pattern.length) {
+				throw new IOException("MSRP data too large");
+			}
+			if (!fill()) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Make sure that a number of bytes is available from a given index
+	 *
+	 * @param start Start index
+	 * @param length Number of bytes
+	 * @return Returns false if the end of stream has been reached
+	 * @throws IOException
+	 */
+	private boolean ensureAvailable(int start, int length) throws IOException {
+		if (start + length > buffer.capacity()) {
+			grow(start + length);
+		}
+		while (buffer.limit() < start + length) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Read more bytes from the stream at the end of the buffer
+	 *
+	 * @return Returns false if the end of stream has been reached
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (stream == null) {
+			// Non-blocking mode: no more data for now
+			return false;
+		}
+		if (buffer.limit() == buffer.capacity()) {
+			grow(2 * buffer.capacity());
+		}
+		int limit = buffer.limit();
+		int nbRead = stream.read(buffer.array(), limit, buffer.capacity() - limit);
+		if (nbRead == -1) {
+			return false;
+		}
+		buffer.limit(limit + nbRead);
+		return true;
+	}
+
+	/**
+	 * Grow the buffer while keeping its content and indexes
+	 *
+	 * @param capacity Minimum capacity
+	 */
+	private void grow(int capacity) {
+		ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(capacity, 2 * buffer.capacity()));
+		System.arraycopy(buffer.array(), 0, newBuffer.array(), 0, buffer.limit());
+		newBuffer.limit(buffer.limit());
+		newBuffer.position(buffer.position());
+		buffer = newBuffer;
+	}
+
+	/**
+	 * Test if the bytes between two indexes start with a given tag
+	 *
+	 * @param start Start index
+	 * @param end End index
+	 * @param tag Tag
+	 * @return Boolean
+	 */
+	private boolean startsWith(int start, int end, byte[] tag) {
+		if (end - start < tag.length) {
+			return false;
+		}
+		byte[] array = buffer.array();
+		for (int i = 0; i < tag.length; i++) {
+			if (array[start + i] != tag[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the index of a byte between two indexes
+	 *
+	 * @param array Byte array
+	 * @param start Start index
+	 * @param end End index
+	 * @param value Byte to search
+	 * @return Index or -1 if not found
+	 */
+	private static int indexOfByte(byte[] array, int start, int end, byte value) {
+		for (int i = start; i < end; i++) {
+			if (array[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -49,12 +49,23 @@ public class DataChunks {
 	 * @param data Data chunk
 	 */
 	public void addChunk(byte[] data) throws IOException, MsrpException {
+		addChunk(data, 0, data.length);
+	}
+
+	/**
+	 * Add a new chunk from a part of a buffer
+	 *
+	 * @param data Buffer containing the data chunk
+	 * @param offset Offset of the data chunk in the buffer
+	 * @param length Length of the data chunk
+	 */
+	public void addChunk(byte[] data, int offset, int length) throws IOException, MsrpException {
         try {
-		cache.write(data, 0, data.length);
+		cache.write(data, offset, length);
         } catch (OutOfMemoryError e) {
             throw new MsrpException("Not enough memory to save data");
         }
-		currentSize += data.length;
+		currentSize += length;
 	}
 
 	/**
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.orangelabs.rcs.platform.file.FileFactory;
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * File data sink: writes each received chunk directly in a file at the
+ * position given by its byte range, so that the heap used does not depend on
+ * the size of the content. The file may optionally be memory-mapped when the
+ * total size is known.
+ *
+ * @author jexa7410
+ */
+public class FileDataSink implements MsrpDataSink {
+	/**
+	 * File URL
+	 */
+	private String url;
+
+	/**
+	 * Total size of the content or -1 if unknown
+	 */
+	private long totalSize;
+
+	/**
+	 * Memory-mapped mode
+	 */
+	private boolean mapped;
+
+	/**
+	 * Random access file
+	 */
+	private RandomAccessFile file = null;
+
+	/**
+	 * File channel
+	 */
+	private FileChannel channel = null;
+
+	/**
+	 * Mapped buffer
+	 */
+	private MappedByteBuffer buffer = null;
+
+	/**
+	 * File created flag
+	 */
+	private boolean created = false;
+
+	/**
+	 * Number of bytes received contiguously from the start of the content
+	 */
+	private long receivedSize;
+
+	/**
+	 * Write failure flag
+	 */
+	private boolean writeFailed = false;
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Constructor
+	 *
+	 * @param url File URL
+	 * @param totalSize Total size of the content or -1 if unknown
+	 * @param mapped Memory-mapped mode
+	 */
+	public FileDataSink(String url, long totalSize, boolean mapped) {
+		this(url, totalSize, 0, mapped);
+	}
+
+	/**
+	 * Constructor used to resume a transfer: the bytes already present in
+	 * the file before the resume position are kept
+	 *
+	 * @param url File URL
+	 * @param totalSize Total size of the content or -1 if unknown
+	 * @param resumePosition Number of bytes already received
+	 * @param mapped Memory-mapped mode
+	 */
+	public FileDataSink(String url, long totalSize, long resumePosition, boolean mapped) {
+		this.url = url;
+		this.totalSize = totalSize;
+		this.receivedSize = resumePosition;
+		this.mapped = mapped && (totalSize > 0) && (totalSize <= Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Returns the file URL
+	 *
+	 * @return URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Open the file on the first write
+	 *
+	 * @throws IOException
+	 */
+	private void open() throws IOException {
+		// A file opened to resume a transfer is not created by this sink
+		created = (receivedSize == 0) || !FileFactory.getFactory().fileExists(url);
+		file = FileFactory.getFactory().openRandomAccessFile(url, "rw");
+		channel = file.getChannel();
+		if (channel.size() > receivedSize) {
+			// Discard the data after the resume position
+			channel.truncate(receivedSize);
+		} else if (channel.size() < receivedSize) {
+			// The file is shorter than expected: resume from its end
+			receivedSize = channel.size();
+		}
+		if (mapped) {
+			try {
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, totalSize);
+			} catch(IOException e) {
+				if (logger.isActivated()) {
+					logger.warn("Can't map the file " + url + ", use positional writes");
+				}
+				mapped = false;
+			}
+		}
+		if (logger.isActivated()) {
+			logger.debug("File " + url + " opened (mapped=" + mapped + ", position=" + receivedSize + ")");
+		}
+	}
+
+	/**
+	 * Write a data chunk
+	 *
+	 * @param position Position of the chunk in the content (starting at 0)
+	 * @param data Buffer containing the data
+	 * @param offset Offset of the data in the buffer
+	 * @param length Length of the data
+	 * @throws IOException
+	 */
+	public synchronized void write(long position, byte[] data, int offset, int length) throws IOException {
+		try {
+			if (channel == null) {
+				open();
+			}
+
+			if (mapped && ((position + length) <= totalSize)) {
+				buffer.position((int)position);
+				buffer.put(data, offset, length);
+			} else {
+				ByteBuffer src = ByteBuffer.wrap(data, offset, length);
+				long pos = position;
+				while (src.hasRemaining()) {
+					pos += channel.write(src, pos);
+				}
+			}
+		} catch(IOException e) {
+			writeFailed = true;
+			throw e;
+		}
+
+		if ((position <= receivedSize) && ((position + length) > receivedSize)) {
+			receivedSize = position + length;
+		}
+	}
+
+	/**
+	 * Returns the number of bytes received contiguously from the start of the
+	 * content, i.e. the position from which a transfer may be resumed
+	 *
+	 * @return Size in bytes
+	 */
+	public synchronized long getReceivedSize() {
+		return receivedSize;
+	}
+
+	/**
+	 * Returns true if a chunk could not be written in the file
+	 *
+	 * @return Boolean
+	 */
+	public synchronized boolean isWriteFailed() {
+		return writeFailed;
+	}
+
+	/**
+	 * Close the file
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (channel == null) {
+			return;
+		}
+		try {
+			if (buffer != null) {
+				buffer.force();
+				buffer = null;
+			}
+			if (totalSize > 0 && channel.size() > totalSize) {
+				channel.truncate(totalSize);
+			}
+		} finally {
+			channel = null;
+			file.close();
+			file = null;
+		}
+	}
+
+	/**
+	 * Close the file and delete it if it has been created by this sink: a
+	 * file opened to resume a transfer is kept with the bytes received
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void delete() throws IOException {
+		close();
+		if (!created) {
+			return;
+		}
+		created = false;
+		if (!FileFactory.getFactory().deleteFile(url)) {
+			throw new IOException("Unable to delete file: " + url);
+		}
+	}
+}
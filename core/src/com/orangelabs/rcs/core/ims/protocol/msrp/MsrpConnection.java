@@ -21,6 +21,7 @@ package com.orangelabs.rcs.core.ims.protocol.msrp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Hashtable;
 
 import com.orangelabs.rcs.platform.network.SocketConnection;
 import com.orangelabs.rcs.utils.logger.Logger;
@@ -204,6 +205,81 @@ public abstract class MsrpConnection {
 		sender.sendChunkImmediately(chunk);
 	}
 	
+	/**
+	 * Process a chunk received on the connection
+	 * 
+	 * @param parser Chunk parser holding the received chunk
+	 * @throws IOException
+	 * @throws MsrpException
+	 */
+	protected void receiveChunk(ChunkParser parser) throws IOException, MsrpException {
+		receiveChunk(parser.getTransactionId(), parser.getResponseCode(), parser.getMethod(), parser.getHeaders(),
+				parser.getContinuationFlag(), parser.getDataBuffer(), parser.getDataOffset(), parser.getDataLength(),
+				parser.getTotalSize(), MSRP_TRACE_ENABLED ? parser.getTrace() : null);
+	}
+
+	/**
+	 * Process a chunk received on the connection
+	 * 
+	 * @param txId Transaction ID
+	 * @param responseCode Response code or -1 for a request
+	 * @param method Method or null for a response
+	 * @param headers Headers
+	 * @param continuationFlag Continuation flag
+	 * @param data Buffer holding the payload
+	 * @param offset Offset of the payload in the buffer
+	 * @param length Length of the payload or -1 if the chunk has no payload
+	 * @param totalSize Total size of the content
+	 * @param trace Raw chunk for the traces
+	 * @throws IOException
+	 * @throws MsrpException
+	 */
+	protected void receiveChunk(String txId, int responseCode, String method, Hashtable<String, String> headers,
+			int continuationFlag, byte[] data, int offset, int length, int totalSize, String trace)
+			throws IOException, MsrpException {
+		if (logger.isActivated()) {
+			logger.debug("Transaction-ID: " + txId + " - " + ((responseCode != -1) ? "Response: " + responseCode : "Method: " + method)
+					+ " - Data: " + length + " - Continuous flag: " + (char)continuationFlag);
+		}
+
+		if (responseCode != -1) {
+			// Process MSRP response
+			if (MSRP_TRACE_ENABLED) {
+				System.out.println("<<< Receive MSRP response:\n" + trace);
+			}
+			session.receiveMsrpResponse(responseCode, txId, headers);
+		} else if (method.equals(MsrpConstants.METHOD_SEND)) {
+			// Process a SEND request
+			if (MSRP_TRACE_ENABLED) {
+				System.out.println("<<< Receive MSRP SEND request:\n" + trace);
+			}
+			if (length == -1) {
+				session.receiveMsrpSend(txId, headers, continuationFlag, null, totalSize);
+			} else {
+				session.receiveMsrpSend(txId, headers, continuationFlag, data, offset, length, totalSize);
+			}
+		} else if (method.equals(MsrpConstants.METHOD_REPORT)) {
+			// Process a REPORT request
+			if (MSRP_TRACE_ENABLED) {
+				System.out.println("<<< Receive MSRP REPORT request:\n" + trace);
+			}
+			session.receiveMsrpReport(txId, headers);
+		} else {
+			// Unknown request
+			if (logger.isActivated()) {
+				logger.debug("Unknown request received: " + method);
+			}
+
+			// Remove transaction info from list
+			// Changed by Deutsche Telekom
+			session.removeMsrpTransactionInfo(txId);
+		}
+
+		// Check transaction info data
+		// Changed by Deutsche Telekom
+		session.checkMsrpTransactionInfo();
+	}
+
 	/**
 	 * Returns the socket connection
 	 * 
@@ -58,5 +58,7 @@ public interface MsrpConstants {
 	public static final int RESPONSE_OK = 200;
 	
 	public static final int CHUNK_MAX_SIZE = 10 * 1024;
+	public static final int CHUNK_MIN_SIZE = 2 * 1024;
+	public static final int SEND_WINDOW_SIZE = 8;
 	public static final String COMMENT_OK = "OK";
 }
@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.IOException;
+
+/**
+ * MSRP data sink: receives the content of an incoming MSRP message chunk by
+ * chunk, each chunk being written at its position in the content
+ *
+ * @author jexa7410
+ */
+public interface MsrpDataSink {
+	/**
+	 * Write a data chunk. The data is only read during the call and may be
+	 * overwritten by the caller afterwards.
+	 *
+	 * @param position Position of the chunk in the content (starting at 0)
+	 * @param data Buffer containing the data
+	 * @param offset Offset of the data in the buffer
+	 * @param length Length of the data
+	 * @throws IOException
+	 */
+	public void write(long position, byte[] data, int offset, int length) throws IOException;
+
+	/**
+	 * Returns the number of bytes received contiguously from the start of the content
+	 *
+	 * @return Size in bytes
+	 */
+	public long getReceivedSize();
+
+	/**
+	 * Close the sink and release its resources
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
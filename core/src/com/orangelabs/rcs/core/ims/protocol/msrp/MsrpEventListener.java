@@ -42,6 +42,13 @@ public interface MsrpEventListener {
 	 * @param mimeType Data mime-type 
 	 */
 	public void msrpDataReceived(String msgId, byte[] data, String mimeType);
+
+	/**
+	 * No more received data is immediately available: the data received
+	 * since the previous call have all been notified, so that the listener
+	 * may process them as a whole
+	 */
+	public void msrpDataReceptionIdle();
 	
 	/**
 	 * Data transfer in progress
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * MSRP event loop: a single thread multiplexing the sockets of all the
+ * non-blocking MSRP connections on one selector. The received chunks are
+ * processed by a small pool of worker threads, so that a slow session (file
+ * write, history update) does not delay the I/O of the other connections.
+ *
+ * @author jexa7410
+ */
+public class MsrpEventLoop extends Thread {
+	/**
+	 * Select timeout in milliseconds, used to check the read timeouts
+	 */
+	private static final long SELECT_TIMEOUT = 1000;
+
+	/**
+	 * Number of worker threads processing the received chunks
+	 */
+	private static final int WORKER_THREADS = 4;
+
+	/**
+	 * Idle time after which a worker thread is stopped (in seconds)
+	 */
+	private static final long WORKER_KEEP_ALIVE = 60;
+
+	/**
+	 * Singleton instance
+	 */
+	private static MsrpEventLoop instance = null;
+
+	/**
+	 * Selector
+	 */
+	private Selector selector;
+
+	/**
+	 * Operations to be executed by the event loop thread
+	 */
+	private ConcurrentLinkedQueue<Runnable> pendingTasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Workers processing the received chunks
+	 */
+	private ThreadPoolExecutor workers;
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Returns the event loop, starting it if needed
+	 *
+	 * @return Event loop
+	 * @throws IOException
+	 */
+	public static synchronized MsrpEventLoop getInstance() throws IOException {
+		if (instance == null) {
+			instance = new MsrpEventLoop();
+			instance.start();
+		}
+		return instance;
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @throws IOException
+	 */
+	private MsrpEventLoop() throws IOException {
+		super("MsrpEventLoop");
+		setDaemon(true);
+		selector = Selector.open();
+
+		final AtomicInteger threadIndex = new AtomicInteger();
+		workers = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS,
+				WORKER_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "MsrpWorker-" + threadIndex.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		workers.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Is the current thread the event loop thread
+	 *
+	 * @return Boolean
+	 */
+	public boolean isEventLoopThread() {
+		return (Thread.currentThread() == this);
+	}
+
+	/**
+	 * Register a connection and start reading its socket
+	 *
+	 * @param connection Non-blocking MSRP connection
+	 * @param channel Connected socket channel
+	 * @throws IOException
+	 */
+	public void register(final MsrpNioConnection connection, final SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		execute(new Runnable() {
+			public void run() {
+				try {
+					connection.setSelectionKey(channel.register(selector, SelectionKey.OP_READ, connection));
+				} catch (IOException e) {
+					connection.handleError(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Request the flush of the pending data of a connection
+	 *
+	 * @param connection Non-blocking MSRP connection
+	 */
+	public void requestWrite(final MsrpNioConnection connection) {
+		execute(new Runnable() {
+			public void run() {
+				connection.handleWrite();
+			}
+		});
+	}
+
+	/**
+	 * Request to read again the socket of a connection
+	 *
+	 * @param connection Non-blocking MSRP connection
+	 */
+	public void requestRead(final MsrpNioConnection connection) {
+		execute(new Runnable() {
+			public void run() {
+				connection.resumeRead();
+			}
+		});
+	}
+
+	/**
+	 * Request the handling of a failure of a connection
+	 *
+	 * @param connection Non-blocking MSRP connection
+	 * @param e Exception
+	 */
+	public void requestError(final MsrpNioConnection connection, final Exception e) {
+		execute(new Runnable() {
+			public void run() {
+				connection.handleError(e);
+			}
+		});
+	}
+
+	/**
+	 * Run a processing of the received data in a worker thread
+	 *
+	 * @param task Processing
+	 */
+	public void executeWorker(Runnable task) {
+		workers.execute(task);
+	}
+
+	/**
+	 * Unregister a connection and close its socket
+	 *
+	 * @param connection Non-blocking MSRP connection
+	 * @param channel Socket channel
+	 */
+	public void unregister(final MsrpNioConnection connection, final SocketChannel channel) {
+		execute(new Runnable() {
+			public void run() {
+				SelectionKey key = channel.keyFor(selector);
+				if (key != null) {
+					key.cancel();
+				}
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Nothing to do
+				}
+			}
+		});
+	}
+
+	/**
+	 * Execute an operation in the event loop thread
+	 *
+	 * @param task Operation
+	 */
+	private void execute(Runnable task) {
+		pendingTasks.add(task);
+		if (!isEventLoopThread()) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Background processing
+	 */
+	public void run() {
+		if (logger.isActivated()) {
+			logger.debug("MSRP event loop is started");
+		}
+		long lastTimeoutCheck = System.currentTimeMillis();
+		while (true) {
+			try {
+				// Run the pending operations
+				Runnable task;
+				while ((task = pendingTasks.poll()) != null) {
+					task.run();
+				}
+
+				// Wait for I/O events
+				selector.select(pendingTasks.isEmpty() ? SELECT_TIMEOUT : 1);
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					MsrpNioConnection connection = (MsrpNioConnection)key.attachment();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isReadable()) {
+						connection.handleRead();
+					}
+					if (key.isValid() && key.isWritable()) {
+						connection.handleWrite();
+					}
+				}
+
+				// Check the read timeouts
+				long now = System.currentTimeMillis();
+				if ((now - lastTimeoutCheck) >= SELECT_TIMEOUT) {
+					lastTimeoutCheck = now;
+					for (SelectionKey key : selector.keys()) {
+						if (key.isValid()) {
+							((MsrpNioConnection)key.attachment()).checkReadTimeout(now);
+						}
+					}
+				}
+			} catch (Exception e) {
+				if (logger.isActivated()) {
+					logger.error("MSRP event loop failure", e);
+				}
+			}
+		}
+	}
+}
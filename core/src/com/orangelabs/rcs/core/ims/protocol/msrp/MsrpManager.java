@@ -62,6 +62,16 @@ public class MsrpManager {
      * Secured connection
      */
     private boolean secured = false;
+
+    /**
+     * Non-blocking transport
+     */
+    private boolean nioTransport = false;
+
+    /**
+     * Maximum number of SEND requests waiting for a response
+     */
+    private int sendWindow = MsrpConstants.SEND_WINDOW_SIZE;
     
     /**
      * The logger
@@ -78,6 +88,11 @@ public class MsrpManager {
     	this.localMsrpAddress = localMsrpAddress;
     	this.localMsrpPort = localMsrpPort;
     	this.sessionId = System.currentTimeMillis();
+    	RcsSettings settings = RcsSettings.getInstance();
+    	if (settings != null) {
+    		this.nioTransport = settings.isMsrpNioTransport();
+    		this.sendWindow = settings.getMsrpSendWindow();
+    	}
     }
 
 	// Changed by Deutsche Telekom
@@ -170,6 +185,26 @@ public class MsrpManager {
 		this.secured = flag;
 	}
 
+	/**
+	 * Is the non-blocking transport used
+	 * 
+	 * @return Boolean
+	 */
+	public boolean isNioTransport() {
+		return nioTransport;
+	}
+
+	/**
+	 * Set the non-blocking transport: the connections of the MSRP sessions
+	 * share one I/O thread instead of using a receiver and a sender thread each.
+	 * Secured client connections always use the blocking transport.
+	 * 
+	 * @param flag Boolean flag
+	 */
+	public void setNioTransport(boolean flag) {
+		this.nioTransport = flag;
+	}
+
 	/**
 	 * Open the MSRP session
 	 * 
@@ -264,10 +299,16 @@ public class MsrpManager {
 			msrpSession = new MsrpSession();
 			msrpSession.setFrom(getLocalMsrpPath());
 			msrpSession.setTo(remoteMsrpPath);
+			msrpSession.setSendWindow(sendWindow);
 
 			// Create a MSRP client connection
 			// Changed by Deutsche Telekom
-			MsrpConnection connection = new MsrpClientConnection(msrpSession, remoteHost, remotePort, secured, fingerprint);
+			MsrpConnection connection;
+			if (nioTransport && !secured) {
+				connection = new MsrpNioClientConnection(msrpSession, remoteHost, remotePort);
+			} else {
+				connection = new MsrpClientConnection(msrpSession, remoteHost, remotePort, secured, fingerprint);
+			}
 
 			// Associate the connection to the session
 			msrpSession.setConnection(connection);
@@ -302,9 +343,15 @@ public class MsrpManager {
 		msrpSession = new MsrpSession();
 		msrpSession.setFrom(getLocalMsrpPath());
 		msrpSession.setTo(remoteMsrpPath);
+		msrpSession.setSendWindow(sendWindow);
 
 		// Create a MSRP server connection
-		MsrpConnection connection = new MsrpServerConnection(msrpSession, localMsrpPort);
+		MsrpConnection connection;
+		if (nioTransport) {
+			connection = new MsrpNioServerConnection(msrpSession, localMsrpPort);
+		} else {
+			connection = new MsrpServerConnection(msrpSession, localMsrpPort);
+		}
 
 		// Associate the connection to the session
 		msrpSession.setConnection(connection);
@@ -0,0 +1,583 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpSession.TypeMsrpChunk;
+import com.orangelabs.rcs.platform.network.SocketConnection;
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * Abstract non-blocking MSRP connection between two end points. The socket
+ * is served by the shared {@link MsrpEventLoop} instead of a chunk receiver
+ * and a chunk sender thread per connection. The received chunks are copied
+ * and processed in order by a worker thread of the event loop, the socket
+ * is no more read while too many received bytes are waiting to be processed.
+ *
+ * @author jexa7410
+ */
+public abstract class MsrpNioConnection extends MsrpConnection {
+	/**
+	 * Maximum number of bytes waiting to be written before a sender is blocked
+	 */
+	private static final int MAX_PENDING_BYTES = 8 * MsrpConstants.CHUNK_MAX_SIZE;
+
+	/**
+	 * Maximum number of buffers written by one gathering write
+	 */
+	private static final int MAX_GATHERED_BUFFERS = 16;
+
+	/**
+	 * Maximum number of received bytes waiting to be processed before the
+	 * socket is no more read
+	 */
+	private static final int MAX_RECEIVED_BYTES = 8 * MsrpConstants.CHUNK_MAX_SIZE;
+
+	/**
+	 * Socket channel
+	 */
+	private SocketChannel channel = null;
+
+	/**
+	 * Selection key, only used by the event loop thread
+	 */
+	private SelectionKey key = null;
+
+	/**
+	 * Event loop
+	 */
+	private MsrpEventLoop eventLoop = null;
+
+	/**
+	 * Chunk parser
+	 */
+	private ChunkParser parser = new ChunkParser();
+
+	/**
+	 * Chunks waiting to be written
+	 */
+	private LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+	/**
+	 * Buffers of a gathering write
+	 */
+	private ByteBuffer[] gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+	/**
+	 * Number of bytes waiting to be written
+	 */
+	private long pendingBytes = 0;
+
+	/**
+	 * Received events waiting to be processed by a worker thread
+	 */
+	private LinkedList<ReceivedEvent> receivedEvents = new LinkedList<ReceivedEvent>();
+
+	/**
+	 * Number of received bytes waiting to be processed
+	 */
+	private int receivedBytes = 0;
+
+	/**
+	 * Is a worker thread processing the received events
+	 */
+	private boolean dispatching = false;
+
+	/**
+	 * Is the reading of the socket suspended
+	 */
+	private boolean readSuspended = false;
+
+	/**
+	 * Worker thread processing the received events
+	 */
+	private volatile Thread dispatchThread = null;
+
+	/**
+	 * Read timeout in milliseconds (0 for no timeout)
+	 */
+	private long readTimeout = 0;
+
+	/**
+	 * Time of the last read
+	 */
+	private long lastReadTime;
+
+	/**
+	 * Closed flag
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Constructor
+	 *
+	 * @param session MSRP session
+	 */
+	public MsrpNioConnection(MsrpSession session) {
+		super(session);
+	}
+
+	/**
+	 * Open the connection
+	 *
+	 * @throws IOException
+	 */
+	public void open() throws IOException {
+		// Open socket channel
+		channel = getSocketChannel();
+		lastReadTime = System.currentTimeMillis();
+
+		// Register the channel on the event loop
+		eventLoop = MsrpEventLoop.getInstance();
+		eventLoop.register(this, channel);
+
+		if (logger.isActivated()) {
+			logger.debug("Connection has been opened");
+		}
+	}
+
+	/**
+	 * Open the connection with a read timeout
+	 *
+	 * @param timeout Timeout value (in seconds)
+	 * @throws IOException
+	 */
+	public void open(int timeout) throws IOException {
+		readTimeout = timeout * 1000L;
+		open();
+	}
+
+	/**
+	 * Close the connection
+	 */
+	public void close() {
+		closed = true;
+
+		// Unblock the senders
+		synchronized(writeQueue) {
+			writeQueue.clear();
+			pendingBytes = 0;
+			writeQueue.notifyAll();
+		}
+
+		// Drop the received chunks not yet processed
+		synchronized(receivedEvents) {
+			receivedEvents.clear();
+			receivedBytes = 0;
+		}
+
+		// Close socket channel
+		if (logger.isActivated()) {
+			logger.debug("Close the socket connection");
+		}
+		if (channel != null) {
+			if (eventLoop != null) {
+				eventLoop.unregister(this, channel);
+			} else {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+
+		if (logger.isActivated()) {
+			logger.debug("Connection has been closed");
+		}
+	}
+
+	/**
+	 * Send a new data chunk. The caller is blocked while too many bytes are
+	 * waiting to be written, unless it is the event loop thread or the worker
+	 * thread processing the received chunks of the connection.
+	 *
+	 * @param chunk Data chunk
+	 * @throws IOException
+	 */
+	public void sendChunk(byte chunk[]) throws IOException {
+		if (eventLoop == null) {
+			throw new IOException("Connection not opened");
+		}
+		if (MsrpConnection.MSRP_TRACE_ENABLED) {
+			System.out.println(">>> Send MSRP message:\n" + new String(chunk));
+		}
+
+		synchronized(writeQueue) {
+			if (!eventLoop.isEventLoopThread() && (Thread.currentThread() != dispatchThread)) {
+				while ((pendingBytes > MAX_PENDING_BYTES) && !closed) {
+					try {
+						writeQueue.wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException("Send interrupted");
+					}
+				}
+			}
+			if (closed) {
+				throw new IOException("Connection closed");
+			}
+			writeQueue.add(ByteBuffer.wrap(chunk));
+			pendingBytes += chunk.length;
+		}
+		eventLoop.requestWrite(this);
+	}
+
+	/**
+	 * Send a new data chunk immediately
+	 *
+	 * @param chunk Data chunk
+	 * @throws IOException
+	 */
+	public void sendChunkImmediately(byte chunk[]) throws IOException {
+		sendChunk(chunk);
+	}
+
+	/**
+	 * Returns the socket connection: not available for a non-blocking connection
+	 *
+	 * @return Socket
+	 * @throws IOException
+	 */
+	public SocketConnection getSocketConnection() throws IOException {
+		throw new IOException("No socket connection in non-blocking mode");
+	}
+
+	/**
+	 * Set the selection key of the registered channel (event loop thread)
+	 *
+	 * @param key Selection key
+	 */
+	void setSelectionKey(SelectionKey key) {
+		this.key = key;
+	}
+
+	/**
+	 * Read the available data and dispatch the received chunks (event loop thread)
+	 */
+	void handleRead() {
+		try {
+			if (parser.readFrom(channel) == -1) {
+				if (logger.isActivated()) {
+					logger.debug("End of stream");
+				}
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				return;
+			}
+			lastReadTime = System.currentTimeMillis();
+			parseChunks();
+		} catch (Exception e) {
+			handleError(e);
+		}
+	}
+
+	/**
+	 * Read again the socket once the received chunks have been processed (event loop thread)
+	 */
+	void resumeRead() {
+		if (closed || (key == null) || !key.isValid()) {
+			return;
+		}
+		try {
+			lastReadTime = System.currentTimeMillis();
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+
+			// Dispatch the chunks already read
+			parseChunks();
+		} catch (Exception e) {
+			handleError(e);
+		}
+	}
+
+	/**
+	 * Parse the chunks from the bytes already read and dispatch them to a
+	 * worker thread (event loop thread)
+	 *
+	 * @throws IOException
+	 */
+	private void parseChunks() throws IOException {
+		while (!closed && parser.parseChunk()) {
+			// Check the MSRP tag
+			if (!parser.isMsrpChunk()) {
+				if (logger.isActivated()) {
+					logger.debug("Not a MSRP message");
+				}
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				return;
+			}
+
+			// Dispatch a copy of the received MSRP message, the parser buffer is reused
+			if (!dispatch(new ReceivedChunk(parser))) {
+				// Too many bytes to be processed: stop reading the socket
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Add a received event in the queue of the connection, a worker thread
+	 * is started if none is processing the queue
+	 *
+	 * @param event Received event
+	 * @return Returns false if the socket should no more be read
+	 */
+	private boolean dispatch(ReceivedEvent event) {
+		synchronized(receivedEvents) {
+			receivedEvents.add(event);
+			receivedBytes += event.getSize();
+			if (receivedBytes > MAX_RECEIVED_BYTES) {
+				readSuspended = true;
+			}
+			if (!dispatching) {
+				dispatching = true;
+				eventLoop.executeWorker(new Runnable() {
+					public void run() {
+						processReceivedEvents();
+					}
+				});
+			}
+			return !readSuspended;
+		}
+	}
+
+	/**
+	 * Process in order the received events of the connection (worker thread)
+	 */
+	private void processReceivedEvents() {
+		dispatchThread = Thread.currentThread();
+		try {
+			while (true) {
+				ReceivedEvent event;
+				synchronized(receivedEvents) {
+					event = receivedEvents.poll();
+				}
+				if (event == null) {
+					// Notify the session that the received data have been processed
+					getSession().receiveIdle();
+					synchronized(receivedEvents) {
+						if (receivedEvents.isEmpty()) {
+							dispatching = false;
+							return;
+						}
+					}
+					continue;
+				}
+				event.process();
+				synchronized(receivedEvents) {
+					receivedBytes -= event.getSize();
+					if (readSuspended && (receivedBytes <= MAX_RECEIVED_BYTES / 2)) {
+						readSuspended = false;
+						eventLoop.requestRead(this);
+					}
+				}
+			}
+		} finally {
+			dispatchThread = null;
+		}
+	}
+
+	/**
+	 * Write the pending data with gathering writes (event loop thread)
+	 */
+	void handleWrite() {
+		if ((key == null) || !key.isValid()) {
+			return;
+		}
+		try {
+			synchronized(writeQueue) {
+				while (!writeQueue.isEmpty()) {
+					int count = 0;
+					Iterator<ByteBuffer> iterator = writeQueue.iterator();
+					while (iterator.hasNext() && (count < MAX_GATHERED_BUFFERS)) {
+						gatheredBuffers[count++] = iterator.next();
+					}
+					pendingBytes -= channel.write(gatheredBuffers, 0, count);
+
+					// Remove the buffers which have been entirely written
+					int written = 0;
+					while (!writeQueue.isEmpty() && !writeQueue.getFirst().hasRemaining()) {
+						writeQueue.removeFirst();
+						written++;
+					}
+					if (written < count) {
+						// Socket send buffer is full
+						break;
+					}
+				}
+				for (int i = 0; i < MAX_GATHERED_BUFFERS; i++) {
+					gatheredBuffers[i] = null;
+				}
+
+				// Wait for the socket to be writable again if needed
+				if (writeQueue.isEmpty()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				} else {
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+				}
+				writeQueue.notifyAll();
+			}
+		} catch (IOException e) {
+			handleError(e);
+		}
+	}
+
+	/**
+	 * Check if no data has been received for longer than the read timeout (event loop thread)
+	 *
+	 * @param now Current time
+	 */
+	void checkReadTimeout(long now) {
+		if ((readTimeout > 0) && ((key.interestOps() & SelectionKey.OP_READ) != 0) && (now - lastReadTime > readTimeout)) {
+			handleError(new SocketTimeoutException("Read timed out"));
+		}
+	}
+
+	/**
+	 * Handle an I/O failure: the connection stops reading and writing, the
+	 * session is notified after the chunks already received. A failure
+	 * detected by another thread is handled by the event loop thread.
+	 *
+	 * @param e Exception
+	 */
+	void handleError(final Exception e) {
+		if ((eventLoop != null) && !eventLoop.isEventLoopThread()) {
+			eventLoop.requestError(this, e);
+			return;
+		}
+
+		if (key != null) {
+			key.cancel();
+		}
+		if (closed) {
+			if (logger.isActivated()) {
+				logger.debug("Connection terminated");
+			}
+			return;
+		}
+		closed = true;
+		synchronized(writeQueue) {
+			writeQueue.clear();
+			pendingBytes = 0;
+			writeQueue.notifyAll();
+		}
+
+		if (logger.isActivated()) {
+			logger.error("Connection has failed", e);
+		}
+
+		dispatch(new ReceivedEvent() {
+			public int getSize() {
+				return 0;
+			}
+
+			public void process() {
+				// Notify the session listener that an error has occured
+				getSession().getMsrpEventListener().msrpTransferError(null, e.getMessage(), TypeMsrpChunk.Unknown);
+
+				// Check transaction info data
+				getSession().checkMsrpTransactionInfo();
+			}
+		});
+	}
+
+	/**
+	 * Returns the connected socket channel
+	 *
+	 * @return Socket channel
+	 * @throws IOException
+	 */
+	public abstract SocketChannel getSocketChannel() throws IOException;
+
+	/**
+	 * Event processed by a worker thread
+	 */
+	private interface ReceivedEvent {
+		/**
+		 * Returns the number of received bytes of the event
+		 *
+		 * @return Size in bytes
+		 */
+		int getSize();
+
+		/**
+		 * Process the event
+		 */
+		void process();
+	}
+
+	/**
+	 * Copy of a received chunk
+	 */
+	private class ReceivedChunk implements ReceivedEvent {
+		private String txId;
+		private int responseCode;
+		private String method;
+		private Hashtable<String, String> headers;
+		private int continuationFlag;
+		private byte[] data = null;
+		private int totalSize;
+		private String trace;
+
+		/**
+		 * Constructor
+		 *
+		 * @param parser Chunk parser holding the received chunk
+		 */
+		public ReceivedChunk(ChunkParser parser) {
+			txId = parser.getTransactionId();
+			responseCode = parser.getResponseCode();
+			method = parser.getMethod();
+			headers = parser.getHeaders();
+			continuationFlag = parser.getContinuationFlag();
+			totalSize = parser.getTotalSize();
+			trace = MsrpConnection.MSRP_TRACE_ENABLED ? parser.getTrace() : null;
+			if (parser.getDataLength() != -1) {
+				data = new byte[parser.getDataLength()];
+				System.arraycopy(parser.getDataBuffer(), parser.getDataOffset(), data, 0, data.length);
+			}
+		}
+
+		public int getSize() {
+			return (data != null) ? data.length : 0;
+		}
+
+		public void process() {
+			try {
+				receiveChunk(txId, responseCode, method, headers, continuationFlag, data, 0,
+						(data != null) ? data.length : -1, totalSize, trace);
+			} catch (Exception e) {
+				handleError(e);
+			}
+		}
+	}
+}
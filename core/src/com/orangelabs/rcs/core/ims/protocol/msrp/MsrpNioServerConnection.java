@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * Non-blocking MSRP server connection
+ * 
+ * @author jexa7410
+ */
+public class MsrpNioServerConnection extends MsrpNioConnection {
+	/**
+	 * Local TCP port number
+	 */
+	private int localPort; 
+
+    /**
+     * Server socket channel
+     */
+    private ServerSocketChannel serverChannel = null;
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Constructor
+	 *
+	 * @param session MSRP session
+	 * @param localPort Local port number
+	 */
+	public MsrpNioServerConnection(MsrpSession session, int localPort) {
+		super(session);
+		this.localPort = localPort;
+	}
+
+	/**
+	 * Returns the connected socket channel
+	 *
+	 * @return Socket channel
+	 * @throws IOException
+	 */
+	public SocketChannel getSocketChannel() throws IOException {
+		if (logger.isActivated()) {
+			logger.debug("Open server socket channel at " + localPort);
+		}
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().bind(new InetSocketAddress(localPort));
+
+		if (logger.isActivated()) {
+			logger.debug("Wait client connection");
+		}
+
+		SocketChannel channel = serverChannel.accept();
+		if (logger.isActivated()) {
+			logger.debug("Socket channel connected to " + channel.socket().getInetAddress().getHostAddress() + ":"
+					+ channel.socket().getPort());
+		}
+		return channel;
+	}
+
+    /**
+     * Close the connection
+     */
+    public void close() {
+        super.close();
+        
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+}
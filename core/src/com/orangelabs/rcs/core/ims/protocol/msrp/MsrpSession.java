@@ -144,6 +144,11 @@ public class MsrpSession {
 	 * Received chunks
 	 */
 	private DataChunks receivedChunks = new DataChunks();	
+
+	/**
+	 * Data sink receiving the content chunks instead of the memory cache
+	 */
+	private MsrpDataSink dataSink = null;
 	
     /**
      * MSRP event listener
@@ -174,6 +179,21 @@ public class MsrpSession {
      * File transfer progress
      */
     private long totalSize;
+
+    /**
+     * Maximum number of SEND requests waiting for a response
+     */
+    private int sendWindow = MsrpConstants.SEND_WINDOW_SIZE;
+
+    /**
+     * Size of the next data chunk
+     */
+    private int chunkSize = MsrpConstants.CHUNK_MAX_SIZE;
+
+    /**
+     * Reusable buffer used to encode the headers of SEND requests
+     */
+    private byte[] headerBuffer = new byte[512];
     
     /**
 	 * The logger
@@ -268,6 +288,26 @@ public class MsrpSession {
 		this.successReportOption = successReportOption;
 	}	
 
+	/**
+	 * Returns the maximum number of SEND requests waiting for a response
+	 * when failure reports are requested
+	 * 
+	 * @return Window size
+	 */
+	public int getSendWindow() {
+		return sendWindow;
+	}
+
+	/**
+	 * Set the maximum number of SEND requests waiting for a response
+	 * when failure reports are requested
+	 * 
+	 * @param sendWindow Window size
+	 */
+	public void setSendWindow(int sendWindow) {
+		this.sendWindow = Math.max(1, sendWindow);
+	}
+
 	/**
 	 * Set the MSRP connection
 	 * 
@@ -277,6 +317,27 @@ public class MsrpSession {
 		this.connection = connection;
 	}
 
+	/**
+	 * Set the data sink: the received chunks are then written to the sink
+	 * at their byte range position instead of being cached in memory, and
+	 * the event listener receives a null content when the transfer is
+	 * terminated
+	 *
+	 * @param dataSink Data sink or null to cache the received chunks in memory
+	 */
+	public void setDataSink(MsrpDataSink dataSink) {
+		this.dataSink = dataSink;
+	}
+
+	/**
+	 * Returns the data sink
+	 *
+	 * @return Data sink or null
+	 */
+	public MsrpDataSink getDataSink() {
+		return dataSink;
+	}
+
 	/**
 	 * Returns the MSRP connection
 	 * 
@@ -304,6 +365,15 @@ public class MsrpSession {
 		this.msrpEventListener = listener;		
 	}
 	
+	/**
+	 * No more received data is immediately available on the connection
+	 */
+	public void receiveIdle() {
+		if (msrpEventListener != null) {
+			msrpEventListener.msrpDataReceptionIdle();
+		}
+	}
+	
 	/**
 	 * Returns the From path
 	 * 
@@ -407,6 +477,7 @@ public class MsrpSession {
 			byte data[] = new byte[MsrpConstants.CHUNK_MAX_SIZE];
 			long firstByte = 1;
 			long lastByte = 0;
+			chunkSize = MsrpConstants.CHUNK_MAX_SIZE;
 			cancelTransfer = false;
 			if (successReportOption) {
 				reportTransaction = new ReportTransaction();
@@ -419,30 +490,6 @@ public class MsrpSession {
                 msrpTransaction = null;
             }
 
-            // Changed by Deutsche Telekom
-            // Calculate number of needed chunks
-            final int totalChunks = (int) Math.ceil(totalSize / (double) MsrpConstants.CHUNK_MAX_SIZE);
-            
-			new Thread(new Runnable() {
-
-				@Override
-				public void run() {
-					if (msrpTransaction != null) {
-						while ((totalChunks - msrpTransaction.getNumberReceivedOk()) > 0 && !cancelTransfer) {
-							msrpEventListener.msrpTransferProgress(msrpTransaction.getNumberReceivedOk()
-									* MsrpConstants.CHUNK_MAX_SIZE, totalSize);
-							try {
-								Thread.sleep(500);
-							} catch (InterruptedException e) {
-								e.printStackTrace();
-							}
-						}
-					}
-
-				}
-
-			}).start();
-            
             // Changed by Deutsche Telekom
             String newTransactionId = null;
 
@@ -455,7 +502,15 @@ public class MsrpSession {
     		String msrpMsgId = IdGenerator.generateMessageID();
 
             // Send data chunk by chunk
-			for (int i = inputStream.read(data); (!cancelTransfer) & (i>-1); i=inputStream.read(data)) {
+			for (int i = inputStream.read(data, 0, getNextChunkSize()); (!cancelTransfer) & (i>-1); i=inputStream.read(data, 0, getNextChunkSize())) {
+				// Wait for a free slot in the window of requests without response
+				if ((msrpTransaction != null) && !msrpTransaction.waitWindow(sendWindow)) {
+					if (!cancelTransfer && !msrpTransaction.isTerminated()) {
+						msrpEventListener.msrpTransferError(msgId, "response timeout 408", typeMsrpChunk);
+					}
+					return;
+				}
+
 				// Update upper byte range
 				lastByte += i;
 
@@ -538,6 +593,37 @@ public class MsrpSession {
 		}
 	}
 
+	/**
+	 * Returns the size of the next data chunk. The transfer starts with the
+	 * maximum size. When responses are tracked and the round trip time rises
+	 * well above its minimum (data queued on the path), the size is reduced so
+	 * that the window of requests without response covers the bandwidth-delay
+	 * product at the minimum round trip time. The size grows back once the
+	 * round trip time has fallen again.
+	 * 
+	 * @return Size in bytes
+	 */
+	private int getNextChunkSize() {
+		if (msrpTransaction == null) {
+			return MsrpConstants.CHUNK_MAX_SIZE;
+		}
+		long rtt = msrpTransaction.getSmoothedRtt();
+		long minRtt = msrpTransaction.getMinRtt();
+		double rate = msrpTransaction.getDeliveryRate();
+		if ((rtt == 0) || (rate == 0)) {
+			return chunkSize;
+		}
+		if (rtt > 2 * minRtt) {
+			// Queuing delay: shrink to the bandwidth-delay product
+			long size = (long)(rate * minRtt) / sendWindow;
+			chunkSize = (int)Math.max(MsrpConstants.CHUNK_MIN_SIZE, Math.min(chunkSize, size));
+		} else {
+			// No queuing delay: grow again
+			chunkSize = Math.min(MsrpConstants.CHUNK_MAX_SIZE, 2 * chunkSize);
+		}
+		return chunkSize;
+	}
+
 	/**
 	 * Send empty chunk
 	 * 
@@ -593,90 +679,171 @@ public class MsrpSession {
     // Changed by Deutsche Telekom
 	private void sendMsrpSendRequest(String txId, String to, String from, String msrpMsgId, String contentType, int dataSize,
 			byte data[], long firstByte, long lastByte, long totalSize) throws MsrpException, IOException {
-		boolean isLastChunk = (lastByte == totalSize);
-
 		// Create request
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream(4000);
-		buffer.reset();
-		buffer.write(MsrpConstants.MSRP_HEADER.getBytes());
-		buffer.write(MsrpConstants.CHAR_SP);
-		buffer.write(txId.getBytes());
-		buffer.write((" " + MsrpConstants.METHOD_SEND).getBytes());
-		buffer.write(MsrpConstants.NEW_LINE.getBytes());
+		byte[] request = createMsrpSendRequest(txId, to, from, msrpMsgId, contentType, dataSize, data, firstByte, lastByte, totalSize);
 
-		String toHeader = MsrpConstants.HEADER_TO_PATH + ": " + to + MsrpConstants.NEW_LINE;
-		buffer.write(toHeader.getBytes());
-		String fromHeader = MsrpConstants.HEADER_FROM_PATH + ": " + from + MsrpConstants.NEW_LINE;
-		buffer.write(fromHeader.getBytes());
+		// Send chunk
+		if (failureReportOption) {
+			if (msrpTransaction != null) {
+				msrpTransaction.handleRequest(txId, dataSize);
+				requestTransaction = null;
+			} else {
+				requestTransaction = new RequestTransaction();
+			}
+			connection.sendChunk(request);
+			if (requestTransaction != null) {
+				requestTransaction.waitResponse();
+				if (!requestTransaction.isResponseReceived()) {
+					throw new MsrpException("timeout");
+				}
+			}
+		} else {
+			connection.sendChunk(request);
+			if (msrpTransaction != null) {
+				msrpTransaction.handleRequest(txId, dataSize);
+			}
+		}
+	}
+
+	/**
+	 * Create a MSRP SEND request
+	 * 
+	 * @param txId Transaction ID
+	 * @param to To header
+	 * @param from From header
+	 * @param msrpMsgId MSRP message ID
+	 * @param contentType Content type 
+	 * @param dataSize Data chunk size
+	 * @param data Data chunk
+	 * @param firstByte First byte range
+	 * @param lastByte Last byte range
+	 * @param totalSize Total size
+	 * @return Encoded request
+	 */
+	private synchronized byte[] createMsrpSendRequest(String txId, String to, String from, String msrpMsgId, String contentType,
+			int dataSize, byte data[], long firstByte, long lastByte, long totalSize) {
+		boolean isLastChunk = (lastByte == totalSize);
+
+		// Headers are encoded in the reusable header buffer
+		int length = 0;
+		length = putAscii(length, MsrpConstants.MSRP_HEADER);
+		headerBuffer[length++] = MsrpConstants.CHAR_SP;
+		length = putAscii(length, txId);
+		headerBuffer[length++] = MsrpConstants.CHAR_SP;
+		length = putAscii(length, MsrpConstants.METHOD_SEND);
+		length = putAscii(length, MsrpConstants.NEW_LINE);
+		length = putHeader(length, MsrpConstants.HEADER_TO_PATH, to);
+		length = putHeader(length, MsrpConstants.HEADER_FROM_PATH, from);
 		// Changed by Deutsche Telekom
-		String msgIdHeader = MsrpConstants.HEADER_MESSAGE_ID + ": " + msrpMsgId + MsrpConstants.NEW_LINE;
-		buffer.write(msgIdHeader.getBytes());
+		length = putHeader(length, MsrpConstants.HEADER_MESSAGE_ID, msrpMsgId);
 
 		// Write byte range
-		String byteRange = MsrpConstants.HEADER_BYTE_RANGE + ": " + firstByte + "-" + lastByte + "/" + totalSize
-				+ MsrpConstants.NEW_LINE;
-		buffer.write(byteRange.getBytes());
+		length = putAscii(length, MsrpConstants.HEADER_BYTE_RANGE);
+		headerBuffer[length++] = MsrpConstants.CHAR_DOUBLE_POINT;
+		headerBuffer[length++] = MsrpConstants.CHAR_SP;
+		length = putAscii(length, Long.toString(firstByte));
+		headerBuffer[length++] = MsrpConstants.CHAR_MIN;
+		length = putAscii(length, Long.toString(lastByte));
+		headerBuffer[length++] = '/';
+		length = putAscii(length, Long.toString(totalSize));
+		length = putAscii(length, MsrpConstants.NEW_LINE);
 
 		// Write optional headers
 		// Changed by Deutsche Telekom
 		// According with GSMA guidelines
 		if (failureReportOption) {
-			String header = MsrpConstants.HEADER_FAILURE_REPORT + ": yes" + MsrpConstants.NEW_LINE;
-			buffer.write(header.getBytes());
+			length = putHeader(length, MsrpConstants.HEADER_FAILURE_REPORT, "yes");
 		}
 		if (successReportOption) {
-			String header = MsrpConstants.HEADER_SUCCESS_REPORT + ": yes" + MsrpConstants.NEW_LINE;
-			buffer.write(header.getBytes());
+			length = putHeader(length, MsrpConstants.HEADER_SUCCESS_REPORT, "yes");
 		}
 
 		// Write content type
 		if (contentType != null) {
-			String content = MsrpConstants.HEADER_CONTENT_TYPE + ": " + contentType + MsrpConstants.NEW_LINE;
-			buffer.write(content.getBytes());
+			length = putHeader(length, MsrpConstants.HEADER_CONTENT_TYPE, contentType);
+		}
+
+		// Allocate the request at its final size
+		int size = length + MsrpConstants.END_MSRP_MSG.length() + txId.length() + 3;
+		if (data != null) {
+			size += dataSize + 4;
 		}
+		byte[] request = new byte[size];
+		System.arraycopy(headerBuffer, 0, request, 0, length);
 
 		// Write data
+		int pos = length;
 		if (data != null) {
-			buffer.write(MsrpConstants.NEW_LINE.getBytes());
-			buffer.write(data, 0, dataSize);
-			buffer.write(MsrpConstants.NEW_LINE.getBytes());
+			request[pos++] = MsrpConstants.CHAR_LF;
+			request[pos++] = MsrpConstants.CHAR_CR;
+			System.arraycopy(data, 0, request, pos, dataSize);
+			pos += dataSize;
+			request[pos++] = MsrpConstants.CHAR_LF;
+			request[pos++] = MsrpConstants.CHAR_CR;
 		}
 
 		// Write end of request
-		buffer.write(MsrpConstants.END_MSRP_MSG.getBytes());
-		buffer.write(txId.getBytes());
+		pos = putAscii(request, pos, MsrpConstants.END_MSRP_MSG);
+		pos = putAscii(request, pos, txId);
 		if (isLastChunk) {
 			// '$' -> last chunk
-			buffer.write(MsrpConstants.FLAG_LAST_CHUNK);
+			request[pos++] = (byte)MsrpConstants.FLAG_LAST_CHUNK;
 		} else {
 			// '+' -> more chunk
-			buffer.write(MsrpConstants.FLAG_MORE_CHUNK);
+			request[pos++] = (byte)MsrpConstants.FLAG_MORE_CHUNK;
 		}
-		buffer.write(MsrpConstants.NEW_LINE.getBytes());
+		request[pos++] = MsrpConstants.CHAR_LF;
+		request[pos++] = MsrpConstants.CHAR_CR;
+		return request;
+	}
 
-		// Send chunk
-		if (failureReportOption) {
-			if (msrpTransaction != null) {
-				msrpTransaction.handleRequest();
-				requestTransaction = null;
-			} else {
-				requestTransaction = new RequestTransaction();
-			}
-			connection.sendChunk(buffer.toByteArray());
-			buffer.close();
-			if (requestTransaction != null) {
-				requestTransaction.waitResponse();
-				if (!requestTransaction.isResponseReceived()) {
-					throw new MsrpException("timeout");
-				}
-			}
-		} else {
-			connection.sendChunk(buffer.toByteArray());
-			buffer.close();
-			if (msrpTransaction != null) {
-				msrpTransaction.handleRequest();
-			}
+	/**
+	 * Encode an ASCII string in the header buffer, growing it if needed
+	 * 
+	 * @param pos Position in the header buffer
+	 * @param value String
+	 * @return New position
+	 */
+	private int putAscii(int pos, String value) {
+		int length = value.length();
+		if (pos + length + 4 > headerBuffer.length) {
+			byte[] newBuffer = new byte[Math.max(2 * headerBuffer.length, pos + length + 4)];
+			System.arraycopy(headerBuffer, 0, newBuffer, 0, pos);
+			headerBuffer = newBuffer;
 		}
+		return putAscii(headerBuffer, pos, value);
+	}
+
+	/**
+	 * Encode a header line in the header buffer
+	 * 
+	 * @param pos Position in the header buffer
+	 * @param name Header name
+	 * @param value Header value
+	 * @return New position
+	 */
+	private int putHeader(int pos, String name, String value) {
+		pos = putAscii(pos, name);
+		headerBuffer[pos++] = MsrpConstants.CHAR_DOUBLE_POINT;
+		headerBuffer[pos++] = MsrpConstants.CHAR_SP;
+		pos = putAscii(pos, value);
+		return putAscii(pos, MsrpConstants.NEW_LINE);
+	}
+
+	/**
+	 * Encode an ASCII string in a byte array
+	 * 
+	 * @param buffer Byte array
+	 * @param pos Position in the array
+	 * @param value String
+	 * @return New position
+	 */
+	private static int putAscii(byte[] buffer, int pos, String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			buffer[pos++] = (byte)value.charAt(i);
+		}
+		return pos;
 	}
 	
 	/**
@@ -837,6 +1004,25 @@ public class MsrpSession {
 	 */
 	public void receiveMsrpSend(String txId, Hashtable<String, String> headers, int flag, byte[] data, long totalSize)
 			throws IOException, MsrpException {
+		int length = (data != null) ? data.length : 0;
+		receiveMsrpSend(txId, headers, flag, data, 0, length, totalSize);
+	}
+
+	/**
+	 * Receive MSRP SEND request. The received data is only read during the call
+	 * and may be overwritten by the caller afterwards.
+	 * 
+	 * @param txId Transaction ID
+	 * @param headers Request headers
+	 * @param flag Continuation flag
+	 * @param data Buffer containing the received data or null for an empty chunk
+	 * @param offset Offset of the received data in the buffer
+	 * @param length Length of the received data
+	 * @param totalSize Total size of the content
+	 * @throws IOException
+	 */
+	public void receiveMsrpSend(String txId, Hashtable<String, String> headers, int flag, byte[] data, int offset, int length,
+			long totalSize) throws IOException, MsrpException {
 		// Receive a SEND request
 		if (logger.isActivated()) {
 			logger.debug("SEND request received (flag=" + flag + ", transaction=" + txId + ", totalSize=" + totalSize + ")");
@@ -865,8 +1051,14 @@ public class MsrpSession {
 			return;
 		}
 
+		if (dataSink != null) {
+			// Write received data chunk at its position in the content
+			receiveMsrpSendToSink(txId, headers, flag, data, offset, length, totalSize);
+			return;
+		}
+
 		// Save received data chunk if there is some
-		receivedChunks.addChunk(data);
+		receivedChunks.addChunk(data, offset, length);
 
 		// Check the continuation flag
 		if (flag == MsrpConstants.FLAG_LAST_CHUNK) {
@@ -931,6 +1123,76 @@ public class MsrpSession {
 		}
 	}
 
+	/**
+	 * Write a received data chunk to the data sink
+	 * 
+	 * @param txId Transaction ID
+	 * @param headers Request headers
+	 * @param flag Continuation flag
+	 * @param data Buffer containing the received data
+	 * @param offset Offset of the received data in the buffer
+	 * @param length Length of the received data
+	 * @param totalSize Total size of the content
+	 * @throws IOException
+	 */
+	private void receiveMsrpSendToSink(String txId, Hashtable<String, String> headers, int flag, byte[] data, int offset,
+			int length, long totalSize) throws IOException {
+		String msgId = headers.get(MsrpConstants.HEADER_MESSAGE_ID);
+
+		// The position is given by the byte range, else the chunk follows the previous one
+		long position = MsrpUtils.getFirstByte(headers.get(MsrpConstants.HEADER_BYTE_RANGE)) - 1;
+		if (position < 0) {
+			position = dataSink.getReceivedSize();
+		}
+		try {
+			dataSink.write(position, data, offset, length);
+		} catch (IOException e) {
+			if (logger.isActivated()) {
+				logger.error("Can't write the received data", e);
+			}
+			msrpEventListener.msrpTransferError(msgId, e.getMessage(), TypeMsrpChunk.Unknown);
+			return;
+		}
+
+		if (flag == MsrpConstants.FLAG_LAST_CHUNK) {
+			// Transfer terminated
+			if (logger.isActivated()) {
+				logger.info("Transfer terminated");
+			}
+
+			// Notify event listener
+			String contentTypeHeader = headers.get(MsrpConstants.HEADER_CONTENT_TYPE);
+			msrpEventListener.msrpDataReceived(msgId, null, contentTypeHeader);
+
+			// Send MSRP report if requested
+			String reportHeader = headers.get(MsrpConstants.HEADER_SUCCESS_REPORT);
+			if ((reportHeader != null) && reportHeader.equalsIgnoreCase("yes")) {
+				try {
+					sendMsrpReportRequest(txId, headers, dataSink.getReceivedSize(), totalSize);
+				} catch (MsrpException e) {
+					// Report failed
+					if (logger.isActivated()) {
+						logger.error("Can't send report", e);
+					}
+
+					// Notify event listener
+					msrpEventListener.msrpTransferError(msgId, e.getMessage(), TypeMsrpChunk.StatusReport);
+				}
+			}
+		} else if (flag == MsrpConstants.FLAG_ABORT_CHUNK) {
+			// Transfer aborted
+			if (logger.isActivated()) {
+				logger.info("Transfer aborted");
+			}
+
+			// Notify event listener
+			msrpEventListener.msrpTransferAborted();
+		} else if (flag == MsrpConstants.FLAG_MORE_CHUNK) {
+			// Notify event listener
+			msrpEventListener.msrpTransferProgress(dataSink.getReceivedSize(), totalSize);
+		}
+	}
+
 	/**
 	 * Receive MSRP response
 	 * 
@@ -958,7 +1220,7 @@ public class MsrpSession {
 
 		// Notify MSRP transaction
 		if (msrpTransaction != null) {
-			msrpTransaction.handleResponse();
+			msrpTransaction.handleResponse(txId);
 		}
 
 		// Notify event listener
@@ -1177,34 +1439,24 @@ public class MsrpSession {
 	 */
 	public void checkMsrpTransactionInfo() {
 		if (mTransactionInfoMap != null) {
-			Thread checkThread = new Thread(new Runnable() {
-
-				@Override
-				public void run() {
-					List<MsrpTransactionInfo> msrpTransactionInfos = null;
-					synchronized (mTransactionMsgIdMapLock) {
-						// Copy the transaction info items to accelerate the locking while doing expiring process
-						msrpTransactionInfos = new ArrayList<MsrpTransactionInfo>(mTransactionInfoMap.values());
+			List<MsrpTransactionInfo> msrpTransactionInfos = null;
+			synchronized (mTransactionMsgIdMapLock) {
+				// Copy the transaction info items to accelerate the locking while doing expiring process
+				msrpTransactionInfos = new ArrayList<MsrpTransactionInfo>(mTransactionInfoMap.values());
+			}
+			for (MsrpTransactionInfo msrpTransactionInfo : msrpTransactionInfos) {
+				long delta = (System.currentTimeMillis() - msrpTransactionInfo.timestamp) / 1000;
+				if ((delta >= TRANSACTION_INFO_EXPIRY_PERIOD) || (delta < 0)) {
+					if (logger.isActivated()) {
+						logger.debug("Transaction info have expired (transactionId: " + msrpTransactionInfo.transactionId
+								+ ", msgId: " + msrpTransactionInfo.msrpMsgId + ")");
 					}
-					for (MsrpTransactionInfo msrpTransactionInfo : msrpTransactionInfos) {
-						long delta = (System.currentTimeMillis() - msrpTransactionInfo.timestamp) / 1000;
-						if ((delta >= TRANSACTION_INFO_EXPIRY_PERIOD) || (delta < 0)) {
-							if (logger.isActivated()) {
-								logger.debug("Transaction info have expired (transactionId: " + msrpTransactionInfo.transactionId
-										+ ", msgId: " + msrpTransactionInfo.msrpMsgId + ")");
-							}
-							mTransactionInfoMap.remove(msrpTransactionInfo.transactionId);
-							if (mMessageTransactionMap != null) {
-								mMessageTransactionMap.remove(msrpTransactionInfo.msrpMsgId);
-							}
-						}
+					mTransactionInfoMap.remove(msrpTransactionInfo.transactionId);
+					if (mMessageTransactionMap != null) {
+						mMessageTransactionMap.remove(msrpTransactionInfo.msrpMsgId);
 					}
-
 				}
-
-			});
-			checkThread.start();
-
+			}
 		}
 	}
 }
@@ -17,11 +17,14 @@
  ******************************************************************************/
 package com.orangelabs.rcs.core.ims.protocol.msrp;
 
+import java.util.HashMap;
 import java.util.Timer;
 import java.util.TimerTask;
 
 /**
- * MSRP transaction
+ * MSRP transaction: tracks the SEND requests waiting for a response, limits
+ * their number to a sliding window and measures the round trip time and the
+ * delivery rate
  *
  * @author B. JOGUET
  */
@@ -57,6 +60,36 @@ public class MsrpTransaction extends Object {
      */
     private Timer timer = new Timer();
 
+    /**
+     * Sending time of the requests waiting for a response, indexed by transaction ID
+     */
+    private HashMap<String, Long> pendingRequests = new HashMap<String, Long>();
+
+    /**
+     * Size of the requests waiting for a response, indexed by transaction ID
+     */
+    private HashMap<String, Integer> pendingSizes = new HashMap<String, Integer>();
+
+    /**
+     * Smoothed round trip time in milliseconds (0 if not yet measured)
+     */
+    private long smoothedRtt = 0;
+
+    /**
+     * Minimum round trip time in milliseconds (0 if not yet measured)
+     */
+    private long minRtt = 0;
+
+    /**
+     * Smoothed delivery rate in bytes per millisecond (0 if not yet measured)
+     */
+    private double deliveryRate = 0;
+
+    /**
+     * Time of the last response
+     */
+    private long lastResponseTime = 0;
+
     /**
      * Constructor
      */
@@ -82,14 +115,44 @@ public class MsrpTransaction extends Object {
     }
 
     /**
-     * Handle new request
+     * Wait until the number of requests without response is lower than the window size
+     *
+     * @param window Maximum number of requests without response
+     * @return Returns false if the transaction is terminated or if no response has been received before the timeout
      */
-    public void handleRequest() {
-        // Changed by Deutsche Telekom
-        // requests and responses are handled in different threads which need to be synchronized
-        synchronized(this){
-            waitingCount++;
+    public synchronized boolean waitWindow(int window) {
+        long deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+        int received = totalReceivedResponses;
+        while ((waitingCount >= window) && !isTerminated) {
+            if (totalReceivedResponses != received) {
+                // A response has been received: restart the timeout
+                received = totalReceivedResponses;
+                deadline = System.currentTimeMillis() + TIMEOUT * 1000;
+            }
+            long delay = deadline - System.currentTimeMillis();
+            if (delay <= 0) {
+                return false;
+            }
+            try {
+                super.wait(delay);
+            } catch(InterruptedException e) {
+                return false;
+            }
         }
+        return !isTerminated;
+    }
+
+    /**
+     * Handle new request
+     *
+     * @param txId Transaction ID
+     * @param size Size of the data chunk
+     */
+    public synchronized void handleRequest(String txId, int size) {
+        long now = System.currentTimeMillis();
+        pendingRequests.put(txId, now);
+        pendingSizes.put(txId, size);
+        waitingCount++;
     }
 
     /**
@@ -106,13 +169,84 @@ public class MsrpTransaction extends Object {
         if (isWaiting) {
             if (waitingCount == 0) {
                 // Unblock semaphore
-                super.notify();
+                super.notifyAll();
             } else {
                 // ReInit timeout
                 stopTimer();
                 startTimer();
             }
+        } else {
+            // Unblock the window
+            super.notifyAll();
+        }
+    }
+
+    /**
+     * Handle new response
+     *
+     * @param txId Transaction ID
+     */
+    public synchronized void handleResponse(String txId) {
+        Long sendingTime = pendingRequests.remove(txId);
+        if (sendingTime == null) {
+            // Response to a request which is not part of this transaction
+            return;
+        }
+
+        // Update the smoothed round trip time (RFC 6298)
+        long now = System.currentTimeMillis();
+        long rtt = Math.max(1, now - sendingTime);
+        if (smoothedRtt == 0) {
+            smoothedRtt = rtt;
+        } else {
+            smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+        }
+        if ((minRtt == 0) || (rtt < minRtt)) {
+            minRtt = rtt;
+        }
+
+        // Update the smoothed delivery rate from the bytes acknowledged since the
+        // previous response, the idle time before the request is not counted
+        int size = pendingSizes.remove(txId);
+        long interval = now - Math.max(sendingTime, lastResponseTime);
+        if (interval > 0) {
+            double rate = (double)size / interval;
+            if (deliveryRate == 0) {
+                deliveryRate = rate;
+            } else {
+                deliveryRate = (7 * deliveryRate + rate) / 8;
+            }
         }
+        lastResponseTime = now;
+
+        handleResponse();
+    }
+
+    /**
+     * Returns the smoothed round trip time
+     *
+     * @return Milliseconds or 0 if not yet measured
+     */
+    public synchronized long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    /**
+     * Returns the minimum round trip time
+     *
+     * @return Milliseconds or 0 if not yet measured
+     */
+    public synchronized long getMinRtt() {
+        return minRtt;
+    }
+
+    /**
+     * Returns the smoothed delivery rate measured on the recent responses
+     *
+     * @return Bytes per millisecond or 0 if not yet measured
+     */
+    public synchronized double getDeliveryRate() {
+        return deliveryRate;
     }
 
     /**
@@ -130,7 +264,7 @@ public class MsrpTransaction extends Object {
     public synchronized void terminate() {
         isTerminated = true;
         // Unblock semaphore
-        super.notify();
+        super.notifyAll();
         // Stop timer
         stopTimer();
     }
@@ -170,7 +304,7 @@ public class MsrpTransaction extends Object {
      */
     private synchronized void timerExpire() {
         // Unblock semaphore
-        super.notify();
+        super.notifyAll();
     }
 
     // Changed by Deutsche Telekom
@@ -51,6 +51,27 @@ public class MsrpUtils {
 		return -1;
 	}
 	
+	/**
+	 * Get the first byte
+	 *
+	 * @param header MSRP header
+	 * @return Position of the first byte (starting at 1) or -1 if not present
+	 */
+	public static long getFirstByte(String header) {
+		if (header == null) {
+			return -1;
+		}
+		int index = header.indexOf("-");
+		if (index != -1) {
+			try {
+				return Long.parseLong(header.substring(0, index).trim());
+			} catch (NumberFormatException e) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * Get the total size
 	 *
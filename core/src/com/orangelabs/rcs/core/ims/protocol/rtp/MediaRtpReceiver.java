@@ -91,6 +91,10 @@ public class MediaRtpReceiver {
         	// Create the codec chain
         	Codec[] codecChain = MediaRegistry.generateDecodingCodecChain(format.getCodec());
 
+            // Without decoder the renderer keeps the received data: it gets
+            // a copy of each payload (see RtpInputStream.setSharedBuffer)
+            inputStream.setSharedBuffer(codecChain.length > 0);
+
             // Create the media processor
     		processor = new Processor(inputStream, outputStream, codecChain);
 
@@ -73,8 +73,18 @@ public class H264RtpHeaders {
      * @param rtpPacketData
      */
     public H264RtpHeaders(byte[] rtpPacketData) {
+        this(rtpPacketData, 0);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param rtpPacketData
+     * @param offset Offset of the RTP payload in rtpPacketData
+     */
+    public H264RtpHeaders(byte[] rtpPacketData, int offset) {
         // Get FU indicator
-        byte data_FUI = rtpPacketData[0];
+        byte data_FUI = rtpPacketData[offset];
         this.FUI_F = ((data_FUI >> 7) & 0x01) != 0;
         this.FUI_NRI = ((data_FUI >> 5) & 0x07);
         this.FUI_TYPE = (byte) (data_FUI & 0x1f);
@@ -82,7 +92,7 @@ public class H264RtpHeaders {
 
         if (FUI_TYPE == AVC_NALTYPE_FUA) {
             // Get FU header
-            byte data_FUH = rtpPacketData[1];
+            byte data_FUH = rtpPacketData[offset + 1];
             this.FUH_S = (data_FUH & 0x80) != 0;
             this.FUH_E = (data_FUH & 0x40) != 0;
             this.FUH_R = (data_FUH & 0x20) != 0;
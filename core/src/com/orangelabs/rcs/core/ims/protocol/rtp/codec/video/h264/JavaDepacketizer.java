@@ -100,24 +100,20 @@ public class JavaDepacketizer extends VideoCodec {
      * @param input
      */
     private void extractNalUnitHeader(Buffer input) {
-        if (mNalUnitHeader == null) {
-            mNalUnitHeader = NalUnitHeader.extract((byte[])input.getData());
-        } else {
-            NalUnitHeader.extract((byte[])input.getData(), mNalUnitHeader);
-        }
+        extractNalUnitHeader(0, input);
     }
 
     /**
      * Extract the NAL unit header at position
      *
      * @param input
-     * @param position
+     * @param position Position relative to the buffer offset
      */
     private void extractNalUnitHeader(int position, Buffer input) {
         if (mNalUnitHeader == null) {
-            mNalUnitHeader = NalUnitHeader.extract(position, (byte[])input.getData());
+            mNalUnitHeader = NalUnitHeader.extract(input.getOffset() + position, (byte[])input.getData());
         } else {
-            NalUnitHeader.extract(position, (byte[])input.getData(), mNalUnitHeader);
+            NalUnitHeader.extract(input.getOffset() + position, (byte[])input.getData(), mNalUnitHeader);
         }
     }
 
@@ -129,9 +125,9 @@ public class JavaDepacketizer extends VideoCodec {
     private int handleSingleNalUnitPacket(Buffer input, Buffer output) {
         // Create output buffer
         byte[] bufferData = (byte[]) input.getData();
-        int bufferDataLength = bufferData.length;
+        int bufferDataLength = input.getLength();
         byte[] data = new byte[bufferDataLength];
-        System.arraycopy(bufferData, 0, data, 0, bufferDataLength);
+        System.arraycopy(bufferData, input.getOffset(), data, 0, bufferDataLength);
 
         // Set buffer
         output.setData(data);
@@ -154,7 +150,9 @@ public class JavaDepacketizer extends VideoCodec {
     private int handleAggregationPacket(Buffer input, Buffer output) {
         // Get data
         byte[] bufferData = (byte[]) input.getData();
-        if (aggregationPositon + 1 >= bufferData.length) {
+        int bufferDataOffset = input.getOffset();
+        int bufferDataLength = input.getLength();
+        if (aggregationPositon + 1 >= bufferDataLength) {
             // No more data in aggregation packet
             aggregationPositon = 1;
             output.setDiscard(true);
@@ -162,9 +160,10 @@ public class JavaDepacketizer extends VideoCodec {
         }
 
         // Get NALU size
-        int nalu_size = (((bufferData[aggregationPositon] & 0xff) << 8) | (bufferData[aggregationPositon + 1] & 0xff));
+        int nalu_size = (((bufferData[bufferDataOffset + aggregationPositon] & 0xff) << 8)
+                | (bufferData[bufferDataOffset + aggregationPositon + 1] & 0xff));
         aggregationPositon+=2;
-        if (aggregationPositon + nalu_size > bufferData.length) {
+        if (aggregationPositon + nalu_size > bufferDataLength) {
             // Not a correct packet
             aggregationPositon = 1;
             return BUFFER_PROCESSED_FAILED;
@@ -175,7 +174,7 @@ public class JavaDepacketizer extends VideoCodec {
         if (mNalUnitHeader.isSingleNalUnitPacket()) {
             // Create output buffer
             byte[] data = new byte[nalu_size];
-            System.arraycopy(bufferData, aggregationPositon, data, 0, nalu_size);
+            System.arraycopy(bufferData, bufferDataOffset + aggregationPositon, data, 0, nalu_size);
             aggregationPositon+=nalu_size;
 
             // Set buffer
@@ -249,7 +248,7 @@ public class JavaDepacketizer extends VideoCodec {
             }
 
             byte[] currentRtpPacketData = ((byte[]) buffer.getData());
-            H264RtpHeaders h264RtpHeaders = new H264RtpHeaders(currentRtpPacketData);
+            H264RtpHeaders h264RtpHeaders = new H264RtpHeaders(currentRtpPacketData, buffer.getOffset());
 
             // Forbidden zero bit, must be zero for a valid stream
             if (h264RtpHeaders.getFUI_F()) {
@@ -276,7 +275,7 @@ public class JavaDepacketizer extends VideoCodec {
             int posSeq = (int) (buffer.getSequenceNumber() & VIDEO_DECODER_MAX_PAYLOADS_CHUNKS_MASK);
 
             // Exclude header size
-            int payloadStartPosition = h264RtpHeaders.getHeaderSize();
+            int payloadStartPosition = buffer.getOffset() + h264RtpHeaders.getHeaderSize();
             // Exclude header size
             int payloadLength = buffer.getLength() - h264RtpHeaders.getHeaderSize();
 
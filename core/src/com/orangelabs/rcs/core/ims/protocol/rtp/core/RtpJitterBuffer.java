@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.protocol.rtp.core;
+
+/**
+ * Adaptive jitter buffer. The received packets are ordered on their extended
+ * sequence number: a packet is delivered as soon as all the previous ones
+ * have been delivered, so that an in order stream is not delayed. A missing
+ * packet is waited for at most the playout delay, estimated from the
+ * interarrival jitter of the source, then it is declared lost. A packet
+ * received after its turn is dropped as late.
+ *
+ * The RTP timestamp is not used: it doesn't give the order of the packets
+ * of a video frame, which share it, nor the order of the frames when their
+ * decoding order differs from their presentation order. The presentation
+ * time of the media is left to the decoder.
+ *
+ * @author jexa7410
+ */
+public class RtpJitterBuffer {
+    /**
+     * Number of packets which can be buffered (power of 2)
+     */
+    private static final int CAPACITY = 128;
+
+    /**
+     * Minimum playout delay in milliseconds
+     */
+    public static final int MIN_PLAYOUT_DELAY = 20;
+
+    /**
+     * Maximum playout delay in milliseconds
+     */
+    public static final int MAX_PLAYOUT_DELAY = 500;
+
+    /**
+     * Ratio between the playout delay and the interarrival jitter
+     */
+    private static final int JITTER_FACTOR = 3;
+
+    /**
+     * Buffered packets, indexed by extended sequence number modulo the capacity
+     */
+    private RtpPacket[] packets = new RtpPacket[CAPACITY];
+
+    /**
+     * Number of buffered packets
+     */
+    private int count = 0;
+
+    /**
+     * Extended sequence number of the next packet to deliver (-1 until the
+     * first packet)
+     */
+    private int nextSeqnum = -1;
+
+    /**
+     * Arrival time of the oldest packet waiting for a missing one (-1 if
+     * there is no missing packet)
+     */
+    private long waitingSince = -1;
+
+    /**
+     * Playout delay in milliseconds
+     */
+    private int playoutDelay = MIN_PLAYOUT_DELAY;
+
+    /**
+     * RTP receiver
+     */
+    private RtpPacketReceiver receiver;
+
+    /**
+     * Statistics
+     */
+    private RtpStatisticsReceiver stats;
+
+    /**
+     * Constructor
+     *
+     * @param receiver RTP receiver providing the packets
+     */
+    public RtpJitterBuffer(RtpPacketReceiver receiver) {
+        this.receiver = receiver;
+        this.stats = receiver.getRtpReceptionStats();
+        stats.playoutDelay = playoutDelay;
+    }
+
+    /**
+     * Adapts the playout delay to the interarrival jitter
+     *
+     * @param jitter Interarrival jitter in milliseconds
+     */
+    public void updatePlayoutDelay(long jitter) {
+        playoutDelay = (int)Math.min(MAX_PLAYOUT_DELAY, Math.max(MIN_PLAYOUT_DELAY, JITTER_FACTOR * jitter));
+        stats.jitter = jitter;
+        stats.playoutDelay = playoutDelay;
+    }
+
+    /**
+     * Returns the playout delay
+     *
+     * @return Delay in milliseconds
+     */
+    public int getPlayoutDelay() {
+        return playoutDelay;
+    }
+
+    /**
+     * Adds a received packet. Its sequence number is replaced by the
+     * extended sequence number computed from the next packet to deliver.
+     *
+     * @param packet RTP packet
+     * @return Returns false if the packet has been dropped (late or duplicated)
+     */
+    public boolean put(RtpPacket packet) {
+        if (nextSeqnum == -1) {
+            nextSeqnum = packet.seqnum;
+        }
+
+        // The sequence number is extended on the closest value
+        int seqnum = nextSeqnum + (short)(packet.seqnum - nextSeqnum);
+        if (seqnum < nextSeqnum) {
+            // Too late, the following packets have already been delivered
+            stats.numLatePkts++;
+            return false;
+        }
+        if (seqnum - nextSeqnum >= CAPACITY) {
+            // Too far ahead: give up the packets which can't be buffered anymore
+            skip(seqnum - CAPACITY + 1);
+        }
+
+        int index = seqnum & (CAPACITY - 1);
+        if (packets[index] != null) {
+            // Duplicated packet
+            stats.numLatePkts++;
+            return false;
+        }
+        packet.seqnum = seqnum;
+        packets[index] = packet;
+        count++;
+        if ((seqnum != nextSeqnum) && (waitingSince == -1)) {
+            waitingSince = packet.receivedAt;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the next packet to deliver, if any
+     *
+     * @param now Current time in milliseconds
+     * @return RTP packet or null if the next packet is missing and may still arrive
+     */
+    public RtpPacket get(long now) {
+        if (count == 0) {
+            return null;
+        }
+
+        RtpPacket packet = packets[nextSeqnum & (CAPACITY - 1)];
+        if (packet == null) {
+            if (now - waitingSince < playoutDelay) {
+                return null;
+            }
+
+            // The missing packets are lost
+            int seqnum = nextSeqnum + 1;
+            while (packets[seqnum & (CAPACITY - 1)] == null) {
+                seqnum++;
+            }
+            stats.numLostPkts += seqnum - nextSeqnum;
+            nextSeqnum = seqnum;
+            packet = packets[seqnum & (CAPACITY - 1)];
+        }
+
+        packets[nextSeqnum & (CAPACITY - 1)] = null;
+        count--;
+        nextSeqnum++;
+        updateWaitingTime();
+        return packet;
+    }
+
+    /**
+     * Returns the time to wait before the next packet may be delivered
+     *
+     * @param now Current time in milliseconds
+     * @return Delay in milliseconds, 0 if a packet can be delivered and -1 if
+     * the buffer is empty
+     */
+    public long getWaitingTime(long now) {
+        if (count == 0) {
+            return -1;
+        }
+        if (packets[nextSeqnum & (CAPACITY - 1)] != null) {
+            return 0;
+        }
+        return Math.max(0, waitingSince + playoutDelay - now);
+    }
+
+    /**
+     * Gives up all the packets before a sequence number
+     *
+     * @param seqnum Extended sequence number of the next packet to deliver
+     */
+    private void skip(int seqnum) {
+        int discarded = 0;
+        for (int i = 0; i < CAPACITY; i++) {
+            RtpPacket packet = packets[i];
+            if ((packet != null) && (packet.seqnum < seqnum)) {
+                receiver.recycleRtpPacket(packet);
+                packets[i] = null;
+                count--;
+                discarded++;
+            }
+        }
+        stats.numDiscardedPkts += discarded;
+        stats.numLostPkts += seqnum - nextSeqnum - discarded;
+        nextSeqnum = seqnum;
+        updateWaitingTime();
+    }
+
+    /**
+     * Updates the arrival time of the oldest packet waiting for a missing one
+     */
+    private void updateWaitingTime() {
+        waitingSince = -1;
+        if ((count == 0) || (packets[nextSeqnum & (CAPACITY - 1)] != null)) {
+            return;
+        }
+        for (int i = 0; i < CAPACITY; i++) {
+            RtpPacket packet = packets[i];
+            if ((packet != null) && ((waitingSince == -1) || (packet.receivedAt < waitingSince))) {
+                waitingSince = packet.receivedAt;
+            }
+        }
+    }
+}
@@ -41,6 +41,8 @@ public class RtpPacket extends Packet {
 	public int payloadlength;
     public boolean extension;
     public RtpExtensionHeader extensionHeader;
+    public int extensionoffset;
+    public int extensionlength;
 
 	public RtpPacket() {
 		super();
@@ -92,4 +94,39 @@ public class RtpPacket extends Packet {
 	public int calcLength() {
 		return payloadlength + 12;
 	}
+
+    /**
+     * Returns the position in data of an element of the received extension
+     * header, the header being read in place
+     *
+     * @param id Element id
+     * @return Position of the first byte of the element data or -1 if not found
+     */
+    public int getExtensionElementOffset(int id) {
+        int i = extensionoffset;
+        int end = extensionoffset + extensionlength;
+        while (i < end) {
+            byte idAndLength = data[i];
+            if (idAndLength == 0x00) {
+                // its a padding byte, skip it
+                i = i + 1;
+                continue;
+            }
+
+            // Each extension element id must have a value between 1 and 14 inclusive
+            int elementId = (idAndLength & 0xf0) >>> 4;
+            if (elementId <= 0 || elementId >= 15) {
+                break;
+            }
+            int elementLength = (idAndLength & 0x0f) + 1;
+            if (i + 1 + elementLength > end) {
+                break;
+            }
+            if (elementId == id) {
+                return i + 1;
+            }
+            i = i + elementLength + 1;
+        }
+        return -1;
+    }
 }
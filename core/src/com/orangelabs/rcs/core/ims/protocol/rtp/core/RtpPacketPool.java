@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.protocol.rtp.core;
+
+/**
+ * Pool of received RTP packets. Each packet owns a datagram buffer which is
+ * reused once the packet has been consumed, so that the reception of a packet
+ * does not allocate memory in steady state.
+ *
+ * @author jexa7410
+ */
+public class RtpPacketPool {
+    /**
+     * Size of the datagram buffers
+     */
+    private int bufferSize;
+
+    /**
+     * Free packets
+     */
+    private RtpPacket[] freePackets;
+
+    /**
+     * Number of free packets
+     */
+    private int freeCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param bufferSize Size of the datagram buffers
+     * @param maxFreePackets Maximum number of free packets kept in the pool
+     */
+    public RtpPacketPool(int bufferSize, int maxFreePackets) {
+        this.bufferSize = bufferSize;
+        this.freePackets = new RtpPacket[maxFreePackets];
+    }
+
+    /**
+     * Returns a free packet, a new one being allocated if the pool is empty
+     *
+     * @return RTP packet
+     */
+    public synchronized RtpPacket obtain() {
+        if (freeCount > 0) {
+            RtpPacket packet = freePackets[--freeCount];
+            freePackets[freeCount] = null;
+            return packet;
+        }
+        RtpPacket packet = new RtpPacket();
+        packet.data = new byte[bufferSize];
+        return packet;
+    }
+
+    /**
+     * Gives back a packet to the pool. The packet must not be used anymore
+     * by the caller.
+     *
+     * @param packet RTP packet
+     */
+    public synchronized void recycle(RtpPacket packet) {
+        if ((packet == null) || (packet.data == null) || (packet.data.length != bufferSize)) {
+            return;
+        }
+        if (freeCount < freePackets.length) {
+            packet.length = 0;
+            packet.offset = 0;
+            packet.extensionHeader = null;
+            freePackets[freeCount++] = packet;
+        }
+    }
+}
@@ -64,19 +64,22 @@ public class RtpPacketReceiver extends Thread {
     private static final int FIFO_MAX_NUMBER = 100; 
 
     /**
-     * Number of element to clean in the fifo
+     * Max number of free packets kept in the pool. It covers the jitter
+     * buffer of the input stream and the packets being processed, the extra
+     * packets allocated when the fifo fills up are left to the GC.
      */
-    private static final int FIFO_CLEAN_NUMBER = 20; 
+    private static final int POOL_MAX_NUMBER = 16;
 
     /**
-     * Signals that thread is interrupted
+     * Pool of packets in which the datagrams are received
      */
-    private boolean isInterrupted = false;
+    private RtpPacketPool packetPool = new RtpPacketPool(DatagramConnection.DEFAULT_DATAGRAM_SIZE,
+            POOL_MAX_NUMBER);
 
     /**
-     * Last sequence number
+     * Signals that thread is interrupted
      */
-    private int lastSeqnum = 0;
+    private boolean isInterrupted = false;
 
     /**
      * timeout
@@ -155,26 +158,23 @@ public class RtpPacketReceiver extends Thread {
         }
         try {
             while (datagramConnection != null) {
-                // Wait a new packet
-                byte[] data = datagramConnection.receive();
-
-                if (data.length >= 12) {
-                    // Drop empty packet (payload 20)
-                    int payloadType = (byte) ((data[1] & 0xff) & 0x7f);
-                    if (payloadType != 20) {
-                        // Drop too old packet
-                        int seqnum = (char)((data[2] << 8) | (data[3] & 0xff));
-                        if (seqnum > lastSeqnum - 10) {
-                            // Clean the FIFO if full
-                            if (fifo.size() >= FIFO_MAX_NUMBER) {
-                                fifo.clean(FIFO_CLEAN_NUMBER);
-                            }
-                            fifo.addObject(data);
-                            lastSeqnum = seqnum;
-                        } else {
-                            stats.numBadRtpPkts++;
-                        }
+                // Wait a new packet, received in a buffer of the pool
+                RtpPacket packet = packetPool.obtain();
+                int length = datagramConnection.receive(packet.data);
+                byte[] data = packet.data;
+
+                // Drop empty packet (payload 20), the late packets are
+                // detected by the jitter buffer of the input stream
+                if ((length >= 12) && (((data[1] & 0xff) & 0x7f) != 20)) {
+                    // Drop the oldest packet if the FIFO is full
+                    if (fifo.size() >= FIFO_MAX_NUMBER) {
+                        packetPool.recycle((RtpPacket) fifo.getObject(1));
                     }
+                    packet.length = length;
+                    packet.receivedAt = System.currentTimeMillis();
+                    fifo.addObject(packet);
+                } else {
+                    packetPool.recycle(packet);
                 }
             }
         } catch (SocketTimeoutException ex) {
@@ -189,25 +189,37 @@ public class RtpPacketReceiver extends Thread {
     }
 
     /**
-     * Read a RTP packet (blocking method)
+     * Read a RTP packet (blocking method). The packet is parsed in place: its
+     * payload is located in data at payloadoffset and it should be given back
+     * with recycleRtpPacket once consumed.
      *
      * @return RTP packet
+     * @throws TimeoutException If no packet has been received before the socket timeout
      */
     public RtpPacket readRtpPacket() throws TimeoutException {
+        return readRtpPacket(timeout);
+    }
+
+    /**
+     * Read a RTP packet (blocking method)
+     *
+     * @param timeout Timeout in milliseconds
+     * @return RTP packet
+     * @throws TimeoutException If no packet has been received before the timeout
+     */
+    public RtpPacket readRtpPacket(int timeout) throws TimeoutException {
 		try {
             // Get a new packet in FIFO
-            byte[] data = (byte[]) fifo.getObject(timeout);
-            if (data == null) {
+            RtpPacket pkt = (RtpPacket) fifo.getObject(timeout);
+            if (pkt == null) {
                 throw new TimeoutException();
             }
 
 			// Parse the RTP packet
-			RtpPacket pkt = parseRtpPacket(data);
-
-			if (pkt != null) {
+			if (parseRtpPacket(pkt)) {
 				// Update statistics
 				stats.numPackets++;
-                stats.numBytes += data.length;
+                stats.numBytes += pkt.length;
 
                 RtpSource s = rtcpSession.getMySource();
                 s.setSsrc(pkt.ssrc);
@@ -217,9 +229,12 @@ public class RtpPacketReceiver extends Thread {
 
 				return pkt;
 			} else {
-				return readRtpPacket();
+				packetPool.recycle(pkt);
+				return readRtpPacket(timeout);
 			}
 
+		} catch (TimeoutException e) {
+			throw e;
 		} catch (Exception e) {
             if (!isClosed) {
 //                if (logger.isActivated()) {
@@ -232,20 +247,23 @@ public class RtpPacketReceiver extends Thread {
 	}
 
     /**
-     * Parse the RTP packet
+     * Gives back a packet returned by readRtpPacket once it has been consumed
      *
-     * @param data RTP packet not yet parsed
-     * @return RTP packet
+     * @param packet RTP packet
      */
-	private RtpPacket parseRtpPacket(byte[] data) {
-		RtpPacket packet = new RtpPacket();
-		try {
-			// Read RTP packet length
-            packet.length = data.length;
-
-            // Set received timestamp
-            packet.receivedAt = System.currentTimeMillis();
+    public void recycleRtpPacket(RtpPacket packet) {
+        packetPool.recycle(packet);
+    }
 
+    /**
+     * Parse the RTP packet in place
+     *
+     * @param packet RTP packet not yet parsed
+     * @return Returns false if the packet is malformed
+     */
+	private boolean parseRtpPacket(RtpPacket packet) {
+		byte[] data = packet.data;
+		try {
             // Read extension bit
             packet.extension = (data[0] & 0x10) > 0;
 
@@ -271,32 +289,38 @@ public class RtpPacketReceiver extends Thread {
 			packet.ssrc = (((data[8] & 0xff) << 24) | ((data[9] & 0xff) << 16)
 					| ((data[10] & 0xff) << 8) | (data[11] & 0xff));
 
-            // Extract the extension header
+            // Locate the extension header, its elements are read on demand
+            packet.extensionoffset = 0;
+            packet.extensionlength = 0;
             if (packet.extension) {
-                int dataId = 11;
-                int extensionHeaderId = ((data[++dataId] & 0xff) << 8) | (data[++dataId] & 0xff);
-                int length = ((data[++dataId] & 0xff) << 8) | (data[++dataId] & 0xff);
+                int extensionHeaderId = ((data[12] & 0xff) << 8) | (data[13] & 0xff);
+                int length = ((data[14] & 0xff) << 8) | (data[15] & 0xff);
                 
                 if (extensionHeaderId == RtpExtensionHeader.RTP_EXTENSION_HEADER_ID) {
-                    extractExtensionHeader(data, length, dataId, packet);
+                    packet.extensionoffset = 16;
+                    packet.extensionlength = length * 4;
                 }
                 
-                // increment payload offset = RtpHeader size (12) + Extension Header ID (2) + Header Length (2) +
-                // elements * 4 (32 bits each) + 1 (to set at correct index) 
+                // payload offset = RtpHeader size (12) + Extension Header ID (2) + Header Length (2) +
+                // elements * 4 (32 bits each)
                 packet.payloadoffset = 16 + length * 4;
             } else {
                 packet.payloadoffset = 12;
             }
 			packet.payloadlength = packet.length - packet.payloadoffset;
-			packet.data = new byte[packet.payloadlength];
-			System.arraycopy(data, packet.payloadoffset, packet.data, 0, packet.payloadlength);
+			if (packet.payloadlength < 0) {
+				if (logger.isActivated()) {
+					logger.error("RTP packet parsing error: truncated extension header");
+				}
+				return false;
+			}
 		} catch (Exception e) {
 			if (logger.isActivated()) {
 				logger.error("RTP packet parsing error", e);
 			}
-			return null;
+			return false;
 		}
-        return packet;
+        return true;
 	}
 
     /**
@@ -316,41 +340,4 @@ public class RtpPacketReceiver extends Thread {
     public DatagramConnection getConnection() {
         return datagramConnection;
     }
-
-    /**
-     * Extract Extension Header
-     *
-     * @param data
-     * @param length
-     * @param dataId
-     * @param packet
-     */
-    private void extractExtensionHeader(byte[] data, int length, int dataId, RtpPacket packet) {
-        byte[] extensionHeaderData = new byte[length * 4];
-        System.arraycopy(data, ++dataId, extensionHeaderData, 0, extensionHeaderData.length);
-        packet.extensionHeader = new RtpExtensionHeader();
-
-        int i = 0;
-        while (packet.extensionHeader.elementsCount() < length) {
-            byte idAndLength = extensionHeaderData[i];
-            if (idAndLength == 0x00) {
-                // its a padding byte, skip it
-                i = i + 1;
-                continue;
-            }
-
-            int elementId = (idAndLength & 0xf0) >>> 4;
-
-            // Each extension element id must have a value between 1 and 14 inclusive
-            if (elementId > 0 && elementId < 15) {
-                int elementLength = (idAndLength & 0x0f);
-                byte[] elementData = new byte[elementLength + 1];
-                System.arraycopy(extensionHeaderData, i + 1, elementData, 0, elementData.length);
-                packet.extensionHeader.addElement(elementId, elementData);
-                i = i + elementData.length + 1; 
-            } else {
-                break;
-            }
-        }
-    }
 }
@@ -18,6 +18,8 @@
 
 package com.orangelabs.rcs.core.ims.protocol.rtp.core;
 
+import com.orangelabs.rcs.core.ims.protocol.rtp.format.Format;
+
 /**
  * RTP source
  *
@@ -106,9 +108,19 @@ public class RtpSource {
     private int receivedPrior;
 
     /**
-     * Estimated jitter.
+     * Estimated jitter, in timestamp units scaled by 16 (RFC 3550 A.8)
      */
     public long jitter;
+
+    /**
+     * Relative transit time of the previous packet (RFC 3550 A.8)
+     */
+    private long lastTransit;
+
+    /**
+     * RTP clock rate of the received payload
+     */
+    private int clockRate = Format.DEFAULT_CLOCK_RATE;
     
     /**
      * Last SR Packet timestamp
@@ -165,6 +177,54 @@ public class RtpSource {
             initSeq(packet.seqnum);
         }
         updateSeq(packet.seqnum);
+        updateJitter(packet);
+    }
+
+    /**
+     * Sets the RTP clock rate of the received payload
+     *
+     * @param clockRate Clock rate in Hz
+     */
+    public void setClockRate(int clockRate) {
+        this.clockRate = clockRate;
+    }
+
+    /**
+     * Returns the estimated interarrival jitter
+     *
+     * @return Jitter in timestamp units
+     */
+    public long getInterarrivalJitter() {
+        return jitter >> 4;
+    }
+
+    /**
+     * Returns the estimated interarrival jitter
+     *
+     * @return Jitter in milliseconds
+     */
+    public long getInterarrivalJitterMillis() {
+        return (getInterarrivalJitter() * 1000) / clockRate;
+    }
+
+    /**
+     * Updates the interarrival jitter estimate with the transit time of a
+     * packet. Algorithm in the RFC 3550 (Appendix A.8)
+     *
+     * @param packet Received packet
+     */
+    private void updateJitter(RtpPacket packet) {
+        // Arrival time and RTP timestamp in the same units, modulo 2^32
+        long arrival = (packet.receivedAt * clockRate) / 1000;
+        long transit = (arrival - packet.timestamp) & 0xffffffffL;
+        if (lastTransit != -1) {
+            long d = (int)(transit - lastTransit);
+            if (d < 0) {
+                d = -d;
+            }
+            jitter += d - ((jitter + 8) >> 4);
+        }
+        lastTransit = transit;
     }
 
     /**
@@ -206,8 +266,7 @@ public class RtpSource {
             report.setFractionLost((lostInterval << 8) / (double) expectedInterval);
         }
 
-        // TODO : Calculate jitter
-        report.setInterarrivalJitter(0);
+        report.setInterarrivalJitter(getInterarrivalJitter());
 
         report.setLastSenderReport(lastSenderReport);
         report.setSsrc(ssrc);
@@ -235,6 +294,7 @@ public class RtpSource {
         received = 0;
         receivedPrior = 0;
         expectedPrior = 0;
+        lastTransit = -1;
     }
 
     /**
@@ -38,4 +38,30 @@ public class RtpStatisticsReceiver {
 	 * Number of bad RTP packet received
 	 */
 	public int numBadRtpPkts = 0;
+
+	/**
+	 * Number of RTP packets received too late to be played or duplicated
+	 */
+	public int numLatePkts = 0;
+
+	/**
+	 * Number of RTP packets lost (never received)
+	 */
+	public int numLostPkts = 0;
+
+	/**
+	 * Number of RTP packets received but given up by the jitter buffer, which
+	 * could not buffer them until their turn
+	 */
+	public int numDiscardedPkts = 0;
+
+	/**
+	 * Estimated interarrival jitter in milliseconds
+	 */
+	public long jitter = 0;
+
+	/**
+	 * Current playout delay of the jitter buffer in milliseconds
+	 */
+	public int playoutDelay = 0;
 }
@@ -29,6 +29,11 @@ public abstract class Format {
 	 */
     public static final int UNKNOWN_PAYLOAD = -1;
 
+    /**
+     * Default RTP clock rate (RFC 3551)
+     */
+    public static final int DEFAULT_CLOCK_RATE = 8000;
+
     /**
      * Codec
      */
@@ -67,4 +72,13 @@ public abstract class Format {
     public int getPayload() {
     	return payload;
     }
+
+    /**
+     * Get the RTP clock rate
+     *
+     * @return Clock rate in Hz
+     */
+    public int getClockRate() {
+    	return DEFAULT_CLOCK_RATE;
+    }
 }
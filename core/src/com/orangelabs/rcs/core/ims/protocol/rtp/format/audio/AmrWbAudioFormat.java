@@ -34,6 +34,11 @@ public class AmrWbAudioFormat extends AudioFormat {
 	 * Payload type
 	 */
 	public static final int PAYLOAD = 126;
+
+	/**
+	 * RTP clock rate
+	 */
+	public static final int CLOCK_RATE = 16000;
 	
 	/**
 	 * Constructor
@@ -41,4 +46,13 @@ public class AmrWbAudioFormat extends AudioFormat {
 	public AmrWbAudioFormat() {
 		super(ENCODING, PAYLOAD);
 	}
+
+	/**
+	 * Get the RTP clock rate
+	 *
+	 * @return Clock rate in Hz
+	 */
+	public int getClockRate() {
+		return CLOCK_RATE;
+	}
 }
@@ -25,6 +25,11 @@ import com.orangelabs.rcs.core.ims.protocol.rtp.format.Format;
  */
 public class VideoFormat extends Format {
     /**
+     * RTP clock rate of the video payloads
+     */
+    public static final int CLOCK_RATE = 90000;
+
+    /**
      * Constructor
      * 
      * @param codec Codec
@@ -33,4 +38,13 @@ public class VideoFormat extends Format {
     public VideoFormat(String codec, int payload) {
     	super(codec, payload);
     }
+
+    /**
+     * Get the RTP clock rate
+     *
+     * @return Clock rate in Hz
+     */
+    public int getClockRate() {
+    	return CLOCK_RATE;
+    }
 }
@@ -18,15 +18,13 @@
 
 package com.orangelabs.rcs.core.ims.protocol.rtp.stream;
 
-import java.util.Comparator;
-import java.util.PriorityQueue;
 import java.util.concurrent.TimeoutException;
 
 import com.orangelabs.rcs.core.ims.protocol.rtp.RtpUtils;
 import com.orangelabs.rcs.core.ims.protocol.rtp.core.RtcpPacketReceiver;
 import com.orangelabs.rcs.core.ims.protocol.rtp.core.RtcpPacketTransmitter;
 import com.orangelabs.rcs.core.ims.protocol.rtp.core.RtcpSession;
-import com.orangelabs.rcs.core.ims.protocol.rtp.core.RtpExtensionHeader.ExtensionElement;
+import com.orangelabs.rcs.core.ims.protocol.rtp.core.RtpJitterBuffer;
 import com.orangelabs.rcs.core.ims.protocol.rtp.core.RtpPacket;
 import com.orangelabs.rcs.core.ims.protocol.rtp.core.RtpPacketReceiver;
 import com.orangelabs.rcs.core.ims.protocol.rtp.format.Format;
@@ -107,10 +105,21 @@ public class RtpInputStream implements ProcessorInputStream {
     private boolean isClosed = false;
 
     /**
-     * Sequence RTP packets buffer
+     * Jitter buffer
      */
-    private PriorityQueue<RtpPacket> rtpPacketsBuffer;
+    private RtpJitterBuffer jitterBuffer;
 
+    /**
+     * Packet whose payload is referenced by the input buffer
+     */
+    private RtpPacket currentPacket = null;
+
+    /**
+     * Indicates if the input buffer may reference the received datagram
+     * until the next read, instead of a copy of the payload
+     */
+    private boolean sharedBuffer = false;
+
 	/**
 	 * The logger
 	 */
@@ -129,19 +138,9 @@ public class RtpInputStream implements ProcessorInputStream {
 		this.inputFormat = inputFormat;
 
         rtcpSession = new RtcpSession(false, 16000);
-
-        rtpPacketsBuffer = new PriorityQueue<RtpPacket>(10, new Comparator<RtpPacket>() {
-            @Override
-            public int compare(RtpPacket object1, RtpPacket object2) {
-                if (object1.seqnum == object2.seqnum) {
-                    return 0;
-                } else if (object1.seqnum < object2.seqnum) {
-                    return -1;
-                }
-                return 1;
-            }
-        });
-
+        if (inputFormat != null) {
+            rtcpSession.getMySource().setClockRate(inputFormat.getClockRate());
+        }
     }
 
     /**
@@ -152,6 +151,7 @@ public class RtpInputStream implements ProcessorInputStream {
     public void open() throws Exception {
     	// Create the RTP receiver
         rtpReceiver = new RtpPacketReceiver(localPort, rtcpSession, RTP_SOCKET_TIMEOUT);
+        jitterBuffer = new RtpJitterBuffer(rtpReceiver);
         rtpReceiver.start();
 
     	// Create the RTCP receiver
@@ -174,6 +174,7 @@ public class RtpInputStream implements ProcessorInputStream {
     public void close() {
 		try {
             isClosed = true;
+            currentPacket = null;
 
             // Close the RTCP transmitter
             if (rtcpTransmitter != null)
@@ -222,33 +223,41 @@ public class RtpInputStream implements ProcessorInputStream {
      */
     public Buffer read() throws Exception {
         try {
-            do {
-                // Wait and read a RTP packet
-                RtpPacket rtpPacket = rtpReceiver.readRtpPacket();
-                if (rtpPacket == null) {
-                    return null;
-                }
-
-                // Add the buffer in queue
-                rtpPacketsBuffer.add(rtpPacket);
-            } while (rtpPacketsBuffer.size() <= 5);
+            // The previous buffer has been consumed
+            if (currentPacket != null) {
+                rtpReceiver.recycleRtpPacket(currentPacket);
+                currentPacket = null;
+            }
 
-            RtpPacket packet = rtpPacketsBuffer.poll();
+            RtpPacket packet = readJitterBuffer();
+            if (packet == null) {
+                return null;
+            }
 
         	// Create a buffer
-            buffer.setData(packet.data);
+            if (sharedBuffer) {
+                buffer.setData(packet.data);
+                buffer.setOffset(packet.payloadoffset);
+                currentPacket = packet;
+            } else {
+                // The payload is handed over: it can't be a pooled buffer
+                byte[] payload = new byte[packet.payloadlength];
+                System.arraycopy(packet.data, packet.payloadoffset, payload, 0, packet.payloadlength);
+                buffer.setData(payload);
+                buffer.setOffset(0);
+            }
             buffer.setLength(packet.payloadlength);
-            buffer.setOffset(0);
             buffer.setFormat(inputFormat);
         	buffer.setSequenceNumber(packet.seqnum);
         	buffer.setRTPMarker(packet.marker!=0);
         	buffer.setTimeStamp(packet.timestamp);
 
-            if (packet.extensionHeader != null) {
-                ExtensionElement element = packet.extensionHeader.getElementById(extensionHeaderId);
-                if (element != null) {
-                    buffer.setVideoOrientation(VideoOrientation.parse(element.data[0]));
-                }
+            int orientation = packet.getExtensionElementOffset(extensionHeaderId);
+            if (orientation >= 0) {
+                buffer.setVideoOrientation(VideoOrientation.parse(packet.data[orientation]));
+            }
+            if (!sharedBuffer) {
+                rtpReceiver.recycleRtpPacket(packet);
             }
 
         	// Set inputFormat back to null
@@ -267,6 +276,44 @@ public class RtpInputStream implements ProcessorInputStream {
         }
     }
 
+    /**
+     * Read the next packet from the jitter buffer (blocking method)
+     *
+     * @return RTP packet or null if the stream is closed
+     * @throws TimeoutException If no packet has been received before the socket timeout
+     */
+    private RtpPacket readJitterBuffer() throws TimeoutException {
+        while (true) {
+            long now = System.currentTimeMillis();
+            RtpPacket packet = jitterBuffer.get(now);
+            if (packet != null) {
+                return packet;
+            }
+
+            // Wait a new packet, at most until a missing one is declared lost
+            long waitingTime = jitterBuffer.getWaitingTime(now);
+            RtpPacket rtpPacket;
+            if (waitingTime < 0) {
+                rtpPacket = rtpReceiver.readRtpPacket();
+            } else {
+                try {
+                    rtpPacket = rtpReceiver.readRtpPacket((int)Math.max(1, waitingTime));
+                } catch (TimeoutException e) {
+                    continue;
+                }
+            }
+            if (rtpPacket == null) {
+                return null;
+            }
+
+            // Add the packet in the jitter buffer
+            if (!jitterBuffer.put(rtpPacket)) {
+                rtpReceiver.recycleRtpPacket(rtpPacket);
+            }
+            jitterBuffer.updatePlayoutDelay(rtcpSession.getMySource().getInterarrivalJitterMillis());
+        }
+    }
+
     /**
      * Adds the RTP stream listener
      *
@@ -285,4 +332,21 @@ public class RtpInputStream implements ProcessorInputStream {
         this.extensionHeaderId = extensionHeaderId;
     }
 
+    /**
+     * Sets if the returned buffer may reference the received datagram instead
+     * of a copy of the payload. The buffer is then only valid until the next
+     * read, which suits a codec chain copying the data it keeps.
+     * <p>
+     * Without codec chain the payload must be copied: the media renderer
+     * stream wraps the data in a media sample, which has neither offset nor
+     * length, and the renderer, implemented by the application, may keep the
+     * sample after the write. The copy is the data of the sample, so it can't
+     * be taken from a pool either.
+     *
+     * @param sharedBuffer Shared buffer flag
+     */
+    public void setSharedBuffer(boolean sharedBuffer) {
+        this.sharedBuffer = sharedBuffer;
+    }
+
 }
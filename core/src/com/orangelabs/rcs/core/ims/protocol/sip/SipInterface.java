@@ -25,6 +25,8 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.ListIterator;
 import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.Vector;
 
 import javax2.sip.ClientTransaction;
@@ -134,6 +136,11 @@ public class SipInterface implements SipListener {
      */
     private SipTransactionList transactions = new SipTransactionList();
 
+    /**
+     * Timer signalling the timeout of the asynchronous transactions
+     */
+    private Timer transactionTimer = null;
+
     /**
      * SIP interface listeners
      */
@@ -240,6 +247,7 @@ public class SipInterface implements SipListener {
             Properties properties = new Properties();
             properties.setProperty("javax2.sip.STACK_NAME", localIpAddress);
             properties.setProperty("gov2.nist.javax2.sip.THREAD_POOL_SIZE", "1");
+            properties.setProperty("gov2.nist.javax2.sip.LAZY_HEADER_PARSING", "true");
             if (sipTraceEnabled) {
                 // Activate SIP stack traces
             	boolean cleanLog = true;
@@ -347,6 +355,14 @@ public class SipInterface implements SipListener {
             // Remove all application listeners
             listeners.removeAllElements();
 
+            // Stop the transaction timer
+            synchronized(this) {
+                if (transactionTimer != null) {
+                    transactionTimer.cancel();
+                    transactionTimer = null;
+                }
+            }
+
             // Delete SIP providers
             for(int i=0; i < sipProviders.size(); i++) {
                 SipProvider sipProvider = (SipProvider)sipProviders.elementAt(i);
@@ -717,16 +733,48 @@ public class SipInterface implements SipListener {
      * @param msg SIP message
      */
     public void notifyTransactionContext(String transactionId, SipMessage msg) {
-        SipTransactionContext ctx = (SipTransactionContext)transactions.get(transactionId);
+        SipTransactionContext ctx = (SipTransactionContext)transactions.remove(transactionId);
         if (ctx != null) {
             if (logger.isActivated()) {
                 logger.debug("Callback object found for transaction " + transactionId);
             }
-            removeTransactionContext(transactionId);
             ctx.responseReceived(msg);
         }
    }
 
+    /**
+     * Notify the transaction context that a provisional response has been received
+     *
+     * @param transactionId Transaction ID
+     * @param resp SIP response
+     */
+    public void notifyTransactionContextProvisional(String transactionId, SipResponse resp) {
+        SipTransactionContext ctx = (SipTransactionContext)transactions.get(transactionId);
+        if (ctx != null) {
+            ctx.provisionalResponseReceived(resp);
+        }
+    }
+
+    /**
+     * Notify a timeout to a transaction context if it is still waiting a response
+     *
+     * @param transactionId Transaction ID
+     * @param ctx Transaction context
+     */
+    private void expireTransactionContext(String transactionId, SipTransactionContext ctx) {
+        synchronized(this) {
+            if (transactions.get(transactionId) != ctx) {
+                // Already completed or replaced by a new transaction with the same ID
+                return;
+            }
+            transactions.remove(transactionId);
+        }
+        if (logger.isActivated()) {
+            logger.debug("Timeout for transaction " + transactionId);
+        }
+        ctx.responseReceived(null);
+    }
+
     /**
      * Send a SIP message and create a context to wait a response
      *
@@ -735,6 +783,20 @@ public class SipInterface implements SipListener {
      * @throws SipException
      */
     public SipTransactionContext sendSipMessageAndWait(SipMessage message) throws SipException {
+        return sendSipMessage(message, null);
+    }
+
+    /**
+     * Send a SIP message and create a context notifying the responses
+     * asynchronously, without timeout other than the transaction timeout
+     * of the stack
+     *
+     * @param message SIP message
+     * @param listener Transaction listener or null
+     * @return Transaction context
+     * @throws SipException
+     */
+    public SipTransactionContext sendSipMessage(SipMessage message, SipTransactionListener listener) throws SipException {
         try {
             if (message instanceof SipRequest) {
                 // Send a request
@@ -751,6 +813,9 @@ public class SipInterface implements SipListener {
 
                 // Create a transaction context
                 SipTransactionContext ctx = new SipTransactionContext(transaction);
+                if (listener != null) {
+                    ctx.addTransactionListener(listener);
+                }
                 String id = SipTransactionContext.getTransactionContextId(req);
                 transactions.put(id, ctx);
                 if (logger.isActivated()) {
@@ -785,6 +850,9 @@ public class SipInterface implements SipListener {
 
                 // Create a transaction context
                 SipTransactionContext ctx = new SipTransactionContext(transaction);
+                if (listener != null) {
+                    ctx.addTransactionListener(listener);
+                }
                 String id = SipTransactionContext.getTransactionContextId(resp);
                 transactions.put(id, ctx);
                 if (logger.isActivated()) {
@@ -812,6 +880,50 @@ public class SipInterface implements SipListener {
         }
     }
 
+    /**
+     * Send a SIP message and create a context notifying the responses
+     * asynchronously. The transaction is completed with a timeout if no
+     * final response has been received before the given delay.
+     *
+     * @param message SIP message
+     * @param timeout Timeout in seconds
+     * @param listener Transaction listener or null
+     * @return Transaction context
+     * @throws SipException
+     */
+    public SipTransactionContext sendSipMessage(SipMessage message, int timeout, SipTransactionListener listener)
+            throws SipException {
+        SipTransactionContext ctx = sendSipMessage(message, listener);
+        if (ctx != null) {
+            startTransactionTimeout(SipTransactionContext.getTransactionContextId(message), ctx, timeout);
+        }
+        return ctx;
+    }
+
+    /**
+     * Start the timeout of a transaction context
+     *
+     * @param transactionId Transaction ID
+     * @param ctx Transaction context
+     * @param timeout Timeout in seconds
+     */
+    private void startTransactionTimeout(final String transactionId, final SipTransactionContext ctx, int timeout) {
+        TimerTask task = new TimerTask() {
+            public void run() {
+                expireTransactionContext(transactionId, ctx);
+            }
+        };
+        synchronized(this) {
+            if (transactionTimer == null) {
+                transactionTimer = new Timer("SipTransactionTimer", true);
+            }
+            ctx.setTimeoutTask(task);
+            if (!ctx.isCompleted()) {
+                transactionTimer.schedule(task, timeout * 1000L);
+            }
+        }
+    }
+
     /**
      * Send a SIP response
      *
@@ -1145,18 +1257,16 @@ public class SipInterface implements SipListener {
             return;
         }
 
+        // Create received response with its associated transaction
+        SipResponse resp = new SipResponse(responseEvent.getResponse());
+        resp.setStackTransaction(transaction);
+        String transactionId = SipTransactionContext.getTransactionContextId(resp);
         if (responseEvent.getResponse().getStatusCode() >= 200) {
-            // Create received response with its associated transaction
-            SipResponse resp = new SipResponse(responseEvent.getResponse());
-            resp.setStackTransaction(transaction);
-
             // Search the context associated to the received response and notify it
-            String transactionId = SipTransactionContext.getTransactionContextId(resp);
             notifyTransactionContext(transactionId, resp);
         } else {
-            if (logger.isActivated()) {
-                logger.debug("By pass provisional response");
-            }
+            // Notify the provisional response to the transaction listeners
+            notifyTransactionContextProvisional(transactionId, resp);
         }
     }
 
@@ -18,6 +18,9 @@
 
 package com.orangelabs.rcs.core.ims.protocol.sip;
 
+import java.util.TimerTask;
+import java.util.Vector;
+
 import javax2.sip.Transaction;
 import javax2.sip.header.CallIdHeader;
 import javax2.sip.message.Message;
@@ -25,7 +28,8 @@ import javax2.sip.message.Message;
 /**
  * SIP transaction context object composed of a request and of the corresponding
  * response. The Transaction context is used for waiting responses of requests
- * and also for waiting an ACK message (special case).
+ * and also for waiting an ACK message (special case). The responses may also
+ * be notified asynchronously to transaction listeners.
  *
  * @author JM. Auffret
  */
@@ -41,6 +45,21 @@ public class SipTransactionContext extends Object {
 	 */
 	private SipMessage recvMsg = null;
 
+	/**
+	 * Transaction completed flag
+	 */
+	private boolean completed = false;
+
+	/**
+	 * Transaction listeners
+	 */
+	private Vector<SipTransactionListener> listeners = new Vector<SipTransactionListener>();
+
+	/**
+	 * Timeout task
+	 */
+	private TimerTask timeoutTask = null;
+
 	/**
 	 * Constructor
 	 * 
@@ -169,6 +188,40 @@ public class SipTransactionContext extends Object {
 		return ret;
 	}
 
+	/**
+	 * Is the transaction completed (final response, ACK or timeout)
+	 * 
+	 * @return Boolean
+	 */
+	public synchronized boolean isCompleted() {
+		return completed;
+	}
+
+	/**
+	 * Add a transaction listener. If the transaction is already completed the
+	 * listener is notified immediately.
+	 * 
+	 * @param listener Transaction listener
+	 */
+	public void addTransactionListener(SipTransactionListener listener) {
+		synchronized(this) {
+			if (!completed) {
+				listeners.addElement(listener);
+				return;
+			}
+		}
+		listener.handleTransactionCompleted(this);
+	}
+
+	/**
+	 * Set the task signalling the timeout of the transaction
+	 * 
+	 * @param task Timer task
+	 */
+	synchronized void setTimeoutTask(TimerTask task) {
+		this.timeoutTask = task;
+	}
+
 	/**
 	 * Wait the response of a request until a timeout occurs
 	 * 
@@ -176,12 +229,15 @@ public class SipTransactionContext extends Object {
 	 */
 	public void waitResponse(int timeout) {
 		try {
-			if (recvMsg != null) {
-				// Response already received, no need to wait
-				return;
-			}			
+			long deadline = System.currentTimeMillis() + timeout * 1000L;
 			synchronized(this) {
-				super.wait(timeout * 1000);
+				while (!completed) {
+					long delay = deadline - System.currentTimeMillis();
+					if (delay <= 0) {
+						break;
+					}
+					super.wait(delay);
+				}
 			}
 		} catch(InterruptedException e) {
 			// Thread has been interrupted
@@ -190,24 +246,49 @@ public class SipTransactionContext extends Object {
 	}
 
 	/**
-	 * A response has been received (SIP response or ACK or any other SIP message) 
+	 * A provisional response has been received
 	 * 
-	 * @param msg SIP message object
+	 * @param response SIP response
 	 */
-	public void responseReceived(SipMessage msg) {
+	public void provisionalResponseReceived(SipResponse response) {
+		Vector<SipTransactionListener> list;
 		synchronized(this) {
-			recvMsg = msg;
-			super.notify();
+			if (completed || listeners.isEmpty()) {
+				return;
+			}
+			list = new Vector<SipTransactionListener>(listeners);
+		}
+		for(int i=0; i < list.size(); i++) {
+			list.elementAt(i).handleProvisionalResponse(this, response);
 		}
 	}
 
 	/**
-	 * Reset transaction context
+	 * A response has been received (SIP response or ACK or any other SIP message) 
+	 * 
+	 * @param msg SIP message object or null if a timeout has occured
 	 */
-	public void resetContext() {
-		synchronized (this) {
-			recvMsg = null;
-			super.notify();
+	public void responseReceived(SipMessage msg) {
+		Vector<SipTransactionListener> list;
+		synchronized(this) {
+			if (completed) {
+				// Already completed (e.g. timeout)
+				return;
+			}
+			recvMsg = msg;
+			completed = true;
+			if (timeoutTask != null) {
+				timeoutTask.cancel();
+				timeoutTask = null;
+			}
+			super.notifyAll();
+			list = listeners;
+			listeners = new Vector<SipTransactionListener>();
+		}
+
+		// Notify the transaction listeners
+		for(int i=0; i < list.size(); i++) {
+			list.elementAt(i).handleTransactionCompleted(this);
 		}
 	}
 
@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.protocol.sip;
+
+/**
+ * SIP transaction listener: asynchronous notification of the responses of a
+ * transaction. The callbacks are invoked from the SIP stack thread and must
+ * not block: a new request (e.g. an authentication retry) may be sent from
+ * the callback with {@link SipInterface#sendSipMessage(SipMessage, SipTransactionListener)}.
+ * 
+ * @author JM. Auffret
+ */
+public interface SipTransactionListener {
+	/**
+	 * A provisional response has been received
+	 * 
+	 * @param ctx Transaction context
+	 * @param response Provisional response
+	 */
+	void handleProvisionalResponse(SipTransactionContext ctx, SipResponse response);
+
+	/**
+	 * The transaction is completed: a final response or an ACK has been
+	 * received, or a timeout has occured (see {@link SipTransactionContext#isTimeout()})
+	 * 
+	 * @param ctx Transaction context
+	 */
+	void handleTransactionCompleted(SipTransactionContext ctx);
+
+	/**
+	 * The transaction has failed although a response has been received,
+	 * e.g. a 403 response without Warning header shows that the terminal is
+	 * no longer registered
+	 * 
+	 * @param ctx Transaction context
+	 * @param error Error
+	 */
+	void handleTransactionError(SipTransactionContext ctx, SipException error);
+}
@@ -18,9 +18,12 @@
 
 package com.orangelabs.rcs.core.ims.service;
 
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.Hashtable;
 
 import javax2.sip.address.SipURI;
+import javax2.sip.address.URI;
 import javax2.sip.header.ContactHeader;
 import javax2.sip.header.EventHeader;
 import javax2.sip.message.Request;
@@ -42,29 +45,45 @@ import com.orangelabs.rcs.core.ims.service.terms.TermsConditionsService;
 import com.orangelabs.rcs.provider.settings.RcsSettings;
 import com.orangelabs.rcs.utils.FifoBuffer;
 import com.orangelabs.rcs.utils.IdGenerator;
+import com.orangelabs.rcs.utils.PhoneUtils;
 import com.orangelabs.rcs.utils.logger.Logger;
 
 /**
- * IMS service dispatcher
+ * IMS service dispatcher. The received SIP requests are dispatched by a pool
+ * of threads, each thread processing its requests in sequence: the requests
+ * are assigned to a thread from their remote contact, so that the requests
+ * of a contact (e.g. a chat INVITE and the IMDN MESSAGE which follows it) and
+ * of a dialog are processed in order while the requests of different
+ * contacts are processed in parallel.
  * 
  * @author jexa7410
  */
-public class ImsServiceDispatcher extends Thread {
+public class ImsServiceDispatcher {
+	/**
+	 * Number of dispatcher threads
+	 */
+	private static final int DISPATCHER_THREADS = 4;
+
     /**
      * IMS module
      */
     private ImsModule imsModule;
 
     /**
-	 * Buffer of messages
+	 * Dispatcher threads
 	 */
-	private FifoBuffer buffer = new FifoBuffer();
+	private DispatcherThread[] threads = new DispatcherThread[DISPATCHER_THREADS];
 
 	/**
 	 * SIP intent manager
 	 */
 	private SipIntentManager intentMgr = new SipIntentManager(); 
 	
+	/**
+	 * Dispatch statistics, indexed by SIP method
+	 */
+	private Hashtable<String, MethodStatistics> statistics = new Hashtable<String, MethodStatistics>();
+
 	/**
      * The logger
      */
@@ -76,11 +95,22 @@ public class ImsServiceDispatcher extends Thread {
 	 * @param imsModule IMS module
 	 */
 	public ImsServiceDispatcher(ImsModule imsModule) {
-		super("SipDispatcher");
-		
         this.imsModule = imsModule;
+
+        for (int i = 0; i < threads.length; i++) {
+        	threads[i] = new DispatcherThread("SipDispatcher-" + i);
+        }
 	}
 	
+    /**
+     * Start the SIP dispatcher
+     */
+    public void start() {
+    	for (int i = 0; i < threads.length; i++) {
+    		threads[i].start();
+    	}
+    }
+
     /**
      * Terminate the SIP dispatcher
      */
@@ -88,42 +118,106 @@ public class ImsServiceDispatcher extends Thread {
     	if (logger.isActivated()) {
     		logger.info("Terminate the multi-session manager");
     	}
-        buffer.close();
+    	for (int i = 0; i < threads.length; i++) {
+    		threads[i].terminate();
+    	}
         if (logger.isActivated()) {
+        	for (Enumeration<String> e = statistics.keys(); e.hasMoreElements();) {
+        		String method = e.nextElement();
+        		logger.info(method + " requests: " + statistics.get(method));
+        	}
         	logger.info("Multi-session manager has been terminated");
         }
     }
     
 	/**
-	 * Post a SIP request in the buffer
+	 * Post a SIP request in the buffer of its dispatcher thread
 	 * 
      * @param request SIP request
 	 */
 	public void postSipRequest(SipRequest request) {
-		buffer.addObject(request);
+		String contact = getRemoteContact(request);
+		int index = 0;
+		if (contact != null) {
+			index = (contact.hashCode() & 0x7fffffff) % threads.length;
+		}
+		threads[index].postSipRequest(request);
 	}
-    
+
 	/**
-	 * Background processing
+	 * Returns the remote contact of a SIP request, taken from the From header
+	 * which doesn't change during a dialog
+	 * 
+	 * @param request SIP request
+	 * @return Contact number or null if not found
 	 */
-	public void run() {
-		if (logger.isActivated()) {
-			logger.info("Start background processing");
+	private static String getRemoteContact(SipRequest request) {
+		try {
+			return PhoneUtils.extractNumberFromUri(request.getFromUri());
+		} catch(Exception e) {
+			return null;
 		}
-		SipRequest request = null; 
-		while((request = (SipRequest)buffer.getObject()) != null) {
-			try {
-				// Dispatch the received SIP request
-				dispatch(request);
-			} catch(Exception e) {
-				if (logger.isActivated()) {
-					logger.error("Unexpected exception", e);
-				}
-			}
+	}
+
+	/**
+	 * Returns the number of requests waiting to be dispatched
+	 * 
+	 * @return Number of requests
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (int i = 0; i < threads.length; i++) {
+			depth += threads[i].getQueueDepth();
 		}
-		if (logger.isActivated()) {
-			logger.info("End of background processing");
+		return depth;
+	}
+
+	/**
+	 * Returns the average latency of the requests of a given method, from
+	 * their reception to the end of their dispatch
+	 * 
+	 * @param method SIP method
+	 * @return Latency in milliseconds or -1 if no request has been dispatched
+	 */
+	public long getAverageLatency(String method) {
+		MethodStatistics stats = statistics.get(method);
+		if (stats == null) {
+			return -1;
+		}
+		return stats.getAverageLatency();
+	}
+
+	/**
+	 * Returns the maximum latency of the requests of a given method, from
+	 * their reception to the end of their dispatch
+	 * 
+	 * @param method SIP method
+	 * @return Latency in milliseconds or -1 if no request has been dispatched
+	 */
+	public long getMaxLatency(String method) {
+		MethodStatistics stats = statistics.get(method);
+		if (stats == null) {
+			return -1;
+		}
+		return stats.getMaxLatency();
+	}
+
+	/**
+	 * Update the dispatch statistics of a method
+	 * 
+	 * @param method SIP method
+	 * @param latency Latency in milliseconds
+	 */
+	private void updateStatistics(String method, long latency) {
+		MethodStatistics stats;
+		synchronized(statistics) {
+			stats = statistics.get(method);
+			if (stats == null) {
+				stats = new MethodStatistics();
+				statistics.put(method, stats);
+			}
 		}
+		stats.update(latency);
 	}
     
     /**
@@ -142,7 +236,13 @@ public class ImsServiceDispatcher extends Thread {
 		boolean isMatchingRegistered = false;		
 		SipURI requestURI;
 		try {
-			requestURI = SipUtils.ADDR_FACTORY.createSipURI(request.getRequestURI());
+			URI uri = request.getStackMessage().getRequestURI();
+			if (uri instanceof SipURI) {
+				// Already parsed by the SIP stack
+				requestURI = (SipURI)uri;
+			} else {
+				requestURI = SipUtils.ADDR_FACTORY.createSipURI(uri.toString());
+			}
 		} catch(Exception e) {
 			if (logger.isActivated()) {
 				logger.error("Unable to parse request URI " + request.getRequestURI(), e);
@@ -249,12 +349,18 @@ public class ImsServiceDispatcher extends Thread {
 				return;
 			}
 			sdp = sdp.toLowerCase();
+			boolean msrp = (sdp.indexOf("msrp") != -1);
+			boolean rtp = (sdp.indexOf("rtp") != -1);
+			boolean fileSelector = (sdp.indexOf("file-selector") != -1);
+
+			// Extract the feature tags once
+			ArrayList<String> featureTags = request.getFeatureTags();
 
 			// New incoming session invitation
-	    	if (isTagPresent(sdp, "msrp") &&
-	    			SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_3GPP_VIDEO_SHARE) &&
-	    				(SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_3GPP_IMAGE_SHARE) ||
-	    						SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_3GPP_IMAGE_SHARE_RCS2))) {
+	    	if (msrp &&
+	    			SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_3GPP_VIDEO_SHARE) &&
+	    				(SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_3GPP_IMAGE_SHARE) ||
+	    						SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_3GPP_IMAGE_SHARE_RCS2))) {
 	    		// Image sharing
 	    		if (RcsSettings.getInstance().isImageSharingSupported()) {
 		    		if (logger.isActivated()) {
@@ -269,9 +375,9 @@ public class ImsServiceDispatcher extends Thread {
 					sendFinalResponse(request, Response.DECLINE);
 	    		}
 	    	} else
-	    	if (isTagPresent(sdp, "msrp") &&
-	    			SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_OMA_IM) &&
-	    				isTagPresent(sdp, "file-selector")) {
+	    	if (msrp &&
+	    			SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_OMA_IM) &&
+	    				fileSelector) {
 		        // File transfer
 	    		if (RcsSettings.getInstance().isFileTransferSupported()) {
 		    		if (logger.isActivated()) {
@@ -286,8 +392,8 @@ public class ImsServiceDispatcher extends Thread {
 					sendFinalResponse(request, Response.DECLINE);
 	    		}
 	    	} else
-	    	if (isTagPresent(sdp, "msrp") &&
-	    			SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_OMA_IM)) {
+	    	if (msrp &&
+	    			SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_OMA_IM)) {
 	    		// IM service
 	    		if (!RcsSettings.getInstance().isImSessionSupported()) {
 					// Service not supported: reject the invitation with a 603 Decline
@@ -352,8 +458,8 @@ public class ImsServiceDispatcher extends Thread {
 			    	}
 		    	}
 	    	} else
-	    	if (isTagPresent(sdp, "rtp") &&
-	    			SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_3GPP_VIDEO_SHARE)) {
+	    	if (rtp &&
+	    			SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_3GPP_VIDEO_SHARE)) {
 	    		// Video streaming
 	    		if (RcsSettings.getInstance().isVideoSharingSupported()) {
 		    		if (logger.isActivated()) {
@@ -368,9 +474,9 @@ public class ImsServiceDispatcher extends Thread {
 					sendFinalResponse(request, Response.DECLINE);
 	    		}
 	    	} else
-		    if (isTagPresent(sdp, "msrp") &&
-		    		SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_3GPP_VIDEO_SHARE) &&
-		    			SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_RCSE_GEOLOCATION_PUSH )) {
+		    if (msrp &&
+		    		SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_3GPP_VIDEO_SHARE) &&
+		    			SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_RCSE_GEOLOCATION_PUSH )) {
 	    		// Geoloc sharing
 	    		if (RcsSettings.getInstance().isGeoLocationPushSupported()) {
 		    		if (logger.isActivated()) {
@@ -385,8 +491,8 @@ public class ImsServiceDispatcher extends Thread {
 					sendFinalResponse(request, Response.DECLINE);
 	    		}		
 		    } else 
-			if (SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_RCSE_IP_VOICE_CALL) &&
-	    			SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_3GPP_IP_VOICE_CALL))	{
+			if (SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_RCSE_IP_VOICE_CALL) &&
+	    			SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_3GPP_IP_VOICE_CALL))	{
 	    		// IP voice call
 	    		if (RcsSettings.getInstance().isIPVoiceCallSupported()) {
 		    		if (logger.isActivated()) {
@@ -401,9 +507,9 @@ public class ImsServiceDispatcher extends Thread {
 					sendFinalResponse(request, Response.DECLINE);
 	    		}	    	
 	    	} else 
-	    	if (SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_RCSE_IP_VOICE_CALL) &&
-	    			SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_3GPP_IP_VOICE_CALL) &&
-	    				SipUtils.isFeatureTagPresent(request, FeatureTags.FEATURE_RCSE_IP_VIDEO_CALL))	{
+	    	if (SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_RCSE_IP_VOICE_CALL) &&
+	    			SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_3GPP_IP_VOICE_CALL) &&
+	    				SipUtils.isFeatureTagPresent(featureTags, FeatureTags.FEATURE_RCSE_IP_VIDEO_CALL))	{
 		    		// IP video call
 		    		if (RcsSettings.getInstance().isIPVideoCallSupported()) {
 			    		if (logger.isActivated()) {
@@ -573,21 +679,6 @@ public class ImsServiceDispatcher extends Thread {
 		}
     }
     
-    /**
-     * Test a tag is present or not in SIP message
-     * 
-     * @param message Message or message part
-     * @param tag Tag to be searched
-     * @return Boolean
-     */
-    private boolean isTagPresent(String message, String tag) {
-    	if ((message != null) && (tag != null) && (message.toLowerCase().indexOf(tag) != -1)) {
-    		return true;
-    	} else {
-    		return false;
-    	}
-    }
-    	
     /**
      * Search the IMS session that corresponds to a given call-ID
      *  
@@ -646,4 +737,160 @@ public class ImsServiceDispatcher extends Thread {
     		}
     	}
     }
+
+    /**
+     * Dispatcher thread processing its requests in sequence
+     */
+    private class DispatcherThread extends Thread {
+        /**
+    	 * Buffer of requests
+    	 */
+    	private FifoBuffer buffer = new FifoBuffer();
+
+    	/**
+    	 * Constructor
+    	 * 
+    	 * @param name Thread name
+    	 */
+    	public DispatcherThread(String name) {
+    		super(name);
+    	}
+
+    	/**
+    	 * Post a SIP request in the buffer
+    	 * 
+    	 * @param request SIP request
+    	 */
+    	public void postSipRequest(SipRequest request) {
+    		buffer.addObject(new PostedRequest(request));
+    	}
+
+    	/**
+    	 * Returns the number of requests in the buffer
+    	 * 
+    	 * @return Number of requests
+    	 */
+    	public int getQueueDepth() {
+    		return buffer.size();
+    	}
+
+    	/**
+    	 * Terminate the thread
+    	 */
+    	public void terminate() {
+    		buffer.close();
+    	}
+
+    	/**
+    	 * Background processing
+    	 */
+    	public void run() {
+    		if (logger.isActivated()) {
+    			logger.info("Start background processing");
+    		}
+    		PostedRequest posted = null; 
+    		while((posted = (PostedRequest)buffer.getObject()) != null) {
+    			try {
+    				// Dispatch the received SIP request
+    				dispatch(posted.request);
+    			} catch(Exception e) {
+    				if (logger.isActivated()) {
+    					logger.error("Unexpected exception", e);
+    				}
+    			}
+    			updateStatistics(posted.request.getMethod(), System.currentTimeMillis() - posted.time);
+    		}
+    		if (logger.isActivated()) {
+    			logger.info("End of background processing");
+    		}
+    	}
+    }
+
+    /**
+     * Request posted in a dispatcher thread
+     */
+    private static class PostedRequest {
+    	/**
+    	 * SIP request
+    	 */
+    	private SipRequest request;
+
+    	/**
+    	 * Reception time
+    	 */
+    	private long time;
+
+    	/**
+    	 * Constructor
+    	 * 
+    	 * @param request SIP request
+    	 */
+    	public PostedRequest(SipRequest request) {
+    		this.request = request;
+    		this.time = System.currentTimeMillis();
+    	}
+    }
+
+    /**
+     * Dispatch statistics of a SIP method
+     */
+    private static class MethodStatistics {
+    	/**
+    	 * Number of requests
+    	 */
+    	private long count = 0;
+
+    	/**
+    	 * Cumulated latency in milliseconds
+    	 */
+    	private long totalLatency = 0;
+
+    	/**
+    	 * Maximum latency in milliseconds
+    	 */
+    	private long maxLatency = 0;
+
+    	/**
+    	 * Add the latency of a request
+    	 * 
+    	 * @param latency Latency in milliseconds
+    	 */
+    	public synchronized void update(long latency) {
+    		count++;
+    		totalLatency += latency;
+    		if (latency > maxLatency) {
+    			maxLatency = latency;
+    		}
+    	}
+
+    	/**
+    	 * Returns the average latency
+    	 * 
+    	 * @return Latency in milliseconds
+    	 */
+    	public synchronized long getAverageLatency() {
+    		if (count == 0) {
+    			return 0;
+    		}
+    		return totalLatency / count;
+    	}
+
+    	/**
+    	 * Returns the maximum latency
+    	 * 
+    	 * @return Latency in milliseconds
+    	 */
+    	public synchronized long getMaxLatency() {
+    		return maxLatency;
+    	}
+
+    	/**
+    	 * Returns a string representation of the object
+    	 * 
+    	 * @return String
+    	 */
+    	public synchronized String toString() {
+    		return count + " dispatched, average latency " + getAverageLatency() + " ms, max latency " + maxLatency + " ms";
+    	}
+    }
 }
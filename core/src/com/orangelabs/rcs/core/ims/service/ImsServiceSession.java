@@ -28,18 +28,48 @@ import com.orangelabs.rcs.core.ims.network.sip.SipMessageFactory;
 import com.orangelabs.rcs.core.ims.network.sip.SipUtils;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipDialogPath;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipException;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipMessage;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipRequest;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipResponse;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionContext;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionListener;
 import com.orangelabs.rcs.provider.settings.RcsSettings;
+import com.orangelabs.rcs.utils.TimerService;
 import com.orangelabs.rcs.utils.logger.Logger;
 
 /**
- * IMS service session
+ * IMS service session. A session runs in its own thread, except an
+ * event-driven session (see {@link #isEventDriven()}) which is run as a
+ * sequence of steps on the {@link SessionExecutor}.
  * 
  * @author jexa7410
  */
 public abstract class ImsServiceSession extends Thread {
+	/**
+	 * Invitation answer handler of an event-driven session
+	 */
+	public interface InvitationAnswerHandler {
+		/**
+		 * The invitation has been answered, or canceled, or the ringing period has expired
+		 * 
+		 * @param answer Invitation status
+		 */
+		public void handleInvitationAnswer(int answer);
+	}
+
+	/**
+	 * Transaction handler of an event-driven session
+	 */
+	public interface TransactionHandler {
+		/**
+		 * The transaction is completed: a final response or an ACK has been
+		 * received, or a timeout has occured
+		 * 
+		 * @param ctx Transaction context
+		 */
+		public void handleTransaction(SipTransactionContext ctx);
+	}
+
 	/**
 	 * Session invitation status
 	 */
@@ -95,6 +125,16 @@ public abstract class ImsServiceSession extends Thread {
 	 */
 	protected Object waitUserAnswer = new Object();
 
+	/**
+	 * Pending invitation answer handler (event-driven session)
+	 */
+	private InvitationAnswerHandler answerHandler = null;
+
+	/**
+	 * Ringing period timeout of the pending invitation answer handler
+	 */
+	private TimerService.Timeout ringingTimeout = null;
+
 	/**
 	 * Session listeners
 	 */
@@ -281,7 +321,43 @@ public abstract class ImsServiceSession extends Thread {
 		imsService.addSession(this);
 		
 		// Start the session
-		start();
+		if (isEventDriven()) {
+			SessionExecutor.getInstance().execute(this);
+		} else {
+			start();
+		}
+	}
+
+	/**
+	 * Is the session event-driven. The run() method of an event-driven
+	 * session is run on the session executor and must not block: it waits the
+	 * user answer, the SIP responses and the ACK with the non-blocking
+	 * variants of waitInvitationAnswer, sendInvite and sendSipMessage, whose
+	 * handlers are run on the session executor too.
+	 * 
+	 * @return Boolean
+	 */
+	public boolean isEventDriven() {
+		return false;
+	}
+
+	/**
+	 * Run a step of an event-driven session on the session executor
+	 * 
+	 * @param step Step
+	 */
+	protected void runSessionStep(Runnable step) {
+		SessionExecutor.getInstance().execute(step);
+	}
+
+	/**
+	 * Run a step of an event-driven session which may block (e.g. MSRP
+	 * connection) out of the session executor threads
+	 * 
+	 * @param step Step
+	 */
+	protected void runBlockingSessionStep(Runnable step) {
+		SessionExecutor.getInstance().executeBlocking(step);
 	}
 	
 	/**
@@ -388,6 +464,7 @@ public abstract class ImsServiceSession extends Thread {
 		synchronized(waitUserAnswer) {
 			waitUserAnswer.notifyAll();
 		}
+		notifyInvitationAnswer();
 
 		// Decline the invitation
 		sendErrorResponse(getDialogPath().getInvite(), getDialogPath().getLocalTag(), code);
@@ -409,6 +486,7 @@ public abstract class ImsServiceSession extends Thread {
 		synchronized(waitUserAnswer) {
 			waitUserAnswer.notifyAll();
 		}
+		notifyInvitationAnswer();
 	}
 
 	/**
@@ -436,6 +514,77 @@ public abstract class ImsServiceSession extends Thread {
 		
 		return invitationStatus;
 	}
+
+	/**
+	 * Wait session invitation answer without blocking (event-driven session).
+	 * The handler is run on the session executor when the invitation is
+	 * accepted, rejected or canceled, or when the ringing period expires. It
+	 * is not run if the session is interrupted or terminated before.
+	 * 
+	 * @param handler Answer handler
+	 */
+	public void waitInvitationAnswer(InvitationAnswerHandler handler) {
+		synchronized(waitUserAnswer) {
+			if (invitationStatus == INVITATION_NOT_ANSWERED) {
+				if (logger.isActivated()) {
+					logger.debug("Wait session invitation answer");
+				}
+				answerHandler = handler;
+				ringingTimeout = TimerService.getInstance().schedule(new Runnable() {
+					public void run() {
+						notifyInvitationAnswer();
+					}
+				}, ringingPeriod * 1000L);
+				return;
+			}
+		}
+
+		// Already answered
+		postInvitationAnswer(handler, invitationStatus);
+	}
+
+	/**
+	 * Notify the invitation answer to the pending answer handler, if any
+	 */
+	private void notifyInvitationAnswer() {
+		InvitationAnswerHandler handler;
+		int answer;
+		synchronized(waitUserAnswer) {
+			handler = answerHandler;
+			answer = invitationStatus;
+			cancelInvitationAnswer();
+		}
+		if (handler != null) {
+			postInvitationAnswer(handler, answer);
+		}
+	}
+
+	/**
+	 * Drop the pending answer handler, if any
+	 */
+	private void cancelInvitationAnswer() {
+		synchronized(waitUserAnswer) {
+			answerHandler = null;
+			if (ringingTimeout != null) {
+				ringingTimeout.cancel();
+				ringingTimeout = null;
+			}
+		}
+	}
+
+	/**
+	 * Run an answer handler on the session executor
+	 * 
+	 * @param handler Answer handler
+	 * @param answer Invitation status
+	 */
+	private void postInvitationAnswer(final InvitationAnswerHandler handler, final int answer) {
+		runSessionStep(new Runnable() {
+			public void run() {
+				handler.handleInvitationAnswer(answer);
+			}
+		});
+	}
 	
 	/**
 	 * Interrupt session
@@ -450,6 +599,7 @@ public abstract class ImsServiceSession extends Thread {
 			synchronized(waitUserAnswer) {
 				waitUserAnswer.notifyAll();
 			}
+			cancelInvitationAnswer();
 			
 			if (!isSessionInterrupted()) {
 				// Interrupt thread
@@ -523,6 +673,7 @@ public abstract class ImsServiceSession extends Thread {
 		synchronized(waitUserAnswer) {
 			waitUserAnswer.notifyAll();
 		}
+		cancelInvitationAnswer();
 
 		try {
 			// Terminate the session
@@ -623,6 +774,7 @@ public abstract class ImsServiceSession extends Thread {
         synchronized(waitUserAnswer) {
             waitUserAnswer.notifyAll();
         }
+        notifyInvitationAnswer();
 
 		// Notify listeners
     	for(int i=0; i < getListeners().size(); i++) {
@@ -891,15 +1043,81 @@ public abstract class ImsServiceSession extends Thread {
      * @throws SipException
      */
     public void sendInvite(SipRequest invite) throws SipException {
+        if (isEventDriven()) {
+            // Send INVITE request, the response is analyzed on the session executor
+            sendSipMessage(invite, getResponseTimeout(), new TransactionHandler() {
+                public void handleTransaction(SipTransactionContext ctx) {
+                    handleInviteResponse(ctx);
+                }
+            });
+            return;
+        }
+
         // Send INVITE request
         SipTransactionContext ctx = getImsService().getImsModule().getSipManager().sendSipMessageAndWait(invite, getResponseTimeout());
 
         // Analyze the received response 
+        handleInviteResponse(ctx);
+    }
+
+    /**
+     * Send a SIP message without blocking (event-driven session): the handler
+     * is run on the session executor when the transaction is completed
+     *
+     * @param message SIP message
+     * @param timeout Timeout in seconds
+     * @param handler Transaction handler
+     * @throws SipException
+     */
+    public void sendSipMessage(SipMessage message, int timeout, final TransactionHandler handler) throws SipException {
+        SipTransactionContext ctx = getImsService().getImsModule().getSipManager().sendSipMessage(message, timeout, new SipTransactionListener() {
+            public void handleProvisionalResponse(SipTransactionContext ctx, SipResponse response) {
+                // Nothing to do
+            }
+
+            public void handleTransactionCompleted(final SipTransactionContext ctx) {
+                runSessionStep(new Runnable() {
+                    public void run() {
+                        handler.handleTransaction(ctx);
+                    }
+                });
+            }
+
+            public void handleTransactionError(SipTransactionContext ctx, final SipException error) {
+                runSessionStep(new Runnable() {
+                    public void run() {
+                        handleError(new ImsServiceError(ImsServiceError.UNEXPECTED_EXCEPTION, error.getMessage()));
+                    }
+                });
+            }
+        });
+        if (ctx == null) {
+            // No transaction exists: the message has not been sent and no event will follow
+            handleError(new ImsServiceError(ImsServiceError.UNEXPECTED_EXCEPTION, "SIP message not sent"));
+        }
+    }
+
+    /**
+     * Analyze the response of the INVITE
+     *
+     * @param ctx Transaction context
+     */
+    private void handleInviteResponse(SipTransactionContext ctx) {
         if (ctx.isSipResponse()) {
             // A response has been received
             if (ctx.getStatusCode() == 200) {
                 // 200 OK
-                handle200OK(ctx.getSipResponse());
+                if (isEventDriven()) {
+                    // Starting the media session may block on the MSRP connection
+                    final SipResponse resp = ctx.getSipResponse();
+                    runBlockingSessionStep(new Runnable() {
+                        public void run() {
+                            handle200OK(resp);
+                        }
+                    });
+                } else {
+                    handle200OK(ctx.getSipResponse());
+                }
             } else
             if (ctx.getStatusCode() == 404) {
                 // 404 session not found
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.orangelabs.rcs.core.ims.service;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * Executor shared by the event-driven IMS sessions. The setup of an
+ * event-driven session is a sequence of short steps, each step being run on
+ * this executor when the event it waits for occurs (SIP response, ACK, user
+ * answer). So the number of threads does not depend on the number of sessions
+ * being set up. The steps which may block (e.g. MSRP connection) are run on
+ * a separate bounded pool, so they never hold the threads running the other
+ * steps: when all its threads are busy the blocking steps wait in its queue.
+ *
+ * @see ImsServiceSession#isEventDriven()
+ */
+public class SessionExecutor {
+	/**
+	 * Number of threads running the session steps
+	 */
+	private static final int EXECUTOR_THREADS = 4;
+
+	/**
+	 * Number of threads running the blocking session steps
+	 */
+	private static final int BLOCKING_THREADS = 8;
+
+	/**
+	 * Idle time after which a thread is stopped (in seconds)
+	 */
+	private static final long EXECUTOR_KEEP_ALIVE = 60;
+
+	/**
+	 * Singleton instance
+	 */
+	private static SessionExecutor instance = null;
+
+	/**
+	 * Executor
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Executor of the blocking steps
+	 */
+	private ThreadPoolExecutor blockingExecutor;
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Returns instance
+	 *
+	 * @return Instance
+	 */
+	public static synchronized SessionExecutor getInstance() {
+		if (instance == null) {
+			instance = new SessionExecutor();
+		}
+		return instance;
+	}
+
+	/**
+	 * Constructor
+	 */
+	private SessionExecutor() {
+		final AtomicInteger threadIndex = new AtomicInteger();
+		executor = new ThreadPoolExecutor(EXECUTOR_THREADS, EXECUTOR_THREADS,
+				EXECUTOR_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						return new Thread(runnable, "SessionExecutor-" + threadIndex.incrementAndGet());
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+
+		final AtomicInteger blockingThreadIndex = new AtomicInteger();
+		blockingExecutor = new ThreadPoolExecutor(BLOCKING_THREADS, BLOCKING_THREADS,
+				EXECUTOR_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						return new Thread(runnable, "SessionBlockingStep-" + blockingThreadIndex.incrementAndGet());
+					}
+				});
+		blockingExecutor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Run a session step
+	 *
+	 * @param step Step
+	 */
+	public void execute(final Runnable step) {
+		executor.execute(wrapStep(step));
+	}
+
+	/**
+	 * Run a session step which may block, out of the threads running the
+	 * other steps. The step waits in a queue if all the blocking step threads
+	 * are busy.
+	 *
+	 * @param step Step
+	 */
+	public void executeBlocking(final Runnable step) {
+		blockingExecutor.execute(wrapStep(step));
+	}
+
+	/**
+	 * Wrap a step so that its failure is logged
+	 *
+	 * @param step Step
+	 * @return Runnable
+	 */
+	private Runnable wrapStep(final Runnable step) {
+		return new Runnable() {
+			public void run() {
+				try {
+					step.run();
+				} catch(Exception e) {
+					if (logger.isActivated()) {
+						logger.error("Session step has failed", e);
+					}
+				}
+			}
+		};
+	}
+}
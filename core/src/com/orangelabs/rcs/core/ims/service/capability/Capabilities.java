@@ -116,6 +116,31 @@ public class Capabilities {
 	public Capabilities() {
 	}
 
+	/**
+	 * Constructor
+	 * 
+	 * @param capabilities Capabilities to be copied
+	 */
+	public Capabilities(Capabilities capabilities) {
+		this.imageSharing = capabilities.imageSharing;
+		this.videoSharing = capabilities.videoSharing;
+		this.ipVoiceCall = capabilities.ipVoiceCall;
+		this.ipVideoCall = capabilities.ipVideoCall;
+		this.imSession = capabilities.imSession;
+		this.fileTransfer = capabilities.fileTransfer;
+		this.csVideo = capabilities.csVideo;
+		this.presenceDiscovery = capabilities.presenceDiscovery;
+		this.socialPresence = capabilities.socialPresence;
+		this.fileTransferHttp = capabilities.fileTransferHttp;
+		this.geolocationPush = capabilities.geolocationPush;
+		this.fileTransferThumbnail = capabilities.fileTransferThumbnail;
+		this.fileTransferStoreForward = capabilities.fileTransferStoreForward;
+		this.groupChatStoreForward = capabilities.groupChatStoreForward;
+		this.sipAutomata = capabilities.sipAutomata;
+		this.extensions = new ArrayList<String>(capabilities.extensions);
+		this.timestamp = capabilities.timestamp;
+	}
+
     /**
 	 * Is image sharing supported
 	 * 
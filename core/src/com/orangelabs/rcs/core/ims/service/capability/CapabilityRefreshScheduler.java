@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.service.capability;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.orangelabs.rcs.core.ims.service.ContactInfo;
+import com.orangelabs.rcs.provider.eab.ContactsManager;
+import com.orangelabs.rcs.provider.settings.RcsSettings;
+import com.orangelabs.rcs.utils.PhoneUtils;
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * Capability refresh scheduler used to refresh the capabilities of many
+ * contacts at once. The contacts to be refreshed are ordered by priority:
+ * the contacts recently in interaction first, then the contacts whose
+ * capabilities are the oldest. The requests are sent at a limited rate with a
+ * bounded number of requests in progress, and the capability timestamps of
+ * each group of requests are written in a single transaction.
+ *
+ * @author Jean-Marc AUFFRET
+ */
+public class CapabilityRefreshScheduler implements CapabilityRequestListener {
+	/**
+	 * Capability expiry timeout in seconds
+	 */
+	private static final int CAPABILITY_EXPIRY_PERIOD = RcsSettings.getInstance().getCapabilityExpiryTimeout();
+
+	/**
+	 * Maximum number of contacts whose last interaction is kept
+	 */
+	private static final int MAX_INTERACTIONS = 256;
+
+	/**
+	 * Capability service
+	 */
+	private CapabilityService imsService;
+
+	/**
+	 * Number of requests sent per second
+	 */
+	private int rate;
+
+	/**
+	 * Maximum number of requests in progress
+	 */
+	private int maxRequests;
+
+	/**
+	 * Contacts to be refreshed, ordered by priority
+	 */
+	private PriorityQueue<RefreshEntry> queue = new PriorityQueue<RefreshEntry>(64, new RefreshEntryComparator());
+
+	/**
+	 * Contacts to be refreshed, indexed by contact
+	 */
+	private Hashtable<String, RefreshEntry> pending = new Hashtable<String, RefreshEntry>();
+
+	/**
+	 * Time of the last interaction with a contact, indexed by contact in
+	 * interaction order: the oldest interactions are forgotten first
+	 */
+	private LinkedHashMap<String, Long> interactions = new LinkedHashMap<String, Long>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return size() > MAX_INTERACTIONS;
+		}
+	};
+
+	/**
+	 * Number of requests in progress
+	 */
+	private int requestsInProgress = 0;
+
+	/**
+	 * Scheduler thread
+	 */
+	private Thread thread = null;
+
+	/**
+	 * Stopped flag
+	 */
+	private boolean stopped = true;
+
+	/**
+	 * Number of contacts refreshed since the start of the current refresh
+	 */
+	private int refreshedContacts = 0;
+
+	/**
+	 * Start time of the current refresh
+	 */
+	private long refreshStartTime = 0;
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Constructor
+	 *
+	 * @param parent Capability service
+	 */
+	public CapabilityRefreshScheduler(CapabilityService parent) {
+		this.imsService = parent;
+		this.rate = Math.max(1, RcsSettings.getInstance().getCapabilityPollingRate());
+		this.maxRequests = Math.max(1, RcsSettings.getInstance().getCapabilityPollingMaxRequests());
+	}
+
+	/**
+	 * Start the scheduler
+	 */
+	public synchronized void start() {
+		stopped = false;
+	}
+
+	/**
+	 * Stop the scheduler, the contacts not yet refreshed are forgotten
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		queue.clear();
+		pending.clear();
+		requestsInProgress = 0;
+		notifyAll();
+	}
+
+	/**
+	 * Refresh the capabilities of all the contacts of the rich address book
+	 * which have expired
+	 */
+	public void refreshExpiredContacts() {
+		// Read the capabilities timestamp of all the contacts at once
+		List<ContactInfo> infos = ContactsManager.getInstance().getContactsCapabilityState();
+		long now = System.currentTimeMillis();
+		int count = 0;
+		synchronized(this) {
+			for (int i=0; i < infos.size(); i++) {
+				ContactInfo info = infos.get(i);
+				Capabilities capabilities = info.getCapabilities();
+				long delta = (now - capabilities.getTimestamp()) / 1000;
+				if ((info.getRcsStatus() == ContactInfo.NO_INFO) || (delta >= CAPABILITY_EXPIRY_PERIOD) || (delta < 0)) {
+					// New contact or capabilities are too old
+					boolean presence = (info.getRcsStatus() != ContactInfo.NO_INFO) && capabilities.isPresenceDiscoverySupported();
+					if (schedule(info.getContact(), capabilities.getTimestamp(), presence)) {
+						count++;
+					}
+				}
+			}
+		}
+		if (logger.isActivated()) {
+			logger.info("Capabilities of " + count + " contacts among " + infos.size() + " scheduled for refresh");
+		}
+	}
+
+	/**
+	 * Refresh the capabilities of a list of contacts with OPTIONS requests
+	 *
+	 * @param contacts List of contacts
+	 */
+	public synchronized void refreshContacts(List<String> contacts) {
+		for (int i=0; i < contacts.size(); i++) {
+			schedule(contacts.get(i), 0, false);
+		}
+	}
+
+	/**
+	 * A contact has been in interaction, its capabilities are refreshed first
+	 *
+	 * @param contact Contact
+	 */
+	public void contactInteraction(String contact) {
+		if (contact == null) {
+			return;
+		}
+		synchronized(interactions) {
+			interactions.put(PhoneUtils.extractNumberFromUri(contact), System.currentTimeMillis());
+		}
+	}
+
+	/**
+	 * Schedule the refresh of a contact
+	 *
+	 * @param contact Contact
+	 * @param timestamp Capabilities timestamp
+	 * @param presence Use the anonymous fetch procedure
+	 * @return Returns true if the contact was not already scheduled
+	 */
+	private boolean schedule(String contact, long timestamp, boolean presence) {
+		if (stopped) {
+			return false;
+		}
+		contact = PhoneUtils.extractNumberFromUri(contact);
+		if (pending.containsKey(contact)) {
+			return false;
+		}
+		Long interaction;
+		synchronized(interactions) {
+			interaction = interactions.get(contact);
+		}
+		RefreshEntry entry = new RefreshEntry(contact, timestamp,
+				(interaction != null) ? interaction.longValue() : 0, presence);
+		pending.put(contact, entry);
+		queue.add(entry);
+		if (thread == null) {
+			refreshedContacts = 0;
+			refreshStartTime = System.currentTimeMillis();
+			thread = new Thread("CapabilityRefresh") {
+				public void run() {
+					processQueue();
+				}
+			};
+			thread.start();
+		}
+		return true;
+	}
+
+	/**
+	 * Scheduler thread processing
+	 */
+	private void processQueue() {
+		long interval = 1000 / rate;
+		try {
+			while (true) {
+				// Get the next group of contacts
+				List<RefreshEntry> entries = new ArrayList<RefreshEntry>();
+				synchronized(this) {
+					while (!stopped && !queue.isEmpty() && (requestsInProgress >= maxRequests)) {
+						wait();
+					}
+					if (stopped || queue.isEmpty()) {
+						thread = null;
+						break;
+					}
+					int count = Math.min(rate, maxRequests - requestsInProgress);
+					while ((entries.size() < count) && !queue.isEmpty()) {
+						RefreshEntry entry = queue.poll();
+						pending.remove(entry.contact);
+						entries.add(entry);
+					}
+					requestsInProgress += entries.size();
+				}
+
+				// Update the capability timestamp of the group in one transaction
+				List<String> contacts = new ArrayList<String>();
+				for (int i=0; i < entries.size(); i++) {
+					contacts.add(entries.get(i).contact);
+				}
+				ContactsManager.getInstance().setContactsCapabilitiesTimestamp(contacts, System.currentTimeMillis());
+
+				// Send the requests at the configured rate
+				int next = 0;
+				RefreshEntry current = null;
+				try {
+					while (next < entries.size()) {
+						current = entries.get(next++);
+						if (logger.isActivated()) {
+							logger.debug("Refresh capabilities of " + current.contact);
+						}
+						if (current.presence) {
+							// The contact supports capability discovery via presence
+							imsService.getAnonymousFetchManager().requestCapabilities(current.contact);
+							handleCapabilityRequestTerminated(current.contact);
+						} else
+						if (!imsService.getOptionsManager().requestCapabilities(current.contact, this)) {
+							handleCapabilityRequestTerminated(current.contact);
+						}
+						current = null;
+						Thread.sleep(interval);
+					}
+				} finally {
+					// Release the requests which have failed or have not been sent
+					if (current != null) {
+						handleCapabilityRequestTerminated(current.contact);
+					}
+					while (next < entries.size()) {
+						handleCapabilityRequestTerminated(entries.get(next++).contact);
+					}
+				}
+			}
+		} catch(InterruptedException e) {
+			// Nothing to do
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Capability refresh has failed", e);
+			}
+		} finally {
+			synchronized(this) {
+				if (thread == Thread.currentThread()) {
+					thread = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The capability request of a contact is terminated, whatever its result
+	 *
+	 * @param contact Contact
+	 */
+	public synchronized void handleCapabilityRequestTerminated(String contact) {
+		if (requestsInProgress > 0) {
+			requestsInProgress--;
+		}
+		refreshedContacts++;
+		if ((requestsInProgress == 0) && queue.isEmpty()) {
+			long duration = System.currentTimeMillis() - refreshStartTime;
+			if (logger.isActivated()) {
+				logger.info("Capability refresh of " + refreshedContacts + " contacts done in " + duration + " ms ("
+						+ getRefreshRate(duration) + " contacts/s)");
+			}
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Returns the number of contacts refreshed per second since the start of
+	 * the current refresh
+	 *
+	 * @param duration Duration of the refresh in milliseconds
+	 * @return Contacts per second
+	 */
+	private float getRefreshRate(long duration) {
+		if (duration <= 0) {
+			return 0;
+		}
+		return (refreshedContacts * 1000f) / duration;
+	}
+
+	/**
+	 * Contact to be refreshed
+	 */
+	private static class RefreshEntry {
+		/**
+		 * Contact
+		 */
+		private String contact;
+
+		/**
+		 * Capabilities timestamp
+		 */
+		private long timestamp;
+
+		/**
+		 * Time of the last interaction (0 if none)
+		 */
+		private long interaction;
+
+		/**
+		 * Use the anonymous fetch procedure
+		 */
+		private boolean presence;
+
+		/**
+		 * Constructor
+		 *
+		 * @param contact Contact
+		 * @param timestamp Capabilities timestamp
+		 * @param interaction Time of the last interaction
+		 * @param presence Use the anonymous fetch procedure
+		 */
+		private RefreshEntry(String contact, long timestamp, long interaction, boolean presence) {
+			this.contact = contact;
+			this.timestamp = timestamp;
+			this.interaction = interaction;
+			this.presence = presence;
+		}
+	}
+
+	/**
+	 * Order of the contacts to be refreshed: the most recent interaction first,
+	 * then the oldest capabilities first
+	 */
+	private static class RefreshEntryComparator implements Comparator<RefreshEntry> {
+		public int compare(RefreshEntry entry1, RefreshEntry entry2) {
+			if (entry1.interaction != entry2.interaction) {
+				return (entry1.interaction > entry2.interaction) ? -1 : 1;
+			}
+			if (entry1.timestamp != entry2.timestamp) {
+				return (entry1.timestamp < entry2.timestamp) ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+}
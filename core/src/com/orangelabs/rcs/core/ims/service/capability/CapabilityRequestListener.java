@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.service.capability;
+
+/**
+ * Capability request listener
+ *
+ * @author Jean-Marc AUFFRET
+ */
+public interface CapabilityRequestListener {
+	/**
+	 * The capability request of a contact is terminated, whatever its result
+	 *
+	 * @param contact Contact
+	 */
+	public void handleCapabilityRequestTerminated(String contact);
+}
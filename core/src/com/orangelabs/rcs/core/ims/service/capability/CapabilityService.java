@@ -28,6 +28,7 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import com.orangelabs.rcs.addressbook.AddressBookEventListener;
 import com.orangelabs.rcs.core.CoreException;
 import com.orangelabs.rcs.core.ims.ImsModule;
+import com.orangelabs.rcs.core.ims.network.sip.SipUtils;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipRequest;
 import com.orangelabs.rcs.core.ims.service.ContactInfo;
 import com.orangelabs.rcs.core.ims.service.ImsService;
@@ -63,6 +64,11 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
 	 */
 	private PollingManager pollingManager;
 
+	/**
+	 * Capability refresh scheduler
+	 */
+	private CapabilityRefreshScheduler refreshScheduler;
+
 	/**
      * Flag: set during the address book changed procedure, if we are notified
      * of a change
@@ -91,6 +97,9 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
     	// Instanciate the polling manager
         pollingManager = new PollingManager(this);
 
+    	// Instanciate the capability refresh scheduler
+        refreshScheduler = new CapabilityRefreshScheduler(this);
+
     	// Instanciate the options manager
 		optionsManager = new OptionsManager(parent);
 
@@ -114,6 +123,9 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
 		// Start options manager
 		optionsManager.start();
 
+		// Start capability refresh scheduler
+		refreshScheduler.start();
+
 		// Listen to address book changes
 		getImsModule().getCore().getAddressBookManager().addAddressBookListener(this);
 
@@ -145,6 +157,9 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
 		// Stop polling
 		pollingManager.stop();
 
+		// Stop capability refresh scheduler
+		refreshScheduler.stop();
+
 		// Stop listening to address book changes
 		getImsModule().getCore().getAddressBookManager().removeAddressBookListener(this);
 	}
@@ -173,6 +188,15 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
 		return anonymousFetchManager;
 	}
 
+    /**
+     * Get the capability refresh scheduler
+     * 
+     * @return Capability refresh scheduler
+     */
+	public CapabilityRefreshScheduler getRefreshScheduler() {
+		return refreshScheduler;
+	}
+
 	/**
      * Request contact capabilities
      * 
@@ -191,6 +215,9 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
 		if (contact.equals(ImsModule.IMS_USER_PROFILE.getUsername())) {
 			return null;
 		}
+
+		// The contact is in interaction: refresh it first during the next polling
+		refreshScheduler.contactInteraction(contact);
 		
         // Check if if it is a valid RCS number
         if (!ContactsManager.getInstance().isRcsValidNumber(contact)) {
@@ -236,7 +263,7 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
         	if (logger.isActivated()) {
         		logger.debug("Request capabilities for " + contactList.size() + " contacts");
         	}
-    		optionsManager.requestCapabilities(contactList);
+    		refreshScheduler.refreshContacts(contactList);
     	}
 	}	
 	
@@ -246,6 +273,7 @@ public class CapabilityService extends ImsService implements AddressBookEventLis
      * @param options Received options message
      */
     public void receiveCapabilityRequest(SipRequest options) {
+    	refreshScheduler.contactInteraction(SipUtils.getAssertedIdentity(options));
     	optionsManager.receiveCapabilityRequest(options);
     }
 
@@ -101,10 +101,23 @@ public class OptionsManager implements DiscoveryManager {
     	ContactsManager.getInstance().setContactCapabilitiesTimestamp(contact, System.currentTimeMillis());
     	
     	// Start request in background
+    	return requestCapabilities(contact, null);
+    }
+
+	/**
+     * Request contact capabilities without updating the capability timestamp,
+     * which is updated by the caller
+     * 
+     * @param contact Remote contact
+     * @param listener Listener notified when the request is terminated or null
+     * @return Returns true if success
+     */
+    public boolean requestCapabilities(String contact, CapabilityRequestListener listener) {
 		try {
 			boolean richcall = imsModule.getCallManager().isRichcallSupportedWith(contact);
 			boolean ipcall = imsModule.getIPCallService().isCallConnectedWith(contact);
-	    	OptionsRequestTask task = new OptionsRequestTask(imsModule, contact, CapabilityUtils.getSupportedFeatureTags(richcall, ipcall));
+	    	OptionsRequestTask task = new OptionsRequestTask(imsModule, contact, CapabilityUtils.getSupportedFeatureTags(richcall, ipcall), threadPool);
+	    	task.setListener(listener);
 	    	threadPool.submit(task);
 	    	return true;
 		} catch(Exception e) {
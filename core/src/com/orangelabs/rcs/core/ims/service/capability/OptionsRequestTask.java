@@ -17,12 +17,17 @@
  ******************************************************************************/
 package com.orangelabs.rcs.core.ims.service.capability;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
 import com.orangelabs.rcs.core.ims.ImsModule;
 import com.orangelabs.rcs.core.ims.network.sip.SipMessageFactory;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipDialogPath;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipException;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipRequest;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipResponse;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionContext;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionListener;
 import com.orangelabs.rcs.core.ims.service.ContactInfo;
 import com.orangelabs.rcs.core.ims.service.SessionAuthenticationAgent;
 import com.orangelabs.rcs.provider.eab.ContactsManager;
@@ -30,11 +35,14 @@ import com.orangelabs.rcs.utils.PhoneUtils;
 import com.orangelabs.rcs.utils.logger.Logger;
 
 /**
- * Options request task
+ * Options request task: the OPTIONS request is sent asynchronously, the
+ * response is handled on the executor of the capability service when
+ * notified by the SIP stack so that the task does not hold a thread during
+ * the transaction
  * 
  * @author Jean-Marc AUFFRET
  */
-public class OptionsRequestTask implements Runnable {
+public class OptionsRequestTask implements Runnable, SipTransactionListener {
     /**
      * IMS module
      */
@@ -60,6 +68,16 @@ public class OptionsRequestTask implements Runnable {
 	 */
 	private SessionAuthenticationAgent authenticationAgent;
 
+	/**
+	 * Executor processing the responses
+	 */
+	private Executor executor;
+
+	/**
+	 * Listener notified when the request is terminated
+	 */
+	private CapabilityRequestListener listener = null;
+
 	/**
      * The logger
      */
@@ -71,14 +89,25 @@ public class OptionsRequestTask implements Runnable {
      * @param parent IMS module
    	 * @param contact Remote contact
    	 * @param featureTags Feature tags
+   	 * @param executor Executor processing the responses
 	 */
-	public OptionsRequestTask(ImsModule parent, String contact, String[] featureTags) {
+	public OptionsRequestTask(ImsModule parent, String contact, String[] featureTags, Executor executor) {
         this.imsModule = parent;
         this.contact = contact;
         this.featureTags = featureTags;
+        this.executor = executor;
 		this.authenticationAgent = new SessionAuthenticationAgent(imsModule);
 	}
 	
+	/**
+	 * Set the listener notified when the request is terminated
+	 * 
+	 * @param listener Listener
+	 */
+	public void setListener(CapabilityRequestListener listener) {
+		this.listener = listener;
+	}
+	
 	/**
 	 * Background processing
 	 */
@@ -99,6 +128,7 @@ public class OptionsRequestTask implements Runnable {
                 if (logger.isActivated()) {
                     logger.debug("IMS not registered, do nothing");
                 }
+                terminate();
                 return;
             }
 
@@ -140,9 +170,82 @@ public class OptionsRequestTask implements Runnable {
         	logger.info("Send OPTIONS");
         }
 
-        // Send OPTIONS request
-        SipTransactionContext ctx = imsModule.getSipManager().sendSipMessageAndWait(options);
+        // Send OPTIONS request, the response is notified asynchronously
+        imsModule.getSipManager().sendSipMessage(options, this);
+	}
+
+	/**
+	 * A provisional response has been received
+	 * 
+	 * @param ctx SIP transaction context
+	 * @param response Provisional response
+	 */
+	public void handleProvisionalResponse(SipTransactionContext ctx, SipResponse response) {
+		// Not used
+	}
 
+	/**
+	 * The OPTIONS transaction is completed: the response is analyzed on the
+	 * executor, not on the SIP stack thread
+	 * 
+	 * @param ctx SIP transaction context
+	 */
+	public void handleTransactionCompleted(final SipTransactionContext ctx) {
+		execute(new Runnable() {
+			public void run() {
+				try {
+					analyzeResponse(ctx);
+		        } catch(Exception e) {
+		        	if (logger.isActivated()) {
+		        		logger.error("OPTIONS request has failed", e);
+		        	}
+		        	handleError(new CapabilityError(CapabilityError.UNEXPECTED_EXCEPTION, e.getMessage()));
+		        }
+			}
+		});
+	}
+
+	/**
+	 * The OPTIONS transaction has failed
+	 * 
+	 * @param ctx SIP transaction context
+	 * @param error Error
+	 */
+	public void handleTransactionError(SipTransactionContext ctx, final SipException error) {
+		execute(new Runnable() {
+			public void run() {
+	        	if (logger.isActivated()) {
+	        		logger.error("OPTIONS request has failed", error);
+	        	}
+				handleError(new CapabilityError(CapabilityError.UNEXPECTED_EXCEPTION, error.getMessage()));
+			}
+		});
+	}
+
+	/**
+	 * Execute a processing on the executor
+	 * 
+	 * @param processing Processing
+	 */
+	private void execute(Runnable processing) {
+		try {
+			executor.execute(processing);
+		} catch(RejectedExecutionException e) {
+			// The capability service is stopped
+        	if (logger.isActivated()) {
+        		logger.debug("OPTIONS response not processed: service stopped");
+        	}
+			terminate();
+		}
+	}
+
+	/**
+	 * Analyze the response of an OPTIONS message
+	 * 
+	 * @param ctx SIP transaction context
+	 * @throws Exception
+	 */
+	private void analyzeResponse(SipTransactionContext ctx) throws Exception {
         // Analyze the received response 
         if (ctx.isSipResponse()) {
         	// A response has been received
@@ -202,6 +305,7 @@ public class OptionsRequestTask implements Runnable {
         	// Notify listener
         	imsModule.getCore().getListener().handleCapabilitiesNotification(contact, info.getCapabilities());
     	}
+    	terminate();
 	}
 	
 	/**
@@ -221,6 +325,7 @@ public class OptionsRequestTask implements Runnable {
         
     	// Notify listener
     	imsModule.getCore().getListener().handleCapabilitiesNotification(contact, capabilities);
+    	terminate();
 	}
 
 	/**
@@ -249,6 +354,7 @@ public class OptionsRequestTask implements Runnable {
 
     	// Notify listener
     	imsModule.getCore().getListener().handleCapabilitiesNotification(contact, capabilities);
+    	terminate();
 	}	
 	
 	/**
@@ -297,5 +403,16 @@ public class OptionsRequestTask implements Runnable {
     	
     	// We update the database capabilities timestamp
     	ContactsManager.getInstance().setContactCapabilitiesTimestamp(contact, System.currentTimeMillis());
+    	terminate();
 	}	
+
+	/**
+	 * Notify the listener that the request is terminated
+	 */
+	private synchronized void terminate() {
+		if (listener != null) {
+			listener.handleCapabilityRequestTerminated(contact);
+			listener = null;
+		}
+	}
 }
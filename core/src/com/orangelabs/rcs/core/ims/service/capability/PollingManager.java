@@ -17,9 +17,6 @@
  ******************************************************************************/
 package com.orangelabs.rcs.core.ims.service.capability;
 
-import java.util.List;
-
-import com.orangelabs.rcs.provider.eab.ContactsManager;
 import com.orangelabs.rcs.provider.settings.RcsSettings;
 import com.orangelabs.rcs.utils.PeriodicRefresher;
 import com.orangelabs.rcs.utils.logger.Logger;
@@ -31,11 +28,6 @@ import com.orangelabs.rcs.utils.logger.Logger;
  */
 public class PollingManager extends PeriodicRefresher {
 	/**
-	 * Capability expiry timeout in seconds
-	 */
-	private static final int CAPABILITY_EXPIRY_PERIOD = RcsSettings.getInstance().getCapabilityExpiryTimeout();
-
-	/**
      * Capability service
      */
     private CapabilityService imsService;
@@ -86,55 +78,10 @@ public class PollingManager extends PeriodicRefresher {
     		logger.info("Execute new capabilities update");
     	}
     	
-    	// Update all contacts capabilities if refresh timeout has not expired
-		List<String> contactList = ContactsManager.getInstance().getAllContacts();
-		for (int i=0; i < contactList.size(); i++) {
-			String contact = contactList.get(i);
-			requestContactCapabilities(contact);
-		}
+    	// Update the capabilities of the contacts which have expired
+		imsService.getRefreshScheduler().refreshExpiredContacts();
 		
 		// Restart timer
 		startTimer(pollingPeriod, 1);		
     }
-    
-	/**
-	 * Request contact capabilities 
-	 * 
-	 * @param contact Contact
-	 */
-	private void requestContactCapabilities(String contact) {
-    	if (logger.isActivated()) {
-    		logger.debug("Request capabilities for " + contact);
-    	}
-
-		// Read capabilities from the database
-		Capabilities capabilities = ContactsManager.getInstance().getContactCapabilities(contact);
-		if (capabilities == null) {
-	    	if (logger.isActivated()) {
-	    		logger.debug("No capability exist for " + contact);
-	    	}
-
-            // New contact: request capabilities from the network
-    		imsService.getOptionsManager().requestCapabilities(contact);
-		} else {
-	    	if (logger.isActivated()) {
-	    		logger.debug("Capabilities exist for " + contact);
-	    	}
-			long delta = (System.currentTimeMillis()-capabilities.getTimestamp())/1000;
-			if ((delta >= CAPABILITY_EXPIRY_PERIOD) || (delta < 0)) {
-		    	if (logger.isActivated()) {
-		    		logger.debug("Capabilities have expired for " + contact);
-		    	}
-
-		    	// Capabilities are too old: request capabilities from the network
-		    	if (capabilities.isPresenceDiscoverySupported()) {
-			    	// If contact supports capability discovery via presence, use the selected discoveryManager
-		    		imsService.getAnonymousFetchManager().requestCapabilities(contact);
-		    	} else {
-		    		// The contact only supports OPTIONS requests
-		    		imsService.getOptionsManager().requestCapabilities(contact);
-		    	}
-			}
-		}
-	}	    
 }
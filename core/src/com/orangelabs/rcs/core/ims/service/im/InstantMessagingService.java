@@ -94,11 +94,24 @@ public class InstantMessagingService extends ImsService {
 	 */
 	private int maxChatSessions;
 
+	/**
+	 * Lock of the test of the number of chat sessions and the start of a
+	 * received chat session, the invitations of different contacts being
+	 * dispatched in parallel
+	 */
+	private Object chatSessionsLock = new Object();
+
 	/**
 	 * Max file transfer sessions
 	 */
 	private int maxFtSessions;
 	
+	/**
+	 * Lock of the test of the number of file transfer sessions and the start
+	 * of a received file transfer session
+	 */
+	private Object ftSessionsLock = new Object();
+
 	/**
 	 * Max file transfer size
 	 */
@@ -462,22 +475,25 @@ public class InstantMessagingService extends ImsService {
 			return;
 	    }
 
-		// Test number of sessions
-		if ((maxFtSessions != 0) && (getFileTransferSessions().size() >= maxFtSessions)) {
-			if (logger.isActivated()) {
-				logger.debug("The max number of file transfer sessions is achieved: reject the invitation");
+		FileSharingSession session;
+		synchronized(ftSessionsLock) {
+			// Test number of sessions
+			if ((maxFtSessions != 0) && (getFileTransferSessions().size() >= maxFtSessions)) {
+				if (logger.isActivated()) {
+					logger.debug("The max number of file transfer sessions is achieved: reject the invitation");
+				}
+
+				// Send a 603 Decline response
+				sendErrorResponse(invite, Response.DECLINE);
+				return;
 			}
-			
-			// Send a 603 Decline response
-			sendErrorResponse(invite, Response.DECLINE);
-			return;
-		}
 
-    	// Create a new session
-		FileSharingSession session = new TerminatingFileSharingSession(this, invite);
+			// Create a new session
+			session = new TerminatingFileSharingSession(this, invite);
 
-		// Start the session
-		session.startSession();
+			// Start the session
+			session.startSession();
+		}
 
 		// Notify listener
 		getImsModule().getCore().getListener().handleFileTransferInvitation(session, false);
@@ -574,23 +590,26 @@ public class InstantMessagingService extends ImsService {
 			RichMessagingHistory.getInstance().addChatMessage(firstMsg, ChatLog.Message.Direction.INCOMING);
 		}
 
-		// Test number of sessions
-		if ((maxChatSessions != 0) && (getImSessions().size() >= maxChatSessions)) {
-			if (logger.isActivated()) {
-				logger.debug("The max number of chat sessions is achieved: reject the invitation");
+		TerminatingOne2OneChatSession session;
+		synchronized(chatSessionsLock) {
+			// Test number of sessions
+			if ((maxChatSessions != 0) && (getImSessions().size() >= maxChatSessions)) {
+				if (logger.isActivated()) {
+					logger.debug("The max number of chat sessions is achieved: reject the invitation");
+				}
+				
+				// Send a 486 Busy response
+				sendErrorResponse(invite, Response.BUSY_HERE);
+				return;
 			}
-			
-			// Send a 486 Busy response
-			sendErrorResponse(invite, Response.BUSY_HERE);
-			return;
+	
+			// Create a new session
+			session = new TerminatingOne2OneChatSession(this, invite);
+	
+			// Start the session
+			session.startSession();
 		}
 
-		// Create a new session
-		TerminatingOne2OneChatSession session = new TerminatingOne2OneChatSession(this, invite);
-
-		// Start the session
-		session.startSession();
-
 		// Notify listener
 		getImsModule().getCore().getListener().handleOneOneChatSessionInvitation(session);
     }
@@ -648,17 +667,6 @@ public class InstantMessagingService extends ImsService {
 			return;
 	    }
 
-		// Test number of sessions
-		if ((maxChatSessions != 0) && (getImSessions().size() >= maxChatSessions)) {
-			if (logger.isActivated()) {
-				logger.debug("The max number of chat sessions is achieved: reject the invitation");
-			}
-			
-			// Send a 486 Busy response
-			sendErrorResponse(invite, Response.BUSY_HERE);
-			return;
-		}
-
 		// Create a new session
 		TerminatingAdhocGroupChatSession session = new TerminatingAdhocGroupChatSession(this, invite);
 
@@ -680,9 +688,21 @@ public class InstantMessagingService extends ImsService {
 			return;
 		}
 
-		
-		// Start the session
-		session.startSession();
+		synchronized(chatSessionsLock) {
+			// Test number of sessions
+			if ((maxChatSessions != 0) && (getImSessions().size() >= maxChatSessions)) {
+				if (logger.isActivated()) {
+					logger.debug("The max number of chat sessions is achieved: reject the invitation");
+				}
+				
+				// Send a 486 Busy response
+				sendErrorResponse(invite, Response.BUSY_HERE);
+				return;
+			}
+	
+			// Start the session
+			session.startSession();
+		}
 
 		// Notify listener
 		getImsModule().getCore().getListener().handleAdhocGroupChatSessionInvitation(session);
@@ -837,10 +857,22 @@ public class InstantMessagingService extends ImsService {
 	       	return;
 		}
 
-		// Parse received message
-		ImdnDocument imdn = ChatUtils.parseCpimDeliveryReport(message.getContent());
-    	if ((imdn != null) && (imdn.getMsgId() != null) && (imdn.getStatus() != null)) {
-	    	String contact = SipUtils.getAssertedIdentity(message);
+		// Parse received message, which may contain a batch of delivery reports
+		String contact = SipUtils.getAssertedIdentity(message);
+		List<ImdnDocument> imdns = ChatUtils.parseCpimDeliveryReports(message);
+		for (ImdnDocument imdn : imdns) {
+			receiveMessageDeliveryStatus(contact, imdn);
+		}
+    }
+
+	/**
+     * Receive a message delivery status
+     * 
+     * @param contact Contact who notified the status
+     * @param imdn IMDN document
+     */
+    private void receiveMessageDeliveryStatus(String contact, ImdnDocument imdn) {
+    	if ((imdn.getMsgId() != null) && (imdn.getStatus() != null)) {
 	    	String status = imdn.getStatus();
 	    	String msgId = imdn.getMsgId();
 
@@ -964,17 +996,6 @@ public class InstantMessagingService extends ImsService {
 			return;
 	    }
 
-		// Test number of sessions
-		if ((maxFtSessions != 0) && (getFileTransferSessions().size() >= maxFtSessions)) {
-			if (logger.isActivated()) {
-				logger.debug("The max number of FT sessions is achieved, reject the HTTP File transfer");
-			}
-
-			// Send a 603 Decline response
-			sendErrorResponse(invite, 603);
-			return;
-		}
-
         // Reject if file is too big or size exceeds device storage capacity. This control should be done
         // on UI. It is done after end user accepts invitation to enable prior handling by the application.
         FileSharingError error = FileSharingSession.isFileCapacityAcceptable(ftinfo.getFileSize());
@@ -984,17 +1005,32 @@ public class InstantMessagingService extends ImsService {
             return;
         }
 
-		// Save the first message
-		RichMessagingHistory.getInstance().addChatMessage(ChatUtils.getFirstMessage(invite), ChatLog.Message.Direction.INCOMING);
+		TerminatingOne2OneChatSession one2oneChatSession;
+		TerminatingHttpFileSharingSession httpFiletransferSession;
+		synchronized(ftSessionsLock) {
+			// Test number of sessions
+			if ((maxFtSessions != 0) && (getFileTransferSessions().size() >= maxFtSessions)) {
+				if (logger.isActivated()) {
+					logger.debug("The max number of FT sessions is achieved, reject the HTTP File transfer");
+				}
 
-        // Create and start a chat session
-        TerminatingOne2OneChatSession one2oneChatSession = new TerminatingOne2OneChatSession(this, invite);
-        one2oneChatSession.startSession();
-        
-		// Create and start a new HTTP file transfer session
-		TerminatingHttpFileSharingSession httpFiletransferSession = new TerminatingHttpFileSharingSession(this, one2oneChatSession,
-				ftinfo, ChatUtils.getMessageId(invite), one2oneChatSession.getRemoteContact());
-        httpFiletransferSession.startSession();
+				// Send a 603 Decline response
+				sendErrorResponse(invite, 603);
+				return;
+			}
+
+			// Save the first message
+			RichMessagingHistory.getInstance().addChatMessage(ChatUtils.getFirstMessage(invite), ChatLog.Message.Direction.INCOMING);
+
+			// Create and start a chat session
+			one2oneChatSession = new TerminatingOne2OneChatSession(this, invite);
+			one2oneChatSession.startSession();
+
+			// Create and start a new HTTP file transfer session
+			httpFiletransferSession = new TerminatingHttpFileSharingSession(this, one2oneChatSession,
+					ftinfo, ChatUtils.getMessageId(invite), one2oneChatSession.getRemoteContact());
+			httpFiletransferSession.startSession();
+		}
         
         // Notify listener
         getImsModule().getCore().getListener().handle1to1FileTransferInvitation(httpFiletransferSession, one2oneChatSession);
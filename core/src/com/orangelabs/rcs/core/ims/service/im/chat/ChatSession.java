@@ -132,6 +132,12 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
      */
     private boolean ftSupportedByRemote = false;
 
+    /**
+     * Received messages not yet stored in the history: they are stored in a
+     * single transaction once the burst of received data has been processed
+     */
+    private List<InstantMessage> receivedMessages = new ArrayList<InstantMessage>();
+
     /**
      * The logger
      */
@@ -381,6 +387,9 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 	 * Close the MSRP session
 	 */
 	public void closeMsrpSession() {
+		// Store the messages already received
+		flushReceivedMessages();
+
     	if (getMsrpMgr() != null) {
     		getMsrpMgr().closeSession();
 			if (logger.isActivated()) {
@@ -614,9 +623,18 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 	 * Data transfer has been aborted
 	 */
 	public void msrpTransferAborted() {
-    	// Not used by chat
+		// Store the messages already received
+		flushReceivedMessages();
 	}	
 
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Store the messages received in the burst
+		flushReceivedMessages();
+	}
+
     /* (non-Javadoc)
      * @see com.orangelabs.rcs.core.ims.protocol.msrp.MsrpEventListener#msrpTransferError(java.lang.String, java.lang.String, com.orangelabs.rcs.core.ims.protocol.msrp.MsrpSession.TypeMsrpChunk)
      */
@@ -629,6 +647,9 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 			logger.info("Data transfer error " + error + " for message " + msgId + " (MSRP chunk type: " + typeMsrpChunk + ")");
         }
 
+		// Store the messages already received
+		flushReceivedMessages();
+
         // Changed by Deutsche Telekom
 		// first: handle affected message
         if (TypeMsrpChunk.MessageDeliveredReport.equals(typeMsrpChunk)) {
@@ -703,7 +724,7 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 	 * @param displayName the display name
 	 */
 	private void receiveText(String contact, String txt, String msgId, boolean imdnDisplayedRequested, Date date, String displayName) {
-		if (!RichMessagingHistory.getInstance().isNewMessage(getContributionID(), msgId)) {
+		if (!isNewReceivedMessage(msgId)) {
 			// Message already received
 			return;
 		}
@@ -711,10 +732,63 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 		// Is composing event is reset
 		isComposingMgr.receiveIsComposingEvent(contact, false);
 
+		// Store and notify the message with the other messages of the burst
+		synchronized(receivedMessages) {
+			receivedMessages.add(new InstantMessage(msgId, contact, txt, imdnDisplayedRequested, date, displayName));
+		}
+	}
+	
+	/**
+	 * Check if a received message is new
+	 * 
+	 * @param msgId Message Id
+	 * @return Returns false if the message is already in the history or in the current burst
+	 */
+	private boolean isNewReceivedMessage(String msgId) {
+		synchronized(receivedMessages) {
+			if (msgId != null) {
+				for (int i = 0; i < receivedMessages.size(); i++) {
+					if (msgId.equals(receivedMessages.get(i).getMessageId())) {
+						return false;
+					}
+				}
+			}
+		}
+		return RichMessagingHistory.getInstance().isNewMessage(getContributionID(), msgId);
+	}
+	
+	/**
+	 * Store the received messages in the history in a single transaction,
+	 * then notify the listeners of each message in the received order
+	 */
+	private void flushReceivedMessages() {
+		List<InstantMessage> messages;
+		synchronized(receivedMessages) {
+			if (receivedMessages.isEmpty()) {
+				return;
+			}
+			messages = new ArrayList<InstantMessage>(receivedMessages);
+			receivedMessages.clear();
+		}
+
+		// Update rich messaging history
+		if (isGroupChat()) {
+			RichMessagingHistory.getInstance().addGroupChatMessages(getContributionID(), messages,
+					ChatLog.Message.Direction.INCOMING);
+		} else {
+			RichMessagingHistory.getInstance().addChatMessages(messages, ChatLog.Message.Direction.INCOMING);
+		}
+
 		// Notify listeners
-		for (int i = 0; i < getListeners().size(); i++) {
-			((ChatSessionListener) getListeners().get(i)).handleReceiveMessage(new InstantMessage(msgId, contact, txt,
-					imdnDisplayedRequested, date, displayName));
+		for (int j = 0; j < messages.size(); j++) {
+			InstantMessage msg = messages.get(j);
+			for (int i = 0; i < getListeners().size(); i++) {
+				if (msg instanceof GeolocMessage) {
+					((ChatSessionListener) getListeners().get(i)).handleReceiveGeoloc((GeolocMessage) msg);
+				} else {
+					((ChatSessionListener) getListeners().get(i)).handleReceiveMessage(msg);
+				}
+			}
 		}
 	}
 	
@@ -725,6 +799,9 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 	 * @param event Event
 	 */
 	private void receiveIsComposing(String contact, byte[] event) {
+		// Notify the messages received before the event
+		flushReceivedMessages();
+
 	    isComposingMgr.receiveIsComposingEvent(contact, event);
 	}
 
@@ -752,7 +829,7 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 	 * @param pseudo the display name
 	 */
 	private void receiveGeoloc(String contact, String geolocDoc, String msgId, boolean imdnDisplayedRequested, Date date, String pseudo) {
-		if (!RichMessagingHistory.getInstance().isNewMessage(getContributionID(), msgId)) {
+		if (!isNewReceivedMessage(msgId)) {
 			// Message already received
 			return;
 		}
@@ -763,10 +840,10 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 		try {				
 			GeolocPush geoloc = ChatUtils.parseGeolocDocument(geolocDoc);		
 			if (geoloc != null ) {				
-				// Notify listeners
+				// Store and notify the message with the other messages of the burst
 				GeolocMessage geolocMsg = new GeolocMessage(msgId, contact, geoloc, imdnDisplayedRequested, date, pseudo);
-				for(int i=0; i < getListeners().size(); i++) {
-					((ChatSessionListener)getListeners().get(i)).handleReceiveGeoloc(geolocMsg);
+				synchronized(receivedMessages) {
+					receivedMessages.add(geolocMsg);
 				}
 			}		    
 		} catch (Exception e) {
@@ -784,6 +861,9 @@ public abstract class ChatSession extends ImsServiceSession implements MsrpEvent
 	 * @param msgId Message ID
 	 */
 	private void receiveHttpFileTransfer(String contact, FileTransferHttpInfoDocument fileTransferInfo, String msgId) {
+		// Store the messages received before the file transfer
+		flushReceivedMessages();
+
 		// Test if the contact is blocked
 		if (ContactsManager.getInstance().isFtBlockedForContact(contact)) {
 			if (logger.isActivated()) {
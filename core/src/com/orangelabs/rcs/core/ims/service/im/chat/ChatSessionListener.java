@@ -27,7 +27,7 @@ import com.orangelabs.rcs.core.ims.service.ImsSessionListener;
  */
 public interface ChatSessionListener extends ImsSessionListener {
 	/**
-	 * New message received
+	 * New message received, the message is already stored in the history
 	 * 
 	 * @param message Message
 	 */
@@ -79,7 +79,7 @@ public interface ChatSessionListener extends ImsSessionListener {
     public void handleAddParticipantFailed(String reason);
     
     /**
-     * New geoloc message received
+     * New geoloc message received, the message is already stored in the history
      * 
      * @param geoloc Geoloc message
      */
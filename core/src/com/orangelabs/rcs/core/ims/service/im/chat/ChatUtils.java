@@ -25,6 +25,8 @@ import java.util.Date;
 import java.util.List;
 
 import javax2.sip.header.ContactHeader;
+import javax2.sip.header.ContentLengthHeader;
+import javax2.sip.header.ContentTypeHeader;
 import javax2.sip.header.ExtensionHeader;
 
 import org.xml.sax.InputSource;
@@ -76,6 +78,11 @@ public class ChatUtils {
 	 */
 	private static final String CRLF = "\r\n";
 
+	/**
+	 * Multipart MIME type
+	 */
+	public static final String MULTIPART_MIXED_MIME_TYPE = "multipart/mixed";
+
 	 /**
      * The logger
      */
@@ -345,6 +352,12 @@ public class ChatUtils {
     	if ((content != null) && (content.contains(ImdnDocument.IMDN_NAMESPACE)) &&
     			(contentType != null) && (contentType.equalsIgnoreCase(CpimMessage.MIME_TYPE))) {
     		return true;
+    	} else
+    	if ((content != null) && (content.contains(ImdnDocument.IMDN_NAMESPACE)) &&
+    			(contentType != null) && (contentType.equalsIgnoreCase(MULTIPART_MIXED_MIME_TYPE)) &&
+    			(content.contains(CpimMessage.MIME_TYPE))) {
+    		// Batch of delivery reports
+    		return true;
     	} else {
     		return false;
     	}
@@ -584,6 +597,70 @@ public class ChatUtils {
 		return imdn;
 	}
 
+	/**
+	 * Build a multipart document grouping several CPIM delivery reports
+	 * 
+	 * @param cpims CPIM documents
+	 * @param boundary Boundary tag
+	 * @return Multipart document
+	 */
+	public static String buildMultipartDeliveryReport(List<String> cpims, String boundary) {
+		StringBuilder multipart = new StringBuilder();
+		for (String cpim : cpims) {
+			multipart.append(Multipart.BOUNDARY_DELIMITER).append(boundary).append(CRLF)
+				.append(ContentTypeHeader.NAME).append(": ").append(CpimMessage.MIME_TYPE).append(CRLF)
+				.append(ContentLengthHeader.NAME).append(": ").append(cpim.getBytes().length).append(CRLF)
+				.append(CRLF)
+				.append(cpim).append(CRLF);
+		}
+		multipart.append(Multipart.BOUNDARY_DELIMITER).append(boundary).append(Multipart.BOUNDARY_DELIMITER);
+		return multipart.toString();
+	}
+
+	/**
+	 * Parse the delivery reports of a SIP MESSAGE, which contains either a
+	 * single CPIM delivery report or a multipart batch of them
+	 * 
+	 * @param request SIP request
+	 * @return List of IMDN documents
+	 */
+	public static List<ImdnDocument> parseCpimDeliveryReports(SipRequest request) {
+		return parseCpimDeliveryReports(request.getContent(), request.getContentType(),
+				request.getBoundaryContentType());
+	}
+
+	/**
+	 * Parse the delivery reports of a content, which is either a single CPIM
+	 * delivery report or a multipart batch of them
+	 * 
+	 * @param content Content
+	 * @param contentType Content type
+	 * @param boundary Boundary tag of a multipart content
+	 * @return List of IMDN documents
+	 */
+	public static List<ImdnDocument> parseCpimDeliveryReports(String content, String contentType, String boundary) {
+		List<ImdnDocument> result = new ArrayList<ImdnDocument>();
+		if ((content == null) || (contentType == null)) {
+			return result;
+		}
+		
+		if (contentType.equalsIgnoreCase(MULTIPART_MIXED_MIME_TYPE)) {
+			Multipart multi = new Multipart(content, boundary);
+			for (String cpim : multi.getPartsByType(CpimMessage.MIME_TYPE)) {
+				ImdnDocument imdn = parseCpimDeliveryReport(cpim);
+				if (imdn != null) {
+					result.add(imdn);
+				}
+			}
+		} else {
+			ImdnDocument imdn = parseCpimDeliveryReport(content);
+			if (imdn != null) {
+				result.add(imdn);
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Parse a delivery report
 	 * 
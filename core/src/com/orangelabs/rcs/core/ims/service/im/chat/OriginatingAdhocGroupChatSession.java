@@ -71,6 +71,15 @@ public class OriginatingAdhocGroupChatSession extends GroupChatSession {
 		setContributionID(id);				
 	}
 	
+	/**
+	 * The session setup is event-driven
+	 * 
+	 * @return Boolean
+	 */
+	public boolean isEventDriven() {
+		return true;
+	}
+
 	/**
 	 * Background processing
 	 */
@@ -64,6 +64,15 @@ public class OriginatingOne2OneChatSession extends OneOneChatSession {
 		setContributionID(id);
 	}
 
+	/**
+	 * The session setup is event-driven
+	 * 
+	 * @return Boolean
+	 */
+	public boolean isEventDriven() {
+		return true;
+	}
+
 	/**
 	 * Background processing
 	 */
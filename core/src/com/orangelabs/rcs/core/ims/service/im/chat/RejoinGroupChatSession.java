@@ -68,6 +68,15 @@ public class RejoinGroupChatSession extends GroupChatSession {
 		setContributionID(chatId);
 	}
 	
+	/**
+	 * The session setup is event-driven
+	 * 
+	 * @return Boolean
+	 */
+	public boolean isEventDriven() {
+		return true;
+	}
+
 	/**
 	 * Background processing
 	 */
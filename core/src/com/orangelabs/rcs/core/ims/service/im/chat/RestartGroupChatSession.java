@@ -73,6 +73,15 @@ public class RestartGroupChatSession extends GroupChatSession {
 		setContributionID(contributionId);
 	}
 	
+	/**
+	 * The session setup is event-driven
+	 * 
+	 * @return Boolean
+	 */
+	public boolean isEventDriven() {
+		return true;
+	}
+
 	/**
 	 * Background processing
 	 */
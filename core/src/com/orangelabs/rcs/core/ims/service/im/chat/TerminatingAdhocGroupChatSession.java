@@ -24,6 +24,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.Vector;
 
+import com.orangelabs.rcs.core.ims.network.sip.SipManager;
 import com.orangelabs.rcs.core.ims.network.sip.SipMessageFactory;
 import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpEventListener;
 import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpSession;
@@ -81,6 +82,15 @@ public class TerminatingAdhocGroupChatSession extends GroupChatSession implement
 		setContributionID(id);				
 	}
 
+	/**
+	 * The session setup is event-driven
+	 * 
+	 * @return Boolean
+	 */
+	public boolean isEventDriven() {
+		return true;
+	}
+
 	/**
 	 * Background processing
 	 */
@@ -94,6 +104,9 @@ public class TerminatingAdhocGroupChatSession extends GroupChatSession implement
                 if (logger.isActivated()) {
                     logger.debug("Auto accept group chat invitation");
                 }
+
+                // Answer the invitation
+                sendInvitationAnswer();
             } else {
                 if (logger.isActivated()) {
                     logger.debug("Accept manually group chat invitation");
@@ -102,58 +115,84 @@ public class TerminatingAdhocGroupChatSession extends GroupChatSession implement
     			send180Ringing(getDialogPath().getInvite(), getDialogPath().getLocalTag());
     			
     			// Wait invitation answer
-    	    	int answer = waitInvitationAnswer();
-    			if (answer == ImsServiceSession.INVITATION_REJECTED) {
-    				if (logger.isActivated()) {
-    					logger.debug("Session has been rejected by user");
-    				}
-    				
-    		    	// Remove the current session
-    		    	getImsService().removeSession(this);
-    
-    		    	// Notify listeners
-    		    	for(int i=0; i < getListeners().size(); i++) {
-    		    		getListeners().get(i).handleSessionAborted(ImsServiceSession.TERMINATION_BY_USER);
-    		        }
-    				return;
-    			} else
-    			if (answer == ImsServiceSession.INVITATION_NOT_ANSWERED) {
-    				if (logger.isActivated()) {
-    					logger.debug("Session has been rejected on timeout");
-    				}
-    
-    				// Ringing period timeout
-    				send486Busy(getDialogPath().getInvite(), getDialogPath().getLocalTag());
-    				
-    		    	// Remove the current session
-    		    	getImsService().removeSession(this);
-    
-    		    	// Notify listeners
-        	    	for(int i=0; i < getListeners().size(); i++) {
-        	    		getListeners().get(i).handleSessionAborted(ImsServiceSession.TERMINATION_BY_TIMEOUT);
-    		        }
-    				return;
-    			} else
-                if (answer == ImsServiceSession.INVITATION_CANCELED) {
-                    if (logger.isActivated()) {
-                        logger.debug("Session has been canceled");
-                    }
-                    return;
-                }
+    	    	waitInvitationAnswer(new InvitationAnswerHandler() {
+    	    		public void handleInvitationAnswer(int answer) {
+    	    			processInvitationAnswer(answer);
+    	    		}
+    	    	});
             }
+		} catch(Exception e) {
+        	if (logger.isActivated()) {
+        		logger.error("Session initiation has failed", e);
+        	}
+
+        	// Unexpected error
+			handleError(new ChatError(ChatError.UNEXPECTED_EXCEPTION, e.getMessage()));
+		}		
+	}
+
+	/**
+	 * Process the invitation answer of the user
+	 * 
+	 * @param answer Invitation status
+	 */
+	private void processInvitationAnswer(int answer) {
+		if (answer == ImsServiceSession.INVITATION_REJECTED) {
+			if (logger.isActivated()) {
+				logger.debug("Session has been rejected by user");
+			}
+
+			// Remove the current session
+			getImsService().removeSession(this);
 
+			// Notify listeners
+			for(int i=0; i < getListeners().size(); i++) {
+				getListeners().get(i).handleSessionAborted(ImsServiceSession.TERMINATION_BY_USER);
+			}
+		} else
+		if (answer == ImsServiceSession.INVITATION_NOT_ANSWERED) {
+			if (logger.isActivated()) {
+				logger.debug("Session has been rejected on timeout");
+			}
+
+			// Ringing period timeout
+			send486Busy(getDialogPath().getInvite(), getDialogPath().getLocalTag());
+
+			// Remove the current session
+			getImsService().removeSession(this);
+
+			// Notify listeners
+			for(int i=0; i < getListeners().size(); i++) {
+				getListeners().get(i).handleSessionAborted(ImsServiceSession.TERMINATION_BY_TIMEOUT);
+			}
+		} else
+		if (answer == ImsServiceSession.INVITATION_CANCELED) {
+			if (logger.isActivated()) {
+				logger.debug("Session has been canceled");
+			}
+		} else {
+			// Answer the invitation
+			sendInvitationAnswer();
+		}
+	}
+
+	/**
+	 * Send the 200 OK response of the accepted invitation
+	 */
+	private void sendInvitationAnswer() {
+		try {
         	// Parse the remote SDP part
 			String remoteSdp = getDialogPath().getInvite().getSdpContent();
         	SdpParser parser = new SdpParser(remoteSdp.getBytes());
     		Vector<MediaDescription> media = parser.getMediaDescriptions();
 			MediaDescription mediaDesc = media.elementAt(0);
 			MediaAttribute attr1 = mediaDesc.getMediaAttribute("path");
-            String remotePath = attr1.getValue();
-            String remoteHost = SdpUtils.extractRemoteHost(parser.sessionDescription, mediaDesc);
-    		int remotePort = mediaDesc.port;
+            final String remotePath = attr1.getValue();
+            final String remoteHost = SdpUtils.extractRemoteHost(parser.sessionDescription, mediaDesc);
+    		final int remotePort = mediaDesc.port;
 			
     		// Changed by Deutsche Telekom
-    		String fingerprint = SdpUtils.extractFingerprint(parser, mediaDesc);
+    		final String fingerprint = SdpUtils.extractFingerprint(parser, mediaDesc);
 
             // Extract the "setup" parameter
             String remoteSetup = "passive";
@@ -166,7 +205,7 @@ public class TerminatingAdhocGroupChatSession extends GroupChatSession implement
 			}
             
     		// Set setup mode
-            String localSetup = createSetupAnswer(remoteSetup);
+            final String localSetup = createSetupAnswer(remoteSetup);
             if (logger.isActivated()){
 				logger.debug("Local setup attribute is " + localSetup);
 			}
@@ -189,7 +228,7 @@ public class TerminatingAdhocGroupChatSession extends GroupChatSession implement
 	        getDialogPath().setLocalContent(sdp);
 
 	        // Test if the session should be interrupted
-            if (isInterrupted()) {
+            if (isSessionInterrupted()) {
 				if (logger.isActivated()) {
 					logger.debug("Session has been interrupted: end of processing");
 				}
@@ -227,15 +266,51 @@ public class TerminatingAdhocGroupChatSession extends GroupChatSession implement
         	if (logger.isActivated()) {
         		logger.info("Send 200 OK");
         	}
-            SipResponse resp = SipMessageFactory.create200OkInviteResponse(getDialogPath(),
+            final SipResponse resp = SipMessageFactory.create200OkInviteResponse(getDialogPath(),
             		getFeatureTags(), getAcceptContactTags(), sdp);
 
             // The signalisation is established
             getDialogPath().sigEstablished();
 
-	        // Send response
-            SipTransactionContext ctx = getImsService().getImsModule().getSipManager().sendSipMessageAndWait(resp);
+            // Send response, the ACK is processed on the session executor
+            sendSipMessage(resp, SipManager.TIMEOUT, new TransactionHandler() {
+            	public void handleTransaction(final SipTransactionContext ctx) {
+            		if (localSetup.equals("active")) {
+            			// The MSRP connection is blocking: process the ACK out of the session executor
+            			runBlockingSessionStep(new Runnable() {
+            				public void run() {
+            					processAck(ctx, resp, localSetup, remoteHost, remotePort, remotePath, fingerprint);
+            				}
+            			});
+            		} else {
+            			processAck(ctx, resp, localSetup, remoteHost, remotePort, remotePath, fingerprint);
+            		}
+            	}
+            });
+		} catch(Exception e) {
+        	if (logger.isActivated()) {
+        		logger.error("Session initiation has failed", e);
+        	}
+
+        	// Unexpected error
+			handleError(new ChatError(ChatError.UNEXPECTED_EXCEPTION, e.getMessage()));
+		}		
+	}
 
+	/**
+	 * Process the ACK of the 200 OK response
+	 * 
+	 * @param ctx Transaction context
+	 * @param resp 200 OK response
+	 * @param localSetup Local setup attribute
+	 * @param remoteHost Remote MSRP host
+	 * @param remotePort Remote MSRP port
+	 * @param remotePath Remote MSRP path
+	 * @param fingerprint Remote fingerprint
+	 */
+	private void processAck(SipTransactionContext ctx, SipResponse resp, String localSetup,
+			String remoteHost, int remotePort, String remotePath, String fingerprint) {
+		try {
             // Analyze the received response 
             if (ctx.isSipAck()) {
     	        // ACK received
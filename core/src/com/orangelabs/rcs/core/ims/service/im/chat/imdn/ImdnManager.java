@@ -17,6 +17,11 @@
  ******************************************************************************/
 package com.orangelabs.rcs.core.ims.service.im.chat.imdn;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 import com.orangelabs.rcs.core.ims.ImsModule;
 import com.orangelabs.rcs.core.ims.network.sip.FeatureTags;
 import com.orangelabs.rcs.core.ims.network.sip.SipMessageFactory;
@@ -25,6 +30,7 @@ import com.orangelabs.rcs.core.ims.protocol.sip.SipRequest;
 import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionContext;
 import com.orangelabs.rcs.core.ims.service.ImsService;
 import com.orangelabs.rcs.core.ims.service.SessionAuthenticationAgent;
+import com.orangelabs.rcs.core.ims.service.im.chat.ChatSession;
 import com.orangelabs.rcs.core.ims.service.im.chat.ChatUtils;
 import com.orangelabs.rcs.core.ims.service.im.chat.cpim.CpimMessage;
 import com.orangelabs.rcs.provider.messaging.RichMessagingHistory;
@@ -35,9 +41,28 @@ import com.orangelabs.rcs.utils.logger.Logger;
 /**
  * IMDN manager (see RFC5438)
  * 
+ * The delivery reports sent to a same contact, or through a same chat session,
+ * are grouped during a short window. A batch is sent over the MSRP session when
+ * it is established, else in a single SIP MESSAGE with a multipart body.
+ *
  * @author jexa7410
  */
 public class ImdnManager extends Thread {
+	/**
+	 * Maximum number of delivery reports in a batch
+	 */
+	private final static int MAX_BATCH_SIZE = 20;
+
+	/**
+	 * Boundary tag of a batch of delivery reports
+	 */
+	private final static String BOUNDARY_TAG = "boundary1";
+
+	/**
+	 * Response code of an unsupported batch
+	 */
+	private final static int UNSUPPORTED_MEDIA_TYPE = 415;
+
     /**
      * IMS service
      */
@@ -53,6 +78,21 @@ public class ImdnManager extends Thread {
 	 */
 	private boolean activated;
 
+    /**
+	 * Batch window in milliseconds
+	 */
+	private int batchWindow;
+
+	/**
+	 * Pending batches, in the order of their first delivery report
+	 */
+	private LinkedHashMap<String, Batch> batches = new LinkedHashMap<String, Batch>();
+
+	/**
+	 * Termination flag
+	 */
+	private boolean terminated = false;
+
     /**
      * The logger
      */
@@ -66,6 +106,7 @@ public class ImdnManager extends Thread {
     public ImdnManager(ImsService imsService) {
     	this.imsService = imsService;
     	this.activated = RcsSettings.getInstance().isImReportsActivated();
+    	this.batchWindow = Math.max(0, RcsSettings.getInstance().getImReportsBatchWindow());
     }    
     
     /**
@@ -75,6 +116,7 @@ public class ImdnManager extends Thread {
     	if (logger.isActivated()) {
     		logger.info("Terminate the IMDN manager");
     	}
+    	terminated = true;
         buffer.close();
     }
     
@@ -94,27 +136,53 @@ public class ImdnManager extends Thread {
 		if (logger.isActivated()) {
 			logger.info("Start background processing");
 		}
-		DeliveryStatus delivery = null; 
-		while((delivery = (DeliveryStatus)buffer.getObject()) != null) {
+		while(!terminated) {
 			try {
-				// Send SIP MESSAGE
-				sendSipMessageDeliveryStatus(delivery, null); // TODO: add sip.instance
+				// Wait for the next delivery report or the end of the oldest batch window
+				DeliveryStatus delivery = null;
+				if (batches.isEmpty()) {
+					delivery = (DeliveryStatus)buffer.getObject();
+				} else {
+					long delay = batches.values().iterator().next().getDeadline() - System.currentTimeMillis();
+					if (delay > 0) {
+						delivery = (DeliveryStatus)buffer.getObject((int)delay);
+					} else
+					if (buffer.size() > 0) {
+						delivery = (DeliveryStatus)buffer.getObject();
+					}
+				}
+
+				// Add the delivery report to its batch
+				if (delivery != null) {
+					addToBatch(delivery);
+				}
 
-				// Update rich messaging history
-				RichMessagingHistory.getInstance().updateChatMessageDeliveryStatus(delivery.getMsgId(), delivery.getStatus(),delivery.getContact());
+				// Send the batches which are full or whose window is over
+				if (!terminated) {
+					sendBatches();
+				}
 			} catch(Exception e) {
 				if (logger.isActivated()) {
 					logger.error("Unexpected exception", e);
 				}
 			}
 		}
+
+		// Send the delivery reports not sent yet without waiting for the end of their window
+		try {
+			flushBatches();
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Unexpected exception", e);
+			}
+		}
 		if (logger.isActivated()) {
 			logger.info("End of background processing");
 		}
     }
        
 	/**
-	 * Send a message delivery status
+	 * Send a message delivery status via SIP MESSAGE
 	 * 
 	 * @param contact Contact
 	 * @param msgId Message ID
@@ -122,51 +190,230 @@ public class ImdnManager extends Thread {
 	 */
 	public void sendMessageDeliveryStatus(String contact, String msgId, String status) {
 		// Add request in the buffer for background processing
-		DeliveryStatus delivery = new DeliveryStatus(contact, msgId, status);
+		DeliveryStatus delivery = new DeliveryStatus(contact, msgId, status, null, null, true);
+		buffer.addObject(delivery);
+	}
+
+	/**
+	 * Send a message delivery status through a chat session. The status is sent
+	 * via MSRP from the calling thread if the session is established, else via
+	 * SIP MESSAGE for a 1-1 chat.
+	 *
+	 * @param session Chat session
+	 * @param contact Contact that requested the delivery status
+	 * @param msgId Message ID
+	 * @param status Delivery status
+	 */
+	public void sendMessageDeliveryStatus(ChatSession session, String contact, String msgId, String status) {
+		if (isSessionEstablished(session)) {
+			// Send via MSRP without waiting behind the SIP MESSAGE transactions
+			session.sendMsrpMessageDeliveryStatus(contact, msgId, status);
+			return;
+		}
+
+		// Add request in the buffer for background processing
+		DeliveryStatus delivery = new DeliveryStatus(contact, msgId, status, null, session, true);
 		buffer.addObject(delivery);
 	}
 
     /**
-     * Send a message delivery status immediately
+     * Send a message delivery status via SIP MESSAGE without updating the history
      * 
      * @param contact Contact
      * @param msgId Message ID
      * @param status Delivery status
+     * @param remoteInstanceId Remote SIP instance
      */
-    public void sendMessageDeliveryStatusImmediately(String contact, String msgId, String status, final String remoteInstanceId) {
-        // Execute request in background
-        final DeliveryStatus delivery = new DeliveryStatus(contact, msgId, status);
-        Thread thread = new Thread(){
-            public void run() {
-                // Send SIP MESSAGE
-                sendSipMessageDeliveryStatus(delivery, remoteInstanceId);
-            }
-        };
-        thread.start();
+    public void sendMessageDeliveryStatusImmediately(String contact, String msgId, String status, String remoteInstanceId) {
+		// Add request in the buffer for background processing
+        DeliveryStatus delivery = new DeliveryStatus(contact, msgId, status, remoteInstanceId, null, false);
+        buffer.addObject(delivery);
     }
 
 	/**
-	 * Send message delivery status via SIP MESSAGE
+	 * Add a delivery report to the batch of its contact or session
+	 *
+	 * @param delivery Delivery status
+	 */
+	private void addToBatch(DeliveryStatus delivery) {
+		String key;
+		if (delivery.getSession() != null) {
+			key = "session:" + delivery.getSession().getSessionID();
+		} else {
+			key = "contact:" + delivery.getContact() + ";" + delivery.getRemoteInstanceId();
+		}
+
+		Batch batch = batches.get(key);
+		if (batch == null) {
+			batch = new Batch(System.currentTimeMillis() + batchWindow);
+			batches.put(key, batch);
+		}
+		batch.add(delivery);
+	}
+
+	/**
+	 * Send the batches which are full or whose window is over
+	 */
+	private void sendBatches() {
+		long now = System.currentTimeMillis();
+		Iterator<Batch> iter = batches.values().iterator();
+		while(iter.hasNext()) {
+			Batch batch = iter.next();
+			if ((batch.size() >= MAX_BATCH_SIZE) || (batch.getDeadline() <= now)) {
+				iter.remove();
+				sendBatch(batch.getReports());
+			}
+		}
+	}
+
+	/**
+	 * Send all the pending batches, including the delivery reports left in the buffer
+	 */
+	private void flushBatches() {
+		while(buffer.size() > 0) {
+			addToBatch((DeliveryStatus)buffer.getObject());
+		}
+		if (logger.isActivated() && !batches.isEmpty()) {
+			logger.debug("Flush " + batches.size() + " batches of delivery reports");
+		}
+		Iterator<Batch> iter = batches.values().iterator();
+		while(iter.hasNext()) {
+			Batch batch = iter.next();
+			iter.remove();
+			sendBatch(batch.getReports());
+		}
+	}
+
+	/**
+	 * Send a batch of delivery reports
 	 *
-	 * @param deliveryStatus Delivery status
+	 * @param reports Delivery reports of a same contact or session
+	 */
+	private void sendBatch(List<DeliveryStatus> reports) {
+		DeliveryStatus first = reports.get(0);
+		ChatSession session = first.getSession();
+		if (session != null) {
+			if (isSessionEstablished(session)) {
+				// The session has been established since the reports were
+				// buffered: send via MSRP, back to back
+				if (logger.isActivated()) {
+					logger.debug("Send " + reports.size() + " delivery reports via MSRP");
+				}
+				for (DeliveryStatus delivery : reports) {
+					session.sendMsrpMessageDeliveryStatus(delivery.getContact(), delivery.getMsgId(), delivery.getStatus());
+				}
+				return;
+			}
+
+			if (session.isGroupChat()) {
+				if (logger.isActivated()) {
+					logger.warn("Group chat session not established: " + reports.size() + " delivery reports not sent");
+				}
+				return;
+			}
+		}
+
+		// Send via SIP MESSAGE, without the displayed reports if they are not activated
+		List<DeliveryStatus> sent = reports;
+		if (!RcsSettings.getInstance().isImDisplayedNotificationActivated()) {
+			sent = new ArrayList<DeliveryStatus>(reports.size());
+			for (DeliveryStatus delivery : reports) {
+				if (!ImdnDocument.DELIVERY_STATUS_DISPLAYED.equals(delivery.getStatus())) {
+					sent.add(delivery);
+				}
+			}
+		}
+		if (!sent.isEmpty()) {
+			sendSipMessageDeliveryStatus(sent, first.getContact(), first.getRemoteInstanceId());
+		}
+
+		// Update rich messaging history in a single batch, including the reports not sent
+		List<String> msgIds = new ArrayList<String>(reports.size());
+		List<String> statuses = new ArrayList<String>(reports.size());
+		for (DeliveryStatus delivery : reports) {
+			if (delivery.isHistoryUpdated()) {
+				msgIds.add(delivery.getMsgId());
+				statuses.add(delivery.getStatus());
+			}
+		}
+		if (!msgIds.isEmpty()) {
+			updateDeliveryStatus(msgIds.toArray(new String[msgIds.size()]),
+					statuses.toArray(new String[statuses.size()]));
+		}
+	}
+
+	/**
+	 * Update the delivery status of messages in the rich messaging history
+	 *
+	 * @param msgIds Message IDs
+	 * @param statuses Delivery status of each message
+	 */
+	void updateDeliveryStatus(String[] msgIds, String[] statuses) {
+		RichMessagingHistory.getInstance().updateChatMessagesDeliveryStatus(msgIds, statuses);
+	}
+
+	/**
+	 * Is a chat session established
+	 *
+	 * @param session Chat session
+	 * @return Boolean
+	 */
+	private static boolean isSessionEstablished(ChatSession session) {
+		return (session.getDialogPath() != null) &&
+				session.getDialogPath().isSessionEstablished() &&
+					!session.isSessionInterrupted();
+	}
+
+	/**
+	 * Send a batch of message delivery status via SIP MESSAGE
+	 *
+	 * @param reports Delivery reports
+	 * @param contact Contact
 	 * @param remoteInstanceId Remote SIP instance
 	 */
-	private void sendSipMessageDeliveryStatus(DeliveryStatus deliveryStatus, String remoteInstanceId) {
-		try {
-            if (!RcsSettings.getInstance().isImDisplayedNotificationActivated() && ImdnDocument.DELIVERY_STATUS_DISPLAYED.equals(deliveryStatus.getStatus())) {
-                return;
-            }
+	private void sendSipMessageDeliveryStatus(List<DeliveryStatus> reports, String contact, String remoteInstanceId) {
+		// Create CPIM/IDMN documents
+		String from = ChatUtils.ANOMYNOUS_URI;
+		String to = ChatUtils.ANOMYNOUS_URI;
+		List<String> cpims = new ArrayList<String>(reports.size());
+		for (DeliveryStatus delivery : reports) {
+			if (logger.isActivated()) {
+				logger.debug("Send delivery status " + delivery.getStatus() + " for message " + delivery.getMsgId());
+			}
+			String imdn = ChatUtils.buildDeliveryReport(delivery.getMsgId(), delivery.getStatus());
+			cpims.add(ChatUtils.buildCpimDeliveryReport(from, to, imdn));
+		}
+
+		if (cpims.size() == 1) {
+			sendSipMessage(contact, remoteInstanceId, cpims.get(0), null);
+			return;
+		}
 
+		// Send the whole batch in a multipart body
+		String multipart = ChatUtils.buildMultipartDeliveryReport(cpims, BOUNDARY_TAG);
+		int statusCode = sendSipMessage(contact, remoteInstanceId, multipart, BOUNDARY_TAG);
+		if (statusCode == UNSUPPORTED_MEDIA_TYPE) {
+			// The batch is not supported by the remote: send the reports one by one
 			if (logger.isActivated()) {
-       			logger.debug("Send delivery status " + deliveryStatus.getStatus() + " for message " + deliveryStatus.getMsgId());
-       		}
-
-	   		// Create CPIM/IDMN document
-			String from = ChatUtils.ANOMYNOUS_URI;
-			String to = ChatUtils.ANOMYNOUS_URI;
-			String imdn = ChatUtils.buildDeliveryReport(deliveryStatus.getMsgId(), deliveryStatus.getStatus());
-			String cpim = ChatUtils.buildCpimDeliveryReport(from, to, imdn);
-			
+				logger.info("Batch of delivery reports not supported, send them one by one");
+			}
+			for (String cpim : cpims) {
+				sendSipMessage(contact, remoteInstanceId, cpim, null);
+			}
+		}
+	}
+
+	/**
+	 * Send delivery status via SIP MESSAGE
+	 *
+	 * @param contact Contact
+	 * @param remoteInstanceId Remote SIP instance
+	 * @param content CPIM document or multipart of CPIM documents
+	 * @param boundary Boundary tag of a multipart content or null
+	 * @return Final response code or -1 if the request has failed
+	 */
+	int sendSipMessage(String contact, String remoteInstanceId, String content, String boundary) {
+		try {
 		    // Create authentication agent 
        		SessionAuthenticationAgent authenticationAgent = new SessionAuthenticationAgent(imsService.getImsModule());
        		
@@ -175,9 +422,9 @@ public class ImdnManager extends Thread {
         			imsService.getImsModule().getSipManager().getSipStack(),
         			imsService.getImsModule().getSipManager().getSipStack().generateCallId(),
     				1,
-    				deliveryStatus.getContact(),
+    				contact,
     				ImsModule.IMS_USER_PROFILE.getPublicUri(),
-    				deliveryStatus.getContact(),
+    				contact,
     				imsService.getImsModule().getSipManager().getSipStack().getServiceRoutePath());        	
             dialogPath.setRemoteSipInstance(remoteInstanceId);
 
@@ -185,8 +432,7 @@ public class ImdnManager extends Thread {
         	if (logger.isActivated()) {
         		logger.info("Send first MESSAGE");
         	}
-	        SipRequest msg = SipMessageFactory.createMessage(dialogPath,
-	        		FeatureTags.FEATURE_OMA_IM, CpimMessage.MIME_TYPE, cpim.getBytes());
+	        SipRequest msg = createSipMessage(dialogPath, content, boundary);
 	        
 	        // Send MESSAGE request
 	        SipTransactionContext ctx = imsService.getImsModule().getSipManager().sendSipMessageAndWait(msg);
@@ -208,29 +454,16 @@ public class ImdnManager extends Thread {
                 if (logger.isActivated()) {
                 	logger.info("Send second MESSAGE");
                 }
-    	        msg = SipMessageFactory.createMessage(dialogPath,
-    	        		FeatureTags.FEATURE_OMA_IM, CpimMessage.MIME_TYPE, cpim.getBytes());
+    	        msg = createSipMessage(dialogPath, content, boundary);
     	        
     	        // Set the Authorization header
     	        authenticationAgent.setProxyAuthorizationHeader(msg);
                 
                 // Send MESSAGE request
     	        ctx = imsService.getImsModule().getSipManager().sendSipMessageAndWait(msg);
+            }
 
-                // Analyze received message
-                if ((ctx.getStatusCode() == 200) || (ctx.getStatusCode() == 202)) {
-                    // 200 OK response
-                	if (logger.isActivated()) {
-                		logger.info("20x OK response received");
-                	}
-                } else {
-                    // Error
-                	if (logger.isActivated()) {
-                		logger.info("Delivery report has failed: " + ctx.getStatusCode()
-    	                    + " response received");
-                	}
-                }
-            } else
+            // Analyze received message
             if ((ctx.getStatusCode() == 200) || (ctx.getStatusCode() == 202)) {
 	            // 200 OK received
             	if (logger.isActivated()) {
@@ -243,13 +476,62 @@ public class ImdnManager extends Thread {
 	                    + " response received");
             	}
 	        }
+            return ctx.getStatusCode();
         } catch(Exception e) {
         	if (logger.isActivated()) {
         		logger.error("Delivery report has failed", e);
         	}
+        	return -1;
         }
 	}
 	
+	/**
+	 * Create a SIP MESSAGE carrying delivery status
+	 *
+	 * @param dialogPath Dialog path
+	 * @param content CPIM document or multipart of CPIM documents
+	 * @param boundary Boundary tag of a multipart content or null
+	 * @return SIP request
+	 * @throws Exception
+	 */
+	private SipRequest createSipMessage(SipDialogPath dialogPath, String content, String boundary) throws Exception {
+		if (boundary == null) {
+			return SipMessageFactory.createMessage(dialogPath,
+					FeatureTags.FEATURE_OMA_IM, CpimMessage.MIME_TYPE, content.getBytes());
+		} else {
+			return SipMessageFactory.createMultipartMessage(dialogPath,
+					FeatureTags.FEATURE_OMA_IM, content, boundary);
+		}
+	}
+
+	/**
+	 * Batch of delivery reports
+	 */
+	private static class Batch {
+		private long deadline;
+		private List<DeliveryStatus> reports = new ArrayList<DeliveryStatus>();
+
+		public Batch(long deadline) {
+			this.deadline = deadline;
+		}
+
+		public void add(DeliveryStatus delivery) {
+			reports.add(delivery);
+		}
+
+		public int size() {
+			return reports.size();
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		public List<DeliveryStatus> getReports() {
+			return reports;
+		}
+	}
+
 	/**
 	 * Delivery status
 	 */
@@ -257,11 +539,17 @@ public class ImdnManager extends Thread {
 		private String contact;
 		private String msgId;
 		private String status;
+		private String remoteInstanceId;
+		private ChatSession session;
+		private boolean historyUpdated;
 		
-		public DeliveryStatus(String contact, String msgId, String status) {
+		public DeliveryStatus(String contact, String msgId, String status, String remoteInstanceId, ChatSession session, boolean historyUpdated) {
 			this.contact = contact;
 			this.msgId = msgId;
 			this.status = status;
+			this.remoteInstanceId = remoteInstanceId;
+			this.session = session;
+			this.historyUpdated = historyUpdated;
 		}
 		
 		public String getContact() {
@@ -275,5 +563,17 @@ public class ImdnManager extends Thread {
 		public String getStatus() {
 			return status;
 		}
+
+		public String getRemoteInstanceId() {
+			return remoteInstanceId;
+		}
+
+		public ChatSession getSession() {
+			return session;
+		}
+
+		public boolean isHistoryUpdated() {
+			return historyUpdated;
+		}
 	}	
 }
@@ -199,9 +199,18 @@ public abstract class ImsFileSharingSession extends FileSharingSession {
         // Notify listeners
         if (!isSessionInterrupted() && !isSessionTerminatedByRemote()) {
             for(int j=0; j < getListeners().size(); j++) {
-                ((FileSharingSessionListener)getListeners().get(j)).handleTransferError(new FileSharingError(FileSharingError.MEDIA_TRANSFER_FAILED, error));
+                ((FileSharingSessionListener)getListeners().get(j)).handleTransferError(new FileSharingError(getTransferErrorCode(), error));
             }
         }
     }
 
+    /**
+     * Returns the error code notified when the data transfer fails
+     *
+     * @return Error code
+     */
+    protected int getTransferErrorCode() {
+        return FileSharingError.MEDIA_TRANSFER_FAILED;
+    }
+
 }
@@ -291,6 +291,13 @@ public class OriginatingFileSharingSession extends ImsFileSharingSession impleme
 	public void msrpDataReceived(String msgId, byte[] data, String mimeType) {
 		// Not used in originating side
 	}
+
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Not used here
+	}
     
 	/**
 	 * Data transfer in progress
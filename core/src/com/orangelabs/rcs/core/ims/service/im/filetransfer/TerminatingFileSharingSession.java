@@ -24,6 +24,7 @@ import java.util.Vector;
 import com.orangelabs.rcs.core.content.ContentManager;
 import com.orangelabs.rcs.core.ims.network.sip.SipMessageFactory;
 import com.orangelabs.rcs.core.ims.network.sip.SipUtils;
+import com.orangelabs.rcs.core.ims.protocol.msrp.FileDataSink;
 import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpConstants;
 import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpEventListener;
 import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpManager;
@@ -40,6 +41,7 @@ import com.orangelabs.rcs.core.ims.service.ImsServiceSession;
 import com.orangelabs.rcs.core.ims.service.SessionTimerManager;
 import com.orangelabs.rcs.core.ims.service.im.InstantMessagingService;
 import com.orangelabs.rcs.core.ims.service.im.chat.ChatUtils;
+import com.orangelabs.rcs.platform.file.FileFactory;
 import com.orangelabs.rcs.provider.settings.RcsSettings;
 import com.orangelabs.rcs.utils.NetworkRessourceManager;
 import com.orangelabs.rcs.utils.logger.Logger;
@@ -55,6 +57,11 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
 	 */
 	private MsrpManager msrpMgr = null;
 
+	/**
+	 * Data sink writing the received chunks to the file
+	 */
+	private FileDataSink dataSink = null;
+
 	/**
      * The logger
      */
@@ -222,6 +229,7 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
                 MsrpSession session = msrpMgr.createMsrpServerSession(remotePath, this);
                 // Do not use right now the mapping to do not increase memory and cpu consumption
                 session.setMapMsgIdFromTransationId(false);
+                session.setDataSink(getDataSink());
             	
     			// Open the connection
     			Thread thread = new Thread(){
@@ -273,6 +281,7 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
                 	// Changed by Deutsche Telekom
                     MsrpSession session = msrpMgr.createMsrpClientSession(remoteHost, remotePort, remotePath, this, fingerprint);
                     session.setMapMsgIdFromTransationId(false);
+                    session.setDataSink(getDataSink());
 
 					// Open the connection
 					Thread thread = new Thread() {
@@ -323,6 +332,32 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
     	}
 	}
 
+	/**
+	 * Returns the data sink writing the received chunks to the file
+	 * 
+	 * @return Data sink
+	 */
+	private synchronized FileDataSink getDataSink() {
+		if (dataSink == null) {
+			dataSink = new FileDataSink(getContent().getUrl(), getContent().getSize(),
+					RcsSettings.getInstance().isMsrpFileMapping());
+		}
+		return dataSink;
+	}
+
+	/**
+	 * Returns the error code notified when the data transfer fails
+	 * 
+	 * @return Error code
+	 */
+	protected synchronized int getTransferErrorCode() {
+		if ((dataSink != null) && dataSink.isWriteFailed()) {
+			// The received data could not be written in the file
+			return FileSharingError.MEDIA_SAVING_FAILED;
+		}
+		return super.getTransferErrorCode();
+	}
+
 	/**
 	 * Send an empty data chunk
 	 */
@@ -362,8 +397,14 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
 	
     	try {
         	// Close content with received data
-            getContent().writeData2File(data);
-            getContent().closeFile();
+            if (data != null) {
+                getContent().writeData2File(data);
+                getContent().closeFile();
+            } else {
+                // Data has been written by the data sink
+                getDataSink().close();
+                FileFactory.getFactory().updateMediaStorage(getContent().getUrl());
+            }
 
 	    	// Notify listeners
 	    	for(int j=0; j < getListeners().size(); j++) {
@@ -387,6 +428,13 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
 	    	}
 	   	}
 	}
+
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Not used here
+	}
     
 	/**
 	 * Data transfer in progress
@@ -395,7 +443,14 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
 	 * @param totalSize Total size in bytes
 	 */
 	public void msrpTransferProgress(long currentSize, long totalSize) {
-        // Not used
+		if (isSessionInterrupted() || isInterrupted()) {
+			return;
+		}
+
+		// Notify listeners
+		for (int j = 0; j < getListeners().size(); j++) {
+			((FileSharingSessionListener) getListeners().get(j)).handleTransferProgress(currentSize, totalSize);
+		}
 	}
 
     /**
@@ -488,7 +543,11 @@ public class TerminatingFileSharingSession extends ImsFileSharingSession impleme
             logger.debug("Delete incomplete received file");
         }
         try {
-            getContent().deleteFile();
+            synchronized(this) {
+                if (dataSink != null) {
+                    dataSink.delete();
+                }
+            }
         } catch (IOException e) {
             if (logger.isActivated()) {
                 logger.error("Can't delete received file", e);
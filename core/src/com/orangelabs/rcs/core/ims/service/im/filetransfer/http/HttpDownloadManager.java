@@ -5,6 +5,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.apache.http.HttpEntity;
@@ -26,6 +27,11 @@ public class HttpDownloadManager extends HttpTransferManager {
 	 */
 	private final static int RETRY_MAX = 3;
 
+	/**
+	 * Minimum size of a file downloaded by parallel byte ranges
+	 */
+	private final static long RANGE_DOWNLOAD_MIN_SIZE = 1024 * 1024;
+
 	/**
 	 * File content to download
 	 */
@@ -127,6 +133,10 @@ public class HttpDownloadManager extends HttpTransferManager {
 				if (streamForFile == null)
 					return false;
 			}
+			if (isRangeDownloadEnabled()) {
+				return downloadRanges();
+			}
+
 			// Send GET request
 			HttpGet request = new HttpGet(content.getUrl());
             request.addHeader("User-Agent", SipUtils.userAgentString());
@@ -162,6 +172,54 @@ public class HttpDownloadManager extends HttpTransferManager {
 		}
 	}
 
+	/**
+	 * Check if the file may be downloaded by parallel byte ranges: the file
+	 * must be large enough and not already partially downloaded in a single
+	 * stream
+	 * 
+	 * @return Boolean
+	 */
+	private boolean isRangeDownloadEnabled() {
+		return (content.getSize() >= RANGE_DOWNLOAD_MIN_SIZE)
+				&& ((file.length() == 0) || HttpRangeDownload.hasState(file));
+	}
+
+	/**
+	 * Download the file by parallel byte ranges, or in a single stream if the
+	 * server does not support the byte ranges
+	 * 
+	 * @return Returns true if successful
+	 * @throws IOException
+	 */
+	private boolean downloadRanges() throws IOException {
+		HttpRangeDownload rangeDownload = new HttpRangeDownload(this, content.getUrl(), file, content.getSize());
+		int result = rangeDownload.download();
+		if (result == HttpRangeDownload.RANGE_NOT_SUPPORTED) {
+			// Read the whole file from the response
+			HttpRangeDownload.deleteState(file);
+			streamForFile.close();
+			streamForFile = new BufferedOutputStream(new FileOutputStream(file, false));
+			calclength = 0;
+			return saveFile(rangeDownload.getFullResponse());
+		}
+
+		streamForFile.close();
+		streamForFile = null;
+		if (result == HttpRangeDownload.DOWNLOADED) {
+			return true;
+		}
+		if (isCancelled()) {
+			file.delete();
+		} else
+		if (!isPaused()) {
+			if (logger.isActivated()) {
+				logger.error("Range download failed. Set in paused");
+			}
+			pauseTransfer();
+		}
+		return false;
+	}
+
 	/**
 	 * Get the file and save it
 	 * 
@@ -195,7 +253,17 @@ public class HttpDownloadManager extends HttpTransferManager {
                 }
                 return false;
         }
+        return saveFile(response);
+	}
 
+	/**
+	 * Save the file from a response
+	 * 
+	 * @param response
+	 *            HTTP response
+	 * @return Returns true if successful
+	 */
+	private boolean saveFile(HttpResponse response) {
         try {
             // Read content
 			byte[] buffer = new byte[CHUNK_MAX_SIZE];
@@ -338,6 +406,12 @@ public class HttpDownloadManager extends HttpTransferManager {
 		}
 		resetParamForResume();
 		try {
+			if (HttpRangeDownload.hasState(file)) {
+				// Resume the segments which have not been completed
+				return downloadRanges();
+			}
+
+
 			if (logger.isActivated()) {
 				logger.debug("Resume Download file " + content.getUrl() + " from byte " + file.length());
 			}
@@ -0,0 +1,763 @@
+package com.orangelabs.rcs.core.ims.service.im.filetransfer.http;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+import com.orangelabs.rcs.core.ims.network.sip.SipUtils;
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * Parallel download of a file by byte ranges. The file is split into segments
+ * which are downloaded over several connections and written at their offset
+ * in the file. The progress of each segment is saved in a state file next to
+ * the downloaded file, so that the download may be resumed whatever the
+ * segments already completed. The number of connections is increased as long
+ * as the throughput increases.
+ *
+ * @author jexa7410
+ */
+public class HttpRangeDownload {
+	/**
+	 * The file has been downloaded
+	 */
+	public final static int DOWNLOADED = 0;
+
+	/**
+	 * The download has failed, been paused or been cancelled
+	 */
+	public final static int FAILED = 1;
+
+	/**
+	 * The server does not support the byte ranges
+	 */
+	public final static int RANGE_NOT_SUPPORTED = 2;
+
+	/**
+	 * Size of a segment
+	 */
+	private final static long SEGMENT_SIZE = 512 * 1024;
+
+	/**
+	 * Number of connections at the start of the download
+	 */
+	private final static int INITIAL_CONNECTIONS = 2;
+
+	/**
+	 * Maximum number of connections
+	 */
+	private final static int MAX_CONNECTIONS = 4;
+
+	/**
+	 * Period of the throughput measure and of the state saving (in milliseconds)
+	 */
+	private final static long ADAPT_PERIOD = 2000;
+
+	/**
+	 * Throughput increase required to add a connection (in percent)
+	 */
+	private final static int THROUGHPUT_GAIN = 10;
+
+	/**
+	 * Maximum number of failures for a segment
+	 */
+	private final static int RETRY_MAX = 3;
+
+	/**
+	 * Size of the read buffer of a connection
+	 */
+	private final static int BUFFER_SIZE = 32 * 1024;
+
+	/**
+	 * Suffix of the state file
+	 */
+	private final static String STATE_FILE_SUFFIX = ".segments";
+
+	/**
+	 * Download manager
+	 */
+	private HttpDownloadManager manager;
+
+	/**
+	 * URL of the file
+	 */
+	private String url;
+
+	/**
+	 * File to be written
+	 */
+	private File file;
+
+	/**
+	 * State file
+	 */
+	private File stateFile;
+
+	/**
+	 * Size of the file
+	 */
+	private long size;
+
+	/**
+	 * Segments of the file
+	 */
+	private Vector<Segment> segments = new Vector<Segment>();
+
+	/**
+	 * Channel of the file
+	 */
+	private FileChannel channel = null;
+
+	/**
+	 * Number of received bytes
+	 */
+	private long receivedSize = 0;
+
+	/**
+	 * Running connections
+	 */
+	private Vector<SegmentConnection> connections = new Vector<SegmentConnection>();
+
+	/**
+	 * Failure flag
+	 */
+	private boolean failed = false;
+
+	/**
+	 * Response of the server when it does not support the byte ranges
+	 */
+	private HttpResponse fullResponse = null;
+
+	/**
+	 * The logger
+	 */
+	private static final Logger logger = Logger.getLogger(HttpRangeDownload.class.getSimpleName());
+
+	/**
+	 * Constructor
+	 *
+	 * @param manager
+	 *            Download manager
+	 * @param url
+	 *            URL of the file
+	 * @param file
+	 *            File to be written
+	 * @param size
+	 *            Size of the file
+	 */
+	public HttpRangeDownload(HttpDownloadManager manager, String url, File file, long size) {
+		this.manager = manager;
+		this.url = url;
+		this.file = file;
+		this.stateFile = getStateFile(file);
+		this.size = size;
+	}
+
+	/**
+	 * Returns the state file of a downloaded file
+	 *
+	 * @param file
+	 *            Downloaded file
+	 * @return State file
+	 */
+	private static File getStateFile(File file) {
+		return new File(file.getPath() + STATE_FILE_SUFFIX);
+	}
+
+	/**
+	 * Check if a range download of a file has been started
+	 *
+	 * @param file
+	 *            Downloaded file
+	 * @return Boolean
+	 */
+	public static boolean hasState(File file) {
+		return getStateFile(file).exists();
+	}
+
+	/**
+	 * Delete the state of the range download of a file
+	 *
+	 * @param file
+	 *            Downloaded file
+	 */
+	public static void deleteState(File file) {
+		getStateFile(file).delete();
+	}
+
+	/**
+	 * Returns the response of the server when it does not support the byte
+	 * ranges, so that the file may be read from it
+	 *
+	 * @return HTTP response
+	 */
+	public HttpResponse getFullResponse() {
+		return fullResponse;
+	}
+
+	/**
+	 * Download the file
+	 *
+	 * @return Result: DOWNLOADED, FAILED or RANGE_NOT_SUPPORTED
+	 */
+	public int download() {
+		RandomAccessFile randomAccessFile = null;
+		try {
+			if (!loadState()) {
+				createSegments();
+			}
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+			saveState();
+			if (logger.isActivated()) {
+				logger.debug("Download " + url + " by ranges from byte " + receivedSize + " of " + size);
+			}
+
+			Segment segment = nextSegment();
+			if (segment == null) {
+				// All the segments have already been downloaded
+				deleteState(file);
+				return DOWNLOADED;
+			}
+
+			// The first request checks that the server supports the byte ranges
+			HttpGet request = createRequest(segment);
+			HttpResponse response = manager.getHttpClient().execute(request);
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode == 200) {
+				if (logger.isActivated()) {
+					logger.debug("Byte ranges not supported by the server");
+				}
+				fullResponse = response;
+				return RANGE_NOT_SUPPORTED;
+			}
+			if (!isExpectedResponse(response, segment)) {
+				if (logger.isActivated()) {
+					logger.debug("Unexpected response " + statusCode + " to a range request");
+				}
+				request.abort();
+				return FAILED;
+			}
+			startConnection(segment, request, response);
+			for (int i = 1; i < INITIAL_CONNECTIONS; i++) {
+				startConnection(null, null, null);
+			}
+
+			// Measure the throughput and save the state periodically
+			long lastReceivedSize = receivedSize;
+			long lastTime = System.currentTimeMillis();
+			long lastThroughput = 0;
+			while (waitConnections(ADAPT_PERIOD)) {
+				long now = System.currentTimeMillis();
+				if (now - lastTime < ADAPT_PERIOD) {
+					continue;
+				}
+				long throughput;
+				synchronized(this) {
+					throughput = (receivedSize - lastReceivedSize) * 1000 / (now - lastTime);
+					lastReceivedSize = receivedSize;
+				}
+				lastTime = now;
+
+				// The lock is not held while the data is forced on the storage
+				saveState();
+
+				// Add a connection while it increases the throughput
+				synchronized(this) {
+					if ((throughput * 100 > lastThroughput * (100 + THROUGHPUT_GAIN))
+							&& (connections.size() < MAX_CONNECTIONS) && !isStopped() && hasPendingSegment()) {
+						if (logger.isActivated()) {
+							logger.debug("Throughput " + throughput + " bytes/s with " + connections.size()
+									+ " connections: add a connection");
+						}
+						startConnection(null, null, null);
+					}
+				}
+				lastThroughput = throughput;
+			}
+
+			if (manager.isCancelled()) {
+				deleteState(file);
+				return FAILED;
+			}
+			if (isComplete()) {
+				channel.force(false);
+				deleteState(file);
+				return DOWNLOADED;
+			}
+			saveState();
+			return FAILED;
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Range download exception", e);
+			}
+			try {
+				// The state is saved once no more data is written in the file
+				stopConnections();
+				if (channel != null) {
+					saveState();
+				}
+			} catch(Exception e2) {
+				// Nothing to do
+			}
+			return FAILED;
+		} finally {
+			if (randomAccessFile != null) {
+				try {
+					randomAccessFile.close();
+				} catch(IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Split the file into segments
+	 */
+	private void createSegments() {
+		segments.clear();
+		receivedSize = 0;
+		for (long start = 0; start < size; start += SEGMENT_SIZE) {
+			segments.addElement(new Segment(start, Math.min(start + SEGMENT_SIZE, size) - 1, start));
+		}
+	}
+
+	/**
+	 * Load the segments from the state file
+	 *
+	 * @return Returns true if the state has been loaded
+	 */
+	private boolean loadState() {
+		if (!stateFile.exists()) {
+			return false;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(stateFile));
+			if (Long.parseLong(reader.readLine()) != size) {
+				return false;
+			}
+			Vector<Segment> loadedSegments = new Vector<Segment>();
+			long loadedSize = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] values = line.split(" ");
+				Segment segment = new Segment(Long.parseLong(values[0]), Long.parseLong(values[1]),
+						Long.parseLong(values[2]));
+				loadedSegments.addElement(segment);
+				loadedSize += segment.position - segment.start;
+			}
+			segments = loadedSegments;
+			receivedSize = loadedSize;
+			return true;
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Can't read the state file " + stateFile, e);
+			}
+			return false;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch(IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+	}
+
+	/**
+	 * Save the segments in the state file. The positions of the segments are
+	 * read before the received data is forced on the storage, so that the
+	 * state never refers to lost data. The lock is not held during the force.
+	 *
+	 * @throws IOException
+	 */
+	private void saveState() throws IOException {
+		StringBuilder state = new StringBuilder(32 * (segments.size() + 1));
+		state.append(size).append('\n');
+		synchronized(this) {
+			for (int i = 0; i < segments.size(); i++) {
+				Segment segment = segments.elementAt(i);
+				state.append(segment.start).append(' ').append(segment.end).append(' ')
+						.append(segment.position).append('\n');
+			}
+		}
+
+		channel.force(false);
+
+		File tmpFile = new File(stateFile.getPath() + ".tmp");
+		FileWriter writer = new FileWriter(tmpFile);
+		try {
+			writer.write(state.toString());
+		} finally {
+			writer.close();
+		}
+		if (!tmpFile.renameTo(stateFile)) {
+			throw new IOException("Can't write the state file " + stateFile);
+		}
+	}
+
+	/**
+	 * Returns the next segment to be downloaded
+	 *
+	 * @return Segment or null if there is no more segment to be downloaded
+	 */
+	private synchronized Segment nextSegment() {
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.elementAt(i);
+			if (!segment.assigned && !segment.isComplete()) {
+				segment.assigned = true;
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Check if a segment remains to be assigned to a connection
+	 *
+	 * @return Boolean
+	 */
+	private synchronized boolean hasPendingSegment() {
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.elementAt(i);
+			if (!segment.assigned && !segment.isComplete()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if all the segments have been downloaded
+	 *
+	 * @return Boolean
+	 */
+	private synchronized boolean isComplete() {
+		for (int i = 0; i < segments.size(); i++) {
+			if (!segments.elementAt(i).isComplete()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if the download has to be stopped
+	 *
+	 * @return Boolean
+	 */
+	private boolean isStopped() {
+		return failed || manager.isCancelled() || manager.isPaused();
+	}
+
+	/**
+	 * Create the request of the remaining part of a segment
+	 *
+	 * @param segment
+	 *            Segment
+	 * @return HTTP request
+	 */
+	private HttpGet createRequest(Segment segment) {
+		HttpGet request = new HttpGet(url);
+		request.addHeader("User-Agent", SipUtils.userAgentString());
+		request.addHeader("Range", "bytes=" + segment.position + "-" + segment.end);
+		if (HttpTransferManager.HTTP_TRACE_ENABLED) {
+			String trace = ">>> Send HTTP request:";
+			trace += "\n" + request.getMethod() + " " + request.getRequestLine().getUri();
+			trace += "\nRange: bytes=" + segment.position + "-" + segment.end;
+			System.out.println(trace);
+		}
+		return request;
+	}
+
+	/**
+	 * Check that a response contains the requested part of a segment
+	 *
+	 * @param response
+	 *            HTTP response
+	 * @param segment
+	 *            Segment
+	 * @return Boolean
+	 */
+	private boolean isExpectedResponse(HttpResponse response, Segment segment) {
+		if (response.getStatusLine().getStatusCode() != 206) {
+			return false;
+		}
+		Header contentRange = response.getFirstHeader("Content-Range");
+		return (contentRange != null) && contentRange.getValue().trim().startsWith("bytes " + segment.position + "-");
+	}
+
+	/**
+	 * Start a connection
+	 *
+	 * @param segment
+	 *            First segment or null to take the next pending one
+	 * @param request
+	 *            Request already sent for the segment or null
+	 * @param response
+	 *            Response already received for the segment or null
+	 */
+	private synchronized void startConnection(Segment segment, HttpGet request, HttpResponse response) {
+		SegmentConnection connection = new SegmentConnection(segment, request, response);
+		connections.addElement(connection);
+		connection.start();
+	}
+
+	/**
+	 * Wait for the termination of the connections
+	 *
+	 * @param timeout
+	 *            Maximum time to wait (in milliseconds)
+	 * @return Returns true if connections are still running
+	 * @throws InterruptedException
+	 */
+	private synchronized boolean waitConnections(long timeout) throws InterruptedException {
+		if (connections.size() > 0) {
+			wait(timeout);
+		}
+		return connections.size() > 0;
+	}
+
+	/**
+	 * Stop the connections and wait for their termination, so that no more
+	 * data is written in the file
+	 *
+	 * @throws InterruptedException
+	 */
+	private synchronized void stopConnections() throws InterruptedException {
+		failed = true;
+		for (int i = 0; i < connections.size(); i++) {
+			connections.elementAt(i).abort();
+		}
+		while (connections.size() > 0) {
+			wait();
+		}
+	}
+
+	/**
+	 * Data of a segment has been received
+	 *
+	 * @param segment
+	 *            Segment
+	 * @param length
+	 *            Length of the data
+	 */
+	private synchronized void segmentProgress(Segment segment, int length) {
+		segment.position += length;
+		receivedSize += length;
+		manager.getListener().httpTransferProgress(receivedSize, size);
+	}
+
+	/**
+	 * A segment has failed
+	 *
+	 * @param segment
+	 *            Segment
+	 */
+	private synchronized void segmentFailed(Segment segment) {
+		segment.assigned = false;
+		segment.failures++;
+		if (segment.failures >= RETRY_MAX) {
+			failed = true;
+		}
+	}
+
+	/**
+	 * A connection is terminated
+	 *
+	 * @param connection
+	 *            Connection
+	 */
+	private synchronized void connectionTerminated(SegmentConnection connection) {
+		connections.removeElement(connection);
+		notifyAll();
+	}
+
+	/**
+	 * Segment of the file
+	 */
+	private static class Segment {
+		/**
+		 * Offset of the first byte
+		 */
+		private long start;
+
+		/**
+		 * Offset of the last byte
+		 */
+		private long end;
+
+		/**
+		 * Offset of the next byte to be received
+		 */
+		private long position;
+
+		/**
+		 * The segment is being downloaded
+		 */
+		private boolean assigned = false;
+
+		/**
+		 * Number of failures
+		 */
+		private int failures = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param start
+		 *            Offset of the first byte
+		 * @param end
+		 *            Offset of the last byte
+		 * @param position
+		 *            Offset of the next byte to be received
+		 */
+		private Segment(long start, long end, long position) {
+			this.start = start;
+			this.end = end;
+			this.position = position;
+		}
+
+		/**
+		 * Check if the segment has been downloaded
+		 *
+		 * @return Boolean
+		 */
+		private boolean isComplete() {
+			return position > end;
+		}
+	}
+
+	/**
+	 * Connection downloading segments one after the other
+	 */
+	private class SegmentConnection extends Thread {
+		/**
+		 * Current segment
+		 */
+		private Segment segment;
+
+		/**
+		 * Current request
+		 */
+		private volatile HttpGet request;
+
+		/**
+		 * Current response
+		 */
+		private HttpResponse response;
+
+		/**
+		 * Constructor
+		 *
+		 * @param segment
+		 *            First segment or null
+		 * @param request
+		 *            Request already sent for the segment or null
+		 * @param response
+		 *            Response already received for the segment or null
+		 */
+		private SegmentConnection(Segment segment, HttpGet request, HttpResponse response) {
+			this.segment = segment;
+			this.request = request;
+			this.response = response;
+		}
+
+		/**
+		 * Background processing
+		 */
+		public void run() {
+			try {
+				if (segment == null) {
+					segment = nextSegment();
+				}
+				while ((segment != null) && !isStopped()) {
+					try {
+						if (response == null) {
+							request = createRequest(segment);
+							response = manager.getHttpClient().execute(request);
+							if (!isExpectedResponse(response, segment)) {
+								throw new IOException("Unexpected response " + response.getStatusLine());
+							}
+						}
+						readSegment();
+					} catch(Exception e) {
+						if (logger.isActivated()) {
+							logger.error("Segment download exception", e);
+						}
+						if (request != null) {
+							request.abort();
+						}
+						segmentFailed(segment);
+					}
+					response = null;
+					segment = nextSegment();
+				}
+			} finally {
+				if (segment != null) {
+					synchronized(HttpRangeDownload.this) {
+						segment.assigned = false;
+					}
+				}
+				connectionTerminated(this);
+			}
+		}
+
+		/**
+		 * Abort the current request, the blocked read being interrupted
+		 */
+		private void abort() {
+			HttpGet current = request;
+			if (current != null) {
+				current.abort();
+			}
+		}
+
+		/**
+		 * Read the current segment from the response and write it in the file
+		 *
+		 * @throws IOException
+		 */
+		private void readSegment() throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			InputStream input = response.getEntity().getContent();
+			try {
+				while (!segment.isComplete()) {
+					if (isStopped()) {
+						request.abort();
+						return;
+					}
+					int num = input.read(buffer, 0, (int)Math.min(buffer.length, segment.end - segment.position + 1));
+					if (num == -1) {
+						throw new IOException("Segment truncated at byte " + segment.position);
+					}
+					ByteBuffer data = ByteBuffer.wrap(buffer, 0, num);
+					while (data.hasRemaining()) {
+						channel.write(data, segment.position + data.position());
+					}
+					segmentProgress(segment, num);
+				}
+			} finally {
+				try {
+					input.close();
+				} catch(IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+	}
+}
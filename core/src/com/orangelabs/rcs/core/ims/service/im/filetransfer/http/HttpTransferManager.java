@@ -18,7 +18,9 @@
 
 package com.orangelabs.rcs.core.ims.service.im.filetransfer.http;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 
@@ -39,7 +41,7 @@ import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.SingleClientConnManager;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
@@ -53,6 +55,7 @@ import android.net.Proxy;
 
 import com.orangelabs.rcs.platform.AndroidFactory;
 import com.orangelabs.rcs.provider.settings.RcsSettings;
+import com.orangelabs.rcs.utils.CloseableUtils;
 import com.orangelabs.rcs.utils.logger.Logger;
 
 /**
@@ -187,7 +190,7 @@ public abstract class HttpTransferManager {
                 }
             }
             HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-            ClientConnectionManager cm = new SingleClientConnManager(params, schemeRegistry);
+            ClientConnectionManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
             httpClient = new DefaultHttpClient(cm, params);
             
             
@@ -321,4 +324,40 @@ public abstract class HttpTransferManager {
 	public boolean isPaused() {
 		return this.isPaused;
 	}
+
+	/**
+	 * Read the content of a response and close its stream. The content is
+	 * read in a single array when its length is known.
+	 * 
+	 * @param is Input stream of the content
+	 * @param contentLength Length of the content or -1 if unknown
+	 * @return Content
+	 * @throws IOException
+	 */
+	protected static byte[] readContent(InputStream is, long contentLength) throws IOException {
+		try {
+			if ((contentLength >= 0) && (contentLength <= Integer.MAX_VALUE)) {
+				byte[] content = new byte[(int)contentLength];
+				int pos = 0;
+				while (pos < content.length) {
+					int nb = is.read(content, pos, content.length - pos);
+					if (nb == -1) {
+						throw new IOException("Unexpected end of content");
+					}
+					pos += nb;
+				}
+				return content;
+			}
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[CHUNK_MAX_SIZE];
+			int nb;
+			while ((nb = is.read(buffer)) != -1) {
+				content.write(buffer, 0, nb);
+			}
+			return content.toByteArray();
+		} finally {
+			CloseableUtils.close(is);
+		}
+	}
 }
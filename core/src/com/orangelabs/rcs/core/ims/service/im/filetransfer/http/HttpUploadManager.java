@@ -1,19 +1,19 @@
 package com.orangelabs.rcs.core.ims.service.im.filetransfer.http;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -34,7 +34,6 @@ import com.orangelabs.rcs.core.content.MmContent;
 import com.orangelabs.rcs.core.ims.network.sip.SipUtils;
 import com.orangelabs.rcs.core.ims.protocol.http.HttpAuthenticationAgent;
 import com.orangelabs.rcs.core.ims.service.im.chat.ChatUtils;
-import com.orangelabs.rcs.utils.CloseableUtils;
 import com.orangelabs.rcs.utils.logger.Logger;
 
 /**
@@ -61,6 +60,11 @@ public class HttpUploadManager extends HttpTransferManager {
 	 */
 	private final static String lineEnd = "\r\n";
 
+	/**
+	 * Size of the buffer used to send the file content
+	 */
+	private final static int UPLOAD_BUFFER_SIZE = 64 * 1024;
+
 	/**
 	 * Maximum value of retry
 	 */
@@ -115,6 +119,12 @@ public class HttpUploadManager extends HttpTransferManager {
 	 * Http Authentication Agent
 	 */
 	private HttpAuthenticationAgent auth;
+
+	/**
+	 * Buffer used to send the file content, reused by the successive requests
+	 */
+	private byte[] uploadBuffer = null;
+
 	/**
 	 * The logger
 	 */
@@ -247,21 +257,11 @@ public class HttpUploadManager extends HttpTransferManager {
 	 * @throws Exception
 	 */
 	private byte[] sendMultipartPost(HttpResponse resp) throws CoreException, IOException, Exception {
-		DataOutputStream outputStream = null;
+		OutputStream outputStream = null;
 		String filepath = content.getUrl();
 
 		// Get the connection
-		HttpsURLConnection connection = null;
-		HttpsURLConnection.setDefaultHostnameVerifier(new NullHostNameVerifier());
-		connection = (HttpsURLConnection) url.openConnection();
-
-		try {
-			connection.setSSLSocketFactory(FileTransSSLFactory.getFileTransferSSLContext().getSocketFactory());
-		} catch (Exception e) {
-			if (logger.isActivated()) {
-				logger.error("Failed to initiate SSL for connection:", e);
-			}
-		}
+		HttpURLConnection connection = openConnection(url);
 
 		connection.setDoInput(true);
 		connection.setDoOutput(true);
@@ -308,22 +308,27 @@ public class HttpUploadManager extends HttpTransferManager {
 			System.out.println(trace);
 		}
 
-		// Create the DataOutputStream and start writing its body
-		outputStream = new DataOutputStream(connection.getOutputStream());
-		outputStream.writeBytes(body);
+		// Build the parts around the file content, the body being streamed with
+		// its length set up front instead of being buffered by the connection
+		File file = new File(filepath);
+		long fileLength = file.length();
+		byte[] multipartHeader = generateMultipartHeader(body, fileLength);
+		byte[] multipartTrailer = (lineEnd + twoHyphens + BOUNDARY_TAG + twoHyphens).getBytes("UTF-8");
+		setStreamingMode(connection, multipartHeader.length + fileLength + multipartTrailer.length);
+
+		// Start writing the body
+		outputStream = connection.getOutputStream();
+		outputStream.write(multipartHeader);
 
-		// Add thumbnail
-		if (thumbnail != null) {
-			writeThumbnailMultipart(outputStream, filepath);
-		}
 		// From this point, resuming is possible
 		((HttpUploadTransferEventListener)getListener()).uploadStarted();
 		try {
 			// Add File
-			writeFileMultipart(outputStream, filepath);
+			writeFileData(outputStream, file, 0, fileLength);
 			if (!isCancelled()) {
 				// if the upload is cancelled, we don't send the last boundary to get bad request
-				outputStream.writeBytes(twoHyphens + BOUNDARY_TAG + twoHyphens); 
+				outputStream.write(multipartTrailer);
+				outputStream.flush();
 				// Check response status code
 				int responseCode = connection.getResponseCode();
 				if (logger.isActivated()) {
@@ -341,9 +346,7 @@ public class HttpUploadManager extends HttpTransferManager {
 				case 200:
 					// 200 OK
 					success = true;
-					InputStream inputStream = connection.getInputStream();
-					result = convertStreamToString(inputStream);
-					inputStream.close();
+					result = readContent(connection.getInputStream(), connection.getContentLength());
 					if (HTTP_TRACE_ENABLED) {
 						System.out.println("\n " + new String(result));
 					}
@@ -397,19 +400,13 @@ public class HttpUploadManager extends HttpTransferManager {
 					if (logger.isActivated()) {
 						logger.debug("File transfer paused by user");
 					}
-					// Sent data are bufferized. Must wait for response to enable sending to server.
-					int responseCode = connection.getResponseCode();
-					if (logger.isActivated()) {
-						logger.debug("Second POST response " + responseCode + " " + connection.getResponseMessage());
-					}
 				} else {
 					if (logger.isActivated()) {
 						logger.debug("File transfer cancelled by user");
 					}
 				}
-				// Close streams
-				outputStream.flush();
-				outputStream.close();
+				// The data already written has been sent: close the connection
+				// without completing the body
 				connection.disconnect();
 				return null;
 			}
@@ -423,27 +420,45 @@ public class HttpUploadManager extends HttpTransferManager {
 	}
 
 	/**
-	 * Write the thumbnail multipart
+	 * Generate the multipart header, i.e. all the parts preceding the file
+	 * content
 	 * 
-	 * @param outputStream
-	 *            DataOutputStream to write to
-	 * @param filepath
-	 *            File path
-	 */
-	private void writeThumbnailMultipart(DataOutputStream outputStream, String filepath) throws IOException {
-		if (thumbnail.length > 0) {
-			String[] splittedPath = content.getUrl().split("/");
-			String filename = splittedPath[splittedPath.length - 1];
-
-			outputStream.writeBytes(twoHyphens + BOUNDARY_TAG + lineEnd);
-			outputStream.writeBytes("Content-Disposition: form-data; name=\"Thumbnail\"; filename=\"thumb_" + filename + "\""
-					+ lineEnd);
-			outputStream.writeBytes("Content-Type: image/jpeg" + lineEnd);
-			outputStream.writeBytes("Content-Length: " + thumbnail.length);
-			outputStream.writeBytes(lineEnd + lineEnd);
-			outputStream.write(thumbnail);
-			outputStream.writeBytes(lineEnd);
+	 * @param tidPart
+	 *            TID multipart or empty string
+	 * @param fileLength
+	 *            Length of the file
+	 * @return Bytes of the header
+	 * @throws IOException
+	 */
+	private byte[] generateMultipartHeader(String tidPart, long fileLength) throws IOException {
+		String[] splittedPath = content.getUrl().split("/");
+		String filename = splittedPath[splittedPath.length - 1];
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream(512 + ((thumbnail != null) ? thumbnail.length : 0));
+		header.write(tidPart.getBytes("UTF-8"));
+
+		// Add thumbnail
+		if ((thumbnail != null) && (thumbnail.length > 0)) {
+			StringBuilder thumbnailPartHeader = new StringBuilder(256);
+			thumbnailPartHeader.append(twoHyphens).append(BOUNDARY_TAG).append(lineEnd);
+			thumbnailPartHeader.append("Content-Disposition: form-data; name=\"Thumbnail\"; filename=\"thumb_")
+					.append(filename).append("\"").append(lineEnd);
+			thumbnailPartHeader.append("Content-Type: image/jpeg").append(lineEnd);
+			thumbnailPartHeader.append("Content-Length: ").append(thumbnail.length).append(lineEnd).append(lineEnd);
+			header.write(thumbnailPartHeader.toString().getBytes("UTF-8"));
+			header.write(thumbnail);
+			header.write(lineEnd.getBytes("UTF-8"));
 		}
+
+		// Add the file part header
+		StringBuilder filePartHeader = new StringBuilder(256);
+		filePartHeader.append(twoHyphens).append(BOUNDARY_TAG).append(lineEnd);
+		filePartHeader.append("Content-Disposition: form-data; name=\"File\"; filename=\"")
+				.append(URLEncoder.encode(filename, "UTF-8")).append("\"").append(lineEnd);
+		filePartHeader.append("Content-Type: ").append(content.getEncoding()).append(lineEnd);
+		filePartHeader.append("Content-Length: ").append(fileLength).append(lineEnd).append(lineEnd);
+		header.write(filePartHeader.toString().getBytes("UTF-8"));
+		return header.toByteArray();
 	}
 
 	/**
@@ -461,74 +476,87 @@ public class HttpUploadManager extends HttpTransferManager {
 	}
 
 	/**
-	 * Write the file multipart
+	 * Open a connection to the server, the SSL context of the file transfer
+	 * being used over HTTPS
 	 * 
-	 * @param outputStream
-	 *            DataOutputStream to write to
-	 * @param filepath
-	 *            File path
+	 * @param url
+	 *            URL of the request
+	 * @return Connection
 	 * @throws IOException
 	 */
-	private void writeFileMultipart(DataOutputStream outputStream, String filepath)
-			throws IOException {
-		// Check file path
-		String[] splittedPath = content.getUrl().split("/");
-		String filename = splittedPath[splittedPath.length - 1];
-
-		// Build and write headers
-		String filePartHeader = twoHyphens + BOUNDARY_TAG + lineEnd;
-		filePartHeader += "Content-Disposition: form-data; name=\"File\"; filename=\"" + URLEncoder.encode(filename, "UTF-8")
-				+ "\"" + lineEnd;
-		filePartHeader += "Content-Type: " + content.getEncoding() + lineEnd;
-		File file = new File(filepath);
-		filePartHeader += "Content-Length: " + file.length() + lineEnd + lineEnd;
-
-		outputStream.writeBytes(filePartHeader);
-
-		// Write file content
-		FileInputStream fileInputStream = new FileInputStream(file);
-		int bytesAvailable = fileInputStream.available();
-		int bufferSize = Math.min(bytesAvailable, CHUNK_MAX_SIZE);
-		byte[] buffer = new byte[bufferSize];
-		int bytesRead = fileInputStream.read(buffer, 0, bufferSize);
-		int progress = 0;
-		
-		while (bytesRead > 0 && !isCancelled()) {
-			progress += bytesRead;
-			outputStream.write(buffer, 0, bytesRead);
-			bytesAvailable = fileInputStream.available();
-			getListener().httpTransferProgress(progress, file.length());
-			bufferSize = Math.min(bytesAvailable, CHUNK_MAX_SIZE);
-			buffer = new byte[bufferSize];
-			bytesRead = fileInputStream.read(buffer, 0, bufferSize);
+	private HttpURLConnection openConnection(URL url) throws IOException {
+		HttpsURLConnection.setDefaultHostnameVerifier(new NullHostNameVerifier());
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		if (connection instanceof HttpsURLConnection) {
+			try {
+				((HttpsURLConnection) connection).setSSLSocketFactory(FileTransSSLFactory.getFileTransferSSLContext()
+						.getSocketFactory());
+			} catch (Exception e) {
+				if (logger.isActivated()) {
+					logger.error("Failed to initiate SSL for connection:", e);
+				}
+			}
 		}
-		if (!isCancelled())
-			outputStream.writeBytes(lineEnd);
-		fileInputStream.close();
+		return connection;
 	}
 
 	/**
-	 * Stream conversion
+	 * Set the streaming mode of a connection, so that the body is not
+	 * buffered in memory before being sent
 	 * 
-	 * @param is
-	 *            Input stream
-	 * @return Byte array
+	 * @param connection
+	 *            HTTP connection
+	 * @param contentLength
+	 *            Length of the body
 	 */
-	private static byte[] convertStreamToString(InputStream is) {
-		BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-		StringBuilder sb = new StringBuilder();
+	private static void setStreamingMode(HttpURLConnection connection, long contentLength) {
+		if (contentLength <= Integer.MAX_VALUE) {
+			connection.setFixedLengthStreamingMode((int)contentLength);
+		} else {
+			connection.setChunkedStreamingMode(UPLOAD_BUFFER_SIZE);
+		}
+	}
 
-		String line = null;
+	/**
+	 * Write the file data from an offset. The data is read from the file
+	 * channel into a single buffer reused for the whole upload.
+	 * 
+	 * @param outputStream
+	 *            Output stream to write to
+	 * @param file
+	 *            File to be uploaded
+	 * @param offset
+	 *            Offset of the first byte to write
+	 * @param length
+	 *            Length of the file
+	 * @throws IOException
+	 */
+	private void writeFileData(OutputStream outputStream, File file, long offset, long length) throws IOException {
+		if (uploadBuffer == null) {
+			uploadBuffer = new byte[UPLOAD_BUFFER_SIZE];
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(uploadBuffer);
+		long progress = offset;
+		FileInputStream fileInputStream = new FileInputStream(file);
 		try {
-			while ((line = reader.readLine()) != null) {
-				sb.append(line);
+			// Skip the bytes already sent
+			FileChannel channel = fileInputStream.getChannel();
+			channel.position(offset);
+
+			while ((progress < length) && !isCancelled()) {
+				buffer.clear();
+				buffer.limit((int)Math.min(uploadBuffer.length, length - progress));
+				int bytesRead = channel.read(buffer);
+				if (bytesRead <= 0) {
+					break;
+				}
+				outputStream.write(uploadBuffer, 0, bytesRead);
+				progress += bytesRead;
+				getListener().httpTransferProgress(progress, length);
 			}
-		} catch (IOException e) {
-			// Nothing to do
 		} finally {
-			CloseableUtils.close(is);
+			fileInputStream.close();
 		}
-		return sb.toString().getBytes();
 	}
 
 	/**
@@ -620,21 +648,11 @@ public class HttpUploadManager extends HttpTransferManager {
 		if (logger.isActivated()) {
 			logger.debug("sendPutForResumingUpload. Already sent from "+resumeInfo.getStart()+" to "+resumeInfo.getEnd());
 		}
-		DataOutputStream outputStream = null;
+		OutputStream outputStream = null;
 		String filepath = content.getUrl();
 
 		// Get the connection
-		HttpsURLConnection connection = null;
-		HttpsURLConnection.setDefaultHostnameVerifier(new NullHostNameVerifier());
-		connection = (HttpsURLConnection) new URL(resumeInfo.getUrl()).openConnection();
-
-		try {
-			connection.setSSLSocketFactory(FileTransSSLFactory.getFileTransferSSLContext().getSocketFactory());
-		} catch (Exception e) {
-			if (logger.isActivated()) {
-				logger.error("Failed to initiate SSL for connection:", e);
-			}
-		}
+		HttpURLConnection connection = openConnection(new URL(resumeInfo.getUrl()));
 
 		connection.setDoInput(true);
 		connection.setDoOutput(true);
@@ -645,7 +663,6 @@ public class HttpUploadManager extends HttpTransferManager {
 		connection.setRequestProperty("Connection", "Keep-Alive");
 		connection.setRequestProperty("User-Agent", SipUtils.userAgentString());
 		connection.setRequestProperty("Content-Type", this.content.getEncoding());
-		connection.setRequestProperty("Content-Length", String.valueOf(content.getSize() - (resumeInfo.getEnd()+1)));
 		connection.setRequestProperty("Content-Range", (resumeInfo.getEnd()+1) + "-" + (content.getSize()-1) + "/"
 				+ content.getSize());
 
@@ -672,14 +689,20 @@ public class HttpUploadManager extends HttpTransferManager {
 			System.out.println(trace);
 		}
 
-		// Create the DataOutputStream and start writing its body
-		outputStream = new DataOutputStream(connection.getOutputStream());
-		outputStream.writeBytes(body);
+		// Stream the remaining file data
+		long offset = resumeInfo.getEnd() + 1;
+		setStreamingMode(connection, content.getSize() - offset);
+		outputStream = connection.getOutputStream();
 
 		try {
 			// Add File
-			writeRemainingFileData(outputStream, filepath, resumeInfo.getEnd());
+			if (logger.isActivated()) {
+				logger.debug("Send " + (content.getSize() - offset) + " remaining bytes starting from " + offset);
+			}
+			writeFileData(outputStream, new File(filepath), offset, content.getSize());
 			if (!isCancelled()) {
+				outputStream.flush();
+
 				// Check response status code
 				int responseCode = connection.getResponseCode();
 				if (logger.isActivated()) {
@@ -692,9 +715,7 @@ public class HttpUploadManager extends HttpTransferManager {
 				case 200:
 					// 200 OK
 					success = true;
-					InputStream inputStream = connection.getInputStream();
-					result = convertStreamToString(inputStream);
-					inputStream.close();
+					result = readContent(connection.getInputStream(), connection.getContentLength());
 					if (HTTP_TRACE_ENABLED) {
 						System.out.println("\n" + new String(result));
 					}
@@ -720,19 +741,13 @@ public class HttpUploadManager extends HttpTransferManager {
 					if (logger.isActivated()) {
 						logger.warn("File transfer paused by user");
 					}
-					// Sent data are bufferized. Must wait for response to enable sending to server.
-					int responseCode = connection.getResponseCode();
-					if (logger.isActivated()) {
-						logger.debug("PUT response " + responseCode + " " + connection.getResponseMessage());
-					}
 				} else {
 					if (logger.isActivated()) {
 						logger.warn("File transfer cancelled by user");
 					}
 				}
-				// Close streams
-				outputStream.flush();
-				outputStream.close();
+				// The data already written has been sent: close the connection
+				// without completing the body
 				connection.disconnect();
 				return null;
 			}
@@ -745,45 +760,6 @@ public class HttpUploadManager extends HttpTransferManager {
 		}
 	}
 
-	/**
-	 * write remaining file data
-	 * 
-	 * @param outputStream
-	 *            the output stream
-	 * @param filepath
-	 *            the file to be uploaded
-	 * @param endingByte
-	 *            the offset in bytes
-	 * @throws IOException
-	 */
-	private void writeRemainingFileData(DataOutputStream outputStream, String filepath, int offset) throws IOException {
-		// Write file content
-		File file = new File(filepath);
-		FileInputStream fileInputStream = new FileInputStream(file);
-		// Skip bytes already received
-		int bytesRead = (int) fileInputStream.skip(offset+1);
-		int bytesAvailable = fileInputStream.available();
-		int bufferSize = Math.min(bytesAvailable, CHUNK_MAX_SIZE);
-		byte[] buffer = new byte[bufferSize];
-		int progress = bytesRead;
-		bytesRead = fileInputStream.read(buffer, 0, bufferSize);
-		if (logger.isActivated()) {
-			logger.debug("Send "+bytesAvailable+" remaining bytes starting from " + progress);
-		}
-		// Send remaining bytes 
-		while (bytesRead > 0 && !isCancelled()) {
-			progress += bytesRead;
-			outputStream.write(buffer, 0, bytesRead);
-			bytesAvailable = fileInputStream.available();
-			getListener().httpTransferProgress(progress, file.length());
-			bufferSize = Math.min(bytesAvailable, CHUNK_MAX_SIZE);
-			buffer = new byte[bufferSize];
-			bytesRead = fileInputStream.read(buffer, 0, bufferSize);
-			
-		}
-		fileInputStream.close();
-	}
-
 	/**
 	 * Send a get for info on the upload
 	 * 
@@ -863,20 +839,9 @@ public class HttpUploadManager extends HttpTransferManager {
 	 * @return byte[] contains the response of the server to the upload
 	 */
 	private byte[] getDownloadInfo() {
-		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 		try {
 			HttpResponse resp = sendGetDownloadInfo();
-
-			InputStream is = resp.getEntity().getContent();
-
-			int nRead;
-			byte[] data = new byte[16384];
-
-			while ((nRead = is.read(data, 0, data.length)) != -1) {
-				buffer.write(data, 0, nRead);
-			}
-
-			buffer.flush();
+			return readContent(resp.getEntity().getContent(), resp.getEntity().getContentLength());
 		} catch (Exception e) {
 			if (logger.isActivated()) {
 				logger.warn("Could not get upload info due to " + e.getLocalizedMessage());
@@ -884,7 +849,6 @@ public class HttpUploadManager extends HttpTransferManager {
 			getListener().httpTransferPaused();
 			return null;
 		}
-		return buffer.toByteArray();
 	}
 
 	/**
@@ -296,6 +296,9 @@ public class PresenceService extends ImsService implements AddressBookEventListe
     	// Stop subscriptions
     	watcherInfoSubscriber.terminate();
     	presenceSubscriber.terminate();
+
+    	// Close the connection with the XDM server
+    	xdm.close();
 	}
 
 	/**
@@ -784,15 +787,10 @@ public class PresenceService extends ImsService implements AddressBookEventListe
      * @returns Returns true if XDM request was successful, else false
      */
     public boolean inviteContactToSharePresence(String contact) {
-		// Remove contact from the blocked contacts list
+		// Remove contact from the blocked and revoked contacts lists and add
+		// it in the granted contacts list
 		String contactUri = PhoneUtils.formatNumberToSipUri(contact);
-		xdm.removeContactFromBlockedList(contactUri);
-
-		// Remove contact from the revoked contacts list
-		xdm.removeContactFromRevokedList(contactUri);
-
-		// Add contact in the granted contacts list
-		HttpResponse response = xdm.addContactToGrantedList(contactUri);
+		HttpResponse response = xdm.grantContact(contactUri);
         if ((response != null) && response.isSuccessfullResponse()) {
 			return true;
 		} else {
@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.core.ims.service.presence.xdm;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.orangelabs.rcs.core.ims.protocol.http.HttpResponse;
+import com.orangelabs.rcs.platform.network.NetworkFactory;
+import com.orangelabs.rcs.platform.network.SocketConnection;
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * XCAP client: sends HTTP/1.1 requests to the XDM server over a persistent
+ * connection which is kept alive between the requests. Several requests may
+ * be pipelined on the connection, the responses being read in the order of
+ * the requests.
+ *
+ * @author Jean-Marc AUFFRET
+ */
+public class XcapClient {
+	/**
+	 * Idle time after which the connection is not reused (in milliseconds)
+	 */
+	private static final int KEEP_ALIVE_TIMEOUT = 30000;
+
+	/**
+	 * Max size of a status line or header line
+	 */
+	private static final int MAX_LINE_SIZE = 8192;
+
+	/**
+	 * Server address
+	 */
+	private String host;
+
+	/**
+	 * Server port
+	 */
+	private int port;
+
+	/**
+	 * Factory of the connections
+	 */
+	private NetworkFactory factory;
+
+	/**
+	 * Current connection
+	 */
+	private SocketConnection connection = null;
+
+	/**
+	 * Input stream of the current connection
+	 */
+	private InputStream is = null;
+
+	/**
+	 * Output stream of the current connection
+	 */
+	private OutputStream os = null;
+
+	/**
+	 * Time of the last response received on the current connection
+	 */
+	private long lastActivity = 0;
+
+	/**
+	 * Number of requests sent on the current connection
+	 */
+	private int requestCount = 0;
+
+	/**
+	 * Line buffer
+	 */
+	private byte[] lineBuffer = new byte[256];
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Constructor
+	 *
+	 * @param host Server address
+	 * @param port Server port
+	 */
+	public XcapClient(String host, int port) {
+		this(host, port, NetworkFactory.getFactory());
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param host Server address
+	 * @param port Server port
+	 * @param factory Factory of the connections
+	 */
+	public XcapClient(String host, int port, NetworkFactory factory) {
+		this.host = host;
+		this.port = port;
+		this.factory = factory;
+	}
+
+	/**
+	 * Send a request
+	 *
+	 * @param request Request headers and content
+	 * @return Response
+	 * @throws IOException
+	 */
+	public HttpResponse sendRequest(byte[] request) throws IOException {
+		return sendRequests(new byte[][] { request })[0];
+	}
+
+	/**
+	 * Send requests pipelined on the connection. The requests which have not
+	 * been answered when the server closes the connection are sent again on a
+	 * new connection.
+	 *
+	 * @param requests Requests headers and content
+	 * @return Responses, in the order of the requests
+	 * @throws IOException
+	 */
+	public synchronized HttpResponse[] sendRequests(byte[][] requests) throws IOException {
+		HttpResponse[] responses = new HttpResponse[requests.length];
+		int next = 0;
+		while (next < requests.length) {
+			boolean reused = openConnection();
+			int first = next;
+			try {
+				// Write all the pending requests at once
+				for (int i = next; i < requests.length; i++) {
+					os.write(requests[i]);
+				}
+				os.flush();
+				requestCount += requests.length - next;
+
+				// Read the responses in order
+				while (next < requests.length) {
+					HttpResponse response = new HttpResponse();
+					boolean keepAlive = readResponse(response);
+					responses[next++] = response;
+					lastActivity = System.currentTimeMillis();
+					if (!keepAlive) {
+						closeConnection();
+						break;
+					}
+				}
+			} catch(IOException e) {
+				closeConnection();
+
+				// A kept alive connection may have been closed by the server
+				// in the meantime: try again once on a new connection
+				if (!reused && (next == first)) {
+					throw e;
+				}
+			}
+		}
+		return responses;
+	}
+
+	/**
+	 * Close the connection
+	 */
+	public synchronized void close() {
+		closeConnection();
+	}
+
+	/**
+	 * Open a connection if there is no reusable connection
+	 *
+	 * @return Returns true if a kept alive connection is reused
+	 * @throws IOException
+	 */
+	private boolean openConnection() throws IOException {
+		if ((connection != null) && (System.currentTimeMillis() - lastActivity > KEEP_ALIVE_TIMEOUT)) {
+			closeConnection();
+		}
+		if (connection != null) {
+			return true;
+		}
+
+		if (logger.isActivated()) {
+			logger.debug("Open XCAP connection to " + host + ":" + port);
+		}
+		SocketConnection conn = factory.createSocketClientConnection();
+		conn.open(host, port);
+		connection = conn;
+		is = new BufferedInputStream(conn.getInputStream());
+		os = conn.getOutputStream();
+		lastActivity = System.currentTimeMillis();
+		return false;
+	}
+
+	/**
+	 * Close the current connection
+	 */
+	private void closeConnection() {
+		if (connection == null) {
+			return;
+		}
+		if (logger.isActivated()) {
+			logger.debug("Close XCAP connection after " + requestCount + " requests");
+		}
+		try {
+			is.close();
+			os.close();
+			connection.close();
+		} catch(IOException e) {
+			// Nothing to do
+		}
+		connection = null;
+		is = null;
+		os = null;
+		requestCount = 0;
+	}
+
+	/**
+	 * Read a response
+	 *
+	 * @param response Response to be filled
+	 * @return Returns true if the connection may be reused
+	 * @throws IOException
+	 */
+	private boolean readResponse(HttpResponse response) throws IOException {
+		// Read the status line, skipping the informational responses
+		int code;
+		do {
+			String line = readLine();
+			if (line == null) {
+				throw new IOException("Connection closed by the XCAP server");
+			}
+			response.setStatusLine(line);
+			code = response.getResponseCode();
+			readHeaders(response);
+		} while ((code >= 100) && (code < 200));
+
+		String connectionHeader = response.getHeader("connection");
+		boolean keepAlive;
+		if (response.getStatusLine().startsWith("HTTP/1.0")) {
+			keepAlive = (connectionHeader != null) && connectionHeader.equalsIgnoreCase("keep-alive");
+		} else {
+			keepAlive = (connectionHeader == null) || !connectionHeader.equalsIgnoreCase("close");
+		}
+
+		// Read the content
+		if ((code == 204) || (code == 304)) {
+			return keepAlive;
+		}
+		String transferEncoding = response.getHeader("transfer-encoding");
+		String contentLength = response.getHeader("content-length");
+		if ((transferEncoding != null) && transferEncoding.toLowerCase().indexOf("chunked") != -1) {
+			response.setContent(readChunkedContent());
+		} else
+		if (contentLength != null) {
+			int length;
+			try {
+				length = Integer.parseInt(contentLength.trim());
+			} catch(NumberFormatException e) {
+				throw new IOException("Invalid Content-Length " + contentLength);
+			}
+			if (length > 0) {
+				byte[] content = new byte[length];
+				readFully(content);
+				response.setContent(content);
+			}
+		} else {
+			// The content is delimited by the end of the connection
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int nb;
+			while ((nb = is.read(buffer)) != -1) {
+				content.write(buffer, 0, nb);
+			}
+			if (content.size() > 0) {
+				response.setContent(content.toByteArray());
+			}
+			keepAlive = false;
+		}
+		return keepAlive;
+	}
+
+	/**
+	 * Read the headers up to the empty line
+	 *
+	 * @param response Response to be filled
+	 * @throws IOException
+	 */
+	private void readHeaders(HttpResponse response) throws IOException {
+		String line;
+		while ((line = readLine()) != null) {
+			if (line.length() == 0) {
+				// All headers has been read
+				return;
+			}
+			int index = line.indexOf(':');
+			if (index > 0) {
+				String name = line.substring(0, index).trim().toLowerCase();
+				String value = line.substring(index + 1).trim();
+				response.addHeader(name, value);
+			}
+		}
+		throw new IOException("Connection closed by the XCAP server");
+	}
+
+	/**
+	 * Read a chunked content
+	 *
+	 * @return Content
+	 * @throws IOException
+	 */
+	private byte[] readChunkedContent() throws IOException {
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		while (true) {
+			String line = readLine();
+			if (line == null) {
+				throw new IOException("Connection closed by the XCAP server");
+			}
+			int index = line.indexOf(';');
+			if (index != -1) {
+				line = line.substring(0, index);
+			}
+			int size;
+			try {
+				size = Integer.parseInt(line.trim(), 16);
+			} catch(NumberFormatException e) {
+				throw new IOException("Invalid chunk size " + line);
+			}
+			if (size == 0) {
+				// Skip the trailers
+				while ((line = readLine()) != null && (line.length() > 0));
+				return content.toByteArray();
+			}
+			byte[] chunk = new byte[size];
+			readFully(chunk);
+			content.write(chunk, 0, size);
+			readLine();
+		}
+	}
+
+	/**
+	 * Read bytes up to the end of the given array
+	 *
+	 * @param data Array to be filled
+	 * @throws IOException
+	 */
+	private void readFully(byte[] data) throws IOException {
+		int pos = 0;
+		while (pos < data.length) {
+			int nb = is.read(data, pos, data.length - pos);
+			if (nb == -1) {
+				throw new IOException("Connection closed by the XCAP server");
+			}
+			pos += nb;
+		}
+	}
+
+	/**
+	 * Read a line without its line terminator
+	 *
+	 * @return Line or null if the connection has been closed
+	 * @throws IOException
+	 */
+	private String readLine() throws IOException {
+		int length = 0;
+		int ch;
+		while ((ch = is.read()) != -1) {
+			if (ch == '\n') {
+				if ((length > 0) && (lineBuffer[length - 1] == '\r')) {
+					length--;
+				}
+				return new String(lineBuffer, 0, length, "ISO-8859-1");
+			}
+			if (length == lineBuffer.length) {
+				if (length >= MAX_LINE_SIZE) {
+					throw new IOException("Too long line received from the XCAP server");
+				}
+				byte[] newBuffer = new byte[2 * length];
+				System.arraycopy(lineBuffer, 0, newBuffer, 0, length);
+				lineBuffer = newBuffer;
+			}
+			lineBuffer[length++] = (byte)ch;
+		}
+		return null;
+	}
+}
@@ -20,11 +20,10 @@ package com.orangelabs.rcs.core.ims.service.presence.xdm;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Vector;
 
 import org.xml.sax.InputSource;
 
@@ -43,8 +42,6 @@ import com.orangelabs.rcs.core.ims.protocol.http.HttpResponse;
 import com.orangelabs.rcs.core.ims.service.presence.PhotoIcon;
 import com.orangelabs.rcs.core.ims.service.presence.directory.Folder;
 import com.orangelabs.rcs.core.ims.service.presence.directory.XcapDirectoryParser;
-import com.orangelabs.rcs.platform.network.NetworkFactory;
-import com.orangelabs.rcs.platform.network.SocketConnection;
 import com.orangelabs.rcs.utils.Base64;
 import com.orangelabs.rcs.utils.HttpUtils;
 import com.orangelabs.rcs.utils.logger.Logger;
@@ -74,6 +71,43 @@ public class XdmManager {
 	 * Managed documents
 	 */
 	private Hashtable<String, Folder> documents = new Hashtable<String, Folder>();
+
+	/**
+	 * Last successful GET responses with an etag, indexed by URL
+	 */
+	private Hashtable<String, HttpResponse> cachedResponses = new Hashtable<String, HttpResponse>();
+
+	/**
+	 * XCAP client keeping the connection with the XDM server alive
+	 */
+	private XcapClient xcapClient = null;
+
+	/**
+	 * XDM server host
+	 */
+	private String xdmServerHost;
+
+	/**
+	 * XDM server port
+	 */
+	private int xdmServerPort;
+
+	/**
+	 * XDM service root
+	 */
+	private String xdmServiceRoot;
+
+	/**
+	 * Authentication agent, kept between the requests to reuse the nonce
+	 */
+	private HttpAuthenticationAgent authenticationAgent;
+
+	/**
+	 * Lock of the authentication agent: the Authorization headers are generated
+	 * and sent in a same locked section, so that the nonce counts are sent in
+	 * order and a challenge is not read while a request is being built
+	 */
+	private Object authenticationLock = new Object();
 	
 	/**
 	 * The logger
@@ -89,6 +123,7 @@ public class XdmManager {
 		xdmServerAddr = ImsModule.IMS_USER_PROFILE.getXdmServerAddr();
 		xdmServerLogin = ImsModule.IMS_USER_PROFILE.getXdmServerLogin();
 		xdmServerPwd = ImsModule.IMS_USER_PROFILE.getXdmServerPassword();
+		authenticationAgent = new HttpAuthenticationAgent(xdmServerLogin, xdmServerPwd);
 	}
 	
 	/**
@@ -99,7 +134,7 @@ public class XdmManager {
 	 * @throws CoreException
 	 */
 	private HttpResponse sendRequestToXDMS(HttpRequest request) throws CoreException {
-		return sendRequestToXDMS(request, new HttpAuthenticationAgent(xdmServerLogin, xdmServerPwd));
+		return sendRequestToXDMS(request, authenticationAgent);
 	}
 	
 	/**
@@ -124,7 +159,9 @@ public class XdmManager {
 	
 				if (authenticationAgent != null) {
 					// Update the authentication agent
-					authenticationAgent.readWwwAuthenticateHeader(response.getHeader("www-authenticate"));
+					synchronized(authenticationLock) {
+						authenticationAgent.readWwwAuthenticateHeader(response.getHeader("www-authenticate"));
+					}
 				}
 	
 				// Set the cookie from the received response
@@ -160,7 +197,44 @@ public class XdmManager {
 	}
 
 	/**
-	 * Send HTTP PUT request
+	 * Send independent HTTP requests pipelined on the connection with the XDM
+	 * server. The requests are sent without the If-match header because they
+	 * may update the same document, a request being sent again alone if it is
+	 * rejected.
+	 * 
+	 * @param requests HTTP requests
+	 * @return HTTP responses, in the order of the requests
+	 * @throws CoreException
+	 */
+	private HttpResponse[] sendRequestsToXDMS(HttpRequest[] requests) throws CoreException {
+		try {
+			HttpResponse[] responses = sendHttpRequests(requests, authenticationAgent, false);
+			for (int i = 0; i < requests.length; i++) {
+				int code = responses[i].getResponseCode();
+				if (code == 401) {
+					// Update the authentication agent and set the cookie from the received response
+					synchronized(authenticationLock) {
+						authenticationAgent.readWwwAuthenticateHeader(responses[i].getHeader("www-authenticate"));
+					}
+					requests[i].setCookie(responses[i].getHeader("set-cookie"));
+				}
+				if ((code == 401) || (code == 412)) {
+					if (logger.isActivated()) {
+						logger.debug(code + " response received for pipelined request " + requests[i].getUrl());
+					}
+					responses[i] = sendRequestToXDMS(requests[i]);
+				}
+			}
+			return responses;
+		} catch(CoreException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new CoreException("Can't send HTTP requests: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Send HTTP request
 	 * 
 	 * @param request HTTP request
 	 * @param authenticationAgent Authentication agent
@@ -169,64 +243,127 @@ public class XdmManager {
 	 * @throws CoreException
 	 */
 	private HttpResponse sendHttpRequest(HttpRequest request, HttpAuthenticationAgent authenticationAgent) throws IOException, CoreException {
-		// Extract host & port
-		String[] parts = xdmServerAddr.substring(7).split(":|/");
-		String host = parts[0];		
-		int port = Integer.parseInt(parts[1]);
-		String serviceRoot = "";
-		if (parts.length > 2) {
-			serviceRoot = "/" + parts[2];
-		}
-		
-		// Open connection with the XCAP server
-		SocketConnection conn = NetworkFactory.getFactory().createSocketClientConnection();
-		conn.open(host, port);
-		InputStream is = conn.getInputStream();
-		OutputStream os = conn.getOutputStream();
+		HttpRequest[] requests = { request };
+		return sendHttpRequests(requests, authenticationAgent, true)[0];
+	}
+
+	/**
+	 * Send HTTP requests pipelined on the connection with the XDM server
+	 * 
+	 * @param requests HTTP requests
+	 * @param authenticationAgent Authentication agent
+	 * @param conditional Set the If-match header from the etag of the document
+	 * @return HTTP responses, in the order of the requests
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	private HttpResponse[] sendHttpRequests(HttpRequest[] requests, HttpAuthenticationAgent authenticationAgent,
+			boolean conditional) throws IOException, CoreException {
+		XcapClient client = getXcapClient();
+		HttpResponse[] responses;
+		synchronized(authenticationLock) {
+			// Build and send the requests in a same section to send the nonce counts in order
+			byte[][] data = new byte[requests.length][];
+			for (int i = 0; i < requests.length; i++) {
+				data[i] = buildHttpRequest(requests[i], authenticationAgent, conditional);
+			}
+			responses = client.sendRequests(data);
+		}
+		for (int i = 0; i < requests.length; i++) {
+			responses[i] = handleHttpResponse(requests[i], responses[i]);
+		}
+		return responses;
+	}
+
+	/**
+	 * Returns the XCAP client, created from the XDM server address
+	 * 
+	 * @return XCAP client
+	 */
+	private synchronized XcapClient getXcapClient() {
+		if (xcapClient == null) {
+			// Extract host & port
+			String[] parts = xdmServerAddr.substring(7).split(":|/");
+			xdmServerHost = parts[0];
+			xdmServerPort = Integer.parseInt(parts[1]);
+			xdmServiceRoot = "";
+			if (parts.length > 2) {
+				xdmServiceRoot = "/" + parts[2];
+			}
+			xcapClient = new XcapClient(xdmServerHost, xdmServerPort);
+		}
+		return xcapClient;
+	}
+
+	/**
+	 * Close the connection with the XDM server
+	 */
+	public synchronized void close() {
+		if (xcapClient != null) {
+			xcapClient.close();
+		}
+	}
+
+	/**
+	 * Build the bytes of a HTTP request
+	 * 
+	 * @param request HTTP request
+	 * @param authenticationAgent Authentication agent
+	 * @param conditional Set the If-match header from the etag of the document
+	 * @return Request headers and content
+	 * @throws IOException
+	 * @throws CoreException
+	 */
+	private byte[] buildHttpRequest(HttpRequest request, HttpAuthenticationAgent authenticationAgent,
+			boolean conditional) throws IOException, CoreException {
+		byte[] content = null;
+		if (request.getContent() != null) {
+			content = request.getContent().getBytes("UTF-8");
+		}
 
 		// Create the HTTP request
-		String requestUri = serviceRoot + request.getUrl();
-		String httpRequest = request.getMethod() + " " + requestUri + " HTTP/1.1" + HttpUtils.CRLF +
-				"Host: " + host + ":" + port + HttpUtils.CRLF +
-				"User-Agent: " + TerminalInfo.getProductName() + " " + TerminalInfo.getProductVersion() + HttpUtils.CRLF;
+		String requestUri = xdmServiceRoot + request.getUrl();
+		StringBuffer httpRequest = new StringBuffer(512);
+		httpRequest.append(request.getMethod()).append(" ").append(requestUri).append(" HTTP/1.1").append(HttpUtils.CRLF);
+		httpRequest.append("Host: ").append(xdmServerHost).append(":").append(xdmServerPort).append(HttpUtils.CRLF);
+		httpRequest.append("User-Agent: ").append(TerminalInfo.getProductName()).append(" ")
+				.append(TerminalInfo.getProductVersion()).append(HttpUtils.CRLF);
 		
 		if (authenticationAgent != null) {
 			// Set the Authorization header
 			String authorizationHeader = authenticationAgent.generateAuthorizationHeader(
 					request.getMethod(), requestUri, request.getContent());
-			httpRequest += authorizationHeader + HttpUtils.CRLF;
+			httpRequest.append(authorizationHeader).append(HttpUtils.CRLF);
 		}
 		
 		String cookie = request.getCookie();
 		if (cookie != null){
 			// Set the cookie header
-			httpRequest += "Cookie: " + cookie + HttpUtils.CRLF;
+			httpRequest.append("Cookie: ").append(cookie).append(HttpUtils.CRLF);
 		}
 
-		httpRequest += "X-3GPP-Intended-Identity: \"" + ImsModule.IMS_USER_PROFILE.getXdmServerLogin() + "\"" + HttpUtils.CRLF;
+		httpRequest.append("X-3GPP-Intended-Identity: \"").append(ImsModule.IMS_USER_PROFILE.getXdmServerLogin())
+				.append("\"").append(HttpUtils.CRLF);
 
-		// Set the If-match header
-		Folder folder = (Folder)documents.get(request.getAUID());
-		if ((folder != null) && (folder.getEntry() != null) && (folder.getEntry().getEtag() != null)) {
-			httpRequest += "If-match: \"" + folder.getEntry().getEtag() + "\"" + HttpUtils.CRLF;
+		HttpResponse cachedResponse = cachedResponses.get(request.getUrl());
+		if (request.getMethod().equals("GET") && (cachedResponse != null)) {
+			// Set the If-None-Match header: the document etag applies to all its nodes
+			httpRequest.append("If-None-Match: ").append(cachedResponse.getHeader("etag")).append(HttpUtils.CRLF);
+		} else
+		if (conditional) {
+			// Set the If-match header
+			Folder folder = (Folder)documents.get(request.getAUID());
+			if ((folder != null) && (folder.getEntry() != null) && (folder.getEntry().getEtag() != null)) {
+				httpRequest.append("If-match: \"").append(folder.getEntry().getEtag()).append("\"").append(HttpUtils.CRLF);
+			}
 		}
 		
-		if (request.getContent() != null) {
+		if (content != null) {
 			// Set the content type
-			httpRequest += "Content-type: " + request.getContentType() + HttpUtils.CRLF;
-			httpRequest += "Content-Length:" + request.getContentLength() + HttpUtils.CRLF + HttpUtils.CRLF;
+			httpRequest.append("Content-type: ").append(request.getContentType()).append(HttpUtils.CRLF);
+			httpRequest.append("Content-Length: ").append(content.length).append(HttpUtils.CRLF).append(HttpUtils.CRLF);
 		} else {
-			httpRequest += "Content-Length: 0" + HttpUtils.CRLF + HttpUtils.CRLF;
-		}
-		
-		// Write HTTP request headers
-		os.write(httpRequest.getBytes());
-		os.flush();
-
-		// Write HTTP content
-		if (request.getContent() != null) {
-			os.write(request.getContent().getBytes("UTF-8"));
-			os.flush();
+			httpRequest.append("Content-Length: 0").append(HttpUtils.CRLF).append(HttpUtils.CRLF);
 		}
 
 		if (logger.isActivated()){
@@ -237,87 +374,56 @@ public class XdmManager {
 			}
 		}
 
-		// Read HTTP headers response
-		StringBuffer respTrace = new StringBuffer();
-		HttpResponse response = new HttpResponse();
-		int ch = -1;
-		String line = "";
-		while((ch = is.read()) != -1) {
-			line += (char)ch;
-			
-			if (line.endsWith(HttpUtils.CRLF)) {
-				if (line.equals(HttpUtils.CRLF)) {
-					// All headers has been read
-					break;
-				}
-
-				if (logger.isActivated()) {
-					respTrace.append(line);
-				}
-
-				// Remove CRLF
-				line = line.substring(0, line.length()-2);
-				
-				if (line.startsWith("HTTP/")) {
-					// Status line
-					response.setStatusLine(line);
-				} else {
-					// Header
-					int index = line.indexOf(":");
-					String name = line.substring(0, index).trim().toLowerCase();
-					String value = line.substring(index+1).trim();
-					response.addHeader(name, value);
-				}
-				
-				line = "";
-			}
-		}
-		
-		// Extract content length
-		int length = -1;
-		try {
-			String value = response.getHeader("content-length");
-			length = Integer.parseInt(value);
-		} catch(Exception e) {
-			length = -1;
-		}
-		
-		// Read HTTP content response
-		if (length > 0) {
-			byte[] content = new byte[length];
-			int nb = -1;
-			int pos = 0;
-			byte[] buffer = new byte[1024];
-			while((nb = is.read(buffer)) != -1) {
-				System.arraycopy(buffer, 0, content, pos, nb);
-				pos += nb;
-				
-				if (pos >= length) {
-					// End of content
-					break;
-				}
-			}
-			if (logger.isActivated()) {
-				respTrace.append(HttpUtils.CRLF + new String(content));
-			}
-			response.setContent(content);
+		byte[] headers = httpRequest.toString().getBytes("UTF-8");
+		if (content == null) {
+			return headers;
 		}
+		byte[] data = new byte[headers.length + content.length];
+		System.arraycopy(headers, 0, data, 0, headers.length);
+		System.arraycopy(content, 0, data, headers.length, content.length);
+		return data;
+	}
 
+	/**
+	 * Handle a received HTTP response
+	 * 
+	 * @param request HTTP request
+	 * @param response HTTP response
+	 * @return HTTP response, the cached one if the document has not been modified
+	 */
+	private HttpResponse handleHttpResponse(HttpRequest request, HttpResponse response) {
 		if (logger.isActivated()){
+			StringBuffer respTrace = new StringBuffer(response.getStatusLine());
+			if (response.getContent() != null) {
+				respTrace.append(HttpUtils.CRLF).append(new String(response.getContent()));
+			}
 			logger.debug("Receive HTTP response:\n" + respTrace.toString());
 		}
 
-		// Close the connection
-		is.close();
-		os.close();
-		conn.close();
+		if (response.getResponseCode() == 304) {
+			// Not modified since the last GET
+			HttpResponse cachedResponse = cachedResponses.get(request.getUrl());
+			if (cachedResponse != null) {
+				return cachedResponse;
+			}
+		}
 
 		// Save the Etag from the received response
 		String etag = response.getHeader("etag");
+		Folder folder = (Folder)documents.get(request.getAUID());
 		if ((etag != null) && (folder != null) && (folder.getEntry() != null)) {
 			folder.getEntry().setEtag(etag);
 		}
 		
+		// Keep the content read with its etag for the next conditional GET, except
+		// the photo icon which may be large and is not read again
+		if (request.getMethod().equals("GET") && !request.getAUID().equals("org.openmobilealliance.pres-content")) {
+			if ((etag != null) && response.isSuccessfullResponse()) {
+				cachedResponses.put(request.getUrl(), response);
+			} else {
+				cachedResponses.remove(request.getUrl());
+			}
+		}
 		return response;
 	}	
 	
@@ -334,6 +440,8 @@ public class XdmManager {
 				XcapDirectoryParser parser = new XcapDirectoryParser(input);
 				documents = parser.getDocuments();
 
+				Vector<HttpRequest> requests = new Vector<HttpRequest>();
+
 				// Check RCS list document
 				Folder folder = (Folder)documents.get("rls-services");
 				if ((folder == null) || (folder.getEntry() == null)) {
@@ -342,7 +450,7 @@ public class XdmManager {
 					}
 
 					// Set RCS list document
-			    	setRcsList();
+					setRcsList(requests);
 				} else {
 					if (logger.isActivated()){
 						logger.debug("The rls-services document already exists");
@@ -357,7 +465,7 @@ public class XdmManager {
 					}
 
 					// Set resource list document
-			    	setResourcesList(); 
+					setResourcesList(requests);
 				} else {
 					if (logger.isActivated()){
 						logger.debug("The resource-lists document already exists");
@@ -372,12 +480,23 @@ public class XdmManager {
 					}
 
 					// Set presence rules document
-			    	setPresenceRules();
+					setPresenceRules(requests);
 				} else {
 					if (logger.isActivated()){
 						logger.debug("The org.openmobilealliance.pres-rules document already exists");
 					}
 				}
+
+				// Set the missing documents at once
+				if (requests.size() > 0) {
+					HttpRequest[] array = requests.toArray(new HttpRequest[requests.size()]);
+					HttpResponse[] responses = sendRequestsToXDMS(array);
+					for (int i = 0; i < array.length; i++) {
+						if (logger.isActivated()){
+							logger.info("Set " + array[i].getAUID() + " document: " + responses[i].getResponseCode() + " response");
+						}
+					}
+				}
 			}
 		} catch(Exception e) {
         	if (logger.isActivated()) {
@@ -468,6 +587,16 @@ public class XdmManager {
 	 * @return Response
 	 */
 	public HttpResponse setRcsList() {
+		return setRcsList(null);
+	}
+
+	/**
+	 * Set RCS list
+	 * 
+	 * @param batch Requests to be pipelined, or null to send the request now
+	 * @return Response, or null if the request has been added to the batch
+	 */
+	private HttpResponse setRcsList(Vector<HttpRequest> batch) {
 		try {
 			if (logger.isActivated()){
 				logger.info("Set RCS list");
@@ -494,6 +623,11 @@ public class XdmManager {
 	
 			// Create the request
 			HttpPutRequest request = new HttpPutRequest(url, content, "application/rls-services+xml");
+			if (batch != null) {
+				// Sent with the other requests of the batch
+				batch.addElement(request);
+				return null;
+			}
 
 			// Send the request
 			HttpResponse response = sendRequestToXDMS(request);
@@ -559,6 +693,16 @@ public class XdmManager {
 	 * @return Response
 	 */
 	public HttpResponse setResourcesList() {
+		return setResourcesList(null);
+	}
+
+	/**
+	 * Set resources list
+	 * 
+	 * @param batch Requests to be pipelined, or null to send the request now
+	 * @return Response, or null if the request has been added to the batch
+	 */
+	private HttpResponse setResourcesList(Vector<HttpRequest> batch) {
 		try {
 			if (logger.isActivated()){
 				logger.info("Set resources list");
@@ -603,6 +747,11 @@ public class XdmManager {
 			
 			// Create the request
 			HttpPutRequest request = new HttpPutRequest(url, content, "application/resource-lists+xml");
+			if (batch != null) {
+				// Sent with the other requests of the batch
+				batch.addElement(request);
+				return null;
+			}
 
 			// Send the request
 			HttpResponse response = sendRequestToXDMS(request);
@@ -668,6 +817,16 @@ public class XdmManager {
 	 * @return Response
 	 */
 	public HttpResponse setPresenceRules() {
+		return setPresenceRules(null);
+	}
+
+	/**
+	 * Set presence rules
+	 * 
+	 * @param batch Requests to be pipelined, or null to send the request now
+	 * @return Response, or null if the request has been added to the batch
+	 */
+	private HttpResponse setPresenceRules(Vector<HttpRequest> batch) {
 		try {
 			if (logger.isActivated()){
 				logger.info("Set presence rules");
@@ -738,6 +897,11 @@ public class XdmManager {
 			
 			// Create the request
 			HttpPutRequest request = new HttpPutRequest(url, content, "application/auth-policy+xml");
+			if (batch != null) {
+				// Sent with the other requests of the batch
+				batch.addElement(request);
+				return null;
+			}
 
 			// Send the request
 			HttpResponse response = sendRequestToXDMS(request);
@@ -803,6 +967,56 @@ public class XdmManager {
 		}
 	}
 
+	/**
+	 * Grant a contact: the contact is removed from the blocked and revoked
+	 * contacts lists and added to the granted contacts list, the three
+	 * requests being sent at once
+	 * 
+	 * @param contact Contact
+	 * @return Response of the granted contacts list update
+	 */
+	public HttpResponse grantContact(String contact) {
+		try {
+			if (logger.isActivated()){
+				logger.info("Grant " + contact);
+			}
+	
+			// URLs
+			String url = "/resource-lists/users/" +
+					HttpUtils.encodeURL(ImsModule.IMS_USER_PROFILE.getPublicUri()) + 
+					"/index/~~/resource-lists/list%5B@name=%22";
+			String entry = "%22%5D/entry%5B@uri=%22" + HttpUtils.encodeURL(contact) + "%22%5D";
+			
+			// Content
+			String content = "<entry uri='" + contact + "'></entry>";
+			
+			// Create the requests
+			HttpRequest[] requests = {
+					new HttpDeleteRequest(url + "rcs_blockedcontacts" + entry),
+					new HttpDeleteRequest(url + "rcs_revokedcontacts" + entry),
+					new HttpPutRequest(url + "rcs" + entry, content, "application/xcap-el+xml")
+			};
+
+			// Send the requests
+			HttpResponse response = sendRequestsToXDMS(requests)[2];
+			if (response.isSuccessfullResponse()) {
+				if (logger.isActivated()){
+					logger.info(contact + " has been granted with success");
+				}
+			} else {
+				if (logger.isActivated()){
+					logger.info("Can't grant " + contact + ": " + response.getResponseCode() + " error");
+				}
+			}
+			return response;
+		} catch(CoreException e) {
+			if (logger.isActivated()) {
+				logger.error("Can't grant " + contact + ": unexpected exception", e);
+			}
+			return null;
+		}
+	}
+
 	/**
 	 * Remove a contact from the granted contacts list
 	 * 
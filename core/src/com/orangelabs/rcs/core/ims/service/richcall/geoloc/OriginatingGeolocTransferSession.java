@@ -245,6 +245,13 @@ public class OriginatingGeolocTransferSession extends GeolocTransferSession impl
 	public void msrpDataReceived(String msgId, byte[] data, String mimeType) {
 		// Not used in originating side
 	}
+
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Not used for geolocation sharing
+	}
     
 	/**
 	 * Data transfer in progress
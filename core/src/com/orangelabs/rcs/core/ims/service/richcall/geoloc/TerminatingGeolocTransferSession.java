@@ -357,6 +357,13 @@ public class TerminatingGeolocTransferSession extends GeolocTransferSession impl
 	    	}
 	   	}
 	}
+
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Not used
+	}
     
 	/**
 	 * Data transfer in progress
@@ -290,6 +290,13 @@ public class OriginatingImageTransferSession extends ImageTransferSession implem
 	public void msrpDataReceived(String msgId, byte[] data, String mimeType) {
 		// Not used in originating side
 	}
+
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Not used here
+	}
     
 	/**
 	 * Data transfer in progress
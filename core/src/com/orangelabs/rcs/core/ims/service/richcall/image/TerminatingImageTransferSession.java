@@ -396,6 +396,13 @@ public class TerminatingImageTransferSession extends ImageTransferSession implem
 	    	}
 	   	}
 	}
+
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Not used
+	}
     
 	/**
 	 * Data transfer in progress
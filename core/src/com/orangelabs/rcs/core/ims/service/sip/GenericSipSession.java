@@ -251,6 +251,13 @@ public abstract class GenericSipSession extends ImsServiceSession implements Msr
             ((SipSessionListener)getListeners().get(i)).handleReceiveData(data);
         }
 	}
+
+	/**
+	 * No more received data is immediately available
+	 */
+	public void msrpDataReceptionIdle() {
+		// Not used here
+	}
     
 	/* (non-Javadoc)
 	 * @see com.orangelabs.rcs.core.ims.protocol.msrp.MsrpEventListener#msrpTransferProgress(long, long)
@@ -24,6 +24,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 
 import android.media.MediaScannerConnection;
 import android.media.MediaScannerConnection.MediaScannerConnectionClient;
@@ -66,6 +67,19 @@ public class AndroidFileFactory extends FileFactory {
 		File file = new File(url);
 		return new FileOutputStream(file);
 	}
+
+	/**
+	 * Open a random access file
+	 * 
+	 * @param url URL
+	 * @param mode Access mode ("r" or "rw")
+	 * @return Random access file
+	 * @throws IOException
+	 */
+	public RandomAccessFile openRandomAccessFile(String url, String mode) throws IOException {
+		File file = new File(url);
+		return new RandomAccessFile(file, mode);
+	}
 	
 	/**
 	 * Returns the description of a file
@@ -94,6 +108,17 @@ public class AndroidFileFactory extends FileFactory {
 		return file.exists();
 	}
 
+	/**
+	 * Delete a file
+	 * 
+	 * @param url URL of the file
+	 * @return true if the file has been deleted
+	 */
+	public boolean deleteFile(String url) {
+		File file = new File(url);
+		return file.delete();
+	}
+
 	/**
 	 * Update the media storage
 	 * 
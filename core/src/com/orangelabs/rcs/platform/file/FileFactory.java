@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 
 /**
  * File factory
@@ -80,6 +81,16 @@ public abstract class FileFactory {
 	 * @throws IOException
 	 */
 	public abstract OutputStream openFileOutputStream(String url) throws IOException;
+
+	/**
+	 * Open a random access file
+	 * 
+	 * @param url URL
+	 * @param mode Access mode ("r" or "rw")
+	 * @return Random access file
+	 * @throws IOException
+	 */
+	public abstract RandomAccessFile openRandomAccessFile(String url, String mode) throws IOException;
 	
 	/**
 	 * Returns the description of a file
@@ -105,6 +116,14 @@ public abstract class FileFactory {
 	 */
 	public abstract boolean fileExists(String url);
 	
+	/**
+	 * Delete a file
+	 * 
+	 * @param url URL of the file
+	 * @return true if the file has been deleted
+	 */
+	public abstract boolean deleteFile(String url);
+	
 	/**
 	 * Create a directory if not already exist
 	 * 
@@ -38,6 +38,11 @@ public class AndroidDatagramConnection implements DatagramConnection {
      * Datagram Packet
      */
     private DatagramPacket packet = null;
+
+    /**
+     * Datagram Packet used to receive in the caller's buffers
+     */
+    private DatagramPacket bufferPacket = null;
 
     /**
      * Connection timeout
@@ -115,6 +120,27 @@ public class AndroidDatagramConnection implements DatagramConnection {
 		}
 	}
 
+	/**
+	 * Receive data in the given buffer
+	 *
+	 * @param buffer Buffer in which the datagram is received
+	 * @return Length of the received datagram
+	 * @throws IOException
+	 */
+	public int receive(byte[] buffer) throws IOException {
+		if (connection != null) {
+            if (bufferPacket == null) {
+                bufferPacket = new DatagramPacket(buffer, buffer.length);
+            } else {
+                bufferPacket.setData(buffer, 0, buffer.length);
+            }
+            connection.receive(bufferPacket);
+			return bufferPacket.getLength();
+		} else {
+			throw new IOException("Connection not opened");
+		}
+	}
+
 	/**
 	 * Send data
 	 * 
@@ -71,6 +71,15 @@ public interface DatagramConnection {
 	 */
 	public byte[] receive() throws IOException;
 
+	/**
+	 * Receive data in the given buffer, without allocating a new array
+	 * 
+	 * @param buffer Buffer in which the datagram is received (truncated to the buffer size)
+	 * @return Length of the received datagram
+	 * @throws IOException
+	 */
+	public int receive(byte[] buffer) throws IOException;
+
 	/**
 	 * Returns the local address
 	 * 
@@ -0,0 +1,343 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.provider.eab;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.orangelabs.rcs.core.ims.service.capability.Capabilities;
+
+/**
+ * In-memory cache of the contacts capabilities, indexed by contact number in
+ * international format. The least recently used entries are evicted when the
+ * cache is full. An entry modified in the cache is dirty until its
+ * modifications have been written in the database: a dirty entry is never
+ * evicted nor replaced by the content of the database. Each modification gives
+ * a new version to the entry, so that an entry modified while being written
+ * remains dirty. The entries are copied in and out of the cache.
+ *
+ * @author Jean-Marc AUFFRET
+ */
+public class ContactCapabilityCache {
+	/**
+	 * Maximum number of entries which are not dirty
+	 */
+	private static final int MAX_ENTRIES = 2000;
+
+	/**
+	 * Entries in access order
+	 */
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return (size() > MAX_ENTRIES) && !eldest.getValue().dirty;
+		}
+	};
+
+	/**
+	 * Number of dirty entries
+	 */
+	private int dirtyCount = 0;
+
+	/**
+	 * A write of the dirty entries has been requested
+	 */
+	private boolean writePending = false;
+
+	/**
+	 * Version of the last modification
+	 */
+	private long version = 0;
+
+	/**
+	 * Constructor
+	 */
+	public ContactCapabilityCache() {
+	}
+
+	/**
+	 * Returns a copy of the entry of a contact
+	 *
+	 * @param contact Contact number
+	 * @return Entry or null if the contact is not in the cache
+	 */
+	public synchronized Entry get(String contact) {
+		Entry entry = entries.get(contact);
+		if (entry == null) {
+			return null;
+		}
+		return new Entry(entry);
+	}
+
+	/**
+	 * Put the entry of a contact read from or written in the database. A dirty
+	 * entry is not replaced as it contains more recent modifications.
+	 *
+	 * @param contact Contact number
+	 * @param capabilities Capabilities
+	 * @param rcsStatus RCS status
+	 * @param registrationState Registration state
+	 */
+	public synchronized void put(String contact, Capabilities capabilities, int rcsStatus, int registrationState) {
+		Entry entry = entries.get(contact);
+		if ((entry != null) && entry.dirty) {
+			return;
+		}
+		entries.put(contact, new Entry(contact, new Capabilities(capabilities), rcsStatus, registrationState));
+	}
+
+	/**
+	 * Put the entry of a contact read from the database if the contact is not
+	 * in the cache. An entry already in the cache is at least as recent as the
+	 * database, whether it is dirty or not.
+	 *
+	 * @param contact Contact number
+	 * @param capabilities Capabilities
+	 * @param rcsStatus RCS status
+	 * @param registrationState Registration state
+	 * @return Copy of the entry already in the cache or null if the entry has been put
+	 */
+	public synchronized Entry putIfAbsent(String contact, Capabilities capabilities, int rcsStatus, int registrationState) {
+		Entry entry = entries.get(contact);
+		if (entry != null) {
+			return new Entry(entry);
+		}
+		entries.put(contact, new Entry(contact, new Capabilities(capabilities), rcsStatus, registrationState));
+		return null;
+	}
+
+	/**
+	 * Modify the entry of a contact, the entry being dirty until written in the
+	 * database
+	 *
+	 * @param contact Contact number
+	 * @param capabilities Capabilities
+	 * @param rcsStatus RCS status
+	 * @param registrationState Registration state
+	 * @return Returns true if a write of the dirty entries has to be requested
+	 */
+	public synchronized boolean update(String contact, Capabilities capabilities, int rcsStatus, int registrationState) {
+		Entry entry = entries.get(contact);
+		if ((entry == null) || !entry.dirty) {
+			dirtyCount++;
+		}
+		entry = new Entry(contact, new Capabilities(capabilities), rcsStatus, registrationState);
+		entry.dirty = true;
+		entry.version = ++version;
+		entries.put(contact, entry);
+		if (writePending) {
+			return false;
+		}
+		writePending = true;
+		return true;
+	}
+
+	/**
+	 * Modify the capabilities timestamp of a contact if it is in the cache
+	 *
+	 * @param contact Contact number
+	 * @param timestamp Timestamp
+	 */
+	public synchronized void setTimestamp(String contact, long timestamp) {
+		Entry entry = entries.get(contact);
+		if (entry != null) {
+			entry.capabilities.setTimestamp(timestamp);
+		}
+	}
+
+	/**
+	 * Returns a copy of the dirty entries to be written in the database. The
+	 * entries remain dirty until they are declared written.
+	 *
+	 * @return List of entries
+	 */
+	public synchronized List<Entry> getDirtyEntries() {
+		List<Entry> result = new ArrayList<Entry>(dirtyCount);
+		writePending = false;
+		if (dirtyCount == 0) {
+			return result;
+		}
+		for (Iterator<Entry> i = entries.values().iterator(); i.hasNext();) {
+			Entry entry = i.next();
+			if (entry.dirty) {
+				result.add(new Entry(entry));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a copy of the entry of a contact if it is dirty. The entry
+	 * remains dirty until it is declared written.
+	 *
+	 * @param contact Contact number
+	 * @return Entry or null if the contact has no dirty entry
+	 */
+	public synchronized Entry getDirtyEntry(String contact) {
+		Entry entry = entries.get(contact);
+		if ((entry == null) || !entry.dirty) {
+			return null;
+		}
+		return new Entry(entry);
+	}
+
+	/**
+	 * An entry has been written in the database: it is not dirty anymore
+	 * unless it has been modified since it was read from the cache
+	 *
+	 * @param written Copy of the entry which has been written
+	 */
+	public synchronized void written(Entry written) {
+		Entry entry = entries.get(written.contact);
+		if ((entry != null) && entry.dirty && (entry.version == written.version)) {
+			entry.dirty = false;
+			dirtyCount--;
+		}
+	}
+
+	/**
+	 * Remove the entry of a contact
+	 *
+	 * @param contact Contact number
+	 */
+	public synchronized void remove(String contact) {
+		Entry entry = entries.remove(contact);
+		if ((entry != null) && entry.dirty) {
+			dirtyCount--;
+		}
+	}
+
+	/**
+	 * Remove all the entries
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		dirtyCount = 0;
+	}
+
+	/**
+	 * Cache entry
+	 */
+	public static class Entry {
+		/**
+		 * Contact number
+		 */
+		private String contact;
+
+		/**
+		 * Capabilities
+		 */
+		private Capabilities capabilities;
+
+		/**
+		 * RCS status
+		 */
+		private int rcsStatus;
+
+		/**
+		 * Registration state
+		 */
+		private int registrationState;
+
+		/**
+		 * Modified and not yet written in the database
+		 */
+		private boolean dirty = false;
+
+		/**
+		 * Version of the last modification
+		 */
+		private long version = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param contact Contact number
+		 * @param capabilities Capabilities
+		 * @param rcsStatus RCS status
+		 * @param registrationState Registration state
+		 */
+		private Entry(String contact, Capabilities capabilities, int rcsStatus, int registrationState) {
+			this.contact = contact;
+			this.capabilities = capabilities;
+			this.rcsStatus = rcsStatus;
+			this.registrationState = registrationState;
+		}
+
+		/**
+		 * Constructor
+		 *
+		 * @param entry Entry to be copied
+		 */
+		private Entry(Entry entry) {
+			this(entry.contact, new Capabilities(entry.capabilities), entry.rcsStatus, entry.registrationState);
+			this.dirty = entry.dirty;
+			this.version = entry.version;
+		}
+
+		/**
+		 * Returns the contact number
+		 *
+		 * @return Contact number
+		 */
+		public String getContact() {
+			return contact;
+		}
+
+		/**
+		 * Returns the capabilities
+		 *
+		 * @return Capabilities
+		 */
+		public Capabilities getCapabilities() {
+			return capabilities;
+		}
+
+		/**
+		 * Returns the RCS status
+		 *
+		 * @return RCS status
+		 */
+		public int getRcsStatus() {
+			return rcsStatus;
+		}
+
+		/**
+		 * Returns the registration state
+		 *
+		 * @return Registration state
+		 */
+		public int getRegistrationState() {
+			return registrationState;
+		}
+
+		/**
+		 * Is modified and not yet written in the database
+		 *
+		 * @return Boolean
+		 */
+		public boolean isDirty() {
+			return dirty;
+		}
+	}
+}
@@ -69,6 +69,7 @@ import com.orangelabs.rcs.core.ims.service.presence.PhotoIcon;
 import com.orangelabs.rcs.core.ims.service.presence.PresenceInfo;
 import com.orangelabs.rcs.provider.settings.RcsSettings;
 import com.orangelabs.rcs.utils.PhoneUtils;
+import com.orangelabs.rcs.utils.TimerService;
 import com.orangelabs.rcs.utils.logger.Logger;
 
 /**
@@ -93,6 +94,21 @@ public final class ContactsManager {
      */
 	private static final int INVALID_ID = -1;
 
+	/**
+	 * Maximum number of arguments of a SQL selection
+	 */
+	private static final int MAX_SQL_ARGUMENTS = 500;
+
+	/**
+	 * Delay before writing the capabilities modified in the cache (in milliseconds)
+	 */
+	private static final long CAPABILITY_WRITE_DELAY = 1000;
+
+	/**
+	 * Maximum number of operations applied in a single batch
+	 */
+	private static final int MAX_BATCH_OPERATIONS = 400;
+
     /** 
      * MIME type for contact number
      */
@@ -283,6 +299,16 @@ public final class ContactsManager {
      */
     private static final String MYSELF = "myself";
     
+	/**
+	 * Capabilities cache
+	 */
+	private ContactCapabilityCache capabilityCache = new ContactCapabilityCache();
+
+	/**
+	 * Lock serializing the writes of the capabilities cache
+	 */
+	private Object capabilityWriteLock = new Object();
+
 	/**
 	 * The logger
 	 */
@@ -495,11 +521,32 @@ public final class ContactsManager {
 	 * @throws ContactsManagerException
 	 */
 	public void setContactInfo(ContactInfo newInfo, ContactInfo oldInfo) throws ContactsManagerException {
+		// May be called from outside the core, so be sure the number format is international before doing the queries
+		String contact = PhoneUtils.extractNumberFromUri(newInfo.getContact());
+
+		// Write first the capabilities modified in the cache, so that the old info is the one of the database
+		writeCachedCapabilities(contact);
+
+		ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+		writeContactInfo(newInfo, oldInfo, ops, true);
+		applyContactOperations(ops);
+		capabilityCache.put(contact, newInfo.getCapabilities(), newInfo.getRcsStatus(), newInfo.getRegistrationState());
+	}
+
+	/**
+	 * Write the info of a contact in the rich address book and prepare the
+	 * modifications of the native raw contacts
+	 * 
+	 * @param newInfo New contact info
+	 * @param oldInfo Old contact info
+	 * @param ops Modifications of the native raw contacts to be completed
+	 * @param savePhoto Save the presence photo content
+	 */
+	private void writeContactInfo(ContactInfo newInfo, ContactInfo oldInfo, ArrayList<ContentProviderOperation> ops, boolean savePhoto) {
 		if (logger.isActivated()) {
 			logger.info("Set contact info for " + newInfo.getContact());
 		}
 
-		// May be called from outside the core, so be sure the number format is international before doing the queries
 		String contact = PhoneUtils.extractNumberFromUri(newInfo.getContact());
 
 		// Check if we have an entry for the contact
@@ -604,7 +651,7 @@ public final class ContactsManager {
         }
 
         // Save presence photo content
-        if (photoIcon != null) {
+        if (savePhoto && (photoIcon != null)) {
             byte photoContent[] = photoIcon.getContent();
             if (photoContent != null) {
                 int rowId = getProfileRowId(contact);
@@ -634,7 +681,6 @@ public final class ContactsManager {
         }
 
         // For each, prepare the modifications
-        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
         for (int i = 0; i < rawContactIds.size(); i++) {
             long rawContactId = rawContactIds.get(i);
             // Get the associated RCS raw contact id
@@ -790,6 +836,15 @@ public final class ContactsManager {
 			}
 		}
 		
+	}
+
+	/**
+	 * Apply the modifications of the native raw contacts
+	 * 
+	 * @param ops Modifications
+	 * @throws ContactsManagerException
+	 */
+	private void applyContactOperations(ArrayList<ContentProviderOperation> ops) throws ContactsManagerException {
 		if (!ops.isEmpty()){
 			// Do the actual database modifications
 			try {
@@ -808,6 +863,114 @@ public final class ContactsManager {
 		}
 	}
 
+	/**
+	 * Write the capabilities modified in the cache, the modifications of the
+	 * native raw contacts being applied in batches
+	 */
+	private void writeCachedCapabilities() {
+		synchronized(capabilityWriteLock) {
+			List<ContactCapabilityCache.Entry> entries = capabilityCache.getDirtyEntries();
+			if (entries.isEmpty()) {
+				return;
+			}
+			if (logger.isActivated()) {
+				logger.debug("Write the capabilities of " + entries.size() + " contacts");
+			}
+			ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+			int first = 0;
+			for (int i=0; i < entries.size(); i++) {
+				writeCachedCapabilities(entries.get(i), ops);
+				if ((ops.size() >= MAX_BATCH_OPERATIONS) || (i == entries.size() - 1)) {
+					try {
+						applyContactOperations(ops);
+
+						// The entries of the batch are not dirty anymore
+						for (int j=first; j <= i; j++) {
+							capabilityCache.written(entries.get(j));
+						}
+					} catch (ContactsManagerException e) {
+						// Already traced, the entries remain dirty
+					}
+					ops.clear();
+					first = i + 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Write the capabilities of a contact if they have been modified in the cache
+	 * 
+	 * @param contact Contact number
+	 */
+	private void writeCachedCapabilities(String contact) {
+		synchronized(capabilityWriteLock) {
+			ContactCapabilityCache.Entry entry = capabilityCache.getDirtyEntry(contact);
+			if (entry == null) {
+				return;
+			}
+			ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+			writeCachedCapabilities(entry, ops);
+			try {
+				applyContactOperations(ops);
+				capabilityCache.written(entry);
+			} catch (ContactsManagerException e) {
+				// Already traced, the entry remains dirty
+			}
+		}
+	}
+
+	/**
+	 * Write the capabilities of a cache entry in the rich address book and
+	 * prepare the modifications of the native raw contacts
+	 * 
+	 * @param entry Cache entry
+	 * @param ops Modifications of the native raw contacts to be completed
+	 */
+	private void writeCachedCapabilities(ContactCapabilityCache.Entry entry, ArrayList<ContentProviderOperation> ops) {
+		ContactInfo oldInfo = readContactInfo(entry.getContact());
+		ContactInfo newInfo = new ContactInfo(oldInfo);
+		newInfo.setRcsStatus(entry.getRcsStatus());
+		newInfo.setRegistrationState(entry.getRegistrationState());
+		newInfo.setCapabilities(entry.getCapabilities());
+		writeContactInfo(newInfo, oldInfo, ops, false);
+	}
+
+	/**
+	 * Modify the capabilities of a contact in the cache, they are written in
+	 * the database later on
+	 * 
+	 * @param contact Contact number
+	 * @param capabilities Capabilities
+	 * @param rcsStatus RCS status
+	 * @param registrationState Registration state
+	 */
+	private void updateCachedCapabilities(String contact, Capabilities capabilities, int rcsStatus, int registrationState) {
+		if (capabilityCache.update(contact, capabilities, rcsStatus, registrationState)) {
+			TimerService.getInstance().schedule(new Runnable() {
+				public void run() {
+					writeCachedCapabilities();
+				}
+			}, CAPABILITY_WRITE_DELAY);
+		}
+	}
+
+	/**
+	 * Returns the capabilities of a contact from the cache, they are read from
+	 * the database if the contact is not in the cache
+	 * 
+	 * @param contact Contact number
+	 * @return Cache entry
+	 */
+	private ContactCapabilityCache.Entry getCachedCapabilities(String contact) {
+		ContactCapabilityCache.Entry entry = capabilityCache.get(contact);
+		if (entry == null) {
+			getContactInfo(contact);
+			entry = capabilityCache.get(contact);
+		}
+		return entry;
+	}
+
 	/**
 	 * Set the photo-icon of a contact in the EAB
 	 * 
@@ -871,7 +1034,26 @@ public final class ContactsManager {
 	public ContactInfo getContactInfo(String contact) {
 		// May be called from outside the core, so be sure the number format is international before doing the queries 
 		contact = PhoneUtils.extractNumberFromUri(contact);
-		
+
+		ContactInfo infos = readContactInfo(contact);
+		ContactCapabilityCache.Entry entry = capabilityCache.putIfAbsent(contact, infos.getCapabilities(),
+				infos.getRcsStatus(), infos.getRegistrationState());
+		if (entry != null) {
+			// The capabilities of the cache may not be written in the database yet
+			infos.setRcsStatus(entry.getRcsStatus());
+			infos.setRegistrationState(entry.getRegistrationState());
+			infos.setCapabilities(entry.getCapabilities());
+		}
+		return infos;
+	}
+
+	/**
+	 * Read the infos of a contact in the EAB
+	 *  	
+	 * @param contact Contact number
+	 * @return Contact info
+	 */
+	private ContactInfo readContactInfo(String contact) {
 		ContactInfo infos = new ContactInfo();
 		infos.setRcsStatus(ContactInfo.NO_INFO);
 		infos.setRcsStatusTimestamp(System.currentTimeMillis());
@@ -1320,6 +1502,7 @@ public final class ContactsManager {
 	public void flushContactProvider(){
 		String where = RichAddressBookData.KEY_CONTACT_NUMBER +"<> NULL";
 		ctx.getContentResolver().delete(RichAddressBookData.CONTENT_URI, where, null);
+		capabilityCache.clear();
 	}
 	
 	/**
@@ -1531,6 +1714,7 @@ public final class ContactsManager {
 		ctx.getContentResolver().delete(RichAddressBookData.CONTENT_URI, 
 				RichAddressBookData.KEY_CONTACT_NUMBER +"=?" + " AND " + RichAddressBookData.KEY_PRESENCE_SHARING_STATUS + "=?",
 				new String[]{contact, Integer.toString(ContactInfo.RCS_CANCELLED)});
+		capabilityCache.remove(contact);
 	}
 	
 	/**
@@ -2410,9 +2594,8 @@ public final class ContactsManager {
         
 		contact = PhoneUtils.extractNumberFromUri(contact);
 
-		// Get the current information on this contact 
-		ContactInfo oldInfo = getContactInfo(contact);
-		ContactInfo newInfo = new ContactInfo(oldInfo);
+		// The new information of the contact, used to set the capabilities
+		ContactInfo newInfo = new ContactInfo();
 		
 		// Set the contact type 
 		newInfo.setRcsStatus(contactType);
@@ -2473,17 +2656,8 @@ public final class ContactsManager {
 		// IP video call
 		capabilities.setIPVideoCallSupport(capabilities.isIPVideoCallSupported() && isRegistered);
 		
-		// Add the capabilities
-		newInfo.setCapabilities(capabilities);
-
-		// Save the modifications
-		try {
-			setContactInfo(newInfo, oldInfo);
-		} catch (ContactsManagerException e) {
-			if (logger.isActivated()){
-				logger.error("Could not save the contact modifications",e);
-			}
-		}
+		// Save the modifications in the cache, they are written in the database later on
+		updateCachedCapabilities(contact, capabilities, contactType, registrationState);
 	}
 	
 	/**
@@ -2497,19 +2671,10 @@ public final class ContactsManager {
 		contact = PhoneUtils.extractNumberFromUri(contact);
 
 		// Get the current information on this contact 
-		ContactInfo oldInfo = getContactInfo(contact);
-		ContactInfo newInfo = new ContactInfo(oldInfo);
+		ContactCapabilityCache.Entry entry = getCachedCapabilities(contact);
 		
-		newInfo.setCapabilities(capabilities);
-		
-		// Save the modifications
-		try {
-			setContactInfo(newInfo, oldInfo);
-		} catch (ContactsManagerException e) {
-			if (logger.isActivated()){
-				logger.error("Could not save the contact modifications",e);
-			}
-		}
+		// Save the modifications in the cache, they are written in the database later on
+		updateCachedCapabilities(contact, capabilities, entry.getRcsStatus(), entry.getRegistrationState());
 	}
 	
 	/**
@@ -2520,11 +2685,11 @@ public final class ContactsManager {
 	 * @return capabilities
 	 */
 	public Capabilities getContactCapabilities(String contact){
-		ContactInfo contactInfo = getContactInfo(contact);
-		if (contactInfo.getRcsStatus()==ContactInfo.NO_INFO){
+		ContactCapabilityCache.Entry entry = getCachedCapabilities(PhoneUtils.extractNumberFromUri(contact));
+		if (entry.getRcsStatus()==ContactInfo.NO_INFO){
 			return null;
 		} else {
-			return contactInfo.getCapabilities();
+			return entry.getCapabilities();
 		}
 	}
 	
@@ -2538,20 +2703,98 @@ public final class ContactsManager {
 		if (logger.isActivated()){
 			logger.debug("Setting contact capabilities timestamp for "+contact +" to "+timestamp);
 		}
-		ContactInfo oldInfo = getContactInfo(contact);
-		ContactInfo newInfo = new ContactInfo(oldInfo);
-		Capabilities capabilities = newInfo.getCapabilities();
+		contact = PhoneUtils.extractNumberFromUri(contact);
+		ContactCapabilityCache.Entry entry = getCachedCapabilities(contact);
+		Capabilities capabilities = entry.getCapabilities();
 		capabilities.setTimestamp(timestamp);
-		newInfo.setCapabilities(capabilities);
+		updateCachedCapabilities(contact, capabilities, entry.getRcsStatus(), entry.getRegistrationState());
+	}
+	
+	/**
+	 * Set the capabilities timestamp of several contacts in a single transaction
+	 * per provider
+	 * 
+	 * @param contacts List of contacts
+	 * @param timestamp Timestamp
+	 */
+	public void setContactsCapabilitiesTimestamp(List<String> contacts, long timestamp) {
+		if (contacts.isEmpty()) {
+			return;
+		}
+		if (logger.isActivated()){
+			logger.debug("Setting contacts capabilities timestamp for " + contacts.size() + " contacts to " + timestamp);
+		}
+
+		// Update the rich address book, by groups of contacts to limit the number of SQL arguments
+		ContentValues values = new ContentValues();
+		values.put(RichAddressBookData.KEY_CAPABILITY_TIMESTAMP, timestamp);
+		for (int i=0; i < contacts.size(); i += MAX_SQL_ARGUMENTS) {
+			int count = Math.min(MAX_SQL_ARGUMENTS, contacts.size() - i);
+			String[] args = new String[count];
+			StringBuilder selection = new StringBuilder(RichAddressBookData.KEY_CONTACT_NUMBER + " IN (");
+			for (int j=0; j < count; j++) {
+				args[j] = PhoneUtils.extractNumberFromUri(contacts.get(i + j));
+				selection.append((j == 0) ? "?" : ",?");
+				capabilityCache.setTimestamp(args[j], timestamp);
+			}
+			selection.append(")");
+			ctx.getContentResolver().update(RichAddressBookData.CONTENT_URI, values, selection.toString(), args);
+		}
+
+		// Update the native RCS raw contacts
+		ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+		for (int i=0; i < contacts.size(); i++) {
+			ops.add(ContentProviderOperation.newUpdate(Data.CONTENT_URI)
+					.withSelection(Data.MIMETYPE + "=? AND " + Data.DATA1 + "=?", new String[]{MIMETYPE_CAPABILITY_TIMESTAMP, PhoneUtils.extractNumberFromUri(contacts.get(i))})
+					.withValue(Data.DATA2, timestamp)
+					.build());
+		}
 		try {
-			setContactInfo(newInfo, oldInfo);
-		} catch (ContactsManagerException e) {
+			ctx.getContentResolver().applyBatch(ContactsContract.AUTHORITY, ops);
+		} catch (Exception e) {
 			if (logger.isActivated()){
-				logger.error("Could not update the contact capabilities timestamp",e);
+				logger.error("Could not update the contacts capabilities timestamp",e);
 			}
 		}
 	}
 	
+	/**
+	 * Get the capability state of all the contacts in the rich address book
+	 * provider, read in a single query: only the RCS status, the capabilities
+	 * timestamp and the presence discovery capability are set
+	 * 
+	 * @return List of contact infos
+	 */
+	public List<ContactInfo> getContactsCapabilityState() {
+		List<ContactInfo> infos = new ArrayList<ContactInfo>();
+		String[] projection = {
+				RichAddressBookData.KEY_CONTACT_NUMBER,
+				RichAddressBookData.KEY_RCS_STATUS,
+				RichAddressBookData.KEY_CAPABILITY_TIMESTAMP,
+				RichAddressBookData.KEY_CAPABILITY_PRESENCE_DISCOVERY
+		};
+		Cursor cur = ctx.getContentResolver().query(RichAddressBookData.CONTENT_URI, 
+				projection, 
+				null, 
+				null, 
+				null);
+		if (cur == null) {
+			return infos;
+		}
+		while (cur.moveToNext()) {
+			ContactInfo info = new ContactInfo();
+			info.setContact(cur.getString(0));
+			info.setRcsStatus(cur.getInt(1));
+			Capabilities capabilities = new Capabilities();
+			capabilities.setTimestamp(cur.getLong(2));
+			capabilities.setPresenceDiscoverySupport(getCapabilityFromColumn(cur, RichAddressBookData.KEY_CAPABILITY_PRESENCE_DISCOVERY));
+			info.setCapabilities(capabilities);
+			infos.add(info);
+		}
+		cur.close();
+		return infos;
+	}
+	
 	/**
 	 * Modify the RCS capability timestamp for the contact
 	 * 
@@ -4161,6 +4404,7 @@ public final class ContactsManager {
 	                ctx.getContentResolver().delete(RichAddressBookData.CONTENT_URI,
 	                        where,
 	                        selectionArg);
+	                capabilityCache.remove(phoneNumber);
 	            }
 	        }
 	    } catch (Exception e) {
@@ -4223,6 +4467,7 @@ public final class ContactsManager {
 
         // Delete presence data
         ctx.getContentResolver().delete(RichAddressBookData.CONTENT_URI, null, null);
+        capabilityCache.clear();
     }
     
     /**
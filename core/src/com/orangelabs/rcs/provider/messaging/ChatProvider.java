@@ -18,12 +18,17 @@
 
 package com.orangelabs.rcs.provider.messaging;
 
+import java.util.ArrayList;
+
 import com.orangelabs.rcs.utils.PhoneUtils;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -83,7 +88,7 @@ public class ChatProvider extends ContentProvider {
      * Helper class for opening, creating and managing database version control
      */
     private static class DatabaseHelper extends SQLiteOpenHelper {
-        private static final int DATABASE_VERSION = 9;
+        private static final int DATABASE_VERSION = 10;
 
         public DatabaseHelper(Context ctx) {
             super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
@@ -117,11 +122,34 @@ public class ChatProvider extends ContentProvider {
         			+ MessageData.KEY_TIMESTAMP_DELIVERED + " long,"
         			+ MessageData.KEY_TIMESTAMP_DISPLAYED + " long,"
         			+ MessageData.KEY_FT_ID + " TEXT);");
+        	createIndexes(db);
+        }
+
+        /**
+         * Create the indexes of the columns used to look up the chats and
+         * the messages
+         * 
+         * @param db Database
+         */
+        private void createIndexes(SQLiteDatabase db) {
+        	db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_CHAT + "_" + ChatData.KEY_CHAT_ID + "_idx ON "
+        			+ TABLE_CHAT + "(" + ChatData.KEY_CHAT_ID + ");");
+        	db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_MESSAGE + "_" + MessageData.KEY_MSG_ID + "_idx ON "
+        			+ TABLE_MESSAGE + "(" + MessageData.KEY_MSG_ID + ");");
+        	db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_MESSAGE + "_" + MessageData.KEY_CHAT_ID + "_idx ON "
+        			+ TABLE_MESSAGE + "(" + MessageData.KEY_CHAT_ID + ");");
+        	db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE_MESSAGE + "_" + MessageData.KEY_FT_ID + "_idx ON "
+        			+ TABLE_MESSAGE + "(" + MessageData.KEY_FT_ID + ");");
         }
         // @formatter:on
         
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int currentVersion) {
+        	if (oldVersion == 9) {
+        		// Same tables: only the indexes are added
+        		createIndexes(db);
+        		return;
+        	}
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_CHAT);
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_MESSAGE);
             onCreate(db);
@@ -225,6 +253,35 @@ public class ChatProvider extends ContentProvider {
         return count;
     }
 
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Apply all the operations in a single transaction
+        SQLiteDatabase db = openHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        // Insert all the rows in a single transaction
+        SQLiteDatabase db = openHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int count = super.bulkInsert(uri, values);
+            db.setTransactionSuccessful();
+            return count;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
         SQLiteDatabase db = openHelper.getWritableDatabase();
@@ -1,9 +1,14 @@
 package com.orangelabs.rcs.provider.messaging;
 
+import java.util.ArrayList;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
@@ -53,7 +58,7 @@ public class FileTransferProvider extends ContentProvider {
      * Helper class for opening, creating and managing database version control
      */
     private static class DatabaseHelper extends SQLiteOpenHelper {
-        private static final int DATABASE_VERSION = 6;
+        private static final int DATABASE_VERSION = 7;
 
         public DatabaseHelper(Context ctx) {
             super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
@@ -78,11 +83,31 @@ public class FileTransferProvider extends ContentProvider {
         			+ FileTransferData.KEY_SIZE + " long,"
         			+ FileTransferData.KEY_TOTAL_SIZE + " long,"
         			+ FileTransferData.KEY_MSG_ID + " TEXT);");
+        	createIndexes(db);
+        }
+
+        /**
+         * Create the indexes of the columns used to look up the file transfers
+         * 
+         * @param db Database
+         */
+        private void createIndexes(SQLiteDatabase db) {
+        	db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE + "_" + FileTransferData.KEY_SESSION_ID + "_idx ON "
+        			+ TABLE + "(" + FileTransferData.KEY_SESSION_ID + ");");
+        	db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE + "_" + FileTransferData.KEY_CHAT_ID + "_idx ON "
+        			+ TABLE + "(" + FileTransferData.KEY_CHAT_ID + ");");
+        	db.execSQL("CREATE INDEX IF NOT EXISTS " + TABLE + "_" + FileTransferData.KEY_MSG_ID + "_idx ON "
+        			+ TABLE + "(" + FileTransferData.KEY_MSG_ID + ");");
         }
         // @formatter:on
         
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int currentVersion) {
+        	if (oldVersion == 6) {
+        		// Same table: only the indexes are added
+        		createIndexes(db);
+        		return;
+        	}
             db.execSQL("DROP TABLE IF EXISTS " + TABLE);
             onCreate(db);
         }
@@ -162,6 +187,21 @@ public class FileTransferProvider extends ContentProvider {
         return count;
     }
 
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Apply all the operations in a single transaction
+        SQLiteDatabase db = openHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues initialValues) {
         SQLiteDatabase db = openHelper.getWritableDatabase();
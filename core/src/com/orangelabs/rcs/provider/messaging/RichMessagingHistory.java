@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
@@ -76,6 +77,20 @@ public class RichMessagingHistory {
 	 * File transfer database URI
 	 */
 	private Uri ftDatabaseUri = FileTransferData.CONTENT_URI;
+
+	/**
+	 * Selections of the lookups on indexed columns: the values are bound as
+	 * arguments, so that the same compiled statement is reused by SQLite
+	 */
+	private static final String SELECTION_CHAT_ID = ChatData.KEY_CHAT_ID + " = ?";
+	private static final String SELECTION_MSG_ID = MessageData.KEY_MSG_ID + " = ?";
+	private static final String SELECTION_CHAT_AND_MSG_ID = MessageData.KEY_CHAT_ID + " = ? AND "
+			+ MessageData.KEY_MSG_ID + " = ?";
+	private static final String SELECTION_MSG_ID_AND_TYPE = MessageData.KEY_MSG_ID + " = ? AND "
+			+ MessageData.KEY_TYPE + " = ?";
+	private static final String SELECTION_CHAT_ID_AND_TYPE = MessageData.KEY_CHAT_ID + " = ? AND "
+			+ MessageData.KEY_TYPE + " = ?";
+	private static final String SELECTION_FT_ID = FileTransferData.KEY_SESSION_ID + " = ?";
 	
 	/**
 	 * The logger
@@ -188,8 +203,8 @@ public class RichMessagingHistory {
 		values.put(ChatData.KEY_STATUS, status);
 		cr.update(chatDatabaseUri, 
 				values, 
-				ChatData.KEY_CHAT_ID + " = '" + chatId + "'", 
-				null);
+				SELECTION_CHAT_ID, 
+				new String[] { chatId });
 	}
 	
 	/**
@@ -207,8 +222,8 @@ public class RichMessagingHistory {
 		values.put(ChatData.KEY_REJOIN_ID, rejoingId);
 		cr.update(chatDatabaseUri, 
 				values, 
-				ChatData.KEY_CHAT_ID + " = '" + chatId + "'", 
-				null);
+				SELECTION_CHAT_ID, 
+				new String[] { chatId });
 	}
 	
 	/**
@@ -229,8 +244,8 @@ public class RichMessagingHistory {
     				ChatData.KEY_PARTICIPANTS,
     				ChatData.KEY_SUBJECT
     			},
-    			"(" + ChatData.KEY_CHAT_ID + "='" + chatId + "')", 
-				null, 
+    			SELECTION_CHAT_ID, 
+				new String[] { chatId }, 
     			ChatData.KEY_TIMESTAMP + " DESC");
     	
     	if (cursor.moveToFirst()) {
@@ -262,9 +277,8 @@ public class RichMessagingHistory {
     			new String[] {
     				MessageData.KEY_CONTACT
     			},
-    			"(" + MessageData.KEY_CHAT_ID + "='" + chatId + "') AND (" + 
-    				MessageData.KEY_TYPE + "=" + ChatLog.Message.Type.SYSTEM + ")",
-    			null, 
+    			SELECTION_CHAT_ID_AND_TYPE,
+    			new String[] { chatId, String.valueOf(ChatLog.Message.Type.SYSTEM) }, 
     			MessageData.KEY_TIMESTAMP + " DESC");
     	while(cursor.moveToNext()) {
     		String participant = cursor.getString(0);
@@ -294,10 +308,7 @@ public class RichMessagingHistory {
 	 * @param direction Direction
 	 */
 	public void addChatMessage(InstantMessage msg, int direction) {
-		if (msg instanceof FileTransferMessage)
-			addChatMessage(msg, ChatLog.Message.Type.FILE_TRANSFER, direction);
-		else
-			addChatMessage(msg, ChatLog.Message.Type.CONTENT, direction);
+		addChatMessage(msg, getChatMessageType(msg), direction);
 	}
 	
 	/**
@@ -312,10 +323,55 @@ public class RichMessagingHistory {
 		if (logger.isActivated()) {
 			logger.debug("Add chat message: contact=" + contact + ", msg=" + msg.getMessageId() + ", dir=" + direction);
 		}
+		cr.insert(msgDatabaseUri, getChatMessageValues(contact, msg, type, direction));
+	}
+	
+	/**
+	 * Add several chat messages in a single transaction
+	 * 
+	 * @param msgs Chat messages
+	 * @param direction Direction
+	 */
+	public void addChatMessages(List<InstantMessage> msgs, int direction) {
+		if (logger.isActivated()) {
+			logger.debug("Add " + msgs.size() + " chat messages: dir=" + direction);
+		}
+		ContentValues[] values = new ContentValues[msgs.size()];
+		for (int i = 0; i < values.length; i++) {
+			InstantMessage msg = msgs.get(i);
+			values[i] = getChatMessageValues(PhoneUtils.extractNumberFromUri(msg.getRemote()), msg,
+					getChatMessageType(msg), direction);
+		}
+		cr.bulkInsert(msgDatabaseUri, values);
+	}
+	
+	/**
+	 * Get the type of a chat message
+	 * 
+	 * @param msg Chat message
+	 * @return Message type
+	 */
+	private static int getChatMessageType(InstantMessage msg) {
+		if (msg instanceof FileTransferMessage)
+			return ChatLog.Message.Type.FILE_TRANSFER;
+		else
+			return ChatLog.Message.Type.CONTENT;
+	}
+	
+	/**
+	 * Get the values to be inserted for a chat message
+	 * 
+	 * @param chatId Chat ID
+	 * @param msg Chat message
+	 * @param type Message type
+	 * @param direction Direction
+	 * @return Values
+	 */
+	private ContentValues getChatMessageValues(String chatId, InstantMessage msg, int type, int direction) {
 		ContentValues values = new ContentValues();
-		values.put(MessageData.KEY_CHAT_ID, contact);
+		values.put(MessageData.KEY_CHAT_ID, chatId);
 		values.put(MessageData.KEY_MSG_ID, msg.getMessageId());
-		values.put(MessageData.KEY_CONTACT, contact);
+		values.put(MessageData.KEY_CONTACT, PhoneUtils.extractNumberFromUri(msg.getRemote()));
 		values.put(MessageData.KEY_DIRECTION, direction);
 		values.put(MessageData.KEY_TYPE, type);
 
@@ -357,7 +413,7 @@ public class RichMessagingHistory {
 			values.put(MessageData.KEY_TIMESTAMP_DISPLAYED, 0);		
 			values.put(MessageData.KEY_STATUS, ChatLog.Message.Status.Content.SENT);
 		}
-		cr.insert(msgDatabaseUri, values);
+		return values;
 	}
 	
 	/**
@@ -371,56 +427,26 @@ public class RichMessagingHistory {
 		if (logger.isActivated()) {
 			logger.debug("Add group chat message: chatID=" + chatId + ", msg=" + msg.getMessageId() + ", dir=" + direction);
 		}
-		
-		ContentValues values = new ContentValues();
-		values.put(MessageData.KEY_CHAT_ID, chatId);
-		values.put(MessageData.KEY_MSG_ID, msg.getMessageId());
-		values.put(MessageData.KEY_CONTACT, PhoneUtils.extractNumberFromUri(msg.getRemote()));
-		values.put(MessageData.KEY_DIRECTION, direction);
-		if (msg instanceof FileTransferMessage)
-			values.put(MessageData.KEY_TYPE, ChatLog.Message.Type.FILE_TRANSFER);
-		else
-			values.put(MessageData.KEY_TYPE, ChatLog.Message.Type.CONTENT);
-		
-		byte[] blob = null;
-		if (msg instanceof GeolocMessage) {
-			values.put(MessageData.KEY_CONTENT_TYPE, com.gsma.services.rcs.chat.GeolocMessage.MIME_TYPE);
-			GeolocPush geoloc = ((GeolocMessage)msg).getGeoloc();
-			Geoloc geolocApi = new Geoloc(geoloc.getLabel(),
-					geoloc.getLatitude(), geoloc.getLongitude(),
-					geoloc.getExpiration(), geoloc.getAccuracy());
-			blob = serializeGeoloc(geolocApi);
-		}  else if (msg instanceof FileTransferMessage) {
-			values.put(MessageData.KEY_CONTENT_TYPE, FileTransferMessage.MIME_TYPE);
-			blob = serializePlainText(((FileTransferMessage)msg).getFileInfo()); 
-		} else {
-			values.put(MessageData.KEY_CONTENT_TYPE, com.gsma.services.rcs.chat.ChatMessage.MIME_TYPE);
-			blob = serializePlainText(msg.getTextMessage()); 
-		}
-		if (blob != null) {
-			values.put(MessageData.KEY_CONTENT, blob);
+		cr.insert(msgDatabaseUri, getChatMessageValues(chatId, msg, getChatMessageType(msg), direction));
+	}
+	
+	/**
+	 * Add several group chat messages in a single transaction
+	 * 
+	 * @param chatId Chat ID
+	 * @param msgs Chat messages
+	 * @param direction Direction
+	 */
+	public void addGroupChatMessages(String chatId, List<InstantMessage> msgs, int direction) {
+		if (logger.isActivated()) {
+			logger.debug("Add " + msgs.size() + " group chat messages: chatID=" + chatId + ", dir=" + direction);
 		}
-
-		if (direction == ChatLog.Message.Direction.INCOMING) {
-			// Receive message
-			values.put(MessageData.KEY_TIMESTAMP, msg.getDate().getTime());
-			values.put(MessageData.KEY_TIMESTAMP_SENT, 0);
-			values.put(MessageData.KEY_TIMESTAMP_DELIVERED, 0);
-			values.put(MessageData.KEY_TIMESTAMP_DISPLAYED, 0);		
-			if (msg.isImdnDisplayedRequested()) {
-				values.put(MessageData.KEY_STATUS, ChatLog.Message.Status.Content.UNREAD_REPORT);
-			} else {
-				values.put(MessageData.KEY_STATUS, ChatLog.Message.Status.Content.UNREAD);
-			}
-		} else {
-			// Send message
-			values.put(MessageData.KEY_TIMESTAMP, msg.getDate().getTime());
-			values.put(MessageData.KEY_TIMESTAMP_SENT, msg.getDate().getTime());
-			values.put(MessageData.KEY_TIMESTAMP_DELIVERED, 0);
-			values.put(MessageData.KEY_TIMESTAMP_DISPLAYED, 0);		
-			values.put(MessageData.KEY_STATUS, ChatLog.Message.Status.Content.SENT);
+		ContentValues[] values = new ContentValues[msgs.size()];
+		for (int i = 0; i < values.length; i++) {
+			InstantMessage msg = msgs.get(i);
+			values[i] = getChatMessageValues(chatId, msg, getChatMessageType(msg), direction);
 		}
-		cr.insert(msgDatabaseUri, values);
+		cr.bulkInsert(msgDatabaseUri, values);
 	}
 	
 	/**
@@ -490,6 +516,19 @@ public class RichMessagingHistory {
 		if (logger.isActivated()) {
 			logger.debug("Update chat message: msgID=" + msgId + ", status=" + status);
 		}
+		cr.update(msgDatabaseUri, 
+				getChatMessageStatusValues(status), 
+				SELECTION_MSG_ID, 
+				new String[] { msgId });
+	}
+	
+	/**
+	 * Get the values to be updated for a new chat message status
+	 * 
+	 * @param status Message status
+	 * @return Values
+	 */
+	private ContentValues getChatMessageStatusValues(int status) {
 		ContentValues values = new ContentValues();
 		values.put(MessageData.KEY_STATUS, status);
 		if (status == ChatLog.Message.Status.Content.UNREAD) {
@@ -500,10 +539,7 @@ public class RichMessagingHistory {
 			// Displayed
 			values.put(MessageData.KEY_TIMESTAMP_DISPLAYED, Calendar.getInstance().getTimeInMillis());
 		}
-		cr.update(msgDatabaseUri, 
-				values, 
-				MessageData.KEY_MSG_ID + " = '" + msgId + "'", 
-				null);
+		return values;
 	}
 	
 	/**
@@ -518,15 +554,61 @@ public class RichMessagingHistory {
 			logger.debug("Update chat delivery status: msgID=" + msgId + ", status=" + status+ ", contact="+contact);
 		}
 		// TODO contact is not managed !
+		int msgStatus = getChatMessageStatus(status);
+		if (msgStatus != -1) {
+			updateChatMessageStatus(msgId, msgStatus);
+		}
+	}
+	
+	/**
+	 * Update the delivery status of several chat messages in a single batch
+	 * 
+	 * @param msgIds Message IDs
+	 * @param statuses Delivery statuses
+	 */
+	public void updateChatMessagesDeliveryStatus(String[] msgIds, String[] statuses) {
+		if (logger.isActivated()) {
+			logger.debug("Update chat delivery status of " + msgIds.length + " messages");
+		}
+		ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(msgIds.length);
+		for (int i = 0; i < msgIds.length; i++) {
+			int msgStatus = getChatMessageStatus(statuses[i]);
+			if (msgStatus != -1) {
+				ops.add(ContentProviderOperation.newUpdate(msgDatabaseUri)
+						.withValues(getChatMessageStatusValues(msgStatus))
+						.withSelection(SELECTION_MSG_ID, new String[] { msgIds[i] })
+						.build());
+			}
+		}
+		if (ops.isEmpty()) {
+			return;
+		}
+		try {
+			cr.applyBatch(msgDatabaseUri.getAuthority(), ops);
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Can't update the chat delivery status", e);
+			}
+		}
+	}
+	
+	/**
+	 * Get the chat message status from a delivery status
+	 * 
+	 * @param status Delivery status
+	 * @return Message status or -1 if the delivery status is not managed
+	 */
+	private static int getChatMessageStatus(String status) {
     	if (status.equals(ImdnDocument.DELIVERY_STATUS_DELIVERED)) {
-    		RichMessagingHistory.getInstance().updateChatMessageStatus(msgId, ChatLog.Message.Status.Content.UNREAD);
+    		return ChatLog.Message.Status.Content.UNREAD;
     	} else
     	if (status.equals(ImdnDocument.DELIVERY_STATUS_DISPLAYED)) {
-    		RichMessagingHistory.getInstance().updateChatMessageStatus(msgId, ChatLog.Message.Status.Content.READ);
+    		return ChatLog.Message.Status.Content.READ;
     	} else 
     	if (status.equals(ImdnDocument.DELIVERY_STATUS_ERROR)) {
-    		RichMessagingHistory.getInstance().updateChatMessageStatus(msgId, ChatLog.Message.Status.Content.FAILED);
+    		return ChatLog.Message.Status.Content.FAILED;
     	}
+    	return -1;
 	}
     
     /**
@@ -537,10 +619,14 @@ public class RichMessagingHistory {
      * @return true if new message
      */
 	public boolean isNewMessage(String chatId, String msgId) {
+		if ((chatId == null) || (msgId == null)) {
+			// A null value can't be bound to the selection
+			return true;
+		}
 		Cursor cursor = null;
 		try {
-			cursor = cr.query(msgDatabaseUri, new String[] { MessageData.KEY_MSG_ID }, "(" + MessageData.KEY_CHAT_ID + " = '"
-					+ chatId + "') AND (" + MessageData.KEY_MSG_ID + " = '" + msgId + "')", null, null);
+			cursor = cr.query(msgDatabaseUri, new String[] { MessageData.KEY_MSG_ID }, SELECTION_CHAT_AND_MSG_ID,
+					new String[] { chatId, msgId }, null);
 			return cursor.getCount() == 0;
 		} catch (Exception e) {
 			return false;
@@ -565,9 +651,8 @@ public class RichMessagingHistory {
 		}
 		ContentValues values = new ContentValues();
 		values.put(MessageData.KEY_FT_ID, ftID);
-		String selection = MessageData.KEY_MSG_ID + " = ? AND " + MessageData.KEY_TYPE + " = ?";
 		String[] selectionArgs = { msgId, "" + ChatLog.Message.Type.FILE_TRANSFER };
-		cr.update(msgDatabaseUri, values, selection, selectionArgs);
+		cr.update(msgDatabaseUri, values, SELECTION_MSG_ID_AND_TYPE, selectionArgs);
 	}
 	
 	/*--------------------- File transfer methods ----------------------*/
@@ -671,22 +756,32 @@ public class RichMessagingHistory {
 			// Displayed
 			values.put(FileTransferData.KEY_TIMESTAMP_DISPLAYED, Calendar.getInstance().getTimeInMillis());
 		}
-		cr.update(ftDatabaseUri, values, FileTransferData.KEY_SESSION_ID + " = '" + sessionId + "'", null);
+		cr.update(ftDatabaseUri, values, SELECTION_FT_ID, new String[] { sessionId });
 	}
 	
 	/**
-	 * Update file transfer download progress
+	 * Update the download progress of several file transfers in a single batch
 	 * 
-	 * @param sessionId Session ID
-	 * @param size Downloaded size
-	 * @param totalSize Total size to download 
+	 * @param sessionIds Session IDs
+	 * @param sizes Downloaded sizes
+	 * @param totalSizes Total sizes to download
 	 */
-	public void updateFileTransferProgress(String sessionId, long size, long totalSize) {
-		ContentValues values = new ContentValues();
-		values.put(FileTransferData.KEY_SIZE, size);
-		values.put(FileTransferData.KEY_TOTAL_SIZE, totalSize);
-		values.put(FileTransferData.KEY_STATUS, FileTransfer.State.STARTED);
-		cr.update(ftDatabaseUri, values, FileTransferData.KEY_SESSION_ID + " = '" + sessionId + "'", null);
+	public void updateFileTransfersProgress(String[] sessionIds, long[] sizes, long[] totalSizes) {
+		ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(sessionIds.length);
+		for (int i = 0; i < sessionIds.length; i++) {
+			ops.add(ContentProviderOperation.newUpdate(ftDatabaseUri)
+					.withValue(FileTransferData.KEY_SIZE, sizes[i])
+					.withValue(FileTransferData.KEY_TOTAL_SIZE, totalSizes[i])
+					.withSelection(SELECTION_FT_ID, new String[] { sessionIds[i] })
+					.build());
+		}
+		try {
+			cr.applyBatch(ftDatabaseUri.getAuthority(), ops);
+		} catch(Exception e) {
+			if (logger.isActivated()) {
+				logger.error("Can't update the file transfers progress", e);
+			}
+		}
 	}
 
 	/**
@@ -702,7 +797,7 @@ public class RichMessagingHistory {
 		ContentValues values = new ContentValues();
 		values.put(FileTransferData.KEY_NAME, url);
 		values.put(FileTransferData.KEY_STATUS, FileTransfer.State.TRANSFERRED);
-		cr.update(ftDatabaseUri, values, FileTransferData.KEY_SESSION_ID + " = '" + sessionId + "'", null);
+		cr.update(ftDatabaseUri, values, SELECTION_FT_ID, new String[] { sessionId });
 	}
 	
     /**
@@ -717,8 +812,8 @@ public class RichMessagingHistory {
 		}
 		Cursor cursor = null;
 		try {
-			cursor = cr.query(msgDatabaseUri, new String[] { MessageData.KEY_CHAT_ID }, "(" + MessageData.KEY_MSG_ID
-					+ "='" + msgId + "' AND "+MessageData.KEY_TYPE+"='"+ChatLog.Message.Type.FILE_TRANSFER+"')", null, null);
+			cursor = cr.query(msgDatabaseUri, new String[] { MessageData.KEY_CHAT_ID }, SELECTION_MSG_ID_AND_TYPE,
+					new String[] { msgId, String.valueOf(ChatLog.Message.Type.FILE_TRANSFER) }, null);
 			if (cursor.moveToFirst()) {
 				return cursor.getString(0);
 			}
@@ -745,7 +840,7 @@ public class RichMessagingHistory {
 		ContentValues values = new ContentValues();
 		values.put(FileTransferData.KEY_CHAT_ID, chatId);
 		values.put(FileTransferData.KEY_MSG_ID , msgId);
-		cr.update(ftDatabaseUri, values, FileTransferData.KEY_SESSION_ID + " = " + sessionId, null);
+		cr.update(ftDatabaseUri, values, SELECTION_FT_ID, new String[] { sessionId });
 	}
     
     /**
@@ -23,10 +23,12 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashMap;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Environment;
@@ -56,6 +58,18 @@ public class RcsSettings {
 	 */
 	private Uri databaseUri = RcsSettingsData.CONTENT_URI;
 
+	/**
+	 * Snapshot of all the parameters, indexed by key (null when it has to be
+	 * reloaded). A snapshot is never modified once published, so it is read
+	 * without lock.
+	 */
+	private volatile HashMap<String, Parameter> parameters = null;
+
+	/**
+	 * Generation of the database content, incremented on each invalidation
+	 */
+	private int generation = 0;
+
     /**
      * Create instance
      *
@@ -81,10 +95,133 @@ public class RcsSettings {
      *
      * @param ctx Application context
      */
-	private RcsSettings(Context ctx) {
+	RcsSettings(Context ctx) {
 		super();
 
         this.cr = ctx.getContentResolver();
+
+        // Reload the parameters when the database is changed by another component
+        cr.registerContentObserver(databaseUri, true, new ContentObserver(null) {
+        	@Override
+        	public void onChange(boolean selfChange) {
+        		invalidateParameters();
+        	}
+        });
+	}
+
+	/**
+	 * Parameter value, parsed once when the parameters are loaded
+	 */
+	private static class Parameter {
+		/**
+		 * Value
+		 */
+		final String value;
+
+		/**
+		 * Value as a boolean
+		 */
+		final boolean booleanValue;
+
+		/**
+		 * Value as an integer
+		 */
+		final int intValue;
+
+		/**
+		 * Is the value an integer
+		 */
+		final boolean isInteger;
+
+		/**
+		 * Constructor
+		 *
+		 * @param value Value
+		 */
+		Parameter(String value) {
+			this.value = value;
+			this.booleanValue = Boolean.parseBoolean(value);
+			int parsed = 0;
+			boolean integer = false;
+			if ((value != null) && (value.length() > 0) && (value.length() <= 11)) {
+				integer = true;
+				for (int i = 0; i < value.length(); i++) {
+					char c = value.charAt(i);
+					if (((c < '0') || (c > '9')) && ((i > 0) || ((c != '-') && (c != '+')))) {
+						integer = false;
+						break;
+					}
+				}
+				if (integer) {
+					try {
+						parsed = Integer.parseInt(value);
+					} catch(NumberFormatException e) {
+						integer = false;
+					}
+				}
+			}
+			this.intValue = parsed;
+			this.isInteger = integer;
+		}
+	}
+
+	/**
+	 * Returns the parameters, loading them with a single query if needed
+	 *
+	 * @return Parameters indexed by key
+	 */
+	private HashMap<String, Parameter> getParameters() {
+		HashMap<String, Parameter> result = parameters;
+		if (result != null) {
+			return result;
+		}
+
+		int loadedGeneration;
+		synchronized(this) {
+			loadedGeneration = generation;
+		}
+		result = new HashMap<String, Parameter>();
+        Cursor c = cr.query(databaseUri, null, null, null, null);
+        if (c != null) {
+        	int keyIndex = c.getColumnIndex(RcsSettingsData.KEY_KEY);
+        	int valueIndex = c.getColumnIndex(RcsSettingsData.KEY_VALUE);
+        	while (c.moveToNext()) {
+        		result.put(c.getString(keyIndex), new Parameter(c.getString(valueIndex)));
+        	}
+	        c.close();
+        }
+		synchronized(this) {
+			// Do not publish parameters loaded before a change of the database
+			if (loadedGeneration == generation) {
+				parameters = result;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Invalidates the parameters, they are reloaded on next read
+	 */
+	private synchronized void invalidateParameters() {
+		generation++;
+		parameters = null;
+	}
+
+	/**
+	 * Updates the value of a parameter in the current snapshot, a snapshot
+	 * being loaded meanwhile is not published
+	 *
+	 * @param key Key
+	 * @param value Value
+	 */
+	private synchronized void updateParameter(String key, String value) {
+		generation++;
+		HashMap<String, Parameter> current = parameters;
+		if (current != null) {
+			HashMap<String, Parameter> result = new HashMap<String, Parameter>(current);
+			result.put(key, new Parameter(value));
+			parameters = result;
+		}
 	}
 
 	/**
@@ -98,15 +235,43 @@ public class RcsSettings {
 			return null;
 		}
 
-		String result = null;
-        Cursor c = cr.query(databaseUri, null, RcsSettingsData.KEY_KEY + "='" + key + "'", null, null);
-        if (c != null) {
-        	if ((c.getCount() > 0) && c.moveToFirst()) {
-	        	result = c.getString(2);
-        	}
-	        c.close();
-        }
-        return result;
+		Parameter parameter = getParameters().get(key);
+		if (parameter != null) {
+			return parameter.value;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+     * Read a boolean parameter
+     *
+     * @param key Key
+     * @return Value (false if the parameter does not exist)
+     */
+	private boolean readBoolean(String key) {
+		Parameter parameter = getParameters().get(key);
+		if (parameter != null) {
+			return parameter.booleanValue;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+     * Read an integer parameter
+     *
+     * @param key Key
+     * @return Value
+     * @throws NumberFormatException If the parameter does not exist or is not an integer
+     */
+	private int readInteger(String key) throws NumberFormatException {
+		Parameter parameter = getParameters().get(key);
+		if ((parameter != null) && parameter.isInteger) {
+			return parameter.intValue;
+		} else {
+			throw new NumberFormatException("Parameter " + key + " is not an integer");
+		}
 	}
 
 	/**
@@ -124,6 +289,7 @@ public class RcsSettings {
         values.put(RcsSettingsData.KEY_VALUE, value);
         String where = RcsSettingsData.KEY_KEY + "='" + key + "'";
         cr.update(databaseUri, values, where, null);
+        updateParameter(key, value);
 	}
 
 	/**
@@ -141,6 +307,7 @@ public class RcsSettings {
         values.put(RcsSettingsData.KEY_KEY, key);
         values.put(RcsSettingsData.KEY_VALUE, value);
         cr.insert(databaseUri, values);
+        updateParameter(key, value);
 	}
 
 	/**
@@ -151,7 +318,7 @@ public class RcsSettings {
 	public boolean isServiceActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.SERVICE_ACTIVATED));
+			result = readBoolean(RcsSettingsData.SERVICE_ACTIVATED);
 		}
 		return result;
     }
@@ -199,7 +366,7 @@ public class RcsSettings {
 	public boolean isPhoneVibrateForPresenceInvitation() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.PRESENCE_INVITATION_VIBRATE));
+			result = readBoolean(RcsSettingsData.PRESENCE_INVITATION_VIBRATE);
 		}
 		return result;
     }
@@ -247,7 +414,7 @@ public class RcsSettings {
 	public boolean isPhoneVibrateForCShInvitation() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CSH_INVITATION_VIBRATE));
+			result = readBoolean(RcsSettingsData.CSH_INVITATION_VIBRATE);
 		}
 		return result;
     }
@@ -271,7 +438,7 @@ public class RcsSettings {
 	public boolean isPhoneBeepIfCShAvailable() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CSH_AVAILABLE_BEEP));
+			result = readBoolean(RcsSettingsData.CSH_AVAILABLE_BEEP);
 		}
 		return result;
     }
@@ -319,7 +486,7 @@ public class RcsSettings {
 	public boolean isPhoneVibrateForFileTransferInvitation() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.FILETRANSFER_INVITATION_VIBRATE));
+			result = readBoolean(RcsSettingsData.FILETRANSFER_INVITATION_VIBRATE);
 		}
 		return result;
     }
@@ -367,7 +534,7 @@ public class RcsSettings {
 	public boolean isPhoneVibrateForChatInvitation() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CHAT_INVITATION_VIBRATE));
+			result = readBoolean(RcsSettingsData.CHAT_INVITATION_VIBRATE);
 		}
 		return result;
     }
@@ -391,7 +558,7 @@ public class RcsSettings {
     public boolean isImDisplayedNotificationActivated() {
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.CHAT_DISPLAYED_NOTIFICATION));
+            result = readBoolean(RcsSettingsData.CHAT_DISPLAYED_NOTIFICATION);
         }
         return result;
     }
@@ -512,7 +679,7 @@ public class RcsSettings {
         int result = 0;
         if (instance != null) {
             try {
-                result = Integer.parseInt(readParameter(RcsSettingsData.MIN_BATTERY_LEVEL));
+                result = readInteger(RcsSettingsData.MIN_BATTERY_LEVEL);
             } catch(Exception e) {}
         }
         return result;
@@ -538,7 +705,7 @@ public class RcsSettings {
         int result = 0;
         if (instance != null) {
             try {
-                result = Integer.parseInt(readParameter(RcsSettingsData.MIN_STORAGE_CAPACITY));
+                result = readInteger(RcsSettingsData.MIN_STORAGE_CAPACITY);
             } catch(Exception e) {}
         }
         return result;
@@ -754,7 +921,7 @@ public class RcsSettings {
 		int result = 5060;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.IMS_PROXY_PORT_MOBILE));
+				result = readInteger(RcsSettingsData.IMS_PROXY_PORT_MOBILE);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -804,7 +971,7 @@ public class RcsSettings {
 		int result = 5060;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.IMS_PROXY_PORT_WIFI));
+				result = readInteger(RcsSettingsData.IMS_PROXY_PORT_WIFI);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1132,7 +1299,7 @@ public class RcsSettings {
 		int result = 256;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_PHOTO_ICON_SIZE));
+				result = readInteger(RcsSettingsData.MAX_PHOTO_ICON_SIZE);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1147,7 +1314,7 @@ public class RcsSettings {
 		int result = 100;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_FREETXT_LENGTH));
+				result = readInteger(RcsSettingsData.MAX_FREETXT_LENGTH);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1162,7 +1329,7 @@ public class RcsSettings {
 		int result = 10;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_CHAT_PARTICIPANTS));
+				result = readInteger(RcsSettingsData.MAX_CHAT_PARTICIPANTS);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1177,7 +1344,7 @@ public class RcsSettings {
 		int result = 100;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_CHAT_MSG_LENGTH));
+				result = readInteger(RcsSettingsData.MAX_CHAT_MSG_LENGTH);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1192,7 +1359,7 @@ public class RcsSettings {
 		int result = 100;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_GROUPCHAT_MSG_LENGTH));
+				result = readInteger(RcsSettingsData.MAX_GROUPCHAT_MSG_LENGTH);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1207,7 +1374,7 @@ public class RcsSettings {
 		int result = 120;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.CHAT_IDLE_DURATION));
+				result = readInteger(RcsSettingsData.CHAT_IDLE_DURATION);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1222,7 +1389,7 @@ public class RcsSettings {
 		int result = 2048;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_FILE_TRANSFER_SIZE));
+				result = readInteger(RcsSettingsData.MAX_FILE_TRANSFER_SIZE);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1237,7 +1404,7 @@ public class RcsSettings {
 		int result = 2048;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.WARN_FILE_TRANSFER_SIZE));
+				result = readInteger(RcsSettingsData.WARN_FILE_TRANSFER_SIZE);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1252,7 +1419,7 @@ public class RcsSettings {
 		int result = 2048;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_IMAGE_SHARE_SIZE));
+				result = readInteger(RcsSettingsData.MAX_IMAGE_SHARE_SIZE);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1267,7 +1434,7 @@ public class RcsSettings {
 		int result = 600;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_VIDEO_SHARE_DURATION));
+				result = readInteger(RcsSettingsData.MAX_VIDEO_SHARE_DURATION);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1282,7 +1449,7 @@ public class RcsSettings {
 		int result = 1;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_CHAT_SESSIONS));
+				result = readInteger(RcsSettingsData.MAX_CHAT_SESSIONS);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1297,7 +1464,7 @@ public class RcsSettings {
 		int result = 1;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_FILE_TRANSFER_SESSIONS));
+				result = readInteger(RcsSettingsData.MAX_FILE_TRANSFER_SESSIONS);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1312,7 +1479,7 @@ public class RcsSettings {
 		int result = 1;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_IP_CALL_SESSIONS));
+				result = readInteger(RcsSettingsData.MAX_IP_CALL_SESSIONS);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1326,7 +1493,7 @@ public class RcsSettings {
 	public boolean isSmsFallbackServiceActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.SMS_FALLBACK_SERVICE));
+			result = readBoolean(RcsSettingsData.SMS_FALLBACK_SERVICE);
 		}
 		return result;
 	}
@@ -1339,7 +1506,7 @@ public class RcsSettings {
 	public boolean isChatAutoAccepted(){
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.AUTO_ACCEPT_CHAT));
+			result = readBoolean(RcsSettingsData.AUTO_ACCEPT_CHAT);
 		}
 		return result;
 	}
@@ -1352,7 +1519,7 @@ public class RcsSettings {
     public boolean isGroupChatAutoAccepted(){
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.AUTO_ACCEPT_GROUP_CHAT));
+            result = readBoolean(RcsSettingsData.AUTO_ACCEPT_GROUP_CHAT);
         }
         return result;
     }
@@ -1365,7 +1532,7 @@ public class RcsSettings {
 	public boolean isFileTransferAutoAccepted() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.AUTO_ACCEPT_FILE_TRANSFER));
+			result = readBoolean(RcsSettingsData.AUTO_ACCEPT_FILE_TRANSFER);
 		}
 		return result;
 	}
@@ -1378,7 +1545,7 @@ public class RcsSettings {
 	public boolean isStoreForwardWarningActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.WARN_SF_SERVICE));
+			result = readBoolean(RcsSettingsData.WARN_SF_SERVICE);
 		}
 		return result;
 	}
@@ -1401,7 +1568,7 @@ public class RcsSettings {
 		int result = 1;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.IM_SESSION_START));
+				result = readInteger(RcsSettingsData.IM_SESSION_START);
 			} catch (Exception e) {
 			}
 		}
@@ -1417,7 +1584,7 @@ public class RcsSettings {
 		int result = 200;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_CHAT_LOG_ENTRIES));
+				result = readInteger(RcsSettingsData.MAX_CHAT_LOG_ENTRIES);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1432,7 +1599,7 @@ public class RcsSettings {
 		int result = 200;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_RICHCALL_LOG_ENTRIES));
+				result = readInteger(RcsSettingsData.MAX_RICHCALL_LOG_ENTRIES);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1447,7 +1614,7 @@ public class RcsSettings {
 		int result = 200;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_IPCALL_LOG_ENTRIES));
+				result = readInteger(RcsSettingsData.MAX_IPCALL_LOG_ENTRIES);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1462,7 +1629,7 @@ public class RcsSettings {
 		int result = 300;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.IMS_SERVICE_POLLING_PERIOD));
+				result = readInteger(RcsSettingsData.IMS_SERVICE_POLLING_PERIOD);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1477,7 +1644,7 @@ public class RcsSettings {
 		int result = 5060;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SIP_DEFAULT_PORT));
+				result = readInteger(RcsSettingsData.SIP_DEFAULT_PORT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1544,7 +1711,7 @@ public class RcsSettings {
 		int result = 30;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SIP_TRANSACTION_TIMEOUT));
+				result = readInteger(RcsSettingsData.SIP_TRANSACTION_TIMEOUT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1559,7 +1726,7 @@ public class RcsSettings {
 		int result = 20000;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MSRP_DEFAULT_PORT));
+				result = readInteger(RcsSettingsData.MSRP_DEFAULT_PORT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1574,7 +1741,7 @@ public class RcsSettings {
 		int result = 10000;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.RTP_DEFAULT_PORT));
+				result = readInteger(RcsSettingsData.RTP_DEFAULT_PORT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1589,7 +1756,7 @@ public class RcsSettings {
 		int result = 5;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MSRP_TRANSACTION_TIMEOUT));
+				result = readInteger(RcsSettingsData.MSRP_TRANSACTION_TIMEOUT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1604,7 +1771,7 @@ public class RcsSettings {
 		int result = 3600;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.REGISTER_EXPIRE_PERIOD));
+				result = readInteger(RcsSettingsData.REGISTER_EXPIRE_PERIOD);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1619,7 +1786,7 @@ public class RcsSettings {
 		int result = 30;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.REGISTER_RETRY_BASE_TIME));
+				result = readInteger(RcsSettingsData.REGISTER_RETRY_BASE_TIME);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1634,7 +1801,7 @@ public class RcsSettings {
 		int result = 1800;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.REGISTER_RETRY_MAX_TIME));
+				result = readInteger(RcsSettingsData.REGISTER_RETRY_MAX_TIME);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1649,7 +1816,7 @@ public class RcsSettings {
 		int result = 3600;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.PUBLISH_EXPIRE_PERIOD));
+				result = readInteger(RcsSettingsData.PUBLISH_EXPIRE_PERIOD);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1664,7 +1831,7 @@ public class RcsSettings {
 		int result = 300;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.REVOKE_TIMEOUT));
+				result = readInteger(RcsSettingsData.REVOKE_TIMEOUT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1704,7 +1871,7 @@ public class RcsSettings {
 	public boolean isTelUriFormatUsed() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.TEL_URI_FORMAT));
+			result = readBoolean(RcsSettingsData.TEL_URI_FORMAT);
 		}
 		return result;
 	}
@@ -1718,7 +1885,7 @@ public class RcsSettings {
 		int result = 120;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.RINGING_SESSION_PERIOD));
+				result = readInteger(RcsSettingsData.RINGING_SESSION_PERIOD);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1733,7 +1900,7 @@ public class RcsSettings {
 		int result = 3600;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SUBSCRIBE_EXPIRE_PERIOD));
+				result = readInteger(RcsSettingsData.SUBSCRIBE_EXPIRE_PERIOD);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1748,7 +1915,7 @@ public class RcsSettings {
 		int result = 15;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.IS_COMPOSING_TIMEOUT));
+				result = readInteger(RcsSettingsData.IS_COMPOSING_TIMEOUT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1763,7 +1930,7 @@ public class RcsSettings {
 		int result = 3600;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SESSION_REFRESH_EXPIRE_PERIOD));
+				result = readInteger(RcsSettingsData.SESSION_REFRESH_EXPIRE_PERIOD);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1777,7 +1944,7 @@ public class RcsSettings {
 	public boolean isPermanentStateModeActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.PERMANENT_STATE_MODE));
+			result = readBoolean(RcsSettingsData.PERMANENT_STATE_MODE);
 		}
 		return result;
 	}
@@ -1790,7 +1957,7 @@ public class RcsSettings {
 	public boolean isTraceActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.TRACE_ACTIVATED));
+			result = readBoolean(RcsSettingsData.TRACE_ACTIVATED);
 		}
 		return result;
 	}
@@ -1804,7 +1971,7 @@ public class RcsSettings {
 		int result = Logger.ERROR_LEVEL;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.TRACE_LEVEL));
+				result = readInteger(RcsSettingsData.TRACE_LEVEL);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1818,7 +1985,7 @@ public class RcsSettings {
 	public boolean isSipTraceActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.SIP_TRACE_ACTIVATED));
+			result = readBoolean(RcsSettingsData.SIP_TRACE_ACTIVATED);
 		}
 		return result;
 	}
@@ -1846,7 +2013,7 @@ public class RcsSettings {
 	public boolean isMediaTraceActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.MEDIA_TRACE_ACTIVATED));
+			result = readBoolean(RcsSettingsData.MEDIA_TRACE_ACTIVATED);
 		}
 		return result;
 	}
@@ -1860,7 +2027,7 @@ public class RcsSettings {
 		int result = 1;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.CAPABILITY_REFRESH_TIMEOUT));
+				result = readInteger(RcsSettingsData.CAPABILITY_REFRESH_TIMEOUT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1875,7 +2042,7 @@ public class RcsSettings {
 		int result = 3600;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.CAPABILITY_EXPIRY_TIMEOUT));
+				result = readInteger(RcsSettingsData.CAPABILITY_EXPIRY_TIMEOUT);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1890,7 +2057,37 @@ public class RcsSettings {
 		int result = 3600;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.CAPABILITY_POLLING_PERIOD));
+				result = readInteger(RcsSettingsData.CAPABILITY_POLLING_PERIOD);
+			} catch(Exception e) {}
+		}
+		return result;
+	}
+
+	/**
+	 * Get number of capability requests sent per second when refreshing contacts capabilities
+	 *
+	 * @return Number of requests per second
+	 */
+	public int getCapabilityPollingRate() {
+		int result = 10;
+		if (instance != null) {
+			try {
+				result = readInteger(RcsSettingsData.CAPABILITY_POLLING_RATE);
+			} catch(Exception e) {}
+		}
+		return result;
+	}
+
+	/**
+	 * Get maximum number of capability requests in progress when refreshing contacts capabilities
+	 *
+	 * @return Number of requests
+	 */
+	public int getCapabilityPollingMaxRequests() {
+		int result = 15;
+		if (instance != null) {
+			try {
+				result = readInteger(RcsSettingsData.CAPABILITY_POLLING_MAX_REQUESTS);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -1904,7 +2101,7 @@ public class RcsSettings {
 	public boolean isCsVideoSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_CS_VIDEO));
+			result = readBoolean(RcsSettingsData.CAPABILITY_CS_VIDEO);
 		}
 		return result;
 	}
@@ -1917,7 +2114,7 @@ public class RcsSettings {
 	public boolean isFileTransferSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_FILE_TRANSFER));
+			result = readBoolean(RcsSettingsData.CAPABILITY_FILE_TRANSFER);
 		}
 		return result;
 	}
@@ -1931,7 +2128,7 @@ public class RcsSettings {
 		boolean result = false;
 		if (instance != null) {
             if ((getFtHttpServer().length() > 0) && (getFtHttpLogin().length() > 0) && (getFtHttpPassword().length() > 0)) {
-                result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_FILE_TRANSFER_HTTP));
+                result = readBoolean(RcsSettingsData.CAPABILITY_FILE_TRANSFER_HTTP);
             }
 		}
 		return result;
@@ -1945,7 +2142,7 @@ public class RcsSettings {
 	public boolean isImSessionSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_IM_SESSION));
+			result = readBoolean(RcsSettingsData.CAPABILITY_IM_SESSION);
 		}
 		return result;
 	}
@@ -1958,7 +2155,7 @@ public class RcsSettings {
 	public boolean isImGroupSessionSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_IM_GROUP_SESSION));
+			result = readBoolean(RcsSettingsData.CAPABILITY_IM_GROUP_SESSION);
 		}
 		return result;
 	}
@@ -1971,7 +2168,7 @@ public class RcsSettings {
 	public boolean isImageSharingSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_IMAGE_SHARING));
+			result = readBoolean(RcsSettingsData.CAPABILITY_IMAGE_SHARING);
 		}
 		return result;
 	}
@@ -1984,7 +2181,7 @@ public class RcsSettings {
 	public boolean isVideoSharingSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_VIDEO_SHARING));
+			result = readBoolean(RcsSettingsData.CAPABILITY_VIDEO_SHARING);
 		}
 		return result;
 	}
@@ -1998,7 +2195,7 @@ public class RcsSettings {
 		boolean result = false;
 		if (instance != null) {
             if (getXdmServer().length() > 0) {
-            	result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_PRESENCE_DISCOVERY));
+            	result = readBoolean(RcsSettingsData.CAPABILITY_PRESENCE_DISCOVERY);
             }
 		}
 		return result;
@@ -2013,7 +2210,7 @@ public class RcsSettings {
 		boolean result = false;
 		if (instance != null) {
             if (getXdmServer().length() > 0) {
-            	result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_SOCIAL_PRESENCE));
+            	result = readBoolean(RcsSettingsData.CAPABILITY_SOCIAL_PRESENCE);
             }
 		}
 		return result;
@@ -2027,7 +2224,7 @@ public class RcsSettings {
 	public boolean isGeoLocationPushSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_GEOLOCATION_PUSH));
+			result = readBoolean(RcsSettingsData.CAPABILITY_GEOLOCATION_PUSH);
 		}
 		return result;
 	}
@@ -2041,7 +2238,7 @@ public class RcsSettings {
 	public boolean isFileTransferThumbnailSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_FILE_TRANSFER_THUMBNAIL));
+			result = readBoolean(RcsSettingsData.CAPABILITY_FILE_TRANSFER_THUMBNAIL);
 		}
 		return result;
 	}
@@ -2054,7 +2251,7 @@ public class RcsSettings {
 	public boolean isFileTransferStoreForwardSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_FILE_TRANSFER_SF));
+			result = readBoolean(RcsSettingsData.CAPABILITY_FILE_TRANSFER_SF);
 		}
 		return result;
 	}
@@ -2067,7 +2264,7 @@ public class RcsSettings {
 	public boolean isIPVoiceCallSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_IP_VOICE_CALL));
+			result = readBoolean(RcsSettingsData.CAPABILITY_IP_VOICE_CALL);
 		}
 		return result;
 	}
@@ -2080,7 +2277,7 @@ public class RcsSettings {
 	public boolean isIPVideoCallSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_IP_VIDEO_CALL));
+			result = readBoolean(RcsSettingsData.CAPABILITY_IP_VIDEO_CALL);
 		}
 		return result;
 	}
@@ -2094,7 +2291,7 @@ public class RcsSettings {
 	public boolean isGroupChatStoreForwardSupported() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_GROUP_CHAT_SF));
+			result = readBoolean(RcsSettingsData.CAPABILITY_GROUP_CHAT_SF);
 		}
 		return result;
 	}
@@ -2131,7 +2328,7 @@ public class RcsSettings {
 	public boolean isImAlwaysOn() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.IM_CAPABILITY_ALWAYS_ON));
+			result = readBoolean(RcsSettingsData.IM_CAPABILITY_ALWAYS_ON);
 		}
 		return result;
 	}
@@ -2144,7 +2341,7 @@ public class RcsSettings {
 	public boolean isFtAlwaysOn() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.FT_CAPABILITY_ALWAYS_ON));
+			result = readBoolean(RcsSettingsData.FT_CAPABILITY_ALWAYS_ON);
 		}
 		return result;
 	}
@@ -2157,7 +2354,22 @@ public class RcsSettings {
 	public boolean isImReportsActivated() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.IM_USE_REPORTS));
+			result = readBoolean(RcsSettingsData.IM_USE_REPORTS);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the window during which the delivery reports sent to a same contact are grouped
+	 *
+	 * @return Window in milliseconds (0 if the reports are sent one by one)
+	 */
+	public int getImReportsBatchWindow() {
+		int result = 0;
+		if (instance != null) {
+			try {
+				result = readInteger(RcsSettingsData.IM_REPORTS_BATCH_WINDOW);
+			} catch(Exception e) {}
 		}
 		return result;
 	}
@@ -2171,7 +2383,7 @@ public class RcsSettings {
 		int result = RcsSettingsData.ANY_ACCESS;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.NETWORK_ACCESS));
+				result = readInteger(RcsSettingsData.NETWORK_ACCESS);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2186,7 +2398,7 @@ public class RcsSettings {
 		int result = 2000;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SIP_TIMER_T1));
+				result = readInteger(RcsSettingsData.SIP_TIMER_T1);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2201,7 +2413,7 @@ public class RcsSettings {
 		int result = 16000;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SIP_TIMER_T2));
+				result = readInteger(RcsSettingsData.SIP_TIMER_T2);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2216,7 +2428,7 @@ public class RcsSettings {
 		int result = 17000;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SIP_TIMER_T4));
+				result = readInteger(RcsSettingsData.SIP_TIMER_T4);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2230,7 +2442,7 @@ public class RcsSettings {
 	public boolean isSipKeepAliveEnabled() {
 		boolean result = true;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.SIP_KEEP_ALIVE));
+			result = readBoolean(RcsSettingsData.SIP_KEEP_ALIVE);
 		}
 		return result;
 	}
@@ -2244,7 +2456,7 @@ public class RcsSettings {
 		int result = 60;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.SIP_KEEP_ALIVE_PERIOD));
+				result = readInteger(RcsSettingsData.SIP_KEEP_ALIVE_PERIOD);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2284,7 +2496,7 @@ public class RcsSettings {
 	public boolean isGruuSupported() {
 		boolean result = true;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.GRUU));
+			result = readBoolean(RcsSettingsData.GRUU);
 		}
 		return result;
 	}
@@ -2297,7 +2509,7 @@ public class RcsSettings {
     public boolean isImeiUsedAsDeviceId() {
         boolean result = true;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.USE_IMEI_AS_DEVICE_ID));
+            result = readBoolean(RcsSettingsData.USE_IMEI_AS_DEVICE_ID);
         }
         return result;
     }
@@ -2310,7 +2522,7 @@ public class RcsSettings {
     public boolean isCpuAlwaysOn() {
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.CPU_ALWAYS_ON));
+            result = readBoolean(RcsSettingsData.CPU_ALWAYS_ON);
         }
         return result;
     }
@@ -2324,7 +2536,7 @@ public class RcsSettings {
 		int result = RcsSettingsData.NO_AUTO_CONFIG;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.AUTO_CONFIG_MODE));
+				result = readInteger(RcsSettingsData.AUTO_CONFIG_MODE);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2338,7 +2550,7 @@ public class RcsSettings {
     public boolean isProvisioningTermsAccepted() {
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.PROVISIONING_TERMS_ACCEPTED));
+            result = readBoolean(RcsSettingsData.PROVISIONING_TERMS_ACCEPTED);
         }
         return result;
     }
@@ -2411,7 +2623,7 @@ public class RcsSettings {
     public boolean isSecondaryProvisioningAddressOnly() {
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.SECONDARY_PROVISIONING_ADDRESS_ONLY));
+            result = readBoolean(RcsSettingsData.SECONDARY_PROVISIONING_ADDRESS_ONLY);
         }
         return result;
     }
@@ -2550,6 +2762,7 @@ public class RcsSettings {
     	} catch(Exception e) {
     		e.printStackTrace();
     	}
+    	invalidateParameters();
     }
     
 	/**
@@ -2632,7 +2845,7 @@ public class RcsSettings {
 	public boolean isSecureMsrpOverWifi() {
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.SECURE_MSRP_OVER_WIFI));
+            result = readBoolean(RcsSettingsData.SECURE_MSRP_OVER_WIFI);
         }
         return result;
 	}
@@ -2645,7 +2858,7 @@ public class RcsSettings {
 	public boolean isSecureRtpOverWifi() {
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.SECURE_RTP_OVER_WIFI));
+            result = readBoolean(RcsSettingsData.SECURE_RTP_OVER_WIFI);
         }
         return result;
 	}
@@ -2659,7 +2872,7 @@ public class RcsSettings {
 		int result = 100;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_GEOLOC_LABEL_LENGTH));
+				result = readInteger(RcsSettingsData.MAX_GEOLOC_LABEL_LENGTH);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2674,7 +2887,7 @@ public class RcsSettings {
 		int result = 1800;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.GEOLOC_EXPIRATION_TIME));
+				result = readInteger(RcsSettingsData.GEOLOC_EXPIRATION_TIME);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2702,7 +2915,7 @@ public class RcsSettings {
 	public boolean isSipAutomata() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.CAPABILITY_SIP_AUTOMATA));
+			result = readBoolean(RcsSettingsData.CAPABILITY_SIP_AUTOMATA);
 		}
 		return result;
 	}
@@ -2716,7 +2929,7 @@ public class RcsSettings {
 		int result = 50;
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.MAX_FILE_ICON_SIZE));
+				result = readInteger(RcsSettingsData.MAX_FILE_ICON_SIZE);
 			} catch(Exception e) {}
 		}
 		return result;
@@ -2731,7 +2944,7 @@ public class RcsSettings {
 		int result = 1; // Blackbird
 		if (instance != null) {
 			try {
-				result = Integer.parseInt(readParameter(RcsSettingsData.KEY_GSMA_RELEASE));
+				result = readInteger(RcsSettingsData.KEY_GSMA_RELEASE);
 			} catch (Exception e) {
 			}
 		}
@@ -2775,7 +2988,7 @@ public class RcsSettings {
 	public boolean isIPVoiceCallBreakoutAA() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.IPVOICECALL_BREAKOUT_AA));
+			result = readBoolean(RcsSettingsData.IPVOICECALL_BREAKOUT_AA);
 		}
 		return result;
 	}
@@ -2788,7 +3001,7 @@ public class RcsSettings {
 	public boolean isIPVoiceCallBreakoutCS() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.IPVOICECALL_BREAKOUT_CS));
+			result = readBoolean(RcsSettingsData.IPVOICECALL_BREAKOUT_CS);
 		}
 		return result;
 	}
@@ -2801,7 +3014,7 @@ public class RcsSettings {
 	public boolean isIPVideoCallUpgradeFromCS() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.IPVIDEOCALL_UPGRADE_FROM_CS));
+			result = readBoolean(RcsSettingsData.IPVIDEOCALL_UPGRADE_FROM_CS);
 		}
 		return result;
 	}
@@ -2815,7 +3028,7 @@ public class RcsSettings {
 	public boolean isIPVideoCallUpgradeOnCapError() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.IPVIDEOCALL_UPGRADE_ON_CAPERROR));
+			result = readBoolean(RcsSettingsData.IPVIDEOCALL_UPGRADE_ON_CAPERROR);
 		}
 		return result;
 	}
@@ -2828,7 +3041,7 @@ public class RcsSettings {
 	public boolean isIPVideoCallAttemptEarly() {
 		boolean result = false;
 		if (instance != null) {
-			result = Boolean.parseBoolean(readParameter(RcsSettingsData.IPVIDEOCALL_UPGRADE_ATTEMPT_EARLY));
+			result = readBoolean(RcsSettingsData.IPVIDEOCALL_UPGRADE_ATTEMPT_EARLY);
 		}
 		return result;
 	}
@@ -2841,7 +3054,48 @@ public class RcsSettings {
     public boolean isTcpFallback() {
         boolean result = false;
         if (instance != null) {
-            result = Boolean.parseBoolean(readParameter(RcsSettingsData.TCP_FALLBACK));
+            result = readBoolean(RcsSettingsData.TCP_FALLBACK);
+        }
+        return result;
+    }
+
+    /**
+     * Is the non-blocking MSRP transport enabled
+     * 
+     * @return Boolean
+     */
+    public boolean isMsrpNioTransport() {
+        boolean result = false;
+        if (instance != null) {
+            result = readBoolean(RcsSettingsData.MSRP_NIO_TRANSPORT);
+        }
+        return result;
+    }
+
+    /**
+     * Get the maximum number of MSRP SEND requests waiting for a response during a transfer
+     *
+     * @return Window size
+     */
+    public int getMsrpSendWindow() {
+        int result = 8;
+        if (instance != null) {
+            try {
+                result = readInteger(RcsSettingsData.MSRP_SEND_WINDOW);
+            } catch(Exception e) {}
+        }
+        return result;
+    }
+
+    /**
+     * Is the content received via MSRP written to a memory-mapped file
+     * 
+     * @return Boolean
+     */
+    public boolean isMsrpFileMapping() {
+        boolean result = false;
+        if (instance != null) {
+            result = readBoolean(RcsSettingsData.MSRP_FILE_MAPPING);
         }
         return result;
     }
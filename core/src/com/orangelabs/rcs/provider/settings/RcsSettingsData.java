@@ -613,6 +613,16 @@ public class RcsSettingsData {
 	 */
 	public static final String CAPABILITY_POLLING_PERIOD = "CapabilityPollingPeriod";
 
+	/**
+	 * Number of capability requests sent per second when refreshing contacts capabilities
+	 */
+	public static final String CAPABILITY_POLLING_RATE = "CapabilityPollingRate";
+
+	/**
+	 * Maximum number of capability requests in progress when refreshing contacts capabilities
+	 */
+	public static final String CAPABILITY_POLLING_MAX_REQUESTS = "CapabilityPollingMaxRequests";
+
 	/**
 	 * CS video capability
 	 */
@@ -713,6 +723,13 @@ public class RcsSettingsData {
      */
 	public static final String IM_USE_REPORTS = "ImUseReports";
 
+	/**
+	 * Window in milliseconds during which the delivery reports sent to a same contact are grouped.
+	 * 0 by default: a server accepting a batch without reading its multipart body would lose the
+	 * reports, so the batches are only sent when configured for a server known to support them.
+	 */
+	public static final String IM_REPORTS_BATCH_WINDOW = "ImReportsBatchWindow";
+
 	/**
 	 * Network access authorized
 	 */
@@ -867,4 +884,19 @@ public class RcsSettingsData {
      * TCP fallback option
      */
     public static final String TCP_FALLBACK = "TcpFallback";
+
+    /**
+     * Non-blocking MSRP transport sharing one I/O thread between all the MSRP connections
+     */
+    public static final String MSRP_NIO_TRANSPORT = "MsrpNioTransport";
+
+    /**
+     * Maximum number of MSRP SEND requests waiting for a response during a transfer
+     */
+    public static final String MSRP_SEND_WINDOW = "MsrpSendWindow";
+
+    /**
+     * Memory-mapped file for the content received via MSRP
+     */
+    public static final String MSRP_FILE_MAPPING = "MsrpFileMapping";
 }
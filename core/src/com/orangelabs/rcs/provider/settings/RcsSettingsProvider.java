@@ -74,7 +74,7 @@ public class RcsSettingsProvider extends ContentProvider {
      * Helper class for opening, creating and managing database version control
      */
     private static class DatabaseHelper extends SQLiteOpenHelper {
-        private static final int DATABASE_VERSION = 100;
+        private static final int DATABASE_VERSION = 105;
 
         private Context ctx;
 
@@ -200,9 +200,12 @@ public class RcsSettingsProvider extends ContentProvider {
             addParameter(db, RcsSettingsData.CAPABILITY_REFRESH_TIMEOUT, 		"1");
             addParameter(db, RcsSettingsData.CAPABILITY_EXPIRY_TIMEOUT, 		"86400");
             addParameter(db, RcsSettingsData.CAPABILITY_POLLING_PERIOD,			"3600");
+            addParameter(db, RcsSettingsData.CAPABILITY_POLLING_RATE,			"10");
+            addParameter(db, RcsSettingsData.CAPABILITY_POLLING_MAX_REQUESTS,	"15");
             addParameter(db, RcsSettingsData.IM_CAPABILITY_ALWAYS_ON,			RcsSettingsData.TRUE);
             addParameter(db, RcsSettingsData.FT_CAPABILITY_ALWAYS_ON,			RcsSettingsData.FALSE);
             addParameter(db, RcsSettingsData.IM_USE_REPORTS,					RcsSettingsData.TRUE);
+            addParameter(db, RcsSettingsData.IM_REPORTS_BATCH_WINDOW,			"0");
             addParameter(db, RcsSettingsData.NETWORK_ACCESS,					""+RcsSettingsData.ANY_ACCESS);
             addParameter(db, RcsSettingsData.SIP_TIMER_T1,						"2000");
             addParameter(db, RcsSettingsData.SIP_TIMER_T2,						"16000");
@@ -237,6 +240,9 @@ public class RcsSettingsProvider extends ContentProvider {
             addParameter(db, RcsSettingsData.IPVIDEOCALL_UPGRADE_ON_CAPERROR,	RcsSettingsData.FALSE);
             addParameter(db, RcsSettingsData.IPVIDEOCALL_UPGRADE_ATTEMPT_EARLY,	RcsSettingsData.FALSE);
             addParameter(db, RcsSettingsData.TCP_FALLBACK,						RcsSettingsData.FALSE);            
+            addParameter(db, RcsSettingsData.MSRP_NIO_TRANSPORT,				RcsSettingsData.FALSE);
+            addParameter(db, RcsSettingsData.MSRP_SEND_WINDOW,					"8");
+            addParameter(db, RcsSettingsData.MSRP_FILE_MAPPING,				RcsSettingsData.FALSE);
         }
 
         /**
@@ -234,22 +234,9 @@ public class ChatImpl extends IChat.Stub implements ChatSessionListener {
 				logger.debug("Set displayed delivery report for " + msgId);
 			}
 
-			// Send delivery status
-			if ((session != null) &&
-					(session.getDialogPath() != null) &&
-						(session.getDialogPath().isSessionEstablished())) { 
-				// Send via MSRP
-		        Thread t = new Thread() {
-		    		public void run() {
-						session.sendMsrpMessageDeliveryStatus(session.getRemoteContact(), msgId, ImdnDocument.DELIVERY_STATUS_DISPLAYED);
-		    		}
-		    	};
-		    	t.start();
-			} else {
-				// Send via SIP MESSAGE
-				Core.getInstance().getImService().getImdnManager().sendMessageDeliveryStatus(
-						session.getRemoteContact(), msgId, ImdnDocument.DELIVERY_STATUS_DISPLAYED);
-			}
+			// Send delivery status via MSRP if the session is established, else via SIP MESSAGE
+			Core.getInstance().getImService().getImdnManager().sendMessageDeliveryStatus(
+					session, session.getRemoteContact(), msgId, ImdnDocument.DELIVERY_STATUS_DISPLAYED);
 		} catch(Exception e) {
 			if (logger.isActivated()) {
 				logger.error("Could not send MSRP delivery status",e);
@@ -363,9 +350,6 @@ public class ChatImpl extends IChat.Stub implements ChatSessionListener {
 				logger.info("New IM received");
 			}
 			
-			// Update rich messaging history
-			RichMessagingHistory.getInstance().addChatMessage(message, ChatLog.Message.Direction.INCOMING);
-			
 			// Create a chat message
         	ChatMessage msgApi = new ChatMessage(message.getMessageId(),
         			PhoneUtils.extractNumberFromUri(message.getRemote()),
@@ -404,9 +388,6 @@ public class ChatImpl extends IChat.Stub implements ChatSessionListener {
 				logger.info("New geoloc received");
 			}
 			
-			// Update rich messaging history
-			RichMessagingHistory.getInstance().addChatMessage(geoloc, ChatLog.Message.Direction.INCOMING);
-			
 			// Create a geoloc message
         	Geoloc geolocApi = new Geoloc(geoloc.getGeoloc().getLabel(),
         			geoloc.getGeoloc().getLatitude(), geoloc.getGeoloc().getLongitude(),
@@ -128,6 +128,15 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 		return null; //session.getThumbnail();
 	}
 
+	/**
+	 * Returns the current throughput of the file transfer
+	 * 
+	 * @return Throughput in bytes per second or -1 if the transfer is not in progress
+	 */
+	public long getThroughput() {
+		return FileTransferProgressAggregator.getInstance().getThroughput(session.getSessionID());
+	}
+
 	/**
 	 * Returns the state of the file transfer
 	 * 
@@ -394,6 +403,9 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 				logger.info("Session aborted (reason " + reason + ")");
 			}
 
+			// Flush the transfer progress
+			flushTransferProgress();
+
 			// Update rich messaging history
 			RichMessagingHistory.getInstance().updateFileTransferStatus(session.getSessionID(), FileTransfer.State.ABORTED);
 
@@ -424,6 +436,9 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 				logger.info("Session terminated by remote");
 			}
 	
+			// Flush the transfer progress
+			flushTransferProgress();
+
 			// Check if the file has been transferred or not
 	  		if (session.isFileTransfered()) {
 		        // Remove session from the list
@@ -467,6 +482,9 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 				logger.info("Sharing error " + error.getErrorCode());
 			}
 
+			// Flush the transfer progress
+			flushTransferProgress();
+
 			// Update rich messaging history
 			RichMessagingHistory.getInstance().updateFileTransferStatus(session.getSessionID(), FileTransfer.State.FAILED);
 
@@ -511,23 +529,46 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 	 */
     public void handleTransferProgress(long currentSize, long totalSize) {
     	synchronized(lock) {
-			// Update rich messaging history
-	  		RichMessagingHistory.getInstance().updateFileTransferProgress(session.getSessionID(), currentSize, totalSize);
+    		// Update the progress, the rich messaging history being updated in batches
+    		if (!FileTransferProgressAggregator.getInstance().update(session.getSessionID(), currentSize, totalSize)) {
+    			// Coalesced with the next progress
+    			return;
+    		}
 			
-	  		// Notify event listeners
-			final int N = listeners.beginBroadcast();
-	        for (int i=0; i < N; i++) {
-	            try {
-	            	listeners.getBroadcastItem(i).onTransferProgress(currentSize, totalSize);
-	            } catch(Exception e) {
-	            	if (logger.isActivated()) {
-	            		logger.error("Can't notify listener", e);
-	            	}
-	            }
-	        }
-	        listeners.finishBroadcast();		
+    		notifyTransferProgress(currentSize, totalSize);
 	     }
     }
+
+    /**
+     * Flush the last progress of the transfer in the rich messaging history
+     * and notify it if needed
+     */
+    private void flushTransferProgress() {
+    	long[] progress = FileTransferProgressAggregator.getInstance().flush(session.getSessionID());
+    	if (progress != null) {
+    		notifyTransferProgress(progress[0], progress[1]);
+    	}
+    }
+
+    /**
+	 * Notify the transfer progress to the event listeners
+	 * 
+	 * @param currentSize Data size transferred 
+	 * @param totalSize Total size to be transferred
+	 */
+    private void notifyTransferProgress(long currentSize, long totalSize) {
+		final int N = listeners.beginBroadcast();
+        for (int i=0; i < N; i++) {
+            try {
+            	listeners.getBroadcastItem(i).onTransferProgress(currentSize, totalSize);
+            } catch(Exception e) {
+            	if (logger.isActivated()) {
+            		logger.error("Can't notify listener", e);
+            	}
+            }
+        }
+        listeners.finishBroadcast();		
+    }
     
     /**
      * File has been transfered
@@ -540,6 +581,9 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 				logger.info("Content transferred");
 			}
 	
+			// Flush the transfer progress
+			flushTransferProgress();
+
 			// Update rich messaging history
 			RichMessagingHistory.getInstance().updateFileTransferUrl(session.getSessionID(), filename);
 	
@@ -567,6 +611,9 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 				logger.info("Transfer paused");
 			}
 
+			// Flush the transfer progress
+			flushTransferProgress();
+
 			// Update rich messaging history
 			RichMessagingHistory.getInstance().updateFileTransferStatus(session.getSessionID(), FileTransfer.State.PAUSED);
 
@@ -594,6 +641,9 @@ public class FileTransferImpl extends IFileTransfer.Stub implements FileSharingS
 				logger.info("Transfer resumed");
 			}
 
+			// Take the transfer progress into account again
+			FileTransferProgressAggregator.getInstance().resume(session.getSessionID());
+
 			// Update rich messaging history
 			RichMessagingHistory.getInstance().updateFileTransferStatus(session.getSessionID(), FileTransfer.State.STARTED);
 
@@ -0,0 +1,434 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package com.orangelabs.rcs.service.api;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+import com.orangelabs.rcs.provider.messaging.RichMessagingHistory;
+import com.orangelabs.rcs.utils.TimerService;
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * File transfer progress aggregator. The progress events of a transfer are
+ * raised for each chunk of data: they are coalesced so that the listeners are
+ * only notified when enough time has elapsed or enough data has been
+ * transferred since the last notification. The latest progress of all the
+ * transfers is written in the history in a single batch at a fixed period,
+ * and the last progress of a transfer is flushed when it ends or is paused.
+ * The progress events raised after the flush are ignored until the transfer
+ * is resumed.
+ *
+ * @author Jean-Marc AUFFRET
+ */
+public class FileTransferProgressAggregator {
+	/**
+	 * Maximum time between two notifications of a progressing transfer (in milliseconds)
+	 */
+	private static final long MAX_NOTIFY_PERIOD = 1000;
+
+	/**
+	 * Minimum time between two notifications of a transfer (in milliseconds)
+	 */
+	private static final long MIN_NOTIFY_PERIOD = 100;
+
+	/**
+	 * Number of notifications for an entire transfer, when notified on the
+	 * transferred size
+	 */
+	private static final int NOTIFY_STEPS = 100;
+
+	/**
+	 * Period of the history updates (in milliseconds)
+	 */
+	private static final long WRITE_PERIOD = 1000;
+
+	/**
+	 * Idle time after which a transfer which has not been flushed is forgotten,
+	 * and after which a flushed transfer is forgotten (in milliseconds)
+	 */
+	private static final long IDLE_TIMEOUT = 60000;
+
+	/**
+	 * Singleton instance
+	 */
+	private static FileTransferProgressAggregator instance = null;
+
+	/**
+	 * Progress of the transfers in progress, indexed by transfer ID
+	 */
+	private Hashtable<String, TransferProgress> transfers = new Hashtable<String, TransferProgress>();
+
+	/**
+	 * Time of the flush of the transfers which have ended or are paused,
+	 * indexed by transfer ID
+	 */
+	private Hashtable<String, Long> flushedTransfers = new Hashtable<String, Long>();
+
+	/**
+	 * Timeout of the next history update
+	 */
+	private TimerService.Timeout timer = null;
+
+	/**
+	 * Lock serializing the history updates
+	 */
+	private Object writeLock = new Object();
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Returns instance
+	 *
+	 * @return Instance
+	 */
+	public static synchronized FileTransferProgressAggregator getInstance() {
+		if (instance == null) {
+			instance = new FileTransferProgressAggregator();
+		}
+		return instance;
+	}
+
+	/**
+	 * Constructor
+	 */
+	private FileTransferProgressAggregator() {
+	}
+
+	/**
+	 * Update the progress of a transfer
+	 *
+	 * @param transferId Transfer ID
+	 * @param currentSize Data size transferred
+	 * @param totalSize Total size to be transferred
+	 * @return Returns true if the listeners should be notified of the progress
+	 */
+	public boolean update(String transferId, long currentSize, long totalSize) {
+		long now = System.currentTimeMillis();
+		synchronized(transfers) {
+			if (flushedTransfers.containsKey(transferId)) {
+				// Late progress of a transfer which has ended or is paused
+				return false;
+			}
+			TransferProgress progress = transfers.get(transferId);
+			if (progress == null) {
+				progress = new TransferProgress(currentSize, now);
+				transfers.put(transferId, progress);
+				startTimer();
+			}
+			progress.currentSize = currentSize;
+			progress.totalSize = totalSize;
+			progress.updateTime = now;
+			progress.dirty = true;
+			if (!progress.mustNotify(now)) {
+				return false;
+			}
+			progress.notified(now);
+			return true;
+		}
+	}
+
+	/**
+	 * Flush the progress of a transfer which ends or is paused: the history is
+	 * updated with its last progress and the next progress events of the
+	 * transfer are ignored until it is resumed
+	 *
+	 * @param transferId Transfer ID
+	 * @return Transferred and total sizes if the last progress has not been
+	 *         notified yet, else null
+	 */
+	public long[] flush(String transferId) {
+		synchronized(writeLock) {
+			TransferProgress progress;
+			synchronized(transfers) {
+				progress = transfers.remove(transferId);
+				flushedTransfers.put(transferId, Long.valueOf(System.currentTimeMillis()));
+				startTimer();
+			}
+			if (progress == null) {
+				return null;
+			}
+
+			if (progress.dirty) {
+				RichMessagingHistory.getInstance().updateFileTransfersProgress(new String[] { transferId },
+						new long[] { progress.currentSize }, new long[] { progress.totalSize });
+			}
+
+			if (logger.isActivated()) {
+				logger.debug("Transfer " + transferId + ": " + progress.currentSize + "/" + progress.totalSize
+						+ " bytes, average throughput " + progress.getAverageThroughput(System.currentTimeMillis())
+						+ " bytes/s");
+			}
+
+			if (progress.notifiedSize == progress.currentSize) {
+				return null;
+			}
+			return new long[] { progress.currentSize, progress.totalSize };
+		}
+	}
+
+	/**
+	 * Resume a transfer which has been paused: its progress events are taken
+	 * into account again
+	 *
+	 * @param transferId Transfer ID
+	 */
+	public void resume(String transferId) {
+		synchronized(transfers) {
+			flushedTransfers.remove(transferId);
+		}
+	}
+
+	/**
+	 * Returns the current throughput of a transfer
+	 *
+	 * @param transferId Transfer ID
+	 * @return Throughput in bytes per second or -1 if the transfer is not in progress
+	 */
+	public long getThroughput(String transferId) {
+		TransferProgress progress = transfers.get(transferId);
+		if (progress == null) {
+			return -1;
+		}
+		return progress.throughput;
+	}
+
+	/**
+	 * Returns the average throughput of a transfer since its start or its resume
+	 *
+	 * @param transferId Transfer ID
+	 * @return Throughput in bytes per second or -1 if the transfer is not in progress
+	 */
+	public long getAverageThroughput(String transferId) {
+		TransferProgress progress = transfers.get(transferId);
+		if (progress == null) {
+			return -1;
+		}
+		return progress.getAverageThroughput(System.currentTimeMillis());
+	}
+
+	/**
+	 * Start the timer of the history updates
+	 */
+	private void startTimer() {
+		if (timer != null) {
+			return;
+		}
+		timer = TimerService.getInstance().schedule(new Runnable() {
+			public void run() {
+				writeProgress();
+			}
+		}, WRITE_PERIOD);
+	}
+
+	/**
+	 * Stop the timer of the history updates
+	 */
+	private void stopTimer() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	/**
+	 * Write the progress of the transfers updated since the last write
+	 */
+	private void writeProgress() {
+		synchronized(writeLock) {
+			String[] transferIds;
+			long[] sizes;
+			long[] totalSizes;
+			int count = 0;
+			long now = System.currentTimeMillis();
+			Vector<String> idleTransfers = new Vector<String>();
+			synchronized(transfers) {
+				transferIds = new String[transfers.size()];
+				sizes = new long[transferIds.length];
+				totalSizes = new long[transferIds.length];
+				for (Enumeration<String> e = transfers.keys(); e.hasMoreElements();) {
+					String transferId = e.nextElement();
+					TransferProgress progress = transfers.get(transferId);
+					if (progress.dirty) {
+						transferIds[count] = transferId;
+						sizes[count] = progress.currentSize;
+						totalSizes[count] = progress.totalSize;
+						progress.dirty = false;
+						count++;
+					} else
+					if (now - progress.updateTime > IDLE_TIMEOUT) {
+						// The end of the transfer has not been flushed
+						idleTransfers.addElement(transferId);
+					}
+				}
+				for (int i = 0; i < idleTransfers.size(); i++) {
+					transfers.remove(idleTransfers.elementAt(i));
+				}
+				idleTransfers.removeAllElements();
+				for (Enumeration<String> e = flushedTransfers.keys(); e.hasMoreElements();) {
+					String transferId = e.nextElement();
+					if (now - flushedTransfers.get(transferId).longValue() > IDLE_TIMEOUT) {
+						idleTransfers.addElement(transferId);
+					}
+				}
+				for (int i = 0; i < idleTransfers.size(); i++) {
+					flushedTransfers.remove(idleTransfers.elementAt(i));
+				}
+				if (transfers.isEmpty() && flushedTransfers.isEmpty()) {
+					stopTimer();
+				} else
+				if ((timer != null) && !timer.isScheduled()) {
+					timer.reschedule(WRITE_PERIOD);
+				}
+			}
+			if (count == 0) {
+				return;
+			}
+			if (count < transferIds.length) {
+				String[] ids = new String[count];
+				System.arraycopy(transferIds, 0, ids, 0, count);
+				transferIds = ids;
+			}
+
+			try {
+				RichMessagingHistory.getInstance().updateFileTransfersProgress(transferIds, sizes, totalSizes);
+			} catch(Exception e) {
+				if (logger.isActivated()) {
+					logger.error("Can't update the progress of the transfers", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Progress of a transfer
+	 */
+	private static class TransferProgress {
+		/**
+		 * Data size transferred
+		 */
+		private long currentSize;
+
+		/**
+		 * Total size to be transferred
+		 */
+		private long totalSize;
+
+		/**
+		 * Time of the last update
+		 */
+		private long updateTime;
+
+		/**
+		 * The progress has not been written in the history yet
+		 */
+		private boolean dirty = false;
+
+		/**
+		 * Data size transferred at the first update
+		 */
+		private long startSize;
+
+		/**
+		 * Time of the first update
+		 */
+		private long startTime;
+
+		/**
+		 * Data size transferred at the last notification (-1 if not notified)
+		 */
+		private long notifiedSize = -1;
+
+		/**
+		 * Time of the last notification
+		 */
+		private long notifiedTime = 0;
+
+		/**
+		 * Smoothed throughput in bytes per second
+		 */
+		private long throughput = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param size Data size transferred at the first update
+		 * @param time Time of the first update
+		 */
+		private TransferProgress(long size, long time) {
+			startSize = size;
+			startTime = time;
+		}
+
+		/**
+		 * Check if the progress has to be notified
+		 *
+		 * @param now Current time
+		 * @return Boolean
+		 */
+		private boolean mustNotify(long now) {
+			if (currentSize == notifiedSize) {
+				return false;
+			}
+			if ((notifiedSize == -1) || (currentSize >= totalSize)) {
+				// First or last progress
+				return true;
+			}
+			long elapsed = now - notifiedTime;
+			if (elapsed >= MAX_NOTIFY_PERIOD) {
+				return true;
+			}
+			return (elapsed >= MIN_NOTIFY_PERIOD) && (currentSize - notifiedSize >= totalSize / NOTIFY_STEPS);
+		}
+
+		/**
+		 * The progress has been notified
+		 *
+		 * @param now Current time
+		 */
+		private void notified(long now) {
+			if ((notifiedSize != -1) && (now > notifiedTime)) {
+				long rate = (currentSize - notifiedSize) * 1000 / (now - notifiedTime);
+				if (throughput == 0) {
+					throughput = rate;
+				} else {
+					throughput = (3 * throughput + rate) / 4;
+				}
+			}
+			notifiedSize = currentSize;
+			notifiedTime = now;
+		}
+
+		/**
+		 * Returns the average throughput since the first update
+		 *
+		 * @param now Current time
+		 * @return Throughput in bytes per second
+		 */
+		private long getAverageThroughput(long now) {
+			if (now <= startTime) {
+				return 0;
+			}
+			return (currentSize - startSize) * 1000 / (now - startTime);
+		}
+	}
+}
@@ -391,12 +391,8 @@ public class GroupChatImpl extends IGroupChat.Stub implements ChatSessionListene
 			}
 			
 			// Send MSRP delivery status
-	        Thread t = new Thread() {
-	    		public void run() {
-	    			session.sendMsrpMessageDeliveryStatus(session.getRemoteContact(), msgId, ImdnDocument.DELIVERY_STATUS_DISPLAYED);
-	    		}
-	    	};
-	    	t.start();
+			session.getImdnManager().sendMessageDeliveryStatus(
+					session, session.getRemoteContact(), msgId, ImdnDocument.DELIVERY_STATUS_DISPLAYED);
 		} catch(Exception e) {
 			if (logger.isActivated()) {
 				logger.error("Could not send MSRP delivery status",e);
@@ -545,10 +541,6 @@ public class GroupChatImpl extends IGroupChat.Stub implements ChatSessionListene
 				logger.info("New IM received");
 			}
 			
-			// Update rich messaging history
-			RichMessagingHistory.getInstance().addGroupChatMessage(session.getContributionID(),
-					message, ChatLog.Message.Direction.INCOMING);
-			
 	  		// Notify event listeners
 			final int N = listeners.beginBroadcast();
 	        for (int i=0; i < N; i++) {
@@ -768,10 +760,6 @@ public class GroupChatImpl extends IGroupChat.Stub implements ChatSessionListene
 				logger.info("New geoloc received");
 			}
 			
-			// Update rich messaging history
-			RichMessagingHistory.getInstance().addGroupChatMessage(session.getContributionID(),
-					geoloc, ChatLog.Message.Direction.INCOMING);
-			
 	  		// Notify event listeners
 			final int N = listeners.beginBroadcast();
 	        for (int i=0; i < N; i++) {
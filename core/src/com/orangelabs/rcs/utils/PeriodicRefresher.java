@@ -18,14 +18,6 @@
 
 package com.orangelabs.rcs.utils;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-
-import com.orangelabs.rcs.platform.AndroidFactory;
 import com.orangelabs.rcs.utils.logger.Logger;
 
 /**
@@ -35,20 +27,10 @@ import com.orangelabs.rcs.utils.logger.Logger;
  */
 public abstract class PeriodicRefresher {
 	/**
-     * Keep alive manager
-     */
-    private KeepAlive alarmReceiver = new KeepAlive(); 
-
-    /**
-     * Alarm intent
+     * Timeout of the timer service
      */
-    private PendingIntent alarmIntent;
+    private TimerService.Timeout timeout = null;
 
-    /**
-     * Action 
-     */
-    private String action;
-    
     /**
      * Timer state
      */
@@ -68,13 +50,6 @@ public abstract class PeriodicRefresher {
      * Constructor
      */
     public PeriodicRefresher() {
-    	// Create a unique pending intent
-    	this.action = this.toString(); // Unique action ID 
-    	this.alarmIntent = PendingIntent.getBroadcast(
-    			AndroidFactory.getApplicationContext(),
-    			0,
-    			new Intent(action),
-    			0);
     }
     
     /**
@@ -113,12 +88,19 @@ public abstract class PeriodicRefresher {
     		logger.debug("Start timer at period=" + pollingPeriod +  "s (expiration=" + expirePeriod + "s)");
     	}
 
-        // Register the alarm receiver
-    	AndroidFactory.getApplicationContext().registerReceiver(alarmReceiver, new IntentFilter(action));		
-    	
-    	// Start alarm from now to the expire value
-        AlarmManager am = (AlarmManager)AndroidFactory.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
-        am.set(AlarmManager.RTC_WAKEUP, System.currentTimeMillis()+pollingPeriod*1000, alarmIntent);
+        // Schedule the timer from now to the expire value, a rescheduled timer
+        // replacing the previous one. The processing may wait for a SIP
+        // response, so it is run on its own thread.
+    	if (timeout == null) {
+    		timeout = TimerService.getInstance().scheduleBlocking(new Runnable() {
+    			public void run() {
+    				// Processing
+    				periodicProcessing();
+    			}
+    		}, pollingPeriod * 1000L);
+    	} else {
+    		timeout.reschedule(pollingPeriod * 1000L);
+    	}
 
         // The timer is started
     	timerStarted = true;
@@ -140,30 +122,7 @@ public abstract class PeriodicRefresher {
     	// The timer is stopped
 		timerStarted = false;
 		
-		// Cancel alarm
-		AlarmManager am = (AlarmManager)AndroidFactory.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
-		am.cancel(alarmIntent);
-
-		// Unregister the alarm receiver
-		try {
-			AndroidFactory.getApplicationContext().unregisterReceiver(alarmReceiver);
-	    } catch (IllegalArgumentException e) {
-	    	// Nothing to do
-	    }
+		// Cancel the timer
+		timeout.cancel();
     }
-
-    /**
-     * Keep alive manager
-     */
-    private class KeepAlive extends BroadcastReceiver {
-    	public void onReceive(Context context, Intent intent) {
-    		Thread t = new Thread() {
-    			public void run() {
-    				// Processing
-    				periodicProcessing();
-    			}
-    		};
-    		t.start();
-    	}
-    }    
 }
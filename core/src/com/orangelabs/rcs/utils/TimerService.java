@@ -0,0 +1,451 @@
+/*******************************************************************************
+ * Software Name : RCS IMS Stack
+ *
+ * Copyright (C) 2010 France Telecom S.A.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+
+package com.orangelabs.rcs.utils;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+
+import com.orangelabs.rcs.platform.AndroidFactory;
+import com.orangelabs.rcs.utils.logger.Logger;
+
+/**
+ * Timer service shared by all the timers of the stack. The timers are stored
+ * in a hashed timing wheel: scheduling and cancelling a timer are done in
+ * constant time whatever the number of timers. The wheel is advanced each
+ * tick by a single thread and the expired tasks are run by a small pool of
+ * threads, except the blocking tasks (e.g. a refresh waiting for a SIP
+ * response) which are each run on their own thread so that they can't delay
+ * the other timers. A single wake-up alarm is kept on the earliest deadline so that
+ * the timers expire even when the device is asleep.
+ *
+ * @author JM. Auffret
+ */
+public class TimerService {
+	/**
+	 * Duration of a tick of the wheel (in milliseconds)
+	 */
+	private static final long TICK_DURATION = 1000;
+
+	/**
+	 * Number of buckets of the wheel (power of 2)
+	 */
+	private static final int WHEEL_SIZE = 256;
+
+	/**
+	 * Number of threads running the expired tasks
+	 */
+	private static final int EXECUTOR_THREADS = 4;
+
+	/**
+	 * Idle time after which a thread running the expired tasks is stopped (in seconds)
+	 */
+	private static final long EXECUTOR_KEEP_ALIVE = 60;
+
+	/**
+	 * Action of the wake-up alarm
+	 */
+	private static final String ALARM_ACTION = "com.orangelabs.rcs.TIMER_SERVICE";
+
+	/**
+	 * Singleton instance
+	 */
+	private static TimerService instance = null;
+
+	/**
+	 * Buckets of the wheel, each bucket being a doubly linked list of timeouts
+	 */
+	private Timeout[] wheel = new Timeout[WHEEL_SIZE];
+
+	/**
+	 * Number of scheduled timeouts
+	 */
+	private int count = 0;
+
+	/**
+	 * Index of the next tick to be processed
+	 */
+	private long tick = 0;
+
+	/**
+	 * Time of the next tick to be processed
+	 */
+	private long nextTickTime = 0;
+
+	/**
+	 * Time of the wake-up alarm (-1 if no alarm is set)
+	 */
+	private long alarmTime = -1;
+
+	/**
+	 * Wheel thread
+	 */
+	private Thread wheelThread = null;
+
+	/**
+	 * Executor of the expired tasks
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * Executor of the expired blocking tasks, a thread being started when no
+	 * idle one is available
+	 */
+	private ThreadPoolExecutor blockingExecutor;
+
+	/**
+	 * Wake-up alarm receiver
+	 */
+	private BroadcastReceiver alarmReceiver = null;
+
+	/**
+	 * Wake-up alarm intent
+	 */
+	private PendingIntent alarmIntent = null;
+
+	/**
+	 * The logger
+	 */
+	private Logger logger = Logger.getLogger(this.getClass().getName());
+
+	/**
+	 * Returns instance
+	 *
+	 * @return Instance
+	 */
+	public static synchronized TimerService getInstance() {
+		if (instance == null) {
+			instance = new TimerService();
+		}
+		return instance;
+	}
+
+	/**
+	 * Constructor
+	 */
+	private TimerService() {
+		executor = new ThreadPoolExecutor(EXECUTOR_THREADS, EXECUTOR_THREADS,
+				EXECUTOR_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+		executor.allowCoreThreadTimeOut(true);
+		blockingExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+				EXECUTOR_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+	}
+
+	/**
+	 * Schedule a task
+	 *
+	 * @param task Task to be run when the timer expires
+	 * @param delay Delay before the expiration (in milliseconds)
+	 * @return Timeout which may be cancelled or rescheduled
+	 */
+	public Timeout schedule(Runnable task, long delay) {
+		Timeout timeout = new Timeout(task, false);
+		schedule(timeout, delay);
+		return timeout;
+	}
+
+	/**
+	 * Schedule a task which may block when run (e.g. waiting for a network
+	 * response). The task is run on its own thread when the timer expires.
+	 *
+	 * @param task Task to be run when the timer expires
+	 * @param delay Delay before the expiration (in milliseconds)
+	 * @return Timeout which may be cancelled or rescheduled
+	 */
+	public Timeout scheduleBlocking(Runnable task, long delay) {
+		Timeout timeout = new Timeout(task, true);
+		schedule(timeout, delay);
+		return timeout;
+	}
+
+	/**
+	 * Schedule a timeout, which is first cancelled if already scheduled
+	 *
+	 * @param timeout Timeout
+	 * @param delay Delay before the expiration (in milliseconds)
+	 */
+	private synchronized void schedule(Timeout timeout, long delay) {
+		remove(timeout);
+
+		long now = SystemClock.elapsedRealtime();
+		if (count == 0) {
+			// The wheel is idle: restart it from now
+			nextTickTime = now + TICK_DURATION;
+		}
+		long deadline = now + Math.max(0, delay);
+		long ticks = 0;
+		if (deadline > nextTickTime) {
+			ticks = (deadline - nextTickTime + TICK_DURATION - 1) / TICK_DURATION;
+		}
+		timeout.rounds = ticks / WHEEL_SIZE;
+		timeout.bucket = (int)((tick + ticks) & (WHEEL_SIZE - 1));
+
+		// Insert in the bucket
+		timeout.next = wheel[timeout.bucket];
+		timeout.previous = null;
+		if (timeout.next != null) {
+			timeout.next.previous = timeout;
+		}
+		wheel[timeout.bucket] = timeout;
+		count++;
+
+		if (wheelThread == null) {
+			startWheel();
+		} else
+		if ((count == 1) || (alarmTime == -1) || (deadline < alarmTime)) {
+			notify();
+		}
+	}
+
+	/**
+	 * Cancel a timeout
+	 *
+	 * @param timeout Timeout
+	 * @return Returns true if the timeout was scheduled
+	 */
+	private synchronized boolean cancel(Timeout timeout) {
+		return remove(timeout);
+	}
+
+	/**
+	 * Remove a timeout from its bucket
+	 *
+	 * @param timeout Timeout
+	 * @return Returns true if the timeout was scheduled
+	 */
+	private boolean remove(Timeout timeout) {
+		if (timeout.bucket == -1) {
+			return false;
+		}
+		if (timeout.previous != null) {
+			timeout.previous.next = timeout.next;
+		} else {
+			wheel[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.next = null;
+		timeout.previous = null;
+		timeout.bucket = -1;
+		count--;
+		return true;
+	}
+
+	/**
+	 * Start the wheel thread and register the wake-up alarm receiver
+	 */
+	private void startWheel() {
+		Context context = AndroidFactory.getApplicationContext();
+		if ((context != null) && (alarmReceiver == null)) {
+			alarmReceiver = new BroadcastReceiver() {
+				public void onReceive(Context context, Intent intent) {
+					synchronized(TimerService.this) {
+						alarmTime = -1;
+						advance();
+						TimerService.this.notify();
+					}
+				}
+			};
+			context.registerReceiver(alarmReceiver, new IntentFilter(ALARM_ACTION));
+			alarmIntent = PendingIntent.getBroadcast(context, 0, new Intent(ALARM_ACTION), 0);
+		}
+
+		wheelThread = new Thread("TimerService") {
+			public void run() {
+				processWheel();
+			}
+		};
+		wheelThread.setDaemon(true);
+		wheelThread.start();
+	}
+
+	/**
+	 * Wheel thread processing
+	 */
+	private synchronized void processWheel() {
+		if (logger.isActivated()) {
+			logger.debug("Timer service is started");
+		}
+		while (true) {
+			advance();
+			updateAlarm();
+			try {
+				if (count == 0) {
+					wait();
+				} else {
+					long delay = nextTickTime - SystemClock.elapsedRealtime();
+					if (delay > 0) {
+						wait(delay);
+					}
+				}
+			} catch(InterruptedException e) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Process the ticks elapsed up to now, the expired tasks being given to
+	 * their executor
+	 */
+	private void advance() {
+		long now = SystemClock.elapsedRealtime();
+		while ((count > 0) && (nextTickTime <= now)) {
+			int bucket = (int)(tick & (WHEEL_SIZE - 1));
+			Timeout timeout = wheel[bucket];
+			while (timeout != null) {
+				Timeout next = timeout.next;
+				if (timeout.rounds <= 0) {
+					remove(timeout);
+					try {
+						if (timeout.blocking) {
+							blockingExecutor.execute(timeout.task);
+						} else {
+							executor.execute(timeout.task);
+						}
+					} catch(Exception e) {
+						if (logger.isActivated()) {
+							logger.error("Can't run expired timer", e);
+						}
+					}
+				} else {
+					timeout.rounds--;
+				}
+				timeout = next;
+			}
+			tick++;
+			nextTickTime += TICK_DURATION;
+		}
+	}
+
+	/**
+	 * Set the wake-up alarm on the first tick having a scheduled timeout. This
+	 * tick may be before the earliest deadline when the timeout expires after
+	 * a full revolution of the wheel, the alarm being set again at that time.
+	 */
+	private void updateAlarm() {
+		if (alarmIntent == null) {
+			return;
+		}
+		AlarmManager am = (AlarmManager)AndroidFactory.getApplicationContext().getSystemService(Context.ALARM_SERVICE);
+		if (count == 0) {
+			if (alarmTime != -1) {
+				am.cancel(alarmIntent);
+				alarmTime = -1;
+			}
+			return;
+		}
+		long time = -1;
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			if (wheel[(int)((tick + i) & (WHEEL_SIZE - 1))] != null) {
+				time = nextTickTime + i * TICK_DURATION;
+				break;
+			}
+		}
+		if (time != alarmTime) {
+			am.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, time, alarmIntent);
+			alarmTime = time;
+		}
+	}
+
+	/**
+	 * Timeout of a scheduled task
+	 */
+	public class Timeout {
+		/**
+		 * Task
+		 */
+		private Runnable task;
+
+		/**
+		 * Blocking task
+		 */
+		private boolean blocking;
+
+		/**
+		 * Remaining revolutions of the wheel before the expiration
+		 */
+		private long rounds = 0;
+
+		/**
+		 * Bucket index (-1 if not scheduled)
+		 */
+		private int bucket = -1;
+
+		/**
+		 * Next timeout in the bucket
+		 */
+		private Timeout next = null;
+
+		/**
+		 * Previous timeout in the bucket
+		 */
+		private Timeout previous = null;
+
+		/**
+		 * Constructor
+		 *
+		 * @param task Task
+		 * @param blocking Blocking task
+		 */
+		private Timeout(Runnable task, boolean blocking) {
+			this.task = task;
+			this.blocking = blocking;
+		}
+
+		/**
+		 * Cancel the timeout
+		 *
+		 * @return Returns true if the timeout was scheduled
+		 */
+		public boolean cancel() {
+			return TimerService.this.cancel(this);
+		}
+
+		/**
+		 * Reschedule the timeout from now, whether it has expired or not
+		 *
+		 * @param delay Delay before the expiration (in milliseconds)
+		 */
+		public void reschedule(long delay) {
+			TimerService.this.schedule(this, delay);
+		}
+
+		/**
+		 * Is scheduled
+		 *
+		 * @return Boolean
+		 */
+		public boolean isScheduled() {
+			synchronized(TimerService.this) {
+				return bucket != -1;
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+package gov2.nist.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A growable byte buffer used to encode SIP messages in a single pass:
+ * headers append their bytes directly into the buffer instead of building
+ * intermediate strings. The same buffer may be reused for several messages.
+ *
+ *@version 1.2
+ *
+ */
+public class GrowableByteBuffer {
+
+    /**
+     * The buffer. Its position is the length of the encoded data.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity -- initial capacity.
+     */
+    public GrowableByteBuffer(int capacity) {
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, 16));
+    }
+
+    /**
+     * Get the underlying buffer: the data is between 0 and its position.
+     * The buffer changes when it has to grow.
+     *
+     * @return the byte buffer.
+     */
+    public ByteBuffer getByteBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Get the length of the encoded data.
+     *
+     * @return the number of bytes.
+     */
+    public int length() {
+        return buffer.position();
+    }
+
+    /**
+     * Discard the encoded data to reuse the buffer.
+     */
+    public void clear() {
+        buffer.clear();
+    }
+
+    /**
+     * Make room for some more bytes.
+     *
+     * @param count -- number of bytes to be appended.
+     */
+    public void ensureRemaining(int count) {
+        if (buffer.remaining() < count) {
+            int capacity = buffer.capacity();
+            int needed = buffer.position() + count;
+            while (capacity < needed) {
+                capacity <<= 1;
+            }
+            ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Append a byte.
+     *
+     * @param b -- the byte.
+     * @return this buffer.
+     */
+    public GrowableByteBuffer put(byte b) {
+        ensureRemaining(1);
+        buffer.put(b);
+        return this;
+    }
+
+    /**
+     * Append bytes.
+     *
+     * @param bytes -- the bytes.
+     * @return this buffer.
+     */
+    public GrowableByteBuffer put(byte[] bytes) {
+        return put(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Append bytes.
+     *
+     * @param bytes -- array containing the bytes.
+     * @param offset -- offset of the first byte.
+     * @param length -- number of bytes.
+     * @return this buffer.
+     */
+    public GrowableByteBuffer put(byte[] bytes, int offset, int length) {
+        ensureRemaining(length);
+        buffer.put(bytes, offset, length);
+        return this;
+    }
+
+    /**
+     * Append the UTF-8 encoding of a string. ASCII characters, which are the
+     * vast majority in SIP messages, are copied directly.
+     *
+     * @param s -- the string.
+     * @return this buffer.
+     */
+    public GrowableByteBuffer put(CharSequence s) {
+        int length = s.length();
+        ensureRemaining(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (!buffer.hasRemaining()) {
+                    ensureRemaining(length - i);
+                }
+                buffer.put((byte) c);
+            } else {
+                i = putNonAscii(s, i);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Append the UTF-8 encoding of a non ASCII character.
+     *
+     * @param s -- the string.
+     * @param index -- index of the character.
+     * @return the index of the last character consumed.
+     */
+    private int putNonAscii(CharSequence s, int index) {
+        char c = s.charAt(index);
+        ensureRemaining(4 + s.length() - index);
+        if (c < 0x800) {
+            buffer.put((byte) (0xc0 | (c >> 6)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+        } else if (Character.isHighSurrogate(c) && index + 1 < s.length()
+                && Character.isLowSurrogate(s.charAt(index + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(index + 1));
+            buffer.put((byte) (0xf0 | (cp >> 18)));
+            buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+            buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (cp & 0x3f)));
+            return index + 1;
+        } else if (c >= '\uD800' && c <= '\uDFFF') {
+            // Malformed surrogate pair: same replacement as String.getBytes()
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xe0 | (c >> 12)));
+            buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+            buffer.put((byte) (0x80 | (c & 0x3f)));
+        }
+        return index;
+    }
+
+    /**
+     * Copy the encoded data.
+     *
+     * @return a new array containing the encoded data.
+     */
+    public byte[] toByteArray() {
+        byte[] retval = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, retval, 0, retval.length);
+        return retval;
+    }
+
+    /**
+     * Copy the data encoded after a given position.
+     *
+     * @param from -- position of the first byte to copy.
+     * @return a new array containing the data.
+     */
+    public byte[] toByteArray(int from) {
+        byte[] retval = new byte[buffer.position() - from];
+        System.arraycopy(buffer.array(), from, retval, 0, retval.length);
+        return retval;
+    }
+
+    /**
+     * Discard the data encoded after a given position.
+     *
+     * @param position -- new length of the encoded data.
+     */
+    public void truncate(int position) {
+        buffer.position(position);
+    }
+}
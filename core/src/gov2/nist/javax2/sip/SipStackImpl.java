@@ -229,6 +229,11 @@ import javax2.sip.message.Request;
  * machine but will run the listener in its own thread.</li>
  * </ul>
  * 
+ * <li><b>gov2.nist.javax2.sip.TIMER_THREAD_POOL_SIZE = integer </b> <br/>
+ * Default is 2. Number of threads running the expired transaction timers.
+ * Each transaction registers only the deadline of its next timer in a hashed
+ * timing wheel, whose expired timers are run by this pool of threads.
+ * 
  * <li><b>gov2.nist.javax2.sip.REENTRANT_LISTENER = true|false </b> <br/>
  * Default is false. Set to true if the listener is re-entrant. If the listener
  * is re-entrant then the stack manages a thread pool and synchronously calls
@@ -242,6 +247,20 @@ import javax2.sip.message.Request;
  * <li><b>gov2.nist.javax2.sip.MAX_CONNECTIONS = integer </b> <br/>
  * Max number of simultaneous TCP connections handled by stack.</li>
  * 
+ * <li><b>gov2.nist.javax2.sip.TCP_MESSAGE_PROCESSOR = blocking|nio </b> <br/>
+ * Default is blocking. With blocking, each TCP connection is read by its own
+ * thread. With nio, a single thread selects the non-blocking TCP connections
+ * and cuts the messages from the received bytes using their Content-Length,
+ * the messages being processed by a fixed pool of threads. TLS connections
+ * are always handled by a thread per connection. The nio processor opens its
+ * socket channels itself and cannot be combined with
+ * gov2.nist.javax2.sip.NETWORK_LAYER.</li>
+ * 
+ * <li><b>gov2.nist.javax2.sip.NIO_THREAD_POOL_SIZE = integer </b> <br/>
+ * Default is 2. Number of threads processing the messages received by the nio
+ * TCP message processor. The messages of a connection are always processed by
+ * the same thread, in their order of arrival.</li>
+ * 
  * <li><b>gov2.nist.javax2.sip.MAX_SERVER_TRANSACTIONS = integer </b> <br/>
  * Maximum size of server transaction table. The low water mark is 80% of the
  * high water mark. Requests are selectively dropped in the lowater mark to
@@ -329,6 +348,13 @@ import javax2.sip.message.Request;
  * parameter in the Message. Otherwise, it will use the content length supplied
  * and generate a parse exception if the content is truncated.
  * 
+ * <li><b>gov2.nist.javax2.sip.LAZY_HEADER_PARSING = [true|false] </b> <br/>
+ * Default is <it>false</it>. If set to <it>true</it>, only the core headers
+ * of the incoming messages (Via, From, To, Call-ID, CSeq, Contact, Route,
+ * Record-Route, Content-Type, Content-Length, Max-Forwards, Timestamp) are
+ * parsed on reception. The other headers are kept as raw text and parsed when
+ * they are first accessed, and are relayed unchanged if they never are.
+ * 
  * <li><b>gov2.nist.javax2.sip.CANCEL_CLIENT_TRANSACTION_CHECKED = [true|false]
  * </b> <br/>
  * Default is <it>true</it>. This flag is added in support of load balancers or
@@ -810,6 +836,18 @@ public class SipStackImpl extends SIPTransactionStack implements
 			}
 		}
 
+		String timerThreadPoolSize = configurationProperties
+				.getProperty("gov2.nist.javax2.sip.TIMER_THREAD_POOL_SIZE");
+		if (timerThreadPoolSize != null) {
+			try {
+				this.setTimerThreadCount(new Integer(timerThreadPoolSize).intValue());
+			} catch (IllegalArgumentException ex) {
+				if (isLoggingEnabled())
+					this.getStackLogger().logError(
+						"timer thread pool size - bad value " + ex.getMessage());
+			}
+		}
+
 		String serverTransactionTableSize = configurationProperties
 				.getProperty("gov2.nist.javax2.sip.MAX_SERVER_TRANSACTIONS");
 		if (serverTransactionTableSize != null) {
@@ -858,6 +896,34 @@ public class SipStackImpl extends SIPTransactionStack implements
 			super.cacheServerConnections = false;
 		}
 
+		String tcpMessageProcessor = configurationProperties
+				.getProperty("gov2.nist.javax2.sip.TCP_MESSAGE_PROCESSOR");
+		super.nioTcp = tcpMessageProcessor != null
+				&& "nio".equalsIgnoreCase(tcpMessageProcessor.trim());
+		if (super.nioTcp && configurationProperties.containsKey(NETWORK_LAYER_KEY)) {
+			// The nio processor opens its socket channels itself
+			throw new PeerUnavailableException(
+					"Bad configuration parameter gov2.nist.javax2.sip.TCP_MESSAGE_PROCESSOR : "
+							+ "nio cannot be used with gov2.nist.javax2.sip.NETWORK_LAYER");
+		}
+
+		String nioThreadPoolSize = configurationProperties
+				.getProperty("gov2.nist.javax2.sip.NIO_THREAD_POOL_SIZE");
+		if (nioThreadPoolSize != null) {
+			try {
+				int size = Integer.parseInt(nioThreadPoolSize);
+				if (size > 0) {
+					super.nioTcpThreadCount = size;
+				} else if (isLoggingEnabled()) {
+					getStackLogger().logError("Bad nio thread pool size " + nioThreadPoolSize);
+				}
+			} catch (NumberFormatException ex) {
+				if (isLoggingEnabled())
+					getStackLogger().logError(
+						"nio thread pool size - bad value " + ex.getMessage());
+			}
+		}
+
 		super.cacheClientConnections = true;
 		String cacheflag = configurationProperties
 				.getProperty("gov2.nist.javax2.sip.CACHE_CLIENT_CONNECTIONS");
@@ -974,6 +1040,11 @@ public class SipStackImpl extends SIPTransactionStack implements
 		StringMsgParser
 				.setComputeContentLengthFromMessage(computeContentLength);
 
+		boolean lazyHeaderParsing = configurationProperties.getProperty(
+				"gov2.nist.javax2.sip.LAZY_HEADER_PARSING",
+				"false").equalsIgnoreCase("true");
+		StringMsgParser.setLazyHeaderParsing(lazyHeaderParsing);
+
 		String tlsClientProtocols = configurationProperties.getProperty(
 				"gov2.nist.javax2.sip.TLS_CLIENT_PROTOCOLS");
 		if (tlsClientProtocols != null)
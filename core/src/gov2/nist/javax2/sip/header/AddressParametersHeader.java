@@ -57,6 +57,7 @@ public abstract class AddressParametersHeader extends ParametersHeader implement
      * @see gov2.nist.javax2.sip.header.AddressParameters#setAddress(javax2.sip.address.Address)
      */
     public void setAddress(Address address) {
+        invalidateEncoding();
         this.address = (AddressImpl) address;
     }
 
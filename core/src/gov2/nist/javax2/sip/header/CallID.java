@@ -75,6 +75,13 @@ public class CallID
     }
 
 
+
+    /** The encoding of this header is cached until it is modified.
+     */
+    protected boolean isEncodingCached() {
+        return true;
+    }
+
     /**
      * Encode the body part of this header (i.e. leave out the hdrName).
      *@return String encoded body part of the header.
@@ -115,6 +122,7 @@ public class CallID
      * not a token@token.
      */
     public void setCallId(String cid) throws ParseException {
+        invalidateEncoding();
         try {
             callIdentifier = new CallIdentifier(cid);
         } catch (IllegalArgumentException ex) {
@@ -127,6 +135,7 @@ public class CallID
      * @param cid CallIdentifier to set (localId@host).
      */
     public void setCallIdentifier(CallIdentifier cid) {
+        invalidateEncoding();
         callIdentifier = cid;
     }
 
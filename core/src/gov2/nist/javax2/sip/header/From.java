@@ -69,6 +69,13 @@ public final class From
         parameters = to.parameters;
     }
 
+
+    /** The encoding of this header is cached until it is modified.
+     */
+    protected boolean isEncodingCached() {
+        return true;
+    }
+
     /**
      * Encode the header content into a String.
      *
@@ -131,6 +138,7 @@ public final class From
     /** remove Tag member
      */
     public void removeTag() {
+        invalidateEncoding();
         parameters.delete(ParameterNames.TAG);
     }
 
@@ -139,6 +147,7 @@ public final class From
      * @param address Address to set
      */
     public void setAddress(javax2.sip.address.Address address) {
+        invalidateEncoding();
         this.address = (AddressImpl) address;
     }
 
@@ -147,6 +156,7 @@ public final class From
      * @param t tag to set. From tags are mandatory.
      */
     public void setTag(String t) throws ParseException {
+        invalidateEncoding();
         // JvB: check that it is a valid token
         Parser.checkToken(t);
         this.setParameter(ParameterNames.TAG, t);
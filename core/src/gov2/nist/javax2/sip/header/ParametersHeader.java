@@ -124,6 +124,7 @@ public abstract class ParametersHeader
     */
 
     public void removeParameter(String name) {
+        invalidateEncoding();
         this.parameters.delete(name);
     }
 
@@ -146,6 +147,7 @@ public abstract class ParametersHeader
      *
      */
     public void setParameter(String name, String value) throws ParseException {
+        invalidateEncoding();
         NameValue nv = parameters.getNameValue(name);
         if (nv != null) {
             nv.setValueAsObject(value);
@@ -175,6 +177,7 @@ public abstract class ParametersHeader
      */
     public void setQuotedParameter(String name, String value)
         throws ParseException {
+        invalidateEncoding();
         NameValue nv = parameters.getNameValue(name);
         if (nv != null) {
             nv.setValueAsObject(value);
@@ -202,6 +205,7 @@ public abstract class ParametersHeader
      *
      */
     protected void setParameter(String name, int value) {
+        invalidateEncoding();
         Integer val = Integer.valueOf(value);
         this.parameters.set(name,val);
 
@@ -223,6 +227,7 @@ public abstract class ParametersHeader
      *
      */
     protected void setParameter(String name, boolean value) {
+        invalidateEncoding();
         Boolean val = Boolean.valueOf(value);
         this.parameters.set(name,val);
     }
@@ -242,6 +247,7 @@ public abstract class ParametersHeader
      *
      */
     protected void setParameter(String name, float value) {
+        invalidateEncoding();
         Float val = Float.valueOf(value);
         NameValue nv = parameters.getNameValue(name);
         if (nv != null) {
@@ -271,6 +277,7 @@ public abstract class ParametersHeader
      *
      */
     protected void setParameter(String name, Object value) {
+        invalidateEncoding();
         this.parameters.set(name,value);
     }
 
@@ -289,6 +296,7 @@ public abstract class ParametersHeader
      *Remove all parameters.
      */
     public void removeParameters() {
+        invalidateEncoding();
         this.parameters = new NameValueList();
     }
 
@@ -305,6 +313,7 @@ public abstract class ParametersHeader
      * @param nameValue - the name value of the parameter to set.
      */
     public void setParameter(NameValue nameValue) {
+        invalidateEncoding();
         this.parameters.set(nameValue);
     }
 
@@ -314,6 +323,7 @@ public abstract class ParametersHeader
      * @param parameters The name value list to set as the parameter list.
      */
     public void setParameters(NameValueList parameters) {
+        invalidateEncoding();
         this.parameters = parameters;
     }
 
@@ -480,6 +490,7 @@ public abstract class ParametersHeader
      */
     public void setMultiParameter(String name, String value)
     {
+        invalidateEncoding();
     	NameValue nv = new NameValue();
     	nv.setName(name);
     	nv.setValue(value);
@@ -491,6 +502,7 @@ public abstract class ParametersHeader
     * @param nameValue - the name value of the parameter to set.
     */
    public void setMultiParameter(NameValue nameValue) {
+       invalidateEncoding();
        this.duplicates.set(nameValue);
    }
     
@@ -549,6 +561,7 @@ public abstract class ParametersHeader
     */
 
     public void removeMultiParameter(String name) {
+        invalidateEncoding();
         this.duplicates.delete(name);
     }
     
@@ -567,6 +580,7 @@ public abstract class ParametersHeader
      *Remove all parameters.
      */
     public void removeMultiParameters() {
+        invalidateEncoding();
         this.duplicates = new DuplicateNameValueList();
     }
 
@@ -0,0 +1,258 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+/*******************************************************************************
+* Product of NIST/ITL Advanced Networking Technologies Division (ANTD).        *
+*******************************************************************************/
+package gov2.nist.javax2.sip.header;
+
+import gov2.nist.core.GrowableByteBuffer;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A header which has not been parsed yet. It holds a copy of all the
+ * occurrences of one header name as received, so that the header objects
+ * are only built when the header is first accessed through the message (see
+ * StringMsgParser.setLazyHeaderParsing). The raw text is encoded back
+ * unchanged, hence a message which is only relayed or rejected never parses
+ * its non core headers. Only the header lines are copied, the received
+ * message buffer is not referenced.
+ *
+ * @version 1.2
+ *
+ */
+public class RawHeader extends SIPHeader {
+
+    private static final long serialVersionUID = 5179341617214366410L;
+
+    /**
+     * Occurrences of the header received in a byte buffer (null if received
+     * as a String).
+     */
+    private byte[] bytes;
+
+    /**
+     * Number of bytes used in the byte buffer.
+     */
+    private int length;
+
+    /**
+     * Occurrences of the header received in a String (null if received as
+     * bytes).
+     */
+    private StringBuffer text;
+
+    /**
+     * Start and end offsets of each occurrence of the header, including its
+     * continuation lines, in the copied text.
+     */
+    private int[] ranges = new int[4];
+
+    /**
+     * Number of occurrences.
+     */
+    private int count;
+
+    /**
+     * Constructor.
+     *
+     * @param hname Header name as received
+     */
+    public RawHeader(String hname) {
+        super(hname);
+    }
+
+    /**
+     * Record a new occurrence of the header received in a byte buffer.
+     *
+     * @param buffer Received message
+     * @param start Offset of the header name in the received message
+     * @param end Offset following the last significant character of the
+     * header
+     */
+    public void addRange(byte[] buffer, int start, int end) {
+        int size = end - start;
+        if (bytes == null) {
+            bytes = new byte[size];
+        } else if (length + size > bytes.length) {
+            byte[] newBytes = new byte[Math.max(2 * bytes.length, length + size)];
+            System.arraycopy(bytes, 0, newBytes, 0, length);
+            bytes = newBytes;
+        }
+        System.arraycopy(buffer, start, bytes, length, size);
+        addRange(length, length + size);
+        length += size;
+    }
+
+    /**
+     * Record a new occurrence of the header received in a String.
+     *
+     * @param message Received message
+     * @param start Offset of the header name in the received message
+     * @param end Offset following the last significant character of the
+     * header
+     */
+    public void addRange(String message, int start, int end) {
+        if (text == null) {
+            text = new StringBuffer(end - start);
+        }
+        int offset = text.length();
+        text.append(message, start, end);
+        addRange(offset, text.length());
+    }
+
+    /**
+     * Record the range of a new occurrence in the copied text.
+     */
+    private void addRange(int start, int end) {
+        if (2 * count == ranges.length) {
+            int[] newRanges = new int[2 * ranges.length];
+            System.arraycopy(ranges, 0, newRanges, 0, ranges.length);
+            ranges = newRanges;
+        }
+        ranges[2 * count] = start;
+        ranges[2 * count + 1] = end;
+        count++;
+    }
+
+    /**
+     * Return the number of occurrences of the header.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return an occurrence of the header as a single line, the continuation
+     * lines being unfolded as the eager parser does.
+     *
+     * @param index Index of the occurrence
+     * @return Header line without the line terminator
+     */
+    public String getHeader(int index) {
+        String line = getRawText(index);
+        if (line.indexOf('\n') < 0 && line.indexOf('\r') < 0) {
+            return line;
+        }
+        StringBuffer unfolded = new StringBuffer(line.length());
+        int start = 0;
+        while (start < line.length()) {
+            int end = start;
+            while (end < line.length() && line.charAt(end) != '\r'
+                    && line.charAt(end) != '\n')
+                end++;
+            int trimmed = end;
+            while (trimmed > start && line.charAt(trimmed - 1) <= 0x20)
+                trimmed--;
+            if (trimmed > start) {
+                // Continuation lines lose their first white space
+                unfolded.append(line, (start == 0) ? 0 : start + 1, trimmed);
+            }
+            if (end < line.length() && line.charAt(end) == '\r')
+                end++;
+            if (end < line.length() && line.charAt(end) == '\n')
+                end++;
+            start = end;
+        }
+        return unfolded.toString();
+    }
+
+    /**
+     * Return an occurrence of the header as received.
+     */
+    private String getRawText(int index) {
+        int start = ranges[2 * index];
+        int end = ranges[2 * index + 1];
+        if (text != null) {
+            return text.substring(start, end);
+        }
+        try {
+            return new String(bytes, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            return new String(bytes, start, end - start);
+        }
+    }
+
+    /**
+     * Encode all the occurrences of the header, one per line.
+     */
+    public StringBuffer encode(StringBuffer buffer) {
+        for (int i = 0; i < count; i++) {
+            buffer.append(getHeader(i)).append(NEWLINE);
+        }
+        return buffer;
+    }
+
+    /**
+     * Encode all the occurrences of the header, copying the received bytes
+     * when possible.
+     */
+    public void encode(GrowableByteBuffer buffer) {
+        for (int i = 0; i < count; i++) {
+            int start = ranges[2 * i];
+            int end = ranges[2 * i + 1];
+            if (bytes != null && !isFolded(start, end)) {
+                buffer.put(bytes, start, end - start);
+            } else {
+                buffer.put(getHeader(i));
+            }
+            buffer.put((byte) '\r').put((byte) '\n');
+        }
+    }
+
+    private boolean isFolded(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == '\r' || bytes[i] == '\n')
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Encode the values of the header as a comma separated list.
+     */
+    protected String encodeBody() {
+        StringBuffer retval = new StringBuffer();
+        for (int i = 0; i < count; i++) {
+            String line = getHeader(i);
+            int colon = line.indexOf(':');
+            if (i > 0)
+                retval.append(COMMA);
+            retval.append(line.substring(colon + 1).trim());
+        }
+        return retval.toString();
+    }
+
+    public Object clone() {
+        RawHeader retval = (RawHeader) super.clone();
+        retval.ranges = this.ranges.clone();
+        if (this.bytes != null)
+            retval.bytes = this.bytes.clone();
+        if (this.text != null)
+            retval.text = new StringBuffer(this.text.toString());
+        return retval;
+    }
+}
@@ -28,6 +28,8 @@
 *******************************************************************************/
 package gov2.nist.javax2.sip.header;
 
+import gov2.nist.core.GrowableByteBuffer;
+
 /**
  * Root class from which all SIPHeader objects are subclassed.
  *
@@ -44,6 +46,21 @@ public abstract class SIPHeader
      */
     protected String headerName;
 
+    /**
+     * Cached encoding of the body, see isEncodingCached().
+     */
+    private byte[] encodedBody;
+
+    /**
+     * Scratch buffer used to encode the headers which do not encode directly
+     * to bytes.
+     */
+    private static final ThreadLocal<StringBuffer> scratchBuffer = new ThreadLocal<StringBuffer>() {
+        protected StringBuffer initialValue() {
+            return new StringBuffer(256);
+        }
+    };
+
     /** Value of the header.
     */
 
@@ -81,6 +98,7 @@ public abstract class SIPHeader
          * @param hdrname String to set
          */
     public void setHeaderName(String hdrname) {
+        invalidateEncoding();
         headerName = hdrname;
     }
 
@@ -125,6 +143,56 @@ public abstract class SIPHeader
         return buffer;
     }
 
+    /** Encode this header as bytes (UTF-8) into the given buffer, in the same
+     * form as encode().
+     */
+    public void encode(GrowableByteBuffer buffer) {
+        if (isEncodingCached()) {
+            buffer.put(this.headerName).put((byte) ':').put((byte) ' ');
+            this.encodeBody(buffer);
+            buffer.put((byte) '\r').put((byte) '\n');
+        } else {
+            StringBuffer scratch = scratchBuffer.get();
+            scratch.setLength(0);
+            buffer.put(this.encode(scratch));
+        }
+    }
+
+    /** Encode the body of this header as bytes into the given buffer. The
+     * encoding is kept for the next messages if isEncodingCached().
+     */
+    protected void encodeBody(GrowableByteBuffer buffer) {
+        byte[] body = this.encodedBody;
+        if (body != null) {
+            buffer.put(body);
+            return;
+        }
+        StringBuffer scratch = scratchBuffer.get();
+        scratch.setLength(0);
+        this.encodeBody(scratch);
+        if (isEncodingCached()) {
+            int start = buffer.length();
+            buffer.put(scratch);
+            this.encodedBody = buffer.toByteArray(start);
+        } else {
+            buffer.put(scratch);
+        }
+    }
+
+    /** Tell whether the byte encoding of this header is cached until the
+     * header is modified. Subclasses returning true must call
+     * invalidateEncoding() in every method modifying the header.
+     */
+    protected boolean isEncodingCached() {
+        return false;
+    }
+
+    /** Discard the cached byte encoding of this header.
+     */
+    protected void invalidateEncoding() {
+        this.encodedBody = null;
+    }
+
     /** Encode the body of this header (the stuff that follows headerName).
     * A.K.A headerValue.
     */
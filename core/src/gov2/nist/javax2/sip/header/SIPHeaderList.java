@@ -29,6 +29,7 @@
 package gov2.nist.javax2.sip.header;
 
 import gov2.nist.core.GenericObject;
+import gov2.nist.core.GrowableByteBuffer;
 import gov2.nist.core.Separators;
 import gov2.nist.javax2.sip.header.ims.PrivacyHeader;
 
@@ -182,6 +183,51 @@ public abstract class SIPHeaderList<HDR extends SIPHeader> extends SIPHeader imp
         return buffer;
     }
 
+    /**
+     * Encode the list as bytes into the given buffer, in the same form as
+     * encode(StringBuffer). The elements use their own (possibly cached)
+     * byte encoding.
+     *
+     * @param buffer -- the buffer.
+     */
+    public void encode(GrowableByteBuffer buffer) {
+        if (hlist.isEmpty()) {
+            super.encode(buffer);
+        } else if (this.headerName.equals(SIPHeaderNames.WWW_AUTHENTICATE)
+                || this.headerName.equals(SIPHeaderNames.PROXY_AUTHENTICATE)
+                || this.headerName.equals(SIPHeaderNames.AUTHORIZATION)
+                || this.headerName.equals(SIPHeaderNames.PROXY_AUTHORIZATION)
+                || (prettyEncode &&
+                        (this.headerName.equals(SIPHeaderNames.VIA) || this.headerName.equals(SIPHeaderNames.ROUTE) || this.headerName.equals(SIPHeaderNames.RECORD_ROUTE)))
+                || this.getClass().equals( ExtensionHeaderList.class) ) {
+            ListIterator<HDR> li = hlist.listIterator();
+            while (li.hasNext()) {
+                li.next().encode(buffer);
+            }
+        } else {
+            buffer.put(headerName).put((byte) ':').put((byte) ' ');
+            this.encodeBody(buffer);
+            buffer.put((byte) '\r').put((byte) '\n');
+        }
+    }
+
+    protected void encodeBody(GrowableByteBuffer buffer) {
+        ListIterator<HDR> iterator = this.listIterator();
+        while (true) {
+            SIPHeader sipHeader = (SIPHeader) iterator.next();
+            if ( sipHeader == this ) throw new RuntimeException ("Unexpected circularity in SipHeaderList");
+            sipHeader.encodeBody(buffer);
+            if (iterator.hasNext()) {
+                if (!this.headerName.equals(PrivacyHeader.NAME))
+                    buffer.put((byte) ',');
+                else
+                    buffer.put((byte) ';');
+                continue;
+            } else
+                break;
+        }
+    }
+
     /**
      * Return a list of encoded strings (one for each sipheader).
      *
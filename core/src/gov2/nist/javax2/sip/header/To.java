@@ -82,6 +82,13 @@ public final class To extends AddressParametersHeader implements
         return headerName + COLON + SP + encodeBody() + NEWLINE;
     }
 
+
+    /** The encoding of this header is cached until it is modified.
+     */
+    protected boolean isEncodingCached() {
+        return true;
+    }
+
     /**
      * Encode the header content into a String.
      *
@@ -160,6 +167,7 @@ public final class To extends AddressParametersHeader implements
      * remove Tag member
      */
     public void removeTag() {
+        invalidateEncoding();
             if (parameters != null)
                 parameters.delete(ParameterNames.TAG);
 
@@ -172,6 +180,7 @@ public final class To extends AddressParametersHeader implements
      * @param t - tag String to set.
      */
     public void setTag(String t) throws ParseException {
+        invalidateEncoding();
         // JvB: check that it is a valid token
         Parser.checkToken(t);
         this.setParameter(ParameterNames.TAG, t);
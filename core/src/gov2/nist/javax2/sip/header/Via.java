@@ -197,12 +197,14 @@ public class Via
     /** remove the port.
      */
     public void removePort() {
+        invalidateEncoding();
         sentBy.removePort();
     }
 
     /** remove the comment field.
      */
     public void removeComment() {
+        invalidateEncoding();
         comment = null;
     }
 
@@ -210,6 +212,7 @@ public class Via
      * @param protocolVersion String to set
      */
     public void setProtocolVersion(String protocolVersion) {
+        invalidateEncoding();
         if (sentProtocol == null)
             sentProtocol = new Protocol();
         sentProtocol.setProtocolVersion(protocolVersion);
@@ -219,6 +222,7 @@ public class Via
          * @param host String to set
          */
     public void setHost(Host host) {
+        invalidateEncoding();
         if (sentBy == null) {
             sentBy = new HostPort();
         }
@@ -230,6 +234,7 @@ public class Via
      * @param s Protocol to set.
      */
     public void setSentProtocol(Protocol s) {
+        invalidateEncoding();
         sentProtocol = s;
     }
 
@@ -238,6 +243,7 @@ public class Via
      * @param s HostPort to set.
      */
     public void setSentBy(HostPort s) {
+        invalidateEncoding();
         sentBy = s;
     }
 
@@ -247,9 +253,16 @@ public class Via
      * @deprecated This is an RFC 2543 feature.
      */
     public void setComment(String c) {
+        invalidateEncoding();
         comment = c;
     }
 
+    /** The encoding of this header is cached until it is modified.
+     */
+    protected boolean isEncodingCached() {
+        return true;
+    }
+
     /** Encode the body of this header (the stuff that follows headerName).
      * A.K.A headerValue.
      */
@@ -280,6 +293,7 @@ public class Via
      * unexpectedly while parsing the host value.
      */
     public void setHost(String host) throws ParseException {
+        invalidateEncoding();
         if (sentBy == null)
             sentBy = new HostPort();
         try {
@@ -314,6 +328,7 @@ public class Via
      * @param port - the Integer.valueOf value of the port of this ViaHeader
      */
     public void setPort(int port) throws InvalidArgumentException {
+        invalidateEncoding();
 
         if ( port!=-1 && (port<1 || port>65535)) {
             throw new InvalidArgumentException( "Port value out of range -1, [1..65535]" );
@@ -328,6 +343,7 @@ public class Via
      * Set the RPort flag parameter
      */
     public void setRPort(){
+        invalidateEncoding();
         rPortFlag = true;
     }
 
@@ -385,6 +401,9 @@ public class Via
                     + "Via, setTransport(), the transport parameter is null.");
         if (sentProtocol == null)
             sentProtocol = new Protocol();
+        else if (transport.equals(sentProtocol.getTransport()))
+            return;
+        invalidateEncoding();
         sentProtocol.setTransport(transport);
     }
 
@@ -408,6 +427,7 @@ public class Via
      * unexpectedly while parsing the protocol value.
      */
     public void setProtocol(String protocol) throws ParseException {
+        invalidateEncoding();
         if (protocol == null)
             throw new NullPointerException(
                 "JAIN-SIP Exception, "
@@ -438,6 +458,7 @@ public class Via
      * greater than 255, excluding -1 the default not set value.
      */
     public void setTTL(int ttl) throws InvalidArgumentException {
+        invalidateEncoding();
         if (ttl < 0 && ttl != -1)
             throw new InvalidArgumentException(
                 "JAIN-SIP Exception"
@@ -465,6 +486,7 @@ public class Via
      * unexpectedly while parsing the mAddr value.
      */
     public void setMAddr(String mAddr) throws ParseException {
+        invalidateEncoding();
         if (mAddr == null)
             throw new NullPointerException(
                 "JAIN-SIP Exception, "
@@ -495,6 +517,7 @@ public class Via
      * unexpectedly while parsing the received value.
      */
     public void setReceived(String received) throws ParseException {
+        invalidateEncoding();
         if (received == null)
             throw new NullPointerException(
                 "JAIN-SIP Exception, "
@@ -523,6 +546,7 @@ public class Via
      * unexpectedly while parsing the branch value.
      */
     public void setBranch(String branch) throws ParseException {
+        invalidateEncoding();
         if (branch == null || branch.length()==0)
             throw new NullPointerException(
                 "JAIN-SIP Exception, "
@@ -28,6 +28,7 @@
  ******************************************************************************/
 package gov2.nist.javax2.sip.message;
 
+import gov2.nist.core.GrowableByteBuffer;
 import gov2.nist.core.InternalErrorHandler;
 import gov2.nist.javax2.sip.SIPConstants;
 import gov2.nist.javax2.sip.Utils;
@@ -50,6 +51,7 @@ import gov2.nist.javax2.sip.header.ProxyAuthorization;
 import gov2.nist.javax2.sip.header.ProxyRequire;
 import gov2.nist.javax2.sip.header.ProxyRequireList;
 import gov2.nist.javax2.sip.header.RSeq;
+import gov2.nist.javax2.sip.header.RawHeader;
 import gov2.nist.javax2.sip.header.RecordRouteList;
 import gov2.nist.javax2.sip.header.RetryAfter;
 import gov2.nist.javax2.sip.header.Route;
@@ -126,6 +128,26 @@ import javax2.sip.message.Request;
 public abstract class SIPMessage extends MessageObject implements javax2.sip.message.Message,
         MessageExt {
 
+    /*
+     * Initial size of the buffer used by encodeAsBytes, large enough for most requests.
+     */
+    protected static final int ENCODING_BUFFER_SIZE = 1024;
+
+    /*
+     * Capacity above which the encoding buffer of a thread is not kept for the next messages.
+     */
+    private static final int MAX_ENCODING_BUFFER_SIZE = 65536;
+
+    /*
+     * Encoding buffer of each sending thread, reused for all the messages it encodes.
+     */
+    private static final ThreadLocal<GrowableByteBuffer> encodingBuffer = new ThreadLocal<GrowableByteBuffer>();
+
+    /*
+     * Encoding of a null request (keepalive).
+     */
+    protected static final byte[] NULL_REQUEST_BYTES = { '\r', '\n', '\r', '\n' };
+
 	// JvB: use static here?
     private String contentEncodingCharset = MessageFactoryImpl.getDefaultContentEncodingCharset();
     
@@ -215,14 +237,16 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
      */
     public LinkedList<String> getMessageAsEncodedStrings() {
         LinkedList<String> retval = new LinkedList<String>();
-        Iterator<SIPHeader> li = headers.iterator();
-        while (li.hasNext()) {
-            SIPHeader sipHeader = (SIPHeader) li.next();
-            if (sipHeader instanceof SIPHeaderList) {
-                SIPHeaderList< ? > shl = (SIPHeaderList< ? >) sipHeader;
-                retval.addAll(shl.getHeadersAsEncodedStrings());
-            } else {
-                retval.add(sipHeader.encode());
+        synchronized (this.headers) {
+            Iterator<SIPHeader> li = headers.iterator();
+            while (li.hasNext()) {
+                SIPHeader sipHeader = (SIPHeader) li.next();
+                if (sipHeader instanceof SIPHeaderList) {
+                    SIPHeaderList< ? > shl = (SIPHeaderList< ? >) sipHeader;
+                    retval.addAll(shl.getHeadersAsEncodedStrings());
+                } else {
+                    retval.add(sipHeader.encode());
+                }
             }
         }
 
@@ -236,12 +260,14 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
      */
     protected String encodeSIPHeaders() {
         StringBuffer encoding = new StringBuffer();
-        Iterator<SIPHeader> it = this.headers.iterator();
+        synchronized (this.headers) {
+            Iterator<SIPHeader> it = this.headers.iterator();
 
-        while (it.hasNext()) {
-            SIPHeader siphdr = (SIPHeader) it.next();
-            if (!(siphdr instanceof ContentLength))
-                siphdr.encode(encoding);
+            while (it.hasNext()) {
+                SIPHeader siphdr = (SIPHeader) it.next();
+                if (!(siphdr instanceof ContentLength))
+                    siphdr.encode(encoding);
+            }
         }
 
         return contentLengthHeader.encode(encoding).append(NEWLINE).toString();
@@ -359,17 +385,19 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
      */
     public String encode() {
         StringBuffer encoding = new StringBuffer();
-        Iterator<SIPHeader> it = this.headers.iterator();
+        synchronized (this.headers) {
+            Iterator<SIPHeader> it = this.headers.iterator();
 
-        while (it.hasNext()) {
-            SIPHeader siphdr = (SIPHeader) it.next();
-            if (!(siphdr instanceof ContentLength))
-                encoding.append(siphdr.encode());
-        }
-        // Append the unrecognized headers. Headers that are not
-        // recognized are passed through unchanged.
-        for (String unrecognized : this.unrecognizedHeaders) {
-            encoding.append(unrecognized).append(NEWLINE);
+            while (it.hasNext()) {
+                SIPHeader siphdr = (SIPHeader) it.next();
+                if (!(siphdr instanceof ContentLength))
+                    encoding.append(siphdr.encode());
+            }
+            // Append the unrecognized headers. Headers that are not
+            // recognized are passed through unchanged.
+            for (String unrecognized : this.unrecognizedHeaders) {
+                encoding.append(unrecognized).append(NEWLINE);
+            }
         }
 
         encoding.append(contentLengthHeader.encode()).append(NEWLINE);
@@ -406,8 +434,42 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
      *         byte array).
      */
     public byte[] encodeAsBytes(String transport) {
+        GrowableByteBuffer buffer = getEncodingBuffer();
+        this.encodeAsBytes(transport, buffer);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Get the encoding buffer of the current thread, cleared. The buffer is reused by the next
+     * encoding done by this thread, so its content must be sent or copied before. A buffer
+     * which has grown too much for an unusually large message is replaced.
+     * 
+     * @return The encoding buffer.
+     */
+    public static GrowableByteBuffer getEncodingBuffer() {
+        GrowableByteBuffer buffer = encodingBuffer.get();
+        if (buffer == null || buffer.getByteBuffer().capacity() > MAX_ENCODING_BUFFER_SIZE) {
+            buffer = new GrowableByteBuffer(ENCODING_BUFFER_SIZE);
+            encodingBuffer.set(buffer);
+        } else {
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    /**
+     * Encode the message in a single pass into the given buffer. The header block is written
+     * as UTF-8 straight into the buffer and the raw content bytes are appended without any
+     * intermediate string or array copy. Headers which cache their encoding (Via, From, To,
+     * Call-ID) are copied from their cached bytes.
+     * 
+     * @param transport The transport to set in the topmost Via header.
+     * @param buffer The buffer into which the message is appended.
+     */
+    public void encodeAsBytes(String transport, GrowableByteBuffer buffer) {
         if (this instanceof SIPRequest && ((SIPRequest) this).isNullRequest()) {
-            return "\r\n\r\n".getBytes();
+            buffer.put(NULL_REQUEST_BYTES);
+            return;
         }
         // JvB: added to fix case where application provides the wrong transport
         // in the topmost Via header
@@ -418,45 +480,24 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
             InternalErrorHandler.handleException(e);
         }
 
-        StringBuffer encoding = new StringBuffer();
         synchronized (this.headers) {
             Iterator<SIPHeader> it = this.headers.iterator();
 
             while (it.hasNext()) {
                 SIPHeader siphdr = (SIPHeader) it.next();
                 if (!(siphdr instanceof ContentLength))
-                    siphdr.encode(encoding);
+                    siphdr.encode(buffer);
 
             }
         }
-        contentLengthHeader.encode(encoding);
-        encoding.append(NEWLINE);
+        contentLengthHeader.encode(buffer);
+        buffer.put(NEWLINE);
 
-        byte[] retval = null;
         byte[] content = this.getRawContent();
         if (content != null) {
             // Append the content
-
-            byte[] msgarray = null;
-            try {
-                msgarray = encoding.toString().getBytes( getCharset() );
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
-
-            retval = new byte[msgarray.length + content.length];
-            System.arraycopy(msgarray, 0, retval, 0, msgarray.length);
-            System.arraycopy(content, 0, retval, msgarray.length, content.length);
-        } else {
-            // Message content does not exist.
-
-            try {
-                retval = encoding.toString().getBytes( getCharset() );
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
+            buffer.put(content);
         }
-        return retval;
     }
 
     /**
@@ -480,9 +521,11 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
         retval.maxForwardsHeader = null;
         if (this.headers != null) {
             retval.headers = new ConcurrentLinkedQueue<SIPHeader>();
-            for (Iterator<SIPHeader> iter = headers.iterator(); iter.hasNext();) {
-                SIPHeader hdr = (SIPHeader) iter.next();
-                retval.attachHeader((SIPHeader) hdr.clone());
+            synchronized (this.headers) {
+                for (Iterator<SIPHeader> iter = headers.iterator(); iter.hasNext();) {
+                    SIPHeader hdr = (SIPHeader) iter.next();
+                    retval.attachHeader((SIPHeader) hdr.clone());
+                }
             }
 
         }
@@ -653,6 +696,13 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
         }
 
         String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(h.getName());
+        if (nameTable.get(headerNameLowerCase) instanceof RawHeader) {
+            // A replaced raw header is never parsed, otherwise parse it before merging with it
+            if (replaceFlag)
+                removeHeader(h.getName());
+            else
+                getParsedHeader(headerNameLowerCase);
+        }
         if (replaceFlag) {
             nameTable.remove(headerNameLowerCase);
         } else if (nameTable.containsKey(headerNameLowerCase) && !(h instanceof SIPHeaderList)) {
@@ -723,7 +773,7 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
     public void removeHeader(String headerName, boolean top) {
 
         String headerNameLowerCase = SIPHeaderNamesCache.toLowerCase(headerName);
-        SIPHeader toRemove = (SIPHeader) nameTable.get(headerNameLowerCase);
+        SIPHeader toRemove = getParsedHeader(headerNameLowerCase);
         // nothing to do then we are done.
         if (toRemove == null)
             return;
@@ -901,6 +951,7 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
      * @return an Iterator for the headers of this message.
      */
     public Iterator<SIPHeader> getHeaders() {
+        parseRawHeaders();
         return headers.iterator();
     }
 
@@ -916,7 +967,7 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
     private Header getHeaderLowerCase(String lowerCaseHeaderName) {
         if (lowerCaseHeaderName == null)
             throw new NullPointerException("bad name");
-        SIPHeader sipHeader = (SIPHeader) nameTable.get(lowerCaseHeaderName);
+        SIPHeader sipHeader = getParsedHeader(lowerCaseHeaderName);
         if (sipHeader instanceof SIPHeaderList)
             return (Header) ((SIPHeaderList) sipHeader).getFirst();
         else
@@ -1386,7 +1437,7 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
     public ListIterator<SIPHeader> getHeaders(String headerName) {
         if (headerName == null)
             throw new NullPointerException("null headerName");
-        SIPHeader sipHeader = (SIPHeader) nameTable.get(SIPHeaderNamesCache
+        SIPHeader sipHeader = getParsedHeader(SIPHeaderNamesCache
                 .toLowerCase(headerName));
         // empty iterator
         if (sipHeader == null)
@@ -1408,14 +1459,14 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
     public String getHeaderAsFormattedString(String name) {
         String lowerCaseName = name.toLowerCase();
         if (this.nameTable.containsKey(lowerCaseName)) {
-            return this.nameTable.get(lowerCaseName).toString();
+            return getParsedHeader(lowerCaseName).toString();
         } else {
             return this.getHeader(name).toString();
         }
     }
 
     private SIPHeader getSIPHeaderListLowerCase(String lowerCaseHeaderName) {
-        return nameTable.get(lowerCaseHeaderName);
+        return getParsedHeader(lowerCaseHeaderName);
     }
 
     /**
@@ -1426,7 +1477,7 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
      */
     @SuppressWarnings("unchecked")
     private List<SIPHeader> getHeaderList(String headerName) {
-        SIPHeader sipHeader = (SIPHeader) nameTable.get(SIPHeaderNamesCache
+        SIPHeader sipHeader = getParsedHeader(SIPHeaderNamesCache
                 .toLowerCase(headerName));
         if (sipHeader == null)
             return null;
@@ -1547,6 +1598,188 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
         this.unrecognizedHeaders.add(unparsed);
     }
 
+    /**
+     * Attach a header received in a byte buffer without parsing it. The header is parsed when
+     * it is first accessed.
+     * 
+     * @param headerName -- name of the header as received.
+     * @param buffer -- the received message.
+     * @param start -- offset of the header in the buffer.
+     * @param end -- offset following the header in the buffer.
+     */
+    public void attachRawHeader(String headerName, byte[] buffer, int start, int end) {
+        SIPHeader existing = nameTable.get(SIPHeaderNamesCache.toLowerCase(headerName));
+        if (existing instanceof RawHeader) {
+            ((RawHeader) existing).addRange(buffer, start, end);
+        } else {
+            RawHeader rawHeader = new RawHeader(headerName);
+            rawHeader.addRange(buffer, start, end);
+            attachRawHeader(rawHeader, existing != null);
+        }
+    }
+
+    /**
+     * Attach a header received in a String without parsing it. The header is parsed when it is
+     * first accessed.
+     * 
+     * @param headerName -- name of the header as received.
+     * @param message -- the received message.
+     * @param start -- offset of the header in the message.
+     * @param end -- offset following the header in the message.
+     */
+    public void attachRawHeader(String headerName, String message, int start, int end) {
+        SIPHeader existing = nameTable.get(SIPHeaderNamesCache.toLowerCase(headerName));
+        if (existing instanceof RawHeader) {
+            ((RawHeader) existing).addRange(message, start, end);
+        } else {
+            RawHeader rawHeader = new RawHeader(headerName);
+            rawHeader.addRange(message, start, end);
+            attachRawHeader(rawHeader, existing != null);
+        }
+    }
+
+    /**
+     * Attach the first occurrence of a raw header.
+     * 
+     * @param rawHeader -- the raw header.
+     * @param parse -- true if a parsed header of the same name is already attached.
+     */
+    private void attachRawHeader(RawHeader rawHeader, boolean parse) {
+        if (parse) {
+            attachParsedHeaders(rawHeader);
+        } else {
+            nameTable.put(SIPHeaderNamesCache.toLowerCase(rawHeader.getName()), rawHeader);
+            headers.add(rawHeader);
+        }
+    }
+
+    /**
+     * Get a header from the name table, parsing it first if it is still raw. The parsed header
+     * replaces the raw header in the name table before the list of headers is changed, so a
+     * reader which does not take the lock never sees the header as absent. The parsed header
+     * takes the place of the raw header in the list of headers.
+     * 
+     * @param lowerCaseHeaderName -- lower case name of the header.
+     * @return the header or header list, null if absent.
+     */
+    private SIPHeader getParsedHeader(String lowerCaseHeaderName) {
+        SIPHeader sipHeader = nameTable.get(lowerCaseHeaderName);
+        if (!(sipHeader instanceof RawHeader)) {
+            return sipHeader;
+        }
+        synchronized (this.headers) {
+            // Check again, another thread may have parsed it
+            sipHeader = nameTable.get(lowerCaseHeaderName);
+            if (sipHeader instanceof RawHeader) {
+                RawHeader rawHeader = (RawHeader) sipHeader;
+                sipHeader = parseRawHeader(rawHeader);
+                if (sipHeader != null) {
+                    nameTable.put(lowerCaseHeaderName, sipHeader);
+                } else {
+                    nameTable.remove(lowerCaseHeaderName);
+                }
+
+                // Remove the raw header and the headers following it, which are added back
+                // after the parsed header to keep the order of the message
+                LinkedList<SIPHeader> following = new LinkedList<SIPHeader>();
+                boolean found = false;
+                Iterator<SIPHeader> li = headers.iterator();
+                while (li.hasNext()) {
+                    SIPHeader next = li.next();
+                    if (next == rawHeader) {
+                        found = true;
+                        li.remove();
+                    } else if (found) {
+                        following.add(next);
+                        li.remove();
+                    }
+                }
+                if (sipHeader != null) {
+                    headers.add(sipHeader);
+                }
+                headers.addAll(following);
+            }
+        }
+        return sipHeader;
+    }
+
+    /**
+     * Parse all the headers which are still raw.
+     */
+    protected void parseRawHeaders() {
+        LinkedList<String> rawNames = null;
+        // The name table is only changed by a parsing under this lock
+        synchronized (this.headers) {
+            for (SIPHeader sipHeader : nameTable.values()) {
+                if (sipHeader instanceof RawHeader) {
+                    if (rawNames == null)
+                        rawNames = new LinkedList<String>();
+                    rawNames.add(SIPHeaderNamesCache.toLowerCase(sipHeader.getName()));
+                }
+            }
+        }
+        if (rawNames != null) {
+            for (String name : rawNames) {
+                getParsedHeader(name);
+            }
+        }
+    }
+
+    /**
+     * Parse each occurrence of a raw header without attaching it. The occurrences of a list
+     * header are merged in one list, the duplicates of a single header are ignored as
+     * attachHeader does. Headers which cannot be parsed are added to the unparsed list.
+     * 
+     * @param rawHeader -- the raw header.
+     * @return the parsed header or header list, null if no occurrence could be parsed.
+     */
+    @SuppressWarnings("unchecked")
+    private SIPHeader parseRawHeader(RawHeader rawHeader) {
+        SIPHeader parsed = null;
+        for (int i = 0; i < rawHeader.size(); i++) {
+            String header = rawHeader.getHeader(i);
+            SIPHeader sipHeader;
+            try {
+                HeaderParser parser = ParserFactory.createParser(header + "\n");
+                sipHeader = parser.parse();
+            } catch (ParseException ex) {
+                this.addUnparsed(header);
+                continue;
+            }
+            if (ListMap.hasList(sipHeader) && !(sipHeader instanceof SIPHeaderList)) {
+                SIPHeaderList<SIPHeader> hdrList = ListMap.getList(sipHeader);
+                hdrList.add(sipHeader);
+                sipHeader = hdrList;
+            }
+            if (parsed == null) {
+                parsed = sipHeader;
+            } else if (parsed instanceof SIPHeaderList && sipHeader instanceof SIPHeaderList) {
+                ((SIPHeaderList<SIPHeader>) parsed).concatenate(
+                        (SIPHeaderList<SIPHeader>) sipHeader, false);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Parse each occurrence of a raw header and attach it. Headers which cannot be parsed are
+     * added to the unparsed list, as the stack does for the non core headers.
+     * 
+     * @param rawHeader -- the raw header.
+     */
+    private void attachParsedHeaders(RawHeader rawHeader) {
+        for (int i = 0; i < rawHeader.size(); i++) {
+            String header = rawHeader.getHeader(i);
+            try {
+                HeaderParser parser = ParserFactory.createParser(header + "\n");
+                this.attachHeader(parser.parse(), false);
+            } catch (SIPDuplicateHeaderException ex) {
+            } catch (ParseException ex) {
+                this.addUnparsed(header);
+            }
+        }
+    }
+
     /**
      * Add a SIP header.
      * 
@@ -1580,12 +1813,14 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
      *         are present in the message.
      */
     public ListIterator<String> getHeaderNames() {
-        Iterator<SIPHeader> li = this.headers.iterator();
         LinkedList<String> retval = new LinkedList<String>();
-        while (li.hasNext()) {
-            SIPHeader sipHeader = (SIPHeader) li.next();
-            String name = sipHeader.getName();
-            retval.add(name);
+        synchronized (this.headers) {
+            Iterator<SIPHeader> li = this.headers.iterator();
+            while (li.hasNext()) {
+                SIPHeader sipHeader = (SIPHeader) li.next();
+                String name = sipHeader.getName();
+                retval.add(name);
+            }
         }
         return retval.listIterator();
     }
@@ -1600,6 +1835,8 @@ public abstract class SIPMessage extends MessageObject implements javax2.sip.mes
             return false;
         }
         SIPMessage otherMessage = (SIPMessage) other;
+        this.parseRawHeaders();
+        otherMessage.parseRawHeaders();
         Collection<SIPHeader> values = this.nameTable.values();
         Iterator<SIPHeader> it = values.iterator();
         if (nameTable.size() != otherMessage.nameTable.size()) {
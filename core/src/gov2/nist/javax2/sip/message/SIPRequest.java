@@ -33,7 +33,6 @@ import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.Set;
-import java.io.UnsupportedEncodingException;
 import java.util.Iterator;
 
 import java.text.ParseException;
@@ -623,20 +622,25 @@ public final class SIPRequest extends SIPMessage implements javax2.sip.message.R
         } else if ( this.requestLine == null ) {
             return new byte[0];
         }
+        return super.encodeAsBytes(transport);
+    }
 
-        byte[] rlbytes = null;
-        if (requestLine != null) {
-            try {
-                rlbytes = requestLine.encode().getBytes("UTF-8");
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
+    /**
+     * Encode this request, starting with the request line, into the given buffer.
+     * 
+     * @param transport The transport to set in the topmost Via header.
+     * @param buffer The buffer into which the request is appended.
+     */
+    public void encodeAsBytes(String transport, GrowableByteBuffer buffer) {
+        if (this.isNullRequest()) {
+            // Encoding a null message for keepalive.
+            buffer.put(NULL_REQUEST_BYTES);
+            return;
+        } else if ( this.requestLine == null ) {
+            return;
         }
-        byte[] superbytes = super.encodeAsBytes(transport);
-        byte[] retval = new byte[rlbytes.length + superbytes.length];
-        System.arraycopy(rlbytes, 0, retval, 0, rlbytes.length);
-        System.arraycopy(superbytes, 0, retval, rlbytes.length, superbytes.length);
-        return retval;
+        buffer.put(requestLine.encode());
+        super.encodeAsBytes(transport, buffer);
     }
 
     /**
@@ -693,23 +697,26 @@ public final class SIPRequest extends SIPMessage implements javax2.sip.message.R
             newResponse.setReasonPhrase(reasonPhrase);
         else
             newResponse.setReasonPhrase(SIPResponse.getReasonPhrase(statusCode));
-        headerIterator = getHeaders();
-        while (headerIterator.hasNext()) {
-            nextHeader = (SIPHeader) headerIterator.next();
-            if (nextHeader instanceof From
-                    || nextHeader instanceof To
-                    || nextHeader instanceof ViaList
-                    || nextHeader instanceof CallID
-                    || (nextHeader instanceof RecordRouteList && mustCopyRR(statusCode))
-                    || nextHeader instanceof CSeq
-                    // We just copy TimeStamp for all headers (not just 100).
-                    || nextHeader instanceof TimeStamp) {
-
-                try {
-
-                    newResponse.attachHeader((SIPHeader) nextHeader.clone(), false);
-                } catch (SIPDuplicateHeaderException e) {
-                    e.printStackTrace();
+        // Only core headers are copied: no need to parse the raw headers
+        synchronized (this.headers) {
+            headerIterator = headers.iterator();
+            while (headerIterator.hasNext()) {
+                nextHeader = (SIPHeader) headerIterator.next();
+                if (nextHeader instanceof From
+                        || nextHeader instanceof To
+                        || nextHeader instanceof ViaList
+                        || nextHeader instanceof CallID
+                        || (nextHeader instanceof RecordRouteList && mustCopyRR(statusCode))
+                        || nextHeader instanceof CSeq
+                        // We just copy TimeStamp for all headers (not just 100).
+                        || nextHeader instanceof TimeStamp) {
+
+                    try {
+
+                        newResponse.attachHeader((SIPHeader) nextHeader.clone(), false);
+                    } catch (SIPDuplicateHeaderException e) {
+                        e.printStackTrace();
+                    }
                 }
             }
         }
@@ -28,7 +28,7 @@
  *******************************************************************************/
 package gov2.nist.javax2.sip.message;
 
-import gov2.nist.core.InternalErrorHandler;
+import gov2.nist.core.GrowableByteBuffer;
 import gov2.nist.javax2.sip.Utils;
 import gov2.nist.javax2.sip.address.SipUri;
 import gov2.nist.javax2.sip.header.CSeq;
@@ -48,7 +48,6 @@ import gov2.nist.javax2.sip.header.Via;
 import gov2.nist.javax2.sip.header.ViaList;
 import gov2.nist.javax2.sip.header.extensions.SessionExpires;
 
-import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -522,29 +521,19 @@ public final class SIPResponse
 
     }
 
-    /** Encode this into a byte array.
+    /** Encode this, starting with the status line, into the given buffer.
      * This is used when the body has been set as a binary array
      * and you want to encode the body as a byte array for transmission.
      *
-     *@return a byte array containing the SIPRequest encoded as a byte
-     *  array.
+     *@param transport the transport to set in the topmost Via header.
+     *@param buffer the buffer into which the response is appended.
      */
 
-    public byte[] encodeAsBytes( String transport ) {
-        byte[] slbytes = null;
+    public void encodeAsBytes( String transport, GrowableByteBuffer buffer ) {
         if (statusLine != null) {
-            try {
-                slbytes = statusLine.encode().getBytes("UTF-8");
-            } catch (UnsupportedEncodingException ex) {
-                InternalErrorHandler.handleException(ex);
-            }
+            buffer.put(statusLine.encode());
         }
-        byte[] superbytes = super.encodeAsBytes( transport );
-        byte[] retval = new byte[slbytes.length + superbytes.length];
-        System.arraycopy(slbytes, 0, retval, 0, slbytes.length);
-        System.arraycopy(superbytes, 0, retval, slbytes.length,
-                superbytes.length);
-        return retval;
+        super.encodeAsBytes( transport, buffer );
     }
 
 
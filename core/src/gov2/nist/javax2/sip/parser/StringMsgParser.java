@@ -59,9 +59,11 @@ import java.text.ParseException;
  * accessible from the parsed message using the getContent and getContentBytes
  * methods provided by the SIPMessage class. If SDP parsing is enabled using the
  * parseContent method, then the SDP body is also parsed and can be accessed
- * from the message using the getSDPAnnounce method. Currently only eager
- * parsing of the message is supported (i.e. the entire message is parsed in one
- * feld swoop).
+ * from the message using the getSDPAnnounce method. By default the entire
+ * message is parsed in one feld swoop. When lazy header parsing is enabled
+ * (see setLazyHeaderParsing), only the core headers are parsed and the other
+ * headers are attached to the message as raw text, to be parsed when they are
+ * first accessed.
  *
  *
  * @version 1.2 $Revision: 1.26 $ $Date: 2009/10/22 10:27:38 $
@@ -79,6 +81,19 @@ public class StringMsgParser {
 
     private static boolean computeContentLengthFromMessage = false;
 
+    private static boolean lazyHeaderParsing = false;
+
+    /**
+     * Headers which are always parsed when parsing lazily: the headers used by
+     * the stack to match transactions and dialogs, to route the message and to
+     * read its body, i.e. the headers kept in direct accessors of SIPMessage or
+     * tested by type when building a response.
+     */
+    private static final String[] CORE_HEADERS = {
+        "via", "from", "to", "call-id", "cseq", "contact", "content-length",
+        "content-type", "max-forwards", "route", "record-route", "timestamp"
+    };
+
     /**
      * @since v0.9
      */
@@ -143,9 +158,12 @@ public class StringMsgParser {
         }
 
         // Iterate thru the request/status line and headers.
-        String currentLine = null;
         String currentHeader = null;
+        String rawHeaderName = null;
+        int rawHeaderStart = 0;
+        int rawHeaderEnd = 0;
         boolean isFirstLine = true;
+        boolean isLastLine;
         SIPMessage message = null;
         do
         {
@@ -160,41 +178,53 @@ public class StringMsgParser {
                 // End of the message.
                 break;
             }
-            int lineLength = i - lineStart;
 
-            // Make it a String.
-            try {
-                currentLine = new String(msgBuffer, lineStart, lineLength, "UTF-8");
-            } catch (UnsupportedEncodingException e) {
-                throw new ParseException("Bad message encoding!", 0);
-            }
-
-            currentLine = trimEndOfLine(currentLine);
+            // Trim the end of the line.
+            int lineEnd = i;
+            while (lineEnd > lineStart && (msgBuffer[lineEnd - 1] & 0xff) <= 0x20)
+                lineEnd--;
 
-            if (currentLine.length() == 0) {
+            isLastLine = (lineEnd == lineStart);
+            if (isLastLine) {
                 // Last header line, process the previous buffered header.
-                if (currentHeader != null && message != null) {
+                if (rawHeaderName != null) {
+                    message.attachRawHeader(rawHeaderName, msgBuffer, rawHeaderStart, rawHeaderEnd);
+                } else if (currentHeader != null && message != null) {
                      processHeader(currentHeader, message);
                  }
 
             }
             else {
                 if (isFirstLine) {
-                    message = processFirstLine(currentLine);
+                    message = processFirstLine(decode(msgBuffer, lineStart, lineEnd));
                 } else {
-                    char firstChar = currentLine.charAt(0);
-                    if (firstChar == '\t' || firstChar == ' ') {
-                        if (currentHeader == null)
+                    byte firstByte = msgBuffer[lineStart];
+                    if (firstByte == '\t' || firstByte == ' ') {
+                        if (rawHeaderName != null) {
+                            // This is a continuation, extend the raw header.
+                            rawHeaderEnd = lineEnd;
+                        } else if (currentHeader == null) {
                             throw new ParseException("Bad header continuation.", 0);
-
-                        // This is a continuation, append it to the previous line.
-                        currentHeader += currentLine.substring(1);
+                        } else {
+                            // This is a continuation, append it to the previous line.
+                            currentHeader += decode(msgBuffer, lineStart + 1, lineEnd);
+                        }
                     }
                     else {
-                        if (currentHeader != null && message != null) {
+                        if (rawHeaderName != null) {
+                            message.attachRawHeader(rawHeaderName, msgBuffer, rawHeaderStart, rawHeaderEnd);
+                        } else if (currentHeader != null && message != null) {
                              processHeader(currentHeader, message);
                          }
-                        currentHeader = currentLine;
+                        rawHeaderName = lazyHeaderParsing ? getRawHeaderName(msgBuffer, lineStart, lineEnd) : null;
+                        if (rawHeaderName != null) {
+                            // Keep the header as raw bytes
+                            rawHeaderStart = lineStart;
+                            rawHeaderEnd = lineEnd;
+                            currentHeader = null;
+                        } else {
+                            currentHeader = decode(msgBuffer, lineStart, lineEnd);
+                        }
                     }
                 }
             }
@@ -205,7 +235,7 @@ public class StringMsgParser {
             i++;
 
             isFirstLine = false;
-        } while (currentLine.length() > 0); // End do - while
+        } while (!isLastLine); // End do - while
 
         if (message == null) throw new ParseException("Bad message", 0);
         message.setSize(i);
@@ -258,9 +288,12 @@ public class StringMsgParser {
         }
 
         // Iterate thru the request/status line and headers.
-        String currentLine = null;
         String currentHeader = null;
+        String rawHeaderName = null;
+        int rawHeaderStart = 0;
+        int rawHeaderEnd = 0;
         boolean isFirstLine = true;
+        boolean isLastLine;
         SIPMessage message = null;
         do
         {
@@ -279,33 +312,51 @@ public class StringMsgParser {
                 break;
             }
 
-            // Make it a String.
-            currentLine = msgString.substring(lineStart, i);
-            currentLine = trimEndOfLine(currentLine);
+            // Trim the end of the line.
+            int lineEnd = i;
+            while (lineEnd > lineStart && msgString.charAt(lineEnd - 1) <= 0x20)
+                lineEnd--;
 
-            if (currentLine.length() == 0) {
+            isLastLine = (lineEnd == lineStart);
+            if (isLastLine) {
                 // Last header line, process the previous buffered header.
-                if (currentHeader != null) {
+                if (rawHeaderName != null) {
+                    message.attachRawHeader(rawHeaderName, msgString, rawHeaderStart, rawHeaderEnd);
+                } else if (currentHeader != null) {
                     processHeader(currentHeader, message);
                 }
             }
             else {
                 if (isFirstLine) {
-                    message = processFirstLine(currentLine);
+                    message = processFirstLine(msgString.substring(lineStart, lineEnd));
                 } else {
-                    char firstChar = currentLine.charAt(0);
+                    char firstChar = msgString.charAt(lineStart);
                     if (firstChar == '\t' || firstChar == ' ') {
-                        if (currentHeader == null)
+                        if (rawHeaderName != null) {
+                            // This is a continuation, extend the raw header.
+                            rawHeaderEnd = lineEnd;
+                        } else if (currentHeader == null) {
                             throw new ParseException("Bad header continuation.", 0);
-
-                        // This is a continuation, append it to the previous line.
-                        currentHeader += currentLine.substring(1);
+                        } else {
+                            // This is a continuation, append it to the previous line.
+                            currentHeader += msgString.substring(lineStart + 1, lineEnd);
+                        }
                     }
                     else {
-                        if (currentHeader != null) {
+                        if (rawHeaderName != null) {
+                            message.attachRawHeader(rawHeaderName, msgString, rawHeaderStart, rawHeaderEnd);
+                        } else if (currentHeader != null) {
                             processHeader(currentHeader, message);
                         }
-                        currentHeader = currentLine;
+                        rawHeaderName = lazyHeaderParsing ? getRawHeaderName(msgString, lineStart, lineEnd) : null;
+                        if (rawHeaderName != null) {
+                            // Keep the header as a raw range of the message
+                            rawHeaderStart = lineStart;
+                            rawHeaderEnd = lineEnd;
+                            currentHeader = null;
+                        } else {
+                            currentHeader = msgString.substring(lineStart, lineEnd);
+                        }
                     }
                 }
             }
@@ -317,7 +368,7 @@ public class StringMsgParser {
 
             isFirstLine = false;
         }
-        while (currentLine.length() > 0);
+        while (!isLastLine);
 
         message.setSize(i);
 
@@ -337,21 +388,68 @@ public class StringMsgParser {
         return message;
     }
 
-    private String trimEndOfLine(String line) {
-        if (line == null)
-            return line;
-
-        int i = line.length() - 1;
-        while (i >= 0 && line.charAt(i) <= 0x20)
-            i--;
-
-        if (i == line.length() - 1)
-            return line;
+    private String decode(byte[] msgBuffer, int start, int end) throws ParseException {
+        try {
+            return new String(msgBuffer, start, end - start, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new ParseException("Bad message encoding!", 0);
+        }
+    }
 
-        if (i == -1)
-            return "";
+    /**
+     * Return the name of a header line which may be kept raw, i.e. a header
+     * which is not a core header and is not in compact form.
+     *
+     * @return the header name, or null if the header must be parsed now.
+     */
+    private String getRawHeaderName(byte[] msgBuffer, int start, int end)
+            throws ParseException {
+        int nameEnd = start;
+        while (nameEnd < end && msgBuffer[nameEnd] != ':'
+                && msgBuffer[nameEnd] != ' ' && msgBuffer[nameEnd] != '\t')
+            nameEnd++;
+        int colon = nameEnd;
+        while (colon < end && (msgBuffer[colon] == ' ' || msgBuffer[colon] == '\t'))
+            colon++;
+        if (colon == end || msgBuffer[colon] != ':' || nameEnd - start <= 1)
+            return null;
+        for (int i = 0; i < CORE_HEADERS.length; i++) {
+            String name = CORE_HEADERS[i];
+            if (name.length() != nameEnd - start)
+                continue;
+            int j = 0;
+            while (j < name.length()
+                    && Character.toLowerCase((char) (msgBuffer[start + j] & 0xff)) == name.charAt(j))
+                j++;
+            if (j == name.length())
+                return null;
+        }
+        return decode(msgBuffer, start, nameEnd);
+    }
 
-        return line.substring(0, i+1);
+    /**
+     * Return the name of a header line which may be kept raw, i.e. a header
+     * which is not a core header and is not in compact form.
+     *
+     * @return the header name, or null if the header must be parsed now.
+     */
+    private String getRawHeaderName(String msgString, int start, int end) {
+        int nameEnd = start;
+        while (nameEnd < end && msgString.charAt(nameEnd) != ':'
+                && msgString.charAt(nameEnd) != ' ' && msgString.charAt(nameEnd) != '\t')
+            nameEnd++;
+        int colon = nameEnd;
+        while (colon < end && (msgString.charAt(colon) == ' ' || msgString.charAt(colon) == '\t'))
+            colon++;
+        if (colon == end || msgString.charAt(colon) != ':' || nameEnd - start <= 1)
+            return null;
+        for (int i = 0; i < CORE_HEADERS.length; i++) {
+            String name = CORE_HEADERS[i];
+            if (name.length() == nameEnd - start
+                    && msgString.regionMatches(true, start, name, 0, name.length()))
+                return null;
+        }
+        return msgString.substring(start, nameEnd);
     }
 
     private SIPMessage processFirstLine(String firstLine) throws ParseException {
@@ -616,6 +714,18 @@ public class StringMsgParser {
         StringMsgParser.computeContentLengthFromMessage = computeContentLengthFromMessage;
     }
 
+    /**
+     * Enable or disable lazy header parsing. When enabled, the headers other
+     * than the core headers (Via, From, To, Call-ID, CSeq, Contact, ...) are
+     * kept as raw text in the message and only parsed when they are first
+     * accessed through SIPMessage.getHeader.
+     *
+     * @param lazyHeaderParsing true to parse the non core headers on demand
+     */
+    public static void setLazyHeaderParsing(boolean lazyHeaderParsing) {
+        StringMsgParser.lazyHeaderParsing = lazyHeaderParsing;
+    }
+
 
 
     /**
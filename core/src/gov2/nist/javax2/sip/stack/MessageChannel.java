@@ -245,8 +245,21 @@ public abstract class MessageChannel {
      */
     public void sendMessage(SIPMessage sipMessage, InetAddress receiverAddress, int receiverPort)
             throws IOException {
-        long time = System.currentTimeMillis();
         byte[] bytes = sipMessage.encodeAsBytes(this.getTransport());
+        sendMessage(sipMessage, bytes, receiverAddress, receiverPort);
+    }
+
+    /**
+     * Send a SIP message which has already been encoded, e.g. a retransmission.
+     * 
+     * @param sipMessage is the messge to send (used for logging).
+     * @param bytes is the encoded message, as returned by encodeAsBytes.
+     * @param receiverAddress is the address to which we want to send
+     * @param receiverPort is the port to which we want to send
+     */
+    public void sendMessage(SIPMessage sipMessage, byte[] bytes, InetAddress receiverAddress,
+            int receiverPort) throws IOException {
+        long time = System.currentTimeMillis();
         sendMessage(bytes, receiverAddress, receiverPort, sipMessage instanceof SIPRequest);
         logMessage(sipMessage, receiverAddress, receiverPort, time);
     }
@@ -0,0 +1,959 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+/*******************************************************************************
+ *   Product of NIST/ITL Advanced Networking Technologies Division (ANTD).     *
+ *******************************************************************************/
+package gov2.nist.javax2.sip.stack;
+
+import gov2.nist.core.*;
+import gov2.nist.javax2.sip.header.*;
+import gov2.nist.javax2.sip.message.*;
+import gov2.nist.javax2.sip.parser.*;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.text.ParseException;
+import java.util.LinkedList;
+
+import javax2.sip.address.Hop;
+
+/**
+ * TCP message channel of the {@link NioTcpMessageProcessor}.
+ *
+ * The bytes read by the selector thread are accumulated in a buffer, from
+ * which each message is cut as soon as its headers and the number of body
+ * bytes given by its Content-Length have been received. The complete message
+ * is then parsed and processed in the worker thread of the channel. The
+ * messages are written directly to the non-blocking socket channel, the bytes
+ * which could not be written being written by the selector thread when the
+ * socket becomes writable.
+ *
+ * @version 1.2
+ */
+public class NioTcpMessageChannel extends MessageChannel implements SIPMessageListener,
+        RawMessageChannel {
+
+    /**
+     * Initial size of the read buffer.
+     */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Maximum length of the headers of a message.
+     */
+    private static final int MAX_HEADERS_LENGTH = 64 * 1024;
+
+    /**
+     * Maximum length of a message when the stack sets no maximum message size.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+    /**
+     * Timeout of the connection to the peer (ms).
+     */
+    private static final int CONNECTION_TIMEOUT = 10000;
+
+    private volatile SocketChannel socketChannel;
+
+    protected String key;
+
+    protected volatile boolean isCached;
+
+    protected SIPTransactionStack sipStack;
+
+    protected String myAddress;
+
+    protected int myPort;
+
+    protected InetAddress peerAddress;
+
+    protected int peerPort;
+
+    protected String peerProtocol;
+
+    private NioTcpMessageProcessor nioTcpMessageProcessor;
+
+    /**
+     * Index of the worker thread processing the received messages.
+     */
+    final int workerIndex;
+
+    /**
+     * Received bytes, accessed by the selector thread only.
+     */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Length of the headers of the message being received, -1 if its end of
+     * headers has not been received yet.
+     */
+    private int headersLength = -1;
+
+    /**
+     * Content length of the message being received.
+     */
+    private int contentLength = 0;
+
+    /**
+     * Number of bytes of the message being received already searched for its
+     * end of headers.
+     */
+    private int scannedLength = 0;
+
+    /**
+     * Number of bytes of a discarded body still to be skipped.
+     */
+    private int skippedLength = 0;
+
+    /**
+     * Timer closing the connection if the message being received is not
+     * received within the read timeout of the stack, null if none.
+     */
+    private volatile ReadTimer readTimer;
+
+    /**
+     * Buffers waiting to be written.
+     */
+    private final LinkedList<ByteBuffer> writeQueue = new LinkedList<ByteBuffer>();
+
+    /**
+     * Constructor - gets called from the processor on accepting a new client.
+     *
+     * @param socketChannel connected non-blocking socket channel.
+     * @param sipStack Ptr to SIP Stack
+     * @param msgProcessor the message processor.
+     */
+    protected NioTcpMessageChannel(SocketChannel socketChannel, SIPTransactionStack sipStack,
+            NioTcpMessageProcessor msgProcessor) {
+        if (sipStack.isLoggingEnabled())
+            sipStack.getStackLogger().logDebug("creating new NioTcpMessageChannel ");
+        this.socketChannel = socketChannel;
+        this.sipStack = sipStack;
+        this.peerAddress = socketChannel.socket().getInetAddress();
+        this.peerPort = socketChannel.socket().getPort();
+        this.peerProtocol = "TCP";
+        this.nioTcpMessageProcessor = msgProcessor;
+        this.myAddress = msgProcessor.getIpAddress().getHostAddress();
+        this.myPort = msgProcessor.getPort();
+        this.key = MessageChannel.getKey(peerAddress, peerPort, "TCP");
+        this.workerIndex = msgProcessor.nextWorkerIndex();
+        super.messageProcessor = msgProcessor;
+    }
+
+    /**
+     * Constructor - the connection to the given inet address is opened when
+     * the first message is sent.
+     *
+     * @param inetAddr inet address to connect to.
+     * @param port port to connect to.
+     * @param sipStack is the sip sipStack from which we are created.
+     * @param msgProcessor the message processor.
+     */
+    protected NioTcpMessageChannel(InetAddress inetAddr, int port, SIPTransactionStack sipStack,
+            NioTcpMessageProcessor msgProcessor) {
+        if (sipStack.isLoggingEnabled())
+            sipStack.getStackLogger().logDebug("creating new NioTcpMessageChannel ");
+        this.sipStack = sipStack;
+        this.peerAddress = inetAddr;
+        this.peerPort = port;
+        this.peerProtocol = "TCP";
+        this.nioTcpMessageProcessor = msgProcessor;
+        this.myAddress = msgProcessor.getIpAddress().getHostAddress();
+        this.myPort = msgProcessor.getPort();
+        this.key = MessageChannel.getKey(peerAddress, peerPort, "TCP");
+        this.workerIndex = msgProcessor.nextWorkerIndex();
+        this.isCached = true;
+        super.messageProcessor = msgProcessor;
+    }
+
+    /**
+     * Returns "true" as this is a reliable transport.
+     */
+    public boolean isReliable() {
+        return true;
+    }
+
+    /**
+     * Close the message channel.
+     */
+    public void close() {
+        SocketChannel channel = this.socketChannel;
+        if (channel != null) {
+            nioTcpMessageProcessor.closeConnection(this, channel);
+        }
+        if (sipStack.isLoggingEnabled())
+            sipStack.getStackLogger().logDebug("Closing message Channel " + this);
+    }
+
+    /**
+     * Get my SIP Stack.
+     *
+     * @return The SIP Stack for this message channel.
+     */
+    public SIPTransactionStack getSIPStack() {
+        return sipStack;
+    }
+
+    /**
+     * get the transport string.
+     *
+     * @return "tcp" in this case.
+     */
+    public String getTransport() {
+        return "TCP";
+    }
+
+    /**
+     * get the address of the client that sent the data to us.
+     *
+     * @return Address of the client that sent us data that resulted in this channel being
+     *         created.
+     */
+    public String getPeerAddress() {
+        if (peerAddress != null) {
+            return peerAddress.getHostAddress();
+        } else
+            return getHost();
+    }
+
+    protected InetAddress getPeerInetAddress() {
+        return peerAddress;
+    }
+
+    public String getPeerProtocol() {
+        return this.peerProtocol;
+    }
+
+    /**
+     * Return a formatted message to the client. We try to re-connect with the peer on the other
+     * end if possible.
+     *
+     * @param sipMessage Message to send.
+     * @throws IOException If there is an error sending the message
+     */
+    public void sendMessage(SIPMessage sipMessage) throws IOException {
+        byte[] msg = sipMessage.encodeAsBytes(this.getTransport());
+
+        long time = System.currentTimeMillis();
+
+        this.send(msg, true);
+
+        if (this.sipStack.getStackLogger().isLoggingEnabled(ServerLogger.TRACE_MESSAGES))
+            logMessage(sipMessage, peerAddress, peerPort, time);
+    }
+
+    /**
+     * Send a message to a specified address.
+     *
+     * @param message Pre-formatted message to send.
+     * @param receiverAddress Address to send it to.
+     * @param receiverPort Receiver port.
+     * @throws IOException If there is a problem connecting or sending.
+     */
+    public void sendMessage(byte message[], InetAddress receiverAddress, int receiverPort,
+            boolean retry) throws IOException {
+        if (message == null || receiverAddress == null)
+            throw new IllegalArgumentException("Null argument");
+        if (receiverAddress.equals(peerAddress) && receiverPort == peerPort) {
+            this.send(message, retry);
+        } else {
+            NioTcpMessageChannel channel = (NioTcpMessageChannel) nioTcpMessageProcessor
+                    .createMessageChannel(receiverAddress, receiverPort);
+            channel.send(message, retry);
+        }
+    }
+
+    /**
+     * Send bytes on the connection, which is opened again if it has been
+     * closed.
+     *
+     * @param bytes the bytes to send.
+     * @param retry retry to connect if the other end closed connection.
+     * @throws IOException if the bytes cannot be sent.
+     */
+    private void send(byte[] bytes, boolean retry) throws IOException {
+        int maxRetry = retry ? 2 : 1;
+        for (int retryCount = 1;; retryCount++) {
+            SocketChannel channel = connect();
+            try {
+                synchronized (writeQueue) {
+                    writeQueue.add(ByteBuffer.wrap(bytes));
+                    if (writeQueue.size() == 1) {
+                        flush(channel);
+                        if (!writeQueue.isEmpty())
+                            nioTcpMessageProcessor.requestWrite(channel);
+                    }
+                }
+                return;
+            } catch (IOException ex) {
+                if (sipStack.isLoggingEnabled())
+                    sipStack.getStackLogger().logDebug(
+                            "IOException occured retryCount " + retryCount);
+                // old connection is bad.
+                nioTcpMessageProcessor.closeConnection(this, channel);
+                if (retryCount >= maxRetry)
+                    throw ex;
+            }
+        }
+    }
+
+    /**
+     * Return the connection to the peer, after having opened it if needed.
+     *
+     * @return the connected socket channel.
+     * @throws IOException if we cannot connect.
+     */
+    private synchronized SocketChannel connect() throws IOException {
+        SocketChannel channel = this.socketChannel;
+        if (channel != null && channel.isOpen())
+            return channel;
+
+        if (sipStack.isLoggingEnabled()) {
+            sipStack.getStackLogger().logDebug("inaddr = " + peerAddress);
+            sipStack.getStackLogger().logDebug("port = " + peerPort);
+        }
+        channel = SocketChannel.open();
+        try {
+            channel.socket().bind(new InetSocketAddress(messageProcessor.getIpAddress(), 0));
+            channel.socket().connect(new InetSocketAddress(peerAddress, peerPort),
+                    CONNECTION_TIMEOUT);
+            channel.configureBlocking(false);
+        } catch (IOException ex) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+            }
+            if (sipStack.isLoggingEnabled())
+                sipStack.getStackLogger().logError(
+                        "Could not connect to " + peerAddress + ":" + peerPort);
+            throw new IOException("Could not connect to " + peerAddress + ":" + peerPort);
+        }
+        synchronized (writeQueue) {
+            // Drop what was not written on the previous connection
+            writeQueue.clear();
+        }
+        this.socketChannel = channel;
+        if (this.isCached)
+            nioTcpMessageProcessor.cacheMessageChannel(this);
+        nioTcpMessageProcessor.register(this, channel);
+        return channel;
+    }
+
+    /**
+     * Write the queued buffers until the socket cannot accept more bytes.
+     *
+     * @param channel the socket channel.
+     * @throws IOException if the write fails.
+     */
+    private void flush(SocketChannel channel) throws IOException {
+        while (!writeQueue.isEmpty()) {
+            ByteBuffer buffer = writeQueue.getFirst();
+            channel.write(buffer);
+            if (buffer.hasRemaining())
+                return;
+            writeQueue.removeFirst();
+        }
+    }
+
+    /**
+     * @return true if bytes are waiting to be written.
+     */
+    boolean hasPendingData() {
+        synchronized (writeQueue) {
+            return !writeQueue.isEmpty();
+        }
+    }
+
+    /**
+     * Write the pending bytes, the socket being writable. Called by the
+     * selector thread.
+     *
+     * @param channel the socket channel.
+     * @param key its selection key.
+     * @throws IOException if the write fails.
+     */
+    void writeData(SocketChannel channel, SelectionKey key) throws IOException {
+        synchronized (writeQueue) {
+            flush(channel);
+            if (writeQueue.isEmpty())
+                key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Read the available bytes and hand the complete messages to the worker.
+     * Called by the selector thread.
+     *
+     * @param channel the socket channel.
+     * @return false if the other end has closed the connection.
+     * @throws IOException if the read fails or if the stream is not valid.
+     */
+    boolean readData(ReadableByteChannel channel) throws IOException {
+        if (!readBuffer.hasRemaining())
+            growReadBuffer(readBuffer.capacity() * 2);
+        int nbytes = channel.read(readBuffer);
+        if (nbytes == -1)
+            return false;
+        if (nbytes > 0) {
+            boolean completed = frameMessages();
+            if (sipStack.readTimeout != -1)
+                updateReadTimer(completed);
+        }
+        return true;
+    }
+
+    /**
+     * Start, restart or stop the read timer after a read, as the pipeline of
+     * the blocking channels does: all the headers of a message must be
+     * received within the read timeout from its first byte, then each read of
+     * its body within the read timeout of the previous one.
+     *
+     * @param completed true if a message has been completed by the read.
+     */
+    private void updateReadTimer(boolean completed) {
+        boolean pending = readBuffer.position() > 0 || skippedLength > 0;
+        boolean restart = completed || headersLength >= 0 || skippedLength > 0;
+        if (readTimer != null && (!pending || restart))
+            cancelReadTimer();
+        if (pending && readTimer == null) {
+            readTimer = new ReadTimer();
+            sipStack.getTimer().schedule(readTimer, sipStack.readTimeout);
+        }
+    }
+
+    /**
+     * Stop the read timer, if any.
+     */
+    void cancelReadTimer() {
+        ReadTimer timer = this.readTimer;
+        if (timer != null) {
+            timer.cancel();
+            this.readTimer = null;
+        }
+    }
+
+    /**
+     * Cut the complete messages from the read buffer.
+     *
+     * @return true if at least one message has been completed.
+     * @throws IOException if the stream is not valid.
+     */
+    private boolean frameMessages() throws IOException {
+        byte[] data = readBuffer.array();
+        int limit = readBuffer.position();
+        int start = 0;
+        int required = 0;
+        boolean completed = false;
+        while (start < limit) {
+            if (skippedLength > 0) {
+                int skipped = Math.min(skippedLength, limit - start);
+                start += skipped;
+                skippedLength -= skipped;
+                if (skippedLength == 0)
+                    completed = true;
+                continue;
+            }
+
+            if (headersLength < 0) {
+                if (scannedLength == 0) {
+                    // Ignore the CRLF keep-alives between the messages
+                    while (start < limit && (data[start] == '\r' || data[start] == '\n'))
+                        start++;
+                }
+                int end = findHeadersEnd(data, start + Math.max(0, scannedLength - 2), limit);
+                if (end < 0) {
+                    scannedLength = limit - start;
+                    if (scannedLength > MAX_HEADERS_LENGTH)
+                        throw new IOException("Headers too long");
+                    break;
+                }
+                scannedLength = 0;
+                headersLength = end - start;
+                contentLength = getContentLength(data, start, end);
+
+                long messageLength = (long) headersLength + contentLength;
+                int maxMessageSize = sipStack.getMaxMessageSize();
+                if (maxMessageSize <= 0 && messageLength > MAX_MESSAGE_LENGTH)
+                    throw new IOException("Message too long");
+                if (maxMessageSize > 0 && messageLength > maxMessageSize) {
+                    // Process the headers only, which rejects the message
+                    dispatch(copy(data, start, headersLength), true);
+                    start = end;
+                    skippedLength = contentLength;
+                    headersLength = -1;
+                    continue;
+                }
+            }
+
+            int length = headersLength + contentLength;
+            if (limit - start < length) {
+                required = length;
+                break;
+            }
+            dispatch(copy(data, start, length), false);
+            start += length;
+            headersLength = -1;
+            completed = true;
+        }
+
+        // Keep the bytes of the message being received at the start of the buffer
+        int remaining = limit - start;
+        if (required > readBuffer.capacity()) {
+            ByteBuffer buffer = ByteBuffer.allocate(required);
+            buffer.put(data, start, remaining);
+            readBuffer = buffer;
+        } else if (remaining == 0 && readBuffer.capacity() > READ_BUFFER_SIZE) {
+            readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        } else {
+            System.arraycopy(data, start, data, 0, remaining);
+            readBuffer.position(remaining);
+        }
+        return completed;
+    }
+
+    /**
+     * Grow the read buffer.
+     *
+     * @param capacity the new capacity.
+     */
+    private void growReadBuffer(int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocate(capacity);
+        readBuffer.flip();
+        buffer.put(readBuffer);
+        readBuffer = buffer;
+    }
+
+    /**
+     * Find the empty line ending the headers.
+     *
+     * @param data the buffer.
+     * @param from index where the search starts.
+     * @param limit end of the data.
+     * @return index of the first byte following the empty line, -1 if not found.
+     */
+    private static int findHeadersEnd(byte[] data, int from, int limit) {
+        for (int i = from; i < limit - 1; i++) {
+            if (data[i] == '\n') {
+                if (data[i + 1] == '\n')
+                    return i + 2;
+                if (data[i + 1] == '\r' && i + 2 < limit && data[i + 2] == '\n')
+                    return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read the value of the Content-Length header.
+     *
+     * @param data the buffer.
+     * @param start index of the first line of the message.
+     * @param end end of the headers.
+     * @return the content length, 0 if there is no Content-Length header.
+     * @throws IOException if the value is not valid.
+     */
+    private static int getContentLength(byte[] data, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            if (data[i] != '\n' || i + 1 >= end)
+                continue;
+
+            // Header name
+            int nameStart = i + 1;
+            int nameEnd = nameStart;
+            while (nameEnd < end && data[nameEnd] != ':' && data[nameEnd] > ' ')
+                nameEnd++;
+            if (!isHeaderName(data, nameStart, nameEnd, "Content-Length")
+                    && !isHeaderName(data, nameStart, nameEnd, "l"))
+                continue;
+            int j = nameEnd;
+            while (j < end && (data[j] == ' ' || data[j] == '\t'))
+                j++;
+            if (j == end || data[j] != ':')
+                continue;
+            j++;
+            while (j < end && (data[j] == ' ' || data[j] == '\t'))
+                j++;
+
+            // Value
+            long value = 0;
+            int digits = 0;
+            while (j < end && data[j] >= '0' && data[j] <= '9') {
+                value = value * 10 + (data[j++] - '0');
+                if (value > Integer.MAX_VALUE)
+                    throw new IOException("Bad Content-Length");
+                digits++;
+            }
+            if (digits == 0)
+                throw new IOException("Bad Content-Length");
+            return (int) value;
+        }
+        return 0;
+    }
+
+    private static boolean isHeaderName(byte[] data, int start, int end, String name) {
+        if (end - start != name.length())
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.toLowerCase((char) data[start + i]) != Character.toLowerCase(name
+                    .charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] copy(byte[] data, int start, int length) {
+        byte[] bytes = new byte[length];
+        System.arraycopy(data, start, bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * Hand a complete message to the worker of the channel.
+     *
+     * @param message the bytes of the message.
+     * @param headersOnly true if the body has been discarded.
+     */
+    void dispatch(final byte[] message, final boolean headersOnly) {
+        nioTcpMessageProcessor.execute(this, new Runnable() {
+            public void run() {
+                processBytes(message, headersOnly);
+            }
+        });
+    }
+
+    /**
+     * Parse and process a message. Called by the worker thread.
+     *
+     * @param message the bytes of the message.
+     * @param headersOnly true if the body has been discarded.
+     */
+    private void processBytes(byte[] message, boolean headersOnly) {
+        StringMsgParser parser = headersOnly ? new HeadersParser(this) : new StringMsgParser(this);
+        SIPMessage sipMessage = null;
+        try {
+            sipMessage = parser.parseSIPMessage(message);
+        } catch (ParseException ex) {
+            // Just ignore the parse exception.
+            if (sipStack.isLoggingEnabled())
+                sipStack.getStackLogger().logError("Detected a parse error", ex);
+            return;
+        }
+        if (sipMessage == null)
+            return;
+
+        try {
+            processMessage(sipMessage);
+        } catch (Exception ex) {
+            // fatal error in processing - close the connection.
+            if (sipStack.isLoggingEnabled())
+                sipStack.getStackLogger().logDebug("Closing connection " + ex);
+            close();
+        }
+    }
+
+    /**
+     * Exception processor for exceptions detected from the parser. (This is invoked by the parser
+     * when an error is detected).
+     *
+     * @param sipMessage -- the message that incurred the error.
+     * @param ex -- parse exception detected by the parser.
+     * @param header -- header that caused the error.
+     * @throws ParseException Thrown if we want to reject the message.
+     */
+    public void handleException(ParseException ex, SIPMessage sipMessage, Class<?> hdrClass,
+            String header, String message) throws ParseException {
+        if (sipStack.isLoggingEnabled())
+            sipStack.getStackLogger().logException(ex);
+        // Log the bad message for later reference.
+        if ((hdrClass != null)
+                && (hdrClass.equals(From.class) || hdrClass.equals(To.class)
+                        || hdrClass.equals(CSeq.class) || hdrClass.equals(Via.class)
+                        || hdrClass.equals(CallID.class) || hdrClass.equals(RequestLine.class) || hdrClass
+                        .equals(StatusLine.class))) {
+            if (sipStack.isLoggingEnabled()) {
+                sipStack.getStackLogger().logDebug(
+                        "Encountered Bad Message \n" + sipMessage.toString());
+            }
+
+            // JvB: send a 400 response for requests (except ACK)
+            String msgString = sipMessage.toString();
+            if (!msgString.startsWith("SIP/") && !msgString.startsWith("ACK ")) {
+
+                String badReqRes = createBadReqRes(msgString, ex);
+                if (badReqRes != null) {
+                    if (sipStack.isLoggingEnabled()) {
+                        sipStack.getStackLogger().logDebug("Sending automatic 400 Bad Request:");
+                        sipStack.getStackLogger().logDebug(badReqRes);
+                    }
+                    try {
+                        this.send(badReqRes.getBytes(), false);
+                    } catch (IOException e) {
+                        if (sipStack.isLoggingEnabled())
+                            this.sipStack.getStackLogger().logException(e);
+                    }
+                } else {
+                    if (sipStack.isLoggingEnabled()) {
+                        sipStack.getStackLogger().logDebug(
+                                "Could not formulate automatic 400 Bad Request");
+                    }
+                }
+            }
+
+            throw ex;
+        } else {
+            sipMessage.addUnparsed(header);
+        }
+    }
+
+    /**
+     * Gets invoked by the worker on successful message parsing (i.e. no parser errors).
+     *
+     * @param sipMessage Mesage to process (this calls the application for processing the
+     *        message).
+     */
+    public void processMessage(SIPMessage sipMessage) throws Exception {
+        if (sipMessage.getFrom() == null || sipMessage.getTo() == null
+                || sipMessage.getCallId() == null || sipMessage.getCSeq() == null
+                || sipMessage.getViaHeaders() == null) {
+            String badmsg = sipMessage.encode();
+            if (sipStack.isLoggingEnabled()) {
+                sipStack.getStackLogger().logDebug(">>> Dropped Bad Msg");
+                sipStack.getStackLogger().logDebug(badmsg);
+            }
+
+            return;
+        }
+
+        ViaList viaList = sipMessage.getViaHeaders();
+        // For a request
+        // first via header tells where the message is coming from.
+        // For response, this has already been recorded in the outgoing
+        // message.
+        if (sipMessage instanceof SIPRequest) {
+            Via v = (Via) viaList.getFirst();
+            Hop hop = sipStack.addressResolver.resolveAddress(v.getHop());
+            this.peerProtocol = v.getTransport();
+            try {
+                // JvB: if sender added 'rport', must always set received
+                if (v.hasParameter(Via.RPORT)
+                        || !hop.getHost().equals(this.peerAddress.getHostAddress())) {
+                    v.setParameter(Via.RECEIVED, this.peerAddress.getHostAddress());
+                }
+                v.setParameter(Via.RPORT, Integer.toString(this.peerPort));
+            } catch (java.text.ParseException ex) {
+                InternalErrorHandler.handleException(ex, sipStack.getStackLogger());
+            }
+            // Use this for outgoing messages as well.
+            if (!this.isCached) {
+                this.isCached = true;
+                nioTcpMessageProcessor.cacheMessageChannel(this);
+            }
+        }
+
+        long receptionTime = System.currentTimeMillis();
+
+        if (sipMessage instanceof SIPRequest) {
+            // This is a request - process the request.
+            SIPRequest sipRequest = (SIPRequest) sipMessage;
+
+            if (sipStack.isLoggingEnabled()) {
+                sipStack.getStackLogger().logDebug("----Processing Message---");
+            }
+
+            if (this.sipStack.getStackLogger().isLoggingEnabled(ServerLogger.TRACE_MESSAGES)) {
+                sipStack.serverLogger.logMessage(sipMessage, this.getPeerHostPort().toString(),
+                        this.getMessageProcessor().getIpAddress().getHostAddress() + ":"
+                                + this.getMessageProcessor().getPort(), false, receptionTime);
+
+            }
+
+            // Check for reasonable size - reject message
+            // if it is too long.
+            if (sipStack.getMaxMessageSize() > 0
+                    && sipRequest.getSize()
+                            + (sipRequest.getContentLength() == null ? 0 : sipRequest
+                                    .getContentLength().getContentLength()) > sipStack
+                            .getMaxMessageSize()) {
+                SIPResponse sipResponse = sipRequest
+                        .createResponse(SIPResponse.MESSAGE_TOO_LARGE);
+                byte[] resp = sipResponse.encodeAsBytes(this.getTransport());
+                this.send(resp, false);
+                throw new Exception("Message size exceeded");
+            }
+
+            ServerRequestInterface sipServerRequest = sipStack.newSIPServerRequest(sipRequest,
+                    this);
+
+            if (sipServerRequest != null) {
+                try {
+                    sipServerRequest.processRequest(sipRequest, this);
+                } finally {
+                    if (sipServerRequest instanceof SIPTransaction) {
+                        SIPServerTransaction sipServerTx = (SIPServerTransaction) sipServerRequest;
+                        if (!sipServerTx.passToListener())
+                            ((SIPTransaction) sipServerRequest).releaseSem();
+                    }
+                }
+            } else {
+                if (sipStack.isLoggingEnabled())
+                    this.sipStack.getStackLogger().logWarning(
+                            "Dropping request -- could not acquire semaphore in 10 sec");
+            }
+
+        } else {
+            SIPResponse sipResponse = (SIPResponse) sipMessage;
+            try {
+                sipResponse.checkHeaders();
+            } catch (ParseException ex) {
+                if (sipStack.isLoggingEnabled())
+                    sipStack.getStackLogger().logError(
+                            "Dropping Badly formatted response message >>> " + sipResponse);
+                return;
+            }
+            // This is a response message - process it.
+            // Check the size of the response.
+            // If it is too large dump it silently.
+            if (sipStack.getMaxMessageSize() > 0
+                    && sipResponse.getSize()
+                            + (sipResponse.getContentLength() == null ? 0 : sipResponse
+                                    .getContentLength().getContentLength()) > sipStack
+                            .getMaxMessageSize()) {
+                if (sipStack.isLoggingEnabled())
+                    this.sipStack.getStackLogger().logDebug("Message size exceeded");
+                return;
+
+            }
+            ServerResponseInterface sipServerResponse = sipStack.newSIPServerResponse(
+                    sipResponse, this);
+            if (sipServerResponse != null) {
+                try {
+                    if (sipServerResponse instanceof SIPClientTransaction
+                            && !((SIPClientTransaction) sipServerResponse)
+                                    .checkFromTag(sipResponse)) {
+                        if (sipStack.isLoggingEnabled())
+                            sipStack.getStackLogger().logError(
+                                    "Dropping response message with invalid tag >>> "
+                                            + sipResponse);
+                        return;
+                    }
+
+                    sipServerResponse.processResponse(sipResponse, this);
+                } finally {
+                    if (sipServerResponse instanceof SIPTransaction
+                            && !((SIPTransaction) sipServerResponse).passToListener())
+                        ((SIPTransaction) sipServerResponse).releaseSem();
+                }
+            } else {
+                sipStack.getStackLogger().logWarning(
+                        "Application is blocked -- could not acquire semaphore -- dropping response");
+            }
+        }
+    }
+
+    protected void uncache() {
+        SocketChannel channel = this.socketChannel;
+        if (isCached && (channel == null || !channel.isOpen())) {
+            nioTcpMessageProcessor.remove(this);
+        }
+    }
+
+    /**
+     * Get an identifying key. This key is used to cache the connection and re-use it if
+     * necessary.
+     */
+    public String getKey() {
+        return this.key;
+    }
+
+    /**
+     * Get the host to assign to outgoing messages.
+     *
+     * @return the host to assign to the via header.
+     */
+    public String getViaHost() {
+        return myAddress;
+    }
+
+    /**
+     * Get the port for outgoing messages sent from the channel.
+     *
+     * @return the port to assign to the via header.
+     */
+    public int getViaPort() {
+        return myPort;
+    }
+
+    /**
+     * Get the port of the peer to whom we are sending messages.
+     *
+     * @return the peer port.
+     */
+    public int getPeerPort() {
+        return peerPort;
+    }
+
+    public int getPeerPacketSourcePort() {
+        return this.peerPort;
+    }
+
+    public InetAddress getPeerPacketSourceAddress() {
+        return this.peerAddress;
+    }
+
+    /**
+     * TCP Is not a secure protocol.
+     */
+    public boolean isSecure() {
+        return false;
+    }
+
+    /**
+     * Timer closing the connection on which a message is received too slowly.
+     */
+    private class ReadTimer extends SIPStackTimerTask {
+        protected void runTask() {
+            if (sipStack.isLoggingEnabled())
+                sipStack.getStackLogger().logDebug("Read timeout, closing " + NioTcpMessageChannel.this);
+            close();
+        }
+    }
+
+    /**
+     * Parser of a message whose body has been discarded, which keeps the
+     * Content-Length of the message.
+     */
+    private static class HeadersParser extends StringMsgParser {
+        HeadersParser(ParseExceptionListener listener) {
+            super(listener);
+            readBody = false;
+        }
+    }
+}
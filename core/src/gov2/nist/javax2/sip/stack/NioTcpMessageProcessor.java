@@ -0,0 +1,459 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+/*******************************************************************************
+ *   Product of NIST/ITL Advanced Networking Technologies Division (ANTD).     *
+ *******************************************************************************/
+package gov2.nist.javax2.sip.stack;
+
+import gov2.nist.core.HostPort;
+import gov2.nist.core.InternalErrorHandler;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector based processor of the TCP connections.
+ *
+ * A single thread accepts the connections and does all the reads and the
+ * pending writes of the non-blocking socket channels. The messages are framed
+ * from the read buffer of each channel using their Content-Length and are
+ * parsed and processed by a fixed pool of worker threads. A channel is bound
+ * to one worker, so the messages of a connection are processed in order. The
+ * number of threads does not depend on the number of connections.
+ *
+ * This processor replaces {@link TCPMessageProcessor} when the property
+ * gov2.nist.javax2.sip.TCP_MESSAGE_PROCESSOR is set to "nio".
+ *
+ * @see NioTcpMessageChannel
+ *
+ * @version 1.2
+ */
+public class NioTcpMessageProcessor extends MessageProcessor {
+
+    /**
+     * Default number of worker threads.
+     */
+    static final int DEFAULT_THREAD_COUNT = 2;
+
+    private volatile boolean isRunning;
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    /**
+     * Cached channels, by key.
+     */
+    private final ConcurrentHashMap<String, NioTcpMessageChannel> nioTcpMessageChannels;
+
+    /**
+     * Registrations and interest changes to be run by the selector thread.
+     */
+    private final ConcurrentLinkedQueue<Runnable> pendingChanges;
+
+    /**
+     * Single thread executors processing the received messages.
+     */
+    private final ThreadPoolExecutor[] workers;
+
+    /**
+     * Index of the worker of the next created channel.
+     */
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    /**
+     * Number of open connections.
+     */
+    private final AtomicInteger nConnections = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param sipStack SIPStack structure.
+     * @param port port where this message processor listens.
+     * @param threadCount number of threads processing the received messages.
+     */
+    protected NioTcpMessageProcessor(InetAddress ipAddress, SIPTransactionStack sipStack,
+            int port, int threadCount) {
+        super(ipAddress, port, "tcp", sipStack);
+
+        this.sipStack = sipStack;
+
+        this.nioTcpMessageChannels = new ConcurrentHashMap<String, NioTcpMessageChannel>();
+        this.pendingChanges = new ConcurrentLinkedQueue<Runnable>();
+        if (threadCount <= 0)
+            threadCount = DEFAULT_THREAD_COUNT;
+        this.workers = new ThreadPoolExecutor[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final String name = "NioTcpWorker-" + (i + 1);
+            this.workers[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, name);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Start the processor.
+     */
+    public void start() throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.socket().setReuseAddress(true);
+        this.serverChannel.socket().bind(new InetSocketAddress(getIpAddress(), getPort()));
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        if (getIpAddress().getHostAddress().equals(IN_ADDR_ANY)
+                || getIpAddress().getHostAddress().equals(IN6_ADDR_ANY)) {
+            // Store the address to which we are actually bound
+            super.setIpAddress(serverChannel.socket().getInetAddress());
+        }
+        this.isRunning = true;
+
+        Thread thread = new Thread(this);
+        thread.setName("NioTcpMessageProcessorThread");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Run method of the selector thread.
+     */
+    public void run() {
+        try {
+            while (this.isRunning) {
+                try {
+                    selector.select();
+
+                    Runnable change;
+                    while ((change = pendingChanges.poll()) != null) {
+                        change.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid())
+                            continue;
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        NioTcpMessageChannel channel = (NioTcpMessageChannel) key.attachment();
+                        SocketChannel socketChannel = (SocketChannel) key.channel();
+                        try {
+                            if (key.isReadable() && !channel.readData(socketChannel)) {
+                                closeConnection(channel, socketChannel);
+                                continue;
+                            }
+                            if (key.isValid() && key.isWritable())
+                                channel.writeData(socketChannel, key);
+                        } catch (IOException ex) {
+                            if (sipStack.isLoggingEnabled())
+                                sipStack.getStackLogger().logDebug(
+                                        "IOException closing channel " + ex);
+                            closeConnection(channel, socketChannel);
+                        } catch (RuntimeException ex) {
+                            // Only the connection of the faulty peer is lost
+                            if (sipStack.isLoggingEnabled())
+                                sipStack.getStackLogger().logException(ex);
+                            closeConnection(channel, socketChannel);
+                        }
+                    }
+                } catch (ClosedSelectorException ex) {
+                    break;
+                } catch (IOException ex) {
+                    if (sipStack.isLoggingEnabled())
+                        sipStack.getStackLogger().logException(ex);
+                } catch (Exception ex) {
+                    InternalErrorHandler.handleException(ex);
+                }
+            }
+        } finally {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ex) {
+                    }
+                }
+                selector.close();
+            } catch (Exception ex) {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * Accept the pending connections.
+     */
+    private void accept() throws IOException {
+        SocketChannel socketChannel;
+        while ((socketChannel = serverChannel.accept()) != null) {
+            // sipStack.maxConnections == -1 means we are willing to handle an
+            // "infinite" number of simultaneous connections.
+            if (sipStack.maxConnections != -1
+                    && nConnections.get() >= sipStack.maxConnections) {
+                if (sipStack.isLoggingEnabled())
+                    sipStack.getStackLogger().logWarning(
+                            "Too many connections -- rejecting connection");
+                socketChannel.close();
+                continue;
+            }
+            if (sipStack.isLoggingEnabled())
+                sipStack.getStackLogger().logDebug("Accepting new connection!");
+
+            socketChannel.configureBlocking(false);
+            NioTcpMessageChannel channel = new NioTcpMessageChannel(socketChannel, sipStack,
+                    this);
+            socketChannel.register(selector, SelectionKey.OP_READ, channel);
+            nConnections.incrementAndGet();
+        }
+    }
+
+    /**
+     * Register a connected socket channel in the selector. Called by the
+     * thread which has connected the channel.
+     *
+     * @param channel the message channel.
+     * @param socketChannel its connected non-blocking socket channel.
+     */
+    void register(final NioTcpMessageChannel channel, final SocketChannel socketChannel) {
+        nConnections.incrementAndGet();
+        runInSelector(new Runnable() {
+            public void run() {
+                try {
+                    int ops = SelectionKey.OP_READ;
+                    if (channel.hasPendingData())
+                        ops |= SelectionKey.OP_WRITE;
+                    socketChannel.register(selector, ops, channel);
+                } catch (IOException ex) {
+                    closeConnection(channel, socketChannel);
+                }
+            }
+        });
+    }
+
+    /**
+     * Ask the selector to notify when the socket channel can be written, the
+     * channel having data which could not be written.
+     *
+     * @param socketChannel the socket channel.
+     */
+    void requestWrite(final SocketChannel socketChannel) {
+        runInSelector(new Runnable() {
+            public void run() {
+                SelectionKey key = socketChannel.keyFor(selector);
+                if (key != null && key.isValid())
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    /**
+     * Run a change of the registrations in the selector thread, the interest
+     * operations of a key not being updated while the selector is blocked.
+     *
+     * @param change the change.
+     */
+    private void runInSelector(Runnable change) {
+        pendingChanges.add(change);
+        Selector selector = this.selector;
+        if (selector != null)
+            selector.wakeup();
+    }
+
+    /**
+     * Close a connection which is broken or closed by the peer.
+     *
+     * @param channel the message channel.
+     * @param socketChannel its socket channel.
+     */
+    void closeConnection(NioTcpMessageChannel channel, SocketChannel socketChannel) {
+        channel.cancelReadTimer();
+        SelectionKey key = socketChannel.keyFor(selector);
+        if (key != null)
+            key.cancel();
+        synchronized (socketChannel) {
+            try {
+                if (socketChannel.isOpen()) {
+                    socketChannel.close();
+                    nConnections.decrementAndGet();
+                }
+            } catch (IOException ex) {
+            }
+        }
+        remove(channel);
+    }
+
+    /**
+     * Process a received message in the worker of a channel.
+     *
+     * @param channel the message channel.
+     * @param task the processing of the message.
+     */
+    void execute(NioTcpMessageChannel channel, Runnable task) {
+        try {
+            workers[channel.workerIndex].execute(task);
+        } catch (Exception ex) {
+            // The processor is stopped
+        }
+    }
+
+    /**
+     * @return the index of the worker of a new channel.
+     */
+    int nextWorkerIndex() {
+        return (nextWorker.getAndIncrement() & 0x7fffffff) % workers.length;
+    }
+
+    /**
+     * Return the transport string.
+     *
+     * @return the transport string
+     */
+    public String getTransport() {
+        return "tcp";
+    }
+
+    /**
+     * Returns the stack.
+     *
+     * @return my sip stack.
+     */
+    public SIPTransactionStack getSIPStack() {
+        return sipStack;
+    }
+
+    /**
+     * Stop the message processor.
+     */
+    public void stop() {
+        isRunning = false;
+        for (NioTcpMessageChannel next : nioTcpMessageChannels.values()) {
+            next.close();
+        }
+        try {
+            if (serverChannel != null)
+                serverChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (selector != null)
+            selector.wakeup();
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].shutdown();
+        }
+    }
+
+    protected void remove(NioTcpMessageChannel nioTcpMessageChannel) {
+        String key = nioTcpMessageChannel.getKey();
+        if (sipStack.isLoggingEnabled()) {
+            sipStack.getStackLogger().logDebug(Thread.currentThread() + " removing " + key);
+        }
+
+        /** May have been removed already */
+        nioTcpMessageChannels.remove(key, nioTcpMessageChannel);
+    }
+
+    public MessageChannel createMessageChannel(HostPort targetHostPort) throws IOException {
+        return createMessageChannel(targetHostPort.getInetAddress(), targetHostPort.getPort());
+    }
+
+    protected void cacheMessageChannel(NioTcpMessageChannel messageChannel) {
+        String key = messageChannel.getKey();
+        NioTcpMessageChannel currentChannel = nioTcpMessageChannels.put(key, messageChannel);
+        if (currentChannel != null && currentChannel != messageChannel) {
+            if (sipStack.isLoggingEnabled())
+                sipStack.getStackLogger().logDebug("Closing " + key);
+            currentChannel.close();
+        }
+        if (sipStack.isLoggingEnabled())
+            sipStack.getStackLogger().logDebug("Caching " + key);
+    }
+
+    public MessageChannel createMessageChannel(InetAddress host, int port) throws IOException {
+        String key = MessageChannel.getKey(host, port, "TCP");
+        NioTcpMessageChannel retval = nioTcpMessageChannels.get(key);
+        if (retval == null) {
+            NioTcpMessageChannel channel = new NioTcpMessageChannel(host, port, sipStack, this);
+            retval = nioTcpMessageChannels.putIfAbsent(key, channel);
+            if (retval == null) {
+                retval = channel;
+                if (sipStack.isLoggingEnabled()) {
+                    sipStack.getStackLogger().logDebug("key " + key);
+                    sipStack.getStackLogger().logDebug("Creating " + retval);
+                }
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * TCP can handle an unlimited number of bytes.
+     */
+    public int getMaximumMessageSize() {
+        return Integer.MAX_VALUE;
+    }
+
+    public boolean inUse() {
+        return nConnections.get() != 0;
+    }
+
+    /**
+     * Default target port for TCP
+     */
+    public int getDefaultTargetPort() {
+        return 5060;
+    }
+
+    /**
+     * TCP is not a secure protocol.
+     */
+    public boolean isSecure() {
+        return false;
+    }
+}
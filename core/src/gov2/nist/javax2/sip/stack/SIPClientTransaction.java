@@ -190,6 +190,9 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
 
     private SIPRequest lastRequest;
 
+    // Encoding of the last request, reused by the retransmissions.
+    private byte[] lastRequestBytes;
+
     private int viaPort;
 
     private String viaHost;
@@ -207,20 +210,27 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
 
     private int callingStateTimeoutCount;
 
-    public class TransactionTimer extends SIPStackTimerTask {
+    public class TransactionTimer extends SIPTimerWheel.Timeout {
+
+        // Set once the terminated transaction has been removed
+        private boolean removed;
 
         public TransactionTimer() {
 
         }
 
-        protected void runTask() {
+        protected synchronized void runTask() {
             SIPClientTransaction clientTransaction;
             SIPTransactionStack sipStack;
             clientTransaction = SIPClientTransaction.this;
             sipStack = clientTransaction.sipStack;
 
+            if (removed)
+                return;
+
             // If the transaction has terminated,
             if (clientTransaction.isTerminated()) {
+                removed = true;
 
                 if (sipStack.isLoggingEnabled()) {
                     sipStack.getStackLogger().logDebug(
@@ -230,13 +240,9 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
 
                 sipStack.removeTransaction(clientTransaction);
 
-                try {
-                    this.cancel();
-
-                } catch (IllegalStateException ex) {
-                    if (!sipStack.isAlive())
-                        return;
-                }
+                clientTransaction.cancelTransactionTimer();
+                if (!sipStack.isAlive() || sipStack.getTimer() == null)
+                    return;
 
                 // Client transaction terminated. Kill connection if
                 // this is a TCP after the linger timer has expired.
@@ -267,7 +273,8 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
             } else {
                 // If this transaction has not
                 // terminated,
-                // Fire the transaction timer.
+                // Fire the transaction timer, which is then scheduled on
+                // the next deadline.
                 clientTransaction.fireTimer();
 
             }
@@ -446,6 +453,7 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
 
                 // Send the message to the server
                 lastRequest = transactionRequest;
+                lastRequestBytes = null;
                 if (getState() == null) {
                     // Save this request as the one this transaction
                     // is handling
@@ -473,7 +481,8 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
                 // BUGBUG This supresses sending ACKS -- uncomment to test
                 // 4xx retransmission.
                 // if (transactionRequest.getMethod() != Request.ACK)
-                super.sendMessage(transactionRequest);
+                lastRequestBytes = transactionRequest.encodeAsBytes(getTransport());
+                super.sendMessage(transactionRequest, lastRequestBytes);
 
             } catch (IOException e) {
 
@@ -1009,8 +1018,14 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
                             InternalErrorHandler.handleException(ex);
                         }
                         lastRequest.setHeader(timeStamp);
+                        lastRequestBytes = null;
+                    }
+                    byte[] bytes = lastRequestBytes;
+                    if (bytes == null) {
+                        bytes = lastRequest.encodeAsBytes(getTransport());
+                        lastRequestBytes = bytes;
                     }
-                    super.sendMessage(lastRequest);
+                    super.sendMessage(lastRequest, bytes);
                     if (this.notifyOnRetransmit) {
                         TimeoutEvent txTimeout = new TimeoutEvent(this.getSipProvider(), this,
                                 Timeout.RETRANSMIT);
@@ -1305,9 +1320,9 @@ public class SIPClientTransaction extends SIPTransaction implements ServerRespon
      */
     protected  void startTransactionTimer() {
         if (this.transactionTimerStarted.compareAndSet(false, true)) {
-	        TimerTask myTimer = new TransactionTimer();
-	        if ( sipStack.getTimer() != null ) {
-	            sipStack.getTimer().schedule(myTimer, BASE_TIMER_INTERVAL, BASE_TIMER_INTERVAL);
+	        if ( sipStack.getTimerWheel() != null ) {
+	            // The timer only runs at the deadlines of the transaction
+	            startTransactionTimer(new TransactionTimer());
 	        }
         }
     }
@@ -351,7 +351,10 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
         }
     }
 
-    class TransactionTimer extends SIPStackTimerTask {
+    class TransactionTimer extends SIPTimerWheel.Timeout {
+
+        // Set once the linger timer of the terminated transaction is started
+        private boolean removed;
 
         public TransactionTimer() {
             if (sipStack.isLoggingEnabled()) {
@@ -360,19 +363,20 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
 
         }
 
-        protected void runTask() {
+        protected synchronized void runTask() {
+            if (removed)
+                return;
+
             // If the transaction has terminated,
             if (isTerminated()) {
+                removed = true;
                 // Keep the transaction hanging around in the transaction table
                 // to catch the incoming ACK -- this is needed for tcp only.
                 // Note that the transaction record is actually removed in
                 // the connection linger timer.
-                try {
-                    this.cancel();
-                } catch (IllegalStateException ex) {
-                    if (!sipStack.isAlive())
-                        return;
-                }
+                cancelTransactionTimer();
+                if (!sipStack.isAlive() || sipStack.getTimer() == null)
+                    return;
 
                 // Oneshot timer that garbage collects the SeverTransaction
                 // after a scheduled amount of time. The linger timer allows
@@ -1463,11 +1467,11 @@ public class SIPServerTransaction extends SIPTransaction implements ServerReques
      */
     protected void startTransactionTimer() {
         if (this.transactionTimerStarted.compareAndSet(false, true)) {
-        	if (sipStack.getTimer() != null) {
-                // The timer is set to null when the Stack is
-                // shutting down.
-                TimerTask myTimer = new TransactionTimer();
-                sipStack.getTimer().schedule(myTimer, BASE_TIMER_INTERVAL, BASE_TIMER_INTERVAL);
+        	if (sipStack.getTimerWheel() != null) {
+                // The timer wheel is set to null when the Stack is
+                // shutting down. The timer only runs at the deadlines of
+                // the transaction.
+                startTransactionTimer(new TransactionTimer());
             }
         }        
     }
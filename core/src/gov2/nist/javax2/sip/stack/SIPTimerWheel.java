@@ -0,0 +1,408 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+/*******************************************************************************
+ *   Product of NIST/ITL Advanced Networking Technologies Division (ANTD).     *
+ *******************************************************************************/
+package gov2.nist.javax2.sip.stack;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel running the transaction timers of the stack.
+ *
+ * A transaction only registers the deadline of its next timer (retransmission,
+ * timeout or removal once terminated) instead of being woken up at each
+ * BASE_TIMER_INTERVAL tick. Scheduling, rescheduling and cancelling a timeout
+ * are constant time operations. A single thread advances the wheel and hands
+ * the expired timeouts to a small fixed pool of threads, so a slow timeout
+ * does not delay the others.
+ *
+ * Deadlines are absolute times in milliseconds as returned by
+ * {@link #currentTime()}, which does not depend on the wall clock.
+ *
+ * @version 1.2
+ */
+class SIPTimerWheel {
+    /**
+     * Duration of a tick of the wheel (ms).
+     */
+    static final long TICK_DURATION = 10;
+
+    /**
+     * Number of buckets of the wheel (power of two).
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Default number of threads running the expired timeouts.
+     */
+    static final int DEFAULT_THREAD_COUNT = 2;
+
+    /**
+     * Buckets of the wheel, each bucket being a doubly linked list of timeouts.
+     */
+    private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+
+    /**
+     * Number of scheduled timeouts.
+     */
+    private int count = 0;
+
+    /**
+     * Index of the next tick to be processed.
+     */
+    private long tick = 0;
+
+    /**
+     * Time of the next tick to be processed.
+     */
+    private long nextTickTime = 0;
+
+    /**
+     * Wheel thread.
+     */
+    private Thread wheelThread = null;
+
+    /**
+     * Stop flag.
+     */
+    private boolean stopped = false;
+
+    /**
+     * Executor of the expired timeouts.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Number of expired timeouts.
+     */
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    /**
+     * Sum of the delays between the deadlines and the runs of the timeouts (ms).
+     */
+    private final AtomicLong totalDrift = new AtomicLong();
+
+    /**
+     * Maximum delay between the deadline and the run of a timeout (ms).
+     */
+    private final AtomicLong maxDrift = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param threadCount number of threads running the expired timeouts.
+     */
+    SIPTimerWheel(int threadCount) {
+        final AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threadCount, threadCount, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "SIPTimer-"
+                                + threadIndex.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Current time used for the deadlines.
+     *
+     * @return time in milliseconds.
+     */
+    static long currentTime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * Change the number of threads running the expired timeouts.
+     *
+     * @param threadCount number of threads.
+     */
+    void setThreadCount(int threadCount) {
+        if (threadCount <= 0)
+            throw new IllegalArgumentException("Thread count must be positive");
+        if (threadCount > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(threadCount);
+            executor.setCorePoolSize(threadCount);
+        } else {
+            executor.setCorePoolSize(threadCount);
+            executor.setMaximumPoolSize(threadCount);
+        }
+    }
+
+    /**
+     * Schedule a timeout, which is first removed from the wheel if already
+     * scheduled.
+     *
+     * @param timeout the timeout.
+     * @param deadline time of the expiration.
+     */
+    synchronized void schedule(Timeout timeout, long deadline) {
+        if (stopped)
+            return;
+        remove(timeout);
+
+        long now = currentTime();
+        if (count == 0) {
+            // The wheel is idle: restart it from now
+            nextTickTime = now + TICK_DURATION;
+        }
+        long ticks = 0;
+        if (deadline > nextTickTime) {
+            ticks = (deadline - nextTickTime + TICK_DURATION - 1) / TICK_DURATION;
+        }
+        timeout.deadline = deadline;
+        timeout.wheel = this;
+        timeout.rounds = ticks / WHEEL_SIZE;
+        timeout.bucket = (int) ((tick + ticks) & (WHEEL_SIZE - 1));
+
+        // Insert in the bucket
+        timeout.next = wheel[timeout.bucket];
+        timeout.previous = null;
+        if (timeout.next != null)
+            timeout.next.previous = timeout;
+        wheel[timeout.bucket] = timeout;
+        count++;
+
+        if (wheelThread == null) {
+            wheelThread = new Thread("SIPTimerWheel") {
+                public void run() {
+                    processWheel();
+                }
+            };
+            wheelThread.setDaemon(true);
+            wheelThread.start();
+        } else if (count == 1) {
+            notify();
+        }
+    }
+
+    /**
+     * Cancel a timeout.
+     *
+     * @param timeout the timeout.
+     * @return true if the timeout was scheduled.
+     */
+    synchronized boolean cancel(Timeout timeout) {
+        return remove(timeout);
+    }
+
+    /**
+     * Stop the wheel. The scheduled timeouts are dropped.
+     */
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                while (wheel[i] != null)
+                    remove(wheel[i]);
+            }
+            notify();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Number of scheduled timeouts.
+     *
+     * @return the number of timeouts in the wheel.
+     */
+    synchronized int getScheduledCount() {
+        return count;
+    }
+
+    /**
+     * Number of timeouts which have expired since the creation of the wheel.
+     *
+     * @return the number of expired timeouts.
+     */
+    long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Average delay between the deadline and the run of the expired timeouts.
+     *
+     * @return the average drift in milliseconds.
+     */
+    long getAverageDrift() {
+        long expired = expiredCount.get();
+        return (expired == 0) ? 0 : totalDrift.get() / expired;
+    }
+
+    /**
+     * Maximum delay between the deadline and the run of the expired timeouts.
+     *
+     * @return the maximum drift in milliseconds.
+     */
+    long getMaxDrift() {
+        return maxDrift.get();
+    }
+
+    /**
+     * Remove a timeout from its bucket.
+     *
+     * @param timeout the timeout.
+     * @return true if the timeout was scheduled.
+     */
+    private boolean remove(Timeout timeout) {
+        if (timeout.bucket == -1)
+            return false;
+        if (timeout.previous != null)
+            timeout.previous.next = timeout.next;
+        else
+            wheel[timeout.bucket] = timeout.next;
+        if (timeout.next != null)
+            timeout.next.previous = timeout.previous;
+        timeout.next = null;
+        timeout.previous = null;
+        timeout.bucket = -1;
+        count--;
+        return true;
+    }
+
+    /**
+     * Wheel thread processing.
+     */
+    private synchronized void processWheel() {
+        while (!stopped) {
+            advance();
+            try {
+                if (count == 0) {
+                    wait();
+                } else {
+                    long delay = nextTickTime - currentTime();
+                    if (delay > 0)
+                        wait(delay);
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Process the ticks elapsed up to now, the expired timeouts being given to
+     * the executor.
+     */
+    private void advance() {
+        long now = currentTime();
+        while (count > 0 && nextTickTime <= now) {
+            int bucket = (int) (tick & (WHEEL_SIZE - 1));
+            Timeout timeout = wheel[bucket];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds <= 0) {
+                    remove(timeout);
+                    try {
+                        executor.execute(timeout);
+                    } catch (Exception ex) {
+                        // The executor is shut down
+                    }
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+            tick++;
+            nextTickTime += TICK_DURATION;
+        }
+    }
+
+    /**
+     * Record the drift of an expired timeout.
+     *
+     * @param drift delay between the deadline and the run (ms).
+     */
+    private void recordDrift(long drift) {
+        if (drift < 0)
+            drift = 0;
+        expiredCount.incrementAndGet();
+        totalDrift.addAndGet(drift);
+        long max = maxDrift.get();
+        while (drift > max && !maxDrift.compareAndSet(max, drift))
+            max = maxDrift.get();
+    }
+
+    /**
+     * Timeout scheduled in the wheel. A timeout is scheduled at most once: it
+     * is moved when it is scheduled again before its expiration.
+     */
+    abstract static class Timeout implements Runnable {
+        /**
+         * Wheel of the last scheduling.
+         */
+        private SIPTimerWheel wheel;
+
+        /**
+         * Time of the expiration.
+         */
+        private long deadline;
+
+        /**
+         * Remaining revolutions of the wheel before the expiration.
+         */
+        private long rounds;
+
+        /**
+         * Bucket index (-1 if not scheduled).
+         */
+        private int bucket = -1;
+
+        /**
+         * Next timeout in the bucket.
+         */
+        private Timeout next;
+
+        /**
+         * Previous timeout in the bucket.
+         */
+        private Timeout previous;
+
+        // / Implements code to be run when the timeout expires.
+        protected abstract void runTask();
+
+        // / The run() method is final to ensure that all subclasses inherit the
+        // exception handling.
+        public final void run() {
+            try {
+                wheel.recordDrift(currentTime() - deadline);
+                runTask();
+            } catch (Throwable e) {
+                System.out.println("SIP stack timer task failed due to exception:");
+                e.printStackTrace();
+            }
+        }
+    }
+}
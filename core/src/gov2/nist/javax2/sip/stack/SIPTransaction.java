@@ -224,11 +224,20 @@ public abstract class SIPTransaction extends MessageChannel implements
     // Number of ticks the retransmission timer was set to last
     private transient int retransmissionTimerLastTickCount;
 
-    // Number of ticks before the message is retransmitted
-    private transient int retransmissionTimerTicksLeft;
+    // Time at which the message is retransmitted (-1 if disabled)
+    private transient volatile long retransmissionTimerDeadline = -1;
 
-    // Number of ticks before the transaction times out
-    protected int timeoutTimerTicksLeft;
+    // Time at which the transaction times out (-1 if disabled)
+    protected volatile long timeoutTimerDeadline = -1;
+
+    // Time at which the terminated transaction is collected (-1 if not terminated)
+    private transient volatile long terminatedDeadline = -1;
+
+    // Timer of the state machine, scheduled on the next deadline
+    private transient SIPTimerWheel.Timeout transactionTimer;
+
+    // Guards the computation and the scheduling of the next deadline
+    private final Object transactionTimerLock = new Object();
 
     // List of event listeners for this transaction
     private transient Set<SIPTransactionEventListener> eventListeners;
@@ -538,6 +547,11 @@ public abstract class SIPTransaction extends MessageChannel implements
         else
             newState = currentState;
         // END OF PATCH
+        if (newState == TransactionState.TERMINATED && terminatedDeadline == -1) {
+            // The transaction is collected one tick after its termination
+            terminatedDeadline = SIPTimerWheel.currentTime() + BASE_TIMER_INTERVAL;
+            scheduleTransactionTimer();
+        }
         if (sipStack.isLoggingEnabled()) {
             sipStack.getStackLogger().logDebug("Transaction:setState " + newState
                     + " " + this + " branchID = " + this.getBranch()
@@ -573,21 +587,22 @@ public abstract class SIPTransaction extends MessageChannel implements
      */
     protected final void enableRetransmissionTimer(int tickCount) {
         // For INVITE Client transactions, double interval each time
-        if (isInviteTransaction() && (this instanceof SIPClientTransaction)) {
-            retransmissionTimerTicksLeft = tickCount;
-        } else {
+        if (!(isInviteTransaction() && (this instanceof SIPClientTransaction))) {
             // non-INVITE transactions and 3xx-6xx responses are capped at T2
-            retransmissionTimerTicksLeft = Math.min(tickCount,
-                    MAXIMUM_RETRANSMISSION_TICK_COUNT);
+            tickCount = Math.min(tickCount, MAXIMUM_RETRANSMISSION_TICK_COUNT);
         }
-        retransmissionTimerLastTickCount = retransmissionTimerTicksLeft;
+        retransmissionTimerLastTickCount = tickCount;
+        retransmissionTimerDeadline = SIPTimerWheel.currentTime() + (long) tickCount
+                * BASE_TIMER_INTERVAL;
+        scheduleTransactionTimer();
     }
 
     /**
      * Turns off retransmission events for this transaction.
      */
     protected final void disableRetransmissionTimer() {
-        retransmissionTimerTicksLeft = -1;
+        retransmissionTimerDeadline = -1;
+        scheduleTransactionTimer();
     }
 
     /**
@@ -598,47 +613,108 @@ public abstract class SIPTransaction extends MessageChannel implements
      *            Number of ticks before this transaction times out.
      */
     protected final void enableTimeoutTimer(int tickCount) {
+        long now = SIPTimerWheel.currentTime();
         if (sipStack.isLoggingEnabled())
             sipStack.getStackLogger().logDebug("enableTimeoutTimer " + this
                     + " tickCount " + tickCount + " currentTickCount = "
-                    + timeoutTimerTicksLeft);
+                    + ((timeoutTimerDeadline == -1) ? -1
+                            : (timeoutTimerDeadline - now) / BASE_TIMER_INTERVAL));
 
-        timeoutTimerTicksLeft = tickCount;
+        timeoutTimerDeadline = now + (long) tickCount * BASE_TIMER_INTERVAL;
+        scheduleTransactionTimer();
     }
 
     /**
      * Disabled the timeout timer.
      */
     protected final void disableTimeoutTimer() {
-        timeoutTimerTicksLeft = -1;
+        timeoutTimerDeadline = -1;
+        scheduleTransactionTimer();
     }
 
     /**
-     * Fired after each timer tick. Checks the retransmission and timeout timers
-     * of this transaction, and fired these events if necessary.
+     * Fired when the next deadline of this transaction is reached. Checks the
+     * retransmission and timeout timers of this transaction, and fired these
+     * events if necessary.
      */
     final void fireTimer() {
-        // If the timeout timer is enabled,
+        long now = SIPTimerWheel.currentTime();
+
+        // If the timeout timer is enabled and has run out,
+        long deadline = timeoutTimerDeadline;
+        if (deadline != -1 && deadline <= now) {
+            timeoutTimerDeadline = -1;
+            // Fire the timeout timer
+            fireTimeoutTimer();
+        }
 
-        if (timeoutTimerTicksLeft != -1) {
-            // Count down the timer, and if it has run out,
-            if (--timeoutTimerTicksLeft == 0) {
-                // Fire the timeout timer
-                fireTimeoutTimer();
-            }
+        // If the retransmission timer is enabled and has run out,
+        deadline = retransmissionTimerDeadline;
+        if (deadline != -1 && deadline <= now) {
+            // Enable this timer to fire again after
+            // twice the original time
+            enableRetransmissionTimer(retransmissionTimerLastTickCount * 2);
+            // Fire the timeout timer
+            fireRetransmissionTimer();
         }
 
-        // If the retransmission timer is enabled,
-        if (retransmissionTimerTicksLeft != -1) {
-            // Count down the timer, and if it has run out,
-            if (--retransmissionTimerTicksLeft == 0) {
-                // Enable this timer to fire again after
-                // twice the original time
-                enableRetransmissionTimer(retransmissionTimerLastTickCount * 2);
-                // Fire the timeout timer
-                fireRetransmissionTimer();
+        scheduleTransactionTimer();
+    }
+
+    /**
+     * Starts the timer of the state machine. Until then, the timers enabled on
+     * this transaction do not fire.
+     *
+     * @param timer timer of the state machine, run at each deadline.
+     */
+    protected final void startTransactionTimer(SIPTimerWheel.Timeout timer) {
+        synchronized (transactionTimerLock) {
+            this.transactionTimer = timer;
+        }
+        scheduleTransactionTimer();
+    }
+
+    /**
+     * Schedules the timer of the state machine on the next deadline of this
+     * transaction: the removal once terminated, else the earliest of the
+     * retransmission and timeout timers. The timer is cancelled if there is no
+     * deadline.
+     */
+    protected final void scheduleTransactionTimer() {
+        synchronized (transactionTimerLock) {
+            SIPTimerWheel wheel = sipStack.getTimerWheel();
+            if (transactionTimer == null || wheel == null)
+                return;
+
+            long deadline = terminatedDeadline;
+            if (deadline == -1) {
+                long timeout = timeoutTimerDeadline;
+                long retransmission = retransmissionTimerDeadline;
+                if (timeout == -1)
+                    deadline = retransmission;
+                else if (retransmission == -1)
+                    deadline = timeout;
+                else
+                    deadline = Math.min(timeout, retransmission);
             }
-        } 
+
+            if (deadline == -1)
+                wheel.cancel(transactionTimer);
+            else
+                wheel.schedule(transactionTimer, deadline);
+        }
+    }
+
+    /**
+     * Cancels the timer of the state machine, which no longer fires.
+     */
+    protected final void cancelTransactionTimer() {
+        synchronized (transactionTimerLock) {
+            SIPTimerWheel wheel = sipStack.getTimerWheel();
+            if (transactionTimer != null && wheel != null)
+                wheel.cancel(transactionTimer);
+            transactionTimer = null;
+        }
     }
 
     /**
@@ -738,6 +814,25 @@ public abstract class SIPTransaction extends MessageChannel implements
         }
     }
 
+    /**
+     * Send a message which has already been encoded for this transaction's
+     * channel, so that retransmissions do not re-encode the message.
+     *
+     * @param messageToSend
+     *            Message to send (used for logging).
+     * @param encodedMessage
+     *            Bytes of the message as returned by encodeAsBytes.
+     */
+    protected void sendMessage(SIPMessage messageToSend, byte[] encodedMessage)
+            throws IOException {
+        try {
+            encapsulatedChannel.sendMessage(messageToSend, encodedMessage,
+                    this.peerInetAddress, this.peerPort);
+        } finally {
+            this.startTransactionTimer();
+        }
+    }
+
     /**
      * Parse the byte array as a message, process it through the transaction,
      * and send it to the SIP peer. This is just a placeholder method -- calling
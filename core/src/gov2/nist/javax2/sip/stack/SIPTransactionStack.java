@@ -128,6 +128,18 @@ public abstract class SIPTransactionStack implements SIPTransactionEventListener
 
     private Timer timer;
 
+    // Timer wheel of the transaction state machines.
+    private SIPTimerWheel timerWheel;
+
+    // Number of threads running the expired transaction timers.
+    protected int timerThreadCount = SIPTimerWheel.DEFAULT_THREAD_COUNT;
+
+    // Use the selector based TCP message processor.
+    protected boolean nioTcp;
+
+    // Number of threads processing the messages of the selector based TCP message processor.
+    protected int nioTcpThreadCount = NioTcpMessageProcessor.DEFAULT_THREAD_COUNT;
+
     // List of pending server transactions
     private ConcurrentHashMap<String, SIPServerTransaction> pendingTransactions;
 
@@ -477,6 +489,7 @@ public abstract class SIPTransactionStack implements SIPTransactionEventListener
         // Start the timer event thread.
 
         this.timer = new Timer();
+        this.timerWheel = new SIPTimerWheel(this.timerThreadCount);
         this.pendingTransactions = new ConcurrentHashMap<String, SIPServerTransaction>();
         
         
@@ -513,6 +526,7 @@ public abstract class SIPTransactionStack implements SIPTransactionEventListener
         this.forkedClientTransactionTable = new ConcurrentHashMap<String,SIPClientTransaction>();
 
         this.timer = new Timer();
+        this.timerWheel = new SIPTimerWheel(this.timerThreadCount);
 
         this.activeClientTransactionCount = new AtomicInteger(0);
 
@@ -1658,6 +1672,9 @@ public abstract class SIPTransactionStack implements SIPTransactionEventListener
 
         // JvB: set it to null, SIPDialog tries to schedule things after stop
         timer = null;
+        if (this.timerWheel != null)
+            this.timerWheel.stop();
+        timerWheel = null;
         this.pendingTransactions.clear();
         this.toExit = true;
         synchronized (this) {
@@ -1994,6 +2011,11 @@ public abstract class SIPTransactionStack implements SIPTransactionEventListener
             this.addMessageProcessor(udpMessageProcessor);
             this.udpFlag = true;
             return udpMessageProcessor;
+        } else if (transport.equalsIgnoreCase("tcp") && this.nioTcp) {
+            NioTcpMessageProcessor nioTcpMessageProcessor = new NioTcpMessageProcessor(ipAddress,
+                    this, port, this.nioTcpThreadCount);
+            this.addMessageProcessor(nioTcpMessageProcessor);
+            return nioTcpMessageProcessor;
         } else if (transport.equalsIgnoreCase("tcp")) {
             TCPMessageProcessor tcpMessageProcessor = new TCPMessageProcessor(ipAddress, this,
                     port);
@@ -2457,6 +2479,60 @@ public abstract class SIPTransactionStack implements SIPTransactionEventListener
         return timer;
     }
 
+    /**
+     * @return the timer wheel of the transaction state machines, null when the
+     *         stack is stopped.
+     */
+    SIPTimerWheel getTimerWheel() {
+        return timerWheel;
+    }
+
+    /**
+     * Set the number of threads running the expired transaction timers.
+     *
+     * @param threadCount the number of threads.
+     */
+    public void setTimerThreadCount(int threadCount) {
+        this.timerThreadCount = threadCount;
+        if (this.timerWheel != null)
+            this.timerWheel.setThreadCount(threadCount);
+    }
+
+    /**
+     * @return the number of transaction timers currently scheduled.
+     */
+    public int getScheduledTransactionTimerCount() {
+        SIPTimerWheel wheel = this.timerWheel;
+        return (wheel == null) ? 0 : wheel.getScheduledCount();
+    }
+
+    /**
+     * @return the number of transaction timers expired since the stack
+     *         started.
+     */
+    public long getExpiredTransactionTimerCount() {
+        SIPTimerWheel wheel = this.timerWheel;
+        return (wheel == null) ? 0 : wheel.getExpiredCount();
+    }
+
+    /**
+     * @return the average delay between the deadline and the run of the
+     *         expired transaction timers (ms).
+     */
+    public long getAverageTransactionTimerDrift() {
+        SIPTimerWheel wheel = this.timerWheel;
+        return (wheel == null) ? 0 : wheel.getAverageDrift();
+    }
+
+    /**
+     * @return the maximum delay between the deadline and the run of the
+     *         expired transaction timers (ms).
+     */
+    public long getMaxTransactionTimerDrift() {
+        SIPTimerWheel wheel = this.timerWheel;
+        return (wheel == null) ? 0 : wheel.getMaxDrift();
+    }
+
     
     /**
      * Size of the receive UDP buffer. This property affects performance under load. Bigger buffer
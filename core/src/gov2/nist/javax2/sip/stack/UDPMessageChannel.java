@@ -29,6 +29,7 @@
 
 package gov2.nist.javax2.sip.stack;
 
+import gov2.nist.core.GrowableByteBuffer;
 import gov2.nist.core.InternalErrorHandler;
 import gov2.nist.core.ServerLogger;
 import gov2.nist.core.StackLogger;
@@ -185,34 +186,6 @@ public class UDPMessageChannel extends MessageChannel implements
 
     }
 
-    /**
-     * Constructor. We create one of these in order to process an incoming
-     * message.
-     *
-     * @param stack
-     *            is the SIP sipStack.
-     * @param messageProcessor
-     *            is the creating message processor.
-     * @param packet
-     *            is the incoming datagram packet.
-     */
-    protected UDPMessageChannel(SIPTransactionStack stack,
-            UDPMessageProcessor messageProcessor, DatagramPacket packet) {
-
-        this.incomingPacket = packet;
-        super.messageProcessor = messageProcessor;
-        this.sipStack = stack;
-
-        this.myAddress = messageProcessor.getIpAddress().getHostAddress();
-        this.myPort = messageProcessor.getPort();
-        Thread mythread = new Thread(this);
-        mythread.setDaemon(true);
-        mythread.setName("UDPMessageChannelThread");
-
-        mythread.start();
-
-    }
-
     /**
      * Constructor. We create one of these when we send out a message.
      *
@@ -242,8 +215,11 @@ public class UDPMessageChannel extends MessageChannel implements
      * Run method specified by runnnable.
      */
     public void run() {
-        // Assume no thread pooling (bug fix by spierhj)
-        ThreadAuditor.ThreadHandle threadHandle = null;
+        UDPMessageProcessor udpMessageProcessor = (UDPMessageProcessor) messageProcessor;
+
+        // We're part of a thread pool. Ask the auditor to monitor this thread.
+        ThreadAuditor.ThreadHandle threadHandle = sipStack.getThreadAuditor()
+                .addCurrentThread();
 
         while (true) {
             // Create a new string message parser to parse the list of messages.
@@ -253,44 +229,25 @@ public class UDPMessageChannel extends MessageChannel implements
             }
             // messages that we write out to him.
             DatagramPacket packet;
-
-            if (sipStack.threadPoolSize != -1) {
-                synchronized (((UDPMessageProcessor) messageProcessor).messageQueue) {
-                    while (((UDPMessageProcessor) messageProcessor).messageQueue
-                            .isEmpty()) {
-                        // Check to see if we need to exit.
-                        if (!((UDPMessageProcessor) messageProcessor).isRunning)
-                            return;
-                        try {
-                            // We're part of a thread pool. Ask the auditor to
-                            // monitor this thread.
-                            if (threadHandle == null) {
-                                threadHandle = sipStack.getThreadAuditor()
-                                        .addCurrentThread();
-                            }
-
-                            // Send a heartbeat to the thread auditor
-                            threadHandle.ping();
-
-                            // Wait for packets
-                            // Note: getPingInterval returns 0 (infinite) if the
-                            // thread auditor is disabled.
-                            ((UDPMessageProcessor) messageProcessor).messageQueue
-                                    .wait(threadHandle
-                                            .getPingIntervalInMillisecs());
-                        } catch (InterruptedException ex) {
-                            if (!((UDPMessageProcessor) messageProcessor).isRunning)
-                                return;
-                        }
-                    }
-                    packet = (DatagramPacket) ((UDPMessageProcessor) messageProcessor).messageQueue
-                            .removeFirst();
-
-                }
-                this.incomingPacket = packet;
-            } else {
-                packet = this.incomingPacket;
+            try {
+                // Send a heartbeat to the thread auditor
+                threadHandle.ping();
+
+                // Wait for packets
+                // Note: getPingInterval returns 0 (infinite) if the
+                // thread auditor is disabled.
+                packet = udpMessageProcessor.packetRing.take(threadHandle
+                        .getPingIntervalInMillisecs());
+            } catch (InterruptedException ex) {
+                packet = null;
+            }
+            if (packet == null) {
+                // Check to see if we need to exit.
+                if (!udpMessageProcessor.isRunning)
+                    return;
+                continue;
             }
+            this.incomingPacket = packet;
 
             // Process the packet. Catch and log any exception we may throw.
             try {
@@ -300,10 +257,10 @@ public class UDPMessageChannel extends MessageChannel implements
                 if (sipStack.isLoggingEnabled())
                 	sipStack.getStackLogger().logError(
                         "Error while processing incoming UDP packet", e);
-            }
-
-            if (sipStack.threadPoolSize == -1) {
-                return;
+            } finally {
+                // The packet buffer may be reused for the next datagram
+                this.incomingPacket = null;
+                udpMessageProcessor.packetRing.recycle(packet);
             }
         }
     }
@@ -314,7 +271,7 @@ public class UDPMessageChannel extends MessageChannel implements
      * @param packet
      *            is the incoming datagram packet.
      */
-    private void processIncomingDataPacket(DatagramPacket packet)
+    void processIncomingDataPacket(DatagramPacket packet)
             throws Exception {
         this.peerAddress = packet.getAddress();
         int packetLength = packet.getLength();
@@ -650,10 +607,18 @@ public class UDPMessageChannel extends MessageChannel implements
                 }
             }
 
-            byte[] msg = sipMessage.encodeAsBytes( this.getTransport() );
+            if (peerProtocol.compareToIgnoreCase("UDP") == 0) {
+                // The datagram is sent straight from the encoding buffer of the thread
+                GrowableByteBuffer buffer = SIPMessage.getEncodingBuffer();
+                sipMessage.encodeAsBytes(this.getTransport(), buffer);
+                sendMessage(buffer.getByteBuffer().array(), buffer.length(), peerAddress,
+                        peerPort, peerProtocol, sipMessage instanceof SIPRequest);
+            } else {
+                byte[] msg = sipMessage.encodeAsBytes( this.getTransport() );
 
-            sendMessage(msg, peerAddress, peerPort, peerProtocol,
-                    sipMessage instanceof SIPRequest);
+                sendMessage(msg, peerAddress, peerPort, peerProtocol,
+                        sipMessage instanceof SIPRequest);
+            }
 
         } catch (IOException ex) {
             throw ex;
@@ -751,6 +716,28 @@ public class UDPMessageChannel extends MessageChannel implements
     protected void sendMessage(byte[] msg, InetAddress peerAddress,
             int peerPort, String peerProtocol, boolean retry)
             throws IOException {
+        sendMessage(msg, msg.length, peerAddress, peerPort, peerProtocol, retry);
+    }
+
+    /**
+     * Send the beginning of an array to a specified receiver address.
+     *
+     * @param msg
+     *            array containing the message to send.
+     * @param length
+     *            length of the message.
+     * @param peerAddress
+     *            Address of the place to send it to.
+     * @param peerPort
+     *            the port to send it to.
+     * @param peerProtocol
+     *            protocol to use to send.
+     * @throws IOException
+     *             If there is trouble sending this message.
+     */
+    private void sendMessage(byte[] msg, int length, InetAddress peerAddress,
+            int peerPort, String peerProtocol, boolean retry)
+            throws IOException {
         // Via is not included in the request so silently drop the reply.
         if (peerPort == -1) {
             if (sipStack.isLoggingEnabled()) {
@@ -761,11 +748,11 @@ public class UDPMessageChannel extends MessageChannel implements
         } else {
             if (sipStack.isLoggingEnabled()) {
                 this.sipStack.getStackLogger().logDebug( ":sendMessage " + peerAddress.getHostAddress() + "/"
-                        + peerPort + "\n" + " messageSize = " + msg.length);
+                        + peerPort + "\n" + " messageSize = " + length);
             }
         }
         if (peerProtocol.compareToIgnoreCase("UDP") == 0) {
-            DatagramPacket reply = new DatagramPacket(msg, msg.length,
+            DatagramPacket reply = new DatagramPacket(msg, length,
                     peerAddress, peerPort);
 
             try {
@@ -780,7 +767,7 @@ public class UDPMessageChannel extends MessageChannel implements
                 if (sipStack.isLoggingEnabled()) {
                     this.sipStack.getStackLogger().logDebug("sendMessage "
                             + peerAddress.getHostAddress() + "/" + peerPort
-                            + "\n" + new String(msg));
+                            + "\n" + new String(msg, 0, length));
                 }
                 sock.send(reply);
                 if (!sipStack.udpFlag)
@@ -797,7 +784,7 @@ public class UDPMessageChannel extends MessageChannel implements
                     this.messageProcessor.getIpAddress(), peerAddress,
                     peerPort, "tcp", msg, retry,this);
             OutputStream myOutputStream = outputSocket.getOutputStream();
-            myOutputStream.write(msg, 0, msg.length);
+            myOutputStream.write(msg, 0, length);
             myOutputStream.flush();
             // The socket is cached (dont close it!);
         }
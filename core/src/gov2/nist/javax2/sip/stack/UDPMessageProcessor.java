@@ -35,9 +35,9 @@ import java.net.*;
 import gov2.nist.core.*;
 
 /**
- * Sit in a loop and handle incoming udp datagram messages. For each Datagram
- * packet, a new UDPMessageChannel is created (upto the max thread pool size).
- * Each UDP message is processed in its own thread).
+ * Sit in a loop and handle incoming udp datagram messages. Each Datagram
+ * packet is received in a recycled buffer and queued in a bounded ring buffer
+ * drained by a fixed pool of UDPMessageChannel threads (the thread pool size).
  *
  * @version 1.2 $Revision: 1.37 $ $Date: 2009/11/14 20:06:16 $
  *
@@ -64,7 +64,7 @@ public class UDPMessageProcessor extends MessageProcessor {
     /**
      * Incoming messages are queued here.
      */
-    protected LinkedList messageQueue;
+    protected UDPPacketRing packetRing;
 
     /**
      * A list of message channels that we have started.
@@ -88,6 +88,21 @@ public class UDPMessageProcessor extends MessageProcessor {
     
     private static final int LOWAT=2500;
 
+    /**
+     * Number of message channels when the thread pool size is not limited.
+     */
+    private static final int DEFAULT_THREAD_POOL_SIZE = 4;
+
+    /**
+     * Max size of a UDP datagram.
+     */
+    private static final int MAX_DATAGRAM_SIZE = 65535;
+
+    /**
+     * Number of free packet buffers kept in addition to one per channel.
+     */
+    private static final int SPARE_BUFFERS = 8;
+
     /**
      * Constructor.
      *
@@ -100,8 +115,6 @@ public class UDPMessageProcessor extends MessageProcessor {
 
         this.sipStack = sipStack;
 
-        this.messageQueue = new LinkedList();
-
         this.port = port;
         try {
             this.sock = sipStack.getNetworkLayer().createDatagramSocket(port,
@@ -129,6 +142,14 @@ public class UDPMessageProcessor extends MessageProcessor {
         } catch (SocketException ex) {
             throw new IOException(ex.getMessage());
         }
+
+        // Pool size: the stack may not limit the number of threads, but the
+        // channels are not created per message anymore.
+        this.threadPoolSize = sipStack.threadPoolSize > 0 ? sipStack.threadPoolSize
+                : DEFAULT_THREAD_POOL_SIZE;
+        int bufsize = Math.min(sock.getReceiveBufferSize(), MAX_DATAGRAM_SIZE);
+        this.packetRing = new UDPPacketRing(HIGHWAT, bufsize, threadPoolSize
+                + SPARE_BUFFERS);
     }
 
 
@@ -164,85 +185,43 @@ public class UDPMessageProcessor extends MessageProcessor {
     public void run() {
         // Check for running flag.
         this.messageChannels = new LinkedList();
-        // start all our messageChannels (unless the thread pool size is
-        // infinity.
-        if (sipStack.threadPoolSize != -1) {
-            for (int i = 0; i < sipStack.threadPoolSize; i++) {
-                UDPMessageChannel channel = new UDPMessageChannel(sipStack,
-                        this);
-                this.messageChannels.add(channel);
-
-            }
+        // start all our messageChannels.
+        for (int i = 0; i < threadPoolSize; i++) {
+            UDPMessageChannel channel = new UDPMessageChannel(sipStack, this);
+            this.messageChannels.add(channel);
         }
 
         // Ask the auditor to monitor this thread
         ThreadAuditor.ThreadHandle threadHandle = sipStack.getThreadAuditor().addCurrentThread();
 
         // Somebody asked us to exit. if isRunnning is set to false.
+        DatagramPacket packet = null;
         while (this.isRunning) {
 
             try {
                 // Let the thread auditor know we're up and running
                 threadHandle.ping();
 
-                int bufsize = sock.getReceiveBufferSize();
-                byte message[] = new byte[bufsize];
-                DatagramPacket packet = new DatagramPacket(message, bufsize);
+                if (packet == null) {
+                    packet = packetRing.allocate();
+                }
                 sock.receive(packet);
 
-           
-             
-             // This is a simplistic congestion control algorithm.
-             // It accepts packets if queuesize is < LOWAT. It drops
-             // requests if the queue size exceeds a HIGHWAT and accepts
-             // requests with probability p proportional to the difference
-             // between current queue size and LOWAT in the range
-             // of queue sizes between HIGHWAT and LOWAT.
-             // TODO -- penalize spammers by looking at the source
-             // port and IP address.
-             if ( sipStack.stackDoesCongestionControl ) {  
-             if ( this.messageQueue.size() >= HIGHWAT) {
-                    if (sipStack.isLoggingEnabled()) {
-                        sipStack.getStackLogger().logDebug("Dropping message -- queue length exceeded");
-
-                    }
-                    //System.out.println("HIGHWAT Drop!");
+                if (sipStack.stackDoesCongestionControl
+                        && isCongested(packetRing.size())) {
+                    // Drop the message: the packet is reused for the next one
+                    packet.setLength(packet.getData().length);
                     continue;
-                } else if ( this.messageQueue.size() > LOWAT && this .messageQueue.size() < HIGHWAT ) {
-                    // Drop the message with a probabilty that is linear in the range 0 to 1
-                    float threshold = ((float)(messageQueue.size() - LOWAT))/ ((float)(HIGHWAT - LOWAT));
-                    boolean decision = Math.random() > 1.0 - threshold;
-                    if ( decision ) {
-                        if (sipStack.isLoggingEnabled()) {
-                            sipStack.getStackLogger().logDebug("Dropping message with probability  " + (1.0 - threshold));
-
-                        }
-                        //System.out.println("RED Drop!");
-                        continue;
-                    }
-
                 }
-             }
-                
-                
-                
-                // Count of # of packets in process.
-                // this.useCount++;
-                if (sipStack.threadPoolSize != -1) {
-                    // Note: the only condition watched for by threads
-                    // synchronizing on the messageQueue member is that it is
-                    // not empty. As soon as you introduce some other
-                    // condition you will have to call notifyAll instead of
-                    // notify below.
-
-                    synchronized (this.messageQueue) {
-                        // was addLast
-                        this.messageQueue.add(packet);
-                        this.messageQueue.notify();
+
+                if (!packetRing.offer(packet)) {
+                    if (sipStack.isLoggingEnabled()) {
+                        sipStack.getStackLogger().logDebug("Dropping message -- queue full");
                     }
-                } else {
-                    new UDPMessageChannel(sipStack, this, packet);
+                    packet.setLength(packet.getData().length);
+                    continue;
                 }
+                packet = null;
             } catch (SocketTimeoutException ex) {
               // This socket timeout alows us to ping the thread auditor periodically
             } catch (SocketException ex) {
@@ -250,11 +229,7 @@ public class UDPMessageProcessor extends MessageProcessor {
                     getSIPStack().getStackLogger()
                             .logDebug("UDPMessageProcessor: Stopping");
                 isRunning = false;
-                // The notifyAll should be in a synchronized block.
-                // ( bug report by Niklas Uhrberg ).
-                synchronized (this.messageQueue) {
-                    this.messageQueue.notifyAll();
-                }
+                packetRing.wakeUp(threadPoolSize);
             } catch (IOException ex) {
                 isRunning = false;
                 ex.printStackTrace();
@@ -271,18 +246,47 @@ public class UDPMessageProcessor extends MessageProcessor {
         }
     }
 
+    /**
+     * Congestion control policy.
+     *
+     * This is a simplistic congestion control algorithm. It accepts packets if
+     * the queue size is < LOWAT. It drops requests if the queue size exceeds
+     * HIGHWAT and accepts requests with probability p proportional to the
+     * difference between current queue size and LOWAT in the range of queue
+     * sizes between HIGHWAT and LOWAT.
+     * TODO -- penalize spammers by looking at the source port and IP address.
+     *
+     * @param queueSize -- number of queued packets.
+     * @return true if the received packet must be dropped.
+     */
+    protected boolean isCongested(int queueSize) {
+        if (queueSize >= HIGHWAT) {
+            if (sipStack.isLoggingEnabled()) {
+                sipStack.getStackLogger().logDebug("Dropping message -- queue length exceeded");
+            }
+            return true;
+        } else if (queueSize > LOWAT) {
+            // Drop the message with a probabilty that is linear in the range 0 to 1
+            float threshold = ((float)(queueSize - LOWAT))/ ((float)(HIGHWAT - LOWAT));
+            boolean decision = Math.random() > 1.0 - threshold;
+            if (decision) {
+                if (sipStack.isLoggingEnabled()) {
+                    sipStack.getStackLogger().logDebug("Dropping message with probability  " + (1.0 - threshold));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Shut down the message processor. Close the socket for recieving incoming
      * messages.
      */
     public void stop() {
-        synchronized (this.messageQueue) {
-            this.isRunning = false;
-            this.messageQueue.notifyAll();
-            sock.close();
-
-
-        }
+        this.isRunning = false;
+        packetRing.wakeUp(threadPoolSize);
+        sock.close();
     }
 
     /**
@@ -342,9 +346,7 @@ public class UDPMessageProcessor extends MessageProcessor {
      * Return true if there are any messages in use.
      */
     public boolean inUse() {
-        synchronized (messageQueue) {
-            return messageQueue.size() != 0;
-        }
+        return packetRing.size() != 0;
     }
 
 }
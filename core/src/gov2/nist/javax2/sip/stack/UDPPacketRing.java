@@ -0,0 +1,251 @@
+/*
+* Conditions Of Use
+*
+* This software was developed by employees of the National Institute of
+* Standards and Technology (NIST), an agency of the Federal Government.
+* Pursuant to title 15 Untied States Code Section 105, works of NIST
+* employees are not subject to copyright protection in the United States
+* and are considered to be in the public domain.  As a result, a formal
+* license is not needed to use the software.
+*
+* This software is provided by NIST as a service and is expressly
+* provided "AS IS."  NIST MAKES NO WARRANTY OF ANY KIND, EXPRESS, IMPLIED
+* OR STATUTORY, INCLUDING, WITHOUT LIMITATION, THE IMPLIED WARRANTY OF
+* MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, NON-INFRINGEMENT
+* AND DATA ACCURACY.  NIST does not warrant or make any representations
+* regarding the use of the software or the results thereof, including but
+* not limited to the correctness, accuracy, reliability or usefulness of
+* the software.
+*
+* Permission to use this software is contingent upon your acceptance
+* of the terms of this agreement
+*
+* .
+*
+*/
+/*******************************************************************************
+ *   Product of NIST/ITL Advanced Networking Technologies Division (ANTD).     *
+ *******************************************************************************/
+package gov2.nist.javax2.sip.stack;
+
+import java.net.DatagramPacket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer of received datagram packets, filled by the
+ * UDP message processor thread and drained by the pool of UDP message
+ * channels. The packets and their buffers are recycled through a bounded
+ * free list so that no allocation is done per datagram in steady state.
+ *
+ * The ring follows the bounded MPMC queue design of D. Vyukov: each slot
+ * carries a sequence number telling whether it may be written or read for
+ * the current lap, so producers and consumers only contend on a CAS of the
+ * tail or head counter. A semaphore counts the queued packets to let idle
+ * consumers block.
+ *
+ * @version 1.2
+ */
+class UDPPacketRing {
+    /**
+     * Slots of the ring.
+     */
+    private final DatagramPacket[] slots;
+
+    /**
+     * Sequence number of each slot.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * Capacity - 1 (the capacity is a power of two).
+     */
+    private final int mask;
+
+    /**
+     * Next slot to write.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next slot to read.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Number of packets available to the consumers.
+     */
+    private final Semaphore available = new Semaphore(0);
+
+    /**
+     * Free packets ready to be reused for a receive.
+     */
+    private final ConcurrentLinkedQueue<DatagramPacket> freePackets = new ConcurrentLinkedQueue<DatagramPacket>();
+
+    /**
+     * Number of free packets.
+     */
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    /**
+     * Max number of free packets kept for reuse.
+     */
+    private final int maxFreePackets;
+
+    /**
+     * Size of the packet buffers.
+     */
+    private final int bufferSize;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity -- minimum number of packets that may be queued, rounded
+     *            up to a power of two.
+     * @param bufferSize -- size of the packet buffers.
+     * @param maxFreePackets -- max number of free packets kept for reuse.
+     */
+    UDPPacketRing(int capacity, int bufferSize, int maxFreePackets) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new DatagramPacket[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.bufferSize = bufferSize;
+        this.maxFreePackets = maxFreePackets;
+
+        // Pre-allocate the packets
+        for (int i = 0; i < maxFreePackets; i++) {
+            recycle(new DatagramPacket(new byte[bufferSize], bufferSize));
+        }
+    }
+
+    /**
+     * Get a packet to receive a datagram: a free packet if there is one, else
+     * a new packet.
+     *
+     * @return a packet whose length is the size of its buffer.
+     */
+    DatagramPacket allocate() {
+        DatagramPacket packet = freePackets.poll();
+        if (packet == null) {
+            return new DatagramPacket(new byte[bufferSize], bufferSize);
+        }
+        freeCount.decrementAndGet();
+        packet.setLength(bufferSize);
+        return packet;
+    }
+
+    /**
+     * Give back a packet which is no more used. The packet is kept for reuse
+     * unless there are already enough free packets.
+     *
+     * @param packet -- the packet.
+     */
+    void recycle(DatagramPacket packet) {
+        if (freeCount.incrementAndGet() <= maxFreePackets) {
+            freePackets.offer(packet);
+        } else {
+            freeCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Queue a received packet.
+     *
+     * @param packet -- the packet.
+     * @return false if the ring is full.
+     */
+    boolean offer(DatagramPacket packet) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    slots[index] = packet;
+                    // The volatile write publishes the slot to the consumers
+                    sequences.set(index, pos + 1);
+                    available.release();
+                    return true;
+                }
+            } else if (diff < 0) {
+                // The slot of the previous lap has not been read yet: full
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Take a queued packet, waiting for one if the ring is empty.
+     *
+     * @param timeout -- max time to wait in milliseconds, 0 to wait until a
+     *            packet is queued or the consumer is woken up.
+     * @return the packet or null if none was queued before the timeout or the
+     *         wake up.
+     * @throws InterruptedException
+     */
+    DatagramPacket take(long timeout) throws InterruptedException {
+        if (timeout > 0) {
+            if (!available.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } else {
+            available.acquire();
+        }
+        return poll();
+    }
+
+    /**
+     * Remove the oldest queued packet.
+     *
+     * @return the packet or null if the ring is empty.
+     */
+    private DatagramPacket poll() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    DatagramPacket packet = slots[index];
+                    slots[index] = null;
+                    // Free the slot for the next lap
+                    sequences.set(index, pos + mask + 1);
+                    return packet;
+                }
+            } else if (diff < 0) {
+                // Empty (only after a wake up)
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Wake up the waiting consumers, e.g. when the processor is stopped.
+     *
+     * @param count -- number of consumers.
+     */
+    void wakeUp(int count) {
+        available.release(count);
+    }
+
+    /**
+     * Get the number of queued packets.
+     *
+     * @return the number of packets.
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) size;
+    }
+}
@@ -0,0 +1,159 @@
+package com.orangelabs.rcs.core.ims.network;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Lookup;
+import org.xbill.DNS.NAPTRRecord;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.SRVRecord;
+
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+
+import com.orangelabs.rcs.core.access.NetworkAccess;
+import com.orangelabs.rcs.core.ims.network.ImsNetworkInterface.DnsResolvedFields;
+import com.orangelabs.rcs.core.ims.network.dns.DnsCache;
+import com.orangelabs.rcs.core.ims.network.dns.DnsResolver;
+import com.orangelabs.rcs.core.ims.network.dns.StubDnsServer;
+import com.orangelabs.rcs.platform.AndroidFactory;
+import com.orangelabs.rcs.provider.settings.RcsSettings;
+import com.orangelabs.rcs.provider.settings.RcsSettingsData;
+
+/**
+ * IMS proxy resolution tests: NAPTR, SRV and A resolution chain of the IMS
+ * network interface against a stub DNS server on the loopback, and reuse of
+ * the cached resolution
+ */
+public class ImsProxyResolutionTest extends AndroidTestCase {
+	private static final String HOST = "pcscf.ims.mnc001.mcc208.3gppnetwork.org";
+
+	private static final String PROTOCOL = "UDP";
+
+	private static final int PROXY_PORT = 5060;
+
+	private static final String LOCAL_ADDRESS = "192.168.1.10";
+
+	private StubDnsServer server;
+
+	private DnsResolver resolver;
+
+	private ImsNetworkInterface networkInterface;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		AndroidFactory.setApplicationContext(mContext);
+		RcsSettings.createInstance(mContext);
+		DnsCache.remove(HOST, PROTOCOL);
+		Lookup.getDefaultCache(DClass.IN).clearCache();
+
+		server = new StubDnsServer();
+		server.start();
+		resolver = new DnsResolver(new InetSocketAddress[] { server.getAddress() });
+		resolver.setTimeout(2);
+
+		NetworkAccess access = new NetworkAccess() {
+			public String getType() {
+				return "test";
+			}
+
+			public String getNetworkName() {
+				return "test";
+			}
+
+			public void connect(String ipAddress) {
+				this.ipAddress = ipAddress;
+			}
+
+			public void disconnect() {
+				this.ipAddress = null;
+			}
+		};
+		access.connect(LOCAL_ADDRESS);
+		networkInterface = new ImsNetworkInterface(null, ConnectivityManager.TYPE_WIFI, access,
+				HOST, PROXY_PORT, PROTOCOL, RcsSettingsData.DIGEST_AUTHENT) {
+			protected DnsResolver getDnsResolver() {
+				return resolver;
+			}
+		};
+	}
+
+	protected void tearDown() throws Exception {
+		resolver.close();
+		server.close();
+		DnsCache.remove(HOST, PROTOCOL);
+
+		super.tearDown();
+	}
+
+	public void testNaptrSrvAndAddress() throws Exception {
+		// The NAPTR of another transport and the SRV of lower priority are ignored
+		server.addRecord(new NAPTRRecord(name(HOST), DClass.IN, 600, 10, 10, "s", "SIP+D2T", "",
+				name("_sip._tcp." + HOST)));
+		server.addRecord(new NAPTRRecord(name(HOST), DClass.IN, 600, 20, 10, "s", "SIP+D2U", "",
+				name("_sip._udp." + HOST)));
+		server.addRecord(new SRVRecord(name("_sip._tcp." + HOST), DClass.IN, 300, 10, 10, 5090,
+				name("pcscf0." + HOST)));
+		server.addRecord(new SRVRecord(name("_sip._udp." + HOST), DClass.IN, 300, 20, 10, 5080,
+				name("pcscf2." + HOST)));
+		server.addRecord(new SRVRecord(name("_sip._udp." + HOST), DClass.IN, 300, 10, 10, 5070,
+				name("pcscf1." + HOST)));
+		addAddress("pcscf0." + HOST, "10.10.1.30", 120);
+		addAddress("pcscf1." + HOST, "10.10.1.31", 120);
+		addAddress("pcscf2." + HOST, "10.10.1.32", 120);
+
+		DnsResolvedFields fields = networkInterface.getDnsResolvedFields();
+		assertEquals("10.10.1.31", fields.ipAddress);
+		assertEquals(5070, fields.port);
+
+		// The resolution is cached with the smallest TTL of the chain
+		assertEquals(120, fields.ttl);
+		DnsCache.Entry entry = DnsCache.get(HOST, PROTOCOL);
+		assertNotNull(entry);
+		assertEquals("10.10.1.31", entry.getAddress());
+		assertEquals(5070, entry.getPort());
+	}
+
+	public void testSrvWithoutNaptr() throws Exception {
+		server.addRecord(new SRVRecord(name("_sip._udp." + HOST), DClass.IN, 300, 10, 10, 5070,
+				name("pcscf1." + HOST)));
+		addAddress("pcscf1." + HOST, "10.10.1.31", 3600);
+
+		DnsResolvedFields fields = networkInterface.getDnsResolvedFields();
+		assertEquals("10.10.1.31", fields.ipAddress);
+		assertEquals(5070, fields.port);
+		assertEquals(300, fields.ttl);
+	}
+
+	public void testAddressWithoutNaptrNorSrv() throws Exception {
+		addAddress(HOST, "10.10.1.30", 60);
+
+		DnsResolvedFields fields = networkInterface.getDnsResolvedFields();
+		assertEquals("10.10.1.30", fields.ipAddress);
+		assertEquals(PROXY_PORT, fields.port);
+		assertEquals(60, fields.ttl);
+	}
+
+	public void testCachedResolution() throws Exception {
+		addAddress(HOST, "10.10.1.30", 3600);
+		networkInterface.getDnsResolvedFields();
+		int queries = server.getQueryCount();
+
+		// The cached resolution is used without any query
+		DnsResolvedFields fields = networkInterface.getDnsResolvedFields();
+		assertEquals("10.10.1.30", fields.ipAddress);
+		assertEquals(PROXY_PORT, fields.port);
+		assertEquals(queries, server.getQueryCount());
+	}
+
+	private void addAddress(String host, String address, long ttl) throws Exception {
+		server.addRecord(new ARecord(name(host), DClass.IN, ttl, InetAddress.getByName(address)));
+	}
+
+	private static Name name(String host) throws Exception {
+		return Name.fromString(host, Name.root);
+	}
+}
@@ -0,0 +1,64 @@
+package com.orangelabs.rcs.core.ims.network.dns;
+
+import android.test.AndroidTestCase;
+
+import com.orangelabs.rcs.platform.AndroidFactory;
+
+/**
+ * DNS cache tests: expiry with the TTL, invalidation and key of the cached
+ * IMS proxy resolution
+ */
+public class DnsCacheTest extends AndroidTestCase {
+	private static final String HOST = "pcscf.ims.mnc001.mcc208.3gppnetwork.org";
+
+	private static final String PROTOCOL = "UDP";
+
+	private static final String ADDRESS = "10.10.1.30";
+
+	private static final int PORT = 5060;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		AndroidFactory.setApplicationContext(mContext);
+		DnsCache.remove(HOST, PROTOCOL);
+	}
+
+	protected void tearDown() throws Exception {
+		DnsCache.remove(HOST, PROTOCOL);
+
+		super.tearDown();
+	}
+
+	public void testPutAndGet() {
+		DnsCache.put(HOST, PROTOCOL, ADDRESS, PORT, 3600);
+
+		DnsCache.Entry entry = DnsCache.get(HOST, PROTOCOL);
+		assertNotNull(entry);
+		assertEquals(ADDRESS, entry.getAddress());
+		assertEquals(PORT, entry.getPort());
+
+		// The key ignores the case of the host and protocol
+		assertNotNull(DnsCache.get(HOST.toUpperCase(), PROTOCOL.toLowerCase()));
+		assertNull(DnsCache.get(HOST, "TCP"));
+	}
+
+	public void testExpiry() throws Exception {
+		DnsCache.put(HOST, PROTOCOL, ADDRESS, PORT, 1);
+		assertNotNull(DnsCache.get(HOST, PROTOCOL));
+
+		Thread.sleep(1100);
+		assertNull(DnsCache.get(HOST, PROTOCOL));
+	}
+
+	public void testNotCachedWithoutTtl() {
+		DnsCache.put(HOST, PROTOCOL, ADDRESS, PORT, 0);
+		assertNull(DnsCache.get(HOST, PROTOCOL));
+	}
+
+	public void testRemove() {
+		DnsCache.put(HOST, PROTOCOL, ADDRESS, PORT, 3600);
+		DnsCache.remove(HOST, PROTOCOL);
+		assertNull(DnsCache.get(HOST, PROTOCOL));
+	}
+}
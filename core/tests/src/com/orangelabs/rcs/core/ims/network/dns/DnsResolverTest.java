@@ -0,0 +1,236 @@
+package com.orangelabs.rcs.core.ims.network.dns;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Vector;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Name;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.ResolverListener;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+import junit.framework.TestCase;
+
+/**
+ * DNS resolver tests against a stub DNS server on the loopback: address
+ * family of the resolved IMS proxy address, rejection of the spoofed
+ * responses, retransmission, timeout, channel rotation and close
+ */
+public class DnsResolverTest extends TestCase {
+	private static final String HOST = "pcscf.ims.mnc001.mcc208.3gppnetwork.org";
+
+	private static final String IPV4_ADDRESS = "10.10.1.30";
+
+	private static final String IPV6_ADDRESS = "2001:db8::30";
+
+	private static final String FORGED_ADDRESS = "10.66.66.66";
+
+	/**
+	 * Delay of the late response (in milliseconds), longer than the
+	 * resolution delay of the resolver
+	 */
+	private static final long LATE_RESPONSE = 300;
+
+	private StubDnsServer server;
+
+	private DnsResolver resolver;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		server = new StubDnsServer();
+		server.start();
+		resolver = new DnsResolver(new InetSocketAddress[] { server.getAddress() });
+		resolver.setTimeout(2);
+	}
+
+	protected void tearDown() throws Exception {
+		resolver.close();
+		server.close();
+
+		super.tearDown();
+	}
+
+	public void testIpv4AccessIgnoresIpv6Address() throws Exception {
+		// The AAAA response would arrive first
+		server.setResponse(Type.A, IPV4_ADDRESS, LATE_RESPONSE);
+		server.setResponse(Type.AAAA, IPV6_ADDRESS, 0);
+
+		Record record = resolver.lookupAddress(HOST, false, false);
+		assertTrue(record instanceof ARecord);
+		assertEquals(IPV4_ADDRESS, DnsResolver.getAddress(record));
+		assertFalse(server.isQueried(Type.AAAA));
+	}
+
+	public void testIpv6AccessIgnoresIpv4Address() throws Exception {
+		// The A response would arrive first
+		server.setResponse(Type.A, IPV4_ADDRESS, 0);
+		server.setResponse(Type.AAAA, IPV6_ADDRESS, LATE_RESPONSE);
+
+		Record record = resolver.lookupAddress(HOST, true, false);
+		assertTrue(record instanceof AAAARecord);
+		assertEquals(InetAddress.getByName(IPV6_ADDRESS), ((AAAARecord)record).getAddress());
+		assertFalse(server.isQueried(Type.A));
+	}
+
+	public void testIpv4AccessWithoutIpv4Address() throws Exception {
+		server.setResponse(Type.A, null, 0);
+		server.setResponse(Type.AAAA, IPV6_ADDRESS, 0);
+
+		assertNull(resolver.lookupAddress(HOST, false, false));
+	}
+
+	public void testBothFamiliesPreferredFirst() throws Exception {
+		// The preferred address arrives within the resolution delay
+		server.setResponse(Type.A, IPV4_ADDRESS, 10);
+		server.setResponse(Type.AAAA, IPV6_ADDRESS, 0);
+
+		Record record = resolver.lookupAddress(HOST, false, true);
+		assertTrue(record instanceof ARecord);
+		assertTrue(server.isQueried(Type.AAAA));
+	}
+
+	public void testBothFamiliesOtherFirst() throws Exception {
+		// The preferred address arrives after the resolution delay
+		server.setResponse(Type.A, IPV4_ADDRESS, LATE_RESPONSE);
+		server.setResponse(Type.AAAA, IPV6_ADDRESS, 0);
+
+		Record record = resolver.lookupAddress(HOST, false, true);
+		assertTrue(record instanceof AAAARecord);
+	}
+
+	public void testResponseFromOtherSourceIgnored() throws Exception {
+		// A response with the query ID arrives first from another port
+		server.setResponse(Type.A, IPV4_ADDRESS, LATE_RESPONSE);
+		server.setForgedResponse(FORGED_ADDRESS, true);
+
+		Record record = resolver.lookupAddress(HOST, false, false);
+		assertEquals(IPV4_ADDRESS, DnsResolver.getAddress(record));
+	}
+
+	public void testResponseWithOtherIdIgnored() throws Exception {
+		// A response with another ID arrives first from the server
+		server.setResponse(Type.A, IPV4_ADDRESS, LATE_RESPONSE);
+		server.setForgedResponse(FORGED_ADDRESS, false);
+
+		Record record = resolver.lookupAddress(HOST, false, false);
+		assertEquals(IPV4_ADDRESS, DnsResolver.getAddress(record));
+	}
+
+	public void testRetransmissionToNextServer() throws Exception {
+		StubDnsServer silentServer = new StubDnsServer();
+		silentServer.setSilent(true);
+		silentServer.start();
+		DnsResolver twoServers = new DnsResolver(new InetSocketAddress[] {
+				silentServer.getAddress(), server.getAddress() });
+		twoServers.setTimeout(3);
+		try {
+			server.setResponse(Type.A, IPV4_ADDRESS, 0);
+
+			// The query is sent to the first server, then retransmitted to the second one
+			Record record = twoServers.lookupAddress(HOST, false, false);
+			assertEquals(IPV4_ADDRESS, DnsResolver.getAddress(record));
+			assertTrue(silentServer.isQueried(Type.A));
+			assertTrue(server.isQueried(Type.A));
+		} finally {
+			twoServers.close();
+			silentServer.close();
+		}
+	}
+
+	public void testTimeout() throws Exception {
+		server.setSilent(true);
+
+		try {
+			resolver.send(newQuery(HOST));
+			fail("No timeout");
+		} catch(SocketTimeoutException e) {
+			// The query has been retransmitted before timing out
+			assertTrue(server.getQueryCount() >= 2);
+		}
+		assertNull(resolver.lookupAddress(HOST, false, false));
+	}
+
+	public void testChannelRotation() throws Exception {
+		server.setResponse(Type.A, IPV4_ADDRESS, 0);
+
+		for (int i = 0; i <= DnsResolver.MAX_CHANNEL_QUERIES; i++) {
+			Message response = resolver.send(newQuery(HOST));
+			assertEquals(1, response.getSectionArray(Section.ANSWER).length);
+		}
+
+		// The queries are sent from a same port until the channel is replaced
+		Vector<Integer> ports = server.getSourcePorts();
+		assertEquals(DnsResolver.MAX_CHANNEL_QUERIES + 1, ports.size());
+		for (int i = 1; i < DnsResolver.MAX_CHANNEL_QUERIES; i++) {
+			assertEquals(ports.elementAt(0), ports.elementAt(i));
+		}
+		assertFalse(ports.elementAt(0).equals(ports.elementAt(DnsResolver.MAX_CHANNEL_QUERIES)));
+	}
+
+	public void testCloseFailsPendingQueries() throws Exception {
+		server.setSilent(true);
+		resolver.setTimeout(10);
+		int threads = countResolverThreads();
+		QueryListener listener = new QueryListener();
+		resolver.sendAsync(newQuery(HOST), listener);
+
+		resolver.close();
+		assertTrue(listener.waitError(1000) instanceof IOException);
+
+		// No more query is sent once closed
+		listener = new QueryListener();
+		resolver.sendAsync(newQuery(HOST), listener);
+		assertTrue(listener.waitError(1000) instanceof IOException);
+
+		// The resolver thread is stopped
+		long endTime = System.currentTimeMillis() + 1000;
+		while ((countResolverThreads() > threads) && (System.currentTimeMillis() < endTime)) {
+			Thread.sleep(10);
+		}
+		assertTrue(countResolverThreads() <= threads);
+	}
+
+	private static Message newQuery(String host) throws Exception {
+		return Message.newQuery(Record.newRecord(Name.fromString(host, Name.root), Type.A, DClass.IN));
+	}
+
+	private static int countResolverThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("DnsResolver") && thread.isAlive()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Listener of an asynchronous query
+	 */
+	private static class QueryListener implements ResolverListener {
+		private Exception error = null;
+
+		public synchronized void receiveMessage(Object id, Message m) {
+		}
+
+		public synchronized void handleException(Object id, Exception e) {
+			error = e;
+			notifyAll();
+		}
+
+		public synchronized Exception waitError(long timeout) throws InterruptedException {
+			if (error == null) {
+				wait(timeout);
+			}
+			return error;
+		}
+	}
+}
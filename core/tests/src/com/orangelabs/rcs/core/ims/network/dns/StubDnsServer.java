@@ -0,0 +1,189 @@
+package com.orangelabs.rcs.core.ims.network.dns;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Vector;
+
+import org.xbill.DNS.AAAARecord;
+import org.xbill.DNS.ARecord;
+import org.xbill.DNS.DClass;
+import org.xbill.DNS.Flags;
+import org.xbill.DNS.Message;
+import org.xbill.DNS.Record;
+import org.xbill.DNS.Section;
+import org.xbill.DNS.Type;
+
+/**
+ * Stub DNS server on the loopback answering the queries with the records of
+ * their name, or with a given address for the A and AAAA queries of any name.
+ * It may stay silent, and may send a forged response before the genuine one.
+ */
+public class StubDnsServer extends Thread {
+	private DatagramSocket socket;
+
+	private DatagramSocket forgerSocket;
+
+	private String[] addresses = new String[Type.AAAA + 1];
+
+	private long[] delays = new long[Type.AAAA + 1];
+
+	private Vector<Record> records = new Vector<Record>();
+
+	private boolean silent = false;
+
+	private String forgedAddress = null;
+
+	private boolean forgedFromOtherSource = false;
+
+	private Vector<Integer> queried = new Vector<Integer>();
+
+	private Vector<Integer> sourcePorts = new Vector<Integer>();
+
+	public StubDnsServer() throws Exception {
+		socket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		forgerSocket = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+		setDaemon(true);
+	}
+
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+
+	public InetSocketAddress getAddress() throws Exception {
+		return new InetSocketAddress(InetAddress.getByName("127.0.0.1"), getPort());
+	}
+
+	/**
+	 * Answer the A or AAAA queries of any name with an address (none if null)
+	 * after a delay
+	 */
+	public synchronized void setResponse(int type, String address, long delay) {
+		addresses[type] = address;
+		delays[type] = delay;
+	}
+
+	/**
+	 * Answer the queries of the record name and type with the record
+	 */
+	public void addRecord(Record record) {
+		records.addElement(record);
+	}
+
+	/**
+	 * Do not answer the queries
+	 */
+	public synchronized void setSilent(boolean silent) {
+		this.silent = silent;
+	}
+
+	/**
+	 * Send a forged response to the A queries before the genuine response:
+	 * from another source port with the ID of the query, or from the server
+	 * with another ID
+	 */
+	public synchronized void setForgedResponse(String address, boolean otherSource) {
+		forgedAddress = address;
+		forgedFromOtherSource = otherSource;
+	}
+
+	public boolean isQueried(int type) {
+		return queried.contains(type);
+	}
+
+	public int getQueryCount() {
+		return queried.size();
+	}
+
+	/**
+	 * Returns the source port of each received query
+	 */
+	public Vector<Integer> getSourcePorts() {
+		return sourcePorts;
+	}
+
+	public void close() {
+		socket.close();
+		forgerSocket.close();
+	}
+
+	public void run() {
+		byte[] buffer = new byte[512];
+		try {
+			while (true) {
+				DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+				socket.receive(packet);
+				Message query = new Message(packet.getData());
+				Record question = query.getQuestion();
+				sourcePorts.addElement(packet.getPort());
+				queried.addElement(question.getType());
+
+				String address = null;
+				long delay = 0;
+				boolean mute;
+				String forged;
+				boolean otherSource;
+				synchronized(this) {
+					if (question.getType() <= Type.AAAA) {
+						address = addresses[question.getType()];
+						delay = delays[question.getType()];
+					}
+					mute = silent;
+					forged = forgedAddress;
+					otherSource = forgedFromOtherSource;
+				}
+				if (mute) {
+					continue;
+				}
+
+				int id = query.getHeader().getID();
+				if ((forged != null) && (question.getType() == Type.A)) {
+					Message response = buildResponse(otherSource ? id : ((id + 1) & 0xFFFF), question, forged);
+					byte[] data = response.toWire();
+					DatagramSocket from = otherSource ? forgerSocket : socket;
+					from.send(new DatagramPacket(data, data.length, packet.getSocketAddress()));
+				}
+				respond(buildResponse(id, question, address).toWire(), packet.getSocketAddress(), delay);
+			}
+		} catch(Exception e) {
+			// Server closed
+		}
+	}
+
+	private Message buildResponse(int id, Record question, String address) throws Exception {
+		Message response = new Message(id);
+		response.getHeader().setFlag(Flags.QR);
+		response.getHeader().setFlag(Flags.AA);
+		response.addRecord(question, Section.QUESTION);
+		for (int i = 0; i < records.size(); i++) {
+			Record record = records.elementAt(i);
+			if (record.getName().equals(question.getName()) && (record.getType() == question.getType())) {
+				response.addRecord(record, Section.ANSWER);
+			}
+		}
+		if (address != null) {
+			InetAddress inet = InetAddress.getByName(address);
+			if (question.getType() == Type.A) {
+				response.addRecord(new ARecord(question.getName(), DClass.IN, 3600, inet), Section.ANSWER);
+			} else {
+				response.addRecord(new AAAARecord(question.getName(), DClass.IN, 3600, inet), Section.ANSWER);
+			}
+		}
+		return response;
+	}
+
+	private void respond(final byte[] data, final SocketAddress to, final long delay) {
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(delay);
+					socket.send(new DatagramPacket(data, data.length, to));
+				} catch(Exception e) {
+					// Server closed
+				}
+			}
+		}.start();
+	}
+}
@@ -0,0 +1,243 @@
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Hashtable;
+
+import junit.framework.TestCase;
+
+/**
+ * MSRP chunk parser benchmark: parsing throughput for 1 KB, 10 KB and 1 MB
+ * chunks, compared to the former line by line parsing of ChunkReceiver
+ */
+public class ChunkParserBenchmarkTest extends TestCase {
+	/**
+	 * Size of the data parsed per run
+	 */
+	private static final int STREAM_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * Number of bytes returned per read, as a TCP segment train
+	 */
+	private static final int READ_SIZE = 64 * 1024;
+
+	/**
+	 * Number of runs before the timed one
+	 */
+	private static final int WARM_UP_RUNS = 2;
+
+	public void testSmallChunks() throws IOException {
+		benchmark(1024);
+	}
+
+	public void testMaxChunks() throws IOException {
+		benchmark(MsrpConstants.CHUNK_MAX_SIZE);
+	}
+
+	public void testLargeChunks() throws IOException {
+		benchmark(1024 * 1024);
+	}
+
+	private void benchmark(int chunkSize) throws IOException {
+		int count = STREAM_SIZE / chunkSize;
+		byte[] stream = createStream(chunkSize, count);
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			parseLines(stream, count);
+			parseStream(stream, count);
+			parseChannel(stream, count);
+		}
+
+		long start = System.nanoTime();
+		parseLines(stream, count);
+		report("Line by line", chunkSize, stream.length, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		parseStream(stream, count);
+		report("Blocking", chunkSize, stream.length, System.nanoTime() - start);
+
+		start = System.nanoTime();
+		parseChannel(stream, count);
+		report("Non-blocking", chunkSize, stream.length, System.nanoTime() - start);
+	}
+
+	private static void parseLines(byte[] stream, int count) throws IOException {
+		LineChunkReader reader = new LineChunkReader(new ByteArrayInputStream(stream));
+		int chunks = 0;
+		while (reader.readChunk()) {
+			chunks++;
+		}
+		assertEquals(count, chunks);
+	}
+
+	private static void parseStream(byte[] stream, int count) throws IOException {
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(stream));
+		int chunks = 0;
+		while (parser.readChunk()) {
+			chunks++;
+		}
+		assertEquals(count, chunks);
+	}
+
+	private static void parseChannel(byte[] stream, int count) throws IOException {
+		ChunkParser parser = new ChunkParser();
+		SegmentChannel channel = new SegmentChannel(stream, READ_SIZE);
+		int chunks = 0;
+		while (parser.readFrom(channel) != -1) {
+			while (parser.parseChunk()) {
+				chunks++;
+			}
+		}
+		assertEquals(count, chunks);
+	}
+
+	private static byte[] createStream(int chunkSize, int count) {
+		byte[] data = new byte[chunkSize];
+		for (int i = 0; i < chunkSize; i++) {
+			data[i] = (byte)('a' + i % 26);
+		}
+		int total = chunkSize * count;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(total + count * 200);
+		for (int i = 0; i < count; i++) {
+			String txId = "tx" + i;
+			int first = i * chunkSize + 1;
+			String headers = "MSRP " + txId + " SEND\r\n" +
+					"To-Path: msrp://biloxi.example.com:12763/kjhd37s2s20w2a;tcp\r\n" +
+					"From-Path: msrp://atlanta.example.com:7654/jshA7weztas;tcp\r\n" +
+					"Message-ID: 87652491\r\n" +
+					"Byte-Range: " + first + "-" + (first + chunkSize - 1) + "/" + total + "\r\n" +
+					"Content-Type: application/octet-stream\r\n" +
+					"\r\n";
+			String end = "\r\n-------" + txId + (i == count - 1 ? "$" : "+") + "\r\n";
+			byte[] bytes = headers.getBytes();
+			out.write(bytes, 0, bytes.length);
+			out.write(data, 0, data.length);
+			bytes = end.getBytes();
+			out.write(bytes, 0, bytes.length);
+		}
+		return out.toByteArray();
+	}
+
+	private static void report(String mode, int chunkSize, int length, long duration) {
+		double seconds = duration / 1e9;
+		System.out.println(mode + " parsing of " + (chunkSize / 1024) + " KB chunks: "
+				+ Math.round(length / seconds / (1024 * 1024)) + " MB/s");
+	}
+
+	/**
+	 * Former parsing of ChunkReceiver: each line is read byte by byte in a
+	 * StringBuffer, then split, and the data is read by its Byte-Range. Only
+	 * the chunks with a Byte-Range of the benchmark are supported.
+	 */
+	private static class LineChunkReader {
+		private InputStream stream;
+
+		public LineChunkReader(InputStream stream) {
+			this.stream = stream;
+		}
+
+		/**
+		 * Read a chunk
+		 *
+		 * @return Returns false at the end of the stream
+		 */
+		public boolean readChunk() throws IOException {
+			// Read first line of a new data chunk
+			StringBuffer line = readLine();
+			if (line.length() == 0) {
+				return false;
+			}
+
+			// Check the MSRP tag
+			String[] firstLineTags = line.toString().split(" ");
+			if ((firstLineTags.length < 3) || !firstLineTags[0].equals(MsrpConstants.MSRP_HEADER)) {
+				throw new IOException("Not a MSRP message");
+			}
+			String txId = firstLineTags[1];
+			String end = MsrpConstants.END_MSRP_MSG + txId;
+
+			// Read next lines
+			Hashtable<String, String> headers = new Hashtable<String, String>();
+			char continuationFlag = '\0';
+			while (continuationFlag == '\0') {
+				line = readLine();
+				if (line.length() == 0) {
+					// Read data
+					String byteRange = headers.get(MsrpConstants.HEADER_BYTE_RANGE);
+					int chunkSize = MsrpUtils.getChunkSize(byteRange);
+					MsrpUtils.getTotalSize(byteRange);
+					readChunkedData(chunkSize);
+				} else if (line.toString().startsWith(end)) {
+					continuationFlag = line.charAt(line.length() - 1);
+				} else {
+					// It's an header
+					int index = line.indexOf(":");
+					String headerName = line.substring(0, index).trim();
+					String headerValue = line.substring(index + 1).trim();
+					headers.put(headerName, headerValue);
+				}
+			}
+			return true;
+		}
+
+		private StringBuffer readLine() throws IOException {
+			StringBuffer line = new StringBuffer();
+			int previous = -1;
+			int current = -1;
+			while((current = stream.read()) != -1) {
+				line.append((char)current);
+				if ((previous == MsrpConstants.CHAR_LF) && (current == MsrpConstants.CHAR_CR)) {
+					return line.delete(line.length()-2, line.length());
+				}
+				previous = current;
+			}
+			return line;
+		}
+
+		private byte[] readChunkedData(int chunkSize) throws IOException {
+			byte[] result = new byte[chunkSize];
+			int nbRead = 0;
+			int nbData = -1;
+			while ((nbRead < chunkSize) && ((nbData = stream.read(result, nbRead, chunkSize - nbRead)) != -1)) {
+				nbRead += nbData;
+			}
+			stream.read(); // Read LF
+			stream.read(); // Read CR
+			return result;
+		}
+	}
+
+	/**
+	 * Channel returning the data by segments
+	 */
+	private static class SegmentChannel implements ReadableByteChannel {
+		private byte[] data;
+		private int step;
+		private int index = 0;
+
+		public SegmentChannel(byte[] data, int step) {
+			this.data = data;
+			this.step = step;
+		}
+
+		public int read(ByteBuffer dst) {
+			if (index >= data.length) {
+				return -1;
+			}
+			int n = Math.min(Math.min(dst.remaining(), step), data.length - index);
+			dst.put(data, index, n);
+			index += n;
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import junit.framework.TestCase;
+
+/**
+ * MSRP chunk parser tests
+ */
+public class ChunkParserTest extends TestCase {
+	private static final String SEND_SIZED =
+			"MSRP a786hjs2 SEND\r\n" +
+			"To-Path: msrp://biloxi.example.com:12763/kjhd37s2s20w2a;tcp\r\n" +
+			"From-Path: msrp://atlanta.example.com:7654/jshA7weztas;tcp\r\n" +
+			"Message-ID: 87652491\r\n" +
+			"Byte-Range: 1-25/25\r\n" +
+			"Content-Type: text/plain\r\n" +
+			"\r\n" +
+			"Hey Bob, are you there?\r\n" +
+			"\r\n" +
+			"-------a786hjs2$\r\n";
+
+	private static final String SEND_UNSIZED =
+			"MSRP dkei38sd SEND\r\n" +
+			"Message-ID: 4564dpWd\r\n" +
+			"Byte-Range: 1-*/*\r\n" +
+			"Content-Type: text/plain\r\n" +
+			"\r\n" +
+			"abc\r\n-------dkei38sdX$\r\n-------other\r\nxyz\r\n" +
+			"-------dkei38sd+\r\n";
+
+	private static final String RESPONSE =
+			"MSRP a786hjs2 200 OK\r\n" +
+			"To-Path: msrp://atlanta.example.com:7654/jshA7weztas;tcp\r\n" +
+			"From-Path: msrp://biloxi.example.com:12763/kjhd37s2s20w2a;tcp\r\n" +
+			"-------a786hjs2$\r\n";
+
+	public void testSizedChunk() throws IOException {
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(SEND_SIZED.getBytes()));
+		assertTrue(parser.readChunk());
+		assertTrue(parser.isMsrpChunk());
+		assertEquals("a786hjs2", parser.getTransactionId());
+		assertEquals("SEND", parser.getMethod());
+		assertEquals(-1, parser.getResponseCode());
+		assertEquals("87652491", parser.getHeaders().get(MsrpConstants.HEADER_MESSAGE_ID));
+		assertEquals("text/plain", parser.getHeaders().get(MsrpConstants.HEADER_CONTENT_TYPE));
+		assertEquals("Hey Bob, are you there?\r\n", getData(parser));
+		assertEquals(25, parser.getTotalSize());
+		assertEquals(MsrpConstants.FLAG_LAST_CHUNK, parser.getContinuationFlag());
+		assertFalse(parser.readChunk());
+	}
+
+	public void testUnsizedChunkEndLine() throws IOException {
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(SEND_UNSIZED.getBytes()));
+		assertTrue(parser.readChunk());
+		assertEquals("dkei38sd", parser.getTransactionId());
+		assertEquals("abc\r\n-------dkei38sdX$\r\n-------other\r\nxyz", getData(parser));
+		assertEquals(MsrpConstants.FLAG_MORE_CHUNK, parser.getContinuationFlag());
+		assertFalse(parser.readChunk());
+	}
+
+	public void testEmptyBody() throws IOException {
+		String chunk = "MSRP x1 SEND\r\nByte-Range: 1-*/*\r\n\r\n-------x1$\r\n";
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(chunk.getBytes()));
+		assertTrue(parser.readChunk());
+		assertEquals(0, parser.getDataLength());
+		assertEquals(MsrpConstants.FLAG_LAST_CHUNK, parser.getContinuationFlag());
+	}
+
+	public void testResponseWithoutBody() throws IOException {
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(RESPONSE.getBytes()));
+		assertTrue(parser.readChunk());
+		assertEquals("a786hjs2", parser.getTransactionId());
+		assertEquals(200, parser.getResponseCode());
+		assertNull(parser.getMethod());
+		assertEquals(-1, parser.getDataLength());
+		assertEquals(MsrpConstants.FLAG_LAST_CHUNK, parser.getContinuationFlag());
+	}
+
+	public void testPartialReads() throws IOException {
+		String stream = SEND_SIZED + SEND_UNSIZED + RESPONSE;
+		for (int step = 1; step <= 7; step++) {
+			ChunkParser parser = new ChunkParser(new SlowInputStream(stream.getBytes(), step));
+			assertTrue(parser.readChunk());
+			assertEquals("Hey Bob, are you there?\r\n", getData(parser));
+			assertTrue(parser.readChunk());
+			assertEquals("abc\r\n-------dkei38sdX$\r\n-------other\r\nxyz", getData(parser));
+			assertTrue(parser.readChunk());
+			assertEquals(200, parser.getResponseCode());
+			assertFalse(parser.readChunk());
+		}
+	}
+
+	public void testNonBlockingSplitReads() throws IOException {
+		byte[] stream = (SEND_SIZED + SEND_UNSIZED + RESPONSE).getBytes();
+		for (int step = 1; step <= 64; step *= 2) {
+			ChunkParser parser = new ChunkParser();
+			SlowChannel channel = new SlowChannel(stream, step);
+			int chunks = 0;
+			while (parser.readFrom(channel) != -1) {
+				while (parser.parseChunk()) {
+					chunks++;
+					if (chunks == 1) {
+						assertEquals("Hey Bob, are you there?\r\n", getData(parser));
+					} else if (chunks == 2) {
+						assertEquals(MsrpConstants.FLAG_MORE_CHUNK, parser.getContinuationFlag());
+					} else {
+						assertEquals(200, parser.getResponseCode());
+					}
+				}
+			}
+			assertEquals(3, chunks);
+		}
+	}
+
+	public void testLargeUnsizedChunk() throws IOException {
+		String body = createBody(20000);
+		byte[] chunk = ("MSRP x2 SEND\r\nByte-Range: 1-*/20000\r\n\r\n" + body + "\r\n-------x2$\r\n").getBytes();
+
+		// Blocking mode
+		ChunkParser parser = new ChunkParser(new SlowInputStream(chunk, 1400));
+		assertTrue(parser.readChunk());
+		assertEquals(body, getData(parser));
+		assertEquals(20000, parser.getTotalSize());
+		assertEquals(MsrpConstants.FLAG_LAST_CHUNK, parser.getContinuationFlag());
+
+		// Non-blocking mode
+		parser = new ChunkParser();
+		SlowChannel channel = new SlowChannel(chunk, 1400);
+		int chunks = 0;
+		while (parser.readFrom(channel) != -1) {
+			while (parser.parseChunk()) {
+				assertEquals(body, getData(parser));
+				chunks++;
+			}
+		}
+		assertEquals(1, chunks);
+	}
+
+	public void testUnsizedBodyLargerThanTotalSize() {
+		String chunk = "MSRP x2 SEND\r\nByte-Range: 1-*/20000\r\n\r\n" + createBody(40000) + "\r\n-------x2$\r\n";
+		ChunkParser parser = new ChunkParser(new SlowInputStream(chunk.getBytes(), 1400));
+		try {
+			parser.readChunk();
+			fail("IOException expected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testUnknownSizeBodyTooLarge() {
+		String chunk = "MSRP x2 SEND\r\nByte-Range: 1-*/*\r\n\r\n" + createBody(4 * MsrpConstants.CHUNK_MAX_SIZE);
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(chunk.getBytes()));
+		try {
+			parser.readChunk();
+			fail("IOException expected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testChunkSizeTooLarge() {
+		int size = ChunkParser.MAX_CHUNK_SIZE + 1;
+		String chunk = "MSRP x4 SEND\r\nByte-Range: 1-" + size + "/" + size + "\r\n\r\n0123456789";
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(chunk.getBytes()));
+		try {
+			parser.readChunk();
+			fail("IOException expected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testLineTooLong() {
+		StringBuffer chunk = new StringBuffer("MSRP x3 SEND\r\nTo-Path: ");
+		while (chunk.length() < 4 * MsrpConstants.CHUNK_MAX_SIZE) {
+			chunk.append("0123456789");
+		}
+		ChunkParser parser = new ChunkParser(new ByteArrayInputStream(chunk.toString().getBytes()));
+		try {
+			parser.readChunk();
+			fail("IOException expected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static String getData(ChunkParser parser) {
+		return new String(parser.getDataBuffer(), parser.getDataOffset(), parser.getDataLength());
+	}
+
+	private static String createBody(int length) {
+		StringBuffer body = new StringBuffer(length);
+		while (body.length() < length) {
+			body.append("0123456789\r\n");
+		}
+		body.setLength(length);
+		return body.toString();
+	}
+
+	/**
+	 * Input stream returning a few bytes per read
+	 */
+	private static class SlowInputStream extends InputStream {
+		private byte[] data;
+		private int step;
+		private int index = 0;
+
+		public SlowInputStream(byte[] data, int step) {
+			this.data = data;
+			this.step = step;
+		}
+
+		public int read() {
+			return (index < data.length) ? (data[index++] & 0xff) : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (index >= data.length) {
+				return -1;
+			}
+			int n = Math.min(Math.min(len, step), data.length - index);
+			System.arraycopy(data, index, b, off, n);
+			index += n;
+			return n;
+		}
+	}
+
+	/**
+	 * Channel returning a few bytes per read
+	 */
+	private static class SlowChannel implements ReadableByteChannel {
+		private byte[] data;
+		private int step;
+		private int index = 0;
+
+		public SlowChannel(byte[] data, int step) {
+			this.data = data;
+			this.step = step;
+		}
+
+		public int read(ByteBuffer dst) {
+			if (index >= data.length) {
+				return -1;
+			}
+			int n = Math.min(Math.min(dst.remaining(), step), data.length - index);
+			dst.put(data, index, n);
+			index += n;
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+import com.orangelabs.rcs.platform.file.FileFactory;
+
+/**
+ * File data sink tests: writes, resume from a byte position and deletion of
+ * the file
+ */
+public class FileDataSinkTest extends TestCase {
+	private static final int TOTAL_SIZE = 2000;
+
+	private File file;
+
+	protected void setUp() throws Exception {
+		FileFactory.loadFactory("com.orangelabs.rcs.platform.file.AndroidFileFactory");
+		file = File.createTempFile("sink", ".dat");
+	}
+
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testResume() throws IOException {
+		checkResume(false);
+	}
+
+	public void testMappedResume() throws IOException {
+		checkResume(true);
+	}
+
+	public void testResumeAfterFileEnd() throws IOException {
+		FileDataSink sink = new FileDataSink(file.getPath(), TOTAL_SIZE, false);
+		sink.write(0, createData('a'), 0, 300);
+		sink.close();
+
+		// Only 300 bytes are in the file: the data from 500 are not contiguous
+		sink = new FileDataSink(file.getPath(), TOTAL_SIZE, 500, false);
+		sink.write(500, createData('b'), 500, 100);
+		assertEquals(300, sink.getReceivedSize());
+		sink.write(300, createData('b'), 300, 200);
+		assertEquals(500, sink.getReceivedSize());
+		sink.close();
+	}
+
+	public void testDeleteCreatedFile() throws IOException {
+		FileDataSink sink = new FileDataSink(file.getPath(), TOTAL_SIZE, false);
+		sink.write(0, createData('a'), 0, 300);
+		sink.delete();
+		assertFalse(file.exists());
+	}
+
+	public void testDeleteKeepsResumedFile() throws IOException {
+		FileDataSink sink = new FileDataSink(file.getPath(), TOTAL_SIZE, false);
+		sink.write(0, createData('a'), 0, 300);
+		sink.close();
+
+		// The bytes received before the resume are kept for a next resume
+		sink = new FileDataSink(file.getPath(), TOTAL_SIZE, 300, false);
+		sink.write(300, createData('b'), 300, 100);
+		sink.delete();
+		assertTrue(file.exists());
+		assertEquals(400, file.length());
+	}
+
+	private void checkResume(boolean mapped) throws IOException {
+		// First transfer interrupted after 1000 bytes
+		byte[] first = createData('a');
+		FileDataSink sink = new FileDataSink(file.getPath(), TOTAL_SIZE, mapped);
+		sink.write(0, first, 0, 500);
+		sink.write(500, first, 500, 500);
+		assertEquals(1000, sink.getReceivedSize());
+		sink.close();
+
+		// Resumed at 600: the bytes before are kept, the ones after are written again
+		byte[] second = createData('b');
+		sink = new FileDataSink(file.getPath(), TOTAL_SIZE, 600, mapped);
+		assertEquals(600, sink.getReceivedSize());
+		sink.write(600, second, 600, TOTAL_SIZE - 600);
+		assertEquals(TOTAL_SIZE, sink.getReceivedSize());
+		sink.close();
+
+		byte[] content = readFile();
+		assertEquals(TOTAL_SIZE, content.length);
+		for (int i = 0; i < TOTAL_SIZE; i++) {
+			assertEquals("Byte " + i, (i < 600) ? first[i] : second[i], content[i]);
+		}
+	}
+
+	private static byte[] createData(char base) {
+		byte[] data = new byte[TOTAL_SIZE];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)(base + i % 20);
+		}
+		return data;
+	}
+
+	private byte[] readFile() throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			byte[] content = new byte[(int)in.length()];
+			in.readFully(content);
+			return content;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package com.orangelabs.rcs.core.ims.protocol.msrp;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpSession.TypeMsrpChunk;
+
+/**
+ * MSRP load test: concurrent loopback sessions over the non-blocking transport
+ */
+public class MsrpNioLoadTest extends TestCase {
+	/**
+	 * Number of sessions open at the same time
+	 */
+	private static final int SESSIONS = 500;
+
+	/**
+	 * Number of messages sent per session
+	 */
+	private static final int MESSAGES = 20;
+
+	/**
+	 * Number of threads sending the messages
+	 */
+	private static final int SENDERS = 16;
+
+	private static final String HOST = "127.0.0.1";
+
+	private MsrpManager[] servers = new MsrpManager[SESSIONS];
+
+	private MsrpManager[] clients = new MsrpManager[SESSIONS];
+
+	protected void tearDown() {
+		for (int i = 0; i < SESSIONS; i++) {
+			if (clients[i] != null) {
+				clients[i].closeSession();
+			}
+			if (servers[i] != null) {
+				servers[i].closeSession();
+			}
+		}
+	}
+
+	public void testConcurrentSessions() throws Exception {
+		final CountDownLatch received = new CountDownLatch(SESSIONS * MESSAGES);
+		final AtomicInteger errors = new AtomicInteger();
+		int threadsBefore = Thread.activeCount();
+
+		// Open the sessions, the server end points wait for the connection
+		long start = System.currentTimeMillis();
+		final CountDownLatch opened = new CountDownLatch(SESSIONS);
+		ExecutorService openers = Executors.newCachedThreadPool();
+		for (int i = 0; i < SESSIONS; i++) {
+			int port = getFreePort();
+			servers[i] = new MsrpManager(HOST, port);
+			servers[i].setNioTransport(true);
+			final MsrpManager server = servers[i];
+			server.createMsrpServerSession("msrp://" + HOST + ":0/client" + i + ";tcp",
+					new TestListener(received, errors));
+			openers.execute(new Runnable() {
+				public void run() {
+					try {
+						server.openMsrpSession();
+						opened.countDown();
+					} catch (IOException e) {
+						errors.incrementAndGet();
+					}
+				}
+			});
+
+			clients[i] = new MsrpManager(HOST, 0);
+			clients[i].setNioTransport(true);
+			MsrpSession session = clients[i].createMsrpClientSession(HOST, port,
+					server.getLocalMsrpPath(), new TestListener(null, errors), null);
+			session.setFailureReportOption(true);
+			openClient(clients[i]);
+		}
+		assertTrue(opened.await(30, TimeUnit.SECONDS));
+		long setup = System.currentTimeMillis() - start;
+		openers.shutdown();
+		assertTrue(openers.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(clients[0].isNioTransport());
+		assertTrue(clients[0].getMsrpSession().getConnection() instanceof MsrpNioConnection);
+		assertTrue(servers[0].getMsrpSession().getConnection() instanceof MsrpNioConnection);
+
+		// The open sessions are served by the event loop and its workers only
+		int sessionThreads = Thread.activeCount() - threadsBefore;
+
+		// Each sender sends the messages of a share of the sessions
+		start = System.currentTimeMillis();
+		ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+		try {
+			for (int i = 0; i < SESSIONS; i++) {
+				final MsrpManager client = clients[i];
+				senders.execute(new Runnable() {
+					public void run() {
+						try {
+							for (int j = 0; j < MESSAGES; j++) {
+								byte[] data = ("Message " + j).getBytes();
+								client.sendChunks(new ByteArrayInputStream(data), "msg" + j,
+										"text/plain", data.length, TypeMsrpChunk.TextMessage);
+							}
+						} catch (MsrpException e) {
+							errors.incrementAndGet();
+						}
+					}
+				});
+			}
+			senders.shutdown();
+			assertTrue(senders.awaitTermination(60, TimeUnit.SECONDS));
+			assertTrue(received.await(5, TimeUnit.SECONDS));
+		} finally {
+			senders.shutdownNow();
+		}
+		long duration = System.currentTimeMillis() - start;
+		assertEquals(0, errors.get());
+
+		// Threads of the event loop and of its workers, whatever the number of sessions
+		assertTrue("Threads per session: " + sessionThreads, sessionThreads <= 1 + SESSIONS / 100);
+		System.out.println(SESSIONS + " sessions opened in " + setup + " ms, "
+				+ sessionThreads + " threads");
+		System.out.println((SESSIONS * MESSAGES) + " messages in " + duration + " ms: "
+				+ (SESSIONS * MESSAGES * 1000L / Math.max(1, duration)) + " msgs/s");
+	}
+
+	/**
+	 * Open a client session once its server end point listens
+	 */
+	private static void openClient(MsrpManager client) throws Exception {
+		for (int retry = 0; ; retry++) {
+			try {
+				client.openMsrpSession();
+				return;
+			} catch (IOException e) {
+				if (retry >= 100) {
+					throw e;
+				}
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	private static int getFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Listener counting the received messages
+	 */
+	private static class TestListener implements MsrpEventListener {
+		private CountDownLatch received;
+
+		private AtomicInteger errors;
+
+		public TestListener(CountDownLatch received, AtomicInteger errors) {
+			this.received = received;
+			this.errors = errors;
+		}
+
+		public void msrpDataTransfered(String msgId) {
+		}
+
+		public void msrpDataReceived(String msgId, byte[] data, String mimeType) {
+			if (received != null) {
+				received.countDown();
+			}
+		}
+
+		public void msrpDataReceptionIdle() {
+		}
+
+		public void msrpTransferProgress(long currentSize, long totalSize) {
+		}
+
+		public boolean msrpTransferProgress(long currentSize, long totalSize, byte[] data) {
+			return false;
+		}
+
+		public void msrpTransferAborted() {
+		}
+
+		public void msrpTransferError(String msgId, String error, TypeMsrpChunk typeMsrpChunk) {
+			errors.incrementAndGet();
+		}
+	}
+}
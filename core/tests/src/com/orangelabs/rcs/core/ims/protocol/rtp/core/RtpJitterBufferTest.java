@@ -0,0 +1,202 @@
+package com.orangelabs.rcs.core.ims.protocol.rtp.core;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import com.orangelabs.rcs.core.ims.network.ImsNetworkInterface.DnsResolvedFields;
+import com.orangelabs.rcs.platform.network.DatagramConnection;
+import com.orangelabs.rcs.platform.network.HttpConnection;
+import com.orangelabs.rcs.platform.network.NetworkFactory;
+import com.orangelabs.rcs.platform.network.SocketConnection;
+import com.orangelabs.rcs.platform.network.SocketServerConnection;
+
+/**
+ * RTP jitter buffer tests
+ */
+public class RtpJitterBufferTest extends TestCase {
+	private RtpPacketReceiver receiver;
+
+	private RtpJitterBuffer buffer;
+
+	protected void setUp() throws Exception {
+		if (NetworkFactory.getFactory() == null) {
+			NetworkFactory.loadFactory(TestNetworkFactory.class.getName());
+		}
+		receiver = new RtpPacketReceiver(0, null);
+		buffer = new RtpJitterBuffer(receiver);
+	}
+
+	protected void tearDown() {
+		receiver.close();
+	}
+
+	public void testInOrder() {
+		for (int i = 0; i < 10; i++) {
+			assertTrue(buffer.put(createPacket(100 + i, 0)));
+			assertEquals(0, buffer.getWaitingTime(0));
+			assertEquals(100 + i, buffer.get(0).seqnum);
+		}
+		assertNull(buffer.get(0));
+		assertEquals(-1, buffer.getWaitingTime(0));
+		assertEquals(0, receiver.getRtpReceptionStats().numLostPkts);
+	}
+
+	public void testReorder() {
+		assertTrue(buffer.put(createPacket(1, 0)));
+		assertTrue(buffer.put(createPacket(3, 0)));
+		assertTrue(buffer.put(createPacket(4, 0)));
+		assertEquals(1, buffer.get(0).seqnum);
+
+		// Packet 2 is missing: wait for it
+		assertNull(buffer.get(5));
+		assertEquals(buffer.getPlayoutDelay() - 5, buffer.getWaitingTime(5));
+
+		assertTrue(buffer.put(createPacket(2, 6)));
+		assertEquals(2, buffer.get(6).seqnum);
+		assertEquals(3, buffer.get(6).seqnum);
+		assertEquals(4, buffer.get(6).seqnum);
+		assertEquals(0, receiver.getRtpReceptionStats().numLostPkts);
+	}
+
+	public void testLoss() {
+		assertTrue(buffer.put(createPacket(1, 0)));
+		assertEquals(1, buffer.get(0).seqnum);
+		assertTrue(buffer.put(createPacket(4, 10)));
+
+		// Packets 2 and 3 are declared lost after the playout delay
+		int delay = buffer.getPlayoutDelay();
+		assertNull(buffer.get(10 + delay - 1));
+		assertEquals(4, buffer.get(10 + delay).seqnum);
+		assertEquals(2, receiver.getRtpReceptionStats().numLostPkts);
+
+		// A lost packet received afterwards is late
+		assertFalse(buffer.put(createPacket(3, 20 + delay)));
+		assertEquals(1, receiver.getRtpReceptionStats().numLatePkts);
+	}
+
+	public void testDuplicate() {
+		assertTrue(buffer.put(createPacket(1, 0)));
+		assertTrue(buffer.put(createPacket(3, 0)));
+		assertFalse(buffer.put(createPacket(3, 0)));
+		assertEquals(1, receiver.getRtpReceptionStats().numLatePkts);
+	}
+
+	public void testWrapAround() {
+		assertTrue(buffer.put(createPacket(65534, 0)));
+		assertTrue(buffer.put(createPacket(0, 0)));
+		assertTrue(buffer.put(createPacket(65535, 0)));
+		assertTrue(buffer.put(createPacket(1, 0)));
+		assertEquals(65534, buffer.get(0).seqnum);
+		assertEquals(65535, buffer.get(0).seqnum);
+		assertEquals(65536, buffer.get(0).seqnum);
+		assertEquals(65537, buffer.get(0).seqnum);
+		assertNull(buffer.get(0));
+
+		// A packet from before the wrap around is late
+		assertFalse(buffer.put(createPacket(65533, 0)));
+		assertEquals(0, receiver.getRtpReceptionStats().numLostPkts);
+	}
+
+	public void testTooFarAhead() {
+		assertTrue(buffer.put(createPacket(1, 0)));
+		assertTrue(buffer.put(createPacket(2, 0)));
+		assertTrue(buffer.put(createPacket(1000, 0)));
+
+		// The packets which can't be buffered anymore are given up, the
+		// following missing ones are waited for the playout delay
+		assertNull(buffer.get(0));
+		RtpPacket packet = buffer.get(buffer.getPlayoutDelay());
+		assertNotNull(packet);
+		assertEquals(1000, packet.seqnum);
+		assertEquals(997, receiver.getRtpReceptionStats().numLostPkts);
+		assertEquals(2, receiver.getRtpReceptionStats().numDiscardedPkts);
+		assertNull(buffer.get(buffer.getPlayoutDelay()));
+	}
+
+	public void testPlayoutDelay() {
+		buffer.updatePlayoutDelay(0);
+		assertEquals(RtpJitterBuffer.MIN_PLAYOUT_DELAY, buffer.getPlayoutDelay());
+		buffer.updatePlayoutDelay(40);
+		assertEquals(120, buffer.getPlayoutDelay());
+		buffer.updatePlayoutDelay(10000);
+		assertEquals(RtpJitterBuffer.MAX_PLAYOUT_DELAY, buffer.getPlayoutDelay());
+	}
+
+	private static RtpPacket createPacket(int seqnum, long receivedAt) {
+		RtpPacket packet = new RtpPacket();
+		packet.seqnum = seqnum;
+		packet.receivedAt = receivedAt;
+		return packet;
+	}
+
+	/**
+	 * Network factory used when no platform factory is loaded
+	 */
+	public static class TestNetworkFactory extends NetworkFactory {
+		public String getLocalIpAddress(DnsResolvedFields dnsEntry, int type) {
+			return "127.0.0.1";
+		}
+
+		public DatagramConnection createDatagramConnection() {
+			return new TestDatagramConnection();
+		}
+
+		public DatagramConnection createDatagramConnection(int timeout) {
+			return new TestDatagramConnection();
+		}
+
+		public SocketConnection createSocketClientConnection() {
+			return null;
+		}
+
+		public SocketConnection createSecureSocketClientConnection() {
+			return null;
+		}
+
+		public SocketConnection createSimpleSecureSocketClientConnection(String fingerprint) {
+			return null;
+		}
+
+		public SocketServerConnection createSocketServerConnection() {
+			return null;
+		}
+
+		public HttpConnection createHttpConnection() {
+			return null;
+		}
+	}
+
+	/**
+	 * Datagram connection receiving nothing
+	 */
+	private static class TestDatagramConnection implements DatagramConnection {
+		public void open() {
+		}
+
+		public void open(int port) {
+		}
+
+		public void close() {
+		}
+
+		public void send(String remoteAddr, int remotePort, byte[] data) {
+		}
+
+		public byte[] receive() throws IOException {
+			throw new IOException("Not connected");
+		}
+
+		public int receive(byte[] buffer) throws IOException {
+			throw new IOException("Not connected");
+		}
+
+		public String getLocalAddress() {
+			return "127.0.0.1";
+		}
+
+		public int getLocalPort() {
+			return 0;
+		}
+	}
+}
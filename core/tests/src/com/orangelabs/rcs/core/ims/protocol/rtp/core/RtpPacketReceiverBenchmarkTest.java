@@ -0,0 +1,213 @@
+package com.orangelabs.rcs.core.ims.protocol.rtp.core;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+
+import android.os.Debug;
+
+import junit.framework.TestCase;
+
+import com.orangelabs.rcs.platform.network.DatagramConnection;
+import com.orangelabs.rcs.platform.network.NetworkFactory;
+
+/**
+ * RTP packet receiver benchmark: allocations per received packet of a 720p
+ * video stream at 30 fps, the packets being recycled by the consumer
+ */
+public class RtpPacketReceiverBenchmarkTest extends TestCase {
+	/**
+	 * Frame rate
+	 */
+	private static final int FRAME_RATE = 30;
+
+	/**
+	 * Packets per frame, about 2.6 Mbit/s with the packet size below
+	 */
+	private static final int PACKETS_PER_FRAME = 9;
+
+	/**
+	 * Size of a packet
+	 */
+	private static final int PACKET_SIZE = 1200;
+
+	/**
+	 * Number of frames of the paced run (5 seconds)
+	 */
+	private static final int FRAMES = 150;
+
+	/**
+	 * Number of packets of the unpaced run
+	 */
+	private static final int UNPACED_PACKETS = 100000;
+
+	/**
+	 * Packets received ahead of the consumer in the unpaced run, below the
+	 * size of the receiver FIFO so that no packet is dropped
+	 */
+	private static final int UNPACED_WINDOW = 50;
+
+	protected void setUp() throws Exception {
+		if (NetworkFactory.getFactory() == null) {
+			NetworkFactory.loadFactory(RtpJitterBufferTest.TestNetworkFactory.class.getName());
+		}
+	}
+
+	public void test720p30() throws Exception {
+		// Warm up the pool, then count the allocations of the stream
+		run(PACKETS_PER_FRAME * FRAME_RATE, false);
+		Debug.startAllocCounting();
+		try {
+			Debug.resetGlobalAllocCount();
+			Debug.resetGlobalAllocSize();
+			long start = System.nanoTime();
+			int received = run(FRAMES * PACKETS_PER_FRAME, true);
+			long duration = System.nanoTime() - start;
+			int objects = Debug.getGlobalAllocCount();
+			int bytes = Debug.getGlobalAllocSize();
+			System.out.println("720p" + FRAME_RATE + " stream: " + received + " packets in "
+					+ (duration / 1000000) + " ms, "
+					+ ((float)objects / received) + " objects and "
+					+ ((float)bytes / received) + " bytes allocated per packet");
+			assertEquals(FRAMES * PACKETS_PER_FRAME, received);
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	public void testThroughput() throws Exception {
+		long start = System.nanoTime();
+		int received = run(UNPACED_PACKETS, false);
+		long duration = System.nanoTime() - start;
+		long packetRate = received * 1000000000L / duration;
+		System.out.println("Unpaced stream: " + packetRate + " packets/s, i.e. "
+				+ (packetRate / (PACKETS_PER_FRAME * FRAME_RATE)) + " times a 720p"
+				+ FRAME_RATE + " stream");
+		assertEquals(UNPACED_PACKETS, received);
+	}
+
+	/**
+	 * Receive a stream and consume its packets
+	 *
+	 * @param packets Number of packets of the stream
+	 * @param paced Packets sent at the frame rate
+	 * @return Number of packets read
+	 */
+	private static int run(int packets, boolean paced) throws Exception {
+		RtpPacketReceiver receiver = new RtpPacketReceiver(0, new RtcpSession(false, 16000));
+		receiver.datagramConnection.close();
+		Semaphore window = paced ? null : new Semaphore(UNPACED_WINDOW);
+		receiver.datagramConnection = new StreamDatagramConnection(packets, window);
+		receiver.start();
+		int received = 0;
+		try {
+			while (received < packets) {
+				RtpPacket packet = receiver.readRtpPacket(1000);
+				if (packet == null) {
+					break;
+				}
+				received++;
+				receiver.recycleRtpPacket(packet);
+				if (window != null) {
+					window.release();
+				}
+			}
+		} catch(TimeoutException e) {
+			// Packets dropped by the receiver
+		} finally {
+			receiver.close();
+		}
+		return received;
+	}
+
+	/**
+	 * Datagram connection receiving a generated video stream
+	 */
+	private static class StreamDatagramConnection implements DatagramConnection {
+		private int packets;
+
+		private Semaphore window;
+
+		private int sent = 0;
+
+		private long start = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param packets Number of packets of the stream
+		 * @param window Packets which may be received ahead of the consumer,
+		 *        or null if the packets are sent at the frame rate
+		 */
+		public StreamDatagramConnection(int packets, Semaphore window) {
+			this.packets = packets;
+			this.window = window;
+		}
+
+		public void open() {
+		}
+
+		public void open(int port) {
+		}
+
+		public void close() {
+		}
+
+		public void send(String remoteAddr, int remotePort, byte[] data) {
+		}
+
+		public byte[] receive() throws IOException {
+			byte[] buffer = new byte[PACKET_SIZE];
+			receive(buffer);
+			return buffer;
+		}
+
+		public int receive(byte[] buffer) throws IOException {
+			if (sent >= packets) {
+				throw new SocketTimeoutException();
+			}
+			int frame = sent / PACKETS_PER_FRAME;
+			try {
+				if (window != null) {
+					window.acquire();
+				} else {
+					// The packets of a frame arrive back to back at the frame rate
+					if (start == 0) {
+						start = System.currentTimeMillis();
+					}
+					long delay = start + (frame * 1000L / FRAME_RATE) - System.currentTimeMillis();
+					if (delay > 0) {
+						Thread.sleep(delay);
+					}
+				}
+			} catch(InterruptedException e) {
+				throw new SocketTimeoutException();
+			}
+			int seqnum = sent & 0xffff;
+			long timestamp = frame * (90000L / FRAME_RATE);
+			buffer[0] = (byte)0x80;
+			buffer[1] = (byte)(((sent % PACKETS_PER_FRAME) == (PACKETS_PER_FRAME - 1)) ? 0xe0 : 0x60);
+			buffer[2] = (byte)(seqnum >> 8);
+			buffer[3] = (byte)seqnum;
+			buffer[4] = (byte)(timestamp >> 24);
+			buffer[5] = (byte)(timestamp >> 16);
+			buffer[6] = (byte)(timestamp >> 8);
+			buffer[7] = (byte)timestamp;
+			buffer[8] = 0x12;
+			buffer[9] = 0x34;
+			buffer[10] = 0x56;
+			buffer[11] = 0x78;
+			sent++;
+			return PACKET_SIZE;
+		}
+
+		public String getLocalAddress() {
+			return "127.0.0.1";
+		}
+
+		public int getLocalPort() {
+			return 0;
+		}
+	}
+}
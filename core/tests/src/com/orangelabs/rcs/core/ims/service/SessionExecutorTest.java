@@ -0,0 +1,106 @@
+package com.orangelabs.rcs.core.ims.service;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Session executor tests
+ */
+public class SessionExecutorTest extends TestCase {
+	/**
+	 * Number of blocking steps run at the same time
+	 */
+	private static final int BLOCKING_STEPS = 100;
+
+	public void testBlockingStepsBounded() throws InterruptedException {
+		final CountDownLatch gate = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(BLOCKING_STEPS);
+		final AtomicInteger maxThreads = new AtomicInteger();
+		for (int i = 0; i < BLOCKING_STEPS; i++) {
+			SessionExecutor.getInstance().executeBlocking(new Runnable() {
+				public void run() {
+					updateMax(maxThreads, countStepThreads());
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+						// Nothing to do
+					}
+					done.countDown();
+				}
+			});
+		}
+		Thread.sleep(500);
+		gate.countDown();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+
+		// The blocking steps wait for a thread instead of creating one each
+		assertTrue("Step threads: " + maxThreads.get(), maxThreads.get() <= 4 + 8);
+	}
+
+	public void testBlockingStepsDoNotStallSteps() throws InterruptedException {
+		final CountDownLatch gate = new CountDownLatch(1);
+		for (int i = 0; i < 8; i++) {
+			SessionExecutor.getInstance().executeBlocking(new Runnable() {
+				public void run() {
+					try {
+						gate.await();
+					} catch (InterruptedException e) {
+						// Nothing to do
+					}
+				}
+			});
+		}
+
+		// The steps run while all the blocking steps are waiting
+		final CountDownLatch steps = new CountDownLatch(100);
+		for (int i = 0; i < 100; i++) {
+			SessionExecutor.getInstance().execute(new Runnable() {
+				public void run() {
+					steps.countDown();
+				}
+			});
+		}
+		assertTrue(steps.await(5, TimeUnit.SECONDS));
+		gate.countDown();
+	}
+
+	public void testFailedStep() throws InterruptedException {
+		final CountDownLatch next = new CountDownLatch(1);
+		SessionExecutor.getInstance().execute(new Runnable() {
+			public void run() {
+				throw new IllegalStateException("Step failure");
+			}
+		});
+		SessionExecutor.getInstance().execute(new Runnable() {
+			public void run() {
+				next.countDown();
+			}
+		});
+		assertTrue(next.await(5, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Count the threads of the session executor, blocking steps included
+	 */
+	private static int countStepThreads() {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("SessionExecutor-")
+					|| thread.getName().startsWith("SessionBlockingStep-")) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void updateMax(AtomicInteger max, int value) {
+		synchronized (max) {
+			if (value > max.get()) {
+				max.set(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,453 @@
+package com.orangelabs.rcs.core.ims.service;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax2.sip.address.Address;
+import javax2.sip.header.ToHeader;
+import javax2.sip.message.Request;
+import javax2.sip.message.Response;
+
+import android.net.ConnectivityManager;
+import android.test.AndroidTestCase;
+
+import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpEventListener;
+import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpManager;
+import com.orangelabs.rcs.core.ims.protocol.msrp.MsrpSession.TypeMsrpChunk;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipEventListener;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipInterface;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipRequest;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipResponse;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionContext;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipException;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipTransactionListener;
+import com.orangelabs.rcs.core.ims.protocol.sip.SipUtils;
+import com.orangelabs.rcs.platform.AndroidFactory;
+import com.orangelabs.rcs.provider.settings.RcsSettings;
+
+/**
+ * Session setup load test: terminating sessions set up against a loopback
+ * SIP peer with the steps of the event-driven chat sessions. Each INVITE is
+ * answered by a 200 OK, the ACK opens an active MSRP connection to the peer.
+ * It reports the number of threads, the memory and the setup latency.
+ */
+public class SessionSetupLoadTest extends AndroidTestCase {
+	/**
+	 * Number of sessions set up at the same time
+	 */
+	private static final int SESSIONS = 1000;
+
+	/**
+	 * Time to set up all the sessions (in seconds)
+	 */
+	private static final int SETUP_TIMEOUT = 120;
+
+	/**
+	 * Transaction timeout (in seconds)
+	 */
+	private static final int TRANSACTION_TIMEOUT = 30;
+
+	private static final String HOST = "127.0.0.1";
+
+	private SipInterface sip;
+
+	private SipPeer peer;
+
+	private MsrpPeer msrpPeer;
+
+	private MsrpManager[] msrpManagers = new MsrpManager[SESSIONS];
+
+	private long[] inviteTimes = new long[SESSIONS];
+
+	private long[] latencies = new long[SESSIONS];
+
+	private CountDownLatch established = new CountDownLatch(SESSIONS);
+
+	private AtomicInteger errors = new AtomicInteger();
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		AndroidFactory.setApplicationContext(mContext);
+		RcsSettings.createInstance(mContext);
+		msrpPeer = new MsrpPeer();
+		peer = new SipPeer();
+		sip = new SipInterface(HOST, HOST, peer.getPort(), "UDP", false, ConnectivityManager.TYPE_WIFI);
+		sip.addSipEventListener(new SipEventListener() {
+			public void receiveSipRequest(final SipRequest request) {
+				if (request.getMethod().equals(Request.INVITE)) {
+					SessionExecutor.getInstance().execute(new Runnable() {
+						public void run() {
+							answerInvite(request);
+						}
+					});
+				}
+			}
+		});
+		peer.start();
+		msrpPeer.start();
+	}
+
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < SESSIONS; i++) {
+			if (msrpManagers[i] != null) {
+				msrpManagers[i].closeSession();
+			}
+		}
+		sip.close();
+		peer.close();
+		msrpPeer.close();
+
+		super.tearDown();
+	}
+
+	public void testTerminatingSessions() throws Exception {
+		System.gc();
+		Runtime runtime = Runtime.getRuntime();
+		long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+		int threadsBefore = Thread.getAllStackTraces().size();
+		ThreadSampler sampler = new ThreadSampler();
+		sampler.start();
+
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < SESSIONS; i++) {
+			inviteTimes[i] = System.nanoTime();
+			peer.sendInvite(i, sip.getListeningPort());
+		}
+		assertTrue("Sessions not established: " + established.getCount(),
+				established.await(SETUP_TIMEOUT, TimeUnit.SECONDS));
+		long duration = System.currentTimeMillis() - start;
+		sampler.stopSampling();
+		long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
+		assertEquals(0, errors.get());
+
+		// The number of threads does not depend on the number of sessions
+		int threads = sampler.maxThreads - threadsBefore;
+		assertTrue("Threads created during the setup: " + threads, threads < SESSIONS / 20);
+
+		Arrays.sort(latencies);
+		System.out.println(SESSIONS + " sessions set up in " + duration + " ms");
+		System.out.println("Threads: " + threadsBefore + " before, " + sampler.maxThreads
+				+ " max during the setup, " + sampler.maxStepThreads + " max session step threads");
+		System.out.println("Memory: " + ((memoryAfter - memoryBefore) / 1024) + " KB for "
+				+ SESSIONS + " sessions");
+		System.out.println("Setup latency: median " + (latencies[SESSIONS / 2] / 1000000)
+				+ " ms, p99 " + (latencies[SESSIONS * 99 / 100] / 1000000) + " ms");
+	}
+
+	/**
+	 * Answer an INVITE by a 200 OK, the ACK is processed on the session
+	 * executor
+	 */
+	private void answerInvite(SipRequest invite) {
+		final int index = getIndex(invite.getCallId());
+		try {
+			Response response = SipUtils.MSG_FACTORY.createResponse(200, invite.getStackMessage());
+			((ToHeader)response.getHeader(ToHeader.NAME)).setTag("device" + index);
+			Address contact = SipUtils.ADDR_FACTORY.createAddress("<sip:device@" + HOST + ":"
+					+ sip.getListeningPort() + ">");
+			response.addHeader(SipUtils.HEADER_FACTORY.createContactHeader(contact));
+			String sdp = "v=0\r\n" +
+					"o=- " + index + " " + index + " IN IP4 " + HOST + "\r\n" +
+					"s=-\r\n" +
+					"c=IN IP4 " + HOST + "\r\n" +
+					"t=0 0\r\n" +
+					"m=message 9 TCP/MSRP *\r\n" +
+					"a=accept-types:message/cpim\r\n" +
+					"a=setup:active\r\n" +
+					"a=path:msrp://" + HOST + ":9/device" + index + ";tcp\r\n" +
+					"a=sendrecv\r\n";
+			response.setContent(sdp, SipUtils.HEADER_FACTORY.createContentTypeHeader("application", "sdp"));
+			SipResponse resp = new SipResponse(response);
+			resp.setStackTransaction(invite.getStackTransaction());
+
+			SipTransactionContext ctx = sip.sendSipMessage(resp, TRANSACTION_TIMEOUT, new SipTransactionListener() {
+				public void handleProvisionalResponse(SipTransactionContext ctx, SipResponse response) {
+				}
+
+				public void handleTransactionCompleted(final SipTransactionContext ctx) {
+					SessionExecutor.getInstance().execute(new Runnable() {
+						public void run() {
+							processAck(ctx, index);
+						}
+					});
+				}
+
+				public void handleTransactionError(SipTransactionContext ctx, SipException error) {
+					errors.incrementAndGet();
+				}
+			});
+			if (ctx == null) {
+				errors.incrementAndGet();
+			}
+		} catch (Exception e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Process the ACK: the active MSRP connection is opened on a blocking step
+	 */
+	private void processAck(SipTransactionContext ctx, final int index) {
+		if (!ctx.isSipAck()) {
+			errors.incrementAndGet();
+			return;
+		}
+		SessionExecutor.getInstance().executeBlocking(new Runnable() {
+			public void run() {
+				try {
+					MsrpManager msrpMgr = new MsrpManager(HOST, 9);
+					msrpMgr.setNioTransport(true);
+					msrpManagers[index] = msrpMgr;
+					msrpMgr.createMsrpClientSession(HOST, msrpPeer.getPort(),
+							"msrp://" + HOST + ":" + msrpPeer.getPort() + "/peer" + index + ";tcp",
+							new NullMsrpListener(), null);
+					msrpMgr.openMsrpSession();
+					msrpMgr.sendEmptyChunk();
+					latencies[index] = System.nanoTime() - inviteTimes[index];
+					established.countDown();
+				} catch (Exception e) {
+					errors.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	private static int getIndex(String callId) {
+		return Integer.parseInt(callId.substring("setup-".length(), callId.indexOf('@')));
+	}
+
+	/**
+	 * Loopback SIP peer sending the INVITEs and acknowledging the 200 OK
+	 */
+	private class SipPeer extends Thread {
+		private DatagramSocket socket;
+
+		private InetAddress address;
+
+		private int devicePort;
+
+		public SipPeer() throws IOException {
+			super("SipPeer");
+			address = InetAddress.getByName(HOST);
+			socket = new DatagramSocket(0, address);
+		}
+
+		public int getPort() {
+			return socket.getLocalPort();
+		}
+
+		public void sendInvite(int index, int devicePort) throws IOException {
+			this.devicePort = devicePort;
+			String sdp = "v=0\r\n" +
+					"o=- " + index + " " + index + " IN IP4 " + HOST + "\r\n" +
+					"s=-\r\n" +
+					"c=IN IP4 " + HOST + "\r\n" +
+					"t=0 0\r\n" +
+					"m=message " + msrpPeer.getPort() + " TCP/MSRP *\r\n" +
+					"a=accept-types:message/cpim\r\n" +
+					"a=setup:actpass\r\n" +
+					"a=path:msrp://" + HOST + ":" + msrpPeer.getPort() + "/peer" + index + ";tcp\r\n" +
+					"a=sendrecv\r\n";
+			send("INVITE sip:device@" + HOST + ":" + devicePort + " SIP/2.0\r\n" +
+					"Via: SIP/2.0/UDP " + HOST + ":" + getPort() + ";branch=z9hG4bK-invite-" + index + "\r\n" +
+					"Max-Forwards: 70\r\n" +
+					"From: <sip:peer@" + HOST + ">;tag=peer" + index + "\r\n" +
+					"To: <sip:device@" + HOST + ">\r\n" +
+					"Call-ID: setup-" + index + "@" + HOST + "\r\n" +
+					"CSeq: 1 INVITE\r\n" +
+					"Contact: <sip:peer@" + HOST + ":" + getPort() + ">\r\n" +
+					"Accept-Contact: *;+g.oma.sip-im\r\n" +
+					"Content-Type: application/sdp\r\n" +
+					"Content-Length: " + sdp.length() + "\r\n" +
+					"\r\n" +
+					sdp);
+		}
+
+		public void run() {
+			byte[] buffer = new byte[8192];
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				while (true) {
+					packet.setLength(buffer.length);
+					socket.receive(packet);
+					String message = new String(buffer, 0, packet.getLength());
+					if (message.startsWith("SIP/2.0 200")) {
+						sendAck(message);
+					}
+				}
+			} catch (IOException e) {
+				// Closed
+			}
+		}
+
+		/**
+		 * Acknowledge a 200 OK, again for each of its retransmissions
+		 */
+		private void sendAck(String response) throws IOException {
+			String callId = getHeader(response, "Call-ID");
+			String to = getHeader(response, "To");
+			int index = getIndex(callId);
+			send("ACK sip:device@" + HOST + ":" + devicePort + " SIP/2.0\r\n" +
+					"Via: SIP/2.0/UDP " + HOST + ":" + getPort() + ";branch=z9hG4bK-ack-" + index + "\r\n" +
+					"Max-Forwards: 70\r\n" +
+					"From: <sip:peer@" + HOST + ">;tag=peer" + index + "\r\n" +
+					"To: " + to + "\r\n" +
+					"Call-ID: " + callId + "\r\n" +
+					"CSeq: 1 ACK\r\n" +
+					"Content-Length: 0\r\n" +
+					"\r\n");
+		}
+
+		private String getHeader(String message, String name) {
+			int start = message.indexOf("\r\n" + name + ": ") + name.length() + 4;
+			return message.substring(start, message.indexOf("\r\n", start));
+		}
+
+		private void send(String message) throws IOException {
+			byte[] data = message.getBytes();
+			socket.send(new DatagramPacket(data, data.length, address, devicePort));
+		}
+
+		public void close() {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Loopback MSRP peer accepting the connections and discarding the data
+	 */
+	private static class MsrpPeer extends Thread {
+		private Selector selector;
+
+		private ServerSocketChannel server;
+
+		public MsrpPeer() throws IOException {
+			super("MsrpPeer");
+			selector = Selector.open();
+			server = ServerSocketChannel.open();
+			server.socket().bind(new InetSocketAddress(HOST, 0), SESSIONS);
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		}
+
+		public int getPort() {
+			return server.socket().getLocalPort();
+		}
+
+		public void run() {
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			try {
+				while (selector.isOpen()) {
+					selector.select();
+					Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						if (key.isAcceptable()) {
+							SocketChannel channel = server.accept();
+							if (channel != null) {
+								channel.configureBlocking(false);
+								channel.register(selector, SelectionKey.OP_READ);
+							}
+						} else if (key.isReadable()) {
+							buffer.clear();
+							if (((SocketChannel)key.channel()).read(buffer) < 0) {
+								key.cancel();
+								key.channel().close();
+							}
+						}
+					}
+				}
+			} catch (Exception e) {
+				// Closed
+			}
+		}
+
+		public void close() throws IOException {
+			selector.close();
+			server.close();
+		}
+	}
+
+	/**
+	 * Sampler of the maximum number of threads during the setup
+	 */
+	private static class ThreadSampler extends Thread {
+		private volatile boolean sampling = true;
+
+		private int maxThreads = 0;
+
+		private int maxStepThreads = 0;
+
+		public ThreadSampler() {
+			super("ThreadSampler");
+		}
+
+		public void run() {
+			while (sampling) {
+				int threads = 0;
+				int stepThreads = 0;
+				for (Thread thread : Thread.getAllStackTraces().keySet()) {
+					threads++;
+					if (thread.getName().startsWith("SessionExecutor-")
+							|| thread.getName().startsWith("SessionBlockingStep-")) {
+						stepThreads++;
+					}
+				}
+				maxThreads = Math.max(maxThreads, threads);
+				maxStepThreads = Math.max(maxStepThreads, stepThreads);
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+
+		public void stopSampling() throws InterruptedException {
+			sampling = false;
+			join();
+		}
+	}
+
+	/**
+	 * MSRP listener ignoring the events
+	 */
+	private static class NullMsrpListener implements MsrpEventListener {
+		public void msrpDataTransfered(String msgId) {
+		}
+
+		public void msrpDataReceived(String msgId, byte[] data, String mimeType) {
+		}
+
+		public void msrpDataReceptionIdle() {
+		}
+
+		public void msrpTransferProgress(long currentSize, long totalSize) {
+		}
+
+		public boolean msrpTransferProgress(long currentSize, long totalSize, byte[] data) {
+			return false;
+		}
+
+		public void msrpTransferAborted() {
+		}
+
+		public void msrpTransferError(String msgId, String error, TypeMsrpChunk typeMsrpChunk) {
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.orangelabs.rcs.core.ims.service.im.chat.imdn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.test.AndroidTestCase;
+
+import com.orangelabs.rcs.core.ims.service.im.chat.ChatUtils;
+import com.orangelabs.rcs.core.ims.service.im.chat.cpim.CpimMessage;
+import com.orangelabs.rcs.provider.settings.RcsSettings;
+import com.orangelabs.rcs.provider.settings.RcsSettingsData;
+
+/**
+ * Delivery report batch tests: build and parse of a multipart batch, and
+ * fallback to single reports when the remote doesn't support the batch,
+ * and history update of the displayed reports that are not sent
+ */
+public class DeliveryReportBatchTest extends AndroidTestCase {
+	private static final String CONTACT = "tel:+33612345678";
+
+	private static final String BOUNDARY = "boundary1";
+
+	private String batchWindow;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		RcsSettings.createInstance(mContext);
+		batchWindow = RcsSettings.getInstance().readParameter(RcsSettingsData.IM_REPORTS_BATCH_WINDOW);
+		RcsSettings.getInstance().writeParameter(RcsSettingsData.IM_REPORTS_BATCH_WINDOW, "500");
+	}
+
+	protected void tearDown() throws Exception {
+		RcsSettings.getInstance().writeParameter(RcsSettingsData.IM_REPORTS_BATCH_WINDOW, batchWindow);
+
+		super.tearDown();
+	}
+
+	public void testBuildAndParseBatch() {
+		String[] msgIds = { "msg-1", "msg-2", "msg-3" };
+		String[] statuses = { ImdnDocument.DELIVERY_STATUS_DELIVERED,
+				ImdnDocument.DELIVERY_STATUS_DISPLAYED, ImdnDocument.DELIVERY_STATUS_DELIVERED };
+		List<String> cpims = new ArrayList<String>();
+		for (int i = 0; i < msgIds.length; i++) {
+			cpims.add(buildCpim(msgIds[i], statuses[i]));
+		}
+		String multipart = ChatUtils.buildMultipartDeliveryReport(cpims, BOUNDARY);
+
+		List<ImdnDocument> imdns = ChatUtils.parseCpimDeliveryReports(multipart,
+				ChatUtils.MULTIPART_MIXED_MIME_TYPE, BOUNDARY);
+		assertEquals(msgIds.length, imdns.size());
+		for (int i = 0; i < msgIds.length; i++) {
+			// The reports are kept in order
+			assertEquals(msgIds[i], imdns.get(i).getMsgId());
+			assertEquals(statuses[i], imdns.get(i).getStatus());
+		}
+	}
+
+	public void testParseSingleReport() {
+		List<ImdnDocument> imdns = ChatUtils.parseCpimDeliveryReports(
+				buildCpim("msg-1", ImdnDocument.DELIVERY_STATUS_DELIVERED), CpimMessage.MIME_TYPE, null);
+		assertEquals(1, imdns.size());
+		assertEquals("msg-1", imdns.get(0).getMsgId());
+		assertEquals(ImdnDocument.DELIVERY_STATUS_DELIVERED, imdns.get(0).getStatus());
+	}
+
+	public void testUnsupportedBatchFallback() throws Exception {
+		// The remote answers 415 to the batch and 200 to the single reports
+		final CountDownLatch sent = new CountDownLatch(4);
+		final List<String> contents = new ArrayList<String>();
+		final List<String> boundaries = new ArrayList<String>();
+		ImdnManager manager = new ImdnManager(null) {
+			int sendSipMessage(String contact, String remoteInstanceId, String content, String boundary) {
+				assertEquals(CONTACT, contact);
+				synchronized(contents) {
+					contents.add(content);
+					boundaries.add(boundary);
+				}
+				sent.countDown();
+				return (boundary != null) ? 415 : 200;
+			}
+		};
+		for (int i = 1; i <= 3; i++) {
+			manager.sendMessageDeliveryStatusImmediately(CONTACT, "msg-" + i,
+					ImdnDocument.DELIVERY_STATUS_DELIVERED, null);
+		}
+		manager.start();
+		try {
+			assertTrue(sent.await(5, TimeUnit.SECONDS));
+		} finally {
+			manager.terminate();
+			manager.join(5000);
+		}
+
+		synchronized(contents) {
+			assertEquals(4, contents.size());
+
+			// The batch is sent first in a single MESSAGE
+			assertNotNull(boundaries.get(0));
+			List<ImdnDocument> imdns = ChatUtils.parseCpimDeliveryReports(contents.get(0),
+					ChatUtils.MULTIPART_MIXED_MIME_TYPE, boundaries.get(0));
+			assertEquals(3, imdns.size());
+
+			// Then each report is sent again on its own
+			for (int i = 1; i <= 3; i++) {
+				assertNull(boundaries.get(i));
+				imdns = ChatUtils.parseCpimDeliveryReports(contents.get(i), CpimMessage.MIME_TYPE, null);
+				assertEquals(1, imdns.size());
+				assertEquals("msg-" + i, imdns.get(0).getMsgId());
+			}
+		}
+	}
+
+	public void testDisplayedReportsNotSentButHistoryUpdated() throws Exception {
+		boolean displayedActivated = RcsSettings.getInstance().isImDisplayedNotificationActivated();
+		RcsSettings.getInstance().setImDisplayedNotificationActivated(false);
+
+		final CountDownLatch updated = new CountDownLatch(1);
+		final List<String> contents = new ArrayList<String>();
+		final List<String> updatedMsgIds = new ArrayList<String>();
+		final List<String> updatedStatuses = new ArrayList<String>();
+		ImdnManager manager = new ImdnManager(null) {
+			int sendSipMessage(String contact, String remoteInstanceId, String content, String boundary) {
+				synchronized(contents) {
+					contents.add(content);
+				}
+				return 200;
+			}
+
+			void updateDeliveryStatus(String[] msgIds, String[] statuses) {
+				synchronized(contents) {
+					for (int i = 0; i < msgIds.length; i++) {
+						updatedMsgIds.add(msgIds[i]);
+						updatedStatuses.add(statuses[i]);
+					}
+				}
+				updated.countDown();
+			}
+		};
+		manager.sendMessageDeliveryStatus(CONTACT, "msg-1", ImdnDocument.DELIVERY_STATUS_DELIVERED);
+		manager.sendMessageDeliveryStatus(CONTACT, "msg-2", ImdnDocument.DELIVERY_STATUS_DISPLAYED);
+		manager.start();
+		try {
+			assertTrue(updated.await(5, TimeUnit.SECONDS));
+		} finally {
+			manager.terminate();
+			manager.join(5000);
+			RcsSettings.getInstance().setImDisplayedNotificationActivated(displayedActivated);
+		}
+
+		synchronized(contents) {
+			// Only the delivered report is sent on the network
+			assertEquals(1, contents.size());
+			List<ImdnDocument> imdns = ChatUtils.parseCpimDeliveryReports(contents.get(0), CpimMessage.MIME_TYPE, null);
+			assertEquals(1, imdns.size());
+			assertEquals("msg-1", imdns.get(0).getMsgId());
+			assertEquals(ImdnDocument.DELIVERY_STATUS_DELIVERED, imdns.get(0).getStatus());
+
+			// Both messages are updated in the history
+			assertEquals(2, updatedMsgIds.size());
+			assertEquals("msg-1", updatedMsgIds.get(0));
+			assertEquals(ImdnDocument.DELIVERY_STATUS_DELIVERED, updatedStatuses.get(0));
+			assertEquals("msg-2", updatedMsgIds.get(1));
+			assertEquals(ImdnDocument.DELIVERY_STATUS_DISPLAYED, updatedStatuses.get(1));
+		}
+	}
+
+	private static String buildCpim(String msgId, String status) {
+		return ChatUtils.buildCpimDeliveryReport(ChatUtils.ANOMYNOUS_URI, ChatUtils.ANOMYNOUS_URI,
+				ChatUtils.buildDeliveryReport(msgId, status));
+	}
+}
@@ -0,0 +1,287 @@
+package com.orangelabs.rcs.core.ims.service.im.filetransfer.http;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import android.test.AndroidTestCase;
+
+import com.orangelabs.rcs.core.content.FileContent;
+import com.orangelabs.rcs.platform.AndroidFactory;
+import com.orangelabs.rcs.provider.settings.RcsSettings;
+import com.orangelabs.rcs.provider.settings.RcsSettingsData;
+
+/**
+ * HTTP upload manager benchmark: sustained upload throughput and memory
+ * of large files sent to a stub HTTP file transfer server on the loopback
+ */
+public class HttpUploadManagerBenchmarkTest extends AndroidTestCase {
+	private static final String HOST = "127.0.0.1";
+
+	/**
+	 * Size of the uploaded file
+	 */
+	private static final int FILE_SIZE = 32 * 1024 * 1024;
+
+	/**
+	 * Number of uploads of the file
+	 */
+	private static final int UPLOADS = 5;
+
+	/**
+	 * Trailer of the multipart body
+	 */
+	private static final String TRAILER = "\r\n--boundary1--";
+
+	private static final String FILE_INFO = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+			"<file xmlns=\"urn:gsma:params:xml:ns:rcs:rcs:fthttp\">\n" +
+			"<file-info type=\"file\">\n" +
+			"<file-size>" + FILE_SIZE + "</file-size>\n" +
+			"<file-name>upload.dat</file-name>\n" +
+			"<content-type>application/octet-stream</content-type>\n" +
+			"<data url=\"https://ftcontentserver.rcs/download?id=001\" until=\"2030-01-01T00:00:00Z\"/>\n" +
+			"</file-info>\n" +
+			"</file>";
+
+	private StubFtServer server;
+
+	private File file;
+
+	private String serverAddr;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		AndroidFactory.setApplicationContext(mContext);
+		RcsSettings.createInstance(mContext);
+		server = new StubFtServer();
+		server.start();
+		serverAddr = RcsSettings.getInstance().readParameter(RcsSettingsData.FT_HTTP_SERVER);
+		RcsSettings.getInstance().writeParameter(RcsSettingsData.FT_HTTP_SERVER,
+				"http://" + HOST + ":" + server.getPort() + "/");
+
+		file = new File(mContext.getCacheDir(), "upload.dat");
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			byte[] data = new byte[64 * 1024];
+			for (int i = 0; i < data.length; i++) {
+				data[i] = (byte)i;
+			}
+			for (int written = 0; written < FILE_SIZE; written += data.length) {
+				out.write(data);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		RcsSettings.getInstance().writeParameter(RcsSettingsData.FT_HTTP_SERVER, serverAddr);
+		server.close();
+		file.delete();
+
+		super.tearDown();
+	}
+
+	public void testSustainedUpload() throws Exception {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+		long maxMemory = memoryBefore;
+		long totalDuration = 0;
+		for (int i = 0; i < UPLOADS; i++) {
+			ProgressListener listener = new ProgressListener();
+			HttpUploadManager manager = new HttpUploadManager(new FileContent(file.getPath(), FILE_SIZE),
+					null, listener);
+			long start = System.nanoTime();
+			byte[] result = manager.uploadFile();
+			long duration = System.nanoTime() - start;
+			totalDuration += duration;
+			maxMemory = Math.max(maxMemory, listener.maxMemory);
+
+			assertNotNull(result);
+			assertEquals(FILE_INFO, new String(result, "UTF-8"));
+			assertTrue(server.lastBodyLength > FILE_SIZE);
+			assertTrue(server.lastBodyComplete);
+			assertEquals(FILE_SIZE, listener.progress);
+			System.out.println("Upload " + (i + 1) + ": " + (FILE_SIZE * 1000L / duration) + " MB/s, "
+					+ listener.progressCount + " progress notifications");
+		}
+		System.out.println(UPLOADS + " uploads of " + (FILE_SIZE / (1024 * 1024)) + " MB: "
+				+ (UPLOADS * (long)FILE_SIZE * 1000L / totalDuration) + " MB/s, heap growth "
+				+ ((maxMemory - memoryBefore) / 1024) + " KB");
+
+		// The body is streamed, not buffered in memory
+		assertTrue("Heap growth " + (maxMemory - memoryBefore), maxMemory - memoryBefore < FILE_SIZE / 4);
+	}
+
+	/**
+	 * Listener recording the progress and the memory used during the upload
+	 */
+	private static class ProgressListener implements HttpUploadTransferEventListener {
+		private long progress = 0;
+
+		private int progressCount = 0;
+
+		private long maxMemory = 0;
+
+		public void httpTransferStarted() {
+		}
+
+		public void httpTransferPaused() {
+		}
+
+		public void httpTransferResumed() {
+		}
+
+		public void httpTransferProgress(long currentSize, long totalSize) {
+			progress = currentSize;
+			if ((progressCount++ % 64) == 0) {
+				Runtime runtime = Runtime.getRuntime();
+				maxMemory = Math.max(maxMemory, runtime.totalMemory() - runtime.freeMemory());
+			}
+		}
+
+		public void uploadStarted() {
+		}
+	}
+
+	/**
+	 * Stub file transfer server: the first POST without body is answered by
+	 * a 204, the multipart POST by the file info
+	 */
+	private static class StubFtServer extends Thread {
+		private ServerSocket serverSocket;
+
+		private volatile long lastBodyLength = 0;
+
+		private volatile boolean lastBodyComplete = false;
+
+		public StubFtServer() throws IOException {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getByName(HOST));
+			setDaemon(true);
+		}
+
+		public int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		public void close() {
+			try {
+				serverSocket.close();
+			} catch(IOException e) {
+				// Nothing to do
+			}
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					final Socket socket = serverSocket.accept();
+					Thread handler = new Thread() {
+						public void run() {
+							handle(socket);
+						}
+					};
+					handler.setDaemon(true);
+					handler.start();
+				}
+			} catch(IOException e) {
+				// Server closed
+			}
+		}
+
+		private void handle(Socket socket) {
+			try {
+				InputStream is = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+				OutputStream os = socket.getOutputStream();
+				while (readLine(is) != null) {
+					long contentLength = 0;
+					boolean multipart = false;
+					String line;
+					while ((line = readLine(is)) != null && (line.length() > 0)) {
+						String header = line.toLowerCase();
+						if (header.startsWith("content-length:")) {
+							contentLength = Long.parseLong(line.substring(15).trim());
+						} else
+						if (header.startsWith("content-type:") && (header.indexOf("multipart") != -1)) {
+							multipart = true;
+						}
+					}
+
+					if (!multipart) {
+						skip(is, contentLength);
+						os.write("HTTP/1.1 204 No Content\r\nContent-Length: 0\r\n\r\n".getBytes());
+						os.flush();
+						continue;
+					}
+
+					// Consume the body, keeping its end
+					byte[] buffer = new byte[64 * 1024];
+					byte[] end = new byte[TRAILER.length()];
+					long read = 0;
+					while (read < contentLength) {
+						int nb = is.read(buffer, 0, (int)Math.min(buffer.length, contentLength - read));
+						if (nb == -1) {
+							throw new IOException("Body truncated");
+						}
+						read += nb;
+						if (nb >= end.length) {
+							System.arraycopy(buffer, nb - end.length, end, 0, end.length);
+						} else {
+							System.arraycopy(end, nb, end, 0, end.length - nb);
+							System.arraycopy(buffer, 0, end, end.length - nb, nb);
+						}
+					}
+					lastBodyLength = read;
+					lastBodyComplete = new String(end, "ISO-8859-1").equals(TRAILER);
+
+					byte[] content = FILE_INFO.getBytes("UTF-8");
+					os.write(("HTTP/1.1 200 OK\r\n" +
+							"Content-Type: application/vnd.gsma.rcs-ft-http+xml\r\n" +
+							"Content-Length: " + content.length + "\r\n\r\n").getBytes());
+					os.write(content);
+					os.flush();
+				}
+			} catch(IOException e) {
+				// Connection closed by the client
+			} finally {
+				try {
+					socket.close();
+				} catch(IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+
+		private static void skip(InputStream is, long length) throws IOException {
+			for (long i = 0; i < length; i++) {
+				if (is.read() == -1) {
+					return;
+				}
+			}
+		}
+
+		private static String readLine(InputStream is) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int ch;
+			while ((ch = is.read()) != -1) {
+				if (ch == '\n') {
+					int length = line.length();
+					if ((length > 0) && (line.charAt(length - 1) == '\r')) {
+						line.setLength(length - 1);
+					}
+					return line.toString();
+				}
+				line.append((char)ch);
+			}
+			return null;
+		}
+	}
+}
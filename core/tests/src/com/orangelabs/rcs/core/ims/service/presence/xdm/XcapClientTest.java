@@ -0,0 +1,307 @@
+package com.orangelabs.rcs.core.ims.service.presence.xdm;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.orangelabs.rcs.core.ims.protocol.http.HttpResponse;
+import com.orangelabs.rcs.platform.network.AndroidNetworkFactory;
+import com.orangelabs.rcs.platform.network.NetworkFactory;
+
+/**
+ * XCAP client tests: keep-alive and pipelined requests against a stub XCAP
+ * server on the loopback, with the requests per second and the round trips
+ * saved compared to one connection per request
+ */
+public class XcapClientTest extends TestCase {
+	private static final String HOST = "127.0.0.1";
+
+	/**
+	 * Number of requests of the throughput runs
+	 */
+	private static final int REQUESTS = 2000;
+
+	/**
+	 * Number of requests pipelined at once
+	 */
+	private static final int PIPELINE = 10;
+
+	/**
+	 * Factory of the connections of the clients, whatever the factory loaded
+	 * by the tests already run
+	 */
+	private NetworkFactory factory = new AndroidNetworkFactory();
+
+	private StubXcapServer server;
+
+	protected void setUp() throws Exception {
+		server = new StubXcapServer();
+		server.start();
+	}
+
+	protected void tearDown() {
+		server.close();
+	}
+
+	public void testKeepAlive() throws IOException {
+		XcapClient client = new XcapClient(HOST, server.getPort(), factory);
+		try {
+			for (int i = 0; i < 3; i++) {
+				HttpResponse response = client.sendRequest(createRequest("/doc-" + i));
+				assertEquals(200, response.getResponseCode());
+				assertEquals("/doc-" + i, new String(response.getContent()));
+			}
+		} finally {
+			client.close();
+		}
+		assertEquals(1, server.connections.get());
+		assertEquals(3, server.requests.get());
+	}
+
+	public void testPipelinedInOrder() throws IOException {
+		XcapClient client = new XcapClient(HOST, server.getPort(), factory);
+		try {
+			HttpResponse[] responses = client.sendRequests(createRequests(5));
+			assertEquals(5, responses.length);
+			for (int i = 0; i < responses.length; i++) {
+				assertEquals(200, responses[i].getResponseCode());
+				assertEquals("/doc-" + i, new String(responses[i].getContent()));
+			}
+		} finally {
+			client.close();
+		}
+		assertEquals(1, server.connections.get());
+	}
+
+	public void testPipelinedServerClose() throws IOException {
+		// The server closes the connection after each two requests: the
+		// unanswered requests are sent again on a new connection
+		server.maxRequests = 2;
+		XcapClient client = new XcapClient(HOST, server.getPort(), factory);
+		try {
+			HttpResponse[] responses = client.sendRequests(createRequests(5));
+			for (int i = 0; i < responses.length; i++) {
+				assertEquals(200, responses[i].getResponseCode());
+				assertEquals("/doc-" + i, new String(responses[i].getContent()));
+			}
+		} finally {
+			client.close();
+		}
+		assertEquals(3, server.connections.get());
+	}
+
+	public void testChunkedResponse() throws IOException {
+		server.chunked = true;
+		XcapClient client = new XcapClient(HOST, server.getPort(), factory);
+		try {
+			HttpResponse[] responses = client.sendRequests(createRequests(2));
+			assertEquals("/doc-0", new String(responses[0].getContent()));
+			assertEquals("/doc-1", new String(responses[1].getContent()));
+		} finally {
+			client.close();
+		}
+		assertEquals(1, server.connections.get());
+	}
+
+	public void testThroughput() throws IOException {
+		// One connection per request, as before the keep-alive
+		long start = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			XcapClient client = new XcapClient(HOST, server.getPort(), factory);
+			try {
+				assertEquals(200, client.sendRequest(createRequest("/doc-" + i)).getResponseCode());
+			} finally {
+				client.close();
+			}
+		}
+		long perRequestDuration = System.nanoTime() - start;
+		int perRequestRoundTrips = server.connections.getAndSet(0) + REQUESTS;
+
+		// Requests on a kept alive connection
+		XcapClient client = new XcapClient(HOST, server.getPort(), factory);
+		start = System.nanoTime();
+		try {
+			for (int i = 0; i < REQUESTS; i++) {
+				assertEquals(200, client.sendRequest(createRequest("/doc-" + i)).getResponseCode());
+			}
+		} finally {
+			client.close();
+		}
+		long keepAliveDuration = System.nanoTime() - start;
+		int keepAliveRoundTrips = server.connections.getAndSet(0) + REQUESTS;
+
+		// Requests pipelined on a kept alive connection
+		client = new XcapClient(HOST, server.getPort(), factory);
+		byte[][] requests = createRequests(PIPELINE);
+		start = System.nanoTime();
+		try {
+			for (int i = 0; i < REQUESTS / PIPELINE; i++) {
+				HttpResponse[] responses = client.sendRequests(requests);
+				assertEquals(200, responses[PIPELINE - 1].getResponseCode());
+			}
+		} finally {
+			client.close();
+		}
+		long pipelinedDuration = System.nanoTime() - start;
+		int pipelinedRoundTrips = server.connections.getAndSet(0) + REQUESTS / PIPELINE;
+
+		System.out.println("One connection per request: " + (REQUESTS * 1000000000L / perRequestDuration)
+				+ " req/s, " + perRequestRoundTrips + " round trips");
+		System.out.println("Keep-alive: " + (REQUESTS * 1000000000L / keepAliveDuration)
+				+ " req/s, " + (perRequestRoundTrips - keepAliveRoundTrips) + " round trips saved");
+		System.out.println("Pipelined by " + PIPELINE + ": " + (REQUESTS * 1000000000L / pipelinedDuration)
+				+ " req/s, " + (perRequestRoundTrips - pipelinedRoundTrips) + " round trips saved");
+		assertEquals(REQUESTS + 1, keepAliveRoundTrips);
+		assertEquals(REQUESTS / PIPELINE + 1, pipelinedRoundTrips);
+	}
+
+	private static byte[][] createRequests(int count) {
+		byte[][] requests = new byte[count][];
+		for (int i = 0; i < count; i++) {
+			requests[i] = createRequest("/doc-" + i);
+		}
+		return requests;
+	}
+
+	private static byte[] createRequest(String uri) {
+		return ("GET " + uri + " HTTP/1.1\r\n" +
+				"Host: " + HOST + "\r\n" +
+				"X-3GPP-Intended-Identity: \"tel:+33612345678\"\r\n" +
+				"Content-Length: 0\r\n" +
+				"\r\n").getBytes();
+	}
+
+	/**
+	 * Stub XCAP server answering each request with its URI
+	 */
+	private static class StubXcapServer extends Thread {
+		private ServerSocket serverSocket;
+
+		private AtomicInteger connections = new AtomicInteger();
+
+		private AtomicInteger requests = new AtomicInteger();
+
+		/**
+		 * Requests answered on a connection before closing it, 0 for no limit
+		 */
+		private volatile int maxRequests = 0;
+
+		private volatile boolean chunked = false;
+
+		public StubXcapServer() throws IOException {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getByName(HOST));
+			setDaemon(true);
+		}
+
+		public int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		public void close() {
+			try {
+				serverSocket.close();
+			} catch(IOException e) {
+				// Nothing to do
+			}
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					final Socket socket = serverSocket.accept();
+					connections.incrementAndGet();
+					Thread handler = new Thread() {
+						public void run() {
+							handle(socket);
+						}
+					};
+					handler.setDaemon(true);
+					handler.start();
+				}
+			} catch(IOException e) {
+				// Server closed
+			}
+		}
+
+		private void handle(Socket socket) {
+			try {
+				socket.setTcpNoDelay(true);
+				InputStream is = new BufferedInputStream(socket.getInputStream());
+				OutputStream os = socket.getOutputStream();
+				int count = 0;
+				String requestLine;
+				while ((requestLine = readLine(is)) != null) {
+					int contentLength = 0;
+					String line;
+					while ((line = readLine(is)) != null && (line.length() > 0)) {
+						if (line.toLowerCase().startsWith("content-length:")) {
+							contentLength = Integer.parseInt(line.substring(15).trim());
+						}
+					}
+					for (int i = 0; i < contentLength; i++) {
+						is.read();
+					}
+					requests.incrementAndGet();
+					count++;
+
+					boolean close = (maxRequests > 0) && (count >= maxRequests);
+					byte[] content = requestLine.split(" ")[1].getBytes();
+					ByteArrayOutputStream response = new ByteArrayOutputStream();
+					response.write(("HTTP/1.1 200 OK\r\n" +
+							"Content-Type: application/xcap-el+xml\r\n" +
+							(close ? "Connection: close\r\n" : "")).getBytes());
+					if (chunked) {
+						response.write(("Transfer-Encoding: chunked\r\n\r\n" +
+								Integer.toHexString(content.length) + "\r\n").getBytes());
+						response.write(content);
+						response.write("\r\n0\r\n\r\n".getBytes());
+					} else {
+						response.write(("Content-Length: " + content.length + "\r\n\r\n").getBytes());
+						response.write(content);
+					}
+					os.write(response.toByteArray());
+					os.flush();
+					if (close) {
+						// Let the client read the response before the end of
+						// the connection
+						socket.shutdownOutput();
+						while (is.read() != -1);
+						break;
+					}
+				}
+			} catch(IOException e) {
+				// Connection closed by the client
+			} finally {
+				try {
+					socket.close();
+				} catch(IOException e) {
+					// Nothing to do
+				}
+			}
+		}
+
+		private static String readLine(InputStream is) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int ch;
+			while ((ch = is.read()) != -1) {
+				if (ch == '\n') {
+					int length = line.length();
+					if ((length > 0) && (line.charAt(length - 1) == '\r')) {
+						line.setLength(length - 1);
+					}
+					return line.toString();
+				}
+				line.append((char)ch);
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.orangelabs.rcs.provider.messaging;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.gsma.services.rcs.chat.ChatLog;
+import com.orangelabs.rcs.core.ims.service.im.chat.imdn.ImdnDocument;
+
+/**
+ * Chat history benchmark: lookups and status updates on a 200,000 messages
+ * history
+ */
+public class ChatHistoryBenchmarkTest extends AndroidTestCase {
+	private static final String TAG = "ChatHistoryBenchmark";
+
+	/**
+	 * Number of messages of the history
+	 */
+	private static final int HISTORY_SIZE = 200000;
+
+	/**
+	 * Number of chats of the history
+	 */
+	private static final int CHATS = 1000;
+
+	/**
+	 * Number of messages inserted per bulk insert
+	 */
+	private static final int INSERT_BATCH = 1000;
+
+	/**
+	 * Number of timed lookups and updates
+	 */
+	private static final int OPERATIONS = 1000;
+
+	/**
+	 * Prefix of the IDs of the benchmark entries
+	 */
+	private static final String PREFIX = "benchmark-";
+
+	private ContentResolver cr;
+
+	private RichMessagingHistory history;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		RichMessagingHistory.createInstance(mContext);
+		history = RichMessagingHistory.getInstance();
+		cr = mContext.getContentResolver();
+		deleteEntries();
+	}
+
+	protected void tearDown() throws Exception {
+		deleteEntries();
+
+		super.tearDown();
+	}
+
+	public void testHistory() {
+		// Fill the history
+		long start = System.currentTimeMillis();
+		ContentValues[] values = new ContentValues[INSERT_BATCH];
+		for (int i = 0; i < HISTORY_SIZE; i += INSERT_BATCH) {
+			for (int j = 0; j < INSERT_BATCH; j++) {
+				values[j] = createMessage(i + j);
+			}
+			assertEquals(INSERT_BATCH, cr.bulkInsert(MessageData.CONTENT_URI, values));
+		}
+		report("Insert of " + HISTORY_SIZE + " messages", start, HISTORY_SIZE);
+
+		// Lookups by chat and message ID
+		start = System.currentTimeMillis();
+		for (int i = 0; i < OPERATIONS; i++) {
+			int index = getIndex(i);
+			assertFalse(history.isNewMessage(getChatId(index), getMsgId(index)));
+		}
+		report("isNewMessage", start, OPERATIONS);
+		assertTrue(history.isNewMessage(getChatId(0), PREFIX + "unknown"));
+
+		// Lookups by message ID and type
+		start = System.currentTimeMillis();
+		for (int i = 0; i < OPERATIONS; i++) {
+			int index = getIndex(i) / 100 * 100;
+			assertEquals(getChatId(index), history.getFileTransferId(getMsgId(index)));
+		}
+		report("getFileTransferId", start, OPERATIONS);
+
+		// Status updates one by one
+		start = System.currentTimeMillis();
+		for (int i = 0; i < OPERATIONS; i++) {
+			history.updateChatMessageDeliveryStatus(getMsgId(getIndex(i)),
+					ImdnDocument.DELIVERY_STATUS_DELIVERED, null);
+		}
+		report("updateChatMessageDeliveryStatus", start, OPERATIONS);
+
+		// Burst of status updates in a single transaction
+		String[] msgIds = new String[OPERATIONS];
+		String[] statuses = new String[OPERATIONS];
+		for (int i = 0; i < OPERATIONS; i++) {
+			msgIds[i] = getMsgId(getIndex(i));
+			statuses[i] = ImdnDocument.DELIVERY_STATUS_DISPLAYED;
+		}
+		start = System.currentTimeMillis();
+		history.updateChatMessagesDeliveryStatus(msgIds, statuses);
+		report("updateChatMessagesDeliveryStatus", start, OPERATIONS);
+		for (int i = 0; i < OPERATIONS; i += 100) {
+			assertEquals(ChatLog.Message.Status.Content.READ, getStatus(msgIds[i]));
+		}
+	}
+
+	private static ContentValues createMessage(int index) {
+		ContentValues values = new ContentValues();
+		values.put(MessageData.KEY_CHAT_ID, getChatId(index));
+		values.put(MessageData.KEY_MSG_ID, getMsgId(index));
+		values.put(MessageData.KEY_CONTACT, getChatId(index));
+		values.put(MessageData.KEY_DIRECTION, ChatLog.Message.Direction.OUTGOING);
+		values.put(MessageData.KEY_CONTENT_TYPE, com.gsma.services.rcs.chat.ChatMessage.MIME_TYPE);
+		values.put(MessageData.KEY_CONTENT, ("Message " + index).getBytes());
+		values.put(MessageData.KEY_STATUS, ChatLog.Message.Status.Content.SENT);
+		values.put(MessageData.KEY_TIMESTAMP, index);
+		values.put(MessageData.KEY_TIMESTAMP_SENT, index);
+		values.put(MessageData.KEY_TIMESTAMP_DELIVERED, 0);
+		values.put(MessageData.KEY_TIMESTAMP_DISPLAYED, 0);
+		if (index % 100 == 0) {
+			// File transfer every 100 messages
+			values.put(MessageData.KEY_TYPE, ChatLog.Message.Type.FILE_TRANSFER);
+			values.put(MessageData.KEY_FT_ID, PREFIX + "ft-" + index);
+		} else {
+			values.put(MessageData.KEY_TYPE, ChatLog.Message.Type.CONTENT);
+		}
+		return values;
+	}
+
+	private static String getChatId(int index) {
+		return PREFIX + "chat-" + (index % CHATS);
+	}
+
+	private static String getMsgId(int index) {
+		return PREFIX + "msg-" + index;
+	}
+
+	/**
+	 * Spread the operations over the whole history
+	 */
+	private static int getIndex(int operation) {
+		return (int)((operation * 7919L) % HISTORY_SIZE);
+	}
+
+	private int getStatus(String msgId) {
+		Cursor cursor = cr.query(MessageData.CONTENT_URI, new String[] { MessageData.KEY_STATUS },
+				MessageData.KEY_MSG_ID + " = ?", new String[] { msgId }, null);
+		try {
+			assertTrue(cursor.moveToFirst());
+			return cursor.getInt(0);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	private void deleteEntries() {
+		cr.delete(MessageData.CONTENT_URI, MessageData.KEY_CHAT_ID + " LIKE ?",
+				new String[] { PREFIX + "%" });
+	}
+
+	private static void report(String operation, long start, int count) {
+		long duration = System.currentTimeMillis() - start;
+		Log.i(TAG, operation + ": " + duration + " ms, " + (duration * 1000 / count) + " us per operation");
+	}
+}
@@ -0,0 +1,192 @@
+package com.orangelabs.rcs.provider.settings;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+/**
+ * RCS settings benchmark: provider queries and time per incoming OPTIONS
+ * with the former query per read and with the snapshot of the parameters,
+ * against a settings provider counting its queries
+ */
+public class RcsSettingsBenchmarkTest extends AndroidTestCase {
+	/**
+	 * Number of incoming OPTIONS
+	 */
+	private static final int OPTIONS = 1000;
+
+	/**
+	 * Settings read when an OPTIONS is answered, i.e. the supported feature
+	 * tags, then the SDP and the capabilities of the remote
+	 */
+	private static final String[] OPTIONS_KEYS = {
+		RcsSettingsData.CAPABILITY_VIDEO_SHARING,
+		RcsSettingsData.CAPABILITY_IM_SESSION,
+		RcsSettingsData.CAPABILITY_FILE_TRANSFER,
+		RcsSettingsData.CAPABILITY_FILE_TRANSFER_HTTP,
+		RcsSettingsData.CAPABILITY_IMAGE_SHARING,
+		RcsSettingsData.CAPABILITY_PRESENCE_DISCOVERY,
+		RcsSettingsData.CAPABILITY_SOCIAL_PRESENCE,
+		RcsSettingsData.CAPABILITY_GEOLOCATION_PUSH,
+		RcsSettingsData.CAPABILITY_FILE_TRANSFER_THUMBNAIL,
+		RcsSettingsData.CAPABILITY_FILE_TRANSFER_SF,
+		RcsSettingsData.CAPABILITY_GROUP_CHAT_SF,
+		RcsSettingsData.CAPABILITY_IP_VOICE_CALL,
+		RcsSettingsData.CAPABILITY_IP_VIDEO_CALL,
+		RcsSettingsData.CAPABILITY_SIP_AUTOMATA,
+		RcsSettingsData.CAPABILITY_RCS_EXTENSIONS,
+		RcsSettingsData.CAPABILITY_VIDEO_SHARING,
+		RcsSettingsData.CAPABILITY_IMAGE_SHARING,
+		RcsSettingsData.CAPABILITY_GEOLOCATION_PUSH
+	};
+
+	private Context context;
+
+	private CountingProvider provider;
+
+	private RcsSettings settings;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		// The getters check that the settings have been created
+		RcsSettings.createInstance(mContext);
+
+		final MockContentResolver resolver = new MockContentResolver();
+		context = new RenamingDelegatingContext(mContext, "benchmark.") {
+			public ContentResolver getContentResolver() {
+				return resolver;
+			}
+		};
+		provider = new CountingProvider();
+		provider.attachInfo(context, null);
+		resolver.addProvider(RcsSettingsData.CONTENT_URI.getAuthority(), provider);
+		settings = new RcsSettings(context);
+	}
+
+	protected void tearDown() throws Exception {
+		context.deleteDatabase(RcsSettingsProvider.DATABASE_NAME);
+
+		super.tearDown();
+	}
+
+	public void testQueriesPerOptions() {
+		// Before: each read queries the provider for its key
+		provider.queries.set(0);
+		long start = System.nanoTime();
+		int before = answerOptionsPerKey();
+		long beforeDuration = System.nanoTime() - start;
+		int beforeQueries = provider.queries.get();
+
+		// After: the parameters are loaded once
+		provider.queries.set(0);
+		start = System.nanoTime();
+		int after = answerOptions();
+		long afterDuration = System.nanoTime() - start;
+		int afterQueries = provider.queries.get();
+
+		System.out.println("Query per read: " + ((float)beforeQueries / OPTIONS) + " queries and "
+				+ (beforeDuration / OPTIONS / 1000) + " us per OPTIONS");
+		System.out.println("With snapshot: " + ((float)afterQueries / OPTIONS) + " queries and "
+				+ (afterDuration / OPTIONS / 1000) + " us per OPTIONS");
+		assertEquals(before, after);
+		assertEquals(OPTIONS * OPTIONS_KEYS.length, beforeQueries);
+		assertEquals(1, afterQueries);
+	}
+
+	public void testWriteThrough() {
+		String value = settings.readParameter(RcsSettingsData.IM_REPORTS_BATCH_WINDOW);
+		provider.queries.set(0);
+		try {
+			settings.writeParameter(RcsSettingsData.IM_REPORTS_BATCH_WINDOW, "1234");
+			assertEquals("1234", settings.readParameter(RcsSettingsData.IM_REPORTS_BATCH_WINDOW));
+			assertEquals(0, provider.queries.get());
+		} finally {
+			settings.writeParameter(RcsSettingsData.IM_REPORTS_BATCH_WINDOW, value);
+		}
+	}
+
+	/**
+	 * Read the settings read when an OPTIONS is answered, i.e. the supported
+	 * feature tags, the SDP and the capabilities of the remote
+	 *
+	 * @return Supported features, so that the reads are not optimized out
+	 */
+	private int answerOptions() {
+		int features = 0;
+		for (int i = 0; i < OPTIONS; i++) {
+			features = 0;
+			features += settings.isVideoSharingSupported() ? 1 : 0;
+			features += settings.isImSessionSupported() ? 1 : 0;
+			features += settings.isFileTransferSupported() ? 1 : 0;
+			features += settings.isFileTransferHttpSupported() ? 1 : 0;
+			features += settings.isImageSharingSupported() ? 1 : 0;
+			features += settings.isPresenceDiscoverySupported() ? 1 : 0;
+			features += settings.isSocialPresenceSupported() ? 1 : 0;
+			features += settings.isGeoLocationPushSupported() ? 1 : 0;
+			features += settings.isFileTransferThumbnailSupported() ? 1 : 0;
+			features += settings.isFileTransferStoreForwardSupported() ? 1 : 0;
+			features += settings.isGroupChatStoreForwardSupported() ? 1 : 0;
+			features += settings.isIPVoiceCallSupported() ? 1 : 0;
+			features += settings.isIPVideoCallSupported() ? 1 : 0;
+			features += settings.isSipAutomata() ? 1 : 0;
+			features += (settings.getSupportedRcsExtensions() != null) ? 1 : 0;
+
+			// SDP of the answer and capabilities of the remote
+			features += settings.isVideoSharingSupported() ? 1 : 0;
+			features += settings.isImageSharingSupported() ? 1 : 0;
+			features += settings.isGeoLocationPushSupported() ? 1 : 0;
+		}
+		return features;
+	}
+
+	/**
+	 * Read the settings read when an OPTIONS is answered as before the
+	 * snapshot, i.e. with a query per read selecting its key
+	 *
+	 * @return Supported features, so that the reads are not optimized out
+	 */
+	private int answerOptionsPerKey() {
+		ContentResolver cr = context.getContentResolver();
+		int features = 0;
+		for (int i = 0; i < OPTIONS; i++) {
+			features = 0;
+			for (int j = 0; j < OPTIONS_KEYS.length; j++) {
+				String key = OPTIONS_KEYS[j];
+				String value = null;
+				Cursor c = cr.query(RcsSettingsData.CONTENT_URI, null,
+						RcsSettingsData.KEY_KEY + "='" + key + "'", null, null);
+				if (c != null) {
+					if ((c.getCount() > 0) && c.moveToFirst()) {
+						value = c.getString(2);
+					}
+					c.close();
+				}
+				if (key.equals(RcsSettingsData.CAPABILITY_RCS_EXTENSIONS)) {
+					features += (value != null) ? 1 : 0;
+				} else {
+					features += Boolean.parseBoolean(value) ? 1 : 0;
+				}
+			}
+		}
+		return features;
+	}
+
+	/**
+	 * Settings provider counting its queries
+	 */
+	private static class CountingProvider extends RcsSettingsProvider {
+		private AtomicInteger queries = new AtomicInteger();
+
+		public Cursor query(Uri uri, String[] projectionIn, String selection, String[] selectionArgs, String sort) {
+			queries.incrementAndGet();
+			return super.query(uri, projectionIn, selection, selectionArgs, sort);
+		}
+	}
+}
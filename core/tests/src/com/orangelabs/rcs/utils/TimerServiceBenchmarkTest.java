@@ -0,0 +1,138 @@
+package com.orangelabs.rcs.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.SystemClock;
+
+import junit.framework.TestCase;
+
+/**
+ * Timer service benchmark: cost of scheduling and cancelling 10,000 timers,
+ * expiry drift and threads used, and isolation of the blocking tasks
+ */
+public class TimerServiceBenchmarkTest extends TestCase {
+	/**
+	 * Number of timers
+	 */
+	private static final int TIMERS = 10000;
+
+	/**
+	 * Spread of the timer delays (in milliseconds)
+	 */
+	private static final long SPREAD = 5000;
+
+	/**
+	 * Tick of the wheel (in milliseconds)
+	 */
+	private static final long TICK = 1000;
+
+	public void testTenThousandTimers() throws Exception {
+		TimerService service = TimerService.getInstance();
+		int threadsBefore = Thread.activeCount();
+		Runtime runtime = Runtime.getRuntime();
+		runtime.gc();
+		long memoryBefore = runtime.totalMemory() - runtime.freeMemory();
+
+		// Schedule the timers, one of two being cancelled before its expiry
+		final CountDownLatch expired = new CountDownLatch(TIMERS / 2);
+		final AtomicLong totalDrift = new AtomicLong();
+		final AtomicLong maxDrift = new AtomicLong();
+		TimerService.Timeout[] timeouts = new TimerService.Timeout[TIMERS];
+		long start = System.nanoTime();
+		for (int i = 0; i < TIMERS; i++) {
+			final long delay = 1000 + (i * SPREAD / TIMERS);
+			final long deadline = SystemClock.elapsedRealtime() + delay;
+			timeouts[i] = service.schedule(new Runnable() {
+				public void run() {
+					long drift = SystemClock.elapsedRealtime() - deadline;
+					totalDrift.addAndGet(drift);
+					long max;
+					while ((max = maxDrift.get()) < drift) {
+						if (maxDrift.compareAndSet(max, drift)) {
+							break;
+						}
+					}
+					expired.countDown();
+				}
+			}, delay);
+		}
+		long scheduleDuration = System.nanoTime() - start;
+		long memoryAfter = runtime.totalMemory() - runtime.freeMemory();
+
+		start = System.nanoTime();
+		for (int i = 1; i < TIMERS; i += 2) {
+			assertTrue(timeouts[i].cancel());
+		}
+		long cancelDuration = System.nanoTime() - start;
+
+		int peakThreads = Thread.activeCount();
+		while (!expired.await(100, TimeUnit.MILLISECONDS)) {
+			peakThreads = Math.max(peakThreads, Thread.activeCount());
+		}
+		for (int i = 0; i < TIMERS; i++) {
+			assertFalse(timeouts[i].isScheduled());
+		}
+
+		System.out.println(TIMERS + " timers: "
+				+ (scheduleDuration / TIMERS) + " ns per schedule, "
+				+ (cancelDuration * 2 / TIMERS) + " ns per cancel, "
+				+ ((memoryAfter - memoryBefore) / TIMERS) + " bytes per timer");
+		System.out.println("Expiry drift: average " + (totalDrift.get() * 2 / TIMERS)
+				+ " ms, max " + maxDrift.get() + " ms");
+		System.out.println("Threads: " + threadsBefore + " before, " + peakThreads + " peak");
+
+		// A timer expires at most one tick after its deadline
+		assertTrue("Max drift " + maxDrift.get() + " ms", maxDrift.get() <= 2 * TICK);
+	}
+
+	public void testBlockingTasksDoNotDelayTimers() throws Exception {
+		TimerService service = TimerService.getInstance();
+
+		// More blocking refreshes than threads of the pool, each waiting for a
+		// response which never comes
+		final CountDownLatch response = new CountDownLatch(1);
+		final int blockingTasks = 8;
+		final CountDownLatch blocked = new CountDownLatch(blockingTasks);
+		for (int i = 0; i < blockingTasks; i++) {
+			service.scheduleBlocking(new Runnable() {
+				public void run() {
+					blocked.countDown();
+					try {
+						response.await();
+					} catch(InterruptedException e) {
+						// Nothing to do
+					}
+				}
+			}, 0);
+		}
+		try {
+			assertTrue(blocked.await(3 * TICK, TimeUnit.MILLISECONDS));
+
+			// A registration refresh scheduled after them still runs in time
+			final CountDownLatch refreshed = new CountDownLatch(1);
+			final long deadline = SystemClock.elapsedRealtime() + TICK;
+			service.scheduleBlocking(new Runnable() {
+				public void run() {
+					refreshed.countDown();
+				}
+			}, TICK);
+
+			// And so does a non blocking timer
+			final CountDownLatch fired = new CountDownLatch(1);
+			service.schedule(new Runnable() {
+				public void run() {
+					fired.countDown();
+				}
+			}, TICK);
+
+			assertTrue(refreshed.await(3 * TICK, TimeUnit.MILLISECONDS));
+			assertTrue(fired.await(3 * TICK, TimeUnit.MILLISECONDS));
+			System.out.println("Refresh behind " + blockingTasks + " blocked tasks run "
+					+ (SystemClock.elapsedRealtime() - deadline) + " ms after its deadline");
+		} finally {
+			response.countDown();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package gov2.nist.javax2.sip.message;
+
+import gov2.nist.core.GrowableByteBuffer;
+import gov2.nist.javax2.sip.parser.StringMsgParser;
+
+import junit.framework.TestCase;
+
+/**
+ * SIP message encoding tests: reuse of the encoding buffer of the sending
+ * thread
+ */
+public class EncodingBufferTest extends TestCase {
+	private static final String MESSAGE =
+			"MESSAGE sip:bob@biloxi.example.com SIP/2.0\r\n" +
+			"Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n" +
+			"Max-Forwards: 70\r\n" +
+			"To: <sip:bob@biloxi.example.com>\r\n" +
+			"From: <sip:alice@atlanta.example.com>;tag=1928301774\r\n" +
+			"Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n" +
+			"CSeq: 1 MESSAGE\r\n" +
+			"Content-Type: text/plain\r\n" +
+			"Content-Length: 5\r\n" +
+			"\r\n" +
+			"Hello";
+
+	private static final String RESPONSE =
+			"SIP/2.0 200 OK\r\n" +
+			"Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n" +
+			"To: <sip:bob@biloxi.example.com>;tag=a6c85cf\r\n" +
+			"From: <sip:alice@atlanta.example.com>;tag=1928301774\r\n" +
+			"Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n" +
+			"CSeq: 1 MESSAGE\r\n" +
+			"Content-Length: 0\r\n" +
+			"\r\n";
+
+	public void testBufferReused() throws Exception {
+		SIPMessage request = parse(MESSAGE);
+		SIPMessage response = parse(RESPONSE);
+
+		GrowableByteBuffer buffer = SIPMessage.getEncodingBuffer();
+		request.encodeAsBytes("UDP", buffer);
+		assertEquals(request.encode(), new String(buffer.getByteBuffer().array(), 0, buffer.length()));
+
+		// The next encoding of the thread starts from the same, cleared, buffer
+		assertSame(buffer, SIPMessage.getEncodingBuffer());
+		assertEquals(0, buffer.length());
+		byte[] bytes = response.encodeAsBytes("UDP");
+		assertEquals(response.encode(), new String(bytes));
+		assertSame(buffer, SIPMessage.getEncodingBuffer());
+
+		// The returned array is a copy which is not overwritten
+		request.encodeAsBytes("UDP");
+		assertEquals(response.encode(), new String(bytes));
+	}
+
+	public void testBufferPerThread() throws Exception {
+		final GrowableByteBuffer[] other = new GrowableByteBuffer[1];
+		Thread thread = new Thread() {
+			public void run() {
+				other[0] = SIPMessage.getEncodingBuffer();
+			}
+		};
+		thread.start();
+		thread.join();
+		assertNotNull(other[0]);
+		assertNotSame(other[0], SIPMessage.getEncodingBuffer());
+	}
+
+	public void testLargeBufferReleased() throws Exception {
+		// An unusually large message doesn't keep its buffer in the thread
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			body.append('x');
+		}
+		SIPMessage large = parse(MESSAGE.replace("Content-Length: 5", "Content-Length: " + (body.length() + 5))
+				+ body);
+		GrowableByteBuffer buffer = SIPMessage.getEncodingBuffer();
+		large.encodeAsBytes("UDP", buffer);
+		assertNotSame(buffer, SIPMessage.getEncodingBuffer());
+	}
+
+	private static SIPMessage parse(String message) throws Exception {
+		return new StringMsgParser().parseSIPMessage(message.getBytes());
+	}
+}
@@ -0,0 +1,187 @@
+package gov2.nist.javax2.sip.message;
+
+import gov2.nist.javax2.sip.header.SIPHeader;
+import gov2.nist.javax2.sip.parser.StringMsgParser;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * Lazy SIP header parsing tests
+ */
+public class LazyHeaderParsingTest extends TestCase {
+	private static final String INVITE =
+			"INVITE sip:bob@biloxi.example.com SIP/2.0\r\n" +
+			"Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n" +
+			"Max-Forwards: 70\r\n" +
+			"To: <sip:bob@biloxi.example.com>\r\n" +
+			"From: <sip:alice@atlanta.example.com>;tag=1928301774\r\n" +
+			"Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n" +
+			"CSeq: 314159 INVITE\r\n" +
+			"Subject: lunch\r\n" +
+			" tomorrow\r\n" +
+			"Contact: <sip:alice@pc33.atlanta.example.com>\r\n" +
+			"Allow: INVITE, ACK\r\n" +
+			"Accept-Contact: *;+g.oma.sip-im\r\n" +
+			"Allow: BYE\r\n" +
+			"User-Agent: test\r\n" +
+			"Content-Length: 0\r\n" +
+			"\r\n";
+
+	/**
+	 * Encoding of the message before any header access: the non core headers
+	 * are copied as received, the folded lines being unfolded
+	 */
+	private static final String INVITE_RAW_ENCODING =
+			"INVITE sip:bob@biloxi.example.com SIP/2.0\r\n" +
+			"Via: SIP/2.0/UDP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n" +
+			"Max-Forwards: 70\r\n" +
+			"To: <sip:bob@biloxi.example.com>\r\n" +
+			"From: <sip:alice@atlanta.example.com>;tag=1928301774\r\n" +
+			"Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n" +
+			"CSeq: 314159 INVITE\r\n" +
+			"Subject: lunchtomorrow\r\n" +
+			"Contact: <sip:alice@pc33.atlanta.example.com>\r\n" +
+			"Allow: INVITE, ACK\r\n" +
+			"Allow: BYE\r\n" +
+			"Accept-Contact: *;+g.oma.sip-im\r\n" +
+			"User-Agent: test\r\n" +
+			"Content-Length: 0\r\n" +
+			"\r\n";
+
+	protected void setUp() {
+		StringMsgParser.setLazyHeaderParsing(false);
+	}
+
+	protected void tearDown() {
+		StringMsgParser.setLazyHeaderParsing(false);
+	}
+
+	public void testRoundTrip() throws Exception {
+		SIPMessage bytesMessage = parseLazy(INVITE.getBytes());
+		assertEquals(INVITE_RAW_ENCODING, bytesMessage.encode());
+		assertEquals(INVITE_RAW_ENCODING, new String(bytesMessage.encodeAsBytes("UDP")));
+
+		SIPMessage stringMessage = parseLazy(INVITE);
+		assertEquals(INVITE_RAW_ENCODING, stringMessage.encode());
+		assertEquals(INVITE_RAW_ENCODING, new String(stringMessage.encodeAsBytes("UDP")));
+
+		// Once parsed, the headers encode as with the eager parser
+		stringMessage.getHeaders();
+		assertEquals(parse(INVITE.getBytes()).encode(), stringMessage.encode());
+	}
+
+	public void testFoldedHeader() throws Exception {
+		SIPMessage eager = parse(INVITE.getBytes());
+		SIPMessage lazy = parseLazy(INVITE.getBytes());
+		assertEquals(eager.getHeader("Subject").toString(), lazy.getHeader("Subject").toString());
+		assertEquals("Subject: lunchtomorrow\r\n", lazy.getHeader("Subject").toString());
+	}
+
+	public void testHeaderOrderAfterAccess() throws Exception {
+		String eager = parse(INVITE.getBytes()).encode();
+
+		SIPMessage lazy = parseLazy(INVITE.getBytes());
+		assertNotNull(lazy.getHeader("Allow"));
+		assertNotNull(lazy.getHeader("Subject"));
+		assertEquals(eager, lazy.encode());
+
+		SIPMessage parsed = parseLazy(INVITE);
+		Iterator<SIPHeader> eagerHeaders = parse(INVITE.getBytes()).getHeaders();
+		Iterator<SIPHeader> lazyHeaders = parsed.getHeaders();
+		while (eagerHeaders.hasNext()) {
+			assertEquals(eagerHeaders.next().getName(), lazyHeaders.next().getName());
+		}
+		assertFalse(lazyHeaders.hasNext());
+	}
+
+	public void testReceivedBufferNotRetained() throws Exception {
+		byte[] buffer = INVITE.getBytes();
+		SIPMessage lazy = parseLazy(buffer);
+		Arrays.fill(buffer, (byte)'x');
+		assertEquals(INVITE_RAW_ENCODING, lazy.encode());
+		assertEquals("Allow: INVITE\r\n", lazy.getHeader("Allow").toString());
+		assertTrue(lazy.encode().indexOf("Allow: INVITE,ACK,BYE\r\n") > 0);
+	}
+
+	public void testReplacedRawHeaderNotParsed() throws Exception {
+		SIPMessage lazy = parseLazy(INVITE.getBytes());
+		SIPHeader userAgent = (SIPHeader)new StringMsgParser().parseSIPHeader("User-Agent: other\r\n");
+		lazy.setHeader(userAgent);
+		assertEquals("User-Agent: other\r\n", lazy.getHeader("User-Agent").toString());
+	}
+
+	public void testConcurrentAccess() throws Exception {
+		final String[] names = { "Subject", "Allow", "Accept-Contact", "User-Agent" };
+		final String eager = parse(INVITE.getBytes()).encode();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		for (int i = 0; i < 1000; i++) {
+			final SIPMessage lazy = parseLazy(INVITE.getBytes());
+			final CountDownLatch go = new CountDownLatch(1);
+			Thread[] threads = new Thread[names.length + 1];
+			for (int j = 0; j < names.length; j++) {
+				final String name = names[j];
+				threads[j] = new Thread() {
+					public void run() {
+						await(go);
+						if (lazy.getHeader(name) == null) {
+							failure.compareAndSet(null, new AssertionError(name + " absent"));
+						}
+					}
+				};
+			}
+			threads[names.length] = new Thread() {
+				public void run() {
+					await(go);
+					try {
+						// Each header is encoded once, raw or parsed
+						String encoding = lazy.encode();
+						if (encoding.indexOf("User-Agent") != encoding.lastIndexOf("User-Agent")) {
+							failure.compareAndSet(null, new AssertionError(encoding));
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			go.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			if (failure.get() != null) {
+				throw new AssertionError(failure.get());
+			}
+			assertEquals(eager, lazy.encode());
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			// Nothing to do
+		}
+	}
+
+	private static SIPMessage parse(byte[] buffer) throws Exception {
+		StringMsgParser.setLazyHeaderParsing(false);
+		return new StringMsgParser().parseSIPMessage(buffer);
+	}
+
+	private static SIPMessage parseLazy(byte[] buffer) throws Exception {
+		StringMsgParser.setLazyHeaderParsing(true);
+		return new StringMsgParser().parseSIPMessage(buffer);
+	}
+
+	private static SIPMessage parseLazy(String message) throws Exception {
+		StringMsgParser.setLazyHeaderParsing(true);
+		return new StringMsgParser().parseSIPMessage(message);
+	}
+}
@@ -0,0 +1,193 @@
+package gov2.nist.javax2.sip.parser;
+
+import gov2.nist.javax2.sip.message.SIPMessage;
+
+import android.os.Debug;
+
+import junit.framework.TestCase;
+
+/**
+ * SIP message parser benchmark: throughput and allocations of the eager and
+ * lazy header parsing on IMS messages
+ */
+public class StringMsgParserBenchmarkTest extends TestCase {
+	/**
+	 * 200 OK of a REGISTER
+	 */
+	private static final String REGISTER_200_OK =
+			"SIP/2.0 200 OK\r\n" +
+			"Via: SIP/2.0/TCP 10.10.1.20:5060;branch=z9hG4bK1bc2a39c2d5a8b8a7e2b3c4f;received=10.10.1.20;rport=5060\r\n" +
+			"From: <sip:+33612345678@ims.mnc001.mcc208.3gppnetwork.org>;tag=9a3f1c2e\r\n" +
+			"To: <sip:+33612345678@ims.mnc001.mcc208.3gppnetwork.org>;tag=as5f9e8d7c\r\n" +
+			"Call-ID: 5b7a9c3e1f2d4a6b8c0e@10.10.1.20\r\n" +
+			"CSeq: 2 REGISTER\r\n" +
+			"Contact: <sip:+33612345678@10.10.1.20:5060;transport=tcp>;expires=600000;+g.oma.sip-im;+g.3gpp.iari-ref=\"urn%3Aurn-7%3A3gpp-application.ims.iari.rcse.ft,urn%3Aurn-7%3A3gpp-application.ims.iari.rcs.geopush\";+g.3gpp.icsi-ref=\"urn%3Aurn-7%3A3gpp-service.ims.icsi.oma.cpm.session\";+sip.instance=\"<urn:gsma:imei:35824005-944763-1>\"\r\n" +
+			"Path: <sip:term@pcscf1.ims.mnc001.mcc208.3gppnetwork.org;lr>\r\n" +
+			"Service-Route: <sip:orig@scscf1.ims.mnc001.mcc208.3gppnetwork.org:6060;lr>\r\n" +
+			"P-Associated-URI: <sip:+33612345678@ims.mnc001.mcc208.3gppnetwork.org>, <tel:+33612345678>\r\n" +
+			"P-Charging-Function-Addresses: ccf=\"aaa://ccf.ims.mnc001.mcc208.3gppnetwork.org\";ecf=\"aaa://ecf.ims.mnc001.mcc208.3gppnetwork.org\"\r\n" +
+			"Allow: INVITE, ACK, CANCEL, BYE, PRACK, UPDATE, REFER, MESSAGE, OPTIONS, NOTIFY, SUBSCRIBE, INFO\r\n" +
+			"Supported: path, gruu, outbound\r\n" +
+			"Date: Sun, 18 Oct 2026 10:12:45 GMT\r\n" +
+			"Server: IMS-CSCF/4.2\r\n" +
+			"Content-Length: 0\r\n" +
+			"\r\n";
+
+	/**
+	 * Chat INVITE with an MSRP SDP offer
+	 */
+	private static final String INVITE;
+
+	static {
+		String sdp = "v=0\r\n" +
+				"o=- 3595628356 3595628356 IN IP4 10.10.1.20\r\n" +
+				"s=-\r\n" +
+				"c=IN IP4 10.10.1.20\r\n" +
+				"t=0 0\r\n" +
+				"m=message 20000 TCP/MSRP *\r\n" +
+				"a=accept-types:message/cpim application/im-iscomposing+xml\r\n" +
+				"a=accept-wrapped-types:text/plain message/imdn+xml application/vnd.gsma.rcs-ft-http+xml\r\n" +
+				"a=setup:active\r\n" +
+				"a=path:msrp://10.10.1.20:20000/1392135626325;tcp\r\n" +
+				"a=sendrecv\r\n";
+		INVITE = "INVITE sip:+33687654321@ims.mnc001.mcc208.3gppnetwork.org SIP/2.0\r\n" +
+				"Via: SIP/2.0/TCP 10.10.1.30:5060;branch=z9hG4bK7c2e9d1a3b5f;rport\r\n" +
+				"Via: SIP/2.0/TCP 10.10.2.1:6060;branch=z9hG4bK0a1b2c3d4e5f;received=10.10.2.1\r\n" +
+				"Max-Forwards: 66\r\n" +
+				"Record-Route: <sip:10.10.1.30:5060;transport=tcp;lr>\r\n" +
+				"Record-Route: <sip:10.10.2.1:6060;lr>\r\n" +
+				"From: <sip:+33612345678@ims.mnc001.mcc208.3gppnetwork.org>;tag=1e9c4f7a\r\n" +
+				"To: <sip:+33687654321@ims.mnc001.mcc208.3gppnetwork.org>\r\n" +
+				"Call-ID: 3f8d2a6c9e1b4d7a0c5e@10.10.1.20\r\n" +
+				"CSeq: 1 INVITE\r\n" +
+				"Contact: <sip:+33612345678@10.10.1.20:5060;transport=tcp>;+g.oma.sip-im;+sip.instance=\"<urn:gsma:imei:35824005-944763-1>\"\r\n" +
+				"Accept-Contact: *;+g.oma.sip-im\r\n" +
+				"P-Asserted-Identity: <sip:+33612345678@ims.mnc001.mcc208.3gppnetwork.org>\r\n" +
+				"P-Asserted-Identity: <tel:+33612345678>\r\n" +
+				"Contribution-ID: 6f0c8a2b4d6e8f0a2c4e6a8b0d2f4a6c\r\n" +
+				"Subject: Hello\r\n" +
+				"Allow: INVITE, ACK, CANCEL, BYE, PRACK, UPDATE, REFER, MESSAGE, OPTIONS, NOTIFY\r\n" +
+				"Supported: timer\r\n" +
+				"Session-Expires: 1800\r\n" +
+				"User-Agent: IM-client/OMA1.0 RCS-client/1.0\r\n" +
+				"P-Charging-Vector: icid-value=\"1c2d3e4f5a6b7c8d\";orig-ioi=ims.mnc001.mcc208.3gppnetwork.org\r\n" +
+				"Content-Type: application/sdp\r\n" +
+				"Content-Length: " + sdp.length() + "\r\n" +
+				"\r\n" +
+				sdp;
+	}
+
+	/**
+	 * NOTIFY of a conference-info event
+	 */
+	private static final String NOTIFY;
+
+	static {
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\r\n" +
+				"<conference-info xmlns=\"urn:ietf:params:xml:ns:conference-info\" entity=\"sip:conf-1@conf.ims.mnc001.mcc208.3gppnetwork.org\" state=\"partial\" version=\"3\">\r\n" +
+				"<users>\r\n" +
+				"<user entity=\"tel:+33612345678\" state=\"full\"><display-text>Alice</display-text>" +
+				"<endpoint entity=\"tel:+33612345678\"><status>connected</status></endpoint></user>\r\n" +
+				"<user entity=\"tel:+33687654321\" state=\"full\"><display-text>Bob</display-text>" +
+				"<endpoint entity=\"tel:+33687654321\"><status>disconnected</status>" +
+				"<disconnection-method>departed</disconnection-method></endpoint></user>\r\n" +
+				"</users>\r\n" +
+				"</conference-info>\r\n";
+		NOTIFY = "NOTIFY sip:+33612345678@10.10.1.20:5060;transport=tcp SIP/2.0\r\n" +
+				"Via: SIP/2.0/TCP 10.10.1.30:5060;branch=z9hG4bK4e6f8a0b2c4d;rport\r\n" +
+				"Max-Forwards: 69\r\n" +
+				"Record-Route: <sip:10.10.1.30:5060;transport=tcp;lr>\r\n" +
+				"From: <sip:conf-1@conf.ims.mnc001.mcc208.3gppnetwork.org>;tag=c0nf5e55\r\n" +
+				"To: <sip:+33612345678@ims.mnc001.mcc208.3gppnetwork.org>;tag=7b3d9f1e\r\n" +
+				"Call-ID: 8a6c4e2f0b9d7a5c3e1f@10.10.1.20\r\n" +
+				"CSeq: 4 NOTIFY\r\n" +
+				"Contact: <sip:conf-1@10.10.3.5:5060;transport=tcp>;isfocus\r\n" +
+				"Event: conference\r\n" +
+				"Subscription-State: active;expires=3500\r\n" +
+				"Allow-Events: conference\r\n" +
+				"User-Agent: Conference-Server/2.1\r\n" +
+				"Content-Type: application/conference-info+xml\r\n" +
+				"Content-Length: " + xml.length() + "\r\n" +
+				"\r\n" +
+				xml;
+	}
+
+	/**
+	 * Number of messages parsed per run
+	 */
+	private static final int MESSAGES = 20000;
+
+	/**
+	 * Number of messages whose allocations are counted
+	 */
+	private static final int COUNTED_MESSAGES = 1000;
+
+	/**
+	 * Number of runs before the timed one
+	 */
+	private static final int WARM_UP_RUNS = 2;
+
+	protected void tearDown() {
+		StringMsgParser.setLazyHeaderParsing(false);
+	}
+
+	public void testRegister200OK() throws Exception {
+		// The registration reads the Service-Route and P-Associated-URI
+		benchmark("REGISTER 200 OK", REGISTER_200_OK, new String[] {
+				"Service-Route", "P-Associated-URI" });
+	}
+
+	public void testInvite() throws Exception {
+		// The chat service reads the feature tags, the asserted identity and the
+		// contribution ID
+		benchmark("INVITE", INVITE, new String[] {
+				"Accept-Contact", "P-Asserted-Identity", "Contribution-ID", "Subject" });
+	}
+
+	public void testConferenceNotify() throws Exception {
+		// The conference event subscription reads the subscription state
+		benchmark("NOTIFY conference-info", NOTIFY, new String[] {
+				"Subscription-State" });
+	}
+
+	private void benchmark(String name, String message, String[] accessed) throws Exception {
+		byte[] buffer = message.getBytes();
+		for (int i = 0; i < WARM_UP_RUNS; i++) {
+			parse(buffer, accessed, false, MESSAGES);
+			parse(buffer, accessed, true, MESSAGES);
+		}
+		report(name, "Eager", buffer, accessed, false);
+		report(name, "Lazy", buffer, accessed, true);
+	}
+
+	private static void report(String name, String mode, byte[] buffer, String[] accessed,
+			boolean lazy) throws Exception {
+		long start = System.nanoTime();
+		parse(buffer, accessed, lazy, MESSAGES);
+		long duration = System.nanoTime() - start;
+
+		Debug.startAllocCounting();
+		try {
+			Debug.resetThreadAllocCount();
+			parse(buffer, accessed, lazy, COUNTED_MESSAGES);
+			long bytes = Debug.getThreadAllocSize();
+			System.out.println(mode + " parsing of " + name + ": "
+					+ (MESSAGES * 1000000000L / duration) + " msgs/s, "
+					+ (bytes / COUNTED_MESSAGES) + " bytes allocated per message");
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	private static void parse(byte[] buffer, String[] accessed, boolean lazy, int count)
+			throws Exception {
+		StringMsgParser.setLazyHeaderParsing(lazy);
+		StringMsgParser parser = new StringMsgParser();
+		for (int i = 0; i < count; i++) {
+			SIPMessage message = parser.parseSIPMessage(buffer);
+			for (int j = 0; j < accessed.length; j++) {
+				assertNotNull(accessed[j], message.getHeader(accessed[j]));
+			}
+		}
+	}
+}
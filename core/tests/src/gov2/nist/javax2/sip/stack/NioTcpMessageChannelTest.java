@@ -0,0 +1,342 @@
+package gov2.nist.javax2.sip.stack;
+
+import gov2.nist.core.net.DefaultNetworkLayer;
+import gov2.nist.core.net.NetworkLayer;
+import gov2.nist.javax2.sip.SipStackImpl;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Properties;
+import java.util.Vector;
+
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax2.sip.PeerUnavailableException;
+
+import junit.framework.TestCase;
+
+/**
+ * NIO TCP message framing tests
+ */
+public class NioTcpMessageChannelTest extends TestCase {
+	private static final String OPTIONS =
+			"OPTIONS sip:bob@biloxi.example.com SIP/2.0\r\n" +
+			"Via: SIP/2.0/TCP pc33.atlanta.example.com;branch=z9hG4bK776asdhds\r\n" +
+			"Call-ID: a84b4c76e66710@pc33.atlanta.example.com\r\n" +
+			"CSeq: 1 OPTIONS\r\n" +
+			"Content-Length: 0\r\n" +
+			"\r\n";
+
+	private static final String MESSAGE_HEADERS =
+			"MESSAGE sip:bob@biloxi.example.com SIP/2.0\r\n" +
+			"Via: SIP/2.0/TCP pc33.atlanta.example.com;branch=z9hG4bK776asdhdt\r\n" +
+			"Call-ID: a84b4c76e66711@pc33.atlanta.example.com\r\n" +
+			"CSeq: 2 MESSAGE\r\n" +
+			"Content-Type: text/plain\r\n";
+
+	private SipStackImpl stack;
+
+	private NioTcpMessageProcessor processor;
+
+	private TestChannel channel;
+
+	protected void setUp() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("javax2.sip.STACK_NAME", "test");
+		stack = new SipStackImpl(properties);
+		processor = new NioTcpMessageProcessor(InetAddress.getByName("127.0.0.1"), stack, 5060, 1);
+		channel = new TestChannel(stack, processor);
+	}
+
+	protected void tearDown() {
+		stack.stopStack();
+	}
+
+	public void testSingleReads() throws IOException {
+		String message = createMessage("Hello");
+		receive(OPTIONS + message, Integer.MAX_VALUE);
+		assertEquals(2, channel.messages.size());
+		assertEquals(OPTIONS, channel.getMessage(0));
+		assertEquals(message, channel.getMessage(1));
+		assertFalse(channel.isHeadersOnly(1));
+	}
+
+	public void testKeepAlives() throws IOException {
+		String message = createMessage("Hello");
+		receive("\r\n\r\n" + OPTIONS + "\r\n\r\n\r\n" + message + "\r\n\r\n", Integer.MAX_VALUE);
+		receive("\r\n\r\n", 1);
+		assertEquals(2, channel.messages.size());
+		assertEquals(OPTIONS, channel.getMessage(0));
+		assertEquals(message, channel.getMessage(1));
+
+		// The keep-alives received alone are not messages
+		receive("\r\n\r\n\r\n", Integer.MAX_VALUE);
+		assertEquals(2, channel.messages.size());
+	}
+
+	public void testSplitHeaders() throws IOException {
+		String message = createMessage("Hello world");
+		String stream = OPTIONS + "\r\n" + message + OPTIONS;
+		for (int step = 1; step <= 7; step++) {
+			channel = new TestChannel(stack, processor);
+			receive(stream, step);
+			assertEquals(3, channel.messages.size());
+			assertEquals(OPTIONS, channel.getMessage(0));
+			assertEquals(message, channel.getMessage(1));
+			assertEquals(OPTIONS, channel.getMessage(2));
+		}
+	}
+
+	public void testCompactContentLength() throws IOException {
+		String message = "INFO sip:bob@biloxi.example.com SIP/2.0\r\nl: 4\r\n\r\nabcd";
+		receive(message + OPTIONS, 3);
+		assertEquals(2, channel.messages.size());
+		assertEquals(message, channel.getMessage(0));
+		assertEquals(OPTIONS, channel.getMessage(1));
+	}
+
+	public void testLargeBody() throws IOException {
+		String message = createMessage(createBody(50000));
+		receive(message + OPTIONS, 1000);
+		assertEquals(2, channel.messages.size());
+		assertEquals(message, channel.getMessage(0));
+		assertEquals(OPTIONS, channel.getMessage(1));
+	}
+
+	public void testOversizedBody() throws IOException {
+		stack.maxMessageSize = 1000;
+		String body = createBody(5000);
+		String message = createMessage(body);
+		String headers = message.substring(0, message.length() - body.length());
+		receive(message + OPTIONS, 700);
+
+		// The headers only are processed, the body is skipped
+		assertEquals(2, channel.messages.size());
+		assertEquals(headers, channel.getMessage(0));
+		assertTrue(channel.isHeadersOnly(0));
+		assertEquals(OPTIONS, channel.getMessage(1));
+		assertFalse(channel.isHeadersOnly(1));
+	}
+
+	public void testHeadersTooLong() throws IOException {
+		StringBuffer headers = new StringBuffer(MESSAGE_HEADERS);
+		while (headers.length() < 100 * 1024) {
+			headers.append("Subject: 0123456789\r\n");
+		}
+		try {
+			receive(headers.toString(), 4096);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testBadContentLength() throws IOException {
+		try {
+			receive("INFO sip:bob@biloxi.example.com SIP/2.0\r\nContent-Length: x\r\n\r\n",
+					Integer.MAX_VALUE);
+			fail("IOException expected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	public void testContentLengthTooLarge() throws IOException {
+		// Neither an overflow of the message length nor a huge allocation
+		String[] lengths = { "2147483647", "2000000000" };
+		for (int i = 0; i < lengths.length; i++) {
+			channel = new TestChannel(stack, processor);
+			try {
+				receive(MESSAGE_HEADERS + "Content-Length: " + lengths[i] + "\r\n\r\nHello",
+						Integer.MAX_VALUE);
+				fail("IOException expected");
+			} catch (IOException e) {
+				// Expected
+			}
+			assertEquals(0, channel.messages.size());
+		}
+	}
+
+	public void testReadTimeout() throws Exception {
+		stack.readTimeout = 100;
+
+		// A complete message doesn't start the timer
+		receive(OPTIONS, 10);
+		Thread.sleep(300);
+		assertFalse(channel.closed);
+
+		// The headers of the next message are not all received in time
+		receive(MESSAGE_HEADERS, Integer.MAX_VALUE);
+		Thread.sleep(300);
+		assertTrue(channel.closed);
+	}
+
+	public void testSlowBody() throws Exception {
+		stack.readTimeout = 100;
+		String body = createBody(2000);
+		String message = createMessage(body);
+		String headers = message.substring(0, message.length() - body.length());
+		receive(headers, Integer.MAX_VALUE);
+
+		// Each read of the body restarts the timer
+		for (int i = 0; i < body.length(); i += 500) {
+			Thread.sleep(60);
+			receive(body.substring(i, i + 500), Integer.MAX_VALUE);
+		}
+		Thread.sleep(300);
+		assertFalse(channel.closed);
+		assertEquals(message, channel.getMessage(0));
+	}
+
+	public void testCustomNetworkLayerRejected() {
+		Properties properties = new Properties();
+		properties.setProperty("javax2.sip.STACK_NAME", "nio");
+		properties.setProperty("gov2.nist.javax2.sip.TCP_MESSAGE_PROCESSOR", "nio");
+		properties.setProperty("gov2.nist.javax2.sip.NETWORK_LAYER",
+				TestNetworkLayer.class.getName());
+		try {
+			new SipStackImpl(properties);
+			fail("PeerUnavailableException expected");
+		} catch (PeerUnavailableException e) {
+			assertTrue(e.getMessage().indexOf("TCP_MESSAGE_PROCESSOR") >= 0);
+		}
+	}
+
+	private void receive(String stream, int step) throws IOException {
+		SlowChannel socket = new SlowChannel(stream.getBytes(), step);
+		while (channel.readData(socket)) {
+		}
+	}
+
+	private static String createMessage(String body) {
+		return MESSAGE_HEADERS + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+	}
+
+	private static String createBody(int length) {
+		StringBuffer body = new StringBuffer(length);
+		while (body.length() < length) {
+			body.append("0123456789\r\n");
+		}
+		body.setLength(length);
+		return body.toString();
+	}
+
+	/**
+	 * Channel recording the framed messages instead of processing them
+	 */
+	private static class TestChannel extends NioTcpMessageChannel {
+		private Vector<byte[]> messages = new Vector<byte[]>();
+
+		private Vector<Boolean> headersOnly = new Vector<Boolean>();
+
+		private volatile boolean closed = false;
+
+		public TestChannel(SIPTransactionStack stack, NioTcpMessageProcessor processor)
+				throws IOException {
+			super(InetAddress.getByName("127.0.0.1"), 5061, stack, processor);
+		}
+
+		void dispatch(byte[] message, boolean headersOnly) {
+			this.messages.addElement(message);
+			this.headersOnly.addElement(Boolean.valueOf(headersOnly));
+		}
+
+		public void close() {
+			closed = true;
+		}
+
+		public String getMessage(int index) {
+			return new String(messages.elementAt(index));
+		}
+
+		public boolean isHeadersOnly(int index) {
+			return headersOnly.elementAt(index).booleanValue();
+		}
+	}
+
+	/**
+	 * Custom network layer, delegating to the default one
+	 */
+	public static class TestNetworkLayer implements NetworkLayer {
+		private NetworkLayer layer = DefaultNetworkLayer.SINGLETON;
+
+		public ServerSocket createServerSocket(int port, int backlog, InetAddress bindAddress)
+				throws IOException {
+			return layer.createServerSocket(port, backlog, bindAddress);
+		}
+
+		public SSLServerSocket createSSLServerSocket(int port, int backlog, InetAddress bindAddress)
+				throws IOException {
+			return layer.createSSLServerSocket(port, backlog, bindAddress);
+		}
+
+		public Socket createSocket(InetAddress address, int port) throws IOException {
+			return layer.createSocket(address, port);
+		}
+
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress)
+				throws IOException {
+			return layer.createSocket(address, port, localAddress);
+		}
+
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress,
+				int localPort) throws IOException {
+			return layer.createSocket(address, port, localAddress, localPort);
+		}
+
+		public SSLSocket createSSLSocket(InetAddress address, int port) throws IOException {
+			return layer.createSSLSocket(address, port);
+		}
+
+		public SSLSocket createSSLSocket(InetAddress address, int port, InetAddress localAddress)
+				throws IOException {
+			return layer.createSSLSocket(address, port, localAddress);
+		}
+
+		public DatagramSocket createDatagramSocket() throws SocketException {
+			return layer.createDatagramSocket();
+		}
+
+		public DatagramSocket createDatagramSocket(int port, InetAddress laddr)
+				throws SocketException {
+			return layer.createDatagramSocket(port, laddr);
+		}
+	}
+
+	/**
+	 * Channel returning a few bytes per read
+	 */
+	private static class SlowChannel implements ReadableByteChannel {
+		private byte[] data;
+		private int step;
+		private int index = 0;
+
+		public SlowChannel(byte[] data, int step) {
+			this.data = data;
+			this.step = step;
+		}
+
+		public int read(ByteBuffer dst) {
+			if (index >= data.length) {
+				return -1;
+			}
+			int n = Math.min(Math.min(dst.remaining(), step), data.length - index);
+			dst.put(data, index, n);
+			index += n;
+			return n;
+		}
+
+		public boolean isOpen() {
+			return true;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package gov2.nist.javax2.sip.stack;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * SIP timer wheel tests
+ */
+public class SIPTimerWheelTest extends TestCase {
+	/**
+	 * Duration of a revolution of the wheel (ms)
+	 */
+	private static final long REVOLUTION = 512 * SIPTimerWheel.TICK_DURATION;
+
+	private SIPTimerWheel wheel;
+
+	protected void setUp() {
+		wheel = new SIPTimerWheel(SIPTimerWheel.DEFAULT_THREAD_COUNT);
+	}
+
+	protected void tearDown() {
+		wheel.stop();
+	}
+
+	public void testNeverEarly() throws InterruptedException {
+		int count = 200;
+		CountDownLatch latch = new CountDownLatch(count);
+		TestTimeout[] timeouts = new TestTimeout[count];
+		long now = SIPTimerWheel.currentTime();
+		for (int i = 0; i < count; i++) {
+			// Deadlines in the past, on and between the ticks
+			timeouts[i] = new TestTimeout(latch);
+			timeouts[i].deadline = now + (i * 7) % 400 - 20;
+			wheel.schedule(timeouts[i], timeouts[i].deadline);
+		}
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < count; i++) {
+			assertEquals(1, timeouts[i].runs);
+			assertTrue("Timeout " + i + " run " + (timeouts[i].deadline - timeouts[i].runTime) + " ms early",
+					timeouts[i].runTime >= timeouts[i].deadline);
+		}
+		assertEquals(0, wheel.getScheduledCount());
+		assertEquals(count, wheel.getExpiredCount());
+	}
+
+	public void testCancel() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		TestTimeout cancelled = new TestTimeout(null);
+		TestTimeout other = new TestTimeout(latch);
+		long now = SIPTimerWheel.currentTime();
+		wheel.schedule(cancelled, now + 50);
+		wheel.schedule(other, now + 100);
+		assertEquals(2, wheel.getScheduledCount());
+		assertTrue(wheel.cancel(cancelled));
+		assertFalse(wheel.cancel(cancelled));
+		assertEquals(1, wheel.getScheduledCount());
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(0, cancelled.runs);
+		assertEquals(1, other.runs);
+		assertFalse(wheel.cancel(other));
+	}
+
+	public void testReschedule() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(1);
+		TestTimeout timeout = new TestTimeout(latch);
+		long now = SIPTimerWheel.currentTime();
+		wheel.schedule(timeout, now + 30);
+		timeout.deadline = now + 200;
+		wheel.schedule(timeout, timeout.deadline);
+		assertEquals(1, wheel.getScheduledCount());
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(timeout.runTime >= timeout.deadline);
+		Thread.sleep(100);
+		assertEquals(1, timeout.runs);
+	}
+
+	public void testSeveralRounds() throws InterruptedException {
+		CountDownLatch shortLatch = new CountDownLatch(1);
+		CountDownLatch longLatch = new CountDownLatch(1);
+		TestTimeout shortTimeout = new TestTimeout(shortLatch);
+		TestTimeout longTimeout = new TestTimeout(longLatch);
+		long now = SIPTimerWheel.currentTime();
+
+		// Both timeouts fall in the same bucket, the long one a revolution later
+		shortTimeout.deadline = now + 100;
+		longTimeout.deadline = shortTimeout.deadline + REVOLUTION;
+		wheel.schedule(shortTimeout, shortTimeout.deadline);
+		wheel.schedule(longTimeout, longTimeout.deadline);
+
+		assertTrue(shortLatch.await(5, TimeUnit.SECONDS));
+		assertEquals(0, longTimeout.runs);
+		assertEquals(1, wheel.getScheduledCount());
+
+		assertTrue(longLatch.await(REVOLUTION + 5000, TimeUnit.MILLISECONDS));
+		assertEquals(1, longTimeout.runs);
+		assertTrue(longTimeout.runTime >= longTimeout.deadline);
+		assertTrue(longTimeout.runTime - longTimeout.deadline < REVOLUTION);
+	}
+
+	public void testStop() throws InterruptedException {
+		TestTimeout timeout = new TestTimeout(null);
+		wheel.schedule(timeout, SIPTimerWheel.currentTime() + 50);
+		wheel.stop();
+		assertEquals(0, wheel.getScheduledCount());
+		Thread.sleep(150);
+		assertEquals(0, timeout.runs);
+	}
+
+	/**
+	 * Timeout recording its runs
+	 */
+	private static class TestTimeout extends SIPTimerWheel.Timeout {
+		private CountDownLatch latch;
+
+		private volatile long deadline;
+
+		private volatile long runTime = -1;
+
+		private volatile int runs = 0;
+
+		public TestTimeout(CountDownLatch latch) {
+			this.latch = latch;
+		}
+
+		protected void runTask() {
+			runTime = SIPTimerWheel.currentTime();
+			runs++;
+			if (latch != null) {
+				latch.countDown();
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package gov2.nist.javax2.sip.stack;
+
+import gov2.nist.javax2.sip.SipStackImpl;
+import gov2.nist.javax2.sip.parser.StringMsgParser;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax2.sip.ClientTransaction;
+import javax2.sip.DialogTerminatedEvent;
+import javax2.sip.IOExceptionEvent;
+import javax2.sip.ListeningPoint;
+import javax2.sip.RequestEvent;
+import javax2.sip.ResponseEvent;
+import javax2.sip.SipListener;
+import javax2.sip.SipProvider;
+import javax2.sip.TimeoutEvent;
+import javax2.sip.TransactionTerminatedEvent;
+import javax2.sip.message.Request;
+
+import android.os.Process;
+
+import junit.framework.TestCase;
+
+/**
+ * Transaction timer stress test: drift of the transaction timers and CPU used
+ * by the stack with 20,000 concurrent client transactions retransmitting
+ * their requests until they time out
+ */
+public class TransactionTimerStressTest extends TestCase {
+	private static final String HOST = "127.0.0.1";
+
+	/**
+	 * Number of concurrent transactions
+	 */
+	private static final int TRANSACTIONS = 20000;
+
+	/**
+	 * Retransmission timer T1 of the transactions (ms), the transactions
+	 * timing out after 64 * T1
+	 */
+	private static final int T1 = 50;
+
+	/**
+	 * Maximum drift of a transaction timer (ms)
+	 */
+	private static final long MAX_DRIFT = 1000;
+
+	private SipStackImpl stack;
+
+	private SipProvider provider;
+
+	private int port;
+
+	/**
+	 * Socket of the remote which never answers
+	 */
+	private DatagramSocket remote;
+
+	private CountDownLatch timedOut = new CountDownLatch(TRANSACTIONS);
+
+	protected void setUp() throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("javax2.sip.STACK_NAME", "stress");
+		stack = new SipStackImpl(properties);
+		port = getFreePort();
+		ListeningPoint listeningPoint = stack.createListeningPoint(HOST, port, ListeningPoint.UDP);
+		provider = stack.createSipProvider(listeningPoint);
+		provider.addSipListener(new TimeoutListener());
+		stack.start();
+		remote = new DatagramSocket(0, InetAddress.getByName(HOST));
+	}
+
+	protected void tearDown() {
+		stack.stopStack();
+		remote.close();
+	}
+
+	public void testConcurrentTransactions() throws Exception {
+		long cpuStart = Process.getElapsedCpuTime();
+		long start = System.nanoTime();
+		for (int i = 0; i < TRANSACTIONS; i++) {
+			ClientTransaction transaction = provider.getNewClientTransaction(createRequest(i));
+			((SIPTransaction)transaction).setRetransmitTimer(T1);
+			transaction.sendRequest();
+		}
+		long sendDuration = System.nanoTime() - start;
+		int scheduled = stack.getScheduledTransactionTimerCount();
+
+		assertTrue(timedOut.await(64 * T1 + 30000, TimeUnit.MILLISECONDS));
+		long duration = System.nanoTime() - start;
+		long cpu = Process.getElapsedCpuTime() - cpuStart;
+
+		System.out.println(TRANSACTIONS + " transactions started in " + (sendDuration / 1000000)
+				+ " ms, " + scheduled + " timers scheduled");
+		System.out.println(stack.getExpiredTransactionTimerCount() + " timers expired in "
+				+ (duration / 1000000) + " ms, drift: average "
+				+ stack.getAverageTransactionTimerDrift() + " ms, max "
+				+ stack.getMaxTransactionTimerDrift() + " ms");
+		System.out.println("CPU: " + cpu + " ms, i.e. " + (cpu * 100 * 1000000 / duration)
+				+ "% of a core");
+
+		// The requests are sent at T1, 3 * T1, 7 * T1, ... until the timeout
+		assertTrue(stack.getExpiredTransactionTimerCount() >= 6L * TRANSACTIONS);
+		assertTrue("Max drift " + stack.getMaxTransactionTimerDrift() + " ms",
+				stack.getMaxTransactionTimerDrift() <= MAX_DRIFT);
+	}
+
+	private Request createRequest(int index) throws Exception {
+		String remoteHost = HOST + ":" + remote.getLocalPort();
+		return (Request)new StringMsgParser().parseSIPMessage(
+				("MESSAGE sip:stress@" + remoteHost + " SIP/2.0\r\n" +
+				"Via: SIP/2.0/UDP " + HOST + ":" + port + ";branch=z9hG4bK-stress-" + index + "\r\n" +
+				"Max-Forwards: 70\r\n" +
+				"From: <sip:client@" + HOST + ">;tag=" + index + "\r\n" +
+				"To: <sip:stress@" + remoteHost + ">\r\n" +
+				"Call-ID: stress-" + index + "@" + HOST + "\r\n" +
+				"CSeq: 1 MESSAGE\r\n" +
+				"Content-Type: text/plain\r\n" +
+				"Content-Length: 5\r\n" +
+				"\r\n" +
+				"Hello").getBytes());
+	}
+
+	private static int getFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Listener counting the timed out transactions
+	 */
+	private class TimeoutListener implements SipListener {
+		public void processRequest(RequestEvent requestEvent) {
+		}
+
+		public void processResponse(ResponseEvent responseEvent) {
+		}
+
+		public void processTimeout(TimeoutEvent timeoutEvent) {
+			timedOut.countDown();
+		}
+
+		public void processIOException(IOExceptionEvent exceptionEvent) {
+		}
+
+		public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {
+		}
+
+		public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {
+		}
+	}
+}
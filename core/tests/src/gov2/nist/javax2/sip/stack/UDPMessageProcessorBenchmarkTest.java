@@ -0,0 +1,335 @@
+package gov2.nist.javax2.sip.stack;
+
+import gov2.nist.javax2.sip.SipStackImpl;
+import gov2.nist.javax2.sip.message.MessageFactoryImpl;
+import gov2.nist.javax2.sip.parser.StringMsgParser;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax2.sip.DialogTerminatedEvent;
+import javax2.sip.IOExceptionEvent;
+import javax2.sip.ListeningPoint;
+import javax2.sip.RequestEvent;
+import javax2.sip.ResponseEvent;
+import javax2.sip.SipListener;
+import javax2.sip.SipProvider;
+import javax2.sip.TimeoutEvent;
+import javax2.sip.TransactionTerminatedEvent;
+
+import junit.framework.TestCase;
+
+/**
+ * UDP message processor benchmark: messages per second and latency of
+ * OPTIONS requests answered by the stack over the loopback, with the packet
+ * ring and with a new thread per datagram as before
+ */
+public class UDPMessageProcessorBenchmarkTest extends TestCase {
+	private static final String HOST = "127.0.0.1";
+
+	/**
+	 * Number of clients sending requests at the same time
+	 */
+	private static final int CLIENTS = 8;
+
+	/**
+	 * Number of requests sent by each client
+	 */
+	private static final int REQUESTS = 5000;
+
+	/**
+	 * Number of requests per client before the timed run
+	 */
+	private static final int WARM_UP_REQUESTS = 1000;
+
+	/**
+	 * Time to wait for a response (ms)
+	 */
+	private static final int RESPONSE_TIMEOUT = 2000;
+
+	private SipStackImpl stack;
+
+	private int port;
+
+	private AtomicInteger lost = new AtomicInteger();
+
+	protected void tearDown() {
+		if (stack != null) {
+			stack.stopStack();
+		}
+	}
+
+	public void testLoopback() throws Exception {
+		// Packet ring drained by the channel pool
+		startStack(false);
+		measure("Packet ring");
+		assertTrue("Too many lost requests: " + lost.get(), lost.get() < CLIENTS * REQUESTS / 100);
+		stack.stopStack();
+
+		// Same load through the processor as it was before the packet ring
+		startStack(true);
+		measure("Thread per datagram");
+	}
+
+	/**
+	 * Start a stack answering the OPTIONS on a UDP listening point
+	 *
+	 * @param threadPerDatagram Process each datagram in a new thread, as
+	 *        before the packet ring
+	 */
+	private void startStack(final boolean threadPerDatagram) throws Exception {
+		Properties properties = new Properties();
+		properties.setProperty("javax2.sip.STACK_NAME", "benchmark");
+		if (!threadPerDatagram) {
+			properties.setProperty("gov2.nist.javax2.sip.THREAD_POOL_SIZE", "4");
+		}
+		stack = new SipStackImpl(properties) {
+			protected MessageProcessor createMessageProcessor(InetAddress ipAddress, int port,
+					String transport) throws IOException {
+				if (threadPerDatagram && transport.equalsIgnoreCase("udp")) {
+					UDPMessageProcessor processor = new ThreadPerDatagramProcessor(ipAddress, this, port);
+					addMessageProcessor(processor);
+					((SIPTransactionStack)this).udpFlag = true;
+					return processor;
+				}
+				return super.createMessageProcessor(ipAddress, port, transport);
+			}
+		};
+		port = getFreePort();
+		ListeningPoint listeningPoint = stack.createListeningPoint(HOST, port, ListeningPoint.UDP);
+		SipProvider provider = stack.createSipProvider(listeningPoint);
+		provider.addSipListener(new Responder(provider));
+		stack.start();
+	}
+
+	/**
+	 * Run the load after a warm up and report the throughput and latency
+	 *
+	 * @param name Name of the processor
+	 */
+	private void measure(String name) throws Exception {
+		run(WARM_UP_REQUESTS);
+
+		long[] latencies = new long[CLIENTS * REQUESTS];
+		long start = System.nanoTime();
+		int count = run(REQUESTS, latencies);
+		long duration = System.nanoTime() - start;
+
+		Arrays.sort(latencies, 0, count);
+		System.out.println(name + ": " + count + " requests answered by " + CLIENTS + " clients in "
+				+ (duration / 1000000) + " ms: " + (count * 1000000000L / duration) + " msgs/s, "
+				+ lost.get() + " lost");
+		System.out.println(name + ": latency median " + (latencies[count / 2] / 1000) + " us, p99 "
+				+ (latencies[(int)(count * 0.99)] / 1000) + " us");
+	}
+
+	private int run(int requests) throws Exception {
+		return run(requests, new long[CLIENTS * requests]);
+	}
+
+	/**
+	 * Run the clients and collect the latencies of the answered requests
+	 *
+	 * @return Number of latencies
+	 */
+	private int run(int requests, long[] latencies) throws Exception {
+		lost.set(0);
+		Client[] clients = new Client[CLIENTS];
+		for (int i = 0; i < CLIENTS; i++) {
+			clients[i] = new Client(i, requests);
+			clients[i].start();
+		}
+		int count = 0;
+		for (int i = 0; i < CLIENTS; i++) {
+			clients[i].join();
+			if (clients[i].failure != null) {
+				throw clients[i].failure;
+			}
+			System.arraycopy(clients[i].latencies, 0, latencies, count, clients[i].count);
+			count += clients[i].count;
+		}
+		return count;
+	}
+
+	private static int getFreePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Client sending a request and waiting for its response
+	 */
+	private class Client extends Thread {
+		private int index;
+
+		private int requests;
+
+		private long[] latencies;
+
+		private int count = 0;
+
+		private Exception failure = null;
+
+		public Client(int index, int requests) {
+			this.index = index;
+			this.requests = requests;
+			this.latencies = new long[requests];
+		}
+
+		public void run() {
+			try {
+				DatagramSocket socket = new DatagramSocket(0, InetAddress.getByName(HOST));
+				try {
+					socket.setSoTimeout(RESPONSE_TIMEOUT);
+					InetAddress address = InetAddress.getByName(HOST);
+					byte[] buffer = new byte[4096];
+					DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+					for (int i = 0; i < requests; i++) {
+						byte[] request = createRequest(socket.getLocalPort(), i);
+						long start = System.nanoTime();
+						socket.send(new DatagramPacket(request, request.length, address, port));
+						if (receive(socket, response, i)) {
+							latencies[count++] = System.nanoTime() - start;
+						} else {
+							lost.incrementAndGet();
+						}
+					}
+				} finally {
+					socket.close();
+				}
+			} catch (Exception e) {
+				failure = e;
+			}
+		}
+
+		/**
+		 * Receive the response of a request, the late responses of the
+		 * previous requests are skipped
+		 */
+		private boolean receive(DatagramSocket socket, DatagramPacket response, int request)
+				throws IOException {
+			String callId = "Call-ID: " + getCallId(request) + "\r\n";
+			try {
+				while (true) {
+					response.setLength(response.getData().length);
+					socket.receive(response);
+					String message = new String(response.getData(), 0, response.getLength());
+					if (message.indexOf(callId) != -1) {
+						if (!message.startsWith("SIP/2.0 200")) {
+							throw new IOException("Unexpected response: " + message);
+						}
+						return true;
+					}
+				}
+			} catch (SocketTimeoutException e) {
+				return false;
+			}
+		}
+
+		private String getCallId(int request) {
+			return "bench-" + index + "-" + request + "@" + HOST;
+		}
+
+		private byte[] createRequest(int localPort, int request) {
+			return ("OPTIONS sip:bench@" + HOST + ":" + port + " SIP/2.0\r\n" +
+					"Via: SIP/2.0/UDP " + HOST + ":" + localPort + ";branch=z9hG4bK-" + index + "-" + request + "\r\n" +
+					"Max-Forwards: 70\r\n" +
+					"From: <sip:client" + index + "@" + HOST + ">;tag=" + index + "\r\n" +
+					"To: <sip:bench@" + HOST + ">\r\n" +
+					"Call-ID: " + getCallId(request) + "\r\n" +
+					"CSeq: 1 OPTIONS\r\n" +
+					"Content-Length: 0\r\n" +
+					"\r\n").getBytes();
+		}
+	}
+
+	/**
+	 * UDP message processor as before the packet ring: a buffer is allocated
+	 * for each datagram, which is processed by a new thread
+	 */
+	private static class ThreadPerDatagramProcessor extends UDPMessageProcessor {
+		public ThreadPerDatagramProcessor(InetAddress ipAddress, SIPTransactionStack sipStack, int port)
+				throws IOException {
+			super(ipAddress, sipStack, port);
+		}
+
+		public void run() {
+			while (isRunning) {
+				try {
+					int bufsize = sock.getReceiveBufferSize();
+					byte[] message = new byte[bufsize];
+					final DatagramPacket packet = new DatagramPacket(message, bufsize);
+					sock.receive(packet);
+
+					final UDPMessageChannel channel = new UDPMessageChannel(packet.getAddress(),
+							packet.getPort(), sipStack, this);
+					Thread thread = new Thread() {
+						public void run() {
+							channel.myParser = new StringMsgParser();
+							channel.myParser.setParseExceptionListener(channel);
+							try {
+								channel.processIncomingDataPacket(packet);
+							} catch (Exception e) {
+								// The request is counted as lost by its client
+							}
+						}
+					};
+					thread.setDaemon(true);
+					thread.setName("UDPMessageChannelThread");
+					thread.start();
+				} catch (SocketTimeoutException e) {
+					// Nothing to do
+				} catch (IOException e) {
+					isRunning = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Listener answering the requests without transaction
+	 */
+	private static class Responder implements SipListener {
+		private SipProvider provider;
+
+		private MessageFactoryImpl messageFactory = new MessageFactoryImpl();
+
+		public Responder(SipProvider provider) {
+			this.provider = provider;
+		}
+
+		public void processRequest(RequestEvent requestEvent) {
+			try {
+				provider.sendResponse(messageFactory.createResponse(200, requestEvent.getRequest()));
+			} catch (Exception e) {
+				// The request is counted as lost by its client
+			}
+		}
+
+		public void processResponse(ResponseEvent responseEvent) {
+		}
+
+		public void processTimeout(TimeoutEvent timeoutEvent) {
+		}
+
+		public void processIOException(IOExceptionEvent exceptionEvent) {
+		}
+
+		public void processTransactionTerminated(TransactionTerminatedEvent transactionTerminatedEvent) {
+		}
+
+		public void processDialogTerminated(DialogTerminatedEvent dialogTerminatedEvent) {
+		}
+	}
+}